@@ -1400,19 +1400,38 @@ public void setTimeDuration(String name, long value, TimeUnit unit) {
    *         a number
    */
   public long getTimeDuration(String name, long defaultValue, TimeUnit unit) {
+    return getTimeDuration(name, defaultValue, unit, unit);
+  }
+
+  /**
+   * Return time duration in the given time unit, like
+   * {@link #getTimeDuration(String, long, TimeUnit)}, but with a separate unit
+   * for the properties without a suffix. This allows a property that used to
+   * be a number of seconds to also be set in a finer unit.
+   * @param name Property name
+   * @param defaultValue Value returned if no mapping exists, in defaultUnit.
+   * @param defaultUnit Unit of the default value, and of the stored property
+   *        if it has no unit.
+   * @param returnUnit Unit to convert the stored property to.
+   * @throws NumberFormatException If the property stripped of its unit is not
+   *         a number
+   */
+  public long getTimeDuration(String name, long defaultValue,
+      TimeUnit defaultUnit, TimeUnit returnUnit) {
     String vStr = get(name);
     if (null == vStr) {
-      return defaultValue;
+      return returnUnit.convert(defaultValue, defaultUnit);
     }
     vStr = vStr.trim();
     ParsedTimeDuration vUnit = ParsedTimeDuration.unitFor(vStr);
     if (null == vUnit) {
-      LOG.warn("No unit for " + name + "(" + vStr + ") assuming " + unit);
-      vUnit = ParsedTimeDuration.unitFor(unit);
+      LOG.warn("No unit for " + name + "(" + vStr + ") assuming " +
+          defaultUnit);
+      vUnit = ParsedTimeDuration.unitFor(defaultUnit);
     } else {
       vStr = vStr.substring(0, vStr.lastIndexOf(vUnit.suffix()));
     }
-    return unit.convert(Long.parseLong(vStr), vUnit.unit());
+    return returnUnit.convert(Long.parseLong(vStr), vUnit.unit());
   }
 
   /**
@@ -0,0 +1,42 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs;
+
+import java.io.IOException;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public interface CanSetPrefetch {
+  /**
+   * Set how far ahead of a sequential reader this stream fetches data.
+   *
+   * @param blocks        The number of blocks past the one being read
+   *                      to fetch in the background.  0 disables
+   *                      prefetching; null means to use the default.
+   * @throws IOException  If there was an error changing the prefetch
+   *                      setting.
+   *         UnsupportedOperationException  If this stream doesn't support
+   *                                        prefetching.
+   */
+  public void setPrefetch(Integer blocks)
+    throws IOException, UnsupportedOperationException;
+}
@@ -0,0 +1,110 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Adjacent {@link FileRange}s of a vectored read that are read together
+ * as a single range.
+ */
+@InterfaceAudience.LimitedPrivate({"HDFS"})
+@InterfaceStability.Unstable
+public class CombinedFileRange {
+  private final long offset;
+  private long end;
+  private final List<FileRange> ranges = new ArrayList<FileRange>();
+  private final List<SettableFuture<ByteBuffer>> futures =
+      new ArrayList<SettableFuture<ByteBuffer>>();
+
+  CombinedFileRange(FileRange first, SettableFuture<ByteBuffer> future) {
+    this.offset = first.getOffset();
+    this.end = offset;
+    add(first, future);
+  }
+
+  void add(FileRange range, SettableFuture<ByteBuffer> future) {
+    ranges.add(range);
+    futures.add(future);
+    end = Math.max(end, range.getOffset() + range.getLength());
+  }
+
+  long getEnd() {
+    return end;
+  }
+
+  /** @return the offset of the first byte to read. */
+  public long getOffset() {
+    return offset;
+  }
+
+  /** @return the number of bytes to read, gaps included. */
+  public int getLength() {
+    return (int) (end - offset);
+  }
+
+  /** @return the ranges read through this one. */
+  public List<FileRange> getRanges() {
+    return Collections.unmodifiableList(ranges);
+  }
+
+  /**
+   * Hand each range its part of the data read for this combined range.
+   *
+   * @param data holds getLength() bytes starting at getOffset()
+   */
+  public void complete(byte[] data) {
+    for (int i = 0; i < ranges.size(); i++) {
+      FileRange range = ranges.get(i);
+      ByteBuffer slice = ByteBuffer.wrap(data,
+          (int) (range.getOffset() - offset), range.getLength()).slice();
+      futures.get(i).set(slice);
+    }
+  }
+
+  /** Fail the reads of all the ranges. */
+  public void fail(Throwable t) {
+    for (SettableFuture<ByteBuffer> future : futures) {
+      future.setException(t);
+    }
+  }
+
+  /** Split back into one combined range per range. */
+  public List<CombinedFileRange> split() {
+    List<CombinedFileRange> singles =
+        new ArrayList<CombinedFileRange>(ranges.size());
+    for (int i = 0; i < ranges.size(); i++) {
+      singles.add(new CombinedFileRange(ranges.get(i), futures.get(i)));
+    }
+    return singles;
+  }
+
+  @Override
+  public String toString() {
+    return "range[" + offset + "," + end + ") of " + ranges.size()
+        + " ranges";
+  }
+}
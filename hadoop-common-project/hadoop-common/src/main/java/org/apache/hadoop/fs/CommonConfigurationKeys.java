@@ -58,12 +58,35 @@ public class CommonConfigurationKeys extends CommonConfigurationKeysPublic {
   /** Default value for IPC_SERVER_RPC_MAX_RESPONSE_SIZE_KEY */
   public static final int     IPC_SERVER_RPC_MAX_RESPONSE_SIZE_DEFAULT =
     1024*1024;
+  /** How long a deferred call may wait for its response, 0 for no limit */
+  public static final String IPC_SERVER_DEFERRED_RESPONSE_TIMEOUT_KEY =
+      "ipc.server.deferred-response.timeout.ms";
+  /** Default value for IPC_SERVER_DEFERRED_RESPONSE_TIMEOUT_KEY */
+  public static final long IPC_SERVER_DEFERRED_RESPONSE_TIMEOUT_DEFAULT = 0;
+  /** Serialize responses into pooled direct buffers */
+  public static final String IPC_SERVER_RESPONSE_BUFFER_POOL_ENABLED_KEY =
+      "ipc.server.response.buffer-pool.enabled";
+  /** Default value for IPC_SERVER_RESPONSE_BUFFER_POOL_ENABLED_KEY */
+  public static final boolean IPC_SERVER_RESPONSE_BUFFER_POOL_ENABLED_DEFAULT =
+      false;
+  /** Responses larger than this are not serialized into pooled buffers */
+  public static final String IPC_SERVER_RESPONSE_BUFFER_POOL_MAX_SIZE_KEY =
+      "ipc.server.response.buffer-pool.max-size";
+  /** Default value for IPC_SERVER_RESPONSE_BUFFER_POOL_MAX_SIZE_KEY */
+  public static final int IPC_SERVER_RESPONSE_BUFFER_POOL_MAX_SIZE_DEFAULT =
+      1024*1024;
   /** Number of threads in RPC server reading from the socket */
   public static final String  IPC_SERVER_RPC_READ_THREADS_KEY =
     "ipc.server.read.threadpool.size";
   /** Default value for IPC_SERVER_RPC_READ_THREADS_KEY */
   public static final int     IPC_SERVER_RPC_READ_THREADS_DEFAULT = 1;
   
+  /** Number of threads in RPC server accepting connections */
+  public static final String  IPC_SERVER_RPC_ACCEPT_THREADS_KEY =
+    "ipc.server.accept.threadpool.size";
+  /** Default value for IPC_SERVER_RPC_ACCEPT_THREADS_KEY */
+  public static final int     IPC_SERVER_RPC_ACCEPT_THREADS_DEFAULT = 1;
+
   /** Number of pending connections that may be queued per socket reader */
   public static final String IPC_SERVER_RPC_READ_CONNECTION_QUEUE_SIZE_KEY =
       "ipc.server.read.connection-queue.size";
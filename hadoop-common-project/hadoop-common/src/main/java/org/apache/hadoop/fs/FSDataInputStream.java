@@ -21,6 +21,7 @@
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.util.EnumSet;
+import java.util.List;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
@@ -35,7 +36,7 @@
 public class FSDataInputStream extends DataInputStream
     implements Seekable, PositionedReadable, Closeable, 
       ByteBufferReadable, HasFileDescriptor, CanSetDropBehind, CanSetReadahead,
-      HasEnhancedByteBufferAccess {
+      CanSetPrefetch, HasEnhancedByteBufferAccess, VectoredReadable {
   /**
    * Map ByteBuffers that we have handed out to readers to ByteBufferPool 
    * objects
@@ -117,6 +118,22 @@ public void readFully(long position, byte[] buffer)
     ((PositionedReadable)in).readFully(position, buffer, 0, buffer.length);
   }
   
+  /**
+   * Read the given ranges of the stream. See
+   * {@link VectoredReadable#readVectored(List)}.
+   *
+   * @param ranges the ranges to read; their futures are set on return
+   */
+  @Override
+  public void readVectored(List<? extends FileRange> ranges)
+    throws IOException {
+    if (in instanceof VectoredReadable) {
+      ((VectoredReadable)in).readVectored(ranges);
+    } else {
+      VectoredReadUtils.readVectored((PositionedReadable)in, ranges);
+    }
+  }
+
   /**
    * Seek to the given position on an alternate copy of the data.
    *
@@ -170,6 +187,17 @@ public void setReadahead(Long readahead)
     }
   }
 
+  @Override
+  public void setPrefetch(Integer blocks)
+      throws IOException, UnsupportedOperationException {
+    try {
+      ((CanSetPrefetch)in).setPrefetch(blocks);
+    } catch (ClassCastException e) {
+      throw new UnsupportedOperationException(
+          "this stream does not support prefetching.");
+    }
+  }
+
   @Override
   public void setDropBehind(Boolean dropBehind)
       throws IOException, UnsupportedOperationException {
@@ -19,6 +19,7 @@
 
 import java.io.*;
 import java.nio.ByteBuffer;
+import java.util.List;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
@@ -32,7 +33,7 @@
 @InterfaceAudience.LimitedPrivate({"HDFS"})
 @InterfaceStability.Unstable
 public abstract class FSInputStream extends InputStream
-    implements Seekable, PositionedReadable {
+    implements Seekable, PositionedReadable, VectoredReadable {
   /**
    * Seek to the given offset from the start of the file.
    * The next read() will be from that location.  Can't
@@ -88,4 +89,15 @@ public void readFully(long position, byte[] buffer)
     throws IOException {
     readFully(position, buffer, 0, buffer.length);
   }
+
+  /**
+   * Merge nearby ranges and read them with positioned reads in the
+   * calling thread. File systems that can read ranges in parallel should
+   * override this.
+   */
+  @Override
+  public void readVectored(List<? extends FileRange> ranges)
+    throws IOException {
+    VectoredReadUtils.readVectored(this, ranges);
+  }
 }
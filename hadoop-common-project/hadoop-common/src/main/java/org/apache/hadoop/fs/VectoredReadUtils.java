@@ -0,0 +1,168 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.hadoop.HadoopIllegalArgumentException;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Helpers for implementing {@link VectoredReadable}.
+ */
+@InterfaceAudience.LimitedPrivate({"HDFS"})
+@InterfaceStability.Unstable
+public final class VectoredReadUtils {
+  /**
+   * Ranges closer than this are read as one, since reading the gap costs
+   * less than another seek.
+   */
+  public static final int DEFAULT_MIN_SEEK_SIZE = 4 * 1024;
+  /** Ranges are not merged into reads longer than this. */
+  public static final int DEFAULT_MAX_MERGED_SIZE = 1024 * 1024;
+
+  private static final Comparator<FileRange> BY_OFFSET =
+      new Comparator<FileRange>() {
+    @Override
+    public int compare(FileRange a, FileRange b) {
+      return a.getOffset() < b.getOffset() ? -1 :
+          (a.getOffset() == b.getOffset() ? 0 : 1);
+    }
+  };
+
+  private VectoredReadUtils() {}
+
+  /**
+   * Sort the ranges by offset and check that they are valid and do not
+   * overlap.
+   *
+   * @return the sorted ranges
+   * @throws HadoopIllegalArgumentException if a range is invalid
+   */
+  public static List<FileRange> sortRanges(
+      List<? extends FileRange> ranges) {
+    List<FileRange> sorted = new ArrayList<FileRange>(ranges);
+    Collections.sort(sorted, BY_OFFSET);
+    FileRange prev = null;
+    for (FileRange range : sorted) {
+      if (range.getOffset() < 0 || range.getLength() < 0) {
+        throw new HadoopIllegalArgumentException("Invalid " + range);
+      }
+      if (prev != null &&
+          prev.getOffset() + prev.getLength() > range.getOffset()) {
+        throw new HadoopIllegalArgumentException("Overlapping ranges "
+            + prev + " and " + range);
+      }
+      prev = range;
+    }
+    return sorted;
+  }
+
+  /**
+   * Set a new future on each of the sorted ranges, and merge them into
+   * combined ranges.
+   *
+   * @param sorted      ranges sorted by {@link #sortRanges}
+   * @param minSeekSize ranges separated by at most this many bytes are
+   *                    merged
+   * @param maxSize     upper bound of a merged range, unless a single
+   *                    range is already longer
+   */
+  public static List<CombinedFileRange> mergeSortedRanges(
+      List<FileRange> sorted, int minSeekSize, int maxSize) {
+    List<CombinedFileRange> combined = new ArrayList<CombinedFileRange>();
+    CombinedFileRange current = null;
+    for (FileRange range : sorted) {
+      SettableFuture<ByteBuffer> future = SettableFuture.create();
+      range.setData(future);
+      long end = range.getOffset() + range.getLength();
+      if (current != null
+          && range.getOffset() - current.getEnd() <= minSeekSize
+          && end - current.getOffset() <= maxSize) {
+        current.add(range, future);
+      } else {
+        current = new CombinedFileRange(range, future);
+        combined.add(current);
+      }
+    }
+    return combined;
+  }
+
+  /**
+   * Read a combined range with positioned reads and complete its ranges.
+   * If a merged read fails, for instance because one of its ranges goes
+   * past the end of the file, each range is read again on its own so that
+   * only the bad ones fail.
+   */
+  public static void readCombinedRange(PositionedReadable stream,
+      CombinedFileRange range) {
+    byte[] data = new byte[range.getLength()];
+    try {
+      stream.readFully(range.getOffset(), data, 0, data.length);
+    } catch (IOException e) {
+      if (range.getRanges().size() > 1) {
+        for (CombinedFileRange single : range.split()) {
+          readCombinedRange(stream, single);
+        }
+      } else {
+        range.fail(e);
+      }
+      return;
+    } catch (RuntimeException e) {
+      range.fail(e);
+      return;
+    }
+    range.complete(data);
+  }
+
+  /**
+   * Vectored read through positioned reads, for streams with no better
+   * way to do it. Nearby ranges are merged, and the merged ranges are
+   * read one after the other in the calling thread, so all the futures
+   * are complete when this returns.
+   */
+  public static void readVectored(PositionedReadable stream,
+      List<? extends FileRange> ranges) {
+    for (CombinedFileRange range : mergeSortedRanges(sortRanges(ranges),
+        DEFAULT_MIN_SEEK_SIZE, DEFAULT_MAX_MERGED_SIZE)) {
+      readCombinedRange(stream, range);
+    }
+  }
+
+  /** Fail a single range that could not be read at all. */
+  public static void failRange(FileRange range, Throwable t) {
+    SettableFuture<ByteBuffer> future = SettableFuture.create();
+    future.setException(t);
+    range.setData(future);
+  }
+
+  /** The exception for a range that ends past the end of the file. */
+  public static EOFException pastEndOfFile(FileRange range, long fileLength) {
+    return new EOFException(range + " goes past the end of the file at "
+        + fileLength);
+  }
+}
@@ -0,0 +1,46 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+/**
+ * Implementers of this interface can read many ranges of a file in one
+ * call, merging nearby ranges and reading them in parallel where they can.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public interface VectoredReadable {
+  /**
+   * Start reading the given ranges. When the call returns, every range
+   * has a future set through {@link FileRange#setData}; the futures may
+   * complete later. A range that cannot be read, for instance because it
+   * goes past the end of the file, fails its own future.
+   * <p/>
+   * Ranges may be given in any order but must not overlap.
+   *
+   * @param ranges the ranges to read
+   * @throws IOException if the reads cannot be started
+   */
+  public void readVectored(List<? extends FileRange> ranges)
+      throws IOException;
+}
@@ -0,0 +1,146 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.io.erasurecode;
+
+import org.apache.hadoop.HadoopIllegalArgumentException;
+
+/**
+ * Arithmetic in GF(2^8), the field Reed-Solomon codes work in.
+ * Addition is XOR; multiplication goes through a full product table so
+ * that the coding loops do a single lookup per byte.
+ */
+final class GF256 {
+  /** x^8 + x^4 + x^3 + x^2 + 1, the polynomial used by most RS codes. */
+  static final int PRIMITIVE_POLYNOMIAL = 0x11d;
+  static final int FIELD_SIZE = 256;
+
+  private static final int[] EXP = new int[2 * FIELD_SIZE];
+  private static final int[] LOG = new int[FIELD_SIZE];
+
+  /** MUL_TABLE[a][b] is the product of a and b. */
+  static final byte[][] MUL_TABLE = new byte[FIELD_SIZE][FIELD_SIZE];
+
+  static {
+    int x = 1;
+    for (int i = 0; i < FIELD_SIZE - 1; i++) {
+      EXP[i] = x;
+      LOG[x] = i;
+      x <<= 1;
+      if ((x & FIELD_SIZE) != 0) {
+        x ^= PRIMITIVE_POLYNOMIAL;
+      }
+    }
+    for (int i = FIELD_SIZE - 1; i < EXP.length; i++) {
+      EXP[i] = EXP[i - (FIELD_SIZE - 1)];
+    }
+    for (int a = 1; a < FIELD_SIZE; a++) {
+      for (int b = 1; b < FIELD_SIZE; b++) {
+        MUL_TABLE[a][b] = (byte) EXP[LOG[a] + LOG[b]];
+      }
+    }
+  }
+
+  private GF256() {}
+
+  static int mul(int a, int b) {
+    return MUL_TABLE[a][b] & 0xff;
+  }
+
+  static int inverse(int a) {
+    if (a == 0) {
+      throw new ArithmeticException("0 has no inverse in GF(2^8)");
+    }
+    return EXP[FIELD_SIZE - 1 - LOG[a]];
+  }
+
+  /**
+   * Invert a square matrix in place by Gauss-Jordan elimination.
+   *
+   * @throws HadoopIllegalArgumentException if the matrix is singular
+   */
+  static void invertMatrix(int[][] matrix) {
+    final int n = matrix.length;
+    int[][] inv = new int[n][n];
+    for (int i = 0; i < n; i++) {
+      inv[i][i] = 1;
+    }
+    for (int col = 0; col < n; col++) {
+      int pivot = col;
+      while (pivot < n && matrix[pivot][col] == 0) {
+        pivot++;
+      }
+      if (pivot == n) {
+        throw new HadoopIllegalArgumentException("Matrix is singular");
+      }
+      swap(matrix, col, pivot);
+      swap(inv, col, pivot);
+
+      int scale = inverse(matrix[col][col]);
+      for (int j = 0; j < n; j++) {
+        matrix[col][j] = mul(matrix[col][j], scale);
+        inv[col][j] = mul(inv[col][j], scale);
+      }
+      for (int row = 0; row < n; row++) {
+        int factor = matrix[row][col];
+        if (row == col || factor == 0) {
+          continue;
+        }
+        for (int j = 0; j < n; j++) {
+          matrix[row][j] ^= mul(factor, matrix[col][j]);
+          inv[row][j] ^= mul(factor, inv[col][j]);
+        }
+      }
+    }
+    for (int i = 0; i < n; i++) {
+      System.arraycopy(inv[i], 0, matrix[i], 0, n);
+    }
+  }
+
+  private static void swap(int[][] m, int i, int j) {
+    int[] tmp = m[i];
+    m[i] = m[j];
+    m[j] = tmp;
+  }
+
+  /**
+   * Compute outputs[o] = sum over j of rows[o][j] * inputs[j], byte by byte,
+   * over len bytes of each unit.
+   */
+  static void dotProduct(int[][] rows, byte[][] inputs, int[] inputOffsets,
+      byte[][] outputs, int[] outputOffsets, int len) {
+    for (int o = 0; o < outputs.length; o++) {
+      final byte[] out = outputs[o];
+      final int outOff = outputOffsets[o];
+      final int[] row = rows[o];
+      for (int j = 0; j < inputs.length; j++) {
+        final byte[] mulRow = MUL_TABLE[row[j]];
+        final byte[] in = inputs[j];
+        final int inOff = inputOffsets[j];
+        if (j == 0) {
+          for (int i = 0; i < len; i++) {
+            out[outOff + i] = mulRow[in[inOff + i] & 0xff];
+          }
+        } else {
+          for (int i = 0; i < len; i++) {
+            out[outOff + i] ^= mulRow[in[inOff + i] & 0xff];
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,98 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.io.erasurecode;
+
+import org.apache.hadoop.HadoopIllegalArgumentException;
+
+/**
+ * State shared by the Reed-Solomon encoder and decoder: the generator
+ * matrix of the code.
+ *
+ * The generator stacks an identity matrix, which leaves the data units
+ * unchanged, on top of a Cauchy matrix, which produces the parity units.
+ * Every square submatrix of a Cauchy matrix is invertible, so any
+ * numDataUnits rows of the generator can be inverted to decode.
+ */
+abstract class RSRawCoder {
+  protected final int numDataUnits;
+  protected final int numParityUnits;
+  /** (numDataUnits + numParityUnits) x numDataUnits generator matrix. */
+  protected final int[][] generator;
+
+  protected RSRawCoder(int numDataUnits, int numParityUnits) {
+    if (numDataUnits <= 0 || numParityUnits <= 0) {
+      throw new HadoopIllegalArgumentException("Invalid schema: "
+          + numDataUnits + " data units, " + numParityUnits + " parity units");
+    }
+    if (numDataUnits + numParityUnits > GF256.FIELD_SIZE) {
+      throw new HadoopIllegalArgumentException("A stripe cannot have more than "
+          + GF256.FIELD_SIZE + " units");
+    }
+    this.numDataUnits = numDataUnits;
+    this.numParityUnits = numParityUnits;
+
+    final int numUnits = numDataUnits + numParityUnits;
+    generator = new int[numUnits][numDataUnits];
+    for (int i = 0; i < numDataUnits; i++) {
+      generator[i][i] = 1;
+    }
+    for (int i = numDataUnits; i < numUnits; i++) {
+      for (int j = 0; j < numDataUnits; j++) {
+        // i != j, so i ^ j is never 0
+        generator[i][j] = GF256.inverse(i ^ j);
+      }
+    }
+  }
+
+  public int getNumDataUnits() {
+    return numDataUnits;
+  }
+
+  public int getNumParityUnits() {
+    return numParityUnits;
+  }
+
+  protected static void checkUnits(String what, Object[] units,
+      int[] offsets, int expected) {
+    if (units.length != expected || offsets.length != expected) {
+      throw new HadoopIllegalArgumentException("Expected " + expected + " "
+          + what + " but got " + units.length + " units and "
+          + offsets.length + " offsets");
+    }
+  }
+
+  protected static void checkRange(byte[] unit, int offset, int len) {
+    if (offset < 0 || len < 0 || offset + len > unit.length) {
+      throw new HadoopIllegalArgumentException("Unit of " + unit.length
+          + " bytes has no range [" + offset + ", " + (offset + len) + ")");
+    }
+  }
+
+  protected static int[] zeroOffsets(int n) {
+    return new int[n];
+  }
+
+  protected static int unitLength(byte[][] units) {
+    for (byte[] unit : units) {
+      if (unit != null) {
+        return unit.length;
+      }
+    }
+    throw new HadoopIllegalArgumentException("No unit available");
+  }
+}
@@ -0,0 +1,153 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.io.erasurecode;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.HadoopIllegalArgumentException;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+/**
+ * Pure Java Reed-Solomon decoder.
+ *
+ * Decoding picks numDataUnits surviving units, inverts the matching rows
+ * of the generator matrix, and multiplies the survivors by the rows that
+ * rebuild the erased units. The decoding matrix only depends on which
+ * units are used and erased, so it is kept for the next stripe with the
+ * same pattern, as all stripes of a degraded read have. The kept matrix
+ * is published as a single immutable object, so a decoder may be shared
+ * by several threads.
+ */
+@InterfaceAudience.LimitedPrivate({"HDFS"})
+@InterfaceStability.Unstable
+public class RSRawDecoder extends RSRawCoder implements RawErasureDecoder {
+  /** The decoding rows last computed, with the pattern they apply to. */
+  private static class DecodeRows {
+    private final int[] validIndexes;
+    private final int[] erasedIndexes;
+    private final int[][] rows;
+
+    DecodeRows(int[] validIndexes, int[] erasedIndexes, int[][] rows) {
+      this.validIndexes = validIndexes;
+      this.erasedIndexes = erasedIndexes;
+      this.rows = rows;
+    }
+
+    boolean matches(int[] valid, int[] erased) {
+      return Arrays.equals(valid, validIndexes)
+          && Arrays.equals(erased, erasedIndexes);
+    }
+  }
+
+  private volatile DecodeRows cachedDecodeRows;
+
+  public RSRawDecoder(int numDataUnits, int numParityUnits) {
+    super(numDataUnits, numParityUnits);
+  }
+
+  @Override
+  public void decode(byte[][] inputs, int[] inputOffsets, int[] erasedIndexes,
+      byte[][] outputs, int[] outputOffsets, int len) {
+    final int numUnits = numDataUnits + numParityUnits;
+    checkUnits("units", inputs, inputOffsets, numUnits);
+    checkUnits("recovered units", outputs, outputOffsets,
+        erasedIndexes.length);
+    for (int i = 0; i < erasedIndexes.length; i++) {
+      if (erasedIndexes[i] < 0 || erasedIndexes[i] >= numUnits) {
+        throw new HadoopIllegalArgumentException("Invalid erased index "
+            + erasedIndexes[i]);
+      }
+      checkRange(outputs[i], outputOffsets[i], len);
+    }
+    if (erasedIndexes.length == 0) {
+      return;
+    }
+
+    // Use the first numDataUnits units that are available and not erased.
+    int[] validIndexes = new int[numDataUnits];
+    int numValid = 0;
+    for (int i = 0; i < numUnits && numValid < numDataUnits; i++) {
+      if (inputs[i] != null && !contains(erasedIndexes, i)) {
+        checkRange(inputs[i], inputOffsets[i], len);
+        validIndexes[numValid++] = i;
+      }
+    }
+    if (numValid < numDataUnits) {
+      throw new HadoopIllegalArgumentException("Too many erasures: "
+          + numValid + " units available, " + numDataUnits + " needed");
+    }
+
+    byte[][] validInputs = new byte[numDataUnits][];
+    int[] validOffsets = new int[numDataUnits];
+    for (int i = 0; i < numDataUnits; i++) {
+      validInputs[i] = inputs[validIndexes[i]];
+      validOffsets[i] = inputOffsets[validIndexes[i]];
+    }
+    GF256.dotProduct(getDecodeRows(validIndexes, erasedIndexes),
+        validInputs, validOffsets, outputs, outputOffsets, len);
+  }
+
+  @Override
+  public void decode(byte[][] inputs, int[] erasedIndexes, byte[][] outputs) {
+    decode(inputs, zeroOffsets(inputs.length), erasedIndexes, outputs,
+        zeroOffsets(outputs.length), unitLength(inputs));
+  }
+
+  /**
+   * Get the rows that compute each erased unit from the valid units.
+   */
+  private int[][] getDecodeRows(int[] validIndexes, int[] erasedIndexes) {
+    final DecodeRows cached = cachedDecodeRows;
+    if (cached != null && cached.matches(validIndexes, erasedIndexes)) {
+      return cached.rows;
+    }
+
+    int[][] inverse = new int[numDataUnits][];
+    for (int i = 0; i < numDataUnits; i++) {
+      inverse[i] = generator[validIndexes[i]].clone();
+    }
+    GF256.invertMatrix(inverse);
+
+    // Row e of the generator times the inverse rebuilds unit e.
+    int[][] rows = new int[erasedIndexes.length][numDataUnits];
+    for (int r = 0; r < erasedIndexes.length; r++) {
+      int[] genRow = generator[erasedIndexes[r]];
+      for (int j = 0; j < numDataUnits; j++) {
+        int v = 0;
+        for (int k = 0; k < numDataUnits; k++) {
+          v ^= GF256.mul(genRow[k], inverse[k][j]);
+        }
+        rows[r][j] = v;
+      }
+    }
+
+    cachedDecodeRows = new DecodeRows(validIndexes, erasedIndexes.clone(),
+        rows);
+    return rows;
+  }
+
+  private static boolean contains(int[] array, int value) {
+    for (int v : array) {
+      if (v == value) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
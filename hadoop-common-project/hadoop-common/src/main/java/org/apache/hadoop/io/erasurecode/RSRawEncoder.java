@@ -0,0 +1,60 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.io.erasurecode;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+/**
+ * Pure Java Reed-Solomon encoder.
+ */
+@InterfaceAudience.LimitedPrivate({"HDFS"})
+@InterfaceStability.Unstable
+public class RSRawEncoder extends RSRawCoder implements RawErasureEncoder {
+  /** The parity rows of the generator matrix. */
+  private final int[][] parityRows;
+
+  public RSRawEncoder(int numDataUnits, int numParityUnits) {
+    super(numDataUnits, numParityUnits);
+    parityRows = Arrays.copyOfRange(generator, numDataUnits,
+        numDataUnits + numParityUnits);
+  }
+
+  @Override
+  public void encode(byte[][] inputs, int[] inputOffsets,
+      byte[][] outputs, int[] outputOffsets, int len) {
+    checkUnits("data units", inputs, inputOffsets, numDataUnits);
+    checkUnits("parity units", outputs, outputOffsets, numParityUnits);
+    for (int i = 0; i < numDataUnits; i++) {
+      checkRange(inputs[i], inputOffsets[i], len);
+    }
+    for (int i = 0; i < numParityUnits; i++) {
+      checkRange(outputs[i], outputOffsets[i], len);
+    }
+    GF256.dotProduct(parityRows, inputs, inputOffsets,
+        outputs, outputOffsets, len);
+  }
+
+  @Override
+  public void encode(byte[][] inputs, byte[][] outputs) {
+    encode(inputs, zeroOffsets(inputs.length), outputs,
+        zeroOffsets(outputs.length), unitLength(inputs));
+  }
+}
@@ -0,0 +1,63 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.io.erasurecode;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+/**
+ * Recovers erased units of a stripe from the units that survive.
+ *
+ * Units are indexed with the data units first and the parity units after
+ * them, so a stripe has numDataUnits + numParityUnits units in all. Any
+ * numDataUnits surviving units are enough to recover the others.
+ * Implementations need not be thread-safe.
+ */
+@InterfaceAudience.LimitedPrivate({"HDFS"})
+@InterfaceStability.Unstable
+public interface RawErasureDecoder {
+  /** @return the number of data units in a stripe. */
+  int getNumDataUnits();
+
+  /** @return the number of parity units in a stripe. */
+  int getNumParityUnits();
+
+  /**
+   * Decode one stripe.
+   *
+   * @param inputs        all units of the stripe; null for a unit that is
+   *                      not available. Units listed in erasedIndexes are
+   *                      never read.
+   * @param inputOffsets  where each unit starts in its array
+   * @param erasedIndexes indexes of the units to recover
+   * @param outputs       receive the recovered units, in the order of
+   *                      erasedIndexes
+   * @param outputOffsets where each recovered unit starts in its array
+   * @param len           length of every unit in bytes
+   * @throws org.apache.hadoop.HadoopIllegalArgumentException if fewer than
+   *         numDataUnits units are available
+   */
+  void decode(byte[][] inputs, int[] inputOffsets, int[] erasedIndexes,
+      byte[][] outputs, int[] outputOffsets, int len);
+
+  /**
+   * Decode one stripe whose units fill their arrays, which must all have
+   * the same length.
+   */
+  void decode(byte[][] inputs, int[] erasedIndexes, byte[][] outputs);
+}
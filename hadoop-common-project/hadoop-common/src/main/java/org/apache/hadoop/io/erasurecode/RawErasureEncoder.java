@@ -0,0 +1,56 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.io.erasurecode;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+/**
+ * Computes the parity units of a stripe from its data units.
+ *
+ * The coder works on raw byte ranges and knows nothing of blocks or
+ * files; a stripe is numDataUnits equally long ranges of data, one per
+ * data unit. Implementations need not be thread-safe.
+ */
+@InterfaceAudience.LimitedPrivate({"HDFS"})
+@InterfaceStability.Unstable
+public interface RawErasureEncoder {
+  /** @return the number of data units in a stripe. */
+  int getNumDataUnits();
+
+  /** @return the number of parity units in a stripe. */
+  int getNumParityUnits();
+
+  /**
+   * Encode one stripe.
+   *
+   * @param inputs        the data units, numDataUnits of them
+   * @param inputOffsets  where each data unit starts in its array
+   * @param outputs       receive the parity units, numParityUnits of them
+   * @param outputOffsets where each parity unit starts in its array
+   * @param len           length of every unit in bytes
+   */
+  void encode(byte[][] inputs, int[] inputOffsets,
+      byte[][] outputs, int[] outputOffsets, int len);
+
+  /**
+   * Encode one stripe whose units fill their arrays, which must all have
+   * the same length.
+   */
+  void encode(byte[][] inputs, byte[][] outputs);
+}
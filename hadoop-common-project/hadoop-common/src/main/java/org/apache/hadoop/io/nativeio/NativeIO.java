@@ -66,6 +66,14 @@ public static class POSIX {
     public static final int O_ASYNC  =  020000;
     public static final int O_FSYNC = O_SYNC;
     public static final int O_NDELAY = O_NONBLOCK;
+    /**
+     * Bypass the page cache. Reads and writes on such a file descriptor must
+     * use buffers, offsets and lengths aligned to the logical block size of
+     * the file system, and the open fails on file systems that do not
+     * support it. The native code translates this value to the O_DIRECT of
+     * the platform.
+     */
+    public static final int O_DIRECT = 040000;
 
     // Flags for posix_fadvise() from bits/fcntl.h
     /* No further special treatment.  */
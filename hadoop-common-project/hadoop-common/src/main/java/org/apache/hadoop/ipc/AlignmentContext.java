@@ -0,0 +1,58 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.ipc;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcRequestHeaderProto;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcResponseHeaderProto;
+
+/**
+ * Aligns the state of clients and servers through the RPC headers. A server
+ * puts the ID of its current state in every response, and a client sends the
+ * latest state it has seen in every request, so that a server replicating
+ * the state of another can serve a client only once it has caught up with
+ * what the client has seen.
+ *
+ * A server uses its context for all its calls, see
+ * {@link Server#setAlignmentContext(AlignmentContext)}. A client uses a
+ * context for the calls of a thread, see
+ * {@link Client#setAlignmentContext(AlignmentContext)}.
+ */
+@InterfaceAudience.LimitedPrivate({"HDFS"})
+@InterfaceStability.Evolving
+public interface AlignmentContext {
+  /** Server side: put the state of the server in a response header. */
+  void updateResponseState(RpcResponseHeaderProto.Builder header);
+
+  /** Client side: learn the state of a server from a response header. */
+  void receiveResponseState(RpcResponseHeaderProto header);
+
+  /** Client side: put the latest state seen by the client in a request. */
+  void updateRequestState(RpcRequestHeaderProto.Builder header);
+
+  /**
+   * Server side: read the state that the client has seen from a request.
+   * @return the state ID of the client
+   */
+  long receiveRequestState(RpcRequestHeaderProto header);
+
+  /** @return the latest state ID seen on this side */
+  long getLastSeenStateId();
+}
@@ -26,6 +26,8 @@
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.metrics2.MetricsCollector;
+import org.apache.hadoop.metrics2.MetricsSource;
 
 /**
  * Abstracts queue operations for different blocking queues.
@@ -116,6 +118,17 @@ public int size() {
     return takeRef.get().size();
   }
 
+  /**
+   * Add the metrics of the queue handlers are taking from, if it publishes
+   * any. Queues opt in by implementing {@link MetricsSource}.
+   */
+  public void getMetrics(MetricsCollector collector, boolean all) {
+    BlockingQueue<E> q = takeRef.get();
+    if (q instanceof MetricsSource) {
+      ((MetricsSource) q).getMetrics(collector, all);
+    }
+  }
+
   /**
    * Replaces active queue with the newly requested one and transfers
    * all calls to the newQ before returning.
@@ -91,6 +91,8 @@
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.protobuf.CodedOutputStream;
 
@@ -111,6 +113,8 @@ public class Client {
 
   private static final ThreadLocal<Integer> callId = new ThreadLocal<Integer>();
   private static final ThreadLocal<Integer> retryCount = new ThreadLocal<Integer>();
+  private static final ThreadLocal<AlignmentContext> alignmentContext =
+      new ThreadLocal<AlignmentContext>();
 
   /** Set call id and retry count for the next call. */
   public static void setCallIdAndRetryCount(int cid, int rc) {
@@ -122,6 +126,14 @@ public static void setCallIdAndRetryCount(int cid, int rc) {
     retryCount.set(rc);
   }
 
+  /**
+   * Set the context that aligns the state of the servers with the calls of
+   * the current thread, until it is set again; null for none.
+   */
+  public static void setAlignmentContext(AlignmentContext context) {
+    alignmentContext.set(context);
+  }
+
   private Hashtable<ConnectionId, Connection> connections =
     new Hashtable<ConnectionId, Connection>();
 
@@ -307,6 +319,7 @@ static class Call {
     Writable rpcResponse;       // null if rpc has error
     IOException error;          // exception, null if success
     final RPC.RpcKind rpcKind;      // Rpc EngineKind
+    final AlignmentContext alignmentContext; // null if none
     boolean done;               // true when call is done
 
     private Call(RPC.RpcKind rpcKind, Writable param) {
@@ -327,6 +340,7 @@ private Call(RPC.RpcKind rpcKind, Writable param) {
       } else {
         this.retry = rc;
       }
+      this.alignmentContext = Client.alignmentContext.get();
     }
 
     /** Indicate when the call is complete and the
@@ -361,6 +375,32 @@ public synchronized Writable getRpcResponse() {
     }
   }
 
+  /** A call whose outcome is delivered through a future. */
+  private static class AsyncCall extends Call {
+    private final SettableFuture<Writable> future = SettableFuture.create();
+    private final InetSocketAddress address;
+
+    private AsyncCall(RPC.RpcKind rpcKind, Writable param,
+        InetSocketAddress address) {
+      super(rpcKind, param);
+      this.address = address;
+    }
+
+    /**
+     * Complete the future. This runs on the connection's receiver thread, as
+     * do the listeners of the future unless they are given an executor.
+     */
+    @Override
+    protected synchronized void callComplete() {
+      super.callComplete();
+      if (error != null) {
+        future.setException(getCallError(error, address));
+      } else {
+        future.set(rpcResponse);
+      }
+    }
+  }
+
   /** Thread that reads responses and notifies callers.  Each connection owns a
    * socket connected to a remote address.  Calls are multiplexed through this
    * socket: responses may be delivered out of order. */
@@ -989,7 +1029,7 @@ public void sendRpcRequest(final Call call)
       final DataOutputBuffer d = new DataOutputBuffer();
       RpcRequestHeaderProto header = ProtoUtil.makeRpcRequestHeader(
           call.rpcKind, OperationProto.RPC_FINAL_PACKET, call.id, call.retry,
-          clientId);
+          clientId, call.alignmentContext);
       header.writeDelimitedTo(d);
       call.rpcRequest.write(d);
 
@@ -1064,6 +1104,10 @@ private void receiveRpcResponse() {
           LOG.debug(getName() + " got value #" + callId);
 
         Call call = calls.get(callId);
+        // A fatal error may not belong to any call, see below.
+        if (call != null && call.alignmentContext != null) {
+          call.alignmentContext.receiveResponseState(header);
+        }
         RpcStatusProto status = header.getStatus();
         if (status == RpcStatusProto.SUCCESS) {
           Writable value = ReflectionUtils.newInstance(valueClass, conf);
@@ -1378,16 +1422,7 @@ public Writable call(RPC.RpcKind rpcKind, Writable rpcRequest,
   public Writable call(RPC.RpcKind rpcKind, Writable rpcRequest,
       ConnectionId remoteId, int serviceClass) throws IOException {
     final Call call = createCall(rpcKind, rpcRequest);
-    Connection connection = getConnection(remoteId, call, serviceClass);
-    try {
-      connection.sendRpcRequest(call);                 // send the rpc request
-    } catch (RejectedExecutionException e) {
-      throw new IOException("connection has been closed", e);
-    } catch (InterruptedException e) {
-      Thread.currentThread().interrupt();
-      LOG.warn("interrupted waiting to send rpc request to server", e);
-      throw new IOException(e);
-    }
+    Connection connection = sendCall(call, remoteId, serviceClass);
 
     boolean interrupted = false;
     synchronized (call) {
@@ -1406,23 +1441,68 @@ public Writable call(RPC.RpcKind rpcKind, Writable rpcRequest,
       }
 
       if (call.error != null) {
-        if (call.error instanceof RemoteException) {
-          call.error.fillInStackTrace();
-          throw call.error;
-        } else { // local exception
-          InetSocketAddress address = connection.getRemoteAddress();
-          throw NetUtils.wrapException(address.getHostName(),
-                  address.getPort(),
-                  NetUtils.getHostname(),
-                  0,
-                  call.error);
-        }
+        throw getCallError(call.error, connection.getRemoteAddress());
       } else {
         return call.getRpcResponse();
       }
     }
   }
 
+  /**
+   * Send <code>rpcRequest</code> to the IPC server defined by
+   * <code>remoteId</code> without waiting for the response. Calls share the
+   * connection to the server with all other calls to it, so a single thread
+   * can keep many calls in flight.
+   *
+   * @param rpcKind
+   * @param rpcRequest -  contains serialized method and method parameters
+   * @param remoteId - the target rpc server
+   * @param serviceClass - service class for RPC
+   * @return a future of the rpc response. It fails with the same exceptions
+   *         {@link #call(RPC.RpcKind, Writable, ConnectionId, int)} throws,
+   *         other than those thrown while sending the request.
+   * @throws IOException if the request could not be sent
+   */
+  public ListenableFuture<Writable> callAsync(RPC.RpcKind rpcKind,
+      Writable rpcRequest, ConnectionId remoteId, int serviceClass)
+      throws IOException {
+    final AsyncCall call =
+        new AsyncCall(rpcKind, rpcRequest, remoteId.getAddress());
+    sendCall(call, remoteId, serviceClass);
+    return call.future;
+  }
+
+  /** Queue the call on a connection to the server and send its request. */
+  private Connection sendCall(Call call, ConnectionId remoteId,
+      int serviceClass) throws IOException {
+    Connection connection = getConnection(remoteId, call, serviceClass);
+    try {
+      connection.sendRpcRequest(call);                 // send the rpc request
+    } catch (RejectedExecutionException e) {
+      throw new IOException("connection has been closed", e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      LOG.warn("interrupted waiting to send rpc request to server", e);
+      throw new IOException(e);
+    }
+    return connection;
+  }
+
+  /** @return the exception to report to the caller of a failed call */
+  private static IOException getCallError(IOException error,
+      InetSocketAddress address) {
+    if (error instanceof RemoteException) {
+      error.fillInStackTrace();
+      return error;
+    } else { // local exception
+      return NetUtils.wrapException(address.getHostName(),
+              address.getPort(),
+              NetUtils.getHostname(),
+              0,
+              error);
+    }
+  }
+
   // for unit testing only
   @InterfaceAudience.Private
   @InterfaceStability.Unstable
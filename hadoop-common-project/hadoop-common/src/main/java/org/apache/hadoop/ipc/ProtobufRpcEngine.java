@@ -50,6 +50,10 @@
 import org.apache.hadoop.util.Time;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.protobuf.BlockingService;
 import com.google.protobuf.CodedOutputStream;
 import com.google.protobuf.Descriptors.MethodDescriptor;
@@ -73,6 +77,52 @@ public class ProtobufRpcEngine implements RpcEngine {
 
   private static final ClientCache CLIENTS = new ClientCache();
 
+  private static final ThreadLocal<Boolean> ASYNC_MODE =
+      new ThreadLocal<Boolean>() {
+        @Override
+        protected Boolean initialValue() {
+          return false;
+        }
+      };
+
+  private static final ThreadLocal<ListenableFuture<Message>>
+      ASYNC_RETURN_MESSAGE = new ThreadLocal<ListenableFuture<Message>>();
+
+  /**
+   * Set whether calls made by this thread through protobuf proxies are
+   * asynchronous. In asynchronous mode a proxy method sends the request and
+   * returns null right away; the response is obtained by calling
+   * {@link #getAsyncReturnMessage()} right after the method returns. Since
+   * the proxy returns before the outcome of the call is known, retry
+   * policies of a retrying proxy do not apply to asynchronous calls.
+   */
+  @InterfaceAudience.LimitedPrivate({"HDFS", "MapReduce"})
+  @InterfaceStability.Unstable
+  public static void setAsynchronousMode(boolean async) {
+    ASYNC_MODE.set(async);
+  }
+
+  @InterfaceAudience.LimitedPrivate({"HDFS", "MapReduce"})
+  @InterfaceStability.Unstable
+  public static boolean isAsynchronousMode() {
+    return ASYNC_MODE.get();
+  }
+
+  /**
+   * @return the future response of the last call made by this thread in
+   *         asynchronous mode, or null if there is none. It fails with the
+   *         cause of the ServiceException the synchronous call would throw.
+   *         The future is only returned once.
+   */
+  @InterfaceAudience.LimitedPrivate({"HDFS", "MapReduce"})
+  @InterfaceStability.Unstable
+  @SuppressWarnings("unchecked")
+  public static <T extends Message> ListenableFuture<T> getAsyncReturnMessage() {
+    ListenableFuture<Message> future = ASYNC_RETURN_MESSAGE.get();
+    ASYNC_RETURN_MESSAGE.remove();
+    return (ListenableFuture<T>) future;
+  }
+
   public <T> ProtocolProxy<T> getProxy(Class<T> protocol, long clientVersion,
       InetSocketAddress addr, UserGroupInformation ticket, Configuration conf,
       SocketFactory factory, int rpcTimeout) throws IOException {
@@ -201,6 +251,9 @@ public Object invoke(Object proxy, Method method, Object[] args)
 
 
       Message theRequest = (Message) args[1];
+      if (isAsynchronousMode()) {
+        return invokeAsync(method, rpcRequestHeader, theRequest);
+      }
       final RpcResponseWrapper val;
       try {
         val = (RpcResponseWrapper) client.call(RPC.RpcKind.RPC_PROTOCOL_BUFFER,
@@ -221,26 +274,57 @@ public Object invoke(Object proxy, Method method, Object[] args)
         LOG.debug("Call: " + method.getName() + " took " + callTime + "ms");
       }
       
-      Message prototype = null;
       try {
-        prototype = getReturnProtoType(method);
-      } catch (Exception e) {
+        return getReturnMessage(method, val);
+      } catch (Throwable e) {
         throw new ServiceException(e);
       }
-      Message returnMessage;
-      try {
-        returnMessage = prototype.newBuilderForType()
-            .mergeFrom(val.theResponseRead).build();
+    }
 
+    /**
+     * Send the request without waiting for the response, and leave the
+     * future response for {@link ProtobufRpcEngine#getAsyncReturnMessage()}.
+     * @return null
+     */
+    private Object invokeAsync(final Method method,
+        RequestHeaderProto rpcRequestHeader, Message theRequest)
+        throws ServiceException {
+      final ListenableFuture<Writable> response;
+      try {
+        response = client.callAsync(RPC.RpcKind.RPC_PROTOCOL_BUFFER,
+            new RpcRequestWrapper(rpcRequestHeader, theRequest), remoteId,
+            RPC.RPC_SERVICE_CLASS_DEFAULT);
+      } catch (Throwable e) {
         if (LOG.isTraceEnabled()) {
-          LOG.trace(Thread.currentThread().getId() + ": Response <- " +
+          LOG.trace(Thread.currentThread().getId() + ": Exception <- " +
               remoteId + ": " + method.getName() +
-                " {" + TextFormat.shortDebugString(returnMessage) + "}");
+                " {" + e + "}");
         }
-
-      } catch (Throwable e) {
         throw new ServiceException(e);
       }
+      ASYNC_RETURN_MESSAGE.set(Futures.transform(response,
+          new AsyncFunction<Writable, Message>() {
+            @Override
+            public ListenableFuture<Message> apply(Writable val)
+                throws Exception {
+              return Futures.immediateFuture(
+                  getReturnMessage(method, (RpcResponseWrapper) val));
+            }
+          }));
+      return null;
+    }
+
+    private Message getReturnMessage(Method method, RpcResponseWrapper val)
+        throws Exception {
+      Message prototype = getReturnProtoType(method);
+      Message returnMessage = prototype.newBuilderForType()
+          .mergeFrom(val.theResponseRead).build();
+
+      if (LOG.isTraceEnabled()) {
+        LOG.trace(Thread.currentThread().getId() + ": Response <- " +
+            remoteId + ": " + method.getName() +
+              " {" + TextFormat.shortDebugString(returnMessage) + "}");
+      }
       return returnMessage;
     }
 
@@ -509,6 +593,61 @@ numReaders, queueSizePerHandler, conf, classNameBase(protocolImpl
       registerProtocolAndImpl(RPC.RpcKind.RPC_PROTOCOL_BUFFER, protocolClass,
           protocolImpl);
     }
+
+    /**
+     * Defer the response of the call being processed by the current handler.
+     * The value returned by the service method is ignored, and the handler
+     * is free to serve other calls as soon as the method returns. The call is
+     * completed through the returned callback, from any thread. No change to
+     * the wire protocol is involved; the client simply waits longer.
+     * @throws IllegalStateException if not called from an RPC handler
+     */
+    @InterfaceAudience.LimitedPrivate({"HDFS", "Yarn"})
+    @InterfaceStability.Unstable
+    public static ProtobufRpcEngineCallback registerForDeferredResponse() {
+      final Call call = getCurCall().get();
+      if (call == null) {
+        throw new IllegalStateException("Not processing an RPC call");
+      }
+      call.deferResponse();
+      return new ProtobufRpcEngineCallback() {
+        @Override
+        public void setResponse(Message message) {
+          call.setDeferredResponse(new RpcResponseWrapper(message));
+        }
+
+        @Override
+        public void error(Throwable t) {
+          if (t instanceof ServiceException && t.getCause() != null) {
+            t = t.getCause();
+          }
+          call.setDeferredError(t);
+        }
+      };
+    }
+
+    /**
+     * Defer the response of the call being processed by the current handler
+     * until the given future completes, and respond with its outcome.
+     * @see #registerForDeferredResponse()
+     */
+    @InterfaceAudience.LimitedPrivate({"HDFS", "Yarn"})
+    @InterfaceStability.Unstable
+    public static void deferResponse(
+        ListenableFuture<? extends Message> future) {
+      final ProtobufRpcEngineCallback callback = registerForDeferredResponse();
+      Futures.addCallback(future, new FutureCallback<Message>() {
+        @Override
+        public void onSuccess(Message result) {
+          callback.setResponse(result);
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+          callback.error(t);
+        }
+      });
+    }
     
     /**
      * Protobuf invoker for {@link RpcInvoker}
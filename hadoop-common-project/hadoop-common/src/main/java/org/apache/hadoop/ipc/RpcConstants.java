@@ -36,6 +36,9 @@ private RpcConstants() {
   
   
   public static final int INVALID_RETRY_COUNT = -1;
+
+  /** The state ID of a call whose client sent none. */
+  public static final long INVALID_STATE_ID = Long.MIN_VALUE;
   
  /**
   * The Rpc-connection header is as follows 
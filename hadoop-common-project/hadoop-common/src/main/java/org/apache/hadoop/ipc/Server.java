@@ -29,6 +29,7 @@
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.reflect.UndeclaredThrowableException;
 import java.net.BindException;
 import java.net.InetAddress;
@@ -41,6 +42,7 @@
 import java.nio.channels.CancelledKeyException;
 import java.nio.channels.Channels;
 import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
@@ -63,7 +65,9 @@
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.security.sasl.Sasl;
 import javax.security.sasl.SaslException;
@@ -78,7 +82,9 @@
 import org.apache.hadoop.conf.Configuration.IntegerRanges;
 import org.apache.hadoop.fs.CommonConfigurationKeys;
 import org.apache.hadoop.fs.CommonConfigurationKeysPublic;
+import org.apache.hadoop.io.ByteBufferPool;
 import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.ElasticByteBufferPool;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableUtils;
 import org.apache.hadoop.ipc.ProtobufRpcEngine.RpcResponseMessageWrapper;
@@ -102,6 +108,8 @@
 import org.apache.hadoop.security.SaslRpcServer;
 import org.apache.hadoop.security.SaslRpcServer.AuthMethod;
 import org.apache.hadoop.security.SecurityUtil;
+import org.apache.hadoop.metrics2.MetricsCollector;
+import org.apache.hadoop.metrics2.lib.Interns;
 import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.hadoop.security.UserGroupInformation.AuthenticationMethod;
 import org.apache.hadoop.security.authorize.AuthorizationException;
@@ -324,6 +332,16 @@ public static byte[] getClientId() {
     Call call = CurCall.get();
     return call != null ? call.clientId : RpcConstants.DUMMY_CLIENT_ID;
   }
+
+  /**
+   * @return the state of the server that the client of the current call has
+   *         seen, or {@link RpcConstants#INVALID_STATE_ID} if the client sent
+   *         none or the server has no {@link AlignmentContext}.
+   */
+  public static long getClientStateId() {
+    Call call = CurCall.get();
+    return call != null ? call.clientStateId : RpcConstants.INVALID_STATE_ID;
+  }
   
   /** Returns remote address as a string when invoked inside an RPC.
    *  Returns null in case of an error.
@@ -354,6 +372,7 @@ public static boolean isRpcInvocation() {
   private int handlerCount;                       // number of handler threads
   private int readThreads;                        // number of read threads
   private int readerPendingConnectionQueue;         // number of connections to queue per read thread
+  private final int acceptThreads;                // number of accepting threads
   private Class<? extends Writable> rpcRequestClass;   // class used for deserializing the rpc request
   protected RpcMetrics rpcMetrics;
   protected RpcDetailedMetrics rpcDetailedMetrics;
@@ -366,7 +385,18 @@ public static boolean isRpcInvocation() {
 
   private int maxQueueSize;
   private final int maxRespSize;
+  // Number of handlers processing a call
+  private final AtomicInteger numActiveHandlers = new AtomicInteger();
+  // Number of processed calls whose response is postponed
+  private final AtomicInteger numDeferredResponses = new AtomicInteger();
+  // Fails deferred calls which are not completed in time, null if disabled
+  private final long deferredResponseTimeout;
+  private final Timer deferredResponseTimer;
+  // Pool of direct buffers to serialize responses into, null if disabled
+  private final ByteBufferPool responseBufferPool;
+  private final int maxPooledResponseSize;
   private int socketSendBufferSize;
+  private volatile AlignmentContext alignmentContext;
   private final int maxDataLength;
   private final boolean tcpNoDelay; // if T then disable Nagle's Algorithm
 
@@ -496,7 +526,7 @@ public synchronized void refreshCallQueue(Configuration conf) {
   }
 
   /** A call queued for handling. */
-  public static class Call {
+  public static class Call implements Schedulable {
     private final int callId;             // the client's call id
     private final int retryCount;        // the retry count of the call
     private final Writable rpcRequest;    // Serialized Rpc request from client
@@ -504,8 +534,27 @@ public static class Call {
     private long timestamp;               // time received when response is null
                                           // time served when response is not null
     private ByteBuffer rpcResponse;       // the response for this call
+    private boolean pooledResponse;       // rpcResponse is from the pool
     private final RPC.RpcKind rpcKind;
     private final byte[] clientId;
+    // The state of the server seen by the client, see AlignmentContext
+    private long clientStateId = RpcConstants.INVALID_STATE_ID;
+    // The response is sent once this drops to zero, see postponeResponse()
+    private final AtomicInteger responseWaitCount = new AtomicInteger(1);
+    // Replaces the outcome of the call when it is sent, see abortResponse()
+    private volatile Throwable abortCause;
+    // The outcome of the call, kept until the response is sent
+    private RpcStatusProto returnStatus = RpcStatusProto.SUCCESS;
+    private RpcErrorCodeProto detailedErr;
+    private Writable rpcValue;
+    private String errorClass;
+    private String error;
+    // Set once the response has been detached from the handler, see
+    // deferResponse()
+    private volatile boolean deferred = false;
+    private final AtomicBoolean deferredDone = new AtomicBoolean();
+    private volatile long deferredTime;
+    private volatile TimerTask deferredTimeout;
 
     public Call(int id, int retryCount, Writable param, 
         Connection connection) {
@@ -533,6 +582,151 @@ public String toString() {
 
     public void setResponse(ByteBuffer response) {
       this.rpcResponse = response;
+      this.pooledResponse = false;
+    }
+
+    private void setResult(RpcStatusProto status, RpcErrorCodeProto erCode,
+        Writable value, String errorClass, String error) {
+      this.returnStatus = status;
+      this.detailedErr = erCode;
+      this.rpcValue = value;
+      this.errorClass = errorClass;
+      this.error = error;
+    }
+
+    private void setError(Throwable e) {
+      if (e instanceof RpcServerException) {
+        RpcServerException rse = ((RpcServerException)e); 
+        returnStatus = rse.getRpcStatusProto();
+        detailedErr = rse.getRpcErrorCodeProto();
+      } else {
+        returnStatus = RpcStatusProto.ERROR;
+        detailedErr = RpcErrorCodeProto.ERROR_APPLICATION;
+      }
+      rpcValue = null;
+      errorClass = e.getClass().getName();
+      error = StringUtils.stringifyException(e);
+      // Remove redundant error class name from the beginning of the stack trace
+      String exceptionHdr = errorClass + ": ";
+      if (error.startsWith(exceptionHdr)) {
+        error = error.substring(exceptionHdr.length());
+      }
+    }
+
+    /**
+     * Keep the response of this call from being sent when its handler
+     * returns. The response is sent once {@link #sendResponse()} has been
+     * called once for every call to this method, so that the handler can
+     * move on to the next call while e.g. the edits of this call are being
+     * synced. Must be called from the handler processing the call.
+     */
+    @InterfaceAudience.LimitedPrivate({"HDFS"})
+    @InterfaceStability.Unstable
+    public void postponeResponse() {
+      int count = responseWaitCount.incrementAndGet();
+      assert count > 1 : "response has already been sent";
+    }
+
+    /**
+     * Release one postponement of the response, see
+     * {@link #postponeResponse()}. May be called from any thread; the last
+     * release sends the response.
+     */
+    @InterfaceAudience.LimitedPrivate({"HDFS"})
+    @InterfaceStability.Unstable
+    public void sendResponse() throws IOException {
+      int count = responseWaitCount.decrementAndGet();
+      assert count >= 0 : "response has already been sent";
+      if (count == 0) {
+        connection.sendDeferredResponse(this);
+      }
+    }
+
+    /**
+     * Release one postponement of the response like {@link #sendResponse()},
+     * but fail the call with the given exception, whatever the outcome set
+     * by its handler. Used when the work the response was postponed for,
+     * e.g. syncing the edits of the call, failed.
+     */
+    @InterfaceAudience.LimitedPrivate({"HDFS"})
+    @InterfaceStability.Unstable
+    public void abortResponse(Throwable t) throws IOException {
+      abortCause = t;
+      sendResponse();
+    }
+
+    /**
+     * Detach this call from its handler. The value returned by the RPC
+     * method is ignored and the handler moves on to the next call; the
+     * response is sent once {@link #setDeferredResponse(Writable)} or
+     * {@link #setDeferredError(Throwable)} is called, from any thread. If
+     * neither is called within ipc.server.deferred-response.timeout.ms the
+     * call fails with an error. Must be called from the handler processing
+     * the call, at most once.
+     */
+    @InterfaceAudience.LimitedPrivate({"HDFS", "Yarn"})
+    @InterfaceStability.Unstable
+    public void deferResponse() {
+      postponeResponse();
+      deferred = true;
+      connection.getServer().startDeferredResponse(this);
+    }
+
+    /**
+     * Complete a call deferred by {@link #deferResponse()} with the given
+     * value. Calls which have already been completed are ignored.
+     */
+    @InterfaceAudience.LimitedPrivate({"HDFS", "Yarn"})
+    @InterfaceStability.Unstable
+    public void setDeferredResponse(Writable value) {
+      if (completeDeferred()) {
+        setResult(RpcStatusProto.SUCCESS, null, value, null, null);
+        releaseDeferred();
+      }
+    }
+
+    /**
+     * Fail a call deferred by {@link #deferResponse()} with the given
+     * exception. Calls which have already been completed are ignored.
+     */
+    @InterfaceAudience.LimitedPrivate({"HDFS", "Yarn"})
+    @InterfaceStability.Unstable
+    public void setDeferredError(Throwable t) {
+      if (completeDeferred()) {
+        setError(t);
+        releaseDeferred();
+      }
+    }
+
+    /** @return true if the caller is the first to complete this call */
+    private boolean completeDeferred() {
+      if (!deferredDone.compareAndSet(false, true)) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Ignoring repeated completion of deferred " + this);
+        }
+        return false;
+      }
+      TimerTask timeout = deferredTimeout;
+      if (timeout != null) {
+        timeout.cancel();
+      }
+      connection.getServer().rpcMetrics.addDeferredRpcProcessingTime(
+          (int) (Time.monotonicNow() - deferredTime));
+      return true;
+    }
+
+    private void releaseDeferred() {
+      try {
+        sendResponse();
+      } catch (IOException e) {
+        LOG.warn("Failed to send the deferred response of " + this, e);
+      }
+    }
+
+    // For Schedulable
+    @Override
+    public UserGroupInformation getUserGroupInformation() {
+      return connection == null ? null : connection.user;
     }
   }
 
@@ -542,7 +736,8 @@ private class Listener extends Thread {
     private ServerSocketChannel acceptChannel = null; //the accept channel
     private Selector selector = null; //the selector that we use for the server
     private Reader[] readers = null;
-    private int currentReader = 0;
+    private final AtomicInteger currentReader = new AtomicInteger();
+    private Acceptor[] acceptors = null;
     private InetSocketAddress address; //the address we bind at
     private int backlogLength = conf.getInt(
         CommonConfigurationKeysPublic.IPC_SERVER_LISTEN_QUEUE_SIZE_KEY,
@@ -571,11 +766,64 @@ public Listener() throws IOException {
       acceptChannel.register(selector, SelectionKey.OP_ACCEPT);
       this.setName("IPC Server listener on " + port);
       this.setDaemon(true);
+
+      // This thread accepts connections too, so only start the others.
+      acceptors = new Acceptor[acceptThreads - 1];
+      for (int i = 0; i < acceptors.length; i++) {
+        acceptors[i] = new Acceptor(
+            "IPC Server acceptor #" + (i + 2) + " on " + port);
+      }
+    }
+
+    /**
+     * An additional thread accepting connections on the listener's socket
+     * through a selector of its own, so that connection storms are not
+     * limited by a single thread accepting and registering connections.
+     */
+    private class Acceptor extends Thread {
+      private final Selector acceptSelector;
+
+      Acceptor(String name) throws IOException {
+        super(name);
+        this.setDaemon(true);
+        this.acceptSelector = Selector.open();
+        acceptChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+      }
+
+      @Override
+      public void run() {
+        LOG.info("Starting " + Thread.currentThread().getName());
+        SERVER.set(Server.this);
+        try {
+          while (running) {
+            doSelect(acceptSelector);
+          }
+        } finally {
+          try {
+            acceptSelector.close();
+          } catch (IOException ioe) {
+            LOG.error("Error closing accept selector in " + Thread.currentThread().getName(), ioe);
+          }
+        }
+      }
+
+      void shutdown() {
+        assert !running;
+        acceptSelector.wakeup();
+        try {
+          join();
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+        }
+      }
     }
     
     private class Reader extends Thread {
       final private BlockingQueue<Connection> pendingConnections;
       private final Selector readSelector;
+      // Connections served by this reader, and the bytes read from them
+      private final AtomicInteger numConnections = new AtomicInteger();
+      private final AtomicLong bytesRead = new AtomicLong();
 
       Reader(String name) throws IOException {
         super(name);
@@ -639,10 +887,36 @@ private synchronized void doRunLoop() {
        * and update its readSelector before performing the next select
        */
       public void addConnection(Connection conn) throws InterruptedException {
+        conn.reader = this;
+        numConnections.incrementAndGet();
         pendingConnections.put(conn);
         readSelector.wakeup();
       }
 
+      void connectionClosed() {
+        numConnections.decrementAndGet();
+      }
+
+      void incrBytesRead(int count) {
+        bytesRead.addAndGet(count);
+      }
+
+      private void getMetrics(MetricsCollector collector, int index) {
+        collector.addRecord("RpcReaderActivity")
+            .setContext("rpc")
+            .tag(Interns.info("port", "RPC port"), String.valueOf(port))
+            .tag(Interns.info("Reader", "Socket reader"),
+                String.valueOf(index))
+            .addGauge(Interns.info("NumConnections",
+                "Number of connections served by the reader"),
+                numConnections.get())
+            .addGauge(Interns.info("NumPendingConnections",
+                "Number of connections waiting to be registered"),
+                pendingConnections.size())
+            .addCounter(Interns.info("BytesRead",
+                "Number of bytes read by the reader"), bytesRead.get());
+      }
+
       void shutdown() {
         assert !running;
         readSelector.wakeup();
@@ -659,34 +933,11 @@ public void run() {
       LOG.info(Thread.currentThread().getName() + ": starting");
       SERVER.set(Server.this);
       connectionManager.startIdleScan();
+      for (Acceptor acceptor : acceptors) {
+        acceptor.start();
+      }
       while (running) {
-        SelectionKey key = null;
-        try {
-          getSelector().select();
-          Iterator<SelectionKey> iter = getSelector().selectedKeys().iterator();
-          while (iter.hasNext()) {
-            key = iter.next();
-            iter.remove();
-            try {
-              if (key.isValid()) {
-                if (key.isAcceptable())
-                  doAccept(key);
-              }
-            } catch (IOException e) {
-            }
-            key = null;
-          }
-        } catch (OutOfMemoryError e) {
-          // we can run out of memory if we have too many threads
-          // log the event and sleep for a minute and give 
-          // some thread(s) a chance to finish
-          LOG.warn("Out of Memory in server select", e);
-          closeCurrentConnection(key, e);
-          connectionManager.closeIdle(true);
-          try { Thread.sleep(60000); } catch (Exception ie) {}
-        } catch (Exception e) {
-          closeCurrentConnection(key, e);
-        }
+        doSelect(getSelector());
       }
       LOG.info("Stopping " + Thread.currentThread().getName());
 
@@ -705,6 +956,37 @@ public void run() {
       }
     }
 
+    /** Accept the connections waiting on the given selector. */
+    private void doSelect(Selector selector) {
+      SelectionKey key = null;
+      try {
+        selector.select();
+        Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+        while (iter.hasNext()) {
+          key = iter.next();
+          iter.remove();
+          try {
+            if (key.isValid()) {
+              if (key.isAcceptable())
+                doAccept(key);
+            }
+          } catch (IOException e) {
+          }
+          key = null;
+        }
+      } catch (OutOfMemoryError e) {
+        // we can run out of memory if we have too many threads
+        // log the event and sleep for a minute and give 
+        // some thread(s) a chance to finish
+        LOG.warn("Out of Memory in server select", e);
+        closeCurrentConnection(key, e);
+        connectionManager.closeIdle(true);
+        try { Thread.sleep(60000); } catch (Exception ie) {}
+      } catch (Exception e) {
+        closeCurrentConnection(key, e);
+      }
+    }
+
     private void closeCurrentConnection(SelectionKey key, Throwable e) {
       if (key != null) {
         Connection c = (Connection)key.attachment();
@@ -779,17 +1061,35 @@ synchronized void doStop() {
           LOG.info(Thread.currentThread().getName() + ":Exception in closing listener socket. " + e);
         }
       }
+      for (Acceptor a : acceptors) {
+        a.shutdown();
+      }
       for (Reader r : readers) {
         r.shutdown();
       }
     }
     
     synchronized Selector getSelector() { return selector; }
-    // The method that will return the next reader to work with
-    // Simplistic implementation of round robin for now
+    // The method that will return the next reader to work with: the one
+    // serving the fewest connections, looking at the readers in turn so
+    // that ties are spread round robin.
     Reader getReader() {
-      currentReader = (currentReader + 1) % readers.length;
-      return readers[currentReader];
+      int start = (currentReader.getAndIncrement() & Integer.MAX_VALUE)
+          % readers.length;
+      Reader reader = readers[start];
+      for (int i = 1; i < readers.length; i++) {
+        Reader r = readers[(start + i) % readers.length];
+        if (r.numConnections.get() < reader.numConnections.get()) {
+          reader = r;
+        }
+      }
+      return reader;
+    }
+
+    void getReaderMetrics(MetricsCollector collector) {
+      for (int i = 0; i < readers.length; i++) {
+        readers[i].getMetrics(collector, i);
+      }
     }
   }
 
@@ -949,39 +1249,51 @@ private boolean processResponse(LinkedList<Call> responseQueue,
             return true;              // no more data for this channel.
           }
           //
-          // Extract the first call
+          // Look at the first call
           //
-          call = responseQueue.removeFirst();
+          call = responseQueue.getFirst();
           SocketChannel channel = call.connection.channel;
           if (LOG.isDebugEnabled()) {
             LOG.debug(Thread.currentThread().getName() + ": responding to " + call);
           }
           //
-          // Send as much data as we can in the non-blocking fashion
+          // Send as much data as we can in the non-blocking fashion,
+          // gathering the responses queued behind the first one if possible
           //
-          int numBytes = channelWrite(channel, call.rpcResponse);
+          ByteBuffer[] buffers = getResponsesToWrite(responseQueue);
+          int numBytes = buffers.length == 1 ?
+              channelWrite(channel, buffers[0]) :
+              channelWrite(channel, buffers);
           if (numBytes < 0) {
             return true;
           }
-          if (!call.rpcResponse.hasRemaining()) {
+          //
+          // Remove the calls which have been sent completely
+          //
+          int numSent = 0;
+          while (numSent < buffers.length && !buffers[numSent].hasRemaining()) {
+            Call sent = responseQueue.removeFirst();
             //Clear out the response buffer so it can be collected
-            call.rpcResponse = null;
-            call.connection.decRpcCount();
-            if (numElements == 1) {    // last call fully processes.
+            releaseResponse(sent);
+            sent.connection.decRpcCount();
+            numSent++;
+            if (LOG.isDebugEnabled()) {
+              LOG.debug(Thread.currentThread().getName() + ": responding to " + sent
+                  + " Wrote " + numBytes + " bytes.");
+            }
+          }
+          if (numSent == buffers.length) {
+            if (numSent == numElements) {  // last call fully processes.
               done = true;             // no more data for this channel.
             } else {
               done = false;            // more calls pending to be sent.
             }
-            if (LOG.isDebugEnabled()) {
-              LOG.debug(Thread.currentThread().getName() + ": responding to " + call
-                  + " Wrote " + numBytes + " bytes.");
-            }
           } else {
             //
             // If we were unable to write the entire response out, then 
             // insert in Selector queue. 
             //
-            call.connection.responseQueue.addFirst(call);
+            call = responseQueue.getFirst();
             
             if (inHandler) {
               // set the serve time when the response has to be sent later
@@ -1017,6 +1329,28 @@ private boolean processResponse(LinkedList<Call> responseQueue,
       return done;
     }
 
+    /**
+     * @return the responses to write next: that of the first call, followed
+     * by those queued behind it for as long as they can be passed to a
+     * single gathering write without the JDK copying them.
+     */
+    private ByteBuffer[] getResponsesToWrite(LinkedList<Call> responseQueue) {
+      ByteBuffer first = responseQueue.getFirst().rpcResponse;
+      if (responseQueue.size() == 1 || !first.isDirect()) {
+        return new ByteBuffer[] { first };
+      }
+      List<ByteBuffer> buffers = new ArrayList<ByteBuffer>(
+          Math.min(responseQueue.size(), MAX_GATHERED_RESPONSES));
+      for (Call c : responseQueue) {
+        if (buffers.size() == MAX_GATHERED_RESPONSES ||
+            !c.rpcResponse.isDirect()) {
+          break;
+        }
+        buffers.add(c.rpcResponse);
+      }
+      return buffers.toArray(new ByteBuffer[buffers.size()]);
+    }
+
     //
     // Enqueue a response from the application.
     //
@@ -1102,6 +1436,7 @@ public class Connection {
     private ByteBuffer dataLengthBuffer;
     private LinkedList<Call> responseQueue;
     private volatile int rpcCount = 0; // number of outstanding rpcs
+    private Listener.Reader reader;    // the reader serving this connection
     private long lastContact;
     private int dataLength;
     private Socket socket;
@@ -1192,6 +1527,19 @@ private boolean isIdle() {
       return rpcCount == 0;
     }
     
+    /**
+     * Drop the responses which will not be sent because the connection is
+     * closed, returning their pooled buffers.
+     */
+    private void releaseQueuedResponses() {
+      synchronized (responseQueue) {
+        for (Call call : responseQueue) {
+          releaseResponse(call);
+        }
+        responseQueue.clear();
+      }
+    }
+
     /* Decrement the outstanding RPC count */
     private void decRpcCount() {
       rpcCount--;
@@ -1918,6 +2266,10 @@ private void processRpcRequest(RpcRequestHeaderProto header,
       Call call = new Call(header.getCallId(), header.getRetryCount(),
           rpcRequest, this, ProtoUtil.convert(header.getRpcKind()), header
               .getClientId().toByteArray());
+      final AlignmentContext context = alignmentContext;
+      if (context != null && header.hasStateId()) {
+        call.clientStateId = context.receiveRequestState(header);
+      }
       callQueue.put(call);              // queue the call; maybe blocked here
       incRpcCount();  // Increment the rpc count
     }
@@ -2031,6 +2383,16 @@ public void setServiceClass(int serviceClass) {
       this.serviceClass = serviceClass;
     }
 
+    private Server getServer() {
+      return Server.this;
+    }
+
+    /** Send the response of a call whose response was postponed. */
+    private void sendDeferredResponse(Call call) throws IOException {
+      numDeferredResponses.decrementAndGet();
+      sendResponse(new ByteArrayOutputStream(INITIAL_RESP_BUF_SIZE), call);
+    }
+
     private synchronized void close() {
       disposeSasl();
       data = null;
@@ -2070,13 +2432,11 @@ public void run() {
             LOG.info(Thread.currentThread().getName() + ": skipped " + call);
             continue;
           }
-          String errorClass = null;
-          String error = null;
-          RpcStatusProto returnStatus = RpcStatusProto.SUCCESS;
-          RpcErrorCodeProto detailedErr = null;
           Writable value = null;
+          Throwable failure = null;
 
           CurCall.set(call);
+          numActiveHandlers.incrementAndGet();
           try {
             // Make the call as the user via Subject.doAs, thus associating
             // the call with the Subject
@@ -2114,39 +2474,35 @@ public Writable run() throws Exception {
             } else {
               LOG.info(logMsg, e);
             }
-            if (e instanceof RpcServerException) {
-              RpcServerException rse = ((RpcServerException)e); 
-              returnStatus = rse.getRpcStatusProto();
-              detailedErr = rse.getRpcErrorCodeProto();
-            } else {
-              returnStatus = RpcStatusProto.ERROR;
-              detailedErr = RpcErrorCodeProto.ERROR_APPLICATION;
-            }
-            errorClass = e.getClass().getName();
-            error = StringUtils.stringifyException(e);
-            // Remove redundant error class name from the beginning of the stack trace
-            String exceptionHdr = errorClass + ": ";
-            if (error.startsWith(exceptionHdr)) {
-              error = error.substring(exceptionHdr.length());
-            }
+            failure = e;
           }
           CurCall.set(null);
-          synchronized (call.connection.responseQueue) {
-            // setupResponse() needs to be sync'ed together with 
-            // responder.doResponse() since setupResponse may use
-            // SASL to encrypt response data and SASL enforces
-            // its own message ordering.
-            setupResponse(buf, call, returnStatus, detailedErr, 
-                value, errorClass, error);
-            
-            // Discard the large buf and reset it back to smaller size 
-            // to free up heap
-            if (buf.size() > maxRespSize) {
-              LOG.warn("Large response size " + buf.size() + " for call "
-                  + call.toString());
-              buf = new ByteArrayOutputStream(INITIAL_RESP_BUF_SIZE);
+          numActiveHandlers.decrementAndGet();
+          if (call.deferred) {
+            // The outcome is set by whoever completes the call, unless the
+            // method failed after deferring it.
+            if (failure != null) {
+              call.setDeferredError(failure);
             }
-            responder.doRespond(call);
+          } else if (failure != null) {
+            call.setError(failure);
+          } else {
+            call.setResult(RpcStatusProto.SUCCESS, null, value, null, null);
+          }
+          numDeferredResponses.incrementAndGet();
+          if (call.responseWaitCount.decrementAndGet() > 0) {
+            // The response was postponed; whoever releases it last sends it.
+            continue;
+          }
+          numDeferredResponses.decrementAndGet();
+          sendResponse(buf, call);
+
+          // Discard the large buf and reset it back to smaller size 
+          // to free up heap
+          if (buf.size() > maxRespSize) {
+            LOG.warn("Large response size " + buf.size() + " for call "
+                + call.toString());
+            buf = new ByteArrayOutputStream(INITIAL_RESP_BUF_SIZE);
           }
         } catch (InterruptedException e) {
           if (running) {                          // unexpected -- log it
@@ -2218,6 +2574,18 @@ protected Server(String bindAddress, int port,
     this.maxRespSize = conf.getInt(
         CommonConfigurationKeys.IPC_SERVER_RPC_MAX_RESPONSE_SIZE_KEY,
         CommonConfigurationKeys.IPC_SERVER_RPC_MAX_RESPONSE_SIZE_DEFAULT);
+    this.deferredResponseTimeout = conf.getLong(
+        CommonConfigurationKeys.IPC_SERVER_DEFERRED_RESPONSE_TIMEOUT_KEY,
+        CommonConfigurationKeys.IPC_SERVER_DEFERRED_RESPONSE_TIMEOUT_DEFAULT);
+    this.deferredResponseTimer = deferredResponseTimeout > 0 ? new Timer(
+        "IPC Server deferred response timer for port " + port, true) : null;
+    this.responseBufferPool = conf.getBoolean(
+        CommonConfigurationKeys.IPC_SERVER_RESPONSE_BUFFER_POOL_ENABLED_KEY,
+        CommonConfigurationKeys.IPC_SERVER_RESPONSE_BUFFER_POOL_ENABLED_DEFAULT)
+        ? new ElasticByteBufferPool() : null;
+    this.maxPooledResponseSize = conf.getInt(
+        CommonConfigurationKeys.IPC_SERVER_RESPONSE_BUFFER_POOL_MAX_SIZE_KEY,
+        CommonConfigurationKeys.IPC_SERVER_RESPONSE_BUFFER_POOL_MAX_SIZE_DEFAULT);
     if (numReaders != -1) {
       this.readThreads = numReaders;
     } else {
@@ -2228,6 +2596,9 @@ protected Server(String bindAddress, int port,
     this.readerPendingConnectionQueue = conf.getInt(
         CommonConfigurationKeys.IPC_SERVER_RPC_READ_CONNECTION_QUEUE_SIZE_KEY,
         CommonConfigurationKeys.IPC_SERVER_RPC_READ_CONNECTION_QUEUE_SIZE_DEFAULT);
+    this.acceptThreads = Math.max(1, conf.getInt(
+        CommonConfigurationKeys.IPC_SERVER_RPC_ACCEPT_THREADS_KEY,
+        CommonConfigurationKeys.IPC_SERVER_RPC_ACCEPT_THREADS_DEFAULT));
 
     // Setup appropriate callqueue
     final String prefix = getQueueClassPrefix();
@@ -2341,6 +2712,10 @@ private void setupResponse(ByteArrayOutputStream responseBuf,
     headerBuilder.setRetryCount(call.retryCount);
     headerBuilder.setStatus(status);
     headerBuilder.setServerIpcVersionNum(CURRENT_VERSION);
+    final AlignmentContext context = alignmentContext;
+    if (context != null) {
+      context.updateResponseState(headerBuilder);
+    }
 
     if (status == RpcStatusProto.SUCCESS) {
       RpcResponseHeaderProto header = headerBuilder.build();
@@ -2352,6 +2727,11 @@ private void setupResponse(ByteArrayOutputStream responseBuf,
           ProtobufRpcEngine.RpcWrapper resWrapper = 
               (ProtobufRpcEngine.RpcWrapper) rv;
           fullLength += resWrapper.getLength();
+          if (responseBufferPool != null && !call.connection.useWrap &&
+              fullLength + 4 <= maxPooledResponseSize) {
+            setupPooledResponse(call, header, rv, fullLength);
+            return;
+          }
           out.writeInt(fullLength);
           header.writeDelimitedTo(out);
           rv.write(out);
@@ -2392,6 +2772,119 @@ private void setupResponse(ByteArrayOutputStream responseBuf,
     call.setResponse(ByteBuffer.wrap(responseBuf.toByteArray()));
   }
   
+  /**
+   * Serialize a response of known length straight into a direct buffer from
+   * the pool. The responder writes it without further copies and returns it
+   * to the pool once it has been sent.
+   */
+  private void setupPooledResponse(Call call, RpcResponseHeaderProto header,
+      Writable rv, int fullLength) throws IOException {
+    final int size = fullLength + 4;
+    ByteBuffer buf = responseBufferPool.getBuffer(true,
+        Math.max(MIN_POOLED_RESPONSE_SIZE, Integer.highestOneBit(size - 1) << 1));
+    boolean success = false;
+    try {
+      buf.clear();
+      buf.limit(size);
+      DataOutputStream out =
+          new DataOutputStream(new ByteBufferOutputStream(buf));
+      out.writeInt(fullLength);
+      header.writeDelimitedTo(out);
+      rv.write(out);
+      out.flush();
+      if (buf.hasRemaining()) {
+        throw new IOException("Response of " + call + " is " + buf.position()
+            + " bytes instead of " + size);
+      }
+      buf.flip();
+      call.rpcResponse = buf;
+      call.pooledResponse = true;
+      success = true;
+    } finally {
+      if (!success) {
+        responseBufferPool.putBuffer(buf);
+      }
+    }
+  }
+
+  /** Drop the response of a call which has been sent. */
+  private void releaseResponse(Call call) {
+    if (call.pooledResponse) {
+      responseBufferPool.putBuffer(call.rpcResponse);
+      call.pooledResponse = false;
+    }
+    call.rpcResponse = null;
+  }
+
+  /** Writes into a buffer which is large enough for all the data. */
+  private static class ByteBufferOutputStream extends OutputStream {
+    private final ByteBuffer buf;
+
+    ByteBufferOutputStream(ByteBuffer buf) {
+      this.buf = buf;
+    }
+
+    @Override
+    public void write(int b) {
+      buf.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      buf.put(b, off, len);
+    }
+  }
+
+  /** Start timing a deferred call and arm its timeout, if enabled. */
+  private void startDeferredResponse(final Call call) {
+    call.deferredTime = Time.monotonicNow();
+    if (deferredResponseTimer == null) {
+      return;
+    }
+    TimerTask timeout = new TimerTask() {
+      @Override
+      public void run() {
+        if (call.completeDeferred()) {
+          rpcMetrics.incrDeferredResponseTimeouts();
+          LOG.warn("Deferred response of " + call + " timed out after "
+              + deferredResponseTimeout + " ms");
+          call.setError(new IOException("Deferred response timed out after "
+              + deferredResponseTimeout + " ms"));
+          call.releaseDeferred();
+        }
+      }
+    };
+    call.deferredTimeout = timeout;
+    try {
+      deferredResponseTimer.schedule(timeout, deferredResponseTimeout);
+    } catch (IllegalStateException e) {
+      // The server is stopping, the call will not be answered anyway.
+    }
+  }
+
+  /**
+   * Serialize the outcome of the call and queue it for the responder.
+   * @param buf buffer to serialize the response into
+   * @param call the call to respond to
+   * @throws IOException
+   */
+  private void sendResponse(ByteArrayOutputStream buf, Call call)
+      throws IOException {
+    synchronized (call.connection.responseQueue) {
+      // setupResponse() needs to be sync'ed together with 
+      // responder.doResponse() since setupResponse may use
+      // SASL to encrypt response data and SASL enforces
+      // its own message ordering.
+      if (call.abortCause != null) {
+        call.setError(call.abortCause);
+      }
+      setupResponse(buf, call, call.returnStatus, call.detailedErr,
+          call.rpcValue, call.errorClass, call.error);
+      call.rpcValue = null;
+      responder.doRespond(call);
+    }
+  }
+
   /**
    * Setup response for the IPC Call on Fatal Error from a 
    * client that is using old version of Hadoop.
@@ -2462,6 +2955,14 @@ Configuration getConf() {
   /** Sets the socket buffer size used for responding to RPCs */
   public void setSocketSendBufSize(int size) { this.socketSendBufferSize = size; }
 
+  /**
+   * Set the context that aligns the state of this server with its clients.
+   * @param context the context; null for none
+   */
+  public void setAlignmentContext(AlignmentContext context) {
+    this.alignmentContext = context;
+  }
+
   /** Starts the service.  Must be called before any calls will be handled. */
   public synchronized void start() {
     responder.start();
@@ -2488,6 +2989,9 @@ public synchronized void stop() {
     listener.interrupt();
     listener.doStop();
     responder.interrupt();
+    if (deferredResponseTimer != null) {
+      deferredResponseTimer.cancel();
+    }
     notifyAll();
     if (this.rpcMetrics != null) {
       this.rpcMetrics.shutdown();
@@ -2571,6 +3075,23 @@ public int getPort() {
   public int getNumOpenConnections() {
     return connectionManager.size();
   }
+
+  /**
+   * The number of handlers currently processing a call
+   * @return the number of busy handlers
+   */
+  public int getNumActiveHandlers() {
+    return numActiveHandlers.get();
+  }
+
+  /**
+   * The number of calls that have been processed, but whose response has
+   * been postponed and not sent yet
+   * @return the number of postponed responses
+   */
+  public int getNumDeferredResponses() {
+    return numDeferredResponses.get();
+  }
   
   /**
    * The number of rpc calls in the queue.
@@ -2579,6 +3100,22 @@ public int getNumOpenConnections() {
   public int getCallQueueLen() {
     return callQueue.size();
   }
+
+  /**
+   * Add the metrics published by the active call queue, if any, such as
+   * the per-level depths of a {@link FairCallQueue}.
+   */
+  public void getCallQueueMetrics(MetricsCollector collector, boolean all) {
+    callQueue.getMetrics(collector, all);
+  }
+
+  /**
+   * Publish a record per socket reader with the number of connections it
+   * serves and the bytes it has read.
+   */
+  public void getReaderMetrics(MetricsCollector collector, boolean all) {
+    listener.getReaderMetrics(collector);
+  }
   
   /**
    * The maximum size of the rpc call queue of this server.
@@ -2602,6 +3139,12 @@ public int getNumReaders() {
    * be smaller.
    */
   private static int NIO_BUFFER_LIMIT = 8*1024; //should not be more than 64KB.
+
+  /** The most responses written to a channel with one gathering write. */
+  private static final int MAX_GATHERED_RESPONSES = 16;
+
+  /** The smallest direct buffer allocated for a pooled response. */
+  private static final int MIN_POOLED_RESPONSE_SIZE = 1024;
   
   /**
    * This is a wrapper around {@link WritableByteChannel#write(ByteBuffer)}.
@@ -2609,20 +3152,36 @@ public int getNumReaders() {
    * This is to avoid jdk from creating many direct buffers as the size of 
    * buffer increases. This also minimizes extra copies in NIO layer
    * as a result of multiple write operations required to write a large 
-   * buffer.  
+   * buffer. Direct buffers are written as a whole since the JDK does not
+   * copy them.
    *
    * @see WritableByteChannel#write(ByteBuffer)
    */
   private int channelWrite(WritableByteChannel channel, 
                            ByteBuffer buffer) throws IOException {
     
-    int count =  (buffer.remaining() <= NIO_BUFFER_LIMIT) ?
+    int count =  (buffer.isDirect() || buffer.remaining() <= NIO_BUFFER_LIMIT) ?
                  channel.write(buffer) : channelIO(null, channel, buffer);
     if (count > 0) {
       rpcMetrics.incrSentBytes(count);
     }
     return count;
   }
+
+  /**
+   * Write the given direct buffers to the channel with a single gathering
+   * write.
+   *
+   * @see GatheringByteChannel#write(ByteBuffer[])
+   */
+  private int channelWrite(GatheringByteChannel channel,
+                           ByteBuffer[] buffers) throws IOException {
+    long count = channel.write(buffers);
+    if (count > 0) {
+      rpcMetrics.incrSentBytes((int) count);
+    }
+    return (int) count;
+  }
   
   
   /**
@@ -2640,6 +3199,10 @@ private int channelRead(ReadableByteChannel channel,
                 channel.read(buffer) : channelIO(channel, null, buffer);
     if (count > 0) {
       rpcMetrics.incrReceivedBytes(count);
+      Thread reader = Thread.currentThread();
+      if (reader instanceof Listener.Reader) {
+        ((Listener.Reader) reader).incrBytesRead(count);
+      }
     }
     return count;
   }
@@ -2758,7 +3321,13 @@ boolean close(Connection connection) {
         // only close if actually removed to avoid double-closing due
         // to possible races
         connection.close();
+        if (connection.reader != null) {
+          connection.reader.connectionClosed();
+        }
       }
+      // Also when the connection was already closed, for the responses
+      // queued since then.
+      connection.releaseQueuedResponses();
       return exists;
     }
     
@@ -23,6 +23,8 @@
 import org.apache.hadoop.ipc.Server;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.metrics2.MetricsCollector;
+import org.apache.hadoop.metrics2.MetricsSource;
 import org.apache.hadoop.metrics2.annotation.Metric;
 import org.apache.hadoop.metrics2.annotation.Metrics;
 import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
@@ -38,7 +40,7 @@
  */
 @InterfaceAudience.Private
 @Metrics(about="Aggregate RPC metrics", context="rpc")
-public class RpcMetrics {
+public class RpcMetrics implements MetricsSource {
 
   static final Log LOG = LogFactory.getLog(RpcMetrics.class);
   final Server server;
@@ -87,6 +89,10 @@ public static RpcMetrics create(Server server, Configuration conf) {
   MutableQuantiles[] rpcQueueTimeMillisQuantiles;
   @Metric("Processsing time") MutableRate rpcProcessingTime;
   MutableQuantiles[] rpcProcessingTimeMillisQuantiles;
+  @Metric("Time from deferring a call until it is completed")
+  MutableRate deferredRpcProcessingTime;
+  @Metric("Number of deferred calls failed by a timeout")
+  MutableCounterLong rpcDeferredTimeouts;
   @Metric("Number of authentication failures")
   MutableCounterInt rpcAuthenticationFailures;
   @Metric("Number of authentication successes")
@@ -104,6 +110,29 @@ public static RpcMetrics create(Server server, Configuration conf) {
     return server.getCallQueueLen();
   }
 
+  @Metric("Number of handlers processing a call")
+  public int numActiveHandlers() {
+    return server.getNumActiveHandlers();
+  }
+
+  @Metric("Number of processed calls waiting for their response to be sent")
+  public int numDeferredResponses() {
+    return server.getNumDeferredResponses();
+  }
+
+  /**
+   * Publish the annotated metrics of this port followed by the metrics of
+   * its call queue, e.g. the per-level depths and per-user call volumes of
+   * a {@link org.apache.hadoop.ipc.FairCallQueue}, and of its socket
+   * readers.
+   */
+  @Override
+  public void getMetrics(MetricsCollector collector, boolean all) {
+    registry.snapshot(collector.addRecord(registry.info()), all);
+    server.getCallQueueMetrics(collector, all);
+    server.getReaderMetrics(collector, all);
+  }
+
   // Public instrumentation methods that could be extracted to an
   // abstract class if we decide to do custom instrumentation classes a la
   // JobTrackerInstrumenation. The methods with //@Override comment are
@@ -192,4 +221,22 @@ public void addRpcProcessingTime(int processingTime) {
       }
     }
   }
+
+  /**
+   * Add a deferred RPC processing time sample
+   * @param processingTime the time from deferring the call until its
+   *        completion
+   */
+  //@Override
+  public void addDeferredRpcProcessingTime(int processingTime) {
+    deferredRpcProcessingTime.add(processingTime);
+  }
+
+  /**
+   * One deferred call timed out
+   */
+  //@Override
+  public void incrDeferredResponseTimeouts() {
+    rpcDeferredTimeouts.incr();
+  }
 }
@@ -0,0 +1,150 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.util;
+
+import org.apache.hadoop.HadoopIllegalArgumentException;
+import org.apache.hadoop.classification.InterfaceAudience;
+
+/**
+ * A {@link LightWeightGSet} whose internal array grows with the size of
+ * the set, instead of being allocated at a fixed length up front.
+ *
+ * The array is doubled, and the elements are rehashed, whenever the size
+ * exceeds the load factor times the array length. The array is never
+ * shrunk, except by {@link #clear()}. A caller that knows the number of
+ * elements in advance should call {@link #ensureCapacity(int)}, so that
+ * the array is allocated once.
+ *
+ * This class does not support null element.
+ *
+ * This class is not thread safe.
+ *
+ * @param <K> Key type for looking up the elements
+ * @param <E> Element type, which must be
+ *       (1) a subclass of K, and
+ *       (2) implementing {@link LinkedElement} interface.
+ */
+@InterfaceAudience.Private
+public class LightWeightResizableGSet<K, E extends K>
+    extends LightWeightGSet<K, E> {
+  static final int DEFAULT_INITIAL_CAPACITY = 1 << 4;
+  static final float DEFAULT_LOAD_FACTOR = 0.75f;
+
+  /** The length the internal array starts with, and is reset to. */
+  private final int initialLength;
+  private final float loadFactor;
+  /** The size above which the internal array is doubled. */
+  private int threshold;
+
+  public LightWeightResizableGSet() {
+    this(DEFAULT_INITIAL_CAPACITY, DEFAULT_LOAD_FACTOR);
+  }
+
+  /**
+   * @param initialCapacity Recommended initial size of the internal array.
+   * @param loadFactor The maximum ratio of the size to the array length.
+   */
+  public LightWeightResizableGSet(int initialCapacity, float loadFactor) {
+    if (initialCapacity < 0) {
+      throw new HadoopIllegalArgumentException("Illegal initial capacity: "
+          + initialCapacity);
+    }
+    if (loadFactor <= 0 || loadFactor > 1.0f) {
+      throw new HadoopIllegalArgumentException("Illegal load factor: "
+          + loadFactor);
+    }
+    this.initialLength = actualArrayLength(initialCapacity);
+    this.loadFactor = loadFactor;
+    allocate(initialLength);
+  }
+
+  private void allocate(int length) {
+    entries = new LinkedElement[length];
+    hash_mask = length - 1;
+    threshold = length >= MAX_ARRAY_LENGTH ?
+        Integer.MAX_VALUE : (int) (length * loadFactor);
+  }
+
+  @Override
+  public E put(final E element) {
+    final E existing = super.put(element);
+    if (size > threshold) {
+      resize(entries.length << 1);
+    }
+    return existing;
+  }
+
+  /**
+   * Grow the internal array, if necessary, so that it holds the given
+   * number of elements without being resized again.
+   */
+  public void ensureCapacity(int expectedSize) {
+    int length = entries.length;
+    while (length < MAX_ARRAY_LENGTH && expectedSize > length * loadFactor) {
+      length <<= 1;
+    }
+    if (length > entries.length) {
+      resize(length);
+    }
+  }
+
+  /**
+   * Shrink the internal array, if possible, to the shortest length that
+   * holds the current elements, e.g. after most of them have been removed.
+   * The array is never made shorter than its initial length.
+   */
+  public void trimToSize() {
+    int length = initialLength;
+    while (length < MAX_ARRAY_LENGTH && size > length * loadFactor) {
+      length <<= 1;
+    }
+    if (length < entries.length) {
+      resize(length);
+    }
+  }
+
+  /** Move the elements into a new array of the given length. */
+  private void resize(int length) {
+    final LinkedElement[] old = entries;
+    allocate(length);
+    for (int i = 0; i < old.length; i++) {
+      LinkedElement e = old[i];
+      while (e != null) {
+        final LinkedElement next = e.getNext();
+        final int index = getIndex(convert(e));
+        e.setNext(entries[index]);
+        entries[index] = e;
+        e = next;
+      }
+      old[i] = null;
+    }
+    modification++;
+  }
+
+  /** @return the length of the internal array */
+  int getCapacity() {
+    return entries.length;
+  }
+
+  @Override
+  public void clear() {
+    allocate(initialLength);
+    size = 0;
+    modification++;
+  }
+}
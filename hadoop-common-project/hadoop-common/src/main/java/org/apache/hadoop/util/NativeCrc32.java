@@ -34,6 +34,34 @@ public static boolean isAvailable() {
     return NativeCodeLoader.isNativeCodeLoaded();
   }
 
+  /**
+   * Whether the loaded native library can also compute checksums and verify
+   * checksums held in byte arrays. A libhadoop built before these functions
+   * were added only supports {@link #verifyChunkedSums}.
+   */
+  private static final boolean BULK_FUNCTIONS_AVAILABLE = probeBulkFunctions();
+
+  private static boolean probeBulkFunctions() {
+    if (!isAvailable()) {
+      return false;
+    }
+    try {
+      nativeComputeChunkedSumsByteArray(1, CHECKSUM_CRC32C,
+          new byte[4], 0, new byte[1], 0, 1);
+      return true;
+    } catch (UnsatisfiedLinkError e) {
+      return false;
+    }
+  }
+
+  /**
+   * Return true if the native library supports {@link #calculateChunkedSums}
+   * and the byte array variants of the bulk checksum functions.
+   */
+  public static boolean isBulkAvailable() {
+    return BULK_FUNCTIONS_AVAILABLE;
+  }
+
   /**
    * Verify the given buffers of data and checksums, and throw an exception
    * if any checksum is invalid. The buffers given to this function should
@@ -60,12 +88,75 @@ public static void verifyChunkedSums(int bytesPerSum, int checksumType,
         fileName, basePos);
   }
   
+  /**
+   * Verify checksums held in byte arrays, as
+   * {@link #verifyChunkedSums(int, int, ByteBuffer, ByteBuffer, String, long)}
+   * does for direct buffers.
+   */
+  public static void verifyChunkedSumsByteArray(int bytesPerSum,
+      int checksumType, byte[] sums, int sumsOffset, byte[] data,
+      int dataOffset, int dataLength, String fileName, long basePos)
+      throws ChecksumException {
+    nativeVerifyChunkedSumsByteArray(bytesPerSum, checksumType,
+        sums, sumsOffset,
+        data, dataOffset, dataLength,
+        fileName, basePos);
+  }
+
+  /**
+   * Calculate the checksums of the data between the position and the limit
+   * of the given direct buffer, and store them from the position of the
+   * sums buffer on. The position, limit, and mark of both buffers are not
+   * modified.
+   *
+   * @param bytesPerSum the chunk size (eg 512 bytes)
+   * @param checksumType the DataChecksum type constant
+   * @param sums the DirectByteBuffer to store the checksums into
+   * @param data the DirectByteBuffer pointing at the beginning of the
+   *             data to checksum
+   */
+  public static void calculateChunkedSums(int bytesPerSum, int checksumType,
+      ByteBuffer sums, ByteBuffer data) {
+    nativeComputeChunkedSums(bytesPerSum, checksumType,
+        sums, sums.position(),
+        data, data.position(), data.remaining());
+  }
+
+  /**
+   * Calculate checksums of data held in a byte array, as
+   * {@link #calculateChunkedSums(int, int, ByteBuffer, ByteBuffer)} does for
+   * direct buffers.
+   */
+  public static void calculateChunkedSumsByteArray(int bytesPerSum,
+      int checksumType, byte[] sums, int sumsOffset, byte[] data,
+      int dataOffset, int dataLength) {
+    nativeComputeChunkedSumsByteArray(bytesPerSum, checksumType,
+        sums, sumsOffset,
+        data, dataOffset, dataLength);
+  }
+
     private static native void nativeVerifyChunkedSums(
       int bytesPerSum, int checksumType,
       ByteBuffer sums, int sumsOffset,
       ByteBuffer data, int dataOffset, int dataLength,
       String fileName, long basePos);
 
+  private static native void nativeVerifyChunkedSumsByteArray(
+      int bytesPerSum, int checksumType,
+      byte[] sums, int sumsOffset,
+      byte[] data, int dataOffset, int dataLength,
+      String fileName, long basePos);
+
+  private static native void nativeComputeChunkedSums(
+      int bytesPerSum, int checksumType,
+      ByteBuffer sums, int sumsOffset,
+      ByteBuffer data, int dataOffset, int dataLength);
+
+  private static native void nativeComputeChunkedSumsByteArray(
+      int bytesPerSum, int checksumType,
+      byte[] sums, int sumsOffset,
+      byte[] data, int dataOffset, int dataLength);
+
   // Copy the constants over from DataChecksum so that javah will pick them up
   // and make them available in the native code header.
   public static final int CHECKSUM_CRC32 = DataChecksum.CHECKSUM_CRC32;
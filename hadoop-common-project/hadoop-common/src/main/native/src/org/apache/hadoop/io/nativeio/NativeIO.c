@@ -444,6 +444,7 @@ static int toFreeBSDFlags(int flags)
   if ( flags & 04000 ) rc |= O_NONBLOCK;
   if ( flags &010000 ) rc |= O_SYNC;
   if ( flags &020000 ) rc |= O_ASYNC;
+  if ( flags &040000 ) rc |= O_DIRECT;
   return rc;
 }
 #endif
@@ -465,6 +466,17 @@ Java_org_apache_hadoop_io_nativeio_NativeIO_00024POSIX_open(
 #ifdef UNIX
 #ifdef __FreeBSD__
   flags = toFreeBSDFlags(flags);
+#else
+  if (flags & org_apache_hadoop_io_nativeio_NativeIO_POSIX_O_DIRECT) {
+#ifdef O_DIRECT
+    // O_DIRECT does not have the same value on every architecture
+    flags = (flags & ~org_apache_hadoop_io_nativeio_NativeIO_POSIX_O_DIRECT)
+        | O_DIRECT;
+#else
+    throw_ioe(env, EINVAL);
+    return NULL;
+#endif
+  }
 #endif
   jobject ret = NULL;
 
@@ -177,6 +177,184 @@ JNIEXPORT void JNICALL Java_org_apache_hadoop_util_NativeCrc32_nativeVerifyChunk
   }
 }
 
+JNIEXPORT void JNICALL Java_org_apache_hadoop_util_NativeCrc32_nativeComputeChunkedSums
+  (JNIEnv *env, jclass clazz,
+    jint bytes_per_checksum, jint j_crc_type,
+    jobject j_sums, jint sums_offset,
+    jobject j_data, jint data_offset, jint data_len)
+{
+  uint8_t *sums_addr;
+  uint8_t *data_addr;
+  int crc_type;
+
+  if (unlikely(!j_sums || !j_data)) {
+    THROW(env, "java/lang/NullPointerException",
+      "input ByteBuffers must not be null");
+    return;
+  }
+
+  // Convert direct byte buffers to C pointers
+  sums_addr = (*env)->GetDirectBufferAddress(env, j_sums);
+  data_addr = (*env)->GetDirectBufferAddress(env, j_data);
+
+  if (unlikely(!sums_addr || !data_addr)) {
+    THROW(env, "java/lang/IllegalArgumentException",
+      "input ByteBuffers must be direct buffers");
+    return;
+  }
+  if (unlikely(sums_offset < 0 || data_offset < 0 || data_len < 0)) {
+    THROW(env, "java/lang/IllegalArgumentException",
+      "bad offsets or lengths");
+    return;
+  }
+  if (unlikely(bytes_per_checksum <= 0)) {
+    THROW(env, "java/lang/IllegalArgumentException",
+      "invalid bytes_per_checksum");
+    return;
+  }
+
+  crc_type = convert_java_crc_type(env, j_crc_type);
+  if (crc_type == -1) return; // exception already thrown
+
+  if (unlikely(bulk_calculate_crc(data_addr + data_offset, data_len,
+        (uint32_t *)(sums_addr + sums_offset), crc_type,
+        bytes_per_checksum) != 0)) {
+    THROW(env, "java/lang/AssertionError",
+      "Bad response code from native bulk_calculate_crc");
+  }
+}
+
+/**
+ * Check the offsets and lengths passed for a pair of checksum and data
+ * arrays. Throws and returns -1 if they do not fit the arrays.
+ */
+static int check_array_bounds(JNIEnv *env,
+    jint bytes_per_checksum,
+    jarray j_sums, jint sums_offset,
+    jarray j_data, jint data_offset, jint data_len)
+{
+  jsize sums_len, num_sums;
+
+  if (unlikely(!j_sums || !j_data)) {
+    THROW(env, "java/lang/NullPointerException",
+      "input arrays must not be null");
+    return -1;
+  }
+  if (unlikely(bytes_per_checksum <= 0)) {
+    THROW(env, "java/lang/IllegalArgumentException",
+      "invalid bytes_per_checksum");
+    return -1;
+  }
+  num_sums = (data_len + bytes_per_checksum - 1) / bytes_per_checksum;
+  sums_len = (*env)->GetArrayLength(env, j_sums);
+  if (unlikely(sums_offset < 0 || data_offset < 0 || data_len < 0 ||
+      data_offset > (*env)->GetArrayLength(env, j_data) - data_len ||
+      sums_offset > sums_len - num_sums * 4)) {
+    THROW(env, "java/lang/ArrayIndexOutOfBoundsException",
+      "bad offsets or lengths");
+    return -1;
+  }
+  return 0;
+}
+
+JNIEXPORT void JNICALL Java_org_apache_hadoop_util_NativeCrc32_nativeVerifyChunkedSumsByteArray
+  (JNIEnv *env, jclass clazz,
+    jint bytes_per_checksum, jint j_crc_type,
+    jarray j_sums, jint sums_offset,
+    jarray j_data, jint data_offset, jint data_len,
+    jstring j_filename, jlong base_pos)
+{
+  uint8_t *sums_addr;
+  uint8_t *data_addr;
+  uint8_t *data;
+  int crc_type;
+  crc32_error_t error_data;
+  int ret;
+  long pos = 0;
+
+  if (check_array_bounds(env, bytes_per_checksum, j_sums, sums_offset,
+        j_data, data_offset, data_len) != 0) {
+    return; // exception already thrown
+  }
+  crc_type = convert_java_crc_type(env, j_crc_type);
+  if (crc_type == -1) return; // exception already thrown
+
+  // No other JNI calls may be made until both arrays are released, so the
+  // exception for a bad checksum is only thrown once that is done.
+  sums_addr = (*env)->GetPrimitiveArrayCritical(env, j_sums, NULL);
+  if (unlikely(!sums_addr)) {
+    return; // OOME already thrown
+  }
+  data_addr = (*env)->GetPrimitiveArrayCritical(env, j_data, NULL);
+  if (unlikely(!data_addr)) {
+    (*env)->ReleasePrimitiveArrayCritical(env, j_sums, sums_addr, JNI_ABORT);
+    return; // OOME already thrown
+  }
+
+  data = data_addr + data_offset;
+  ret = bulk_verify_crc(data, data_len,
+      (uint32_t *)(sums_addr + sums_offset), crc_type,
+      bytes_per_checksum, &error_data);
+  if (unlikely(ret == INVALID_CHECKSUM_DETECTED)) {
+    pos = base_pos + (error_data.bad_data - data);
+  }
+
+  (*env)->ReleasePrimitiveArrayCritical(env, j_data, data_addr, JNI_ABORT);
+  (*env)->ReleasePrimitiveArrayCritical(env, j_sums, sums_addr, JNI_ABORT);
+
+  if (likely(ret == CHECKSUMS_VALID)) {
+    return;
+  } else if (unlikely(ret == INVALID_CHECKSUM_DETECTED)) {
+    throw_checksum_exception(
+      env, error_data.got_crc, error_data.expected_crc,
+      j_filename, pos);
+  } else {
+    THROW(env, "java/lang/AssertionError",
+      "Bad response code from native bulk_verify_crc");
+  }
+}
+
+JNIEXPORT void JNICALL Java_org_apache_hadoop_util_NativeCrc32_nativeComputeChunkedSumsByteArray
+  (JNIEnv *env, jclass clazz,
+    jint bytes_per_checksum, jint j_crc_type,
+    jarray j_sums, jint sums_offset,
+    jarray j_data, jint data_offset, jint data_len)
+{
+  uint8_t *sums_addr;
+  uint8_t *data_addr;
+  int crc_type;
+  int ret;
+
+  if (check_array_bounds(env, bytes_per_checksum, j_sums, sums_offset,
+        j_data, data_offset, data_len) != 0) {
+    return; // exception already thrown
+  }
+  crc_type = convert_java_crc_type(env, j_crc_type);
+  if (crc_type == -1) return; // exception already thrown
+
+  sums_addr = (*env)->GetPrimitiveArrayCritical(env, j_sums, NULL);
+  if (unlikely(!sums_addr)) {
+    return; // OOME already thrown
+  }
+  data_addr = (*env)->GetPrimitiveArrayCritical(env, j_data, NULL);
+  if (unlikely(!data_addr)) {
+    (*env)->ReleasePrimitiveArrayCritical(env, j_sums, sums_addr, 0);
+    return; // OOME already thrown
+  }
+
+  ret = bulk_calculate_crc(data_addr + data_offset, data_len,
+      (uint32_t *)(sums_addr + sums_offset), crc_type,
+      bytes_per_checksum);
+
+  (*env)->ReleasePrimitiveArrayCritical(env, j_data, data_addr, JNI_ABORT);
+  (*env)->ReleasePrimitiveArrayCritical(env, j_sums, sums_addr, 0);
+
+  if (unlikely(ret != 0)) {
+    THROW(env, "java/lang/AssertionError",
+      "Bad response code from native bulk_calculate_crc");
+  }
+}
+
 /**
  * vim: sw=2: ts=2: et:
  */
@@ -70,8 +70,8 @@ extern int bulk_verify_crc(const uint8_t *data, size_t data_len,
  * The checksums are each 32 bits and are stored in sequential indexes of the
  * 'sums' array.
  *
- * This function is not (yet) optimized.  It is provided for testing purposes
- * only.
+ * CRC32C checksums are computed with the SSE4.2 crc32 instruction when the
+ * CPU supports it, in the same way as bulk_verify_crc.
  *
  * @param data                  The data to checksum
  * @param dataLen               Length of the data buffer
@@ -20,6 +20,7 @@
 
 #include "bulk_crc32.h"
 
+#include <arpa/inet.h>
 #include <stdint.h>
 #include <stdio.h>
 #include <stdlib.h>
@@ -57,8 +58,30 @@ static int testBulkVerifyCrc(int dataLen, int crcType, int bytesPerChecksum)
   return 0;
 }
 
+static int testBulkCalculateKnownCrc(int crcType, uint32_t expected)
+{
+  const uint8_t *data = (const uint8_t *)"123456789";
+  uint32_t sums[3];
+  int i;
+
+  /* A whole chunk, then three chunks computed together. */
+  EXPECT_ZERO(bulk_calculate_crc(data, 9, sums, crcType, 9));
+  EXPECT_ZERO(ntohl(sums[0]) != expected);
+  EXPECT_ZERO(bulk_calculate_crc(data, 9, sums, crcType, 3));
+  for (i = 0; i < 3; i++) {
+    uint32_t chunk;
+    EXPECT_ZERO(bulk_calculate_crc(data + i * 3, 3, &chunk, crcType, 3));
+    EXPECT_ZERO(chunk != sums[i]);
+  }
+  return 0;
+}
+
 int main(int argc, char **argv)
 {
+  /* Check bulk_calculate_crc against the standard check values. */
+  EXPECT_ZERO(testBulkCalculateKnownCrc(CRC32C_POLYNOMIAL, 0xe3069283));
+  EXPECT_ZERO(testBulkCalculateKnownCrc(CRC32_ZLIB_POLYNOMIAL, 0xcbf43926));
+
   /* Test running bulk_calculate_crc with some different algorithms and
    * bytePerChecksum values. */
   EXPECT_ZERO(testBulkVerifyCrc(4096, CRC32C_POLYNOMIAL, 512));
@@ -73,6 +96,8 @@ int main(int argc, char **argv)
   EXPECT_ZERO(testBulkVerifyCrc(17, CRC32_ZLIB_POLYNOMIAL, 2));
   EXPECT_ZERO(testBulkVerifyCrc(17, CRC32C_POLYNOMIAL, 4));
   EXPECT_ZERO(testBulkVerifyCrc(17, CRC32_ZLIB_POLYNOMIAL, 4));
+  EXPECT_ZERO(testBulkVerifyCrc(4096 + 100, CRC32C_POLYNOMIAL, 512));
+  EXPECT_ZERO(testBulkVerifyCrc(5 * 512, CRC32C_POLYNOMIAL, 512));
 
   fprintf(stderr, "%s: SUCCESS.\n", argv[0]);
   return EXIT_SUCCESS;
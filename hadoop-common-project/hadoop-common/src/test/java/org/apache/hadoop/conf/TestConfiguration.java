@@ -762,6 +762,15 @@ public void testTimeDuration() {
     conf.set("test.time.X", "30");
     assertEquals(30L, conf.getTimeDuration("test.time.X", 40, SECONDS));
 
+    // check a separate unit for the values without a suffix
+    assertEquals(40000L,
+        conf.getTimeDuration("test.time.Y", 40, SECONDS, MILLISECONDS));
+    assertEquals(30000L,
+        conf.getTimeDuration("test.time.X", 40, SECONDS, MILLISECONDS));
+    conf.set("test.time.X", "500ms");
+    assertEquals(500L,
+        conf.getTimeDuration("test.time.X", 40, SECONDS, MILLISECONDS));
+
     for (Configuration.ParsedTimeDuration ptd :
          Configuration.ParsedTimeDuration.values()) {
       conf.setTimeDuration("test.time.unit", 1, ptd.unit());
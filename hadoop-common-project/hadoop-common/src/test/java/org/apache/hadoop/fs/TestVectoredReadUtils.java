@@ -0,0 +1,134 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs;
+
+import static org.junit.Assert.*;
+
+import java.io.EOFException;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+
+import org.apache.hadoop.HadoopIllegalArgumentException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.Test;
+
+public class TestVectoredReadUtils {
+  private static final String TEST_ROOT_DIR =
+      System.getProperty("test.build.data", "build/test/data")
+      + "/TestVectoredReadUtils";
+
+  private static List<FileRange> ranges(long... offsetsAndLengths) {
+    List<FileRange> ranges = new ArrayList<FileRange>();
+    for (int i = 0; i < offsetsAndLengths.length; i += 2) {
+      ranges.add(new FileRange(offsetsAndLengths[i],
+          (int) offsetsAndLengths[i + 1]));
+    }
+    return ranges;
+  }
+
+  @Test
+  public void testSortRanges() {
+    List<FileRange> sorted =
+        VectoredReadUtils.sortRanges(ranges(300, 10, 0, 100, 100, 50));
+    assertEquals(0, sorted.get(0).getOffset());
+    assertEquals(100, sorted.get(1).getOffset());
+    assertEquals(300, sorted.get(2).getOffset());
+
+    try {
+      VectoredReadUtils.sortRanges(ranges(0, 100, 50, 100));
+      fail("Accepted overlapping ranges");
+    } catch (HadoopIllegalArgumentException e) {
+      GenericTestUtils.assertExceptionContains("Overlapping", e);
+    }
+    try {
+      VectoredReadUtils.sortRanges(ranges(-1, 100));
+      fail("Accepted a negative offset");
+    } catch (HadoopIllegalArgumentException e) {
+      GenericTestUtils.assertExceptionContains("Invalid", e);
+    }
+  }
+
+  @Test
+  public void testMergeSortedRanges() {
+    List<FileRange> sorted = VectoredReadUtils.sortRanges(
+        ranges(0, 100, 150, 50, 1000, 10, 1020, 10, 5000, 2000));
+    List<CombinedFileRange> combined =
+        VectoredReadUtils.mergeSortedRanges(sorted, 100, 1500);
+    assertEquals(3, combined.size());
+    assertEquals(0, combined.get(0).getOffset());
+    assertEquals(200, combined.get(0).getLength());
+    assertEquals(2, combined.get(0).getRanges().size());
+    assertEquals(1000, combined.get(1).getOffset());
+    assertEquals(30, combined.get(1).getLength());
+    // longer than the limit on its own, but never split
+    assertEquals(2000, combined.get(2).getLength());
+
+    // the size limit stops merging
+    combined = VectoredReadUtils.mergeSortedRanges(
+        VectoredReadUtils.sortRanges(ranges(0, 100, 150, 50)), 100, 150);
+    assertEquals(2, combined.size());
+    for (FileRange range : sorted) {
+      assertNotNull(range.getData());
+    }
+  }
+
+  @Test
+  public void testReadVectoredFallback() throws Exception {
+    FileSystem fs = FileSystem.getLocal(new Configuration());
+    Path path = new Path(new File(TEST_ROOT_DIR, "data").getAbsolutePath());
+    byte[] data = new byte[64 * 1024];
+    new Random().nextBytes(data);
+    FSDataOutputStream out = fs.create(path, true);
+    try {
+      out.write(data);
+    } finally {
+      out.close();
+    }
+
+    List<FileRange> ranges = ranges(30000, 1000, 0, 10, 12, 100, 4200, 0,
+        60000, 5536, 65536, 100);
+    FSDataInputStream in = fs.open(path);
+    try {
+      in.readVectored(ranges);
+    } finally {
+      in.close();
+    }
+    for (FileRange range : ranges.subList(0, 5)) {
+      ByteBuffer buf = range.getData().get();
+      assertEquals(range.getLength(), buf.remaining());
+      byte[] actual = new byte[buf.remaining()];
+      buf.get(actual);
+      int start = (int) range.getOffset();
+      assertArrayEquals(range.toString(), Arrays.copyOfRange(data, start,
+          start + range.getLength()), actual);
+    }
+    // The range past the end of the file fails on its own.
+    try {
+      ranges.get(5).getData().get();
+      fail("Read past the end of the file");
+    } catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof EOFException);
+    }
+  }
+}
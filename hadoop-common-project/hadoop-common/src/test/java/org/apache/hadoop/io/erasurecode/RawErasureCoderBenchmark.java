@@ -0,0 +1,240 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.io.erasurecode;
+
+import java.util.Random;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+import com.google.common.base.Joiner;
+
+/**
+ * Benchmark for the throughput of the Reed-Solomon raw coders.
+ * It measures encoding, decoding with the given number of erasures, and
+ * a degraded read, which decodes a single lost data unit of each stripe.
+ * Run with --help option for usage.
+ */
+public class RawErasureCoderBenchmark implements Tool {
+  private Configuration conf;
+
+  private static class MyOptions {
+    private boolean failed = false;
+    private int dataUnits = 6;
+    private int parityUnits = 3;
+    private int cellSize = 64 * 1024;
+    private int dataMB = 256;
+    private int erasures = 3;
+
+    private MyOptions(String args[]) {
+      try {
+        Options opts = buildOptions();
+        CommandLineParser parser = new GnuParser();
+        CommandLine line = parser.parse(opts, args, true);
+        processOptions(line, opts);
+        validateOptions();
+      } catch (ParseException e) {
+        System.err.println(e.getMessage());
+        System.err.println("Try \"--help\" option for details.");
+        failed = true;
+      }
+    }
+
+    private void validateOptions() throws ParseException {
+      if (dataUnits <= 0 || parityUnits <= 0 || cellSize <= 0 ||
+          dataMB <= 0 || erasures <= 0) {
+        throw new ParseException("All options must be positive");
+      }
+      if (erasures > parityUnits) {
+        throw new ParseException("Cannot recover more erasures than there "
+            + "are parity units");
+      }
+    }
+
+    @SuppressWarnings("static-access")
+    private Options buildOptions() {
+      Options opts = new Options();
+      opts.addOption(
+        OptionBuilder.withLongOpt("dataUnits").hasArg(true)
+        .withArgName("count")
+        .withDescription("number of data units in a stripe")
+        .create("k"));
+      opts.addOption(
+        OptionBuilder.withLongOpt("parityUnits").hasArg(true)
+        .withArgName("count")
+        .withDescription("number of parity units in a stripe")
+        .create("m"));
+      opts.addOption(
+        OptionBuilder.withLongOpt("cellSize").hasArg(true)
+        .withArgName("bytes")
+        .withDescription("size of each unit of a stripe")
+        .create("c"));
+      opts.addOption(
+        OptionBuilder.withLongOpt("dataMB").hasArg(true)
+        .withArgName("MB")
+        .withDescription("amount of data to encode and decode")
+        .create("d"));
+      opts.addOption(
+        OptionBuilder.withLongOpt("erasures").hasArg(true)
+        .withArgName("count")
+        .withDescription("number of units to recover when decoding")
+        .create("e"));
+      opts.addOption(
+          OptionBuilder.withLongOpt("help").hasArg(false)
+          .withDescription("show this screen")
+          .create('?'));
+      return opts;
+    }
+
+    private void processOptions(CommandLine line, Options opts)
+      throws ParseException {
+      if (line.hasOption("help") || line.hasOption('?')) {
+        HelpFormatter formatter = new HelpFormatter();
+        System.out.println("Erasure coder benchmark.");
+        System.out.println();
+        formatter.printHelp(100,
+            "java ... RawErasureCoderBenchmark [options]",
+            "\nSupported options:", opts, "");
+        return;
+      }
+      if (line.hasOption('k')) {
+        dataUnits = Integer.parseInt(line.getOptionValue('k'));
+      }
+      if (line.hasOption('m')) {
+        parityUnits = Integer.parseInt(line.getOptionValue('m'));
+      }
+      if (line.hasOption('c')) {
+        cellSize = Integer.parseInt(line.getOptionValue('c'));
+      }
+      if (line.hasOption('d')) {
+        dataMB = Integer.parseInt(line.getOptionValue('d'));
+      }
+      if (line.hasOption('e')) {
+        erasures = Integer.parseInt(line.getOptionValue('e'));
+      }
+      String[] remainingArgs = line.getArgs();
+      if (remainingArgs.length != 0) {
+        throw new ParseException("Extra arguments: " +
+            Joiner.on(" ").join(remainingArgs));
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "dataUnits=" + dataUnits + "\nparityUnits=" + parityUnits
+          + "\ncellSize=" + cellSize + "\ndataMB=" + dataMB
+          + "\nerasures=" + erasures;
+    }
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    MyOptions opts = new MyOptions(args);
+    if (opts.failed) {
+      return -1;
+    }
+    final int k = opts.dataUnits;
+    final int m = opts.parityUnits;
+    final long stripeBytes = (long) k * opts.cellSize;
+    final long stripes =
+        Math.max(1, (opts.dataMB * 1024L * 1024L) / stripeBytes);
+
+    // One stripe of random data, coded over and over.
+    Random rand = new Random();
+    byte[][] units = new byte[k + m][opts.cellSize];
+    byte[][] data = new byte[k][];
+    byte[][] parity = new byte[m][];
+    for (int i = 0; i < k; i++) {
+      rand.nextBytes(units[i]);
+      data[i] = units[i];
+    }
+    for (int i = 0; i < m; i++) {
+      parity[i] = units[k + i];
+    }
+
+    RSRawEncoder encoder = new RSRawEncoder(k, m);
+    long start = System.nanoTime();
+    for (long s = 0; s < stripes; s++) {
+      encoder.encode(data, parity);
+    }
+    long encodeNanos = System.nanoTime() - start;
+
+    // Erase data units first, as they are the ones a reader misses.
+    int[] erased = new int[opts.erasures];
+    for (int i = 0; i < erased.length; i++) {
+      erased[i] = i;
+    }
+    long decodeNanos = decode(new RSRawDecoder(k, m), units, erased, stripes);
+    long degradedNanos =
+        decode(new RSRawDecoder(k, m), units, new int[] {0}, stripes);
+
+    long totalBytes = stripes * stripeBytes;
+    System.out.println("====== Results ======");
+    System.out.println("Options:\n" + opts);
+    System.out.println("Encode throughput: "
+        + mbPerSecond(totalBytes, encodeNanos) + " MB/s");
+    System.out.println("Decode throughput (" + opts.erasures
+        + " erasures): " + mbPerSecond(totalBytes, decodeNanos) + " MB/s");
+    System.out.println("Degraded read throughput: "
+        + mbPerSecond(totalBytes, degradedNanos) + " MB/s");
+    return 0;
+  }
+
+  /** Decode the same stripe repeatedly; return the elapsed time. */
+  private static long decode(RSRawDecoder decoder, byte[][] units,
+      int[] erased, long stripes) {
+    byte[][] inputs = units.clone();
+    for (int e : erased) {
+      inputs[e] = null;
+    }
+    byte[][] outputs = new byte[erased.length][units[0].length];
+    long start = System.nanoTime();
+    for (long s = 0; s < stripes; s++) {
+      decoder.decode(inputs, erased, outputs);
+    }
+    return System.nanoTime() - start;
+  }
+
+  private static String mbPerSecond(long bytes, long nanos) {
+    return String.format("%.1f",
+        (bytes / (1024.0 * 1024.0)) / (Math.max(1, nanos) / 1e9));
+  }
+
+  public static void main(String []args) throws Exception {
+    int rc = ToolRunner.run(new RawErasureCoderBenchmark(), args);
+    System.exit(rc);
+  }
+
+  @Override
+  public void setConf(Configuration conf) {
+    this.conf = conf;
+  }
+
+  @Override
+  public Configuration getConf() {
+    return conf;
+  }
+}
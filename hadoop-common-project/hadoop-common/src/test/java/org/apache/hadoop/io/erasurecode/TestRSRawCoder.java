@@ -0,0 +1,182 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.io.erasurecode;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.hadoop.HadoopIllegalArgumentException;
+import org.junit.Test;
+
+public class TestRSRawCoder {
+  private static final Random RAND = new Random();
+
+  /** Encode a random stripe; return its data units then parity units. */
+  private static byte[][] encodeStripe(RSRawEncoder encoder, int len) {
+    int k = encoder.getNumDataUnits();
+    int m = encoder.getNumParityUnits();
+    byte[][] units = new byte[k + m][len];
+    byte[][] data = new byte[k][];
+    byte[][] parity = new byte[m][];
+    for (int i = 0; i < k; i++) {
+      RAND.nextBytes(units[i]);
+      data[i] = units[i];
+    }
+    for (int i = 0; i < m; i++) {
+      parity[i] = units[k + i];
+    }
+    encoder.encode(data, parity);
+    return units;
+  }
+
+  private static void checkDecode(RSRawDecoder decoder, byte[][] units,
+      int[] erasedIndexes) {
+    byte[][] inputs = units.clone();
+    for (int e : erasedIndexes) {
+      inputs[e] = null;
+    }
+    byte[][] outputs = new byte[erasedIndexes.length][units[0].length];
+    decoder.decode(inputs, erasedIndexes, outputs);
+    for (int i = 0; i < erasedIndexes.length; i++) {
+      assertArrayEquals("unit " + erasedIndexes[i],
+          units[erasedIndexes[i]], outputs[i]);
+    }
+  }
+
+  private static void checkAllErasures(int k, int m, int len) {
+    RSRawEncoder encoder = new RSRawEncoder(k, m);
+    RSRawDecoder decoder = new RSRawDecoder(k, m);
+    byte[][] units = encodeStripe(encoder, len);
+    int n = k + m;
+    // every pattern of up to m erased units
+    for (int mask = 1; mask < (1 << n); mask++) {
+      int count = Integer.bitCount(mask);
+      if (count > m) {
+        continue;
+      }
+      int[] erased = new int[count];
+      int c = 0;
+      for (int i = 0; i < n; i++) {
+        if ((mask & (1 << i)) != 0) {
+          erased[c++] = i;
+        }
+      }
+      checkDecode(decoder, units, erased);
+    }
+  }
+
+  @Test
+  public void testSmallSchemas() {
+    checkAllErasures(1, 1, 17);
+    checkAllErasures(3, 2, 64);
+    checkAllErasures(6, 3, 100);
+  }
+
+  @Test
+  public void testLargerSchema() {
+    RSRawEncoder encoder = new RSRawEncoder(10, 4);
+    RSRawDecoder decoder = new RSRawDecoder(10, 4);
+    byte[][] units = encodeStripe(encoder, 4096);
+    checkDecode(decoder, units, new int[] {0});
+    checkDecode(decoder, units, new int[] {9, 2, 13});
+    checkDecode(decoder, units, new int[] {1, 3, 5, 7});
+    checkDecode(decoder, units, new int[] {10, 11, 12, 13});
+  }
+
+  @Test
+  public void testDecodeReusesPattern() {
+    RSRawEncoder encoder = new RSRawEncoder(6, 3);
+    RSRawDecoder decoder = new RSRawDecoder(6, 3);
+    for (int i = 0; i < 5; i++) {
+      checkDecode(decoder, encodeStripe(encoder, 512), new int[] {2, 7});
+    }
+    checkDecode(decoder, encodeStripe(encoder, 512), new int[] {0});
+  }
+
+  @Test
+  public void testOffsets() {
+    final int k = 4, m = 2, len = 300, off = 13;
+    byte[][] data = new byte[k][off + len];
+    for (byte[] d : data) {
+      RAND.nextBytes(d);
+    }
+    byte[][] parity = new byte[m][off + len];
+    int[] offsets = new int[k];
+    int[] parityOffsets = new int[m];
+    for (int i = 0; i < k; i++) {
+      offsets[i] = off;
+    }
+    for (int i = 0; i < m; i++) {
+      parityOffsets[i] = off;
+    }
+    new RSRawEncoder(k, m).encode(data, offsets, parity, parityOffsets, len);
+
+    // Same result when encoding the units at offset 0.
+    byte[][] plain = new byte[k][];
+    for (int i = 0; i < k; i++) {
+      plain[i] = Arrays.copyOfRange(data[i], off, off + len);
+    }
+    byte[][] plainParity = new byte[m][len];
+    new RSRawEncoder(k, m).encode(plain, plainParity);
+    for (int i = 0; i < m; i++) {
+      assertArrayEquals(plainParity[i],
+          Arrays.copyOfRange(parity[i], off, off + len));
+    }
+
+    byte[][] inputs = new byte[][] {
+        data[0], null, data[2], data[3], parity[0], null};
+    int[] inputOffsets = new int[] {off, 0, off, off, off, 0};
+    byte[][] outputs = new byte[2][len + 5];
+    new RSRawDecoder(k, m).decode(inputs, inputOffsets, new int[] {1, 5},
+        outputs, new int[] {5, 0}, len);
+    assertArrayEquals(plain[1],
+        Arrays.copyOfRange(outputs[0], 5, 5 + len));
+    assertArrayEquals(plainParity[1],
+        Arrays.copyOfRange(outputs[1], 0, len));
+  }
+
+  @Test
+  public void testTooManyErasures() {
+    RSRawEncoder encoder = new RSRawEncoder(3, 2);
+    byte[][] units = encodeStripe(encoder, 10);
+    try {
+      checkDecode(new RSRawDecoder(3, 2), units, new int[] {0, 1, 4});
+      fail("Decoded with more erasures than parity units");
+    } catch (HadoopIllegalArgumentException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("Too many erasures"));
+    }
+  }
+
+  @Test
+  public void testInvalidSchema() {
+    try {
+      new RSRawEncoder(0, 2);
+      fail("Created a coder without data units");
+    } catch (HadoopIllegalArgumentException e) {
+      // expected
+    }
+    try {
+      new RSRawDecoder(200, 57);
+      fail("Created a coder with more units than the field has elements");
+    } catch (HadoopIllegalArgumentException e) {
+      // expected
+    }
+  }
+}
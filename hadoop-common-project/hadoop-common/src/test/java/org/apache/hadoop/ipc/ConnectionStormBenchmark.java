@@ -0,0 +1,260 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ipc;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.CommonConfigurationKeys;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.metrics2.lib.MutableQuantiles;
+import org.apache.hadoop.metrics2.util.Quantile;
+import org.apache.hadoop.metrics2.util.SampleQuantiles;
+import org.apache.hadoop.net.NetUtils;
+import org.apache.hadoop.test.MultithreadedTestUtil;
+import org.apache.hadoop.test.MultithreadedTestUtil.TestContext;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+import com.google.common.base.Joiner;
+
+/**
+ * Benchmark for the rate at which an RPC server takes new connections.
+ * Each client opens a connection, makes a single call and disconnects,
+ * like the many short-lived clients of a job launch.
+ * Run with --help option for usage.
+ */
+public class ConnectionStormBenchmark implements Tool {
+  private Configuration conf;
+  private final AtomicInteger clientsLeft = new AtomicInteger();
+  private final AtomicLong failures = new AtomicLong();
+  private final SampleQuantiles latencyMicros =
+      new SampleQuantiles(MutableQuantiles.quantiles);
+
+  private static class MyOptions {
+    private boolean failed = false;
+    private int clients = 10000;
+    private int clientThreads = 100;
+    private int serverThreads = 10;
+    private int serverReaderThreads = 1;
+    private int serverAcceptThreads = 1;
+
+    private MyOptions(String args[]) {
+      try {
+        Options opts = buildOptions();
+        CommandLineParser parser = new GnuParser();
+        CommandLine line = parser.parse(opts, args, true);
+        processOptions(line, opts);
+        validateOptions();
+      } catch (ParseException e) {
+        System.err.println(e.getMessage());
+        System.err.println("Try \"--help\" option for details.");
+        failed = true;
+      }
+    }
+
+    private void validateOptions() throws ParseException {
+      if (clients <= 0 || clientThreads <= 0 || serverThreads <= 0 ||
+          serverReaderThreads <= 0 || serverAcceptThreads <= 0) {
+        throw new ParseException("All options must be positive");
+      }
+    }
+
+    @SuppressWarnings("static-access")
+    private Options buildOptions() {
+      Options opts = new Options();
+      opts.addOption(
+        OptionBuilder.withLongOpt("clients").hasArg(true)
+        .withArgName("count")
+        .withDescription("total number of short-lived clients to run")
+        .create("n"));
+      opts.addOption(
+        OptionBuilder.withLongOpt("clientThreads").hasArg(true)
+        .withArgName("numthreads")
+        .withDescription("number of threads running clients concurrently")
+        .create("c"));
+      opts.addOption(
+        OptionBuilder.withLongOpt("serverThreads").hasArg(true)
+        .withArgName("numthreads")
+        .withDescription("number of server threads (handlers) to run")
+        .create("s"));
+      opts.addOption(
+        OptionBuilder.withLongOpt("serverReaderThreads").hasArg(true)
+        .withArgName("threads")
+        .withDescription("number of server reader threads to run")
+        .create("r"));
+      opts.addOption(
+        OptionBuilder.withLongOpt("serverAcceptThreads").hasArg(true)
+        .withArgName("threads")
+        .withDescription("number of server threads accepting connections")
+        .create("a"));
+      opts.addOption(
+          OptionBuilder.withLongOpt("help").hasArg(false)
+          .withDescription("show this screen")
+          .create('?'));
+      return opts;
+    }
+
+    private void processOptions(CommandLine line, Options opts)
+      throws ParseException {
+      if (line.hasOption("help") || line.hasOption('?')) {
+        HelpFormatter formatter = new HelpFormatter();
+        System.out.println("IPC connection storm benchmark.");
+        System.out.println();
+        formatter.printHelp(100,
+            "java ... ConnectionStormBenchmark [options]",
+            "\nSupported options:", opts, "");
+        return;
+      }
+      if (line.hasOption('n')) {
+        clients = Integer.parseInt(line.getOptionValue('n'));
+      }
+      if (line.hasOption('c')) {
+        clientThreads = Integer.parseInt(line.getOptionValue('c'));
+      }
+      if (line.hasOption('s')) {
+        serverThreads = Integer.parseInt(line.getOptionValue('s'));
+      }
+      if (line.hasOption('r')) {
+        serverReaderThreads = Integer.parseInt(line.getOptionValue('r'));
+      }
+      if (line.hasOption('a')) {
+        serverAcceptThreads = Integer.parseInt(line.getOptionValue('a'));
+      }
+      String[] remainingArgs = line.getArgs();
+      if (remainingArgs.length != 0) {
+        throw new ParseException("Extra arguments: " +
+            Joiner.on(" ").join(remainingArgs));
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "clients=" + clients + "\nclientThreads=" + clientThreads
+          + "\nserverThreads=" + serverThreads + "\nserverReaderThreads="
+          + serverReaderThreads + "\nserverAcceptThreads="
+          + serverAcceptThreads;
+    }
+  }
+
+  /** Echoes its parameter. */
+  private static class EchoServer extends Server {
+    EchoServer(Configuration conf, int handlers) throws IOException {
+      super("0.0.0.0", 0, LongWritable.class, handlers, conf);
+    }
+
+    @Override
+    public Writable call(RPC.RpcKind rpcKind, String protocol, Writable param,
+        long receiveTime) {
+      return param;
+    }
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    MyOptions opts = new MyOptions(args);
+    if (opts.failed) {
+      return -1;
+    }
+    conf.setInt(CommonConfigurationKeys.IPC_SERVER_RPC_READ_THREADS_KEY,
+        opts.serverReaderThreads);
+    conf.setInt(CommonConfigurationKeys.IPC_SERVER_RPC_ACCEPT_THREADS_KEY,
+        opts.serverAcceptThreads);
+    Server server = new EchoServer(conf, opts.serverThreads);
+    server.start();
+    try {
+      final InetSocketAddress addr = NetUtils.getConnectAddress(server);
+      clientsLeft.set(opts.clients);
+      TestContext ctx = new TestContext();
+      for (int i = 0; i < opts.clientThreads; i++) {
+        ctx.addThread(new MultithreadedTestUtil.TestingThread(ctx) {
+          @Override
+          public void doWork() throws Exception {
+            while (clientsLeft.getAndDecrement() > 0) {
+              runClient(addr);
+            }
+          }
+        });
+      }
+      long start = System.nanoTime();
+      ctx.startThreads();
+      for (Thread t : ctx.getTestThreads()) {
+        t.join();
+      }
+      ctx.checkException();
+      long elapsedNanos = System.nanoTime() - start;
+
+      System.out.println("====== Results ======");
+      System.out.println("Options:\n" + opts);
+      System.out.println("Connections per second: " +
+          (opts.clients * 1000000000L) / elapsedNanos);
+      System.out.println("Failed clients: " + failures.get());
+      Map<Quantile, Long> latencies = latencyMicros.snapshot();
+      if (latencies != null) {
+        for (Map.Entry<Quantile, Long> e : latencies.entrySet()) {
+          System.out.println("Connect and call latency " + e.getKey() + ": "
+              + e.getValue() + " us");
+        }
+      }
+    } finally {
+      server.stop();
+    }
+    return failures.get() == 0 ? 0 : 1;
+  }
+
+  /** Connect with a client of its own, make one call and disconnect. */
+  private void runClient(InetSocketAddress addr) {
+    Client client = new Client(LongWritable.class, conf);
+    long start = System.nanoTime();
+    try {
+      client.call(new LongWritable(start), addr, null, null, 0, conf);
+      latencyMicros.insert((System.nanoTime() - start) / 1000);
+    } catch (IOException e) {
+      failures.incrementAndGet();
+    } finally {
+      client.stop();
+    }
+  }
+
+  public static void main(String []args) throws Exception {
+    int rc = ToolRunner.run(new ConnectionStormBenchmark(), args);
+    System.exit(rc);
+  }
+
+  @Override
+  public void setConf(Configuration conf) {
+    this.conf = conf;
+  }
+
+  @Override
+  public Configuration getConf() {
+    return conf;
+  }
+}
@@ -22,6 +22,9 @@
 import java.lang.management.ThreadMXBean;
 import java.net.InetSocketAddress;
 import java.security.PrivilegedExceptionAction;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.cli.CommandLine;
@@ -40,6 +43,9 @@
 import org.apache.hadoop.ipc.protobuf.TestProtos.EchoRequestProto;
 import org.apache.hadoop.ipc.protobuf.TestProtos.EchoResponseProto;
 import org.apache.hadoop.ipc.protobuf.TestRpcServiceProtos.TestProtobufRpcProto;
+import org.apache.hadoop.metrics2.lib.MutableQuantiles;
+import org.apache.hadoop.metrics2.util.Quantile;
+import org.apache.hadoop.metrics2.util.SampleQuantiles;
 import org.apache.hadoop.net.NetUtils;
 import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.hadoop.test.MultithreadedTestUtil;
@@ -48,6 +54,7 @@
 import org.apache.hadoop.util.ToolRunner;
 
 import com.google.common.base.Joiner;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.protobuf.BlockingService;
 
 /**
@@ -57,6 +64,8 @@
 public class RPCCallBenchmark implements Tool {
   private Configuration conf;
   private AtomicLong callCount = new AtomicLong(0);
+  private final SampleQuantiles callLatencyMicros =
+      new SampleQuantiles(MutableQuantiles.quantiles);
   private static ThreadMXBean threadBean =
     ManagementFactory.getThreadMXBean();
   
@@ -69,6 +78,7 @@ private static class MyOptions {
     private int port = 0;
     public int secondsToRun = 15;
     private int msgSize = 1024;
+    private int asyncCalls = 0;
     public Class<? extends RpcEngine> rpcEngine =
       WritableRpcEngine.class;
     
@@ -90,6 +100,9 @@ private void validateOptions() throws ParseException {
       if (serverThreads <= 0 && clientThreads <= 0) {
         throw new ParseException("Must specify at least -c or -s");
       }
+      if (asyncCalls > 0 && rpcEngine != ProtobufRpcEngine.class) {
+        throw new ParseException("-a requires the protobuf engine");
+      }
     }
 
     @SuppressWarnings("static-access")
@@ -119,6 +132,13 @@ private Options buildOptions() {
         .withDescription("size of call parameter in bytes")
         .create("m"));
 
+      opts.addOption(
+        OptionBuilder.withLongOpt("asyncCalls").hasArg(true)
+        .withArgName("calls")
+        .withDescription("number of asynchronous calls each client thread " +
+            "keeps in flight (or 0 for blocking calls)")
+        .create("a"));
+
       opts.addOption(
           OptionBuilder.withLongOpt("time").hasArg(true)
           .withArgName("seconds")
@@ -176,6 +196,9 @@ private void processOptions(CommandLine line, Options opts)
       if (line.hasOption('m')) {
         msgSize = Integer.parseInt(line.getOptionValue('m'));
       }
+      if (line.hasOption('a')) {
+        asyncCalls = Integer.parseInt(line.getOptionValue('a'));
+      }
       if (line.hasOption('p')) {
         port = Integer.parseInt(line.getOptionValue('p'));
       }
@@ -215,7 +238,8 @@ public String toString() {
       return "rpcEngine=" + rpcEngine + "\nserverThreads=" + serverThreads
           + "\nserverReaderThreads=" + serverReaderThreads + "\nclientThreads="
           + clientThreads + "\nhost=" + host + "\nport=" + getPort()
-          + "\nsecondsToRun=" + secondsToRun + "\nmsgSize=" + msgSize;
+          + "\nsecondsToRun=" + secondsToRun + "\nmsgSize=" + msgSize
+          + "\nasyncCalls=" + asyncCalls;
     }
   }
 
@@ -305,6 +329,13 @@ public int run(String[] args) throws Exception {
           System.out.println("====== Results ======");
           System.out.println("Options:\n" + opts);
           System.out.println("Total calls per second: " + callsPerSec);
+          System.out.println("Calls per second per client thread: " +
+              callsPerSec / opts.clientThreads);
+          for (Map.Entry<Quantile, Long> e :
+              callLatencyMicros.snapshot().entrySet()) {
+            System.out.println("Call latency " + e.getKey() + ": " +
+                e.getValue() + " us");
+          }
           System.out.println("CPU time per call on client: " +
               (cpuNanosClient / totalCalls) + " ns");
           if (server != null) {
@@ -367,8 +398,15 @@ public RpcServiceWrapper run() throws Exception {
       ctx.addThread(new MultithreadedTestUtil.RepeatingTestThread(ctx) {
         @Override
         public void doAnAction() throws Exception {
-          proxy.doEcho(echoMessage);
-          callCount.incrementAndGet();
+          if (opts.asyncCalls > 0) {
+            proxy.doEchoAsync(echoMessage, opts.asyncCalls);
+            callCount.addAndGet(opts.asyncCalls);
+          } else {
+            long start = System.nanoTime();
+            proxy.doEcho(echoMessage);
+            callLatencyMicros.insert((System.nanoTime() - start) / 1000);
+            callCount.incrementAndGet();
+          }
         }
       });
     }
@@ -381,6 +419,9 @@ public void doAnAction() throws Exception {
    */
   private interface RpcServiceWrapper {
     public String doEcho(String msg) throws Exception;
+
+    /** Send the given number of echo calls at once and wait for them all. */
+    public void doEchoAsync(String msg, int calls) throws Exception;
   }
 
   /**
@@ -400,6 +441,32 @@ public String doEcho(String msg) throws Exception {
           EchoResponseProto responseProto = proxy.echo(null, req);
           return responseProto.getMessage();
         }
+
+        @Override
+        public void doEchoAsync(String msg, int calls) throws Exception {
+          EchoRequestProto req = EchoRequestProto.newBuilder()
+            .setMessage(msg)
+            .build();
+          List<ListenableFuture<EchoResponseProto>> responses =
+              new ArrayList<ListenableFuture<EchoResponseProto>>(calls);
+          long start = System.nanoTime();
+          ProtobufRpcEngine.setAsynchronousMode(true);
+          try {
+            for (int i = 0; i < calls; i++) {
+              proxy.echo(null, req);
+              responses.add(ProtobufRpcEngine
+                  .<EchoResponseProto>getAsyncReturnMessage());
+            }
+          } finally {
+            ProtobufRpcEngine.setAsynchronousMode(false);
+          }
+          // Latencies are measured from sending the first call, in the
+          // order the calls were made.
+          for (ListenableFuture<EchoResponseProto> response : responses) {
+            response.get();
+            callLatencyMicros.insert((System.nanoTime() - start) / 1000);
+          }
+        }
       };
     } else if (opts.rpcEngine == WritableRpcEngine.class) {
       final TestProtocol proxy = RPC.getProxy(
@@ -409,6 +476,11 @@ public String doEcho(String msg) throws Exception {
         public String doEcho(String msg) throws Exception {
           return proxy.echo(msg);
         }
+
+        @Override
+        public void doEchoAsync(String msg, int calls) {
+          throw new UnsupportedOperationException();
+        }
       };
     } else {
       throw new RuntimeException("unsupported engine: " + opts.rpcEngine);
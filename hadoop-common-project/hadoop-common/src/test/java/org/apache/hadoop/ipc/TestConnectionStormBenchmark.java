@@ -0,0 +1,39 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.ipc;
+
+import static org.junit.Assert.*;
+
+import org.apache.hadoop.util.ToolRunner;
+import org.junit.Test;
+
+
+public class TestConnectionStormBenchmark {
+
+  @Test(timeout=60000)
+  public void testBenchmark() throws Exception {
+    int rc = ToolRunner.run(new ConnectionStormBenchmark(),
+        new String[] {
+      "--clients", "500",
+      "--clientThreads", "20",
+      "--serverThreads", "4",
+      "--serverReaderThreads", "4",
+      "--serverAcceptThreads", "2"});
+    assertEquals(0, rc);
+  }
+}
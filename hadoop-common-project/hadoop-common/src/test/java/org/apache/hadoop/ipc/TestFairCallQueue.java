@@ -0,0 +1,157 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.ipc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestFairCallQueue {
+  private static final String NS = "ipc.8020";
+
+  private FairCallQueue<Schedulable> fcq;
+
+  private Schedulable mockCall(String id) {
+    Schedulable mockCall = mock(Schedulable.class);
+    UserGroupInformation ugi = UserGroupInformation.createRemoteUser(id);
+    when(mockCall.getUserGroupInformation()).thenReturn(ugi);
+    return mockCall;
+  }
+
+  @Before
+  public void setUp() {
+    Configuration conf = new Configuration();
+    conf.setInt(NS + "." + FairCallQueue.IPC_CALLQUEUE_PRIORITY_LEVELS_KEY, 2);
+    fcq = new FairCallQueue<Schedulable>(5, NS, conf);
+  }
+
+  @Test
+  public void testPollReturnsNullWhenEmpty() {
+    assertNull(fcq.poll());
+    assertEquals(0, fcq.size());
+  }
+
+  @Test
+  public void testPollReturnsTopCallWhenNotEmpty() {
+    Schedulable call = mockCall("c");
+    assertTrue(fcq.offer(call));
+
+    assertSame(call, fcq.poll());
+
+    // Poll took it out so the fcq is empty
+    assertEquals(0, fcq.size());
+  }
+
+  @Test
+  public void testOfferSucceeds() {
+    for (int i = 0; i < 5; i++) {
+      assertTrue(fcq.offer(mockCall("c")));
+    }
+
+    assertEquals(5, fcq.size());
+  }
+
+  @Test
+  public void testOfferFailsWhenFull() {
+    // A heavy caller's first call lands in level 0, the rest in level 1
+    for (int i = 0; i < 6; i++) {
+      assertTrue(fcq.offer(mockCall("heavy")));
+    }
+    // New callers fill up level 0
+    for (int i = 0; i < 4; i++) {
+      assertTrue(fcq.offer(mockCall("user" + i)));
+    }
+
+    assertFalse(fcq.offer(mockCall("heavy"))); // It's full
+
+    assertEquals(10, fcq.size());
+  }
+
+  @Test
+  public void testPutOverflowsToLowerPriority() throws InterruptedException {
+    // Fill level 0 with new callers, one call each
+    for (int i = 0; i < 5; i++) {
+      fcq.put(mockCall("user" + i));
+    }
+    // Another new caller would go to level 0 but spills to level 1
+    fcq.put(mockCall("user5"));
+
+    assertArrayEquals(new int[]{5, 1}, fcq.getQueueSizes());
+    assertArrayEquals(new long[]{1, 0}, fcq.getOverflowedCalls());
+  }
+
+  @Test
+  public void testTakeDrainsAllLevels() throws InterruptedException {
+    List<Schedulable> calls = new ArrayList<Schedulable>();
+    for (int i = 0; i < 6; i++) {
+      Schedulable call = mockCall("c");
+      calls.add(call);
+      fcq.put(call);
+    }
+
+    List<Schedulable> taken = new ArrayList<Schedulable>();
+    for (int i = 0; i < 6; i++) {
+      taken.add(fcq.take());
+    }
+
+    assertEquals(0, fcq.size());
+    assertTrue(taken.containsAll(calls));
+  }
+
+  @Test
+  public void testPollWithTimeoutReturnsNullWhenEmpty()
+      throws InterruptedException {
+    assertNull(fcq.poll(10, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testSwapFromCallQueueManager() throws InterruptedException {
+    Configuration conf = new Configuration();
+    Class<? extends BlockingQueue<Schedulable>> fairQueue =
+        CallQueueManager.convertQueueClass(FairCallQueue.class,
+            Schedulable.class);
+    CallQueueManager<Schedulable> manager =
+        new CallQueueManager<Schedulable>(fairQueue, 10, NS, conf);
+
+    Schedulable call = mockCall("c");
+    manager.put(call);
+    assertEquals(1, manager.size());
+    assertSame(call, manager.take());
+
+    // Hot swap to another fair queue and keep serving calls
+    manager.swapQueue(fairQueue, 10, NS, conf);
+    manager.put(call);
+    assertSame(call, manager.take());
+  }
+}
@@ -44,9 +44,11 @@
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.BrokenBarrierException;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -81,6 +83,7 @@
 import org.mockito.stubbing.Answer;
 
 import com.google.common.primitives.Bytes;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.primitives.Ints;
 
 /** Unit tests for IPC. */
@@ -597,6 +600,124 @@ public void testIpcConnectTimeout() throws IOException {
     }
   }
   
+  /** One thread keeps many calls in flight over one connection. */
+  @Test(timeout=60000)
+  public void testAsyncCalls() throws Exception {
+    final int numCalls = 100;
+    Server server = new TestServer(1, false);
+    InetSocketAddress addr = NetUtils.getConnectAddress(server);
+    server.start();
+    Client client = new Client(LongWritable.class, conf);
+    try {
+      ConnectionId remoteId =
+          ConnectionId.getConnectionId(addr, null, null, 0, conf);
+      List<ListenableFuture<Writable>> responses =
+          new ArrayList<ListenableFuture<Writable>>();
+      for (int i = 0; i < numCalls; i++) {
+        responses.add(client.callAsync(RpcKind.RPC_BUILTIN,
+            new LongWritable(i), remoteId, RPC.RPC_SERVICE_CLASS_DEFAULT));
+      }
+      for (int i = 0; i < numCalls; i++) {
+        assertEquals(i, ((LongWritable) responses.get(i).get()).get());
+      }
+      assertEquals(1, client.getConnectionIds().size());
+    } finally {
+      client.stop();
+      server.stop();
+    }
+  }
+
+  /** A server which defers every call, to be completed by the test. */
+  private static class DeferringServer extends Server {
+    final BlockingQueue<Call> calls = new LinkedBlockingQueue<Call>();
+    final BlockingQueue<Writable> params = new LinkedBlockingQueue<Writable>();
+
+    DeferringServer(int handlerCount, Configuration conf) throws IOException {
+      super(ADDRESS, 0, LongWritable.class, handlerCount, conf);
+    }
+
+    @Override
+    public Writable call(RPC.RpcKind rpcKind, String protocol, Writable param,
+        long receiveTime) throws IOException {
+      Call call = getCurCall().get();
+      call.deferResponse();
+      params.add(param);
+      calls.add(call);
+      return null;
+    }
+  }
+
+  /**
+   * A single handler keeps accepting calls while their responses are
+   * deferred, and each client gets the response it was completed with.
+   */
+  @Test(timeout=60000)
+  public void testDeferredResponse() throws Exception {
+    final int numCalls = 5;
+    final DeferringServer server = new DeferringServer(1, conf);
+    final InetSocketAddress addr = NetUtils.getConnectAddress(server);
+    server.start();
+    final Client client = new Client(LongWritable.class, conf);
+    final List<Throwable> errors =
+        Collections.synchronizedList(new ArrayList<Throwable>());
+    List<Thread> callers = new ArrayList<Thread>();
+    try {
+      for (int i = 0; i < numCalls; i++) {
+        final long param = i;
+        Thread t = new Thread() {
+          @Override
+          public void run() {
+            try {
+              LongWritable value = (LongWritable) client.call(
+                  new LongWritable(param), addr, null, null, 0, conf);
+              assertEquals(-param, value.get());
+            } catch (Throwable e) {
+              errors.add(e);
+            }
+          }
+        };
+        t.start();
+        callers.add(t);
+      }
+      // All calls reach the single handler before any of them completes.
+      for (int i = 0; i < numCalls; i++) {
+        Server.Call call = server.calls.take();
+        LongWritable param = (LongWritable) server.params.take();
+        call.setDeferredResponse(new LongWritable(-param.get()));
+        // Completing the call again has no effect.
+        call.setDeferredError(new IOException("ignored"));
+      }
+      for (Thread t : callers) {
+        t.join();
+      }
+      assertTrue("Errors: " + errors, errors.isEmpty());
+      assertEquals(0, server.getNumDeferredResponses());
+    } finally {
+      client.stop();
+      server.stop();
+    }
+  }
+
+  /** A deferred call which is never completed fails after the timeout. */
+  @Test(timeout=60000)
+  public void testDeferredResponseTimeout() throws Exception {
+    conf.setLong(
+        CommonConfigurationKeys.IPC_SERVER_DEFERRED_RESPONSE_TIMEOUT_KEY, 100);
+    DeferringServer server = new DeferringServer(1, conf);
+    InetSocketAddress addr = NetUtils.getConnectAddress(server);
+    server.start();
+    Client client = new Client(LongWritable.class, conf);
+    try {
+      client.call(new LongWritable(1), addr, null, null, 0, conf);
+      fail("Expected the deferred call to time out");
+    } catch (RemoteException e) {
+      assertTrue(e.getMessage(), e.getMessage().contains("timed out"));
+    } finally {
+      client.stop();
+      server.stop();
+    }
+  }
+
   /**
    * Check service class byte in IPC header is correct on wire.
    */
@@ -23,6 +23,8 @@
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.hadoop.conf.Configuration;
@@ -41,6 +43,7 @@
 import org.junit.Before;
 import org.junit.After;
 
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.protobuf.BlockingService;
 import com.google.protobuf.RpcController;
 import com.google.protobuf.ServiceException;
@@ -257,4 +260,62 @@ public void testExtraLongRpc() throws Exception {
       // expected
     }
   }
+
+  /**
+   * Responses serialized into pooled buffers, including many outstanding
+   * ones written together, and larger ones bypassing the pool, arrive intact.
+   */
+  @Test(timeout=10000)
+  public void testPooledResponseBuffers() throws Exception {
+    Configuration poolConf = new Configuration();
+    poolConf.setBoolean(
+        CommonConfigurationKeys.IPC_SERVER_RESPONSE_BUFFER_POOL_ENABLED_KEY,
+        true);
+    poolConf.setInt(
+        CommonConfigurationKeys.IPC_SERVER_RESPONSE_BUFFER_POOL_MAX_SIZE_KEY,
+        2048);
+    RPC.setProtocolEngine(poolConf, TestRpcService.class,
+        ProtobufRpcEngine.class);
+    BlockingService service = TestProtobufRpcProto
+        .newReflectiveBlockingService(new PBServerImpl());
+    RPC.Server poolServer = new RPC.Builder(poolConf)
+        .setProtocol(TestRpcService.class).setInstance(service)
+        .setBindAddress(ADDRESS).setPort(PORT).build();
+    poolServer.start();
+    TestRpcService client = RPC.getProxy(TestRpcService.class, 0,
+        NetUtils.getConnectAddress(poolServer), poolConf);
+    try {
+      List<String> messages = new ArrayList<String>();
+      for (int i = 0; i < 200; i++) {
+        messages.add(StringUtils.repeat(String.valueOf(i % 10), i * 20));
+      }
+      for (String message : messages) {
+        EchoRequestProto echoRequest =
+            EchoRequestProto.newBuilder().setMessage(message).build();
+        Assert.assertEquals(message,
+            client.echo(null, echoRequest).getMessage());
+      }
+
+      List<ListenableFuture<EchoResponseProto>> responses =
+          new ArrayList<ListenableFuture<EchoResponseProto>>();
+      ProtobufRpcEngine.setAsynchronousMode(true);
+      try {
+        for (String message : messages) {
+          client.echo(null,
+              EchoRequestProto.newBuilder().setMessage(message).build());
+          responses.add(ProtobufRpcEngine
+              .<EchoResponseProto>getAsyncReturnMessage());
+        }
+      } finally {
+        ProtobufRpcEngine.setAsynchronousMode(false);
+      }
+      for (int i = 0; i < messages.size(); i++) {
+        Assert.assertEquals(messages.get(i),
+            responses.get(i).get().getMessage());
+      }
+    } finally {
+      RPC.stopProxy(client);
+      poolServer.stop();
+    }
+  }
 }
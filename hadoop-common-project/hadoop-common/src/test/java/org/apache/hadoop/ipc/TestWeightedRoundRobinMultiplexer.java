@@ -0,0 +1,107 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.ipc;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+
+public class TestWeightedRoundRobinMultiplexer {
+  private static final String NS = "ipc.8020";
+  private static final String WEIGHTS_KEY = NS + "." +
+      WeightedRoundRobinMultiplexer.IPC_CALLQUEUE_WRRMUX_WEIGHTS_KEY;
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testInstantiateNegativeMux() {
+    new WeightedRoundRobinMultiplexer(-1, NS, new Configuration());
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testInstantiateIllegalMux() {
+    Configuration conf = new Configuration();
+    conf.setStrings(WEIGHTS_KEY, "1", "2", "3");
+    // ask for 3 weights with 2 queues
+    new WeightedRoundRobinMultiplexer(2, NS, conf);
+  }
+
+  @Test
+  public void testLegalInstantiation() {
+    Configuration conf = new Configuration();
+    conf.setStrings(WEIGHTS_KEY, "1", "2", "3");
+    // ask for 3 weights with 3 queues
+    new WeightedRoundRobinMultiplexer(3, NS, conf);
+  }
+
+  @Test
+  public void testDefaultPattern() {
+    // Mux of size 1: 0 0 0 0 0, etc
+    WeightedRoundRobinMultiplexer mux =
+        new WeightedRoundRobinMultiplexer(1, NS, new Configuration());
+    for(int i = 0; i < 10; i++) {
+      assertEquals(0, mux.getAndAdvanceCurrentIndex());
+    }
+
+    // Mux of size 2: 0 0 1 0 0 1 0 0 1, etc
+    mux = new WeightedRoundRobinMultiplexer(2, NS, new Configuration());
+    for(int i = 0; i < 3; i++) {
+      assertEquals(0, mux.getAndAdvanceCurrentIndex());
+      assertEquals(0, mux.getAndAdvanceCurrentIndex());
+      assertEquals(1, mux.getAndAdvanceCurrentIndex());
+    }
+
+    // Size 3: 4x0 2x1 1x2, etc
+    mux = new WeightedRoundRobinMultiplexer(3, NS, new Configuration());
+    for(int i = 0; i < 2; i++) {
+      for(int j = 0; j < 4; j++) {
+        assertEquals(0, mux.getAndAdvanceCurrentIndex());
+      }
+      assertEquals(1, mux.getAndAdvanceCurrentIndex());
+      assertEquals(1, mux.getAndAdvanceCurrentIndex());
+      assertEquals(2, mux.getAndAdvanceCurrentIndex());
+    }
+  }
+
+  @Test
+  public void testCustomPattern() {
+    // 1x0 1x1
+    Configuration conf = new Configuration();
+    conf.setStrings(WEIGHTS_KEY, "1", "1");
+
+    WeightedRoundRobinMultiplexer mux =
+        new WeightedRoundRobinMultiplexer(2, NS, conf);
+    for(int i = 0; i < 3; i++) {
+      assertEquals(0, mux.getAndAdvanceCurrentIndex());
+      assertEquals(1, mux.getAndAdvanceCurrentIndex());
+    }
+
+    // 1x0 3x1 2x2
+    conf.setStrings(WEIGHTS_KEY, "1", "3", "2");
+
+    mux = new WeightedRoundRobinMultiplexer(3, NS, conf);
+    for(int i = 0; i < 5; i++) {
+      assertEquals(0, mux.getAndAdvanceCurrentIndex());
+      assertEquals(1, mux.getAndAdvanceCurrentIndex());
+      assertEquals(1, mux.getAndAdvanceCurrentIndex());
+      assertEquals(1, mux.getAndAdvanceCurrentIndex());
+      assertEquals(2, mux.getAndAdvanceCurrentIndex());
+      assertEquals(2, mux.getAndAdvanceCurrentIndex());
+    }
+  }
+}
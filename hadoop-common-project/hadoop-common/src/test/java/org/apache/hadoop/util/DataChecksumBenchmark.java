@@ -0,0 +1,275 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.util;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.ChecksumException;
+
+import com.google.common.base.Joiner;
+
+/**
+ * Benchmark for the checksum work a DataNode does on each packet of a
+ * pipeline write: verifying the checksums sent by the client, and
+ * calculating them again when the disk checksum differs.
+ *
+ * Each operation is timed with the bulk {@link DataChecksum} methods, which
+ * use the native library when it is loaded, and with the chunk by chunk
+ * Java loop that they replace.
+ * Run with --help option for usage.
+ */
+public class DataChecksumBenchmark implements Tool {
+  private Configuration conf;
+
+  private static class MyOptions {
+    private boolean failed = false;
+    private int sizeMB = 256;
+    private int packetSize = 64 * 1024;
+    private int bytesPerChecksum = 512;
+    private DataChecksum.Type type = DataChecksum.Type.CRC32C;
+    private boolean direct = false;
+
+    private MyOptions(String args[]) {
+      try {
+        Options opts = buildOptions();
+        CommandLineParser parser = new GnuParser();
+        CommandLine line = parser.parse(opts, args, true);
+        processOptions(line, opts);
+        validateOptions();
+      } catch (ParseException e) {
+        System.err.println(e.getMessage());
+        System.err.println("Try \"--help\" option for details.");
+        failed = true;
+      }
+    }
+
+    private void validateOptions() throws ParseException {
+      if (sizeMB <= 0 || packetSize <= 0 || bytesPerChecksum <= 0) {
+        throw new ParseException("Size, packet size and bytes per checksum " +
+            "must be positive");
+      }
+      if (type.size == 0) {
+        throw new ParseException("Checksum type must be CRC32 or CRC32C");
+      }
+    }
+
+    @SuppressWarnings("static-access")
+    private Options buildOptions() {
+      Options opts = new Options();
+      opts.addOption(
+        OptionBuilder.withLongOpt("sizeMB").hasArg(true)
+        .withArgName("MB")
+        .withDescription("amount of data to checksum")
+        .create("s"));
+      opts.addOption(
+        OptionBuilder.withLongOpt("packetSize").hasArg(true)
+        .withArgName("bytes")
+        .withDescription("data bytes per packet")
+        .create("p"));
+      opts.addOption(
+        OptionBuilder.withLongOpt("bytesPerChecksum").hasArg(true)
+        .withArgName("bytes")
+        .withDescription("bytes per checksum chunk")
+        .create("b"));
+      opts.addOption(
+        OptionBuilder.withLongOpt("type").hasArg(true)
+        .withArgName("CRC32|CRC32C")
+        .withDescription("checksum type")
+        .create("t"));
+      opts.addOption(
+        OptionBuilder.withLongOpt("direct").hasArg(false)
+        .withDescription("use direct buffers instead of arrays")
+        .create("d"));
+      opts.addOption(
+          OptionBuilder.withLongOpt("help").hasArg(false)
+          .withDescription("show this screen")
+          .create('?'));
+      return opts;
+    }
+
+    private void processOptions(CommandLine line, Options opts)
+      throws ParseException {
+      if (line.hasOption("help") || line.hasOption('?')) {
+        HelpFormatter formatter = new HelpFormatter();
+        System.out.println("Packet checksum benchmark.");
+        System.out.println();
+        formatter.printHelp(100,
+            "java ... DataChecksumBenchmark [options]",
+            "\nSupported options:", opts, "");
+        return;
+      }
+      if (line.hasOption('s')) {
+        sizeMB = Integer.parseInt(line.getOptionValue('s'));
+      }
+      if (line.hasOption('p')) {
+        packetSize = Integer.parseInt(line.getOptionValue('p'));
+      }
+      if (line.hasOption('b')) {
+        bytesPerChecksum = Integer.parseInt(line.getOptionValue('b'));
+      }
+      if (line.hasOption('t')) {
+        try {
+          type = DataChecksum.Type.valueOf(line.getOptionValue('t'));
+        } catch (IllegalArgumentException e) {
+          throw new ParseException("Unknown checksum type " +
+              line.getOptionValue('t'));
+        }
+      }
+      direct = line.hasOption('d');
+      String[] remainingArgs = line.getArgs();
+      if (remainingArgs.length != 0) {
+        throw new ParseException("Extra arguments: " +
+            Joiner.on(" ").join(remainingArgs));
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "sizeMB=" + sizeMB + "\npacketSize=" + packetSize
+          + "\nbytesPerChecksum=" + bytesPerChecksum + "\ntype=" + type
+          + "\ndirect=" + direct;
+    }
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    MyOptions opts = new MyOptions(args);
+    if (opts.failed) {
+      return -1;
+    }
+    DataChecksum checksum = DataChecksum.newDataChecksum(opts.type,
+        opts.bytesPerChecksum);
+    int numChunks = (opts.packetSize + opts.bytesPerChecksum - 1) /
+        opts.bytesPerChecksum;
+    ByteBuffer data = allocate(opts.packetSize, opts.direct);
+    ByteBuffer sums = allocate(numChunks * checksum.getChecksumSize(),
+        opts.direct);
+    byte[] random = new byte[opts.packetSize];
+    new Random().nextBytes(random);
+    data.put(random);
+    data.flip();
+    checksum.calculateChunkedSums(data, sums);
+
+    long packets = opts.sizeMB * 1024L * 1024L / opts.packetSize;
+    long totalBytes = packets * opts.packetSize;
+
+    long start = System.nanoTime();
+    for (long i = 0; i < packets; i++) {
+      verifyByChunk(checksum, data, sums);
+    }
+    long javaVerifyNanos = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (long i = 0; i < packets; i++) {
+      checksum.verifyChunkedSums(data, sums, "benchmark", 0);
+    }
+    long bulkVerifyNanos = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (long i = 0; i < packets; i++) {
+      calculateByChunk(checksum, data, sums);
+    }
+    long javaCalculateNanos = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (long i = 0; i < packets; i++) {
+      checksum.calculateChunkedSums(data, sums);
+    }
+    long bulkCalculateNanos = System.nanoTime() - start;
+
+    System.out.println("====== Results ======");
+    System.out.println("Options:\n" + opts);
+    System.out.println("Native bulk checksums available: " +
+        NativeCrc32.isBulkAvailable());
+    System.out.println("Verify, chunk by chunk: "
+        + mbPerSecond(totalBytes, javaVerifyNanos) + " MB/s");
+    System.out.println("Verify, bulk: "
+        + mbPerSecond(totalBytes, bulkVerifyNanos) + " MB/s");
+    System.out.println("Calculate, chunk by chunk: "
+        + mbPerSecond(totalBytes, javaCalculateNanos) + " MB/s");
+    System.out.println("Calculate, bulk: "
+        + mbPerSecond(totalBytes, bulkCalculateNanos) + " MB/s");
+    return 0;
+  }
+
+  /** The per chunk verification done before the bulk methods existed. */
+  private static void verifyByChunk(DataChecksum checksum, ByteBuffer data,
+      ByteBuffer sums) throws ChecksumException {
+    byte[] chunk = new byte[checksum.getBytesPerChecksum()];
+    ByteBuffer d = data.duplicate();
+    ByteBuffer s = sums.duplicate();
+    while (d.hasRemaining()) {
+      int n = Math.min(d.remaining(), chunk.length);
+      d.get(chunk, 0, n);
+      checksum.reset();
+      checksum.update(chunk, 0, n);
+      if ((int) checksum.getValue() != s.getInt()) {
+        throw new ChecksumException("Checksum error at " + d.position(),
+            d.position());
+      }
+    }
+  }
+
+  /** The per chunk calculation done before the bulk methods existed. */
+  private static void calculateByChunk(DataChecksum checksum,
+      ByteBuffer data, ByteBuffer sums) {
+    byte[] chunk = new byte[checksum.getBytesPerChecksum()];
+    ByteBuffer d = data.duplicate();
+    ByteBuffer s = sums.duplicate();
+    while (d.hasRemaining()) {
+      int n = Math.min(d.remaining(), chunk.length);
+      d.get(chunk, 0, n);
+      checksum.reset();
+      checksum.update(chunk, 0, n);
+      s.putInt((int) checksum.getValue());
+    }
+  }
+
+  private static ByteBuffer allocate(int size, boolean direct) {
+    return direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+  }
+
+  private static String mbPerSecond(long bytes, long nanos) {
+    return String.format("%.1f",
+        (bytes / (1024.0 * 1024.0)) / (Math.max(1, nanos) / 1e9));
+  }
+
+  public static void main(String []args) throws Exception {
+    int rc = ToolRunner.run(new DataChecksumBenchmark(), args);
+    System.exit(rc);
+  }
+
+  @Override
+  public void setConf(Configuration conf) {
+    this.conf = conf;
+  }
+
+  @Override
+  public Configuration getConf() {
+    return conf;
+  }
+}
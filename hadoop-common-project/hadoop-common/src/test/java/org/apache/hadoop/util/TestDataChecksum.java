@@ -19,11 +19,13 @@
 
 import java.nio.ByteBuffer;
 import java.util.Random;
+import java.util.zip.Checksum;
 
 import org.apache.hadoop.fs.ChecksumException;
 import org.junit.Test;
 
 import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
 
 public class TestDataChecksum {
 
@@ -115,6 +117,51 @@ private void doBulkTest(DataChecksum checksum, int dataLength,
     }
   }
   
+  /**
+   * The native bulk functions must agree with the pure Java checksums,
+   * including for a trailing partial chunk and unaligned offsets.
+   */
+  @Test
+  public void testNativeBulkMatchesJava() throws Exception {
+    assumeTrue(NativeCrc32.isBulkAvailable());
+    Random rand = new Random();
+    for (DataChecksum.Type type : CHECKSUM_TYPES) {
+      for (int dataLength : new int[] { 1, 511, 512, 1536, 4000 }) {
+        byte[] data = new byte[dataLength + DATA_OFFSET_IN_BUFFER];
+        rand.nextBytes(data);
+        int numSums = (dataLength - 1) / BYTES_PER_CHUNK + 1;
+        byte[] sums = new byte[SUMS_OFFSET_IN_BUFFER + numSums * 4];
+        NativeCrc32.calculateChunkedSumsByteArray(BYTES_PER_CHUNK, type.id,
+            sums, SUMS_OFFSET_IN_BUFFER, data, DATA_OFFSET_IN_BUFFER,
+            dataLength);
+
+        Checksum summer = type == DataChecksum.Type.CRC32 ?
+            new PureJavaCrc32() : new PureJavaCrc32C();
+        for (int i = 0; i < numSums; i++) {
+          int off = i * BYTES_PER_CHUNK;
+          summer.reset();
+          summer.update(data, DATA_OFFSET_IN_BUFFER + off,
+              Math.min(BYTES_PER_CHUNK, dataLength - off));
+          assertEquals((int) summer.getValue(), ByteBuffer.wrap(sums,
+              SUMS_OFFSET_IN_BUFFER + i * 4, 4).getInt());
+        }
+
+        NativeCrc32.verifyChunkedSumsByteArray(BYTES_PER_CHUNK, type.id,
+            sums, SUMS_OFFSET_IN_BUFFER, data, DATA_OFFSET_IN_BUFFER,
+            dataLength, "fake file", 0);
+        data[DATA_OFFSET_IN_BUFFER + dataLength - 1]++;
+        try {
+          NativeCrc32.verifyChunkedSumsByteArray(BYTES_PER_CHUNK, type.id,
+              sums, SUMS_OFFSET_IN_BUFFER, data, DATA_OFFSET_IN_BUFFER,
+              dataLength, "fake file", 100);
+          fail("Did not throw on bad data");
+        } catch (ChecksumException ce) {
+          assertEquals(100 + (numSums - 1) * BYTES_PER_CHUNK, ce.getPos());
+        }
+      }
+    }
+  }
+
   @Test
   public void testEquality() {
     assertEquals(
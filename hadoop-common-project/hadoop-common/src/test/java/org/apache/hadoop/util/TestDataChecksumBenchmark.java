@@ -0,0 +1,38 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.util;
+
+import static org.junit.Assert.*;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+
+public class TestDataChecksumBenchmark {
+
+  @Test(timeout=60000)
+  public void testBenchmark() throws Exception {
+    Configuration conf = new Configuration();
+    assertEquals(0, ToolRunner.run(conf, new DataChecksumBenchmark(),
+        new String[] { "--sizeMB", "4" }));
+    assertEquals(0, ToolRunner.run(conf, new DataChecksumBenchmark(),
+        new String[] { "--sizeMB", "4", "--type", "CRC32",
+            "--packetSize", "1000", "--direct" }));
+    assertEquals(-1, ToolRunner.run(conf, new DataChecksumBenchmark(),
+        new String[] { "--type", "NULL" }));
+  }
+}
@@ -0,0 +1,155 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.util;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.hadoop.HadoopIllegalArgumentException;
+import org.apache.hadoop.util.LightWeightGSet.LinkedElement;
+import org.junit.Assert;
+import org.junit.Test;
+
+/** Testing {@link LightWeightResizableGSet} */
+public class TestLightWeightResizableGSet {
+
+  private static class TestElement implements LinkedElement {
+    private final long key;
+    private LinkedElement next;
+
+    TestElement(long key) {
+      this.key = key;
+    }
+
+    @Override
+    public void setNext(LinkedElement next) {
+      this.next = next;
+    }
+
+    @Override
+    public LinkedElement getNext() {
+      return next;
+    }
+
+    @Override
+    public int hashCode() {
+      return (int) (key ^ (key >>> 32));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      return obj instanceof TestElement && ((TestElement) obj).key == key;
+    }
+  }
+
+  @Test(timeout=60000)
+  public void testGrowsWithSize() {
+    LightWeightResizableGSet<TestElement, TestElement> set =
+        new LightWeightResizableGSet<TestElement, TestElement>();
+    Assert.assertEquals(16, set.getCapacity());
+    Random random = new Random(123);
+    Set<Long> keys = new HashSet<Long>();
+    while (keys.size() < 10000) {
+      long key = random.nextLong();
+      if (keys.add(key)) {
+        Assert.assertNull(set.put(new TestElement(key)));
+      }
+      Assert.assertTrue(set.size() <= set.getCapacity() * 0.75f);
+    }
+    Assert.assertEquals(keys.size(), set.size());
+    Assert.assertEquals(16384, set.getCapacity());
+
+    // Every element is found after the rehashes.
+    for (long key : keys) {
+      Assert.assertEquals(key, set.get(new TestElement(key)).key);
+    }
+    int count = 0;
+    for (Iterator<TestElement> iter = set.iterator(); iter.hasNext(); ) {
+      Assert.assertTrue(keys.contains(iter.next().key));
+      count++;
+    }
+    Assert.assertEquals(keys.size(), count);
+
+    // Replacing does not change the size, removing does not shrink.
+    long first = keys.iterator().next();
+    TestElement replacement = new TestElement(first);
+    Assert.assertNotNull(set.put(replacement));
+    Assert.assertSame(replacement, set.get(new TestElement(first)));
+    Assert.assertEquals(keys.size(), set.size());
+    for (long key : keys) {
+      Assert.assertNotNull(set.remove(new TestElement(key)));
+    }
+    Assert.assertEquals(0, set.size());
+    Assert.assertEquals(16384, set.getCapacity());
+  }
+
+  @Test(timeout=60000)
+  public void testEnsureCapacity() {
+    LightWeightResizableGSet<TestElement, TestElement> set =
+        new LightWeightResizableGSet<TestElement, TestElement>(16, 0.5f);
+    for (int i = 0; i < 8; i++) {
+      set.put(new TestElement(i));
+    }
+    set.ensureCapacity(1000);
+    Assert.assertEquals(2048, set.getCapacity());
+    for (int i = 8; i < 1000; i++) {
+      set.put(new TestElement(i));
+    }
+    Assert.assertEquals(2048, set.getCapacity());
+    for (int i = 0; i < 1000; i++) {
+      Assert.assertTrue(set.contains(new TestElement(i)));
+    }
+    // A smaller expected size does not shrink the array.
+    set.ensureCapacity(10);
+    Assert.assertEquals(2048, set.getCapacity());
+
+    set.clear();
+    Assert.assertEquals(0, set.size());
+    Assert.assertEquals(16, set.getCapacity());
+    Assert.assertFalse(set.iterator().hasNext());
+  }
+
+  @Test(timeout=60000)
+  public void testTrimToSize() {
+    LightWeightResizableGSet<TestElement, TestElement> set =
+        new LightWeightResizableGSet<TestElement, TestElement>(16, 0.5f);
+    for (int i = 0; i < 1000; i++) {
+      set.put(new TestElement(i));
+    }
+    Assert.assertEquals(2048, set.getCapacity());
+    for (int i = 100; i < 1000; i++) {
+      Assert.assertNotNull(set.remove(new TestElement(i)));
+    }
+    set.trimToSize();
+    Assert.assertEquals(256, set.getCapacity());
+    for (int i = 0; i < 100; i++) {
+      Assert.assertTrue(set.contains(new TestElement(i)));
+    }
+    // The array is never shorter than its initial length.
+    set.clear();
+    set.trimToSize();
+    Assert.assertEquals(16, set.getCapacity());
+  }
+
+  @Test(expected=HadoopIllegalArgumentException.class)
+  public void testIllegalLoadFactor() {
+    new LightWeightResizableGSet<TestElement, TestElement>(16, 0f);
+  }
+}
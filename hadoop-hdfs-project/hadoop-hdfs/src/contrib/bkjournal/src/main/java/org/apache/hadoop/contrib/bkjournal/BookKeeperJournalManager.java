@@ -548,6 +548,15 @@ public void selectInputStreams(Collection<EditLogInputStream> streams,
     }
   }
 
+  @Override
+  public void selectInputStreams(Collection<EditLogInputStream> streams,
+      long fromTxId, boolean inProgressOk, boolean onlyDurableTxns)
+      throws IOException {
+    // The entries of an in-progress ledger are read without recovering it,
+    // so they are not known to be durable.
+    selectInputStreams(streams, fromTxId, inProgressOk && !onlyDurableTxns);
+  }
+
   long getNumberOfTransactions(long fromTxId, boolean inProgressOk)
       throws IOException {
     long count = 0;
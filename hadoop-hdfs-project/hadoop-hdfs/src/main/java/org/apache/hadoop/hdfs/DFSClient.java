@@ -82,6 +82,7 @@
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -134,6 +135,7 @@
 import org.apache.hadoop.hdfs.protocol.DSQuotaExceededException;
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
 import org.apache.hadoop.hdfs.protocol.DirectoryListing;
+import org.apache.hadoop.hdfs.protocol.ErasureCodingPolicy;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.protocol.HdfsBlocksMetadata;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
@@ -235,6 +237,9 @@ public class DFSClient implements java.io.Closeable, RemotePeerFactory {
   private static DFSHedgedReadMetrics HEDGED_READ_METRIC =
       new DFSHedgedReadMetrics();
   private static ThreadPoolExecutor HEDGED_READ_THREAD_POOL;
+  private static ThreadPoolExecutor VECTORED_READ_THREAD_POOL;
+  private static ThreadPoolExecutor BLOCK_PREFETCH_THREAD_POOL;
+  private static ThreadPoolExecutor WRITE_CHECKSUM_THREAD_POOL;
   
   /**
    * DFSClient configuration 
@@ -290,6 +295,15 @@ public static class Conf {
     final long shortCircuitMmapCacheRetryTimeout;
     final long shortCircuitCacheStaleThresholdMs;
 
+    final int vectoredReadMinSeekSize;
+    final int vectoredReadMaxMergedSize;
+    final int blockPrefetchBlocks;
+    final int blockPrefetchChunkSize;
+    final int blockPrefetchMaxBuffers;
+    final int blockPrefetchThreads;
+    final int writeChecksumThreads;
+    final boolean writeReusePacketBuffers;
+
     public Conf(Configuration conf) {
       // The hdfsTimeout is currently the same as the ipc timeout 
       hdfsTimeout = Client.getTimeout(conf);
@@ -426,6 +440,33 @@ public Conf(Configuration conf) {
       datanodeRestartTimeout = conf.getLong(
           DFS_CLIENT_DATANODE_RESTART_TIMEOUT_KEY,
           DFS_CLIENT_DATANODE_RESTART_TIMEOUT_DEFAULT) * 1000;
+
+      vectoredReadMinSeekSize = conf.getInt(
+          DFSConfigKeys.DFS_CLIENT_VECTORED_READ_MIN_SEEK_SIZE,
+          DFSConfigKeys.DFS_CLIENT_VECTORED_READ_MIN_SEEK_SIZE_DEFAULT);
+      vectoredReadMaxMergedSize = conf.getInt(
+          DFSConfigKeys.DFS_CLIENT_VECTORED_READ_MAX_MERGED_SIZE,
+          DFSConfigKeys.DFS_CLIENT_VECTORED_READ_MAX_MERGED_SIZE_DEFAULT);
+
+      blockPrefetchBlocks = conf.getInt(
+          DFSConfigKeys.DFS_CLIENT_BLOCK_PREFETCH_BLOCKS_KEY,
+          DFSConfigKeys.DFS_CLIENT_BLOCK_PREFETCH_BLOCKS_DEFAULT);
+      blockPrefetchChunkSize = conf.getInt(
+          DFSConfigKeys.DFS_CLIENT_BLOCK_PREFETCH_CHUNK_SIZE_KEY,
+          DFSConfigKeys.DFS_CLIENT_BLOCK_PREFETCH_CHUNK_SIZE_DEFAULT);
+      blockPrefetchMaxBuffers = conf.getInt(
+          DFSConfigKeys.DFS_CLIENT_BLOCK_PREFETCH_MAX_BUFFERS_KEY,
+          DFSConfigKeys.DFS_CLIENT_BLOCK_PREFETCH_MAX_BUFFERS_DEFAULT);
+      blockPrefetchThreads = conf.getInt(
+          DFSConfigKeys.DFS_CLIENT_BLOCK_PREFETCH_THREADPOOL_SIZE_KEY,
+          DFSConfigKeys.DFS_CLIENT_BLOCK_PREFETCH_THREADPOOL_SIZE_DEFAULT);
+
+      writeChecksumThreads = conf.getInt(
+          DFSConfigKeys.DFS_CLIENT_WRITE_CHECKSUM_THREADPOOL_SIZE_KEY,
+          DFSConfigKeys.DFS_CLIENT_WRITE_CHECKSUM_THREADPOOL_SIZE_DEFAULT);
+      writeReusePacketBuffers = conf.getBoolean(
+          DFSConfigKeys.DFS_CLIENT_WRITE_REUSE_PACKET_BUFFERS_KEY,
+          DFSConfigKeys.DFS_CLIENT_WRITE_REUSE_PACKET_BUFFERS_DEFAULT);
     }
 
     private DataChecksum.Type getChecksumType(Configuration conf) {
@@ -609,6 +650,15 @@ public DFSClient(URI nameNodeUri, ClientProtocol rpcNamenode,
     if (numThreads > 0) {
       this.initThreadsNumForHedgedReads(numThreads);
     }
+    int vectoredReadThreads = conf.getInt(
+        DFSConfigKeys.DFS_CLIENT_VECTORED_READ_THREADPOOL_SIZE,
+        DFSConfigKeys.DFS_CLIENT_VECTORED_READ_THREADPOOL_SIZE_DEFAULT);
+    if (vectoredReadThreads > 0) {
+      initThreadsNumForVectoredReads(vectoredReadThreads);
+    }
+    if (dfsClientConf.writeChecksumThreads > 0) {
+      initThreadsNumForWriteChecksums(dfsClientConf.writeChecksumThreads);
+    }
   }
   
   /**
@@ -1161,8 +1211,14 @@ public BlockLocation[] getBlockLocations(String src, long start,
     LocatedBlocks blocks = getLocatedBlocks(src, start, length);
     BlockLocation[] locations =  DFSUtil.locatedBlocks2Locations(blocks);
     HdfsBlockLocation[] hdfsLocations = new HdfsBlockLocation[locations.length];
+    // A striped file has a location per block group, which is located by
+    // the first of its internal blocks.
+    final int blocksPerLocation =
+        blocks == null || blocks.getErasureCodingPolicy() == null ?
+        1 : blocks.getErasureCodingPolicy().getNumUnits();
     for (int i = 0; i < locations.length; i++) {
-      hdfsLocations[i] = new HdfsBlockLocation(locations[i], blocks.get(i));
+      hdfsLocations[i] = new HdfsBlockLocation(locations[i],
+          blocks.get(i * blocksPerLocation));
     }
     return hdfsLocations;
   }
@@ -1271,7 +1327,12 @@ public DFSInputStream open(String src, int buffersize, boolean verifyChecksum)
       throws IOException, UnresolvedLinkException {
     checkOpen();
     //    Get block info from namenode
-    return new DFSInputStream(this, src, buffersize, verifyChecksum);
+    final LocatedBlocks blocks = getLocatedBlocks(src, 0);
+    if (blocks != null && blocks.getErasureCodingPolicy() != null) {
+      return new DFSStripedInputStream(this, src, buffersize, verifyChecksum,
+          blocks);
+    }
+    return new DFSInputStream(this, src, buffersize, verifyChecksum, blocks);
   }
 
   /**
@@ -2738,6 +2799,38 @@ public AclStatus getAclStatus(String src) throws IOException {
     }
   }
 
+  /**
+   * @see ClientProtocol#setErasureCodingPolicy(String, String)
+   */
+  public void setErasureCodingPolicy(String src, String policyName)
+      throws IOException {
+    checkOpen();
+    try {
+      namenode.setErasureCodingPolicy(src, policyName);
+    } catch(RemoteException re) {
+      throw re.unwrapRemoteException(AccessControlException.class,
+                                     FileNotFoundException.class,
+                                     SafeModeException.class,
+                                     SnapshotAccessControlException.class,
+                                     UnresolvedPathException.class);
+    }
+  }
+
+  /**
+   * @see ClientProtocol#getErasureCodingPolicy(String)
+   */
+  public ErasureCodingPolicy getErasureCodingPolicy(String src)
+      throws IOException {
+    checkOpen();
+    try {
+      return namenode.getErasureCodingPolicy(src);
+    } catch(RemoteException re) {
+      throw re.unwrapRemoteException(AccessControlException.class,
+                                     FileNotFoundException.class,
+                                     UnresolvedPathException.class);
+    }
+  }
+
   @Override // RemotePeerFactory
   public Peer newConnectedPeer(InetSocketAddress addr) throws IOException {
     Peer peer = null;
@@ -2798,6 +2891,104 @@ public void rejectedExecution(Runnable runnable,
     }
   }
 
+  /**
+   * Create the vectored reads thread pool, VECTORED_READ_THREAD_POOL, if
+   * it does not already exist. When all its threads are busy, ranges are
+   * read by the thread that asked for them.
+   * @param num Number of threads for the vectored reads thread pool.
+   */
+  private static synchronized void initThreadsNumForVectoredReads(int num) {
+    if (VECTORED_READ_THREAD_POOL != null) return;
+    VECTORED_READ_THREAD_POOL = new ThreadPoolExecutor(1, num, 60,
+        TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+        new Daemon.DaemonFactory() {
+          private final AtomicInteger threadIndex =
+            new AtomicInteger(0);
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread t = super.newThread(r);
+            t.setName("vectoredRead-" +
+              threadIndex.getAndIncrement());
+            return t;
+          }
+        },
+        new ThreadPoolExecutor.CallerRunsPolicy());
+    VECTORED_READ_THREAD_POOL.allowCoreThreadTimeOut(true);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Using vectored read pool; pool threads=" + num);
+    }
+  }
+
+  /** @return the vectored reads thread pool, or null to read inline. */
+  ThreadPoolExecutor getVectoredReadsThreadPool() {
+    return VECTORED_READ_THREAD_POOL;
+  }
+
+  /**
+   * Create the write checksum thread pool, WRITE_CHECKSUM_THREAD_POOL, if
+   * it does not already exist. When all its threads are busy, checksums
+   * are computed by the writing thread.
+   * @param num Number of threads for the write checksum thread pool.
+   */
+  private static synchronized void initThreadsNumForWriteChecksums(int num) {
+    if (WRITE_CHECKSUM_THREAD_POOL != null) return;
+    WRITE_CHECKSUM_THREAD_POOL = new ThreadPoolExecutor(1, num, 60,
+        TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+        new Daemon.DaemonFactory() {
+          private final AtomicInteger threadIndex =
+            new AtomicInteger(0);
+          @Override
+          public Thread newThread(Runnable r) {
+            Thread t = super.newThread(r);
+            t.setName("writeChecksum-" +
+              threadIndex.getAndIncrement());
+            return t;
+          }
+        },
+        new ThreadPoolExecutor.CallerRunsPolicy());
+    WRITE_CHECKSUM_THREAD_POOL.allowCoreThreadTimeOut(true);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Using write checksum pool; pool threads=" + num);
+    }
+  }
+
+  /** @return the write checksum thread pool, or null to compute inline. */
+  ThreadPoolExecutor getWriteChecksumThreadPool() {
+    return dfsClientConf.writeChecksumThreads > 0 ?
+        WRITE_CHECKSUM_THREAD_POOL : null;
+  }
+
+  /**
+   * Return the block prefetch thread pool, creating it the first time a
+   * stream prefetches. Its queue is unbounded; each stream bounds the
+   * number of chunks it has in flight.
+   */
+  ThreadPoolExecutor getBlockPrefetchThreadPool() {
+    synchronized (DFSClient.class) {
+      if (BLOCK_PREFETCH_THREAD_POOL == null) {
+        int num = Math.max(1, dfsClientConf.blockPrefetchThreads);
+        BLOCK_PREFETCH_THREAD_POOL = new ThreadPoolExecutor(num, num, 60,
+            TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+            new Daemon.DaemonFactory() {
+              private final AtomicInteger threadIndex =
+                new AtomicInteger(0);
+              @Override
+              public Thread newThread(Runnable r) {
+                Thread t = super.newThread(r);
+                t.setName("blockPrefetch-" +
+                  threadIndex.getAndIncrement());
+                return t;
+              }
+            });
+        BLOCK_PREFETCH_THREAD_POOL.allowCoreThreadTimeOut(true);
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Using block prefetch pool; pool threads=" + num);
+        }
+      }
+      return BLOCK_PREFETCH_THREAD_POOL;
+    }
+  }
+
   long getHedgedReadTimeout() {
     return this.hedgedReadThresholdMillis;
   }
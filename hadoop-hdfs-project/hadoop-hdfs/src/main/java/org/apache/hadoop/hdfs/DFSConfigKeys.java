@@ -107,10 +107,30 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final long    DFS_DATANODE_BALANCE_BANDWIDTHPERSEC_DEFAULT = 1024*1024;
   public static final String  DFS_DATANODE_READAHEAD_BYTES_KEY = "dfs.datanode.readahead.bytes";
   public static final long    DFS_DATANODE_READAHEAD_BYTES_DEFAULT = 4 * 1024 * 1024; // 4MB
+  public static final String  DFS_DATANODE_META_READ_BUFFER_SIZE_KEY = "dfs.datanode.meta-read.buffer-size";
+  public static final int     DFS_DATANODE_META_READ_BUFFER_SIZE_DEFAULT = 64 * 1024;
+  public static final String  DFS_DATANODE_TRUST_PIPELINE_CHECKSUMS_KEY = "dfs.datanode.trust-pipeline-checksums";
+  public static final boolean DFS_DATANODE_TRUST_PIPELINE_CHECKSUMS_DEFAULT = false;
   public static final String  DFS_DATANODE_DROP_CACHE_BEHIND_WRITES_KEY = "dfs.datanode.drop.cache.behind.writes";
   public static final boolean DFS_DATANODE_DROP_CACHE_BEHIND_WRITES_DEFAULT = false;
   public static final String  DFS_DATANODE_SYNC_BEHIND_WRITES_KEY = "dfs.datanode.sync.behind.writes";
   public static final boolean DFS_DATANODE_SYNC_BEHIND_WRITES_DEFAULT = false;
+  public static final String  DFS_DATANODE_SYNC_BEHIND_WRITES_IN_BACKGROUND_KEY = "dfs.datanode.sync.behind.writes.in.background";
+  public static final boolean DFS_DATANODE_SYNC_BEHIND_WRITES_IN_BACKGROUND_DEFAULT = false;
+  public static final String  DFS_DATANODE_DIRECT_IO_READS_ENABLED_KEY = "dfs.datanode.direct-io.reads.enabled";
+  public static final boolean DFS_DATANODE_DIRECT_IO_READS_ENABLED_DEFAULT = false;
+  public static final String  DFS_DATANODE_DIRECT_IO_BUFFER_SIZE_KEY = "dfs.datanode.direct-io.buffer-size";
+  public static final int     DFS_DATANODE_DIRECT_IO_BUFFER_SIZE_DEFAULT = 1024 * 1024;
+  public static final String  DFS_DATANODE_SLOW_VOLUME_DETECTION_ENABLED_KEY = "dfs.datanode.slow-volume.detection.enabled";
+  public static final boolean DFS_DATANODE_SLOW_VOLUME_DETECTION_ENABLED_DEFAULT = false;
+  public static final String  DFS_DATANODE_SLOW_VOLUME_WINDOW_MS_KEY = "dfs.datanode.slow-volume.window.ms";
+  public static final long    DFS_DATANODE_SLOW_VOLUME_WINDOW_MS_DEFAULT = 5 * 60 * 1000;
+  public static final String  DFS_DATANODE_SLOW_VOLUME_MIN_VOLUMES_KEY = "dfs.datanode.slow-volume.min-volumes";
+  public static final int     DFS_DATANODE_SLOW_VOLUME_MIN_VOLUMES_DEFAULT = 5;
+  public static final String  DFS_DATANODE_SLOW_VOLUME_LOW_THRESHOLD_MS_KEY = "dfs.datanode.slow-volume.low-threshold.ms";
+  public static final long    DFS_DATANODE_SLOW_VOLUME_LOW_THRESHOLD_MS_DEFAULT = 20;
+  public static final String  DFS_DATANODE_DATASET_LOCK_STRIPES_KEY = "dfs.datanode.dataset.lock.stripes";
+  public static final int     DFS_DATANODE_DATASET_LOCK_STRIPES_DEFAULT = 1024;
   public static final String  DFS_DATANODE_DROP_CACHE_BEHIND_READS_KEY = "dfs.datanode.drop.cache.behind.reads";
   public static final boolean DFS_DATANODE_DROP_CACHE_BEHIND_READS_DEFAULT = false;
   public static final String  DFS_DATANODE_USE_DN_HOSTNAME = "dfs.datanode.use.datanode.hostname";
@@ -217,6 +237,10 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   
   public static final String  DFS_NAMENODE_EDITS_NOEDITLOGCHANNELFLUSH = "dfs.namenode.edits.noeditlogchannelflush";
   public static final boolean DFS_NAMENODE_EDITS_NOEDITLOGCHANNELFLUSH_DEFAULT = false;
+  public static final String  DFS_NAMENODE_EDITS_ASYNC_LOGGING = "dfs.namenode.edits.asynclogging";
+  public static final boolean DFS_NAMENODE_EDITS_ASYNC_LOGGING_DEFAULT = false;
+  public static final String  DFS_NAMENODE_EDITS_ASYNC_QUEUE_SIZE_KEY = "dfs.namenode.edits.async.queue.size";
+  public static final int     DFS_NAMENODE_EDITS_ASYNC_QUEUE_SIZE_DEFAULT = 4096;
   
   public static final String  DFS_LIST_LIMIT = "dfs.ls.limit";
   public static final int     DFS_LIST_LIMIT_DEFAULT = 1000;
@@ -250,6 +274,9 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   // Whether to enable datanode's stale state detection and usage for writes
   public static final String DFS_NAMENODE_AVOID_STALE_DATANODE_FOR_WRITE_KEY = "dfs.namenode.avoid.write.stale.datanode";
   public static final boolean DFS_NAMENODE_AVOID_STALE_DATANODE_FOR_WRITE_DEFAULT = false;
+  // Whether to avoid the storages that their DataNode reports slow for writes
+  public static final String DFS_NAMENODE_AVOID_SLOW_STORAGE_FOR_WRITE_KEY = "dfs.namenode.avoid.write.slow.storage";
+  public static final boolean DFS_NAMENODE_AVOID_SLOW_STORAGE_FOR_WRITE_DEFAULT = true;
   // The default value of the time interval for marking datanodes as stale
   public static final String DFS_NAMENODE_STALE_DATANODE_INTERVAL_KEY = "dfs.namenode.stale.datanode.interval";
   public static final long DFS_NAMENODE_STALE_DATANODE_INTERVAL_DEFAULT = 30 * 1000; // 30s
@@ -270,6 +297,15 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String DFS_NAMENODE_REPLICATION_WORK_MULTIPLIER_PER_ITERATION =
       "dfs.namenode.replication.work.multiplier.per.iteration";
   public static final int DFS_NAMENODE_REPLICATION_WORK_MULTIPLIER_PER_ITERATION_DEFAULT = 2;
+  public static final String DFS_NAMENODE_REPLICATION_WORK_ADAPTIVE_KEY =
+      "dfs.namenode.replication.work.adaptive";
+  public static final boolean DFS_NAMENODE_REPLICATION_WORK_ADAPTIVE_DEFAULT = false;
+  public static final String DFS_NAMENODE_REPLICATION_WORK_THREADS_KEY =
+      "dfs.namenode.replication.work.threads";
+  public static final int DFS_NAMENODE_REPLICATION_WORK_THREADS_DEFAULT = 1;
+  public static final String DFS_NAMENODE_REPLICATION_WORK_BLOCKS_PER_LOCK_KEY =
+      "dfs.namenode.replication.work.blocks-per-lock";
+  public static final int DFS_NAMENODE_REPLICATION_WORK_BLOCKS_PER_LOCK_DEFAULT = 1000;
 
   //Delegation token related keys
   public static final String  DFS_NAMENODE_DELEGATION_KEY_UPDATE_INTERVAL_KEY = "dfs.namenode.delegation.key.update-interval";
@@ -321,6 +357,22 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final boolean DFS_NAMENODE_AUDIT_LOG_TOKEN_TRACKING_ID_DEFAULT = false;
   public static final String  DFS_NAMENODE_AUDIT_LOG_ASYNC_KEY = "dfs.namenode.audit.log.async";
   public static final boolean DFS_NAMENODE_AUDIT_LOG_ASYNC_DEFAULT = false;
+  public static final String  DFS_NAMENODE_AUDIT_LOG_ASYNC_EVENTS_KEY = "dfs.namenode.audit.log.async.events";
+  public static final boolean DFS_NAMENODE_AUDIT_LOG_ASYNC_EVENTS_DEFAULT = false;
+  public static final String  DFS_NAMENODE_AUDIT_LOG_ASYNC_EVENTS_BUFFER_SIZE_KEY = "dfs.namenode.audit.log.async.events.buffer-size";
+  public static final int     DFS_NAMENODE_AUDIT_LOG_ASYNC_EVENTS_BUFFER_SIZE_DEFAULT = 8192;
+  public static final String  DFS_NAMENODE_AUDIT_LOG_ASYNC_EVENTS_DROP_WHEN_FULL_KEY = "dfs.namenode.audit.log.async.events.drop-when-full";
+  public static final boolean DFS_NAMENODE_AUDIT_LOG_ASYNC_EVENTS_DROP_WHEN_FULL_DEFAULT = false;
+  public static final String  DFS_NAMENODE_WRITE_LOCK_REPORTING_THRESHOLD_MS_KEY = "dfs.namenode.write-lock-reporting-threshold-ms";
+  public static final long    DFS_NAMENODE_WRITE_LOCK_REPORTING_THRESHOLD_MS_DEFAULT = 1000L;
+  public static final String  DFS_NAMENODE_FSLOCK_PARTITIONED_KEY = "dfs.namenode.fslock.partitioned";
+  public static final boolean DFS_NAMENODE_FSLOCK_PARTITIONED_DEFAULT = false;
+  public static final String  DFS_NAMENODE_FSLOCK_PARTITIONED_STRIPES_KEY = "dfs.namenode.fslock.partitioned.stripes";
+  public static final int     DFS_NAMENODE_FSLOCK_PARTITIONED_STRIPES_DEFAULT = 1024;
+  public static final String  DFS_NAMENODE_INODE_MAP_COMPACT_KEY = "dfs.namenode.inode-map.compact";
+  public static final boolean DFS_NAMENODE_INODE_MAP_COMPACT_DEFAULT = false;
+  public static final String  DFS_NAMENODE_INODE_MAP_COMPACT_FILES_KEY = "dfs.namenode.inode-map.compact-files";
+  public static final boolean DFS_NAMENODE_INODE_MAP_COMPACT_FILES_DEFAULT = false;
 
   // Much code in hdfs is not yet updated to use these keys.
   public static final String  DFS_CLIENT_BLOCK_WRITE_LOCATEFOLLOWINGBLOCK_RETRIES_KEY = "dfs.client.block.write.locateFollowingBlock.retries";
@@ -348,6 +400,16 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int     DFS_DATANODE_DIRECTORYSCAN_INTERVAL_DEFAULT = 21600;
   public static final String  DFS_DATANODE_DIRECTORYSCAN_THREADS_KEY = "dfs.datanode.directoryscan.threads";
   public static final int     DFS_DATANODE_DIRECTORYSCAN_THREADS_DEFAULT = 1;
+  public static final String  DFS_DATANODE_DIRECTORYSCAN_THROTTLE_LIMIT_MS_PER_SEC_KEY = "dfs.datanode.directoryscan.throttle.limit.ms.per.sec";
+  public static final int     DFS_DATANODE_DIRECTORYSCAN_THROTTLE_LIMIT_MS_PER_SEC_DEFAULT = 1000;
+  public static final String  DFS_DATANODE_DIRECTORYSCAN_RECONCILE_BATCH_SIZE_KEY = "dfs.datanode.directoryscan.reconcile.batch.size";
+  public static final int     DFS_DATANODE_DIRECTORYSCAN_RECONCILE_BATCH_SIZE_DEFAULT = 1000;
+  public static final String  DFS_DATANODE_DIRECTORYSCAN_RECONCILE_BATCH_INTERVAL_MS_KEY = "dfs.datanode.directoryscan.reconcile.batch.interval.ms";
+  public static final long    DFS_DATANODE_DIRECTORYSCAN_RECONCILE_BATCH_INTERVAL_MS_DEFAULT = 2000;
+  public static final String  DFS_DATANODE_REPLICA_CACHE_ENABLED_KEY = "dfs.datanode.replica.cache.enabled";
+  public static final boolean DFS_DATANODE_REPLICA_CACHE_ENABLED_DEFAULT = true;
+  public static final String  DFS_DATANODE_EC_RECONSTRUCTION_THREADS_KEY = "dfs.datanode.ec.reconstruction.threads";
+  public static final int     DFS_DATANODE_EC_RECONSTRUCTION_THREADS_DEFAULT = 2;
   public static final String  DFS_DATANODE_DNS_INTERFACE_KEY = "dfs.datanode.dns.interface";
   public static final String  DFS_DATANODE_DNS_INTERFACE_DEFAULT = "default";
   public static final String  DFS_DATANODE_DNS_NAMESERVER_KEY = "dfs.datanode.dns.nameserver";
@@ -361,6 +423,10 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String  DFS_DATANODE_HTTP_ADDRESS_DEFAULT = "0.0.0.0:" + DFS_DATANODE_HTTP_DEFAULT_PORT;
   public static final String  DFS_DATANODE_MAX_RECEIVER_THREADS_KEY = "dfs.datanode.max.transfer.threads";
   public static final int     DFS_DATANODE_MAX_RECEIVER_THREADS_DEFAULT = 4096;
+  public static final String  DFS_DATANODE_XCEIVER_EVENT_DRIVEN_KEY = "dfs.datanode.xceiver.event-driven";
+  public static final boolean DFS_DATANODE_XCEIVER_EVENT_DRIVEN_DEFAULT = false;
+  public static final String  DFS_DATANODE_XCEIVER_EVENT_LOOPS_KEY = "dfs.datanode.xceiver.event-loops";
+  public static final int     DFS_DATANODE_XCEIVER_EVENT_LOOPS_DEFAULT = 2;
   public static final String  DFS_DATANODE_NUMBLOCKS_KEY = "dfs.datanode.numblocks";
   public static final int     DFS_DATANODE_NUMBLOCKS_DEFAULT = 64;
   public static final String  DFS_DATANODE_SCAN_PERIOD_HOURS_KEY = "dfs.datanode.scan.period.hours";
@@ -375,6 +441,8 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int     DFS_NAMENODE_DECOMMISSION_INTERVAL_DEFAULT = 30;
   public static final String  DFS_NAMENODE_DECOMMISSION_NODES_PER_INTERVAL_KEY = "dfs.namenode.decommission.nodes.per.interval";
   public static final int     DFS_NAMENODE_DECOMMISSION_NODES_PER_INTERVAL_DEFAULT = 5;
+  public static final String  DFS_NAMENODE_DECOMMISSION_BLOCKS_PER_LOCK_KEY = "dfs.namenode.decommission.blocks.per.lock";
+  public static final int     DFS_NAMENODE_DECOMMISSION_BLOCKS_PER_LOCK_DEFAULT = 1000;
   public static final String  DFS_NAMENODE_HANDLER_COUNT_KEY = "dfs.namenode.handler.count";
   public static final int     DFS_NAMENODE_HANDLER_COUNT_DEFAULT = 10;
   public static final String  DFS_NAMENODE_SERVICE_HANDLER_COUNT_KEY = "dfs.namenode.service.handler.count";
@@ -414,6 +482,10 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int     DFS_BLOCKREPORT_INITIAL_DELAY_DEFAULT = 0;
   public static final String  DFS_BLOCKREPORT_SPLIT_THRESHOLD_KEY = "dfs.blockreport.split.threshold";
   public static final long    DFS_BLOCKREPORT_SPLIT_THRESHOLD_DEFAULT = 1000 * 1000;
+  public static final String  DFS_BLOCKREPORT_SPLIT_ACROSS_HEARTBEATS_KEY = "dfs.blockreport.split.across-heartbeats";
+  public static final boolean DFS_BLOCKREPORT_SPLIT_ACROSS_HEARTBEATS_DEFAULT = false;
+  public static final String  DFS_BLOCKREPORT_DELTA_ENCODING_KEY = "dfs.blockreport.delta-encoding.enabled";
+  public static final boolean DFS_BLOCKREPORT_DELTA_ENCODING_DEFAULT = false;
   public static final String  DFS_CACHEREPORT_INTERVAL_MSEC_KEY = "dfs.cachereport.intervalMsec";
   public static final long    DFS_CACHEREPORT_INTERVAL_MSEC_DEFAULT = 10 * 1000;
   public static final String  DFS_BLOCK_INVALIDATE_LIMIT_KEY = "dfs.block.invalidate.limit";
@@ -423,6 +495,8 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   /* Maximum number of blocks to process for initializing replication queues */
   public static final String  DFS_BLOCK_MISREPLICATION_PROCESSING_LIMIT = "dfs.block.misreplication.processing.limit";
   public static final int     DFS_BLOCK_MISREPLICATION_PROCESSING_LIMIT_DEFAULT = 10000;
+  public static final String  DFS_NAMENODE_INITIAL_BLOCK_REPORT_BATCH_SIZE_KEY = "dfs.namenode.initial-block-report.batch-size";
+  public static final int     DFS_NAMENODE_INITIAL_BLOCK_REPORT_BATCH_SIZE_DEFAULT = 0;
   public static final String DFS_CLIENT_READ_SHORTCIRCUIT_KEY = "dfs.client.read.shortcircuit";
   public static final boolean DFS_CLIENT_READ_SHORTCIRCUIT_DEFAULT = false;
   public static final String DFS_CLIENT_READ_SHORTCIRCUIT_SKIP_CHECKSUM_KEY = "dfs.client.read.shortcircuit.skip.checksum";
@@ -454,6 +528,20 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String DFS_IMAGE_COMPRESSION_CODEC_DEFAULT =
                                    "org.apache.hadoop.io.compress.DefaultCodec";
 
+  // properties for parallel fsimage loading and saving
+  public static final String DFS_IMAGE_PARALLEL_LOAD_KEY =
+      "dfs.image.parallel.load";
+  public static final boolean DFS_IMAGE_PARALLEL_LOAD_DEFAULT = false;
+  public static final String DFS_IMAGE_PARALLEL_TARGET_SECTIONS_KEY =
+      "dfs.image.parallel.target.sections";
+  public static final int DFS_IMAGE_PARALLEL_TARGET_SECTIONS_DEFAULT = 12;
+  public static final String DFS_IMAGE_PARALLEL_INODE_THRESHOLD_KEY =
+      "dfs.image.parallel.inode.threshold";
+  public static final int DFS_IMAGE_PARALLEL_INODE_THRESHOLD_DEFAULT = 1000000;
+  public static final String DFS_IMAGE_PARALLEL_THREADS_KEY =
+      "dfs.image.parallel.threads";
+  public static final int DFS_IMAGE_PARALLEL_THREADS_DEFAULT = 4;
+
   public static final String DFS_IMAGE_TRANSFER_RATE_KEY =
                                            "dfs.image.transfer.bandwidthPerSec";
   public static final long DFS_IMAGE_TRANSFER_RATE_DEFAULT = 0;  //no throttling
@@ -522,6 +610,12 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final int DFS_HA_LOGROLL_PERIOD_DEFAULT = 2 * 60; // 2m
   public static final String DFS_HA_TAILEDITS_PERIOD_KEY = "dfs.ha.tail-edits.period";
   public static final int DFS_HA_TAILEDITS_PERIOD_DEFAULT = 60; // 1m
+  public static final String DFS_HA_TAILEDITS_INPROGRESS_KEY = "dfs.ha.tail-edits.in-progress";
+  public static final boolean DFS_HA_TAILEDITS_INPROGRESS_DEFAULT = false;
+  public static final String DFS_HA_STANDBY_READS_ENABLED_KEY = "dfs.ha.standby.reads.enabled";
+  public static final boolean DFS_HA_STANDBY_READS_ENABLED_DEFAULT = false;
+  public static final String DFS_HA_STANDBY_READS_MAX_WAIT_MS_KEY = "dfs.ha.standby.reads.max-wait.ms";
+  public static final long DFS_HA_STANDBY_READS_MAX_WAIT_MS_DEFAULT = 1000; // 1s
   public static final String DFS_HA_LOGROLL_RPC_TIMEOUT_KEY = "dfs.ha.log-roll.rpc.timeout";
   public static final int DFS_HA_LOGROLL_RPC_TIMEOUT_DEFAULT = 20000; // 20s
   public static final String DFS_HA_FENCE_METHODS_KEY = "dfs.ha.fencing.methods";
@@ -552,6 +646,8 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String  DFS_JOURNALNODE_KEYTAB_FILE_KEY = "dfs.journalnode.keytab.file";
   public static final String  DFS_JOURNALNODE_USER_NAME_KEY = "dfs.journalnode.kerberos.principal";
   public static final String  DFS_JOURNALNODE_INTERNAL_SPNEGO_USER_NAME_KEY = "dfs.journalnode.kerberos.internal.spnego.principal";
+  public static final String  DFS_JOURNALNODE_EDIT_CACHE_SIZE_KEY = "dfs.journalnode.edit-cache-size.bytes";
+  public static final int     DFS_JOURNALNODE_EDIT_CACHE_SIZE_DEFAULT = 1024 * 1024;
 
   // Journal-node related configs for the client side.
   public static final String  DFS_QJOURNAL_QUEUE_SIZE_LIMIT_KEY = "dfs.qjournal.queued-edits.limit.mb";
@@ -567,6 +663,8 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String  DFS_QJOURNAL_GET_JOURNAL_STATE_TIMEOUT_KEY = "dfs.qjournal.get-journal-state.timeout.ms";
   public static final String  DFS_QJOURNAL_NEW_EPOCH_TIMEOUT_KEY = "dfs.qjournal.new-epoch.timeout.ms";
   public static final String  DFS_QJOURNAL_WRITE_TXNS_TIMEOUT_KEY = "dfs.qjournal.write-txns.timeout.ms";
+  public static final String  DFS_QJOURNAL_TAIL_EDITS_MAX_TXNS_KEY = "dfs.qjournal.tail-edits.max-txns";
+  public static final int     DFS_QJOURNAL_TAIL_EDITS_MAX_TXNS_DEFAULT = 5000;
   public static final int     DFS_QJOURNAL_START_SEGMENT_TIMEOUT_DEFAULT = 20000;
   public static final int     DFS_QJOURNAL_PREPARE_RECOVERY_TIMEOUT_DEFAULT = 120000;
   public static final int     DFS_QJOURNAL_ACCEPT_RECOVERY_TIMEOUT_DEFAULT = 120000;
@@ -620,6 +718,42 @@ public class DFSConfigKeys extends CommonConfigurationKeys {
   public static final String DFS_DFSCLIENT_HEDGED_READ_THREADPOOL_SIZE =
       "dfs.client.hedged.read.threadpool.size";
   public static final int DEFAULT_DFSCLIENT_HEDGED_READ_THREADPOOL_SIZE = 0;
+
+  // vectored read properties
+  public static final String DFS_CLIENT_VECTORED_READ_THREADPOOL_SIZE =
+      "dfs.client.vectored-read.threadpool.size";
+  public static final int DFS_CLIENT_VECTORED_READ_THREADPOOL_SIZE_DEFAULT = 8;
+  public static final String DFS_CLIENT_VECTORED_READ_MIN_SEEK_SIZE =
+      "dfs.client.vectored-read.min-seek-size";
+  public static final int DFS_CLIENT_VECTORED_READ_MIN_SEEK_SIZE_DEFAULT =
+      64 * 1024;
+  public static final String DFS_CLIENT_VECTORED_READ_MAX_MERGED_SIZE =
+      "dfs.client.vectored-read.max-merged-size";
+  public static final int DFS_CLIENT_VECTORED_READ_MAX_MERGED_SIZE_DEFAULT =
+      4 * 1024 * 1024;
+  // block prefetch properties
+  public static final String DFS_CLIENT_BLOCK_PREFETCH_BLOCKS_KEY =
+      "dfs.client.block-prefetch.blocks";
+  public static final int DFS_CLIENT_BLOCK_PREFETCH_BLOCKS_DEFAULT = 0;
+  public static final String DFS_CLIENT_BLOCK_PREFETCH_CHUNK_SIZE_KEY =
+      "dfs.client.block-prefetch.chunk-size";
+  public static final int DFS_CLIENT_BLOCK_PREFETCH_CHUNK_SIZE_DEFAULT =
+      1024 * 1024;
+  public static final String DFS_CLIENT_BLOCK_PREFETCH_MAX_BUFFERS_KEY =
+      "dfs.client.block-prefetch.max-buffers";
+  public static final int DFS_CLIENT_BLOCK_PREFETCH_MAX_BUFFERS_DEFAULT = 16;
+  public static final String DFS_CLIENT_BLOCK_PREFETCH_THREADPOOL_SIZE_KEY =
+      "dfs.client.block-prefetch.threadpool.size";
+  public static final int DFS_CLIENT_BLOCK_PREFETCH_THREADPOOL_SIZE_DEFAULT =
+      16;
+  // write pipeline properties
+  public static final String DFS_CLIENT_WRITE_CHECKSUM_THREADPOOL_SIZE_KEY =
+      "dfs.client.write.checksum.threadpool.size";
+  public static final int DFS_CLIENT_WRITE_CHECKSUM_THREADPOOL_SIZE_DEFAULT = 0;
+  public static final String DFS_CLIENT_WRITE_REUSE_PACKET_BUFFERS_KEY =
+      "dfs.client.write.reuse-packet-buffers";
+  public static final boolean DFS_CLIENT_WRITE_REUSE_PACKET_BUFFERS_DEFAULT =
+      false;
   public static final String DFS_NFS_KEYTAB_FILE_KEY = "dfs.nfs.keytab.file";
   public static final String DFS_NFS_USER_NAME_KEY = "dfs.nfs.kerberos.principal";
 }
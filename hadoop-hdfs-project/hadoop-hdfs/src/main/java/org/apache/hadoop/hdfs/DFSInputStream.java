@@ -18,6 +18,7 @@
 package org.apache.hadoop.hdfs;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.util.AbstractMap;
@@ -27,6 +28,7 @@
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -35,6 +37,7 @@
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
@@ -44,12 +47,16 @@
 import org.apache.hadoop.fs.ByteBufferReadable;
 import org.apache.hadoop.fs.ByteBufferUtil;
 import org.apache.hadoop.fs.CanSetDropBehind;
+import org.apache.hadoop.fs.CanSetPrefetch;
 import org.apache.hadoop.fs.CanSetReadahead;
 import org.apache.hadoop.fs.ChecksumException;
+import org.apache.hadoop.fs.CombinedFileRange;
+import org.apache.hadoop.fs.FileRange;
 import org.apache.hadoop.fs.FSInputStream;
 import org.apache.hadoop.fs.HasEnhancedByteBufferAccess;
 import org.apache.hadoop.fs.ReadOption;
 import org.apache.hadoop.fs.UnresolvedLinkException;
+import org.apache.hadoop.fs.VectoredReadUtils;
 import org.apache.hadoop.hdfs.client.ClientMmap;
 import org.apache.hadoop.hdfs.protocol.ClientDatanodeProtocol;
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
@@ -78,7 +85,7 @@
 @InterfaceAudience.Private
 public class DFSInputStream extends FSInputStream
 implements ByteBufferReadable, CanSetDropBehind, CanSetReadahead,
-    HasEnhancedByteBufferAccess {
+    CanSetPrefetch, HasEnhancedByteBufferAccess {
   @VisibleForTesting
   static boolean tcpReadsDisabledForTesting = false;
   private final DFSClient dfsClient;
@@ -94,6 +101,9 @@ public class DFSInputStream extends FSInputStream
   private long blockEnd = -1;
   private CachingStrategy cachingStrategy;
   private final ReadStatistics readStatistics = new ReadStatistics();
+  /** Number of blocks to prefetch past the current one; 0 disables it. */
+  private int prefetchBlocks;
+  private BlockPrefetcher prefetcher = null;
 
   /**
    * Track the ByteBuffers that we have handed out to readers.
@@ -110,6 +120,8 @@ public ReadStatistics() {
       this.totalLocalBytesRead = 0;
       this.totalShortCircuitBytesRead = 0;
       this.totalZeroCopyBytesRead = 0;
+      this.totalPrefetchedBytesUsed = 0;
+      this.totalPrefetchedBytesWasted = 0;
     }
 
     public ReadStatistics(ReadStatistics rhs) {
@@ -117,6 +129,8 @@ public ReadStatistics(ReadStatistics rhs) {
       this.totalLocalBytesRead = rhs.getTotalLocalBytesRead();
       this.totalShortCircuitBytesRead = rhs.getTotalShortCircuitBytesRead();
       this.totalZeroCopyBytesRead = rhs.getTotalZeroCopyBytesRead();
+      this.totalPrefetchedBytesUsed = rhs.getTotalPrefetchedBytesUsed();
+      this.totalPrefetchedBytesWasted = rhs.getTotalPrefetchedBytesWasted();
     }
 
     /**
@@ -150,6 +164,21 @@ public long getTotalZeroCopyBytesRead() {
       return totalZeroCopyBytesRead;
     }
 
+    /**
+     * @return The total number of bytes read which had been prefetched.
+     */
+    public long getTotalPrefetchedBytesUsed() {
+      return totalPrefetchedBytesUsed;
+    }
+
+    /**
+     * @return The total number of prefetched bytes which were discarded
+     * without being read, e.g. because the stream seeked elsewhere.
+     */
+    public long getTotalPrefetchedBytesWasted() {
+      return totalPrefetchedBytesWasted;
+    }
+
     /**
      * @return The total number of bytes read which were not local.
      */
@@ -178,6 +207,15 @@ void addZeroCopyBytes(long amt) {
       this.totalShortCircuitBytesRead += amt;
       this.totalZeroCopyBytesRead += amt;
     }
+
+    void addPrefetchedBytes(long amt) {
+      this.totalBytesRead += amt;
+      this.totalPrefetchedBytesUsed += amt;
+    }
+
+    void addPrefetchedBytesWasted(long amt) {
+      this.totalPrefetchedBytesWasted += amt;
+    }
     
     private long totalBytesRead;
 
@@ -186,6 +224,10 @@ void addZeroCopyBytes(long amt) {
     private long totalShortCircuitBytesRead;
 
     private long totalZeroCopyBytesRead;
+
+    private long totalPrefetchedBytesUsed;
+
+    private long totalPrefetchedBytesWasted;
   }
   
   /**
@@ -215,20 +257,37 @@ void addToDeadNodes(DatanodeInfo dnInfo) {
   
   DFSInputStream(DFSClient dfsClient, String src, int buffersize, boolean verifyChecksum
                  ) throws IOException, UnresolvedLinkException {
+    this(dfsClient, src, buffersize, verifyChecksum,
+        dfsClient.getLocatedBlocks(src, 0));
+  }
+
+  /**
+   * Open the file with the block locations the client has already fetched.
+   */
+  DFSInputStream(DFSClient dfsClient, String src, int buffersize,
+      boolean verifyChecksum, LocatedBlocks locatedBlocks)
+      throws IOException, UnresolvedLinkException {
     this.dfsClient = dfsClient;
     this.verifyChecksum = verifyChecksum;
     this.buffersize = buffersize;
     this.src = src;
     this.cachingStrategy =
         dfsClient.getDefaultReadCachingStrategy();
-    openInfo();
+    this.prefetchBlocks = dfsClient.getConf().blockPrefetchBlocks;
+    openInfo(locatedBlocks);
   }
 
   /**
    * Grab the open-file info from namenode
    */
   synchronized void openInfo() throws IOException, UnresolvedLinkException {
-    lastBlockBeingWrittenLength = fetchLocatedBlocksAndGetLastBlockLength();
+    openInfo(dfsClient.getLocatedBlocks(src, 0));
+  }
+
+  private synchronized void openInfo(LocatedBlocks newInfo)
+      throws IOException, UnresolvedLinkException {
+    lastBlockBeingWrittenLength =
+        fetchLocatedBlocksAndGetLastBlockLength(newInfo);
     int retriesForLastBlockLength = dfsClient.getConf().retryTimesForGetLastBlockLength;
     while (retriesForLastBlockLength > 0) {
       // Getting last block length as -1 is a special case. When cluster
@@ -240,7 +299,8 @@ synchronized void openInfo() throws IOException, UnresolvedLinkException {
             + "Datanodes might not have reported blocks completely."
             + " Will retry for " + retriesForLastBlockLength + " times");
         waitFor(dfsClient.getConf().retryIntervalForGetLastBlockLength);
-        lastBlockBeingWrittenLength = fetchLocatedBlocksAndGetLastBlockLength();
+        lastBlockBeingWrittenLength = fetchLocatedBlocksAndGetLastBlockLength(
+            dfsClient.getLocatedBlocks(src, 0));
       } else {
         break;
       }
@@ -260,8 +320,8 @@ private void waitFor(int waitTime) throws IOException {
     }
   }
 
-  private long fetchLocatedBlocksAndGetLastBlockLength() throws IOException {
-    final LocatedBlocks newInfo = dfsClient.getLocatedBlocks(src, 0);
+  private long fetchLocatedBlocksAndGetLastBlockLength(
+      final LocatedBlocks newInfo) throws IOException {
     if (DFSClient.LOG.isDebugEnabled()) {
       DFSClient.LOG.debug("newInfo = " + newInfo);
     }
@@ -636,6 +696,10 @@ public void accept(ByteBuffer k, Object v) {
       blockReader.close();
       blockReader = null;
     }
+    if (prefetcher != null) {
+      prefetcher.discard();
+      prefetcher = null;
+    }
     super.close();
     closed = true;
   }
@@ -653,6 +717,9 @@ public synchronized int read() throws IOException {
   private interface ReaderStrategy {
     public int doRead(BlockReader blockReader, int off, int len,
         ReadStatistics readStatistics) throws ChecksumException, IOException;
+
+    /** Copy up to len bytes out of a buffer of prefetched data. */
+    public int copyFrom(ByteBuffer src, int off, int len);
   }
 
   private static void updateReadStatistics(ReadStatistics readStatistics, 
@@ -684,6 +751,13 @@ public int doRead(BlockReader blockReader, int off, int len,
         updateReadStatistics(readStatistics, nRead, blockReader);
         return nRead;
     }
+
+    @Override
+    public int copyFrom(ByteBuffer src, int off, int len) {
+      int n = Math.min(len, src.remaining());
+      src.get(buf, off, n);
+      return n;
+    }
   }
 
   /**
@@ -714,6 +788,15 @@ public int doRead(BlockReader blockReader, int off, int len,
         }
       } 
     }
+
+    @Override
+    public int copyFrom(ByteBuffer src, int off, int len) {
+      int n = Math.min(Math.min(len, src.remaining()), buf.remaining());
+      ByteBuffer slice = src.duplicate();
+      slice.limit(slice.position() + n);
+      buf.put(slice);
+      return n;
+    }
   }
 
   /* This is a used by regular read() and handles ChecksumExceptions.
@@ -781,6 +864,12 @@ private int readWithStrategy(ReaderStrategy strategy, int off, int len) throws I
       = new HashMap<ExtendedBlock, Set<DatanodeInfo>>();
     failures = 0;
     if (pos < getFileLength()) {
+      if (prefetchBlocks > 0) {
+        int result = readPrefetched(strategy, off, len);
+        if (result > 0) {
+          return result;
+        }
+      }
       int retries = 2;
       while (retries > 0) {
         try {
@@ -804,6 +893,9 @@ private int readWithStrategy(ReaderStrategy strategy, int off, int len) throws I
           if (dfsClient.stats != null && result != -1) {
             dfsClient.stats.incrementBytesRead(result);
           }
+          if (prefetcher != null) {
+            prefetcher.setExpectedPos(pos);
+          }
           return result;
         } catch (ChecksumException ce) {
           throw ce;            
@@ -827,6 +919,271 @@ private int readWithStrategy(ReaderStrategy strategy, int off, int len) throws I
     return -1;
   }
 
+  /**
+   * Serve a read from the data prefetched ahead of pos, starting to
+   * prefetch if this read continues the previous one.
+   *
+   * @return the number of bytes read, or -1 if pos has to be read with a
+   *         block reader.
+   */
+  private synchronized int readPrefetched(ReaderStrategy strategy, int off,
+      int len) throws IOException {
+    if (prefetcher == null) {
+      prefetcher = new BlockPrefetcher(pos);
+    }
+    ByteBuffer data = prefetcher.get(pos);
+    if (data == null) {
+      return -1;
+    }
+    // The block reader, if any, is now behind pos.
+    closeCurrentBlockReader();
+    blockEnd = -1;
+    int result = strategy.copyFrom(data, off, len);
+    pos += result;
+    prefetcher.consumed(pos, result);
+    readStatistics.addPrefetchedBytes(result);
+    if (dfsClient.stats != null) {
+      dfsClient.stats.incrementBytesRead(result);
+    }
+    return result;
+  }
+
+  /** A piece of a block being fetched ahead of the reader. */
+  private static class PrefetchChunk {
+    final long offset;
+    final int length;
+    final byte[] buf;
+    Future<Void> future;
+    /** Bytes of this chunk which have been read from the stream. */
+    int used = 0;
+    boolean failed = false;
+
+    PrefetchChunk(long offset, int length, byte[] buf) {
+      this.offset = offset;
+      this.length = length;
+      this.buf = buf;
+    }
+
+    long end() {
+      return offset + length;
+    }
+  }
+
+  /**
+   * Fetches the data a sequential reader is about to read: the rest of the
+   * current block and the next {@link #prefetchBlocks} blocks. The data is
+   * fetched in chunks, in parallel, on the client's block prefetch pool,
+   * so the following blocks are read from their DataNodes while the
+   * current one is consumed. At most max-buffers chunks are held at once.
+   *
+   * Only used with the stream lock held. The chunks are fetched without
+   * it, see {@link DFSInputStream#fetchPrefetchChunk}.
+   */
+  private class BlockPrefetcher {
+    private final int chunkSize = dfsClient.getConf().blockPrefetchChunkSize;
+    private final int maxBuffers =
+        dfsClient.getConf().blockPrefetchMaxBuffers;
+    /** Chunks in file order. The first one holds pos, or follows it. */
+    private final LinkedList<PrefetchChunk> chunks =
+        new LinkedList<PrefetchChunk>();
+    private final LinkedList<byte[]> freeBuffers = new LinkedList<byte[]>();
+    /** Where the next read starts if the stream is read sequentially. */
+    private long expectedPos;
+
+    BlockPrefetcher(long pos) {
+      this.expectedPos = pos;
+    }
+
+    void setExpectedPos(long pos) {
+      this.expectedPos = pos;
+    }
+
+    /**
+     * @return the prefetched data starting at pos, or null if there is none.
+     */
+    ByteBuffer get(long pos) throws IOException {
+      while (!chunks.isEmpty() && chunks.getFirst().end() <= pos) {
+        drop(chunks.removeFirst());
+      }
+      if (!chunks.isEmpty() && chunks.getFirst().offset > pos) {
+        discard();
+      }
+      if (chunks.isEmpty()) {
+        if (pos != expectedPos) {
+          // A random read. Prefetch again once reads are sequential.
+          return null;
+        }
+        fill(pos);
+        if (chunks.isEmpty()) {
+          return null;
+        }
+      } else {
+        fill(chunks.getLast().end());
+      }
+      PrefetchChunk chunk = chunks.getFirst();
+      try {
+        chunk.future.get();
+      } catch (InterruptedException e) {
+        discard();
+        throw new InterruptedIOException("Interrupted while waiting for " +
+            "data prefetched from " + src);
+      } catch (ExecutionException e) {
+        if (DFSClient.LOG.isDebugEnabled()) {
+          DFSClient.LOG.debug("Failed to prefetch " + src + " at offset " +
+              chunk.offset + ", reading it directly", e.getCause());
+        }
+        chunk.failed = true;
+        discard();
+        return null;
+      }
+      return ByteBuffer.wrap(chunk.buf, (int) (pos - chunk.offset),
+          (int) (chunk.end() - pos));
+    }
+
+    /** Record that the stream has read n prefetched bytes, up to pos. */
+    void consumed(long pos, int n) throws IOException {
+      PrefetchChunk chunk = chunks.getFirst();
+      chunk.used += n;
+      expectedPos = pos;
+      if (pos >= chunk.end()) {
+        drop(chunks.removeFirst());
+        // Continue after the chunks which are already being fetched.
+        fill(chunks.isEmpty() ? pos : chunks.getLast().end());
+      }
+    }
+
+    /** Drop all the prefetched data. */
+    void discard() {
+      for (PrefetchChunk chunk : chunks) {
+        drop(chunk);
+      }
+      chunks.clear();
+    }
+
+    private void drop(PrefetchChunk chunk) {
+      if (!chunk.failed && chunk.used < chunk.length) {
+        readStatistics.addPrefetchedBytesWasted(chunk.length - chunk.used);
+      }
+      if (chunk.future.isDone()) {
+        if (freeBuffers.size() < maxBuffers) {
+          freeBuffers.add(chunk.buf);
+        }
+      } else {
+        // Still being written to; leave the buffer to the fetch.
+        chunk.future.cancel(false);
+      }
+    }
+
+    /** Start fetching chunks from the given offset until the window is full. */
+    private void fill(long next) throws IOException {
+      if (next >= locatedBlocks.getFileLength()) {
+        return; // only complete blocks are prefetched
+      }
+      long limit = Math.min(windowEnd(), locatedBlocks.getFileLength());
+      while (chunks.size() < maxBuffers && next < limit) {
+        LocatedBlock block = getBlockAt(next, false);
+        long end = Math.min(limit,
+            block.getStartOffset() + block.getBlockSize());
+        int len = (int) Math.min(chunkSize, end - next);
+        if (len <= 0) {
+          break;
+        }
+        chunks.add(submit(block, next, len));
+        next += len;
+      }
+    }
+
+    /** @return the end of the last block to prefetch. */
+    private long windowEnd() throws IOException {
+      LocatedBlock block = getBlockAt(expectedPos, false);
+      long end = block.getStartOffset() + block.getBlockSize();
+      for (int i = 0; i < prefetchBlocks &&
+          end < locatedBlocks.getFileLength(); i++) {
+        block = getBlockAt(end, false);
+        end = block.getStartOffset() + block.getBlockSize();
+      }
+      return end;
+    }
+
+    private PrefetchChunk submit(final LocatedBlock block, long offset,
+        int len) {
+      byte[] buf = freeBuffers.poll();
+      final PrefetchChunk chunk = new PrefetchChunk(offset, len,
+          buf != null ? buf : new byte[chunkSize]);
+      final CachingStrategy curCachingStrategy = cachingStrategy;
+      final boolean allowShortCircuitLocalReads = !shortCircuitForbidden();
+      chunk.future = dfsClient.getBlockPrefetchThreadPool().submit(
+          new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+              fetchPrefetchChunk(block,
+                  chunk.offset - block.getStartOffset(), chunk.buf,
+                  chunk.length, curCachingStrategy,
+                  allowShortCircuitLocalReads);
+              return null;
+            }
+          });
+      return chunk;
+    }
+  }
+
+  /**
+   * Read len bytes of a block into buf for the prefetcher, trying each
+   * replica which is not known to be dead. This does not take the stream
+   * lock, which the reader may hold while it waits for the data; failures
+   * are left to the regular read path, which retries and reports them.
+   */
+  private void fetchPrefetchChunk(LocatedBlock block, long start,
+      byte[] buf, int len, CachingStrategy curCachingStrategy,
+      boolean allowShortCircuitLocalReads) throws IOException {
+    IOException lastException = null;
+    for (DatanodeInfo chosenNode : block.getLocations()) {
+      if (deadNodes.containsKey(chosenNode)) {
+        continue;
+      }
+      InetSocketAddress targetAddr = NetUtils.createSocketAddr(
+          chosenNode.getXferAddr(dfsClient.getConf().connectToDnViaHostname));
+      BlockReader reader = null;
+      try {
+        reader = new BlockReaderFactory(dfsClient.getConf()).
+            setInetSocketAddress(targetAddr).
+            setRemotePeerFactory(dfsClient).
+            setDatanodeInfo(chosenNode).
+            setFileName(src).
+            setBlock(block.getBlock()).
+            setBlockToken(block.getBlockToken()).
+            setStartOffset(start).
+            setVerifyChecksum(verifyChecksum).
+            setClientName(dfsClient.clientName).
+            setLength(len).
+            setCachingStrategy(curCachingStrategy).
+            setAllowShortCircuitLocalReads(allowShortCircuitLocalReads).
+            setClientCacheContext(dfsClient.getClientContext()).
+            setUserGroupInformation(dfsClient.ugi).
+            setConfiguration(dfsClient.getConfiguration()).
+            build();
+        int nread = reader.readAll(buf, 0, len);
+        if (nread != len) {
+          throw new IOException("truncated return from reader.read(): " +
+                                "excpected " + len + ", got " + nread);
+        }
+        return;
+      } catch (IOException e) {
+        if (DFSClient.LOG.isDebugEnabled()) {
+          DFSClient.LOG.debug("Failed to prefetch " + block.getBlock() +
+              " from " + targetAddr, e);
+        }
+        lastException = e;
+      } finally {
+        if (reader != null) {
+          reader.close();
+        }
+      }
+    }
+    throw lastException != null ? lastException :
+        new IOException("No live nodes contain " + block.getBlock());
+  }
+
   /**
    * Read the entire buffer.
    */
@@ -1316,6 +1673,63 @@ public int read(long position, byte[] buffer, int offset, int length)
     }
     return realLen;
   }
+
+  /**
+   * Read the given ranges with positioned reads. Ranges that lie in the
+   * same block and are close to each other are merged, so that they cost
+   * a single BlockReader, and the merged ranges are read in parallel on
+   * the client's vectored read pool. A range that spans blocks is read on
+   * its own, as a regular positioned read would.
+   */
+  @Override
+  public void readVectored(List<? extends FileRange> ranges)
+      throws IOException {
+    dfsClient.checkOpen();
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    final DFSClient.Conf conf = dfsClient.getConf();
+    final long filelen = getFileLength();
+
+    List<CombinedFileRange> reads = new ArrayList<CombinedFileRange>();
+    List<FileRange> sameBlock = new ArrayList<FileRange>();
+    long sameBlockStart = -1;
+    for (FileRange range : VectoredReadUtils.sortRanges(ranges)) {
+      if (range.getOffset() + range.getLength() > filelen) {
+        VectoredReadUtils.failRange(range,
+            VectoredReadUtils.pastEndOfFile(range, filelen));
+        continue;
+      }
+      List<LocatedBlock> blocks = range.getLength() == 0 ? null :
+          getBlockRange(range.getOffset(), range.getLength());
+      long blockStart = (blocks != null && blocks.size() == 1) ?
+          blocks.get(0).getStartOffset() : -1;
+      if (blockStart < 0 || blockStart != sameBlockStart) {
+        reads.addAll(VectoredReadUtils.mergeSortedRanges(sameBlock,
+            conf.vectoredReadMinSeekSize, conf.vectoredReadMaxMergedSize));
+        sameBlock.clear();
+      }
+      sameBlock.add(range);
+      sameBlockStart = blockStart;
+    }
+    reads.addAll(VectoredReadUtils.mergeSortedRanges(sameBlock,
+        conf.vectoredReadMinSeekSize, conf.vectoredReadMaxMergedSize));
+
+    Executor pool = dfsClient.getVectoredReadsThreadPool();
+    for (final CombinedFileRange read : reads) {
+      Runnable task = new Runnable() {
+        @Override
+        public void run() {
+          VectoredReadUtils.readCombinedRange(DFSInputStream.this, read);
+        }
+      };
+      if (pool == null || reads.size() == 1) {
+        task.run();
+      } else {
+        pool.execute(task);
+      }
+    }
+  }
   
   /**
    * DFSInputStream reports checksum failure.
@@ -1544,6 +1958,16 @@ public synchronized void setReadahead(Long readahead)
     closeCurrentBlockReader();
   }
 
+  @Override
+  public synchronized void setPrefetch(Integer blocks) throws IOException {
+    this.prefetchBlocks = (blocks == null) ?
+        dfsClient.getConf().blockPrefetchBlocks : Math.max(0, blocks);
+    if (prefetcher != null) {
+      prefetcher.discard();
+      prefetcher = null;
+    }
+  }
+
   @Override
   public synchronized void setDropBehind(Boolean dropBehind)
       throws IOException {
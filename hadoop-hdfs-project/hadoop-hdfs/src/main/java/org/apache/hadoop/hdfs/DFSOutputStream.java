@@ -31,12 +31,16 @@
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
@@ -153,6 +157,12 @@ public class DFSOutputStream extends FSOutputSummer
   private boolean shouldSyncBlock = false; // force blocks to disk upon close
   private AtomicReference<CachingStrategy> cachingStrategy;
   private boolean failPacket = false;
+  /** Computes packet checksums off the writer thread; null if disabled. */
+  private final ThreadPoolExecutor checksumPool;
+  /** Buffers of acked packets, ready for reuse; null if disabled. */
+  private final LinkedList<byte[]> packetBuffers;
+  /** Length of the buffers kept in packetBuffers. */
+  private final int packetBufferLength;
   
   private static class Packet {
     private static final long HEART_BEAT_SEQNO = -1L;
@@ -182,6 +192,8 @@ private static class Packet {
     int checksumPos;
     final int dataStart;
     int dataPos;
+    /** Set when the checksums are being computed by the checksum pool. */
+    Future<?> checksumFuture = null;
 
     /**
      * Create a heartbeat packet.
@@ -200,12 +212,22 @@ private static class Packet {
      */
     Packet(int pktSize, int chunksPerPkt, long offsetInBlock, 
                               long seqno, int checksumSize) {
+      this(new byte[PacketHeader.PKT_MAX_HEADER_LEN + pktSize], chunksPerPkt,
+          offsetInBlock, seqno, checksumSize);
+    }
+
+    /**
+     * Create a new packet in the given buffer, which must hold at least
+     * PKT_MAX_HEADER_LEN plus the packet size.
+     */
+    Packet(byte[] buf, int chunksPerPkt, long offsetInBlock,
+                              long seqno, int checksumSize) {
       this.lastPacketInBlock = false;
       this.numChunks = 0;
       this.offsetInBlock = offsetInBlock;
       this.seqno = seqno;
       
-      buf = new byte[PacketHeader.PKT_MAX_HEADER_LEN + pktSize];
+      this.buf = buf;
       
       checksumStart = PacketHeader.PKT_MAX_HEADER_LEN;
       checksumPos = checksumStart;
@@ -230,6 +252,32 @@ void writeChecksum(byte[] inarray, int off, int len) {
       checksumPos += len;
     }
     
+    /**
+     * Compute the checksums of the chunks written to this packet. The
+     * checksum bytes given to writeChecksum are overwritten.
+     */
+    void computeChecksums(DataChecksum sum) {
+      sum.calculateChunkedSums(
+          ByteBuffer.wrap(buf, dataStart, dataPos - dataStart),
+          ByteBuffer.wrap(buf, checksumStart, checksumPos - checksumStart));
+    }
+
+    /** Wait until the checksum pool is done with this packet, if needed. */
+    void waitForChecksums() throws IOException {
+      if (checksumFuture == null) {
+        return;
+      }
+      try {
+        checksumFuture.get();
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException("Interrupted while computing " +
+            "checksums of " + this);
+      } catch (ExecutionException e) {
+        throw new IOException("Failed to compute checksums of " + this,
+            e.getCause());
+      }
+    }
+
     /**
      * Write the full packet, including the header, to the given output stream.
      */
@@ -553,6 +601,8 @@ public void run() {
             stage = BlockConstructionStage.PIPELINE_CLOSE;
           }
           
+          one.waitForChecksums();
+
           // send the packet
           synchronized (dataQueue) {
             // move packet from dataQueue to ackQueue
@@ -853,6 +903,7 @@ public void run() {
               ackQueue.removeFirst();
               dataQueue.notifyAll();
             }
+            releasePacketBuffer(one);
           } catch (Exception e) {
             if (!responderClosed) {
               if (e instanceof IOException) {
@@ -1542,9 +1593,10 @@ public synchronized DatanodeInfo[] getPipeline() {
     return value;
   }
 
-  private DFSOutputStream(DFSClient dfsClient, String src, Progressable progress,
+  DFSOutputStream(DFSClient dfsClient, String src, Progressable progress,
       HdfsFileStatus stat, DataChecksum checksum) throws IOException {
-    super(checksum, checksum.getBytesPerChecksum(), checksum.getChecksumSize());
+    super(getSummerChecksum(dfsClient, checksum),
+        checksum.getBytesPerChecksum(), checksum.getChecksumSize());
     this.dfsClient = dfsClient;
     this.src = src;
     this.fileId = stat.getFileId();
@@ -1567,6 +1619,28 @@ private DFSOutputStream(DFSClient dfsClient, String src, Progressable progress,
                             
     }
     this.checksum = checksum;
+    this.checksumPool = (checksum.getChecksumSize() == 0) ?
+        null : dfsClient.getWriteChecksumThreadPool();
+    this.packetBuffers = dfsClient.getConf().writeReusePacketBuffers ?
+        new LinkedList<byte[]>() : null;
+    int chunkSize = bytesPerChecksum + checksum.getChecksumSize();
+    this.packetBufferLength = PacketHeader.PKT_MAX_HEADER_LEN + chunkSize *
+        Math.max(dfsClient.getConf().writePacketSize / chunkSize, 1);
+  }
+
+  /**
+   * @return the checksum FSOutputSummer updates as data is written. When
+   * the client has a checksum pool, the checksums are computed per packet
+   * by the pool instead, so the summer gets a checksum that does nothing.
+   */
+  private static DataChecksum getSummerChecksum(DFSClient dfsClient,
+      DataChecksum checksum) {
+    if (checksum.getChecksumSize() == 0 ||
+        dfsClient.getWriteChecksumThreadPool() == null) {
+      return checksum;
+    }
+    return DataChecksum.newDataChecksum(DataChecksum.Type.NULL,
+        checksum.getBytesPerChecksum());
   }
 
   /** Construct a new output stream for creating a file. */
@@ -1605,6 +1679,10 @@ static DFSOutputStream newStreamForCreate(DFSClient dfsClient, String src,
                                      UnresolvedPathException.class,
                                      SnapshotAccessControlException.class);
     }
+    if (stat.getErasureCodingPolicy() != null) {
+      return new DFSStripedOutputStream(dfsClient, src, stat, flag, progress,
+          checksum);
+    }
     final DFSOutputStream out = new DFSOutputStream(dfsClient, src, stat,
         flag, progress, checksum, favoredNodes);
     out.start();
@@ -1659,7 +1737,61 @@ private void computePacketChunkSize(int psize, int csize) {
     }
   }
 
+  /**
+   * Create a data packet, in a reused buffer if there is one.
+   */
+  private Packet createPacket(int pktSize, int chunksPerPkt,
+      long offsetInBlock, long seqno) {
+    int length = PacketHeader.PKT_MAX_HEADER_LEN + pktSize;
+    if (packetBuffers == null || length > packetBufferLength) {
+      return new Packet(pktSize, chunksPerPkt, offsetInBlock, seqno,
+          checksum.getChecksumSize());
+    }
+    byte[] buf;
+    synchronized (packetBuffers) {
+      buf = packetBuffers.poll();
+    }
+    if (buf == null) {
+      buf = new byte[packetBufferLength];
+    }
+    return new Packet(buf, chunksPerPkt, offsetInBlock, seqno,
+        checksum.getChecksumSize());
+  }
+
+  /** Called once a packet is acked by the whole pipeline. */
+  private void releasePacketBuffer(Packet packet) {
+    if (packetBuffers == null || packet.buf.length != packetBufferLength) {
+      return;
+    }
+    synchronized (packetBuffers) {
+      if (packetBuffers.size() < MAX_PACKETS) {
+        packetBuffers.add(packet.buf);
+      }
+    }
+  }
+
+  /**
+   * Hand the checksums of the current packet to the checksum pool, if the
+   * client has one. The streamer waits for them before sending the packet.
+   */
+  private void computeChecksumsOfCurrentPacket() {
+    final Packet packet = currentPacket;
+    if (checksumPool == null || packet == null ||
+        packet.checksumFuture != null || packet.dataPos == packet.dataStart) {
+      return;
+    }
+    final DataChecksum sum = DataChecksum.newDataChecksum(
+        checksum.getChecksumType(), checksum.getBytesPerChecksum());
+    packet.checksumFuture = checksumPool.submit(new Runnable() {
+      @Override
+      public void run() {
+        packet.computeChecksums(sum);
+      }
+    });
+  }
+
   private void queueCurrentPacket() {
+    computeChecksumsOfCurrentPacket();
     synchronized (dataQueue) {
       if (currentPacket == null) return;
       dataQueue.addLast(currentPacket);
@@ -1673,6 +1805,7 @@ private void queueCurrentPacket() {
   }
 
   private void waitAndQueueCurrentPacket() throws IOException {
+    computeChecksumsOfCurrentPacket();
     synchronized (dataQueue) {
       try {
       // If queue is full, then wait till we have enough space
@@ -1719,8 +1852,8 @@ protected synchronized void writeChunk(byte[] b, int offset, int len, byte[] che
     }
 
     if (currentPacket == null) {
-      currentPacket = new Packet(packetSize, chunksPerPacket, 
-          bytesCurBlock, currentSeqno++, this.checksum.getChecksumSize());
+      currentPacket = createPacket(packetSize, chunksPerPacket, 
+          bytesCurBlock, currentSeqno++);
       if (DFSClient.LOG.isDebugEnabled()) {
         DFSClient.LOG.debug("DFSClient writeChunk allocating new packet seqno=" + 
             currentPacket.seqno +
@@ -1862,8 +1995,8 @@ private void flushOrSync(boolean isSync, EnumSet<SyncFlag> syncFlags)
             // Nothing to send right now,
             // but sync was requested.
             // Send an empty packet
-            currentPacket = new Packet(packetSize, chunksPerPacket,
-                bytesCurBlock, currentSeqno++, this.checksum.getChecksumSize());
+            currentPacket = createPacket(packetSize, chunksPerPacket,
+                bytesCurBlock, currentSeqno++);
           }
         } else {
           // We already flushed up to this offset.
@@ -1879,8 +2012,8 @@ private void flushOrSync(boolean isSync, EnumSet<SyncFlag> syncFlags)
             // and the block was partially written,
             // and sync was requested.
             // So send an empty sync packet.
-            currentPacket = new Packet(packetSize, chunksPerPacket,
-                bytesCurBlock, currentSeqno++, this.checksum.getChecksumSize());
+            currentPacket = createPacket(packetSize, chunksPerPacket,
+                bytesCurBlock, currentSeqno++);
           } else {
             // just discard the current packet since it is already been sent.
             currentPacket = null;
@@ -2097,7 +2230,7 @@ public synchronized void close() throws IOException {
 
   // should be called holding (this) lock since setTestFilename() may 
   // be called during unit tests
-  private void completeFile(ExtendedBlock last) throws IOException {
+  void completeFile(ExtendedBlock last) throws IOException {
     long localstart = Time.now();
     long localTimeout = 400;
     boolean fileComplete = false;
@@ -0,0 +1,583 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.fs.ByteBufferUtil;
+import org.apache.hadoop.fs.ChecksumException;
+import org.apache.hadoop.fs.FileRange;
+import org.apache.hadoop.fs.ReadOption;
+import org.apache.hadoop.fs.UnresolvedLinkException;
+import org.apache.hadoop.fs.VectoredReadUtils;
+import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+import org.apache.hadoop.hdfs.protocol.ErasureCodingPolicy;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
+import org.apache.hadoop.hdfs.server.datanode.CachingStrategy;
+import org.apache.hadoop.hdfs.util.StripedBlockUtil;
+import org.apache.hadoop.io.ByteBufferPool;
+import org.apache.hadoop.io.erasurecode.RSRawDecoder;
+import org.apache.hadoop.net.NetUtils;
+import org.apache.hadoop.util.IdentityHashStore;
+
+/**
+ * DFSStripedInputStream reads a file with an {@link ErasureCodingPolicy}.
+ *
+ * The NameNode lists the internal blocks of every block group of the file,
+ * numUnits at a time, each with the start offset of its group. A read is
+ * cut at cell boundaries and every cell is read from the internal block of
+ * its data unit: stateful reads keep a BlockReader per internal block of
+ * the current group, positioned reads use a BlockReader per cell. When an
+ * internal block cannot be read, the cell is decoded from numDataUnits
+ * other cells of its stripe instead, and the rest of the group is read the
+ * same way.
+ */
+@InterfaceAudience.Private
+public class DFSStripedInputStream extends DFSInputStream {
+  /** A block group: the internal blocks holding a range of the file. */
+  private static class BlockGroup {
+    private final long start;
+    private final long length;
+    private final LocatedBlock[] units;
+
+    BlockGroup(long start, long length, LocatedBlock[] units) {
+      this.start = start;
+      this.length = length;
+      this.units = units;
+    }
+  }
+
+  private final DFSClient dfsClient;
+  private final String src;
+  private final boolean verifyChecksum;
+  private final boolean underConstruction;
+  private final ErasureCodingPolicy ecPolicy;
+  private final int numDataUnits;
+  private final int numUnits;
+  private final int cellSize;
+  private final long fileLength;
+  private final RSRawDecoder decoder;
+  /** The groups located so far, by their start offset. */
+  private final TreeMap<Long, BlockGroup> groups =
+      new TreeMap<Long, BlockGroup>();
+  private final ReadStatistics readStatistics = new ReadStatistics();
+  private final IdentityHashStore<ByteBuffer, ByteBufferPool>
+      extendedReadBuffers = new IdentityHashStore<ByteBuffer, ByteBufferPool>(0);
+  private CachingStrategy cachingStrategy;
+  private boolean closed = false;
+  private long pos = 0;
+
+  /** The group of the stateful reads and its readers, one per unit. */
+  private BlockGroup currentGroup;
+  private final BlockReader[] readers;
+  private final DatanodeInfo[] readerNodes;
+  private final long[] readerOffsets;
+  private final boolean[] failedUnits;
+  /** The last cell decoded by a stateful read. */
+  private byte[] decodedCell;
+  private BlockGroup decodedGroup;
+  private long decodedStripe = -1;
+  private int decodedUnit = -1;
+
+  DFSStripedInputStream(DFSClient dfsClient, String src, int buffersize,
+      boolean verifyChecksum, LocatedBlocks locatedBlocks)
+      throws IOException, UnresolvedLinkException {
+    super(dfsClient, src, buffersize, verifyChecksum, locatedBlocks);
+    this.dfsClient = dfsClient;
+    this.src = src;
+    this.verifyChecksum = verifyChecksum;
+    this.underConstruction = locatedBlocks.isUnderConstruction();
+    this.ecPolicy = locatedBlocks.getErasureCodingPolicy();
+    this.numDataUnits = ecPolicy.getNumDataUnits();
+    this.numUnits = ecPolicy.getNumUnits();
+    this.cellSize = ecPolicy.getCellSize();
+    this.fileLength = locatedBlocks.getFileLength();
+    this.decoder = new RSRawDecoder(numDataUnits,
+        ecPolicy.getNumParityUnits());
+    this.cachingStrategy = dfsClient.getDefaultReadCachingStrategy();
+    this.readers = new BlockReader[numUnits];
+    this.readerNodes = new DatanodeInfo[numUnits];
+    this.readerOffsets = new long[numUnits];
+    this.failedUnits = new boolean[numUnits];
+    addGroups(locatedBlocks);
+  }
+
+  private void addGroups(LocatedBlocks blocks) throws IOException {
+    final List<LocatedBlock> list = blocks.getLocatedBlocks();
+    if (list.size() % numUnits != 0) {
+      throw new IOException("The block list of " + src + " has "
+          + list.size() + " internal blocks, not whole groups of "
+          + numUnits);
+    }
+    for (int first = 0; first < list.size(); first += numUnits) {
+      final LocatedBlock[] units = list.subList(first, first + numUnits)
+          .toArray(new LocatedBlock[numUnits]);
+      long length = 0;
+      for (int unit = 0; unit < numDataUnits; unit++) {
+        length += units[unit].getBlockSize();
+      }
+      final long start = units[0].getStartOffset();
+      groups.put(start, new BlockGroup(start, length, units));
+    }
+  }
+
+  /** @return the group holding the given offset, located if needed */
+  private synchronized BlockGroup getGroup(long offset) throws IOException {
+    Map.Entry<Long, BlockGroup> e = groups.floorEntry(offset);
+    if (e == null || offset >= e.getKey() + e.getValue().length) {
+      addGroups(dfsClient.getLocatedBlocks(src, offset,
+          dfsClient.getConf().prefetchSize));
+      e = groups.floorEntry(offset);
+      if (e == null || offset >= e.getKey() + e.getValue().length) {
+        throw new IOException("Could not locate the block group of " + src
+            + " at offset " + offset);
+      }
+    }
+    return e.getValue();
+  }
+
+  @Override
+  public synchronized long getFileLength() {
+    return fileLength;
+  }
+
+  @Override
+  public synchronized List<LocatedBlock> getAllBlocks() throws IOException {
+    final List<LocatedBlock> blocks = new ArrayList<LocatedBlock>();
+    for (long offset = 0; offset < fileLength; ) {
+      final BlockGroup group = getGroup(offset);
+      blocks.addAll(Arrays.asList(group.units));
+      offset = group.start + group.length;
+    }
+    return blocks;
+  }
+
+  @Override
+  public synchronized int read(final byte buf[], int off, int len)
+      throws IOException {
+    dfsClient.checkOpen();
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    if (len == 0) {
+      return 0;
+    }
+    if (pos >= fileLength) {
+      return -1;
+    }
+    final int realLen = (int) Math.min(len, fileLength - pos);
+    int done = 0;
+    while (done < realLen) {
+      done += readCellStateful(buf, off + done, realLen - done);
+    }
+    if (dfsClient.stats != null) {
+      dfsClient.stats.incrementBytesRead(realLen);
+    }
+    return realLen;
+  }
+
+  /** Read from the cell at pos, up to its end. */
+  private int readCellStateful(byte[] buf, int off, int len)
+      throws IOException {
+    final BlockGroup group = getGroup(pos);
+    if (group != currentGroup) {
+      closeReaders();
+      currentGroup = group;
+      Arrays.fill(failedUnits, false);
+    }
+    final long inGroup = pos - group.start;
+    final int n = (int) Math.min(len, Math.min(
+        cellSize - inGroup % cellSize, group.length - inGroup));
+    final int unit = StripedBlockUtil.getUnit(inGroup, ecPolicy);
+    if (!failedUnits[unit]) {
+      try {
+        readFromUnitReader(unit,
+            StripedBlockUtil.getOffsetInUnit(inGroup, ecPolicy), buf, off, n);
+        pos += n;
+        return n;
+      } catch (IOException e) {
+        DFSClient.LOG.warn("Failed to read internal block "
+            + group.units[unit].getBlock() + " of " + src
+            + ", decoding it from the rest of its group", e);
+        failedUnits[unit] = true;
+        closeReader(unit);
+      }
+    }
+    final long stripe = StripedBlockUtil.getStripe(inGroup, ecPolicy);
+    if (decodedGroup != group || decodedStripe != stripe
+        || decodedUnit != unit) {
+      decodedCell = reconstructCell(group, stripe, unit, failedUnits);
+      decodedGroup = group;
+      decodedStripe = stripe;
+      decodedUnit = unit;
+    }
+    System.arraycopy(decodedCell, (int) (inGroup % cellSize), buf, off, n);
+    pos += n;
+    return n;
+  }
+
+  private void readFromUnitReader(int unit, long offsetInUnit, byte[] buf,
+      int off, int len) throws IOException {
+    final LocatedBlock lb = currentGroup.units[unit];
+    if (readers[unit] == null || readerOffsets[unit] != offsetInUnit) {
+      closeReader(unit);
+      IOException lastException = new IOException(
+          "No location for internal block " + lb.getBlock());
+      for (DatanodeInfo node : lb.getLocations()) {
+        try {
+          readers[unit] = newBlockReader(lb, node, offsetInUnit,
+              lb.getBlockSize() - offsetInUnit);
+          readerNodes[unit] = node;
+          break;
+        } catch (IOException e) {
+          lastException = e;
+        }
+      }
+      if (readers[unit] == null) {
+        throw lastException;
+      }
+      readerOffsets[unit] = offsetInUnit;
+    }
+    final int nread;
+    try {
+      nread = readers[unit].readAll(buf, off, len);
+    } catch (ChecksumException e) {
+      dfsClient.reportChecksumFailure(src, lb.getBlock(), readerNodes[unit]);
+      throw e;
+    }
+    if (nread != len) {
+      throw new IOException("Truncated read of internal block "
+          + lb.getBlock() + ": expected " + len + ", got " + nread);
+    }
+    updateReadStatistics(readers[unit], nread);
+    readerOffsets[unit] += nread;
+  }
+
+  @Override
+  public int read(long position, byte[] buffer, int offset, int length)
+      throws IOException {
+    dfsClient.checkOpen();
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    if (position < 0 || position >= fileLength) {
+      return -1;
+    }
+    final int realLen = (int) Math.min(length, fileLength - position);
+    BlockGroup group = null;
+    boolean[] failed = null;
+    int done = 0;
+    while (done < realLen) {
+      final long cur = position + done;
+      if (group == null || cur >= group.start + group.length) {
+        group = getGroup(cur);
+        failed = new boolean[numUnits];
+      }
+      final long inGroup = cur - group.start;
+      final int n = (int) Math.min(realLen - done, Math.min(
+          cellSize - inGroup % cellSize, group.length - inGroup));
+      readCell(group, inGroup, buffer, offset + done, n, failed);
+      done += n;
+    }
+    if (dfsClient.stats != null) {
+      dfsClient.stats.incrementBytesRead(realLen);
+    }
+    return realLen;
+  }
+
+  /** Read part of one cell with its own reader, or decode the cell. */
+  private void readCell(BlockGroup group, long inGroup, byte[] buf, int off,
+      int len, boolean[] failed) throws IOException {
+    final int unit = StripedBlockUtil.getUnit(inGroup, ecPolicy);
+    if (!failed[unit]) {
+      try {
+        readFromUnit(group.units[unit],
+            StripedBlockUtil.getOffsetInUnit(inGroup, ecPolicy),
+            buf, off, len);
+        return;
+      } catch (IOException e) {
+        DFSClient.LOG.warn("Failed to read internal block "
+            + group.units[unit].getBlock() + " of " + src
+            + ", decoding it from the rest of its group", e);
+        failed[unit] = true;
+      }
+    }
+    final byte[] cell = reconstructCell(group,
+        StripedBlockUtil.getStripe(inGroup, ecPolicy), unit, failed);
+    System.arraycopy(cell, (int) (inGroup % cellSize), buf, off, len);
+  }
+
+  /**
+   * Decode the cell of a unit in a stripe from numDataUnits other cells of
+   * the stripe. Cells shorter than the parity cells are zero-padded, as
+   * they were when the parity was encoded.
+   */
+  private byte[] reconstructCell(BlockGroup group, long stripe, int unit,
+      boolean[] failed) throws IOException {
+    final int parityLength = StripedBlockUtil.getCellLength(group.length,
+        ecPolicy, stripe, 0);
+    final byte[][] inputs = new byte[numUnits][];
+    int numInputs = 0;
+    for (int u = 0; u < numUnits && numInputs < numDataUnits; u++) {
+      if (u == unit || failed[u]) {
+        continue;
+      }
+      final byte[] cell = new byte[parityLength];
+      try {
+        readFromUnit(group.units[u], stripe * cellSize, cell, 0,
+            StripedBlockUtil.getCellLength(group.length, ecPolicy, stripe, u));
+      } catch (IOException e) {
+        DFSClient.LOG.warn("Failed to read internal block "
+            + group.units[u].getBlock() + " of " + src, e);
+        failed[u] = true;
+        continue;
+      }
+      inputs[u] = cell;
+      numInputs++;
+    }
+    if (numInputs < numDataUnits) {
+      final long offset = group.start + stripe * cellSize * numDataUnits;
+      throw new BlockMissingException(src, "Could not read " + numDataUnits
+          + " internal blocks of the block group " + group.units[0].getBlock()
+          + " of " + src + " to decode offset " + offset, offset);
+    }
+    final byte[][] outputs = new byte[][] {new byte[parityLength]};
+    decoder.decode(inputs, new int[numUnits], new int[] {unit}, outputs,
+        new int[1], parityLength);
+    return outputs[0];
+  }
+
+  /**
+   * Read a range of an internal block with a reader of its own. An internal
+   * block usually has a single location; the others, if any, are tried in
+   * turn.
+   */
+  private void readFromUnit(LocatedBlock lb, long offsetInUnit, byte[] buf,
+      int off, int len) throws IOException {
+    if (len == 0) {
+      return;
+    }
+    IOException lastException = new IOException(
+        "No location for internal block " + lb.getBlock());
+    for (DatanodeInfo node : lb.getLocations()) {
+      BlockReader reader = null;
+      try {
+        reader = newBlockReader(lb, node, offsetInUnit, len);
+        final int nread = reader.readAll(buf, off, len);
+        if (nread != len) {
+          throw new IOException("Truncated read of internal block "
+              + lb.getBlock() + ": expected " + len + ", got " + nread);
+        }
+        synchronized (this) {
+          updateReadStatistics(reader, nread);
+        }
+        return;
+      } catch (IOException e) {
+        if (e instanceof ChecksumException) {
+          dfsClient.reportChecksumFailure(src, lb.getBlock(), node);
+        }
+        lastException = e;
+      } finally {
+        if (reader != null) {
+          reader.close();
+        }
+      }
+    }
+    throw lastException;
+  }
+
+  private BlockReader newBlockReader(LocatedBlock lb, DatanodeInfo node,
+      long offsetInUnit, long length) throws IOException {
+    CachingStrategy curCachingStrategy;
+    synchronized (this) {
+      curCachingStrategy = cachingStrategy;
+    }
+    return new BlockReaderFactory(dfsClient.getConf()).
+        setInetSocketAddress(NetUtils.createSocketAddr(node.getXferAddr(
+            dfsClient.getConf().connectToDnViaHostname))).
+        setRemotePeerFactory(dfsClient).
+        setDatanodeInfo(node).
+        setFileName(src).
+        setBlock(lb.getBlock()).
+        setBlockToken(lb.getBlockToken()).
+        setStartOffset(offsetInUnit).
+        setVerifyChecksum(verifyChecksum).
+        setClientName(dfsClient.clientName).
+        setLength(length).
+        setCachingStrategy(curCachingStrategy).
+        setAllowShortCircuitLocalReads(!underConstruction).
+        setClientCacheContext(dfsClient.getClientContext()).
+        setUserGroupInformation(dfsClient.ugi).
+        setConfiguration(dfsClient.getConfiguration()).
+        build();
+  }
+
+  private void updateReadStatistics(BlockReader reader, int nRead) {
+    if (reader.isShortCircuit()) {
+      readStatistics.addShortCircuitBytes(nRead);
+    } else if (reader.isLocal()) {
+      readStatistics.addLocalBytes(nRead);
+    } else {
+      readStatistics.addRemoteBytes(nRead);
+    }
+  }
+
+  @Override
+  public synchronized int read(final ByteBuffer buf) throws IOException {
+    if (buf.hasArray()) {
+      final int n = read(buf.array(), buf.arrayOffset() + buf.position(),
+          buf.remaining());
+      if (n > 0) {
+        buf.position(buf.position() + n);
+      }
+      return n;
+    }
+    final byte[] tmp = new byte[Math.min(buf.remaining(), cellSize)];
+    final int n = read(tmp, 0, tmp.length);
+    if (n > 0) {
+      buf.put(tmp, 0, n);
+    }
+    return n;
+  }
+
+  @Override
+  public void readVectored(List<? extends FileRange> ranges)
+      throws IOException {
+    VectoredReadUtils.readVectored(this, ranges);
+  }
+
+  @Override
+  public synchronized void seek(long targetPos) throws IOException {
+    if (targetPos > fileLength) {
+      throw new EOFException("Cannot seek after EOF");
+    }
+    if (targetPos < 0) {
+      throw new EOFException("Cannot seek to negative offset");
+    }
+    if (closed) {
+      throw new IOException("Stream is closed!");
+    }
+    pos = targetPos;
+  }
+
+  /** An internal block has a single source; decoding replaces the others. */
+  @Override
+  public synchronized boolean seekToNewSource(long targetPos) {
+    return false;
+  }
+
+  @Override
+  public synchronized long getPos() {
+    return pos;
+  }
+
+  @Override
+  public synchronized int available() throws IOException {
+    if (closed) {
+      throw new IOException("Stream closed");
+    }
+    final long remaining = fileLength - pos;
+    return remaining <= Integer.MAX_VALUE ? (int) remaining
+        : Integer.MAX_VALUE;
+  }
+
+  @Override
+  public synchronized ReadStatistics getReadStatistics() {
+    return new ReadStatistics(readStatistics);
+  }
+
+  @Override
+  public synchronized void setReadahead(Long readahead) {
+    cachingStrategy = new CachingStrategy.Builder(cachingStrategy)
+        .setReadahead(readahead).build();
+    closeReaders();
+  }
+
+  /** Blocks are not prefetched: every cell comes from another block. */
+  @Override
+  public synchronized void setPrefetch(Integer blocks) {
+  }
+
+  @Override
+  public synchronized void setDropBehind(Boolean dropBehind) {
+    cachingStrategy = new CachingStrategy.Builder(cachingStrategy)
+        .setDropBehind(dropBehind).build();
+    closeReaders();
+  }
+
+  /** Cells are never mapped, so zero-copy reads always fall back. */
+  @Override
+  public synchronized ByteBuffer read(ByteBufferPool bufferPool,
+      int maxLength, EnumSet<ReadOption> opts) throws IOException {
+    final ByteBuffer buffer =
+        ByteBufferUtil.fallbackRead(this, bufferPool, maxLength);
+    if (buffer != null) {
+      extendedReadBuffers.put(buffer, bufferPool);
+    }
+    return buffer;
+  }
+
+  @Override
+  public synchronized void releaseBuffer(ByteBuffer buffer) {
+    final ByteBufferPool pool = extendedReadBuffers.remove(buffer);
+    if (pool == null) {
+      throw new IllegalArgumentException("tried to release a buffer " +
+          "that was not created by this stream, " + buffer);
+    }
+    pool.putBuffer(buffer);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closeReaders();
+    decodedCell = null;
+    super.close();
+    closed = true;
+  }
+
+  private void closeReaders() {
+    for (int unit = 0; unit < readers.length; unit++) {
+      closeReader(unit);
+    }
+  }
+
+  private void closeReader(int unit) {
+    if (readers[unit] != null) {
+      try {
+        readers[unit].close();
+      } catch (IOException e) {
+        DFSClient.LOG.warn("Error closing the reader of "
+            + currentGroup.units[unit].getBlock(), e);
+      }
+      readers[unit] = null;
+    }
+  }
+}
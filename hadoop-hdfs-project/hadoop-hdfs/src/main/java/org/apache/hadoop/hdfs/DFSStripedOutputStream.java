@@ -0,0 +1,535 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.fs.CreateFlag;
+import org.apache.hadoop.hdfs.client.HdfsDataOutputStream.SyncFlag;
+import org.apache.hadoop.hdfs.protocol.DSQuotaExceededException;
+import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+import org.apache.hadoop.hdfs.protocol.ErasureCodingPolicy;
+import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.apache.hadoop.hdfs.protocol.LocatedStripedBlock;
+import org.apache.hadoop.hdfs.protocol.NSQuotaExceededException;
+import org.apache.hadoop.hdfs.protocol.UnresolvedPathException;
+import org.apache.hadoop.hdfs.protocol.datatransfer.BlockConstructionStage;
+import org.apache.hadoop.hdfs.protocol.datatransfer.DataTransferEncryptor;
+import org.apache.hadoop.hdfs.protocol.datatransfer.IOStreamPair;
+import org.apache.hadoop.hdfs.protocol.datatransfer.PacketHeader;
+import org.apache.hadoop.hdfs.protocol.datatransfer.PipelineAck;
+import org.apache.hadoop.hdfs.protocol.datatransfer.Sender;
+import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.BlockOpResponseProto;
+import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.Status;
+import org.apache.hadoop.hdfs.protocolPB.PBHelper;
+import org.apache.hadoop.hdfs.security.token.block.BlockTokenIdentifier;
+import org.apache.hadoop.hdfs.security.token.block.InvalidBlockTokenException;
+import org.apache.hadoop.hdfs.server.datanode.CachingStrategy;
+import org.apache.hadoop.hdfs.server.namenode.NotReplicatedYetException;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.erasurecode.RSRawEncoder;
+import org.apache.hadoop.ipc.RemoteException;
+import org.apache.hadoop.net.NetUtils;
+import org.apache.hadoop.security.AccessControlException;
+import org.apache.hadoop.security.token.Token;
+import org.apache.hadoop.util.DataChecksum;
+import org.apache.hadoop.util.Progressable;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * DFSStripedOutputStream writes a file with an {@link ErasureCodingPolicy}.
+ *
+ * The data is cut into cells of the policy's cell size, which are written
+ * round-robin to the data units of the current block group; once a stripe
+ * of data cells is full, its parity cells are encoded and written to the
+ * parity units. Every internal block of a group is streamed directly to
+ * its own datanode, with no pipeline, so a group survives the loss of up
+ * to numParityUnits writers: the NameNode completes it once numDataUnits
+ * internal blocks are reported, and the missing ones are reconstructed
+ * later by the datanodes.
+ *
+ * Writing is done by the thread calling write(); acks are read back lazily
+ * once a writer has too many packets outstanding. There is no pipeline to
+ * flush to a visible length, so hflush and hsync are not supported.
+ */
+@InterfaceAudience.Private
+public class DFSStripedOutputStream extends DFSOutputStream {
+  /** The packets a writer may send before waiting for an ack. */
+  private static final int MAX_OUTSTANDING_PACKETS = 16;
+  private static final long HEART_BEAT_SEQNO = -1L;
+
+  private final DFSClient dfsClient;
+  private final String src;
+  private final long fileId;
+  private final ErasureCodingPolicy ecPolicy;
+  private final int numDataUnits;
+  private final int numParityUnits;
+  private final int cellSize;
+  /** The data bytes of a full group. */
+  private final long groupCapacity;
+  private final DataChecksum checksum;
+  private final boolean shouldSyncBlock;
+  private final RSRawEncoder encoder;
+  /** The data cells of the current stripe followed by its parity cells. */
+  private final byte[][] cells;
+  private final byte[][] dataCells;
+  private final byte[][] parityCells;
+  private final int[] dataOffsets;
+  private final int[] parityOffsets;
+  /** The checksums of one cell. */
+  private final byte[] checksumBuf;
+  private final List<DatanodeInfo> excludedNodes =
+      new ArrayList<DatanodeInfo>();
+  private CachingStrategy cachingStrategy;
+
+  /** The current group, null until its first byte is written. */
+  private LocatedStripedBlock currentGroup;
+  private UnitWriter[] writers;
+  /** The data bytes written to the current group. */
+  private long groupBytes;
+  /** The data cell of the current stripe being filled. */
+  private int currentCell;
+  /** The bytes in the data cell being filled. */
+  private int cellPos;
+  /** The last finished group, with the group's data length. */
+  private ExtendedBlock lastGroup;
+  private volatile boolean closed = false;
+  private IOException lastException;
+
+  DFSStripedOutputStream(DFSClient dfsClient, String src, HdfsFileStatus stat,
+      EnumSet<CreateFlag> flag, Progressable progress, DataChecksum checksum)
+      throws IOException {
+    // The checksums are computed per cell; the summer only cuts the chunks.
+    super(dfsClient, src, progress, stat, DataChecksum.newDataChecksum(
+        DataChecksum.Type.NULL, checksum.getBytesPerChecksum()));
+    this.dfsClient = dfsClient;
+    this.src = src;
+    this.fileId = stat.getFileId();
+    this.ecPolicy = stat.getErasureCodingPolicy();
+    this.numDataUnits = ecPolicy.getNumDataUnits();
+    this.numParityUnits = ecPolicy.getNumParityUnits();
+    this.cellSize = ecPolicy.getCellSize();
+    if (cellSize % checksum.getBytesPerChecksum() != 0) {
+      throw new IOException("The cell size " + cellSize + " of " + ecPolicy
+          + " is not a multiple of io.bytes.per.checksum ("
+          + checksum.getBytesPerChecksum() + ")");
+    }
+    this.groupCapacity = stat.getBlockSize() * numDataUnits;
+    this.checksum = checksum;
+    this.shouldSyncBlock = flag.contains(CreateFlag.SYNC_BLOCK);
+    this.cachingStrategy = dfsClient.getDefaultWriteCachingStrategy();
+    this.encoder = new RSRawEncoder(numDataUnits, numParityUnits);
+    this.cells = new byte[ecPolicy.getNumUnits()][cellSize];
+    this.dataCells = Arrays.copyOf(cells, numDataUnits);
+    this.parityCells = Arrays.copyOfRange(cells, numDataUnits, cells.length);
+    this.dataOffsets = new int[numDataUnits];
+    this.parityOffsets = new int[numParityUnits];
+    this.checksumBuf = new byte[checksum.getChecksumSize()
+        * (cellSize / checksum.getBytesPerChecksum())];
+  }
+
+  @Override
+  protected void checkClosed() throws IOException {
+    if (closed) {
+      throw lastException != null ? lastException
+          : new ClosedChannelException();
+    }
+  }
+
+  @Override
+  protected synchronized void writeChunk(byte[] b, int offset, int len,
+      byte[] ignored) throws IOException {
+    dfsClient.checkOpen();
+    checkClosed();
+    try {
+      while (len > 0) {
+        if (writers == null) {
+          startGroup();
+        }
+        final int n = Math.min(len, cellSize - cellPos);
+        System.arraycopy(b, offset, cells[currentCell], cellPos, n);
+        offset += n;
+        len -= n;
+        cellPos += n;
+        groupBytes += n;
+        if (cellPos == cellSize) {
+          writeCell(currentCell, cellSize);
+          cellPos = 0;
+          if (++currentCell == numDataUnits) {
+            writeParityCells(cellSize);
+            currentCell = 0;
+          }
+        }
+        if (groupBytes == groupCapacity) {
+          endGroup();
+        }
+      }
+    } catch (IOException e) {
+      fail(e);
+      throw e;
+    }
+  }
+
+  /** Allocate the next group and connect to the datanodes of its units. */
+  private void startGroup() throws IOException {
+    final LocatedBlock lb = locateFollowingBlock(
+        excludedNodes.toArray(new DatanodeInfo[excludedNodes.size()]));
+    if (!(lb instanceof LocatedStripedBlock)
+        || ((LocatedStripedBlock) lb).getNumInternalBlocks()
+            != ecPolicy.getNumUnits()) {
+      throw new IOException("The NameNode did not allocate a block group of "
+          + ecPolicy + " for " + src + ": " + lb);
+    }
+    currentGroup = (LocatedStripedBlock) lb;
+    writers = new UnitWriter[ecPolicy.getNumUnits()];
+    for (int unit = 0; unit < writers.length; unit++) {
+      writers[unit] = new UnitWriter(currentGroup.getInternalBlock(unit),
+          currentGroup.getLocations()[unit]);
+      writers[unit].connect(currentGroup.getInternalBlockToken(unit));
+    }
+    checkFailedWriters();
+    groupBytes = 0;
+  }
+
+  /** Finish the last stripe and the internal blocks of the current group. */
+  private void endGroup() throws IOException {
+    if (currentCell > 0 || cellPos > 0) {
+      // A partial stripe: its parity cells are as long as its first cell.
+      if (cellPos > 0) {
+        writeCell(currentCell, cellPos);
+      }
+      final int parityLength = currentCell > 0 ? cellSize : cellPos;
+      for (int unit = 0; unit < numDataUnits; unit++) {
+        final int filled = unit < currentCell ? cellSize
+            : unit == currentCell ? cellPos : 0;
+        if (filled < parityLength) {
+          Arrays.fill(cells[unit], filled, parityLength, (byte) 0);
+        }
+      }
+      writeParityCells(parityLength);
+      currentCell = 0;
+      cellPos = 0;
+    }
+    for (UnitWriter w : writers) {
+      w.finish();
+    }
+    checkFailedWriters();
+    final ExtendedBlock b = currentGroup.getBlock();
+    lastGroup = new ExtendedBlock(b.getBlockPoolId(), b.getBlockId(),
+        groupBytes, b.getGenerationStamp());
+    closeWriters();
+  }
+
+  private void writeParityCells(int length) throws IOException {
+    encoder.encode(dataCells, dataOffsets, parityCells, parityOffsets,
+        length);
+    for (int unit = numDataUnits; unit < cells.length; unit++) {
+      writeCell(unit, length);
+    }
+  }
+
+  private void writeCell(int unit, int length) throws IOException {
+    writers[unit].sendPacket(cells[unit], length, false);
+    checkFailedWriters();
+  }
+
+  /**
+   * A group can lose up to numParityUnits internal blocks; beyond that the
+   * data written to it can no longer be read back.
+   */
+  private void checkFailedWriters() throws IOException {
+    int failed = 0;
+    IOException last = null;
+    for (UnitWriter w : writers) {
+      if (w.error != null) {
+        failed++;
+        last = w.error;
+      }
+    }
+    if (failed > numParityUnits) {
+      throw new IOException("Failed to write " + failed + " of the "
+          + writers.length + " internal blocks of " + currentGroup.getBlock()
+          + ", at most " + numParityUnits + " may fail", last);
+    }
+  }
+
+  private LocatedBlock locateFollowingBlock(DatanodeInfo[] excluded)
+      throws IOException {
+    int retries = dfsClient.getConf().nBlockWriteLocateFollowingRetry;
+    long sleeptime = 400;
+    while (true) {
+      try {
+        return dfsClient.namenode.addBlock(src, dfsClient.clientName,
+            lastGroup, excluded, fileId, null);
+      } catch (RemoteException e) {
+        IOException ue =
+          e.unwrapRemoteException(FileNotFoundException.class,
+                                  AccessControlException.class,
+                                  NSQuotaExceededException.class,
+                                  DSQuotaExceededException.class,
+                                  UnresolvedPathException.class);
+        if (ue != e) {
+          throw ue; // no need to retry these exceptions
+        }
+        if (!NotReplicatedYetException.class.getName().equals(
+            e.getClassName()) || retries == 0) {
+          throw e;
+        }
+        --retries;
+        DFSClient.LOG.warn("NotReplicatedYetException sleeping " + src
+            + " retries left " + retries);
+        try {
+          Thread.sleep(sleeptime);
+          sleeptime *= 2;
+        } catch (InterruptedException ie) {
+          DFSClient.LOG.warn("Caught exception ", ie);
+        }
+      }
+    }
+  }
+
+  @Override
+  public void hflush() throws IOException {
+    throw new UnsupportedOperationException(
+        "hflush is not supported for erasure coded file " + src);
+  }
+
+  @Override
+  public void hsync() throws IOException {
+    throw new UnsupportedOperationException(
+        "hsync is not supported for erasure coded file " + src);
+  }
+
+  @Override
+  public void hsync(EnumSet<SyncFlag> syncFlags) throws IOException {
+    hsync();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (closed) {
+      IOException e = lastException;
+      lastException = null;
+      if (e != null) {
+        throw e;
+      }
+      return;
+    }
+    try {
+      flushBuffer();
+      if (writers != null) {
+        endGroup();
+      }
+      completeFile(lastGroup);
+      dfsClient.endFileLease(src);
+    } finally {
+      closeWriters();
+      closed = true;
+    }
+  }
+
+  @Override
+  synchronized void abort() throws IOException {
+    if (closed) {
+      return;
+    }
+    fail(new IOException("Lease timeout of "
+        + (dfsClient.getHdfsTimeout()/1000) + " seconds expired."));
+    dfsClient.endFileLease(src);
+  }
+
+  private void fail(IOException e) {
+    if (lastException == null) {
+      lastException = e;
+    }
+    closeWriters();
+    closed = true;
+  }
+
+  private void closeWriters() {
+    if (writers != null) {
+      for (UnitWriter w : writers) {
+        w.close();
+      }
+      writers = null;
+    }
+  }
+
+  @Override
+  public synchronized void setDropBehind(Boolean dropBehind) {
+    cachingStrategy = new CachingStrategy.Builder(cachingStrategy)
+        .setDropBehind(dropBehind).build();
+  }
+
+  @Override
+  synchronized Token<BlockTokenIdentifier> getBlockToken() {
+    return currentGroup == null ? null : currentGroup.getBlockToken();
+  }
+
+  @Override
+  @VisibleForTesting
+  synchronized ExtendedBlock getBlock() {
+    return currentGroup == null ? lastGroup : currentGroup.getBlock();
+  }
+
+  /** Streams one internal block of the current group to its datanode. */
+  private class UnitWriter {
+    private final ExtendedBlock block;
+    private final DatanodeInfo node;
+    private Socket sock;
+    private DataOutputStream out;
+    private DataInputStream in;
+    private long offsetInBlock = 0;
+    private long seqno = 0;
+    private long ackedSeqno = -1;
+    /** Set once writing the block failed; the block is then left behind. */
+    private IOException error;
+
+    UnitWriter(ExtendedBlock block, DatanodeInfo node) {
+      this.block = block;
+      this.node = node;
+    }
+
+    void connect(Token<BlockTokenIdentifier> token) {
+      try {
+        sock = createSocketForPipeline(node, 1, dfsClient);
+        OutputStream unbufOut = NetUtils.getOutputStream(sock,
+            dfsClient.getDatanodeWriteTimeout(1));
+        InputStream unbufIn = NetUtils.getInputStream(sock);
+        if (dfsClient.shouldEncryptData()) {
+          IOStreamPair encryptedStreams =
+              DataTransferEncryptor.getEncryptedStreams(unbufOut,
+                  unbufIn, dfsClient.getDataEncryptionKey());
+          unbufOut = encryptedStreams.out;
+          unbufIn = encryptedStreams.in;
+        }
+        out = new DataOutputStream(new BufferedOutputStream(unbufOut,
+            HdfsConstants.SMALL_BUFFER_SIZE));
+        in = new DataInputStream(unbufIn);
+        new Sender(out).writeBlock(block, token, dfsClient.clientName,
+            new DatanodeInfo[] {node}, null,
+            BlockConstructionStage.PIPELINE_SETUP_CREATE, 1, 0, 0, 0,
+            checksum, cachingStrategy);
+        BlockOpResponseProto resp = BlockOpResponseProto.parseFrom(
+            PBHelper.vintPrefixed(in));
+        if (resp.getStatus() == Status.ERROR_ACCESS_TOKEN) {
+          throw new InvalidBlockTokenException(
+              "Got access token error for connect ack from " + node);
+        } else if (resp.getStatus() != Status.SUCCESS) {
+          throw new IOException("Bad connect ack from " + node + ": "
+              + resp.getStatus());
+        }
+      } catch (IOException e) {
+        setError(e);
+      }
+    }
+
+    /** Send data as one packet, with the checksums of its chunks. */
+    void sendPacket(byte[] data, int length, boolean last) {
+      if (error != null) {
+        return;
+      }
+      try {
+        final int checksumLength = checksum.getChecksumSize()
+            * ((length + checksum.getBytesPerChecksum() - 1)
+                / checksum.getBytesPerChecksum());
+        checksum.calculateChunkedSums(ByteBuffer.wrap(data, 0, length),
+            ByteBuffer.wrap(checksumBuf, 0, checksumLength));
+        PacketHeader header = new PacketHeader(
+            HdfsConstants.BYTES_IN_INTEGER + checksumLength + length,
+            offsetInBlock, seqno, last, length, last && shouldSyncBlock);
+        header.write(out);
+        out.write(checksumBuf, 0, checksumLength);
+        out.write(data, 0, length);
+        out.flush();
+        offsetInBlock += length;
+        seqno++;
+        while (seqno - 1 - ackedSeqno > MAX_OUTSTANDING_PACKETS) {
+          readAck();
+        }
+      } catch (IOException e) {
+        setError(e);
+      }
+    }
+
+    /** Send the last, empty packet and wait for all acks. */
+    void finish() {
+      sendPacket(cells[0], 0, true);
+      try {
+        while (error == null && ackedSeqno < seqno - 1) {
+          readAck();
+        }
+      } catch (IOException e) {
+        setError(e);
+      }
+    }
+
+    private void readAck() throws IOException {
+      PipelineAck ack = new PipelineAck();
+      ack.readFields(in);
+      if (ack.getSeqno() == HEART_BEAT_SEQNO) {
+        return;
+      }
+      if (ack.getNumOfReplies() != 1
+          || ack.getReply(0) != Status.SUCCESS) {
+        throw new IOException("Bad response " + ack + " for block "
+            + block + " from datanode " + node);
+      }
+      if (ack.getSeqno() != ackedSeqno + 1) {
+        throw new IOException("Expected ack " + (ackedSeqno + 1)
+            + " but received " + ack + " for block " + block);
+      }
+      ackedSeqno = ack.getSeqno();
+    }
+
+    private void setError(IOException e) {
+      DFSClient.LOG.warn("Failed to write internal block " + block
+          + " of " + src + " to " + node, e);
+      error = e;
+      excludedNodes.add(node);
+      close();
+    }
+
+    void close() {
+      IOUtils.closeStream(out);
+      IOUtils.closeStream(in);
+      IOUtils.closeSocket(sock);
+      out = null;
+      in = null;
+      sock = null;
+    }
+  }
+}
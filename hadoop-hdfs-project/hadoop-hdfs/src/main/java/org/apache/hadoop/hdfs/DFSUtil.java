@@ -42,6 +42,7 @@
 import java.net.URISyntaxException;
 import java.security.SecureRandom;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -73,6 +74,7 @@
 import org.apache.hadoop.hdfs.protocol.ClientDatanodeProtocol;
 import org.apache.hadoop.hdfs.protocol.DatanodeID;
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+import org.apache.hadoop.hdfs.protocol.ErasureCodingPolicy;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.protocol.LocatedBlock;
 import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
@@ -476,8 +478,49 @@ public static BlockLocation[] locatedBlocks2Locations(LocatedBlocks blocks) {
     if (blocks == null) {
       return new BlockLocation[0];
     }
+    if (blocks.getErasureCodingPolicy() != null) {
+      return blockGroups2Locations(blocks.getLocatedBlocks(),
+          blocks.getErasureCodingPolicy());
+    }
     return locatedBlocks2Locations(blocks.getLocatedBlocks());
   }
+
+  /**
+   * Convert the internal blocks of a striped file to one BlockLocation per
+   * block group, spanning the group's data and listing the datanodes of
+   * its data units before those of its parity units.
+   */
+  private static BlockLocation[] blockGroups2Locations(
+      List<LocatedBlock> blocks, ErasureCodingPolicy ecPolicy) {
+    final int numUnits = ecPolicy.getNumUnits();
+    BlockLocation[] blkLocations = new BlockLocation[blocks.size() / numUnits];
+    for (int idx = 0; idx < blkLocations.length; idx++) {
+      List<String> hosts = new ArrayList<String>();
+      List<String> xferAddrs = new ArrayList<String>();
+      List<String> racks = new ArrayList<String>();
+      long length = 0;
+      boolean corrupt = false;
+      for (int unit = 0; unit < numUnits; unit++) {
+        LocatedBlock blk = blocks.get(idx * numUnits + unit);
+        if (unit < ecPolicy.getNumDataUnits()) {
+          length += blk.getBlockSize();
+        }
+        corrupt |= blk.isCorrupt();
+        for (DatanodeInfo location : blk.getLocations()) {
+          hosts.add(location.getHostName());
+          xferAddrs.add(location.getXferAddr());
+          racks.add(new NodeBase(location.getXferAddr(),
+              location.getNetworkLocation()).toString());
+        }
+      }
+      blkLocations[idx] = new BlockLocation(
+          xferAddrs.toArray(new String[xferAddrs.size()]),
+          hosts.toArray(new String[hosts.size()]), new String[0],
+          racks.toArray(new String[racks.size()]),
+          blocks.get(idx * numUnits).getStartOffset(), length, corrupt);
+    }
+    return blkLocations;
+  }
   
   /**
    * Convert a List<LocatedBlock> to BlockLocation[]
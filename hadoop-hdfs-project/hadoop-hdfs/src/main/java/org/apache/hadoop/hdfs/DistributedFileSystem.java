@@ -64,8 +64,10 @@
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
 import org.apache.hadoop.hdfs.protocol.CachePoolEntry;
 import org.apache.hadoop.hdfs.protocol.CachePoolInfo;
+import org.apache.hadoop.hdfs.protocol.ClientProtocol;
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
 import org.apache.hadoop.hdfs.protocol.DirectoryListing;
+import org.apache.hadoop.hdfs.protocol.ErasureCodingPolicy;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants.DatanodeReportType;
@@ -1877,4 +1879,62 @@ public AclStatus next(final FileSystem fs, final Path p)
       }
     }.resolve(this, absF);
   }
+
+  /**
+   * Set the erasure coding policy of a directory.
+   *
+   * @see ClientProtocol#setErasureCodingPolicy(String, String)
+   */
+  public void setErasureCodingPolicy(final Path path, final String policyName)
+      throws IOException {
+    Path absF = fixRelativePart(path);
+    new FileSystemLinkResolver<Void>() {
+      @Override
+      public Void doCall(final Path p) throws IOException {
+        dfs.setErasureCodingPolicy(getPathName(p), policyName);
+        return null;
+      }
+
+      @Override
+      public Void next(final FileSystem fs, final Path p) throws IOException {
+        if (fs instanceof DistributedFileSystem) {
+          ((DistributedFileSystem) fs).setErasureCodingPolicy(p, policyName);
+          return null;
+        } else {
+          throw new UnsupportedOperationException("Cannot call "
+              + "setErasureCodingPolicy on a symlink to a "
+              + "non-DistributedFileSystem: " + path + " -> " + p);
+        }
+      }
+    }.resolve(this, absF);
+  }
+
+  /**
+   * Get the erasure coding policy of a file or directory.
+   *
+   * @return the policy, or null if the path is replicated
+   * @see ClientProtocol#getErasureCodingPolicy(String)
+   */
+  public ErasureCodingPolicy getErasureCodingPolicy(final Path path)
+      throws IOException {
+    Path absF = fixRelativePart(path);
+    return new FileSystemLinkResolver<ErasureCodingPolicy>() {
+      @Override
+      public ErasureCodingPolicy doCall(final Path p) throws IOException {
+        return dfs.getErasureCodingPolicy(getPathName(p));
+      }
+
+      @Override
+      public ErasureCodingPolicy next(final FileSystem fs, final Path p)
+          throws IOException {
+        if (fs instanceof DistributedFileSystem) {
+          return ((DistributedFileSystem) fs).getErasureCodingPolicy(p);
+        } else {
+          throw new UnsupportedOperationException("Cannot call "
+              + "getErasureCodingPolicy on a symlink to a "
+              + "non-DistributedFileSystem: " + path + " -> " + p);
+        }
+      }
+    }.resolve(this, absF);
+  }
 }
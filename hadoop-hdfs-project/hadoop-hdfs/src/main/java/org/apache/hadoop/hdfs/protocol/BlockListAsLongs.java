@@ -17,6 +17,8 @@
  */
 package org.apache.hadoop.hdfs.protocol;
 
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
@@ -306,6 +308,137 @@ private void setDelimitingBlock(final int finalizedSzie) {
     blockList[idx+2] = -1;
   }
 
+  /**
+   * Encode a block list into its compact wire form.
+   *
+   * The replicas of each of the finalized and under-construction lists are
+   * sorted by block id, and every field is replaced by its difference with
+   * the same field of the previous replica in the list, zigzag encoded so
+   * that small negative differences stay small. Since block ids are mostly
+   * sequential and most finalized replicas have the same length, nearly all
+   * resulting values fit in one or two bytes as protobuf varints.
+   *
+   * The structure of the encoded array is as follows:
+   * 0: the length of the finalized replica list;
+   * 1: the length of the under-construction replica list;
+   * - followed by the encoded finalized replicas, 3 longs each;
+   * - followed by the encoded under-construction replicas, 4 longs each,
+   *   the fourth being the unencoded replica state.
+   * There is no delimiting block.
+   *
+   * @param blockList the block list in the format described above
+   * @return the encoded block list
+   */
+  public static long[] encodeDelta(final long[] blockList) {
+    final BlockListAsLongs blocks = new BlockListAsLongs(blockList);
+    final int finalizedSize = blocks.getNumberOfFinalizedReplicas();
+    final int ucSize = blocks.getNumberOfUCReplicas();
+    final long[] encoded = new long[HEADER_SIZE
+        + finalizedSize * LONGS_PER_FINALIZED_BLOCK
+        + ucSize * LONGS_PER_UC_BLOCK];
+    encoded[0] = finalizedSize;
+    encoded[1] = ucSize;
+    int pos = HEADER_SIZE;
+    pos = blocks.encodeDeltaRange(0, finalizedSize, encoded, pos);
+    blocks.encodeDeltaRange(finalizedSize, finalizedSize + ucSize,
+        encoded, pos);
+    return encoded;
+  }
+
+  /**
+   * Decode a block list produced by {@link #encodeDelta(long[])}.
+   * @param encoded the encoded block list
+   * @return the block list in the regular format
+   */
+  public static long[] decodeDelta(final long[] encoded) {
+    if (encoded.length < HEADER_SIZE) {
+      throw new IllegalArgumentException("Encoded block list is too short: "
+          + encoded.length);
+    }
+    final int finalizedSize = (int)encoded[0];
+    final int ucSize = (int)encoded[1];
+    if (finalizedSize < 0 || ucSize < 0 || encoded.length != HEADER_SIZE
+        + (long)finalizedSize * LONGS_PER_FINALIZED_BLOCK
+        + (long)ucSize * LONGS_PER_UC_BLOCK) {
+      throw new IllegalArgumentException("Inconsistent encoded block list: "
+          + finalizedSize + " finalized and " + ucSize
+          + " under construction replicas in " + encoded.length + " longs");
+    }
+    if (finalizedSize == 0 && ucSize == 0) {
+      // An empty list needs no delimiting block.
+      return new BlockListAsLongs().getBlockListAsLongs();
+    }
+    final BlockListAsLongs blocks = new BlockListAsLongs(
+        new long[HEADER_SIZE + (finalizedSize + 1) * LONGS_PER_FINALIZED_BLOCK
+                 + ucSize * LONGS_PER_UC_BLOCK]);
+    blocks.blockList[0] = finalizedSize;
+    blocks.blockList[1] = ucSize;
+    int pos = HEADER_SIZE;
+    long id = 0, len = 0, gs = 0;
+    for (int i = 0; i < finalizedSize + ucSize; i++) {
+      if (i == finalizedSize) {
+        // each list is encoded independently
+        id = len = gs = 0;
+      }
+      id += zigzagDecode(encoded[pos++]);
+      len += zigzagDecode(encoded[pos++]);
+      gs += zigzagDecode(encoded[pos++]);
+      int idx = blocks.index2BlockId(i);
+      blocks.blockList[idx] = id;
+      blocks.blockList[idx + 1] = len;
+      blocks.blockList[idx + 2] = gs;
+      if (i >= finalizedSize) {
+        blocks.blockList[idx + 3] = encoded[pos++];
+      }
+    }
+    blocks.setDelimitingBlock(finalizedSize);
+    return blocks.blockList;
+  }
+
+  /**
+   * Delta encode the replicas with indices in [from, to), which must all be
+   * in the same list, into dst starting at pos.
+   * @return the position in dst after the encoded replicas
+   */
+  private int encodeDeltaRange(final int from, final int to,
+      final long[] dst, int pos) {
+    Integer[] order = new Integer[to - from];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = from + i;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        long idA = blockId(a);
+        long idB = blockId(b);
+        return idA < idB ? -1 : (idA == idB ? 0 : 1);
+      }
+    });
+    final boolean underConstruction = from >= getNumberOfFinalizedReplicas();
+    long id = 0, len = 0, gs = 0;
+    for (Integer index : order) {
+      int idx = index2BlockId(index);
+      dst[pos++] = zigzagEncode(blockList[idx] - id);
+      dst[pos++] = zigzagEncode(blockList[idx + 1] - len);
+      dst[pos++] = zigzagEncode(blockList[idx + 2] - gs);
+      if (underConstruction) {
+        dst[pos++] = blockList[idx + 3];
+      }
+      id = blockList[idx];
+      len = blockList[idx + 1];
+      gs = blockList[idx + 2];
+    }
+    return pos;
+  }
+
+  private static long zigzagEncode(final long n) {
+    return (n << 1) ^ (n >> 63);
+  }
+
+  private static long zigzagDecode(final long n) {
+    return (n >>> 1) ^ -(n & 1);
+  }
+
   public long getMaxGsInBlockList() {
     long maxGs = -1;
     Iterator<Block> iter = getBlockReportIterator();
@@ -0,0 +1,137 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.protocol;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+
+/**
+ * A striped, Reed-Solomon erasure coded layout for the files of a directory.
+ *
+ * The data of such a file is stored in block groups. The data of a group is
+ * cut into cells of cellSize bytes, which go round-robin to numDataUnits
+ * internal blocks; numParityUnits more internal blocks hold the parity of
+ * each stripe of cells. Each internal block is a block of its own with one
+ * replica, and the internal blocks of a group have consecutive IDs. Any
+ * numDataUnits internal blocks of a group are enough to read all its data.
+ */
+@InterfaceAudience.Public
+@InterfaceStability.Evolving
+public final class ErasureCodingPolicy {
+  /** 6 data and 3 parity units with 64KB cells. */
+  public static final ErasureCodingPolicy RS_6_3 =
+      new ErasureCodingPolicy("RS-6-3-64k", (byte) 1, 6, 3, 64 * 1024);
+  /** 3 data and 2 parity units with 64KB cells, for small clusters. */
+  public static final ErasureCodingPolicy RS_3_2 =
+      new ErasureCodingPolicy("RS-3-2-64k", (byte) 2, 3, 2, 64 * 1024);
+
+  private static final ErasureCodingPolicy[] SYSTEM_POLICIES = {
+    RS_6_3, RS_3_2
+  };
+
+  private final String name;
+  private final byte id;
+  private final int numDataUnits;
+  private final int numParityUnits;
+  private final int cellSize;
+
+  public ErasureCodingPolicy(String name, byte id, int numDataUnits,
+      int numParityUnits, int cellSize) {
+    this.name = name;
+    this.id = id;
+    this.numDataUnits = numDataUnits;
+    this.numParityUnits = numParityUnits;
+    this.cellSize = cellSize;
+  }
+
+  /** @return the policies that may be set on a directory */
+  public static ErasureCodingPolicy[] getSystemPolicies() {
+    return SYSTEM_POLICIES.clone();
+  }
+
+  /** @return the system policy with the given name, or null */
+  public static ErasureCodingPolicy getSystemPolicy(String name) {
+    for (ErasureCodingPolicy p : SYSTEM_POLICIES) {
+      if (p.name.equals(name)) {
+        return p;
+      }
+    }
+    return null;
+  }
+
+  /** @return the system policy with the given ID, or null */
+  public static ErasureCodingPolicy getSystemPolicy(byte id) {
+    for (ErasureCodingPolicy p : SYSTEM_POLICIES) {
+      if (p.id == id) {
+        return p;
+      }
+    }
+    return null;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public byte getId() {
+    return id;
+  }
+
+  public int getNumDataUnits() {
+    return numDataUnits;
+  }
+
+  public int getNumParityUnits() {
+    return numParityUnits;
+  }
+
+  /** @return the number of internal blocks in a block group */
+  public int getNumUnits() {
+    return numDataUnits + numParityUnits;
+  }
+
+  public int getCellSize() {
+    return cellSize;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (obj == this) {
+      return true;
+    } else if (!(obj instanceof ErasureCodingPolicy)) {
+      return false;
+    }
+    final ErasureCodingPolicy that = (ErasureCodingPolicy) obj;
+    return name.equals(that.name) && id == that.id
+        && numDataUnits == that.numDataUnits
+        && numParityUnits == that.numParityUnits
+        && cellSize == that.cellSize;
+  }
+
+  @Override
+  public int hashCode() {
+    return name.hashCode() ^ (id << 24) ^ (numDataUnits << 16)
+        ^ (numParityUnits << 8) ^ cellSize;
+  }
+
+  @Override
+  public String toString() {
+    return name + "(id=" + id + ", data=" + numDataUnits + ", parity="
+        + numParityUnits + ", cell=" + cellSize + ")";
+  }
+}
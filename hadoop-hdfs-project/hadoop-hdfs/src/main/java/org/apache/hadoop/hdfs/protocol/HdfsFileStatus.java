@@ -47,6 +47,9 @@ public class HdfsFileStatus {
   
   // Used by dir, not including dot and dotdot. Always zero for a regular file.
   private int childrenNum;
+
+  // The erasure coding policy of a file or directory, or null
+  private ErasureCodingPolicy ecPolicy;
   
   public static final byte[] EMPTY_NAME = new byte[0];
 
@@ -68,6 +71,22 @@ public HdfsFileStatus(long length, boolean isdir, int block_replication,
                     long blocksize, long modification_time, long access_time,
                     FsPermission permission, String owner, String group, 
                     byte[] symlink, byte[] path, long fileId, int childrenNum) {
+    this(length, isdir, block_replication, blocksize, modification_time,
+        access_time, permission, owner, group, symlink, path, fileId,
+        childrenNum, null);
+  }
+
+  /**
+   * Constructor
+   * @param ecPolicy the erasure coding policy of the path, or null
+   * @see #HdfsFileStatus(long, boolean, int, long, long, long, FsPermission,
+   *      String, String, byte[], byte[], long, int)
+   */
+  public HdfsFileStatus(long length, boolean isdir, int block_replication,
+                    long blocksize, long modification_time, long access_time,
+                    FsPermission permission, String owner, String group, 
+                    byte[] symlink, byte[] path, long fileId, int childrenNum,
+                    ErasureCodingPolicy ecPolicy) {
     this.length = length;
     this.isdir = isdir;
     this.block_replication = (short)block_replication;
@@ -85,6 +104,7 @@ public HdfsFileStatus(long length, boolean isdir, int block_replication,
     this.path = path;
     this.fileId = fileId;
     this.childrenNum = childrenNum;
+    this.ecPolicy = ecPolicy;
   }
 
   /**
@@ -127,6 +147,14 @@ final public short getReplication() {
     return block_replication;
   }
 
+  /**
+   * Get the erasure coding policy of the file or directory.
+   * @return the erasure coding policy, or null if the path is replicated
+   */
+  final public ErasureCodingPolicy getErasureCodingPolicy() {
+    return ecPolicy;
+  }
+
   /**
    * Get the modification time of the file.
    * @return the modification time of file in milliseconds since January 1, 1970 UTC.
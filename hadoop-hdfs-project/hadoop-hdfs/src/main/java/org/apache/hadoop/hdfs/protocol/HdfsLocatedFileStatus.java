@@ -57,9 +57,27 @@ public HdfsLocatedFileStatus(long length, boolean isdir,
       long access_time, FsPermission permission, String owner, String group,
       byte[] symlink, byte[] path, long fileId, LocatedBlocks locations,
       int childrenNum) {
+    this(length, isdir, block_replication, blocksize, modification_time,
+        access_time, permission, owner, group, symlink, path, fileId,
+        locations, childrenNum, null);
+  }
+
+  /**
+   * Constructor
+   * 
+   * @param ecPolicy the erasure coding policy of the path, or null
+   * @see #HdfsLocatedFileStatus(long, boolean, int, long, long, long,
+   *      FsPermission, String, String, byte[], byte[], long, LocatedBlocks,
+   *      int)
+   */
+  public HdfsLocatedFileStatus(long length, boolean isdir,
+      int block_replication, long blocksize, long modification_time,
+      long access_time, FsPermission permission, String owner, String group,
+      byte[] symlink, byte[] path, long fileId, LocatedBlocks locations,
+      int childrenNum, ErasureCodingPolicy ecPolicy) {
     super(length, isdir, block_replication, blocksize, modification_time,
         access_time, permission, owner, group, symlink, path, fileId,
-        childrenNum);
+        childrenNum, ecPolicy);
     this.locations = locations;
   }
 	
@@ -35,6 +35,7 @@ public class LocatedBlocks {
   private boolean underConstruction;
   private LocatedBlock lastLocatedBlock = null;
   private boolean isLastBlockComplete = false;
+  private ErasureCodingPolicy ecPolicy = null;
 
   public LocatedBlocks() {
     fileLength = 0;
@@ -46,13 +47,34 @@ public LocatedBlocks() {
   public LocatedBlocks(long flength, boolean isUnderConstuction,
       List<LocatedBlock> blks, 
       LocatedBlock lastBlock, boolean isLastBlockCompleted) {
+    this(flength, isUnderConstuction, blks, lastBlock, isLastBlockCompleted,
+        null);
+  }
+
+  /**
+   * Constructor for the blocks of a file with the given erasure coding
+   * policy. Every block group is listed whole, one located block per
+   * internal block, with the offset of the group in the file.
+   */
+  public LocatedBlocks(long flength, boolean isUnderConstuction,
+      List<LocatedBlock> blks, LocatedBlock lastBlock,
+      boolean isLastBlockCompleted, ErasureCodingPolicy ecPolicy) {
     fileLength = flength;
     blocks = blks;
     underConstruction = isUnderConstuction;
     this.lastLocatedBlock = lastBlock;
     this.isLastBlockComplete = isLastBlockCompleted;
+    this.ecPolicy = ecPolicy;
   }
   
+  /**
+   * @return the erasure coding policy of the file, or null if the file is
+   *         replicated
+   */
+  public ErasureCodingPolicy getErasureCodingPolicy() {
+    return ecPolicy;
+  }
+
   /**
    * Get located blocks.
    */
@@ -171,6 +193,7 @@ public String toString() {
      .append("\n  blocks=").append(blocks)
      .append("\n  lastLocatedBlock=").append(lastLocatedBlock)
      .append("\n  isLastBlockComplete=").append(isLastBlockComplete)
+     .append("\n  ecPolicy=").append(ecPolicy)
      .append("}");
     return b.toString();
   }
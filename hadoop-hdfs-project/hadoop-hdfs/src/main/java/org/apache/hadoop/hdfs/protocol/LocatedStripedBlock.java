@@ -0,0 +1,77 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.protocol;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.hdfs.StorageType;
+import org.apache.hadoop.hdfs.security.token.block.BlockTokenIdentifier;
+import org.apache.hadoop.security.token.Token;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A block group allocated for an erasure coded file. The block is the
+ * first internal block of the group, the i-th location is the datanode of
+ * the i-th internal block, whose ID is the ID of the block plus i, and
+ * each internal block has its own access token.
+ */
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class LocatedStripedBlock extends LocatedBlock {
+  private final Token<BlockTokenIdentifier>[] internalBlockTokens;
+
+  @SuppressWarnings("unchecked")
+  public LocatedStripedBlock(ExtendedBlock b, DatanodeInfo[] locs,
+      String[] storageIDs, StorageType[] storageTypes, long startOffset) {
+    super(b, locs, storageIDs, storageTypes, startOffset, false, null);
+    this.internalBlockTokens = new Token[locs.length];
+    for (int i = 0; i < locs.length; i++) {
+      internalBlockTokens[i] = new Token<BlockTokenIdentifier>();
+    }
+  }
+
+  /** @return the number of internal blocks in the group */
+  public int getNumInternalBlocks() {
+    return internalBlockTokens.length;
+  }
+
+  /** @return the given internal block of the group, with no data yet */
+  public ExtendedBlock getInternalBlock(int unit) {
+    checkUnit(unit);
+    final ExtendedBlock b = getBlock();
+    return new ExtendedBlock(b.getBlockPoolId(), b.getBlockId() + unit, 0,
+        b.getGenerationStamp());
+  }
+
+  public Token<BlockTokenIdentifier> getInternalBlockToken(int unit) {
+    checkUnit(unit);
+    return internalBlockTokens[unit];
+  }
+
+  public void setInternalBlockToken(int unit,
+      Token<BlockTokenIdentifier> token) {
+    checkUnit(unit);
+    internalBlockTokens[unit] = token;
+  }
+
+  private void checkUnit(int unit) {
+    Preconditions.checkElementIndex(unit, internalBlockTokens.length,
+        "internal block");
+  }
+}
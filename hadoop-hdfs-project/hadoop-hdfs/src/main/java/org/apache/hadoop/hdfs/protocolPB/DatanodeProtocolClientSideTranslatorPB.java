@@ -29,7 +29,9 @@
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.protocol.AlreadyBeingCreatedException;
+import org.apache.hadoop.hdfs.protocol.BlockListAsLongs;
 import org.apache.hadoop.hdfs.protocol.DatanodeID;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
@@ -57,6 +59,7 @@
 import org.apache.hadoop.hdfs.server.protocol.DatanodeRegistration;
 import org.apache.hadoop.hdfs.server.protocol.HeartbeatResponse;
 import org.apache.hadoop.hdfs.server.protocol.NamespaceInfo;
+import org.apache.hadoop.hdfs.server.protocol.NamespaceInfo.Capability;
 import org.apache.hadoop.hdfs.server.protocol.ReceivedDeletedBlockInfo;
 import org.apache.hadoop.hdfs.server.protocol.StorageBlockReport;
 import org.apache.hadoop.hdfs.server.protocol.StorageReceivedDeletedBlocks;
@@ -91,6 +94,13 @@ public class DatanodeProtocolClientSideTranslatorPB implements
   private static final VersionRequestProto VOID_VERSION_REQUEST = 
       VersionRequestProto.newBuilder().build();
   private final static RpcController NULL_CONTROLLER = null;
+  /** Whether block reports may be sent in their delta encoded form */
+  private final boolean deltaEncodeBlockReports;
+  /**
+   * Whether the NameNode decodes delta encoded block reports, as of its
+   * last response to {@link #versionRequest()}.
+   */
+  private volatile boolean nnDecodesDeltaEncoding = false;
   
   public DatanodeProtocolClientSideTranslatorPB(InetSocketAddress nameNodeAddr,
       Configuration conf) throws IOException {
@@ -98,6 +108,9 @@ public DatanodeProtocolClientSideTranslatorPB(InetSocketAddress nameNodeAddr,
         ProtobufRpcEngine.class);
     UserGroupInformation ugi = UserGroupInformation.getCurrentUser();
     rpcProxy = createNamenodeWithRetry(createNamenode(nameNodeAddr, conf, ugi));
+    deltaEncodeBlockReports = conf.getBoolean(
+        DFSConfigKeys.DFS_BLOCKREPORT_DELTA_ENCODING_KEY,
+        DFSConfigKeys.DFS_BLOCKREPORT_DELTA_ENCODING_DEFAULT);
   }
 
   private static DatanodeProtocolPB createNamenode(
@@ -204,6 +217,10 @@ public DatanodeCommand blockReport(DatanodeRegistration registration,
       StorageBlockReportProto.Builder reportBuilder = StorageBlockReportProto
           .newBuilder().setStorage(PBHelper.convert(r.getStorage()));
       long[] blocks = r.getBlocks();
+      if (deltaEncodeBlockReports && nnDecodesDeltaEncoding) {
+        blocks = BlockListAsLongs.encodeDelta(blocks);
+        reportBuilder.setDeltaEncoded(true);
+      }
       for (int i = 0; i < blocks.length; i++) {
         reportBuilder.addBlocks(blocks[i]);
       }
@@ -282,8 +299,13 @@ public void errorReport(DatanodeRegistration registration, int errorCode,
   @Override
   public NamespaceInfo versionRequest() throws IOException {
     try {
-      return PBHelper.convert(rpcProxy.versionRequest(NULL_CONTROLLER,
-          VOID_VERSION_REQUEST).getInfo());
+      NamespaceInfo info = PBHelper.convert(rpcProxy.versionRequest(
+          NULL_CONTROLLER, VOID_VERSION_REQUEST).getInfo());
+      // The DataNode asks again whenever it re-registers, so a NameNode
+      // that was replaced by an older version gets plain reports.
+      nnDecodesDeltaEncoding = info.isCapabilitySupported(
+          Capability.DELTA_ENCODED_BLOCK_REPORTS);
+      return info;
     } catch (ServiceException e) {
       throw ProtobufHelper.getRemoteException(e);
     }
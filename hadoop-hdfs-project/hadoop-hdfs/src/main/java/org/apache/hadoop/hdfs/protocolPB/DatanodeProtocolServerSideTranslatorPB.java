@@ -21,6 +21,7 @@
 import java.io.IOException;
 import java.util.List;
 
+import org.apache.hadoop.hdfs.protocol.BlockListAsLongs;
 import org.apache.hadoop.hdfs.protocol.DatanodeID;
 import org.apache.hadoop.hdfs.protocol.LocatedBlock;
 import org.apache.hadoop.hdfs.protocol.RollingUpgradeStatus;
@@ -145,6 +146,13 @@ public BlockReportResponseProto blockReport(RpcController controller,
       for (int i = 0; i < blockIds.size(); i++) {
         blocks[i] = blockIds.get(i);
       }
+      if (s.getDeltaEncoded()) {
+        try {
+          blocks = BlockListAsLongs.decodeDelta(blocks);
+        } catch (IllegalArgumentException e) {
+          throw new ServiceException(e);
+        }
+      }
       report[index++] = new StorageBlockReport(PBHelper.convert(s.getStorage()),
           blocks);
     }
@@ -58,6 +58,7 @@
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo.AdminStates;
 import org.apache.hadoop.hdfs.protocol.DatanodeLocalInfo;
 import org.apache.hadoop.hdfs.protocol.DirectoryListing;
+import org.apache.hadoop.hdfs.protocol.ErasureCodingPolicy;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants.DatanodeReportType;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants.RollingUpgradeAction;
@@ -66,6 +67,7 @@
 import org.apache.hadoop.hdfs.protocol.HdfsLocatedFileStatus;
 import org.apache.hadoop.hdfs.protocol.LocatedBlock;
 import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
+import org.apache.hadoop.hdfs.protocol.LocatedStripedBlock;
 import org.apache.hadoop.hdfs.protocol.RollingUpgradeInfo;
 import org.apache.hadoop.hdfs.protocol.RollingUpgradeStatus;
 import org.apache.hadoop.hdfs.protocol.SnapshotDiffReport;
@@ -97,6 +99,8 @@
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.ShortCircuitShmIdProto;
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.BalancerBandwidthCommandProto;
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.BlockCommandProto;
+import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.BlockECReconstructionCommandProto;
+import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.BlockECReconstructionInfoProto;
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.BlockIdCommandProto;
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.BlockRecoveryCommandProto;
 import org.apache.hadoop.hdfs.protocol.proto.DatanodeProtocolProtos.DatanodeCommandProto;
@@ -129,6 +133,7 @@
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.ExtendedBlockProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.FsPermissionProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.FsServerDefaultsProto;
+import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.ErasureCodingPolicyProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.HdfsFileStatusProto;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.HdfsFileStatusProto.FileType;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.LocatedBlockProto;
@@ -164,6 +169,8 @@
 import org.apache.hadoop.hdfs.server.namenode.INodeId;
 import org.apache.hadoop.hdfs.server.protocol.BalancerBandwidthCommand;
 import org.apache.hadoop.hdfs.server.protocol.BlockCommand;
+import org.apache.hadoop.hdfs.server.protocol.BlockECReconstructionCommand;
+import org.apache.hadoop.hdfs.server.protocol.BlockECReconstructionCommand.BlockECReconstructionInfo;
 import org.apache.hadoop.hdfs.server.protocol.BlockIdCommand;
 import org.apache.hadoop.hdfs.server.protocol.BlockRecoveryCommand;
 import org.apache.hadoop.hdfs.server.protocol.BlockRecoveryCommand.RecoveringBlock;
@@ -477,7 +484,7 @@ public static NamespaceInfo convert(NamespaceInfoProto info) {
     StorageInfoProto storage = info.getStorageInfo();
     return new NamespaceInfo(storage.getNamespceID(), storage.getClusterID(),
         info.getBlockPoolID(), storage.getCTime(), info.getBuildVersion(),
-        info.getSoftwareVersion());
+        info.getSoftwareVersion(), info.getCapabilities());
   }
 
   public static NamenodeCommand convert(NamenodeCommandProto cmd) {
@@ -651,6 +658,14 @@ public static LocatedBlockProto convert(LocatedBlock b) {
       builder.addAllStorageIDs(Arrays.asList(storageIDs));
     }
 
+    if (b instanceof LocatedStripedBlock) {
+      final LocatedStripedBlock sb = (LocatedStripedBlock) b;
+      for (int i = 0; i < sb.getNumInternalBlocks(); i++) {
+        builder.addInternalBlockTokens(
+            PBHelper.convert(sb.getInternalBlockToken(i)));
+      }
+    }
+
     return builder.setB(PBHelper.convert(b.getBlock()))
         .setBlockToken(PBHelper.convert(b.getBlockToken()))
         .setCorrupt(b.isCorrupt()).setOffset(b.getStartOffset()).build();
@@ -691,6 +706,20 @@ public static LocatedBlock convert(LocatedBlockProto proto) {
       }
     }
 
+    final int internalBlockTokensCount = proto.getInternalBlockTokensCount();
+    if (internalBlockTokensCount > 0) {
+      Preconditions.checkState(internalBlockTokensCount == locs.size());
+      final LocatedStripedBlock sb = new LocatedStripedBlock(
+          PBHelper.convert(proto.getB()), targets, storageIDs, storageTypes,
+          proto.getOffset());
+      sb.setBlockToken(PBHelper.convert(proto.getBlockToken()));
+      for (int i = 0; i < internalBlockTokensCount; i++) {
+        sb.setInternalBlockToken(i,
+            PBHelper.convert(proto.getInternalBlockTokens(i)));
+      }
+      return sb;
+    }
+
     LocatedBlock lb = new LocatedBlock(PBHelper.convert(proto.getB()), targets,
         storageIDs, storageTypes, proto.getOffset(), proto.getCorrupt(),
         cachedLocs.toArray(new DatanodeInfo[0]));
@@ -786,6 +815,8 @@ public static DatanodeCommand convert(DatanodeCommandProto proto) {
       return REG_CMD;
     case BlockIdCommand:
       return PBHelper.convert(proto.getBlkIdCmd());
+    case BlockECReconstructionCommand:
+      return PBHelper.convert(proto.getBlkECReconstructionCmd());
     default:
       return null;
     }
@@ -920,6 +951,11 @@ public static DatanodeCommandProto convert(DatanodeCommand datanodeCommand) {
       builder.setCmdType(DatanodeCommandProto.Type.BlockIdCommand).
         setBlkIdCmd(PBHelper.convert((BlockIdCommand) datanodeCommand));
       break;
+    case DatanodeProtocol.DNA_ERASURE_CODING_RECONSTRUCTION:
+      builder.setCmdType(DatanodeCommandProto.Type.BlockECReconstructionCommand)
+          .setBlkECReconstructionCmd(PBHelper.convert(
+              (BlockECReconstructionCommand) datanodeCommand));
+      break;
     case DatanodeProtocol.DNA_UNKNOWN: //Not expected
     default:
       builder.setCmdType(DatanodeCommandProto.Type.NullDatanodeCommand);
@@ -1004,6 +1040,62 @@ public static BlockIdCommand convert(BlockIdCommandProto blkIdCmd) {
     return new BlockIdCommand(action, blkIdCmd.getBlockPoolId(), blockIds);
   }
 
+  public static BlockECReconstructionCommandProto convert(
+      BlockECReconstructionCommand cmd) {
+    BlockECReconstructionCommandProto.Builder builder =
+        BlockECReconstructionCommandProto.newBuilder();
+    for (BlockECReconstructionInfo info : cmd.getECTasks()) {
+      BlockECReconstructionInfoProto.Builder infoBuilder =
+          BlockECReconstructionInfoProto.newBuilder()
+          .setBlockGroup(PBHelper.convert(info.getBlockGroup()))
+          .setSources(DatanodeInfosProto.newBuilder()
+              .addAllDatanodes(PBHelper.convert(info.getSources())))
+          .setTargetIndex(info.getTargetIndex())
+          .setEcPolicy(PBHelper.convert(info.getErasureCodingPolicy()));
+      for (int index : info.getLiveBlockIndices()) {
+        infoBuilder.addLiveBlockIndices(index);
+      }
+      builder.addBlocks(infoBuilder.build());
+    }
+    return builder.build();
+  }
+
+  public static BlockECReconstructionCommand convert(
+      BlockECReconstructionCommandProto cmdProto) {
+    List<BlockECReconstructionInfo> infos =
+        new ArrayList<BlockECReconstructionInfo>(cmdProto.getBlocksCount());
+    for (BlockECReconstructionInfoProto proto : cmdProto.getBlocksList()) {
+      int[] liveBlockIndices = new int[proto.getLiveBlockIndicesCount()];
+      for (int i = 0; i < liveBlockIndices.length; i++) {
+        liveBlockIndices[i] = proto.getLiveBlockIndices(i);
+      }
+      infos.add(new BlockECReconstructionInfo(
+          PBHelper.convert(proto.getBlockGroup()),
+          PBHelper.convert(proto.getSources()), liveBlockIndices,
+          proto.getTargetIndex(), PBHelper.convert(proto.getEcPolicy())));
+    }
+    return new BlockECReconstructionCommand(
+        DatanodeProtocol.DNA_ERASURE_CODING_RECONSTRUCTION, infos);
+  }
+
+  public static ErasureCodingPolicyProto convert(ErasureCodingPolicy p) {
+    return ErasureCodingPolicyProto.newBuilder()
+        .setName(p.getName())
+        .setId(p.getId())
+        .setNumDataUnits(p.getNumDataUnits())
+        .setNumParityUnits(p.getNumParityUnits())
+        .setCellSize(p.getCellSize()).build();
+  }
+
+  public static ErasureCodingPolicy convert(ErasureCodingPolicyProto proto) {
+    final ErasureCodingPolicy p = new ErasureCodingPolicy(proto.getName(),
+        (byte) proto.getId(), proto.getNumDataUnits(),
+        proto.getNumParityUnits(), proto.getCellSize());
+    final ErasureCodingPolicy system = ErasureCodingPolicy.getSystemPolicy(
+        p.getId());
+    return p.equals(system) ? system : p;
+  }
+
   public static DatanodeInfo[] convert(DatanodeInfosProto datanodeInfosProto) {
     List<DatanodeInfoProto> proto = datanodeInfosProto.getDatanodesList();
     DatanodeInfo[] infos = new DatanodeInfo[proto.size()];
@@ -1073,7 +1165,8 @@ public static NamespaceInfoProto convert(NamespaceInfo info) {
         .setBuildVersion(info.getBuildVersion())
         .setUnused(0)
         .setStorageInfo(PBHelper.convert((StorageInfo)info))
-        .setSoftwareVersion(info.getSoftwareVersion()).build();
+        .setSoftwareVersion(info.getSoftwareVersion())
+        .setCapabilities(info.getCapabilities()).build();
   }
   
   // Located Block Arrays and Lists
@@ -1118,7 +1211,8 @@ public static LocatedBlocks convert(LocatedBlocksProto lb) {
         lb.getFileLength(), lb.getUnderConstruction(),
         PBHelper.convertLocatedBlock(lb.getBlocksList()),
         lb.hasLastBlock() ? PBHelper.convert(lb.getLastBlock()) : null,
-        lb.getIsLastBlockComplete());
+        lb.getIsLastBlockComplete(),
+        lb.hasEcPolicy() ? PBHelper.convert(lb.getEcPolicy()) : null);
   }
   
   public static LocatedBlocksProto convert(LocatedBlocks lb) {
@@ -1130,6 +1224,9 @@ public static LocatedBlocksProto convert(LocatedBlocks lb) {
     if (lb.getLastLocatedBlock() != null) {
       builder.setLastBlock(PBHelper.convert(lb.getLastLocatedBlock()));
     }
+    if (lb.getErasureCodingPolicy() != null) {
+      builder.setEcPolicy(PBHelper.convert(lb.getErasureCodingPolicy()));
+    }
     return builder.setFileLength(lb.getFileLength())
         .setUnderConstruction(lb.isUnderConstruction())
         .addAllBlocks(PBHelper.convertLocatedBlock2(lb.getLocatedBlocks()))
@@ -1257,7 +1354,8 @@ public static HdfsFileStatus convert(HdfsFileStatusProto fs) {
         fs.getPath().toByteArray(),
         fs.hasFileId()? fs.getFileId(): INodeId.GRANDFATHER_INODE_ID,
         fs.hasLocations() ? PBHelper.convert(fs.getLocations()) : null,
-        fs.hasChildrenNum() ? fs.getChildrenNum() : -1);
+        fs.hasChildrenNum() ? fs.getChildrenNum() : -1,
+        fs.hasEcPolicy() ? PBHelper.convert(fs.getEcPolicy()) : null);
   }
 
   public static SnapshottableDirectoryStatus convert(
@@ -1307,6 +1405,9 @@ public static HdfsFileStatusProto convert(HdfsFileStatus fs) {
     if (fs.isSymlink())  {
       builder.setSymlink(ByteString.copyFrom(fs.getSymlinkInBytes()));
     }
+    if (fs.getErasureCodingPolicy() != null) {
+      builder.setEcPolicy(PBHelper.convert(fs.getErasureCodingPolicy()));
+    }
     if (fs instanceof HdfsLocatedFileStatus) {
       LocatedBlocks locations = ((HdfsLocatedFileStatus)fs).getBlockLocations();
       if (locations != null) {
@@ -1650,7 +1751,8 @@ public static StorageReportProto convert(StorageReport r) {
         .setBlockPoolUsed(r.getBlockPoolUsed()).setCapacity(r.getCapacity())
         .setDfsUsed(r.getDfsUsed()).setRemaining(r.getRemaining())
         .setStorageUuid(r.getStorage().getStorageID())
-        .setStorage(convert(r.getStorage()));
+        .setStorage(convert(r.getStorage()))
+        .setSlow(r.isSlow());
     return builder.build();
   }
 
@@ -1660,7 +1762,7 @@ public static StorageReport convert(StorageReportProto p) {
             convert(p.getStorage()) :
             new DatanodeStorage(p.getStorageUuid()),
         p.getFailed(), p.getCapacity(), p.getDfsUsed(), p.getRemaining(),
-        p.getBlockPoolUsed());
+        p.getBlockPoolUsed(), p.getSlow());
   }
 
   public static StorageReport[] convertStorageReports(
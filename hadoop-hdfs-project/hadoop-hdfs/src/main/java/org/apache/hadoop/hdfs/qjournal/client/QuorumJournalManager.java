@@ -21,6 +21,7 @@
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -35,6 +36,7 @@
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.DFSUtil;
+import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournaledEditsResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournalStateResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.NewEpochResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.PrepareRecoveryResponseProto;
@@ -77,6 +79,10 @@ public class QuorumJournalManager implements JournalManager {
   private final int newEpochTimeoutMs;
   private final int writeTxnsTimeoutMs;
 
+  // The number of transactions to read from each JournalNode at most when
+  // tailing the in-progress segment over RPC.
+  private final int maxTxnsPerRpc;
+
   // Since these don't occur during normal operation, we can
   // use rather lengthy timeouts, and don't need to make them
   // configurable.
@@ -142,6 +148,9 @@ public QuorumJournalManager(Configuration conf,
     this.writeTxnsTimeoutMs = conf.getInt(
         DFSConfigKeys.DFS_QJOURNAL_WRITE_TXNS_TIMEOUT_KEY,
         DFSConfigKeys.DFS_QJOURNAL_WRITE_TXNS_TIMEOUT_DEFAULT);
+    this.maxTxnsPerRpc = conf.getInt(
+        DFSConfigKeys.DFS_QJOURNAL_TAIL_EDITS_MAX_TXNS_KEY,
+        DFSConfigKeys.DFS_QJOURNAL_TAIL_EDITS_MAX_TXNS_DEFAULT);
   }
   
   protected List<AsyncLogger> createLoggers(
@@ -465,6 +474,38 @@ public void close() throws IOException {
   @Override
   public void selectInputStreams(Collection<EditLogInputStream> streams,
       long fromTxnId, boolean inProgressOk) throws IOException {
+    selectInputStreams(streams, fromTxnId, inProgressOk, false);
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * If both inProgressOk and onlyDurableTxns are set, the edits are read
+   * over RPC from the in-memory caches of the JournalNodes instead of from
+   * their edit log files, and only the transactions that a majority of the
+   * JournalNodes have written are returned, since only these are sure to
+   * survive a recovery of the segment. If that fails, e.g. because the
+   * transactions are no longer cached, only the finalized segments are
+   * selected.
+   *
+   * @param onlyDurableTxns whether to only return the transactions that
+   *        have been written to a majority of the JournalNodes
+   */
+  @Override
+  public void selectInputStreams(Collection<EditLogInputStream> streams,
+      long fromTxnId, boolean inProgressOk, boolean onlyDurableTxns)
+      throws IOException {
+    if (inProgressOk && onlyDurableTxns) {
+      try {
+        selectRpcInputStreams(streams, fromTxnId);
+        return;
+      } catch (IOException ioe) {
+        LOG.info("Could not read the edits from txid " + fromTxnId +
+            " from the caches of the JournalNodes, reading the finalized " +
+            "segments instead: " + ioe);
+      }
+      inProgressOk = false;
+    }
 
     QuorumCall<AsyncLogger, RemoteEditLogManifest> q =
         loggers.getEditLogManifest(fromTxnId, inProgressOk);
@@ -493,6 +534,61 @@ public void selectInputStreams(Collection<EditLogInputStream> streams,
     }
     JournalSet.chainAndMakeRedundantStreams(streams, allStreams, fromTxnId);
   }
+
+  /**
+   * Select the durable edits starting at the given transaction from the
+   * in-memory caches of the JournalNodes.
+   */
+  private void selectRpcInputStreams(Collection<EditLogInputStream> streams,
+      long fromTxnId) throws IOException {
+    QuorumCall<AsyncLogger, GetJournaledEditsResponseProto> q =
+        loggers.getJournaledEdits(fromTxnId, maxTxnsPerRpc);
+    Map<AsyncLogger, GetJournaledEditsResponseProto> responseMap =
+        loggers.waitForWriteQuorum(q, selectInputStreamsTimeoutMs,
+            "selectRpcInputStreams");
+    assert responseMap.size() >= loggers.getMajoritySize() :
+        "Quorum call returned without a majority";
+
+    // A transaction is durable once a majority of the JournalNodes have it,
+    // so the number of durable transactions is the largest count that a
+    // majority of the responses reach.
+    List<Integer> responseCounts = new ArrayList<Integer>();
+    for (GetJournaledEditsResponseProto resp : responseMap.values()) {
+      responseCounts.add(resp.getTxnCount());
+    }
+    Collections.sort(responseCounts);
+    if (LOG.isDebugEnabled()) {
+      StringBuilder sb = new StringBuilder();
+      for (Map.Entry<AsyncLogger, GetJournaledEditsResponseProto> e :
+          responseMap.entrySet()) {
+        sb.append("\n").append(e.getKey()).append(": ")
+            .append(e.getValue().getTxnCount()).append(" txns");
+      }
+      LOG.debug("getJournaledEdits(" + fromTxnId + ") responses:" + sb);
+    }
+    int maxAllowedTxns = responseCounts.get(
+        responseCounts.size() - loggers.getMajoritySize());
+    if (maxAllowedTxns == 0) {
+      LOG.debug("No new edits available in the caches of the JournalNodes; " +
+          "returning without a stream");
+      return;
+    }
+
+    final PriorityQueue<EditLogInputStream> allStreams =
+        new PriorityQueue<EditLogInputStream>(64,
+            JournalSet.EDIT_LOG_INPUT_STREAM_COMPARATOR);
+    for (GetJournaledEditsResponseProto resp : responseMap.values()) {
+      if (resp.getTxnCount() < maxAllowedTxns) {
+        continue;
+      }
+      // The stream ends at the last durable transaction, even if this
+      // JournalNode has more.
+      allStreams.add(EditLogFileInputStream.fromByteString(
+          resp.getEditLog(), fromTxnId, fromTxnId + maxAllowedTxns - 1,
+          true));
+    }
+    JournalSet.chainAndMakeRedundantStreams(streams, allStreams, fromTxnId);
+  }
   
   @Override
   public String toString() {
@@ -33,11 +33,13 @@
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.qjournal.protocol.JournalNotFormattedException;
 import org.apache.hadoop.hdfs.qjournal.protocol.JournalOutOfSyncException;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocol;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos;
+import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.GetJournaledEditsResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.NewEpochResponseProto;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.PersistedRecoveryPaxosData;
 import org.apache.hadoop.hdfs.qjournal.protocol.QJournalProtocolProtos.PrepareRecoveryResponseProto;
@@ -56,6 +58,7 @@
 import org.apache.hadoop.hdfs.util.AtomicFileOutputStream;
 import org.apache.hadoop.hdfs.util.BestEffortLongFile;
 import org.apache.hadoop.hdfs.util.PersistentLongFile;
+import org.apache.hadoop.io.DataOutputBuffer;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.ipc.Server;
 import org.apache.hadoop.security.SecurityUtil;
@@ -68,6 +71,7 @@
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Range;
 import com.google.common.collect.Ranges;
+import com.google.protobuf.ByteString;
 import com.google.protobuf.TextFormat;
 
 /**
@@ -82,6 +86,7 @@ public class Journal implements Closeable {
   // Current writing state
   private EditLogOutputStream curSegment;
   private long curSegmentTxId = HdfsConstants.INVALID_TXID;
+  private int curSegmentLayoutVersion = 0;
   private long nextTxId = HdfsConstants.INVALID_TXID;
   private long highestWrittenTxId = 0;
   
@@ -130,6 +135,8 @@ public class Journal implements Closeable {
   
   private final FileJournalManager fjm;
 
+  private final JournaledEditsCache cache;
+
   private final JournalMetrics metrics;
 
   /**
@@ -145,6 +152,10 @@ public class Journal implements Closeable {
     refreshCachedData();
     
     this.fjm = storage.getJournalManager();
+
+    this.cache = new JournaledEditsCache(conf.getInt(
+        DFSConfigKeys.DFS_JOURNALNODE_EDIT_CACHE_SIZE_KEY,
+        DFSConfigKeys.DFS_JOURNALNODE_EDIT_CACHE_SIZE_DEFAULT));
     
     this.metrics = JournalMetrics.create(this);
     
@@ -215,6 +226,7 @@ void format(NamespaceInfo nsInfo) throws IOException {
         nsInfo);
     storage.format(nsInfo);
     refreshCachedData();
+    cache.clear();
   }
 
   /**
@@ -320,6 +332,9 @@ private void updateLastPromisedEpoch(long newEpoch) throws IOException {
   }
 
   private void abortCurSegment() throws IOException {
+    // The edits of an aborted segment may be rewritten differently, e.g. by
+    // a recovery.
+    cache.clear();
     if (curSegment == null) {
       return;
     }
@@ -392,6 +407,9 @@ synchronized void journal(RequestInfo reqInfo,
     metrics.batchesWritten.incr(1);
     metrics.bytesWritten.incr(records.length);
     metrics.txnsWritten.incr(numTxns);
+
+    cache.storeEdits(records, segmentTxId, firstTxnId, lastTxnId,
+        curSegmentLayoutVersion);
     
     highestWrittenTxId = lastTxnId;
     nextTxId = lastTxnId + 1;
@@ -541,6 +559,7 @@ public synchronized void startLogSegment(RequestInfo reqInfo, long txid,
     
     curSegment = fjm.startLogSegment(txid, layoutVersion);
     curSegmentTxId = txid;
+    curSegmentLayoutVersion = layoutVersion;
     nextTxId = txid;
   }
   
@@ -656,6 +675,34 @@ public RemoteEditLogManifest getEditLogManifest(long sinceTxId,
     return new RemoteEditLogManifest(logs);
   }
 
+  /**
+   * @see QJournalProtocol#getJournaledEdits(String, long, int)
+   */
+  public GetJournaledEditsResponseProto getJournaledEdits(long sinceTxId,
+      int maxTxns) throws IOException {
+    // Like the manifest, anyone may read the edits, and they are served
+    // from the cache without holding the lock of the journal.
+    checkFormatted();
+
+    DataOutputBuffer out = new DataOutputBuffer();
+    int numTxns;
+    try {
+      numTxns = cache.retrieveEdits(sinceTxId, maxTxns, out);
+    } catch (JournaledEditsCache.CacheMissException cme) {
+      metrics.editCacheMisses.incr();
+      throw cme;
+    }
+    metrics.txnsServedFromCache.incr(numTxns);
+
+    GetJournaledEditsResponseProto.Builder builder =
+        GetJournaledEditsResponseProto.newBuilder().setTxnCount(numTxns);
+    if (numTxns > 0) {
+      builder.setEditLog(ByteString.copyFrom(out.getData(), 0,
+          out.getLength()));
+    }
+    return builder.build();
+  }
+
   /**
    * @return the current state of the given segment, or null if the
    * segment does not exist.
@@ -1035,11 +1082,13 @@ public Boolean canRollBack(StorageInfo storage, StorageInfo prevStorage,
   }
 
   public void doRollback() throws IOException {
+    cache.clear();
     storage.getJournalManager().doRollback();
   }
 
   synchronized void discardSegments(long startTxId) throws IOException {
     storage.getJournalManager().discardSegments(startTxId);
+    cache.clear();
     // we delete all the segments after the startTxId. let's reset committedTxnId 
     committedTxnId.set(startTxId - 1);
   }
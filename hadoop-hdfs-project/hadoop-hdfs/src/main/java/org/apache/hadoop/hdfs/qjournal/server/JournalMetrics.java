@@ -45,6 +45,12 @@ class JournalMetrics {
   
   @Metric("Number of batches written where this node was lagging")
   MutableCounterLong batchesWrittenWhileLagging;
+
+  @Metric("Number of requests for edits that were not in the cache")
+  MutableCounterLong editCacheMisses;
+
+  @Metric("Number of txns served from the cache since startup")
+  MutableCounterLong txnsServedFromCache;
   
   private final int[] QUANTILE_INTERVALS = new int[] {
       1*60, // 1m
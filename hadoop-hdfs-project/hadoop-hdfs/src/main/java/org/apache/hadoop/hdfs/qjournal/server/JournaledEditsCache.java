@@ -0,0 +1,194 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.qjournal.server;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.apache.hadoop.hdfs.server.namenode.EditLogFileOutputStream;
+
+/**
+ * An in-memory cache of the most recent edits written to a {@link Journal},
+ * from which a reader can tail the in-progress segment over RPC without
+ * reading the edit log files.
+ *
+ * The edits are kept as the serialized batches that the writer sent, keyed by
+ * the ID of their first transaction. The batches in the cache are always
+ * contiguous and of the same layout version, but may span several segments;
+ * the oldest ones are evicted once the cache holds more than its capacity in
+ * bytes. The edits of one retrieval never span two segments, so that a
+ * reader sees the same segment boundaries as in the edit log files.
+ */
+class JournaledEditsCache {
+
+  /** Thrown when the requested transactions are not in the cache. */
+  static class CacheMissException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    CacheMissException(String msg) {
+      super(msg);
+    }
+  }
+
+  /** A batch of serialized edits, as written by the writer. */
+  private static class Batch {
+    private final long segmentTxId;
+    private final long firstTxId;
+    private final long lastTxId;
+    private final byte[] data;
+
+    Batch(long segmentTxId, long firstTxId, long lastTxId, byte[] data) {
+      this.segmentTxId = segmentTxId;
+      this.firstTxId = firstTxId;
+      this.lastTxId = lastTxId;
+      this.data = data;
+    }
+  }
+
+  private final int capacity;
+  private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+  /** The cached batches, keyed by the ID of their first transaction. */
+  private final TreeMap<Long, Batch> batches = new TreeMap<Long, Batch>();
+  /** The number of bytes of edits in the cache. */
+  private int size = 0;
+  /** The ID of the last transaction stored, even if it has been evicted. */
+  private long highestTxId = HdfsConstants.INVALID_TXID;
+  /** The layout version of the cached edits. */
+  private int layoutVersion = Integer.MAX_VALUE;
+
+  /**
+   * @param capacity the number of bytes of edits to cache at most
+   */
+  JournaledEditsCache(int capacity) {
+    this.capacity = capacity;
+  }
+
+  /**
+   * Store a batch of edits that has been written to the journal. If the batch
+   * does not follow the previous one, or has another layout version, the
+   * cache is cleared first.
+   *
+   * @param data the serialized edits
+   * @param segmentTxId the ID of the first transaction of the segment
+   * @param firstTxId the ID of the first transaction in the batch
+   * @param lastTxId the ID of the last transaction in the batch
+   * @param newLayoutVersion the layout version of the segment of the batch
+   */
+  void storeEdits(byte[] data, long segmentTxId, long firstTxId,
+      long lastTxId, int newLayoutVersion) {
+    lock.writeLock().lock();
+    try {
+      if (newLayoutVersion != layoutVersion ||
+          highestTxId == HdfsConstants.INVALID_TXID ||
+          firstTxId != highestTxId + 1) {
+        batches.clear();
+        size = 0;
+        layoutVersion = newLayoutVersion;
+      }
+      highestTxId = lastTxId;
+      if (data.length > capacity) {
+        // This batch alone does not fit: it only marks where the next one
+        // must start.
+        batches.clear();
+        size = 0;
+        return;
+      }
+      batches.put(firstTxId,
+          new Batch(segmentTxId, firstTxId, lastTxId, data));
+      size += data.length;
+      while (size > capacity) {
+        size -= batches.pollFirstEntry().getValue().data.length;
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Write the cached edits starting from the given transaction, preceded by
+   * the edit log header of their layout version. The edits are written by
+   * whole batches, so the first batch may start before the given transaction
+   * and the number of transactions may exceed the given maximum by part of a
+   * batch. Only the edits of the segment of the given transaction are
+   * written.
+   *
+   * @param sinceTxId the ID of the first transaction to return
+   * @param maxTxns the number of transactions to return at least, if cached
+   * @param out where to write the edits
+   * @return the number of transactions from sinceTxId that were written; 0 if
+   *         the cache has no newer transactions, in which case nothing is
+   *         written
+   * @throws CacheMissException if the transaction is older than the cache
+   */
+  int retrieveEdits(long sinceTxId, int maxTxns, DataOutputStream out)
+      throws IOException {
+    lock.readLock().lock();
+    try {
+      if (highestTxId == HdfsConstants.INVALID_TXID) {
+        throw new CacheMissException("No edits have been cached");
+      }
+      if (sinceTxId > highestTxId) {
+        return 0;
+      }
+      Map.Entry<Long, Batch> first = batches.floorEntry(sinceTxId);
+      if (first == null) {
+        throw new CacheMissException("Transaction " + sinceTxId +
+            " is older than the cached edits" + (batches.isEmpty() ? "" :
+            ", which start at " + batches.firstKey()));
+      }
+      EditLogFileOutputStream.writeHeader(layoutVersion, out);
+      int numTxns = 0;
+      final long segmentTxId = first.getValue().segmentTxId;
+      for (Batch batch : batches.tailMap(first.getKey(), true).values()) {
+        if (batch.segmentTxId != segmentTxId) {
+          break;
+        }
+        out.write(batch.data);
+        numTxns += batch.lastTxId - Math.max(sinceTxId, batch.firstTxId) + 1;
+        if (numTxns >= maxTxns) {
+          break;
+        }
+      }
+      return numTxns;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Forget all the cached edits, e.g. because the segment being written has
+   * been aborted and its edits may be rewritten differently.
+   */
+  void clear() {
+    lock.writeLock().lock();
+    try {
+      batches.clear();
+      size = 0;
+      highestTxId = HdfsConstants.INVALID_TXID;
+      layoutVersion = Integer.MAX_VALUE;
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+}
@@ -21,6 +21,7 @@
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.fs.ContentSummary;
+import org.apache.hadoop.hdfs.protocol.ErasureCodingPolicy;
 
 /** 
  * This interface is used by the block manager to expose a
@@ -81,4 +82,11 @@ public BlockInfoUnderConstruction setLastBlock(BlockInfo lastBlock,
    * @return whether the block collection is under construction.
    */
   public boolean isUnderConstruction();
+
+  /**
+   * @return the erasure coding policy of the collection, or null if its
+   *         blocks are replicated. The blocks of an erasure coded collection
+   *         are the internal blocks of its block groups, in unit order.
+   */
+  public ErasureCodingPolicy getErasureCodingPolicy();
 }
@@ -35,6 +35,10 @@
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
@@ -51,9 +55,11 @@
 import org.apache.hadoop.hdfs.protocol.BlockListAsLongs.BlockReportIterator;
 import org.apache.hadoop.hdfs.protocol.DatanodeID;
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+import org.apache.hadoop.hdfs.protocol.ErasureCodingPolicy;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.protocol.LocatedBlock;
 import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
+import org.apache.hadoop.hdfs.protocol.LocatedStripedBlock;
 import org.apache.hadoop.hdfs.protocol.UnregisteredNodeException;
 import org.apache.hadoop.hdfs.security.token.block.BlockTokenSecretManager;
 import org.apache.hadoop.hdfs.security.token.block.BlockTokenSecretManager.AccessMode;
@@ -69,6 +75,7 @@
 import org.apache.hadoop.hdfs.server.namenode.Namesystem;
 import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
 import org.apache.hadoop.hdfs.server.protocol.BlockCommand;
+import org.apache.hadoop.hdfs.server.protocol.BlockECReconstructionCommand.BlockECReconstructionInfo;
 import org.apache.hadoop.hdfs.server.protocol.BlocksWithLocations;
 import org.apache.hadoop.hdfs.server.protocol.BlocksWithLocations.BlockWithLocations;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeCommand;
@@ -78,6 +85,7 @@
 import org.apache.hadoop.hdfs.server.protocol.ReceivedDeletedBlockInfo;
 import org.apache.hadoop.hdfs.server.protocol.StorageReceivedDeletedBlocks;
 import org.apache.hadoop.hdfs.util.LightWeightLinkedSet;
+import org.apache.hadoop.hdfs.util.StripedBlockUtil;
 import org.apache.hadoop.net.Node;
 import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.hadoop.util.Daemon;
@@ -86,7 +94,10 @@
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 /**
  * Keeps information related to the blocks stored in the Hadoop cluster.
@@ -116,6 +127,15 @@ public class BlockManager {
   private volatile long corruptReplicaBlocksCount = 0L;
   private volatile long underReplicatedBlocksCount = 0L;
   private volatile long scheduledReplicationBlocksCount = 0L;
+  /**
+   * Blocks per second by which the under-replicated blocks decreased over the
+   * last sampling window; negative if they increased.
+   */
+  private volatile long underReplicatedBlocksDrainRate = 0L;
+  /** The window over which the drain rate is sampled. */
+  private static final long DRAIN_RATE_WINDOW_MS = 60 * 1000L;
+  private long drainRateSampleTime = 0L;
+  private long drainRateSampleCount = 0L;
   private AtomicLong excessBlocksCount = new AtomicLong(0L);
   private AtomicLong postponedMisreplicatedBlocksCount = new AtomicLong(0L);
   
@@ -136,6 +156,10 @@ public long getScheduledReplicationBlocksCount() {
     return scheduledReplicationBlocksCount;
   }
   /** Used by metrics */
+  public long getUnderReplicatedBlocksDrainRate() {
+    return underReplicatedBlocksDrainRate;
+  }
+  /** Used by metrics */
   public long getPendingDeletionBlocksCount() {
     return invalidateBlocks.numBlocks();
   }
@@ -216,6 +240,13 @@ public int getPendingDataNodeMessageCount() {
 
   final float blocksInvalidateWorkPct;
   final int blocksReplWorkMultiplier;
+  /** Whether to scale the replication work with the free replication streams */
+  final boolean adaptiveReplWork;
+  /** Number of blocks of replication work processed per write lock hold */
+  final int replWorkBlocksPerLock;
+  /** Chooses the replication targets in parallel; null to choose serially */
+  private final ExecutorService replWorkExecutor;
+  private final int replWorkThreads;
 
   /** variable to enable check for enough racks */
   final boolean shouldCheckForEnoughRacks;
@@ -245,6 +276,13 @@ public int getPendingDataNodeMessageCount() {
    * processed again after aquiring lock again.
    */
   private int numBlocksPerIteration;
+  /**
+   * Number of replicas of an initial block report to process per namesystem
+   * write lock hold. The lock is released and re-acquired between batches
+   * so that a storm of initial reports does not stall the namenode. A
+   * non-positive value processes each report under a single lock hold.
+   */
+  private final int initialBlockReportBatchSize;
   /**
    * Progress of the Replication queues initialisation.
    */
@@ -314,6 +352,27 @@ public BlockManager(final Namesystem namesystem, final FSClusterStats stats,
 
     this.blocksInvalidateWorkPct = DFSUtil.getInvalidateWorkPctPerIteration(conf);
     this.blocksReplWorkMultiplier = DFSUtil.getReplWorkMultiplier(conf);
+    this.adaptiveReplWork = conf.getBoolean(
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_ADAPTIVE_KEY,
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_ADAPTIVE_DEFAULT);
+    this.replWorkBlocksPerLock = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_BLOCKS_PER_LOCK_KEY,
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_BLOCKS_PER_LOCK_DEFAULT);
+    Preconditions.checkArgument(replWorkBlocksPerLock > 0,
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_BLOCKS_PER_LOCK_KEY +
+        " must be positive");
+    this.replWorkThreads = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_THREADS_KEY,
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_THREADS_DEFAULT);
+    Preconditions.checkArgument(replWorkThreads > 0,
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_THREADS_KEY +
+        " must be positive");
+    this.replWorkExecutor = replWorkThreads == 1 ? null :
+        Executors.newFixedThreadPool(replWorkThreads,
+            new ThreadFactoryBuilder()
+                .setDaemon(true)
+                .setNameFormat("ReplicationWork-%d")
+                .build());
 
     this.replicationRecheckInterval = 
       conf.getInt(DFSConfigKeys.DFS_NAMENODE_REPLICATION_INTERVAL_KEY, 
@@ -329,15 +388,20 @@ public BlockManager(final Namesystem namesystem, final FSClusterStats stats,
     this.numBlocksPerIteration = conf.getInt(
         DFSConfigKeys.DFS_BLOCK_MISREPLICATION_PROCESSING_LIMIT,
         DFSConfigKeys.DFS_BLOCK_MISREPLICATION_PROCESSING_LIMIT_DEFAULT);
+    this.initialBlockReportBatchSize = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_INITIAL_BLOCK_REPORT_BATCH_SIZE_KEY,
+        DFSConfigKeys.DFS_NAMENODE_INITIAL_BLOCK_REPORT_BATCH_SIZE_DEFAULT);
     
     LOG.info("defaultReplication         = " + defaultReplication);
     LOG.info("maxReplication             = " + maxReplication);
     LOG.info("minReplication             = " + minReplication);
     LOG.info("maxReplicationStreams      = " + maxReplicationStreams);
+    LOG.info("replicationWorkThreads     = " + replWorkThreads);
     LOG.info("shouldCheckForEnoughRacks  = " + shouldCheckForEnoughRacks);
     LOG.info("replicationRecheckInterval = " + replicationRecheckInterval);
     LOG.info("encryptDataTransfer        = " + encryptDataTransfer);
     LOG.info("maxNumBlocksToLog          = " + maxNumBlocksToLog);
+    LOG.info("initialBlockReportBatchSize = " + initialBlockReportBatchSize);
   }
 
   private static BlockTokenSecretManager createBlockTokenSecretManager(
@@ -429,6 +493,9 @@ public void close() {
       }
     } catch (InterruptedException ie) {
     }
+    if (replWorkExecutor != null) {
+      replWorkExecutor.shutdownNow();
+    }
     datanodeManager.close();
     pendingReplications.stop();
     blocksMap.close();
@@ -602,6 +669,83 @@ public boolean commitOrCompleteLastBlock(BlockCollection bc,
     return b;
   }
 
+  /**
+   * Commit the last block group of an erasure coded file. Each internal
+   * block is committed with the length the striped layout gives it for the
+   * group length the client reported, and is completed if it has the
+   * minimum number of replicas. Once enough internal blocks are complete to
+   * read the group, the others are completed as well and left to
+   * reconstruction.
+   *
+   * @param bc block collection
+   * @param commitGroup the first internal block of the group, with the
+   *                    client reported group length and generation stamp
+   * @return true if the group is changed to committed state.
+   * @throws IOException if the group is inconsistent with the file
+   */
+  public boolean commitOrCompleteLastBlockGroup(BlockCollection bc,
+      Block commitGroup) throws IOException {
+    if (commitGroup == null)
+      return false; // not committing, this is a block allocation retry
+    final ErasureCodingPolicy ecPolicy = bc.getErasureCodingPolicy();
+    final int numUnits = ecPolicy.getNumUnits();
+    final BlockInfo[] blocks = bc.getBlocks();
+    if (blocks == null || blocks.length < numUnits)
+      return false; // no block groups in file yet
+    final int first = blocks.length - numUnits;
+    if (blocks[first].getBlockId() != commitGroup.getBlockId()) {
+      throw new IOException("Trying to commit inconsistent block group: id = "
+          + commitGroup.getBlockId() + ", expected id = "
+          + blocks[first].getBlockId());
+    }
+
+    boolean committed = false;
+    int numComplete = 0;
+    for (int unit = 0; unit < numUnits; unit++) {
+      final BlockInfo b = blocks[first + unit];
+      if (b.isComplete()) {
+        numComplete++;
+        continue;
+      }
+      final long length = StripedBlockUtil.getInternalBlockLength(
+          commitGroup.getNumBytes(), ecPolicy, unit);
+      committed |= commitBlock((BlockInfoUnderConstruction)b,
+          new Block(b.getBlockId(), length, commitGroup.getGenerationStamp()));
+      if (countNodes(b).liveReplicas() >= minReplication) {
+        completeBlock(bc, first + unit, false);
+        numComplete++;
+      }
+    }
+    if (numComplete >= ecPolicy.getNumDataUnits()) {
+      completeBlockGroup(bc, first, true);
+    }
+    return committed;
+  }
+
+  /**
+   * Complete every internal block of the block group at the given index of
+   * an erasure coded file. The forced internal blocks are queued for
+   * reconstruction.
+   *
+   * @throws IOException if force is false and an internal block does not
+   * have the minimum number of replicas or has not been committed.
+   */
+  public void completeBlockGroup(final BlockCollection bc,
+      final int first, boolean force) throws IOException {
+    final int numUnits = bc.getErasureCodingPolicy().getNumUnits();
+    for (int idx = first; idx < first + numUnits; idx++) {
+      if (bc.getBlocks()[idx].isComplete()) {
+        continue;
+      }
+      final BlockInfo b = completeBlock(bc, idx, force);
+      final NumberReplicas n = countNodes(b);
+      if (isNeededReplication(b, bc.getBlockReplication(), n.liveReplicas())) {
+        neededReplications.add(b, n.liveReplicas(),
+            n.decommissionedReplicas(), bc.getBlockReplication());
+      }
+    }
+  }
+
   /**
    * Convert a specified block of the file to a complete block.
    * @param bc file
@@ -833,6 +977,59 @@ private LocatedBlock createLocatedBlock(final BlockInfo blk, final long pos
     return new LocatedBlock(eb, machines, pos, isCorrupt);
   }
 
+  /**
+   * Create a LocatedBlocks for a file with the given erasure coding policy,
+   * or for a replicated file if it is null. The blocks of an erasure coded
+   * file are listed group by group, every internal block in unit order
+   * with the offset of its group, up to the first group still being
+   * written.
+   */
+  public LocatedBlocks createLocatedBlocks(final BlockInfo[] blocks,
+      final long fileSizeExcludeBlocksUnderConstruction,
+      final boolean isFileUnderConstruction, final long offset,
+      final long length, final boolean needBlockToken, final boolean inSnapshot,
+      final ErasureCodingPolicy ecPolicy) throws IOException {
+    if (ecPolicy == null) {
+      return createLocatedBlocks(blocks, fileSizeExcludeBlocksUnderConstruction,
+          isFileUnderConstruction, offset, length, needBlockToken, inSnapshot);
+    }
+    assert namesystem.hasReadLock();
+    if (blocks == null) {
+      return null;
+    }
+    final AccessMode mode = needBlockToken? AccessMode.READ: null;
+    final int numUnits = ecPolicy.getNumUnits();
+    final long endOff = offset + length;
+    final List<LocatedBlock> locatedblocks = new ArrayList<LocatedBlock>();
+    long groupStart = 0;
+    for (int first = 0; first + numUnits <= blocks.length
+        && groupStart < fileSizeExcludeBlocksUnderConstruction;
+        first += numUnits) {
+      long groupLength = 0;
+      boolean readable = true;
+      for (int unit = 0; unit < numUnits; unit++) {
+        final BlockInfo b = blocks[first + unit];
+        readable &= b.getBlockUCState() == BlockUCState.COMPLETE
+            || b.getBlockUCState() == BlockUCState.COMMITTED;
+        if (unit < ecPolicy.getNumDataUnits()) {
+          groupLength += b.getNumBytes();
+        }
+      }
+      if (!readable) {
+        break;
+      }
+      if (groupStart + groupLength > offset && groupStart < endOff) {
+        for (int unit = 0; unit < numUnits; unit++) {
+          locatedblocks.add(
+              createLocatedBlock(blocks[first + unit], groupStart, mode));
+        }
+      }
+      groupStart += groupLength;
+    }
+    return new LocatedBlocks(fileSizeExcludeBlocksUnderConstruction,
+        isFileUnderConstruction, locatedblocks, null, true, ecPolicy);
+  }
+
   /** Create a LocatedBlocks. */
   public LocatedBlocks createLocatedBlocks(final BlockInfo[] blocks,
       final long fileSizeExcludeBlocksUnderConstruction,
@@ -884,9 +1081,17 @@ public void setBlockToken(final LocatedBlock b,
       final BlockTokenSecretManager.AccessMode mode) throws IOException {
     if (isBlockTokenEnabled()) {
       // Use cached UGI if serving RPC calls.
+      final String user = NameNode.getRemoteUser().getShortUserName();
       b.setBlockToken(blockTokenSecretManager.generateToken(
-          NameNode.getRemoteUser().getShortUserName(),
-          b.getBlock(), EnumSet.of(mode)));
+          user, b.getBlock(), EnumSet.of(mode)));
+      if (b instanceof LocatedStripedBlock) {
+        final LocatedStripedBlock group = (LocatedStripedBlock)b;
+        for (int unit = 0; unit < group.getNumInternalBlocks(); unit++) {
+          group.setInternalBlockToken(unit, blockTokenSecretManager
+              .generateToken(user, group.getInternalBlock(unit),
+                  EnumSet.of(mode)));
+        }
+      }
     }    
   }
 
@@ -1197,6 +1402,8 @@ int computeInvalidateWork(int nodesToProcess) {
    *
    * The number of process blocks equals either twice the number of live
    * data-nodes or the number of under-replicated blocks whichever is less.
+   * They are chosen a chunk at a time, releasing the namesystem write lock
+   * between the chunks.
    *
    * @return number of blocks scheduled for replication during this iteration.
    */
@@ -1204,15 +1411,61 @@ int computeReplicationWork(int blocksToProcess) {
     List<List<Block>> blocksToReplicate = null;
     namesystem.writeLock();
     try {
-      // Choose the blocks to be replicated
-      blocksToReplicate = neededReplications
-          .chooseUnderReplicatedBlocks(blocksToProcess);
+      blocksToReplicate = chooseUnderReplicatedBlocks(blocksToProcess);
     } finally {
       namesystem.writeUnlock();
     }
     return computeReplicationWorkForBlocks(blocksToReplicate);
   }
 
+  /**
+   * Choose up to the given number of blocks from {@link #neededReplications},
+   * a chunk at a time, yielding the write lock between the chunks. Every
+   * block is chosen at most once: the scan stops when it has gone through
+   * all the under-replicated blocks, since the next chunk would start over
+   * from the heads of the lists.
+   *
+   * @return the blocks chosen, for each priority
+   */
+  @VisibleForTesting
+  List<List<Block>> chooseUnderReplicatedBlocks(int blocksToProcess) {
+    assert namesystem.hasWriteLock();
+    List<List<Block>> blocksToReplicate = null;
+    final long resets = neededReplications.getBookmarkResets();
+    int chosen = 0;
+    int requested, found;
+    do {
+      if (blocksToReplicate != null) {
+        yieldWriteLock();
+      }
+      requested = Math.min(blocksToProcess - chosen, replWorkBlocksPerLock);
+      List<List<Block>> chunk =
+          neededReplications.chooseUnderReplicatedBlocks(requested);
+      if (blocksToReplicate == null) {
+        blocksToReplicate = chunk;
+      } else {
+        for (int priority = 0; priority < chunk.size(); priority++) {
+          blocksToReplicate.get(priority).addAll(chunk.get(priority));
+        }
+      }
+      found = countBlocks(chunk);
+      chosen += found;
+      // Fewer blocks than requested, or bookmarks reset by a chunk which
+      // ended exactly at the end of the lists, mean the scan went through
+      // all the under-replicated blocks.
+    } while (found == requested && chosen < blocksToProcess
+        && neededReplications.getBookmarkResets() == resets);
+    return blocksToReplicate;
+  }
+
+  private static int countBlocks(List<List<Block>> blocks) {
+    int count = 0;
+    for (List<Block> list : blocks) {
+      count += list.size();
+    }
+    return count;
+  }
+
   /** Replicate a set of blocks
    *
    * @param blocksToReplicate blocks to be replicated, for each priority
@@ -1221,70 +1474,23 @@ int computeReplicationWork(int blocksToProcess) {
   @VisibleForTesting
   int computeReplicationWorkForBlocks(List<List<Block>> blocksToReplicate) {
     int requiredReplication, numEffectiveReplicas;
-    List<DatanodeDescriptor> containingNodes;
-    DatanodeDescriptor srcNode;
     BlockCollection bc = null;
-    int additionalReplRequired;
 
     int scheduledWork = 0;
-    List<ReplicationWork> work = new LinkedList<ReplicationWork>();
+    List<ReplicationWork> work = new ArrayList<ReplicationWork>();
 
     namesystem.writeLock();
     try {
-      synchronized (neededReplications) {
-        for (int priority = 0; priority < blocksToReplicate.size(); priority++) {
-          for (Block block : blocksToReplicate.get(priority)) {
-            // block should belong to a file
-            bc = blocksMap.getBlockCollection(block);
-            // abandoned block or block reopened for append
-            if (bc == null
-                || (bc.isUnderConstruction() && block.equals(bc.getLastBlock()))) {
-              // remove from neededReplications
-              neededReplications.remove(block, priority);
-              continue;
-            }
-
-            requiredReplication = bc.getBlockReplication();
-
-            // get a source data-node
-            containingNodes = new ArrayList<DatanodeDescriptor>();
-            List<DatanodeStorageInfo> liveReplicaNodes = new ArrayList<DatanodeStorageInfo>();
-            NumberReplicas numReplicas = new NumberReplicas();
-            srcNode = chooseSourceDatanode(
-                block, containingNodes, liveReplicaNodes, numReplicas,
-                priority);
-            if(srcNode == null) { // block can not be replicated from any node
-              LOG.debug("Block " + block + " cannot be repl from any node");
-              continue;
-            }
-
-            // liveReplicaNodes can include READ_ONLY_SHARED replicas which are 
-            // not included in the numReplicas.liveReplicas() count
-            assert liveReplicaNodes.size() >= numReplicas.liveReplicas();
-
-            // do not schedule more if enough replicas is already pending
-            numEffectiveReplicas = numReplicas.liveReplicas() +
-                                    pendingReplications.getNumReplicas(block);
-      
-            if (numEffectiveReplicas >= requiredReplication) {
-              if ( (pendingReplications.getNumReplicas(block) > 0) ||
-                   (blockHasEnoughRacks(block)) ) {
-                neededReplications.remove(block, priority); // remove from neededReplications
-                blockLog.info("BLOCK* Removing " + block
-                    + " from neededReplications as it has enough replicas");
-                continue;
-              }
-            }
-
-            if (numReplicas.liveReplicas() < requiredReplication) {
-              additionalReplRequired = requiredReplication
-                  - numEffectiveReplicas;
-            } else {
-              additionalReplRequired = 1; // Needed on a new rack
-            }
-            work.add(new ReplicationWork(block, bc, srcNode,
-                containingNodes, liveReplicaNodes, additionalReplRequired,
-                priority));
+      int blocksLocked = 0;
+      for (int priority = 0; priority < blocksToReplicate.size(); priority++) {
+        for (Block block : blocksToReplicate.get(priority)) {
+          if (blocksLocked++ == replWorkBlocksPerLock) {
+            yieldWriteLock();
+            blocksLocked = 1;
+          }
+          ReplicationWork rw = chooseReplicationWork(block, priority);
+          if (rw != null) {
+            work.add(rw);
           }
         }
       }
@@ -1292,29 +1498,26 @@ int computeReplicationWorkForBlocks(List<List<Block>> blocksToReplicate) {
       namesystem.writeUnlock();
     }
 
-    final Set<Node> excludedNodes = new HashSet<Node>();
-    for(ReplicationWork rw : work){
-      // Exclude all of the containing nodes from being targets.
-      // This list includes decommissioning or corrupt nodes.
-      excludedNodes.clear();
-      for (DatanodeDescriptor dn : rw.containingNodes) {
-        excludedNodes.add(dn);
-      }
-
-      // choose replication targets: NOT HOLDING THE GLOBAL LOCK
-      // It is costly to extract the filename for which chooseTargets is called,
-      // so for now we pass in the block collection itself.
-      rw.chooseTargets(blockplacement, excludedNodes);
+    // choose replication targets: NOT HOLDING THE GLOBAL LOCK
+    if (replWorkExecutor == null || work.size() <= 1) {
+      chooseTargets(work);
+    } else {
+      chooseTargetsInParallel(work);
     }
 
     namesystem.writeLock();
     try {
+      int blocksLocked = 0;
       for(ReplicationWork rw : work){
         final DatanodeStorageInfo[] targets = rw.targets;
         if(targets == null || targets.length == 0){
           rw.targets = null;
           continue;
         }
+        if (blocksLocked++ == replWorkBlocksPerLock) {
+          yieldWriteLock();
+          blocksLocked = 1;
+        }
 
         synchronized (neededReplications) {
           Block block = rw.block;
@@ -1348,7 +1551,8 @@ int computeReplicationWorkForBlocks(List<List<Block>> blocksToReplicate) {
 
           if ( (numReplicas.liveReplicas() >= requiredReplication) &&
                (!blockHasEnoughRacks(block)) ) {
-            if (rw.srcNode.getNetworkLocation().equals(
+            if (rw.reconstruction != null
+                || rw.srcNode.getNetworkLocation().equals(
                 targets[0].getDatanodeDescriptor().getNetworkLocation())) {
               //No use continuing, unless a new rack in this case
               continue;
@@ -1356,7 +1560,12 @@ int computeReplicationWorkForBlocks(List<List<Block>> blocksToReplicate) {
           }
 
           // Add block to the to be replicated list
-          rw.srcNode.addBlockToBeReplicated(block, targets);
+          if (rw.reconstruction != null) {
+            targets[0].getDatanodeDescriptor().addBlockToBeReconstructed(
+                rw.reconstruction);
+          } else {
+            rw.srcNode.addBlockToBeReplicated(block, targets);
+          }
           scheduledWork++;
           DatanodeStorageInfo.incrementBlocksScheduled(targets);
 
@@ -1391,8 +1600,13 @@ int computeReplicationWorkForBlocks(List<List<Block>> blocksToReplicate) {
             targetList.append(' ');
             targetList.append(targets[k].getDatanodeDescriptor());
           }
-          blockLog.info("BLOCK* ask " + rw.srcNode
-              + " to replicate " + rw.block + " to " + targetList);
+          if (rw.reconstruction != null) {
+            blockLog.info("BLOCK* ask " + targetList + " to reconstruct "
+                + rw.block + " from " + rw.reconstruction);
+          } else {
+            blockLog.info("BLOCK* ask " + rw.srcNode
+                + " to replicate " + rw.block + " to " + targetList);
+          }
         }
       }
     }
@@ -1405,6 +1619,203 @@ int computeReplicationWorkForBlocks(List<List<Block>> blocksToReplicate) {
     return scheduledWork;
   }
 
+  /**
+   * Decide whether a block needs to be replicated, and from which source.
+   * Called with the namesystem write lock held.
+   *
+   * @return the replication work of the block, without targets; null if the
+   *         block does not need to, or cannot, be replicated now
+   */
+  private ReplicationWork chooseReplicationWork(Block block, int priority) {
+    synchronized (neededReplications) {
+      // block should belong to a file
+      BlockCollection bc = blocksMap.getBlockCollection(block);
+      // abandoned block or block reopened for append
+      if (bc == null
+          || (bc.isUnderConstruction() && block.equals(bc.getLastBlock()))) {
+        // remove from neededReplications
+        neededReplications.remove(block, priority);
+        return null;
+      }
+
+      int requiredReplication = bc.getBlockReplication();
+
+      // get a source data-node
+      List<DatanodeDescriptor> containingNodes =
+          new ArrayList<DatanodeDescriptor>();
+      List<DatanodeStorageInfo> liveReplicaNodes =
+          new ArrayList<DatanodeStorageInfo>();
+      NumberReplicas numReplicas = new NumberReplicas();
+      DatanodeDescriptor srcNode = chooseSourceDatanode(
+          block, containingNodes, liveReplicaNodes, numReplicas, priority);
+      if(srcNode == null) { // block can not be replicated from any node
+        if (bc.getErasureCodingPolicy() != null
+            && numReplicas.liveReplicas() == 0) {
+          return chooseReconstructionWork(block, bc, containingNodes,
+              priority);
+        }
+        LOG.debug("Block " + block + " cannot be repl from any node");
+        return null;
+      }
+
+      // liveReplicaNodes can include READ_ONLY_SHARED replicas which are 
+      // not included in the numReplicas.liveReplicas() count
+      assert liveReplicaNodes.size() >= numReplicas.liveReplicas();
+
+      // do not schedule more if enough replicas is already pending
+      int numEffectiveReplicas = numReplicas.liveReplicas() +
+          pendingReplications.getNumReplicas(block);
+
+      if (numEffectiveReplicas >= requiredReplication) {
+        if ( (pendingReplications.getNumReplicas(block) > 0) ||
+             (blockHasEnoughRacks(block)) ) {
+          neededReplications.remove(block, priority); // remove from neededReplications
+          blockLog.info("BLOCK* Removing " + block
+              + " from neededReplications as it has enough replicas");
+          return null;
+        }
+      }
+
+      int additionalReplRequired;
+      if (numReplicas.liveReplicas() < requiredReplication) {
+        additionalReplRequired = requiredReplication - numEffectiveReplicas;
+      } else {
+        additionalReplRequired = 1; // Needed on a new rack
+      }
+      return new ReplicationWork(block, bc, srcNode, containingNodes,
+          liveReplicaNodes, additionalReplRequired, priority);
+    }
+  }
+
+  /**
+   * Decide how to rebuild a lost internal block of an erasure coded file
+   * from the live internal blocks of its group. Called with the namesystem
+   * write lock held and neededReplications locked.
+   *
+   * @return the reconstruction work of the block, without targets; null if
+   *         the block cannot be rebuilt now
+   */
+  private ReplicationWork chooseReconstructionWork(Block block,
+      BlockCollection bc, List<DatanodeDescriptor> containingNodes,
+      int priority) {
+    if (pendingReplications.getNumReplicas(block) > 0) {
+      neededReplications.remove(block, priority);
+      blockLog.info("BLOCK* Removing " + block
+          + " from neededReplications as it is being reconstructed");
+      return null;
+    }
+    final ErasureCodingPolicy ecPolicy = bc.getErasureCodingPolicy();
+    final int numUnits = ecPolicy.getNumUnits();
+    final BlockInfo[] blocks = bc.getBlocks();
+    int idx = 0;
+    while (idx < blocks.length && blocks[idx].getBlockId() != block.getBlockId()) {
+      idx++;
+    }
+    final int first = idx - idx % numUnits;
+    if (idx == blocks.length || first + numUnits > blocks.length) {
+      return null;
+    }
+
+    // Read the group from numDataUnits live internal blocks, and keep the
+    // rebuilt block away from all of them.
+    final List<DatanodeDescriptor> sources =
+        new ArrayList<DatanodeDescriptor>(ecPolicy.getNumDataUnits());
+    final int[] liveIndices = new int[ecPolicy.getNumDataUnits()];
+    final List<DatanodeDescriptor> siblingNodes =
+        new ArrayList<DatanodeDescriptor>();
+    final List<DatanodeStorageInfo> siblingStorages =
+        new ArrayList<DatanodeStorageInfo>();
+    long groupLength = 0;
+    for (int unit = 0; unit < numUnits; unit++) {
+      final BlockInfo sibling = blocks[first + unit];
+      if (unit < ecPolicy.getNumDataUnits()) {
+        groupLength += sibling.getNumBytes();
+      }
+      if (first + unit == idx) {
+        continue;
+      }
+      final DatanodeDescriptor src = chooseSourceDatanode(sibling,
+          siblingNodes, siblingStorages, null, priority);
+      containingNodes.addAll(siblingNodes);
+      if (src != null && sibling.isComplete()
+          && sources.size() < liveIndices.length) {
+        liveIndices[sources.size()] = unit;
+        sources.add(src);
+      }
+    }
+    if (sources.size() < liveIndices.length) {
+      LOG.debug("Block " + block + " cannot be reconstructed from "
+          + sources.size() + " internal blocks");
+      return null;
+    }
+
+    final ReplicationWork rw = new ReplicationWork(block, bc, null,
+        containingNodes, new ArrayList<DatanodeStorageInfo>(), 1, priority);
+    rw.reconstruction = new BlockECReconstructionInfo(
+        new ExtendedBlock(namesystem.getBlockPoolId(), blocks[first].getBlockId(),
+            groupLength, blocks[first].getGenerationStamp()),
+        sources.toArray(new DatanodeInfo[sources.size()]), liveIndices,
+        idx - first, ecPolicy);
+    return rw;
+  }
+
+  /**
+   * Choose the targets of the given replication work, without holding the
+   * namesystem lock.
+   */
+  private void chooseTargets(List<ReplicationWork> work) {
+    final Set<Node> excludedNodes = new HashSet<Node>();
+    for(ReplicationWork rw : work){
+      // Exclude all of the containing nodes from being targets.
+      // This list includes decommissioning or corrupt nodes.
+      excludedNodes.clear();
+      excludedNodes.addAll(rw.containingNodes);
+
+      // It is costly to extract the filename for which chooseTargets is called,
+      // so for now we pass in the block collection itself.
+      rw.chooseTargets(blockplacement, excludedNodes);
+    }
+  }
+
+  /**
+   * Choose the targets of the given replication work with the replication
+   * work threads, each taking an equal share of the work. Returns once all
+   * the threads are done.
+   */
+  private void chooseTargetsInParallel(List<ReplicationWork> work) {
+    final int share = (work.size() + replWorkThreads - 1) / replWorkThreads;
+    final List<Future<?>> futures = new ArrayList<Future<?>>(replWorkThreads);
+    for (int from = 0; from < work.size(); from += share) {
+      final List<ReplicationWork> part =
+          work.subList(from, Math.min(from + share, work.size()));
+      futures.add(replWorkExecutor.submit(new Runnable() {
+        @Override
+        public void run() {
+          chooseTargets(part);
+        }
+      }));
+    }
+    Throwable failure = null;
+    for (Future<?> future : futures) {
+      try {
+        // Wait for every thread, so that none is still choosing targets when
+        // the work is committed.
+        Uninterruptibles.getUninterruptibly(future);
+      } catch (ExecutionException ee) {
+        failure = ee.getCause();
+      }
+    }
+    if (failure != null) {
+      throw Throwables.propagate(failure);
+    }
+  }
+
+  /** Let the operations waiting for the namesystem write lock in. */
+  private void yieldWriteLock() {
+    namesystem.writeUnlock();
+    namesystem.writeLock();
+  }
+
   /**
    * Choose target datanodes according to the replication policy.
    * 
@@ -1650,16 +2061,14 @@ public String toString() {
   public boolean processReport(final DatanodeID nodeID,
       final DatanodeStorage storage, final String poolId,
       final BlockListAsLongs newReport) throws IOException {
+    final long reportStart = Time.monotonicNow();
     namesystem.writeLock();
-    final long startTime = Time.now(); //after acquiring write lock
-    final long endTime;
+    long startTime = Time.now(); //after acquiring write lock
+    long processingTime = 0;
+    int numBatches = 1;
     DatanodeDescriptor node;
     try {
-      node = datanodeManager.getDatanode(nodeID);
-      if (node == null || !node.isAlive) {
-        throw new IOException(
-            "ProcessReport from dead or unregistered node: " + nodeID);
-      }
+      node = getLiveDatanode(nodeID);
 
       // To minimize startup time, we discard any second (or later) block reports
       // that we receive while still in startup phase.
@@ -1680,7 +2089,24 @@ public boolean processReport(final DatanodeID nodeID,
       if (storageInfo.numBlocks() == 0) {
         // The first block report can be processed a lot more efficiently than
         // ordinary block reports.  This shortens restart times.
-        processFirstBlockReport(node, storage.getStorageID(), newReport);
+        BlockReportIterator itBR = newReport == null ? null
+            : newReport.getBlockReportIterator();
+        while (processFirstBlockReport(node, storage.getStorageID(), itBR,
+            initialBlockReportBatchSize, numBatches == 1)) {
+          // Let other operations in before processing the next batch.
+          processingTime += Time.now() - startTime;
+          namesystem.writeUnlock();
+          namesystem.writeLock();
+          startTime = Time.now();
+          numBatches++;
+          // The node may have died or re-registered while we were unlocked.
+          if (getLiveDatanode(nodeID) != node
+              || node.getStorageInfo(storage.getStorageID()) != storageInfo) {
+            throw new IOException("ProcessReport from " + nodeID
+                + " aborted: the node re-registered or its storage "
+                + storage.getStorageID() + " changed");
+          }
+        }
       } else {
         processReport(node, storage, newReport);
       }
@@ -1697,21 +2123,38 @@ public boolean processReport(final DatanodeID nodeID,
       }
       
     } finally {
-      endTime = Time.now();
+      processingTime += Time.now() - startTime;
       namesystem.writeUnlock();
     }
 
     // Log the block report processing stats from Namenode perspective
     final NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
     if (metrics != null) {
-      metrics.addBlockReport((int) (endTime - startTime));
+      metrics.addBlockReport((int) processingTime);
+      metrics.addStorageBlockReport(Time.monotonicNow() - reportStart,
+          numBatches);
     }
     blockLog.info("BLOCK* processReport: from storage " + storage.getStorageID()
         + " node " + nodeID + ", blocks: " + newReport.getNumberOfBlocks()
-        + ", processing time: " + (endTime - startTime) + " msecs");
+        + ", processing time: " + processingTime + " msecs"
+        + (numBatches > 1 ? " in " + numBatches + " batches" : ""));
     return !node.hasStaleStorages();
   }
 
+  /**
+   * @return the registered descriptor of a live datanode.
+   * @throws IOException if the node is dead or unregistered.
+   */
+  private DatanodeDescriptor getLiveDatanode(final DatanodeID nodeID)
+      throws IOException {
+    DatanodeDescriptor node = datanodeManager.getDatanode(nodeID);
+    if (node == null || !node.isAlive) {
+      throw new IOException(
+          "ProcessReport from dead or unregistered node: " + nodeID);
+    }
+    return node;
+  }
+
   /**
    * Rescan the list of blocks which were previously postponed.
    */
@@ -1792,19 +2235,30 @@ private void processReport(final DatanodeDescriptor node,
    * a toRemove list (since there won't be any).  It also silently discards 
    * any invalid blocks, thereby deferring their processing until 
    * the next block report.
+   * Since no toRemove list is computed, the report can be processed in
+   * several batches, releasing the namesystem lock in between.
+   * Incremental block reports may be processed between two batches, so a
+   * later batch may find replicas that are already stored.
    * @param node - DatanodeDescriptor of the node that sent the report
-   * @param report - the initial block report, to be processed
+   * @param itBR - iterator over the initial block report, to be processed
+   * @param maxBlocks - the maximum number of replicas to process in this
+   *                    call, or a non-positive value for no limit
+   * @param firstBatch - whether this is the first batch of the report
+   * @return true if there are replicas left in the report to process
    * @throws IOException 
    */
-  private void processFirstBlockReport(final DatanodeDescriptor node,
-      final String storageID,
-      final BlockListAsLongs report) throws IOException {
-    if (report == null) return;
+  private boolean processFirstBlockReport(final DatanodeDescriptor node,
+      final String storageID, final BlockReportIterator itBR,
+      final int maxBlocks, final boolean firstBatch) throws IOException {
+    if (itBR == null) return false;
     assert (namesystem.hasWriteLock());
-    assert (node.getStorageInfo(storageID).numBlocks() == 0);
-    BlockReportIterator itBR = report.getBlockReportIterator();
+    assert (!firstBatch || node.getStorageInfo(storageID).numBlocks() == 0);
+    int processed = 0;
 
     while(itBR.hasNext()) {
+      if (maxBlocks > 0 && processed++ >= maxBlocks) {
+        return true;
+      }
       Block iblk = itBR.next();
       ReplicaState reportedState = itBR.getCurrentReplicaState();
       
@@ -1854,6 +2308,7 @@ private void processFirstBlockReport(final DatanodeDescriptor node,
         addStoredBlockImmediate(storedBlock, node, storageID);
       }
     }
+    return false;
   }
 
   private void reportDiff(DatanodeDescriptor dn, DatanodeStorage storage, 
@@ -2196,14 +2651,17 @@ private void addStoredBlockImmediate(BlockInfo storedBlock,
     }
 
     // just add it
-    node.addBlock(storageID, storedBlock);
+    boolean added = node.addBlock(storageID, storedBlock);
 
     // Now check for completion of blocks and safe block count
     int numCurrentReplica = countLiveNodes(storedBlock);
     if (storedBlock.getBlockUCState() == BlockUCState.COMMITTED
         && numCurrentReplica >= minReplication) {
       completeBlock(storedBlock.getBlockCollection(), storedBlock, false);
-    } else if (storedBlock.isComplete()) {
+    } else if (storedBlock.isComplete() && added) {
+      // A replica already stored, e.g. by an incremental block report
+      // processed between two batches of an initial report, is already
+      // counted.
       // check whether safe replication is reached for the block
       // only complete blocks are counted towards that.
       // In the case that the block just became complete above, completeBlock()
@@ -3019,70 +3477,60 @@ void processOverReplicatedBlocksOnReCommission(
   }
 
   /**
-   * Return true if there are any blocks on this node that have not
-   * yet reached their replication factor. Otherwise returns false.
+   * Check the replication of a block of a decommissioning node, and count it
+   * if it does not have enough live replicas. A block that needs replication
+   * but is neither queued nor pending replication is queued.
+   *
+   * @return true if the block needs replication, and so has to be checked
+   *         again before the node is decommissioned
    */
-  boolean isReplicationInProgress(DatanodeDescriptor srcNode) {
-    boolean status = false;
-    boolean firstReplicationLog = true;
-    int underReplicatedBlocks = 0;
-    int decommissionOnlyReplicas = 0;
-    int underReplicatedInOpenFiles = 0;
-    final Iterator<? extends Block> it = srcNode.getBlockIterator();
-    while(it.hasNext()) {
-      final Block block = it.next();
-      BlockCollection bc = blocksMap.getBlockCollection(block);
-
-      if (bc != null) {
-        NumberReplicas num = countNodes(block);
-        int curReplicas = num.liveReplicas();
-        int curExpectedReplicas = getReplication(block);
-                
-        if (isNeededReplication(block, curExpectedReplicas, curReplicas)) {
-          if (curExpectedReplicas > curReplicas) {
-            if (bc.isUnderConstruction()) {
-              if (block.equals(bc.getLastBlock()) && curReplicas > minReplication) {
-                continue;
-              }
-              underReplicatedInOpenFiles++;
-            }
-            
-            // Log info about one block for this node which needs replication
-            if (!status) {
-              status = true;
-              if (firstReplicationLog) {
-                logBlockReplicationInfo(block, srcNode, num);
-              }
-              // Allowing decommission as long as default replication is met
-              if (curReplicas >= defaultReplication) {
-                status = false;
-                firstReplicationLog = false;
-              }
-            }
-            underReplicatedBlocks++;
-            if ((curReplicas == 0) && (num.decommissionedReplicas() > 0)) {
-              decommissionOnlyReplicas++;
-            }
-          }
-          if (!neededReplications.contains(block) &&
-            pendingReplications.getNumReplicas(block) == 0) {
-            //
-            // These blocks have been reported from the datanode
-            // after the startDecommission method has been executed. These
-            // blocks were in flight when the decommissioning was started.
-            //
-            neededReplications.add(block,
-                                   curReplicas,
-                                   num.decommissionedReplicas(),
-                                   curExpectedReplicas);
-          }
+  boolean checkDecommissioningBlock(DatanodeDescriptor srcNode, Block block,
+      DecommissionManager.BlockCounts counts) {
+    BlockCollection bc = blocksMap.getBlockCollection(block);
+    if (bc == null) {
+      return false;
+    }
+    NumberReplicas num = countNodes(block);
+    int curReplicas = num.liveReplicas();
+    int curExpectedReplicas = getReplication(block);
+    if (!isNeededReplication(block, curExpectedReplicas, curReplicas)) {
+      return false;
+    }
+    if (curExpectedReplicas > curReplicas) {
+      if (bc.isUnderConstruction()) {
+        if (block.equals(bc.getLastBlock()) && curReplicas > minReplication) {
+          // Still being written: check it again later.
+          return true;
         }
+        counts.underReplicatedInOpenFiles++;
+      }
+
+      // Log info about one block for this node which needs replication
+      if (counts.underReplicatedBlocks == 0) {
+        logBlockReplicationInfo(block, srcNode, num);
+      }
+      // Allowing decommission as long as default replication is met
+      if (curReplicas < defaultReplication) {
+        counts.replicationInProgress = true;
+      }
+      counts.underReplicatedBlocks++;
+      if ((curReplicas == 0) && (num.decommissionedReplicas() > 0)) {
+        counts.decommissionOnlyReplicas++;
       }
     }
-    srcNode.decommissioningStatus.set(underReplicatedBlocks,
-        decommissionOnlyReplicas, 
-        underReplicatedInOpenFiles);
-    return status;
+    if (!neededReplications.contains(block) &&
+      pendingReplications.getNumReplicas(block) == 0) {
+      //
+      // These blocks have been reported from the datanode
+      // after the startDecommission method has been executed. These
+      // blocks were in flight when the decommissioning was started.
+      //
+      neededReplications.add(block,
+                             curReplicas,
+                             num.decommissionedReplicas(),
+                             curExpectedReplicas);
+    }
+    return true;
   }
 
   public int getActiveBlockCount() {
@@ -3382,12 +3830,23 @@ int computeDatanodeWork() {
     }
 
     final int numlive = heartbeatManager.getLiveDatanodeCount();
-    final int blocksToProcess = numlive
+    int blocksToProcess = numlive
         * this.blocksReplWorkMultiplier;
+    if (adaptiveReplWork) {
+      blocksToProcess = Math.max(blocksToProcess,
+          getFreeReplicationStreams());
+    }
     final int nodesToProcess = (int) Math.ceil(numlive
         * this.blocksInvalidateWorkPct);
 
+    final long startTime = Time.monotonicNow();
     int workFound = this.computeReplicationWork(blocksToProcess);
+    final long endTime = Time.monotonicNow();
+    final NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    if (metrics != null) {
+      metrics.addReplicationWorkTime(endTime - startTime);
+      metrics.incrBlocksScheduledForReplication(workFound);
+    }
 
     // Update counters
     namesystem.writeLock();
@@ -3397,10 +3856,45 @@ int computeDatanodeWork() {
     } finally {
       namesystem.writeUnlock();
     }
+    updateUnderReplicatedBlocksDrainRate(endTime);
     workFound += this.computeInvalidateWork(nodesToProcess);
     return workFound;
   }
 
+  /**
+   * @return the number of replication streams that the live datanodes can
+   *         still be asked to start, according to the replication work
+   *         already queued for them
+   */
+  private int getFreeReplicationStreams() {
+    int free = 0;
+    for (DatanodeDescriptor node : heartbeatManager.getDatanodes()) {
+      free += Math.max(0,
+          maxReplicationStreams - node.getNumberOfBlocksToBeReplicated());
+    }
+    return free;
+  }
+
+  /**
+   * Sample the number of under-replicated blocks, and update the rate at
+   * which it decreases once the sampling window has elapsed.
+   */
+  private void updateUnderReplicatedBlocksDrainRate(long now) {
+    final long count = underReplicatedBlocksCount;
+    if (drainRateSampleTime == 0) {
+      drainRateSampleTime = now;
+      drainRateSampleCount = count;
+      return;
+    }
+    final long elapsed = now - drainRateSampleTime;
+    if (elapsed >= DRAIN_RATE_WINDOW_MS) {
+      underReplicatedBlocksDrainRate =
+          (drainRateSampleCount - count) * 1000 / elapsed;
+      drainRateSampleTime = now;
+      drainRateSampleCount = count;
+    }
+  }
+
   /**
    * Clear all queues that hold decisions previously made by
    * this NameNode.
@@ -3426,6 +3920,8 @@ private static class ReplicationWork {
 
     private DatanodeStorageInfo targets[];
     private int priority;
+    /** How to rebuild the block, if it is a lost erasure coded block */
+    private BlockECReconstructionInfo reconstruction;
 
     public ReplicationWork(Block block,
         BlockCollection bc,
@@ -105,6 +105,23 @@ public void initialize(Configuration conf,  FSClusterStats stats,
         DFSConfigKeys.DFS_NAMENODE_STALE_DATANODE_INTERVAL_DEFAULT);
   }
 
+  /**
+   * Whether to first try to place replicas away from stale nodes and slow
+   * storages. If not enough targets can be found, they are chosen again
+   * without avoiding them.
+   */
+  private boolean isAvoidingStaleNodesOrSlowStorages() {
+    return isAvoidingStaleNodes() || isAvoidingSlowStorages();
+  }
+
+  private boolean isAvoidingStaleNodes() {
+    return stats != null && stats.isAvoidingStaleDataNodesForWrite();
+  }
+
+  private boolean isAvoidingSlowStorages() {
+    return stats != null && stats.isAvoidingSlowStoragesForWrite();
+  }
+
   @Override
   public DatanodeStorageInfo[] chooseTarget(String srcPath,
                                     int numOfReplicas,
@@ -139,8 +156,7 @@ DatanodeStorageInfo[] chooseTarget(String src,
 
       // Choose favored nodes
       List<DatanodeStorageInfo> results = new ArrayList<DatanodeStorageInfo>();
-      boolean avoidStaleNodes = stats != null
-          && stats.isAvoidingStaleDataNodesForWrite();
+      boolean avoidStaleNodes = isAvoidingStaleNodesOrSlowStorages();
       for (int i = 0; i < Math.min(favoredNodes.size(), numOfReplicas); i++) {
         DatanodeDescriptor favoredNode = favoredNodes.get(i);
         // Choose a single node which is local to favoredNode.
@@ -207,8 +223,7 @@ private DatanodeStorageInfo[] chooseTarget(int numOfReplicas,
       writer = null;
     }
       
-    boolean avoidStaleNodes = (stats != null
-        && stats.isAvoidingStaleDataNodesForWrite());
+    boolean avoidStaleNodes = isAvoidingStaleNodesOrSlowStorages();
     Node localNode = chooseTarget(numOfReplicas, writer,
         excludedNodes, blocksize, maxNodesPerRack, results, avoidStaleNodes, storageType);
     if (!returnChosenNodes) {  
@@ -239,7 +254,8 @@ private int[] getMaxNodesPerRack(int numOfChosen, int numOfReplicas) {
    * @param blocksize size of the data to be written
    * @param maxNodesPerRack max nodes allowed per rack
    * @param results the target nodes already chosen
-   * @param avoidStaleNodes avoid stale nodes in replica choosing
+   * @param avoidStaleNodes avoid stale nodes and slow storages in replica
+   *                        choosing
    * @return local node of writer (not chosen node)
    */
   private Node chooseTarget(int numOfReplicas,
@@ -617,10 +633,14 @@ private boolean isGoodTarget(DatanodeStorageInfo storage,
     }
 
     if (avoidStaleNodes) {
-      if (node.isStale(this.staleInterval)) {
+      if (isAvoidingStaleNodes() && node.isStale(this.staleInterval)) {
         logNodeIsNotChosen(storage, "the node is stale ");
         return false;
       }
+      if (isAvoidingSlowStorages() && storage.isSlow()) {
+        logNodeIsNotChosen(storage, "the storage is slow ");
+        return false;
+      }
     }
     
     final long requiredSize = blockSize * HdfsConstants.MIN_BLOCKS_FOR_WRITE;
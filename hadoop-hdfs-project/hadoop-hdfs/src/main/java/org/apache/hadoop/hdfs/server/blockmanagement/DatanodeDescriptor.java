@@ -36,6 +36,7 @@
 import org.apache.hadoop.hdfs.protocol.DatanodeID;
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
 import org.apache.hadoop.hdfs.server.namenode.CachedBlock;
+import org.apache.hadoop.hdfs.server.protocol.BlockECReconstructionCommand.BlockECReconstructionInfo;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeStorage;
 import org.apache.hadoop.hdfs.server.protocol.StorageReport;
 import org.apache.hadoop.hdfs.util.LightWeightHashSet;
@@ -194,6 +195,9 @@ public CachedBlocksList getPendingUncached() {
   /** A queue of blocks to be recovered by this datanode */
   private BlockQueue<BlockInfoUnderConstruction> recoverBlocks =
                                 new BlockQueue<BlockInfoUnderConstruction>();
+  /** A queue of erasure coded internal blocks to be rebuilt on this datanode */
+  private BlockQueue<BlockECReconstructionInfo> reconstructBlocks =
+      new BlockQueue<BlockECReconstructionInfo>();
   /** A set of blocks to be invalidated by this datanode */
   private LightWeightHashSet<Block> invalidateBlocks = new LightWeightHashSet<Block>();
 
@@ -336,6 +340,7 @@ public void clearBlockQueues() {
       this.invalidateBlocks.clear();
       this.recoverBlocks.clear();
       this.replicateBlocks.clear();
+      this.reconstructBlocks.clear();
     }
     // pendingCached, cached, and pendingUncached are protected by the
     // FSN lock.
@@ -435,6 +440,14 @@ void addBlockToBeReplicated(Block block, DatanodeStorageInfo[] targets) {
     replicateBlocks.offer(new BlockTargetPair(block, targets));
   }
 
+  /**
+   * Store erasure coded block reconstruction work.
+   */
+  void addBlockToBeReconstructed(BlockECReconstructionInfo task) {
+    assert task != null;
+    reconstructBlocks.offer(task);
+  }
+
   /**
    * Store block recovery work.
    */
@@ -463,7 +476,7 @@ void addBlocksToBeInvalidated(List<Block> blocklist) {
    * The number of work items that are pending to be replicated
    */
   int getNumberOfBlocksToBeReplicated() {
-    return replicateBlocks.size();
+    return replicateBlocks.size() + reconstructBlocks.size();
   }
 
   /**
@@ -480,6 +493,11 @@ public List<BlockTargetPair> getReplicationCommand(int maxTransfers) {
     return replicateBlocks.poll(maxTransfers);
   }
 
+  public List<BlockECReconstructionInfo> getErasureCodingCommand(
+      int maxTransfers) {
+    return reconstructBlocks.poll(maxTransfers);
+  }
+
   public BlockInfoUnderConstruction[] getLeaseRecoveryCommand(int maxTransfers) {
     List<BlockInfoUnderConstruction> blocks = recoverBlocks.poll(maxTransfers);
     if(blocks == null)
@@ -549,12 +567,20 @@ public class DecommissioningStatus {
     private int decommissionOnlyReplicas;
     private int underReplicatedInOpenFiles;
     private long startTime;
+    /** The most under-replicated blocks found since the first check */
+    private int maxUnderReplicatedBlocks;
+    /** The monotonic time of the first check, 0 if not checked yet */
+    private long firstCheckTime;
     
     synchronized void set(int underRep,
         int onlyRep, int underConstruction) {
       if (isDecommissionInProgress() == false) {
         return;
       }
+      if (firstCheckTime == 0) {
+        firstCheckTime = Time.monotonicNow();
+      }
+      maxUnderReplicatedBlocks = Math.max(maxUnderReplicatedBlocks, underRep);
       underReplicatedBlocks = underRep;
       decommissionOnlyReplicas = onlyRep;
       underReplicatedInOpenFiles = underConstruction;
@@ -581,9 +607,41 @@ public synchronized int getUnderReplicatedInOpenFiles() {
       }
       return underReplicatedInOpenFiles;
     }
+    /**
+     * @return the percentage of the under-replicated blocks found since the
+     *         decommission started that have been replicated
+     */
+    public synchronized int getPercentComplete() {
+      if (isDecommissionInProgress() == false) {
+        return 0;
+      }
+      if (maxUnderReplicatedBlocks == 0) {
+        return firstCheckTime == 0 ? 0 : 100;
+      }
+      return (int) ((maxUnderReplicatedBlocks - underReplicatedBlocks) * 100L
+          / maxUnderReplicatedBlocks);
+    }
+    /**
+     * @return the estimated time, in seconds, until the under-replicated
+     *         blocks are replicated, at the rate observed since the first
+     *         check; -1 if unknown
+     */
+    public synchronized long getEstimatedTimeRemaining() {
+      if (isDecommissionInProgress() == false) {
+        return 0;
+      }
+      final int replicated = maxUnderReplicatedBlocks - underReplicatedBlocks;
+      if (firstCheckTime == 0 || replicated <= 0) {
+        return -1;
+      }
+      final long elapsed = Time.monotonicNow() - firstCheckTime;
+      return elapsed * underReplicatedBlocks / replicated / 1000;
+    }
     /** Set start time */
     public synchronized void setStartTime(long time) {
       startTime = time;
+      maxUnderReplicatedBlocks = 0;
+      firstCheckTime = 0;
     }
     /** @return start time */
     public synchronized long getStartTime() {
@@ -647,6 +705,10 @@ public String dumpDatanode() {
     if (repl > 0) {
       sb.append(" ").append(repl).append(" blocks to be replicated;");
     }
+    int reconstruct = reconstructBlocks.size();
+    if (reconstruct > 0) {
+      sb.append(" ").append(reconstruct).append(" blocks to be reconstructed;");
+    }
     int inval = invalidateBlocks.size();
     if (inval > 0) {
       sb.append(" ").append(inval).append(" blocks to be invalidated;");      
@@ -41,6 +41,7 @@
 import org.apache.hadoop.hdfs.server.namenode.NameNode;
 import org.apache.hadoop.hdfs.server.namenode.Namesystem;
 import org.apache.hadoop.hdfs.server.protocol.*;
+import org.apache.hadoop.hdfs.server.protocol.BlockECReconstructionCommand.BlockECReconstructionInfo;
 import org.apache.hadoop.hdfs.server.protocol.BlockRecoveryCommand.RecoveringBlock;
 import org.apache.hadoop.hdfs.util.CyclicIteration;
 import org.apache.hadoop.ipc.Server;
@@ -69,6 +70,7 @@ public class DatanodeManager {
   private final Namesystem namesystem;
   private final BlockManager blockManager;
   private final HeartbeatManager heartbeatManager;
+  private final DecommissionManager decomManager;
   private Daemon decommissionthread = null;
 
   /**
@@ -137,6 +139,12 @@ public class DatanodeManager {
   
   /** The number of stale DataNodes */
   private volatile int numStaleNodes;
+
+  /** Whether or not to avoid the storages reported slow for writing. */
+  private final boolean avoidSlowStoragesForWrite;
+
+  /** The number of storages reported slow by their DataNode */
+  private volatile int numSlowStorages;
   
   /**
    * Whether or not this cluster has ever consisted of more than 1 rack,
@@ -177,6 +185,14 @@ public class DatanodeManager {
     networktopology = NetworkTopology.getInstance(conf);
 
     this.heartbeatManager = new HeartbeatManager(namesystem, blockManager, conf);
+    final int decomBlocksPerLock = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_DECOMMISSION_BLOCKS_PER_LOCK_KEY,
+        DFSConfigKeys.DFS_NAMENODE_DECOMMISSION_BLOCKS_PER_LOCK_DEFAULT);
+    Preconditions.checkArgument(decomBlocksPerLock > 0,
+        DFSConfigKeys.DFS_NAMENODE_DECOMMISSION_BLOCKS_PER_LOCK_KEY +
+        " must be positive");
+    this.decomManager = new DecommissionManager(namesystem, blockManager,
+        decomBlocksPerLock);
 
     this.defaultXferPort = NetUtils.createSocketAddr(
           conf.get(DFSConfigKeys.DFS_DATANODE_ADDRESS_KEY,
@@ -245,6 +261,9 @@ public class DatanodeManager {
     this.ratioUseStaleDataNodesForWrite = conf.getFloat(
         DFSConfigKeys.DFS_NAMENODE_USE_STALE_DATANODE_FOR_WRITE_RATIO_KEY,
         DFSConfigKeys.DFS_NAMENODE_USE_STALE_DATANODE_FOR_WRITE_RATIO_DEFAULT);
+    this.avoidSlowStoragesForWrite = conf.getBoolean(
+        DFSConfigKeys.DFS_NAMENODE_AVOID_SLOW_STORAGE_FOR_WRITE_KEY,
+        DFSConfigKeys.DFS_NAMENODE_AVOID_SLOW_STORAGE_FOR_WRITE_DEFAULT);
     Preconditions.checkArgument(
         (ratioUseStaleDataNodesForWrite > 0 && 
             ratioUseStaleDataNodesForWrite <= 1.0f),
@@ -294,8 +313,7 @@ private static long getStaleIntervalFromConf(Configuration conf,
   }
   
   void activate(final Configuration conf) {
-    final DecommissionManager dm = new DecommissionManager(namesystem, blockManager);
-    this.decommissionthread = new Daemon(dm.new Monitor(
+    this.decommissionthread = new Daemon(decomManager.new Monitor(
         conf.getInt(DFSConfigKeys.DFS_NAMENODE_DECOMMISSION_INTERVAL_KEY, 
                     DFSConfigKeys.DFS_NAMENODE_DECOMMISSION_INTERVAL_DEFAULT),
         conf.getInt(DFSConfigKeys.DFS_NAMENODE_DECOMMISSION_NODES_PER_INTERVAL_KEY, 
@@ -321,6 +339,12 @@ public NetworkTopology getNetworkTopology() {
     return networktopology;
   }
 
+  /** @return the decommission manager. */
+  @VisibleForTesting
+  DecommissionManager getDecommissionManager() {
+    return decomManager;
+  }
+
   /** @return the heartbeat manager. */
   HeartbeatManager getHeartbeatManager() {
     return heartbeatManager;
@@ -562,8 +586,13 @@ void addDatanode(final DatanodeDescriptor node) {
   /** Physically remove node from datanodeMap. */
   private void wipeDatanode(final DatanodeID node) {
     final String key = node.getDatanodeUuid();
+    final DatanodeDescriptor removed;
     synchronized (datanodeMap) {
-      host2DatanodeMap.remove(datanodeMap.remove(key));
+      removed = datanodeMap.remove(key);
+      host2DatanodeMap.remove(removed);
+    }
+    if (removed != null) {
+      decomManager.stopTracking(removed);
     }
     if (LOG.isDebugEnabled()) {
       LOG.debug(getClass().getSimpleName() + ".wipeDatanode("
@@ -712,10 +741,7 @@ boolean checkDecommissionState(DatanodeDescriptor node) {
     // Check to see if all blocks in this decommissioned
     // node has reached their target replication factor.
     if (node.isDecommissionInProgress()) {
-      if (!blockManager.isReplicationInProgress(node)) {
-        node.setDecommissioned();
-        LOG.info("Decommission complete for " + node);
-      }
+      decomManager.scanNode(node);
     }
     return node.isDecommissioned();
   }
@@ -740,6 +766,7 @@ void stopDecommission(DatanodeDescriptor node) {
     if (node.isDecommissionInProgress() || node.isDecommissioned()) {
       LOG.info("Stop Decommissioning " + node);
       heartbeatManager.stopDecommission(node);
+      decomManager.stopTracking(node);
       // Over-replicated blocks will be detected and processed when 
       // the dead node comes back and send in its full block report.
       if (node.isAlive) {
@@ -1032,6 +1059,29 @@ public int getNumStaleNodes() {
     return this.numStaleNodes;
   }
 
+  /**
+   * @return whether slow storages should be avoided as targets on the write
+   *         path, which is only the case when some storage is slow
+   */
+  public boolean shouldAvoidSlowStoragesForWrite() {
+    return avoidSlowStoragesForWrite && numSlowStorages > 0;
+  }
+
+  /**
+   * Set the number of storages reported slow. The HeartbeatManager counts
+   * them when it checks the heartbeats.
+   */
+  void setNumSlowStorages(int numSlowStorages) {
+    this.numSlowStorages = numSlowStorages;
+  }
+
+  /**
+   * @return the current number of storages reported slow by their DataNode
+   */
+  public int getNumSlowStorages() {
+    return this.numSlowStorages;
+  }
+
   /** Fetch live and dead datanodes. */
   public void fetchDatanodes(final List<DatanodeDescriptor> live, 
       final List<DatanodeDescriptor> dead, final boolean removeDecommissionNode) {
@@ -1304,6 +1354,13 @@ public DatanodeCommand[] handleHeartbeat(DatanodeRegistration nodeReg,
           cmds.add(new BlockCommand(DatanodeProtocol.DNA_TRANSFER, blockPoolId,
               pendingList));
         }
+        //check pending erasure coded block reconstruction
+        List<BlockECReconstructionInfo> pendingECList =
+            nodeinfo.getErasureCodingCommand(maxTransfers);
+        if (pendingECList != null) {
+          cmds.add(new BlockECReconstructionCommand(
+              DatanodeProtocol.DNA_ERASURE_CODING_RECONSTRUCTION, pendingECList));
+        }
         //check block invalidation
         Block[] blks = nodeinfo.getInvalidateBlocks(blockInvalidateLimit);
         if (blks != null) {
@@ -110,6 +110,8 @@ public void remove() {
   private long dfsUsed;
   private long remaining;
   private long blockPoolUsed;
+  /** Whether the DataNode last reported the storage as slow */
+  private boolean slow;
 
   private volatile BlockInfo blockList = null;
   private int numBlocks = 0;
@@ -198,6 +200,10 @@ long getDfsUsed() {
     return dfsUsed;
   }
 
+  boolean isSlow() {
+    return slow;
+  }
+
   long getRemaining() {
     return remaining;
   }
@@ -257,6 +263,7 @@ void updateState(StorageReport r) {
     dfsUsed = r.getDfsUsed();
     remaining = r.getRemaining();
     blockPoolUsed = r.getBlockPoolUsed();
+    slow = r.isSlow();
   }
 
   public DatanodeDescriptor getDatanodeDescriptor() {
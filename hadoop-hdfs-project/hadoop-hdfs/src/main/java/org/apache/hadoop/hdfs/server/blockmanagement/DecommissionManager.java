@@ -17,6 +17,10 @@
  */
 package org.apache.hadoop.hdfs.server.blockmanagement;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.commons.logging.Log;
@@ -25,21 +29,149 @@
 import org.apache.hadoop.classification.InterfaceStability;
 import org.apache.hadoop.hdfs.server.namenode.Namesystem;
 
+import com.google.common.annotations.VisibleForTesting;
+
 /**
  * Manage node decommissioning.
+ *
+ * All the blocks of a decommissioning node are scanned once, when the
+ * decommission starts, and the blocks that need replication are remembered.
+ * The {@link Monitor} then only rechecks those blocks, forgetting the ones
+ * that have been replicated, and releases the namesystem write lock every
+ * few blocks. Once none of them prevents the decommission, all the blocks of
+ * the node are scanned again, for the blocks that it received in the
+ * meantime, before the node is marked decommissioned.
  */
 @InterfaceAudience.Private
 @InterfaceStability.Evolving
 class DecommissionManager {
   static final Log LOG = LogFactory.getLog(DecommissionManager.class);
 
+  /** The counts of the blocks of a node found by one check. */
+  static class BlockCounts {
+    int underReplicatedBlocks = 0;
+    int decommissionOnlyReplicas = 0;
+    int underReplicatedInOpenFiles = 0;
+    /** Whether a block prevents the node from being decommissioned. */
+    boolean replicationInProgress = false;
+  }
+
   private final Namesystem namesystem;
   private final BlockManager blockmanager;
+  /** The number of blocks to recheck per hold of the write lock. */
+  private final int blocksPerLock;
+
+  /**
+   * The blocks that needed replication when last checked, for each node
+   * being decommissioned. Guarded by the namesystem write lock.
+   */
+  private final Map<DatanodeDescriptor, List<BlockInfo>> pendingBlocks =
+      new HashMap<DatanodeDescriptor, List<BlockInfo>>();
 
   DecommissionManager(final Namesystem namesystem,
-      final BlockManager blockmanager) {
+      final BlockManager blockmanager, final int blocksPerLock) {
     this.namesystem = namesystem;
     this.blockmanager = blockmanager;
+    this.blocksPerLock = blocksPerLock;
+  }
+
+  /**
+   * Scan all the blocks of a decommissioning node, remember those that need
+   * replication, and mark the node decommissioned if none of them prevents
+   * it. Called with the namesystem write lock held.
+   *
+   * @return true if the node is decommissioned
+   */
+  boolean scanNode(final DatanodeDescriptor node) {
+    final BlockCounts counts = new BlockCounts();
+    final List<BlockInfo> pending = new ArrayList<BlockInfo>();
+    final Iterator<BlockInfo> it = node.getBlockIterator();
+    while (it.hasNext()) {
+      final BlockInfo block = it.next();
+      if (blockmanager.checkDecommissioningBlock(node, block, counts)) {
+        pending.add(block);
+      }
+    }
+    node.decommissioningStatus.set(counts.underReplicatedBlocks,
+        counts.decommissionOnlyReplicas, counts.underReplicatedInOpenFiles);
+    if (counts.replicationInProgress) {
+      pendingBlocks.put(node, pending);
+      return false;
+    }
+    pendingBlocks.remove(node);
+    node.setDecommissioned();
+    LOG.info("Decommission complete for " + node);
+    return true;
+  }
+
+  /**
+   * Forget the blocks of a node that is no longer being decommissioned.
+   * Called with the namesystem write lock held.
+   */
+  void stopTracking(final DatanodeDescriptor node) {
+    pendingBlocks.remove(node);
+  }
+
+  @VisibleForTesting
+  int getNumPendingBlocks(final DatanodeDescriptor node) {
+    final List<BlockInfo> pending = pendingBlocks.get(node);
+    return pending == null ? 0 : pending.size();
+  }
+
+  /**
+   * Recheck the remembered blocks of a decommissioning node, releasing the
+   * write lock every {@link #blocksPerLock} blocks. Called with the
+   * namesystem write lock held.
+   */
+  @VisibleForTesting
+  void recheckNode(final DatanodeDescriptor node) {
+    if (!isRegistered(node)) {
+      // The node was removed while the write lock was released.
+      pendingBlocks.remove(node);
+      return;
+    }
+    final List<BlockInfo> pending = pendingBlocks.get(node);
+    if (pending == null) {
+      scanNode(node);
+      return;
+    }
+    final BlockCounts counts = new BlockCounts();
+    int kept = 0;
+    for (int i = 0; i < pending.size(); i++) {
+      if (i > 0 && i % blocksPerLock == 0) {
+        // Let other operations in before checking the next blocks.
+        namesystem.writeUnlock();
+        namesystem.writeLock();
+        if (!node.isDecommissionInProgress() || !isRegistered(node)
+            || pendingBlocks.get(node) != pending) {
+          // The decommission was stopped or restarted, or the node was
+          // removed, in the meantime.
+          return;
+        }
+      }
+      // The block may have been deleted, or removed from the node.
+      final BlockInfo block =
+          blockmanager.blocksMap.getStoredBlock(pending.get(i));
+      if (block != null && block.findDatanode(node) >= 0
+          && blockmanager.checkDecommissioningBlock(node, block, counts)) {
+        pending.set(kept++, block);
+      }
+    }
+    pending.subList(kept, pending.size()).clear();
+
+    if (counts.replicationInProgress) {
+      node.decommissioningStatus.set(counts.underReplicatedBlocks,
+          counts.decommissionOnlyReplicas, counts.underReplicatedInOpenFiles);
+    } else {
+      // Look for the blocks the node received since it was last scanned.
+      scanNode(node);
+    }
+  }
+
+  /** @return whether the node is still in the datanode map. */
+  private boolean isRegistered(final DatanodeDescriptor node) {
+    return blockmanager.getDatanodeManager().getDatanode(
+        node.getDatanodeUuid()) == node;
   }
 
   /** Periodically check decommission status. */
@@ -71,7 +203,7 @@ public void run() {
         } finally {
           namesystem.writeUnlock();
         }
-  
+
         try {
           Thread.sleep(recheckInterval);
         } catch (InterruptedException ie) {
@@ -79,26 +211,36 @@ public void run() {
         }
       }
     }
-    
+
     private void check() {
       final DatanodeManager dm = blockmanager.getDatanodeManager();
-      int count = 0;
+      // Choose the nodes first: the datanode map may change while the write
+      // lock is released during the checks.
+      final List<DatanodeDescriptor> nodes =
+          new ArrayList<DatanodeDescriptor>();
       for(Map.Entry<String, DatanodeDescriptor> entry
           : dm.getDatanodeCyclicIteration(firstkey)) {
         final DatanodeDescriptor d = entry.getValue();
         firstkey = entry.getKey();
 
         if (d.isDecommissionInProgress()) {
-          try {
-            dm.checkDecommissionState(d);
-          } catch(Exception e) {
-            LOG.warn("entry=" + entry, e);
-          }
-          if (++count == numNodesPerCheck) {
-            return;
+          nodes.add(d);
+          if (nodes.size() == numNodesPerCheck) {
+            break;
           }
         }
       }
+
+      for (DatanodeDescriptor d : nodes) {
+        if (!d.isDecommissionInProgress()) {
+          continue;
+        }
+        try {
+          recheckNode(d);
+        } catch(Exception e) {
+          LOG.warn("node=" + d, e);
+        }
+      }
     }
   }
 }
@@ -244,6 +244,7 @@ void heartbeatCheck() {
       DatanodeID dead = null;
       // check the number of stale nodes
       int numOfStaleNodes = 0;
+      int numOfSlowStorages = 0;
       synchronized(this) {
         for (DatanodeDescriptor d : datanodes) {
           if (dead == null && dm.isDatanodeDead(d)) {
@@ -253,10 +254,16 @@ void heartbeatCheck() {
           if (d.isStale(dm.getStaleInterval())) {
             numOfStaleNodes++;
           }
+          for (DatanodeStorageInfo storage : d.getStorageInfos()) {
+            if (storage.isSlow()) {
+              numOfSlowStorages++;
+            }
+          }
         }
         
         // Set the number of stale nodes in the DatanodeManager
         dm.setNumStaleNodes(numOfStaleNodes);
+        dm.setNumSlowStorages(numOfSlowStorages);
       }
 
       allAlive = dead == null;
@@ -80,6 +80,8 @@ class UnderReplicatedBlocks implements Iterable<Block> {
   /** the queues themselves */
   private List<LightWeightLinkedSet<Block>> priorityQueues
       = new ArrayList<LightWeightLinkedSet<Block>>(LEVEL);
+  /** The number of times the bookmarks went back to the queue heads */
+  private long bookmarkResets = 0;
 
   /** Create an object. */
   UnderReplicatedBlocks() {
@@ -355,12 +357,23 @@ public synchronized List<List<Block>> chooseUnderReplicatedBlocks(
         for (int i = 0; i < LEVEL; i++) {
           this.priorityQueues.get(i).resetBookmark();
         }
+        bookmarkResets++;
         break;
       }
     }
     return blocksToReplicate;
   }
 
+  /**
+   * @return the number of times {@link #chooseUnderReplicatedBlocks(int)}
+   *         reached the end of the lowest priority list and reset the
+   *         bookmarks, so that a caller can tell when the next call starts
+   *         over from the heads of the lists.
+   */
+  synchronized long getBookmarkResets() {
+    return bookmarkResets;
+  }
+
   /** returns an iterator of all blocks in a given priority queue */
   synchronized BlockIterator iterator(int level) {
     return new BlockIterator(level);
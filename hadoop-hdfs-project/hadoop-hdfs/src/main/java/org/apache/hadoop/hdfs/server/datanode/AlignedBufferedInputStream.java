@@ -0,0 +1,124 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A buffered input stream whose reads of the underlying stream never cross
+ * a multiple of the buffer size, counted from the start of the stream.
+ *
+ * Unlike {@link java.io.BufferedInputStream}, a skip past the buffered data
+ * does not leave every following read misaligned: the next read only goes
+ * up to the following boundary, and all reads after it fetch one whole
+ * aligned buffer. The stream must be positioned at its start when wrapped.
+ */
+class AlignedBufferedInputStream extends FilterInputStream {
+  private final byte[] buf;
+  /** Index of the next byte to return from buf. */
+  private int pos;
+  /** Number of valid bytes in buf. */
+  private int count;
+  /** Position of the underlying stream. */
+  private long streamPos;
+
+  AlignedBufferedInputStream(InputStream in, int size) {
+    super(in);
+    Preconditions.checkArgument(size > 0, "Buffer size must be positive");
+    this.buf = new byte[size];
+  }
+
+  /** Read up to the next aligned boundary of the underlying stream. */
+  private int fill() throws IOException {
+    int len = buf.length - (int)(streamPos % buf.length);
+    int n = in.read(buf, 0, len);
+    pos = 0;
+    count = Math.max(n, 0);
+    if (n > 0) {
+      streamPos += n;
+    }
+    return n;
+  }
+
+  @Override
+  public int read() throws IOException {
+    if (pos >= count && fill() <= 0) {
+      return -1;
+    }
+    return buf[pos++] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (off < 0 || len < 0 || len > b.length - off) {
+      throw new IndexOutOfBoundsException();
+    } else if (len == 0) {
+      return 0;
+    }
+    if (pos >= count && fill() <= 0) {
+      return -1;
+    }
+    int n = Math.min(count - pos, len);
+    System.arraycopy(buf, pos, b, off, n);
+    pos += n;
+    return n;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    if (n <= 0) {
+      return 0;
+    }
+    int avail = count - pos;
+    if (n <= avail) {
+      pos += n;
+      return n;
+    }
+    pos = count;
+    long skipped = in.skip(n - avail);
+    if (skipped > 0) {
+      streamPos += skipped;
+    } else {
+      skipped = 0;
+    }
+    return avail + skipped;
+  }
+
+  @Override
+  public int available() throws IOException {
+    return (count - pos) + in.available();
+  }
+
+  @Override
+  public boolean markSupported() {
+    return false;
+  }
+
+  @Override
+  public synchronized void mark(int readlimit) {
+  }
+
+  @Override
+  public synchronized void reset() throws IOException {
+    throw new IOException("mark/reset not supported");
+  }
+}
@@ -574,6 +574,11 @@ private boolean processCommandFromActive(DatanodeCommand cmd,
       dn.transferBlocks(bcmd.getBlockPoolId(), bcmd.getBlocks(), bcmd.getTargets());
       dn.metrics.incrBlocksReplicated(bcmd.getBlocks().length);
       break;
+    case DatanodeProtocol.DNA_ERASURE_CODING_RECONSTRUCTION:
+      LOG.info("DatanodeCommand action: DNA_ERASURE_CODING_RECONSTRUCTION");
+      dn.ecWorker.processErasureCodingTasks(
+          ((BlockECReconstructionCommand) cmd).getECTasks());
+      break;
     case DatanodeProtocol.DNA_INVALIDATE:
       //
       // Some local block(s) are obsolete and can be 
@@ -664,6 +669,7 @@ private boolean processCommandFromStandby(DatanodeCommand cmd,
       }
       break;
     case DatanodeProtocol.DNA_TRANSFER:
+    case DatanodeProtocol.DNA_ERASURE_CODING_RECONSTRUCTION:
     case DatanodeProtocol.DNA_INVALIDATE:
     case DatanodeProtocol.DNA_SHUTDOWN:
     case DatanodeProtocol.DNA_FINALIZE:
@@ -25,6 +25,7 @@
 import java.util.*;
 
 import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
 import org.apache.commons.logging.Log;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.ha.HAServiceProtocol.HAServiceState;
@@ -85,6 +86,9 @@ class BPServiceActor implements Runnable {
 
   boolean resetBlockReportTime = true;
 
+  // The block report being spread across heartbeats, if any.
+  private volatile BlockReportRound blockReportRound = null;
+
   volatile long lastCacheReport = 0;
 
   Thread bpThread;
@@ -235,6 +239,7 @@ void scheduleBlockReport(long delay) {
       lastBlockReport = lastHeartbeat - dnConf.blockReportInterval;
     }
     resetBlockReportTime = true; // reset future BRs for randomness
+    blockReportRound = null; // start a new round of reports
   }
 
   void reportBadBlocks(ExtendedBlock block,
@@ -296,6 +301,10 @@ private void reportReceivedDeletedBlocks() throws IOException {
           bpos.getBlockPoolId(),
           reports.toArray(new StorageReceivedDeletedBlocks[reports.size()]));
       success = true;
+      BlockReportRound round = blockReportRound;
+      if (round != null) {
+        round.sentIncrementalReports(reports);
+      }
     } finally {
       if (!success) {
         synchronized (pendingIncrementalBRperStorage) {
@@ -454,27 +463,64 @@ List<DatanodeCommand> blockReport() throws IOException {
     reportReceivedDeletedBlocks();
     lastDeletedReport = startTime;
 
+    // Continue the round of storage reports spread across heartbeats, if
+    // one is in progress. Otherwise generate the reports.
     long brCreateStartTime = now();
-    Map<DatanodeStorage, BlockListAsLongs> perVolumeBlockLists =
-        dn.getFSDataset().getBlockReports(bpos.getBlockPoolId());
-
-    // Convert the reports to the format expected by the NN.
-    int i = 0;
-    int totalBlockCount = 0;
-    StorageBlockReport reports[] =
-        new StorageBlockReport[perVolumeBlockLists.size()];
-
-    for(Map.Entry<DatanodeStorage, BlockListAsLongs> kvPair : perVolumeBlockLists.entrySet()) {
-      BlockListAsLongs blockList = kvPair.getValue();
-      reports[i++] = new StorageBlockReport(
-          kvPair.getKey(), blockList.getBlockListAsLongs());
-      totalBlockCount += blockList.getNumberOfBlocks();
+    BlockReportRound round = blockReportRound;
+    StorageBlockReport reports[];
+    int totalBlockCount;
+    if (round != null) {
+      reports = null;
+      totalBlockCount = round.totalBlockCount;
+    } else {
+      Map<DatanodeStorage, BlockListAsLongs> perVolumeBlockLists =
+          dn.getFSDataset().getBlockReports(bpos.getBlockPoolId());
+
+      // Convert the reports to the format expected by the NN.
+      int i = 0;
+      totalBlockCount = 0;
+      reports = new StorageBlockReport[perVolumeBlockLists.size()];
+
+      for(Map.Entry<DatanodeStorage, BlockListAsLongs> kvPair : perVolumeBlockLists.entrySet()) {
+        BlockListAsLongs blockList = kvPair.getValue();
+        reports[i++] = new StorageBlockReport(
+            kvPair.getKey(), blockList.getBlockListAsLongs());
+        totalBlockCount += blockList.getNumberOfBlocks();
+      }
+      if (totalBlockCount >= dnConf.blockReportSplitThreshold
+          && dnConf.blockReportSplitAcrossHeartbeats && reports.length > 0) {
+        round = new BlockReportRound(startTime, totalBlockCount, reports);
+        blockReportRound = round;
+      }
     }
 
     // Send the reports to the NN.
     int numReportsSent;
+    boolean roundComplete = true;
     long brSendStartTime = now();
-    if (totalBlockCount < dnConf.blockReportSplitThreshold) {
+    if (round != null) {
+      // Send a single storage report per heartbeat, so that the NN does not
+      // receive the whole report of a dense node in one burst.
+      numReportsSent = 1;
+      StorageBlockReport report = round.unreported.peek();
+      StorageBlockReport singleReport[] = { report };
+      DatanodeCommand cmd = bpNamenode.blockReport(
+          bpRegistration, bpos.getBlockPoolId(), singleReport);
+      if (cmd != null) {
+        cmds.add(cmd);
+      }
+      // The report was generated when the round started, so the NN has
+      // just undone the incremental reports of this storage sent since.
+      ReceivedDeletedBlockInfo[] replay = round.reported(report);
+      if (replay.length > 0) {
+        synchronized (pendingIncrementalBRperStorage) {
+          getIncrementalBRMapForStorage(report.getStorage())
+              .putMissingBlockInfos(replay);
+        }
+        reportReceivedDeletedBlocks();
+      }
+      roundComplete = round.unreported.isEmpty();
+    } else if (totalBlockCount < dnConf.blockReportSplitThreshold) {
       // Below split threshold, send all reports in a single message.
       numReportsSent = 1;
       DatanodeCommand cmd =
@@ -484,7 +530,7 @@ List<DatanodeCommand> blockReport() throws IOException {
       }
     } else {
       // Send one block report per message.
-      numReportsSent = i;
+      numReportsSent = reports.length;
       for (StorageBlockReport report : reports) {
         StorageBlockReport singleReport[] = { report };
         DatanodeCommand cmd = bpNamenode.blockReport(
@@ -506,7 +552,17 @@ List<DatanodeCommand> blockReport() throws IOException {
         " Got back commands " +
             (cmds.size() == 0 ? "none" : Joiner.on("; ").join(cmds)));
 
-    scheduleNextBlockReport(startTime);
+    if (!roundComplete) {
+      // Leave the timer expired so the next heartbeat reports the
+      // remaining storages.
+      return cmds.size() == 0 ? null : cmds;
+    }
+    if (round != null) {
+      blockReportRound = null;
+      scheduleNextBlockReport(round.startTime);
+    } else {
+      scheduleNextBlockReport(startTime);
+    }
     return cmds.size() == 0 ? null : cmds;
   }
 
@@ -892,6 +948,59 @@ void reRegister() throws IOException {
     }
   }
 
+  /**
+   * A block report that is sent one storage per heartbeat. The storage
+   * reports are generated once, when the round starts. The incremental
+   * reports sent since then for the storages that are still to be reported
+   * are kept, latest per block, and sent again right after their storage
+   * report.
+   * Only the actor thread uses a round.
+   */
+  private static class BlockReportRound {
+    final long startTime;
+    final int totalBlockCount;
+    final LinkedList<StorageBlockReport> unreported;
+    private final Map<String, Map<Long, ReceivedDeletedBlockInfo>>
+        sentIncrementalReports =
+            new HashMap<String, Map<Long, ReceivedDeletedBlockInfo>>();
+
+    BlockReportRound(long startTime, int totalBlockCount,
+        StorageBlockReport[] reports) {
+      this.startTime = startTime;
+      this.totalBlockCount = totalBlockCount;
+      this.unreported =
+          new LinkedList<StorageBlockReport>(Arrays.asList(reports));
+      for (StorageBlockReport report : reports) {
+        sentIncrementalReports.put(report.getStorage().getStorageID(),
+            new HashMap<Long, ReceivedDeletedBlockInfo>());
+      }
+    }
+
+    /** Keep the incremental reports of the storages not reported yet. */
+    void sentIncrementalReports(List<StorageReceivedDeletedBlocks> reports) {
+      for (StorageReceivedDeletedBlocks report : reports) {
+        Map<Long, ReceivedDeletedBlockInfo> sent =
+            sentIncrementalReports.get(report.getStorage().getStorageID());
+        if (sent != null) {
+          for (ReceivedDeletedBlockInfo rdbi : report.getBlocks()) {
+            sent.put(rdbi.getBlock().getBlockId(), rdbi);
+          }
+        }
+      }
+    }
+
+    /**
+     * Mark the first unreported storage as reported.
+     * @return the incremental reports of the storage to send again
+     */
+    ReceivedDeletedBlockInfo[] reported(StorageBlockReport report) {
+      Preconditions.checkState(unreported.poll() == report);
+      Map<Long, ReceivedDeletedBlockInfo> sent =
+          sentIncrementalReports.remove(report.getStorage().getStorageID());
+      return sent.values().toArray(new ReceivedDeletedBlockInfo[sent.size()]);
+    }
+  }
+
   private static class PerStoragePendingIncrementalBR {
     private Map<Long, ReceivedDeletedBlockInfo> pendingIncrementalBR =
         Maps.newHashMap();
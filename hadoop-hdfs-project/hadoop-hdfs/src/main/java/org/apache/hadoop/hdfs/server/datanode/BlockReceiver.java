@@ -47,6 +47,7 @@
 import org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.Status;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.ReplicaInputStreams;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.ReplicaOutputStreams;
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics.VolumeIoOp;
 import org.apache.hadoop.hdfs.server.datanode.ReplicaInPipeline;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeRegistration;
 import org.apache.hadoop.hdfs.util.DataTransferThrottler;
@@ -105,6 +106,7 @@ class BlockReceiver implements Closeable {
   private boolean dropCacheBehindWrites;
   private long lastCacheManagementOffset = 0;
   private boolean syncBehindWrites;
+  private boolean syncBehindWritesInBackground;
 
   /** The client name.  It is empty if a datanode is the client */
   private final String clientname;
@@ -118,6 +120,8 @@ class BlockReceiver implements Closeable {
   /** pipeline stage */
   private final BlockConstructionStage stage;
   private final boolean isTransfer;
+  /** Whether only the last datanode verifies datanode-initiated writes. */
+  private final boolean trustPipelineChecksums;
 
   private boolean syncOnClose;
   private long restartBudget;
@@ -141,6 +145,7 @@ class BlockReceiver implements Closeable {
       this.isDatanode = clientname.length() == 0;
       this.isClient = !this.isDatanode;
       this.restartBudget = datanode.getDnConf().restartReplicaExpiry;
+      this.trustPipelineChecksums = datanode.getDnConf().trustPipelineChecksums;
 
       //for datanode, we have
       //1: clientName.length() == 0, and
@@ -208,6 +213,8 @@ class BlockReceiver implements Closeable {
         datanode.getDnConf().dropCacheBehindWrites :
           cachingStrategy.getDropBehind();
       this.syncBehindWrites = datanode.getDnConf().syncBehindWrites;
+      this.syncBehindWritesInBackground =
+          datanode.getDnConf().syncBehindWritesInBackground;
       
       final boolean isCreate = isDatanode || isTransfer 
           || stage == BlockConstructionStage.PIPELINE_SETUP_CREATE;
@@ -338,6 +345,7 @@ public void close() throws IOException {
    */
   void flushOrSync(boolean isSync) throws IOException {
     long flushTotalNanos = 0;
+    long fsyncTotalNanos = 0;
     if (checksumOut != null) {
       long flushStartNanos = System.nanoTime();
       checksumOut.flush();
@@ -345,7 +353,9 @@ void flushOrSync(boolean isSync) throws IOException {
       if (isSync) {
         long fsyncStartNanos = flushEndNanos;
         streams.syncChecksumOut();
-        datanode.metrics.addFsyncNanos(System.nanoTime() - fsyncStartNanos);
+        long fsyncNanos = System.nanoTime() - fsyncStartNanos;
+        datanode.metrics.addFsyncNanos(fsyncNanos);
+        fsyncTotalNanos += fsyncNanos;
       }
       flushTotalNanos += flushEndNanos - flushStartNanos;
     }
@@ -356,7 +366,9 @@ void flushOrSync(boolean isSync) throws IOException {
       if (isSync) {
         long fsyncStartNanos = flushEndNanos;
         streams.syncDataOut();
-        datanode.metrics.addFsyncNanos(System.nanoTime() - fsyncStartNanos);
+        long fsyncNanos = System.nanoTime() - fsyncStartNanos;
+        datanode.metrics.addFsyncNanos(fsyncNanos);
+        fsyncTotalNanos += fsyncNanos;
       }
       flushTotalNanos += flushEndNanos - flushStartNanos;
     }
@@ -364,6 +376,8 @@ void flushOrSync(boolean isSync) throws IOException {
       datanode.metrics.addFlushNanos(flushTotalNanos);
       if (isSync) {
     	  datanode.metrics.incrFsyncCount();      
+        datanode.metrics.addVolumeIoNanos(replicaInfo.getStorageUuid(),
+            VolumeIoOp.FSYNC, fsyncTotalNanos);
       }
     }
   }
@@ -431,10 +445,13 @@ private void translateChunks(ByteBuffer dataBuf, ByteBuffer checksumBuf) {
    * datanode rather than a client. Whe client is writing the data, 
    * protocol includes acks and only the last datanode needs to verify 
    * checksum.
+   * A datanode is treated like a client when
+   * dfs.datanode.trust-pipeline-checksums is set.
    * @return true if checksum verification is needed, otherwise false.
    */
   private boolean shouldVerifyChecksum() {
-    return (mirrorOut == null || isDatanode || needsChecksumTranslation);
+    return (mirrorOut == null || (isDatanode && !trustPipelineChecksums)
+        || needsChecksumTranslation);
   }
 
   /** 
@@ -575,7 +592,10 @@ private int receivePacket() throws IOException {
           int numBytesToDisk = (int)(offsetInBlock-onDiskLen);
           
           // Write data to disk.
+          long writeStartNanos = System.nanoTime();
           out.write(dataBuf.array(), startByteToDisk, numBytesToDisk);
+          datanode.metrics.addVolumeIoNanos(replicaInfo.getStorageUuid(),
+              VolumeIoOp.WRITE, System.nanoTime() - writeStartNanos);
 
           // If this is a partial chunk, then verify that this is the only
           // chunk in the packet. Calculate new crc for this chunk.
@@ -651,10 +671,17 @@ private void manageWriterOsCache(long offsetInBlock) {
         // of file                 
         //
         if (syncBehindWrites) {
-          NativeIO.POSIX.syncFileRangeIfPossible(outFd,
-              lastCacheManagementOffset,
-              offsetInBlock - lastCacheManagementOffset,
-              NativeIO.POSIX.SYNC_FILE_RANGE_WRITE);
+          if (syncBehindWritesInBackground) {
+            datanode.data.submitBackgroundSyncFileRangeRequest(block, outFd,
+                lastCacheManagementOffset,
+                offsetInBlock - lastCacheManagementOffset,
+                NativeIO.POSIX.SYNC_FILE_RANGE_WRITE);
+          } else {
+            NativeIO.POSIX.syncFileRangeIfPossible(outFd,
+                lastCacheManagementOffset,
+                offsetInBlock - lastCacheManagementOffset,
+                NativeIO.POSIX.SYNC_FILE_RANGE_WRITE);
+          }
         }
         //
         // For POSIX_FADV_DONTNEED, we want to drop from the beginning 
@@ -17,7 +17,6 @@
  */
 package org.apache.hadoop.hdfs.server.datanode;
 
-import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.FileDescriptor;
@@ -37,6 +36,7 @@
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.protocol.datatransfer.PacketHeader;
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics.VolumeIoOp;
 import org.apache.hadoop.hdfs.util.DataTransferThrottler;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.LongWritable;
@@ -139,6 +139,10 @@ class BlockSender implements java.io.Closeable {
   
   /** The file descriptor of the block being sent */
   private FileDescriptor blockInFd;
+  /** Whether blockIn bypasses the page cache */
+  private boolean directRead;
+  /** The storage ID of the volume holding the replica */
+  private String storageUuid;
 
   // Cache-management related fields
   private final long readaheadLength;
@@ -222,12 +226,9 @@ class BlockSender implements java.io.Closeable {
             "If verifying checksum, currently must also send it.");
       }
       
-      final Replica replica;
-      final long replicaVisibleLength;
-      synchronized(datanode.data) { 
-        replica = getReplica(block, datanode);
-        replicaVisibleLength = replica.getVisibleLength();
-      }
+      final Replica replica = getReplica(block, datanode);
+      final long replicaVisibleLength = replica.getVisibleLength();
+      storageUuid = replica.getStorageUuid();
       // if there is a write in progress
       ChunkChecksum chunkChecksum = null;
       if (replica instanceof ReplicaBeingWritten) {
@@ -269,8 +270,10 @@ class BlockSender implements java.io.Closeable {
             throw new FileNotFoundException("Meta-data not found for " + block);
           }
 
-          checksumIn = new DataInputStream(
-              new BufferedInputStream(metaIn, HdfsConstants.IO_FILE_BUFFER_SIZE));
+          // Read the checksums in large aligned chunks, even after the
+          // initial skip to the first chunk to send.
+          checksumIn = new DataInputStream(new AlignedBufferedInputStream(
+              metaIn, datanode.getDnConf().metaReadBufferSize));
   
           // read and handle the common header here. For now just a version
           BlockMetadataHeader header = BlockMetadataHeader.readHeader(checksumIn);
@@ -353,7 +356,14 @@ class BlockSender implements java.io.Closeable {
       if (DataNode.LOG.isDebugEnabled()) {
         DataNode.LOG.debug("replica=" + replica);
       }
-      blockIn = datanode.data.getBlockInputStream(block, offset); // seek to offset
+      // Long reads may bypass the page cache, which they would only churn
+      if (endOffset - offset > LONG_READ_THRESHOLD_BYTES) {
+        blockIn = datanode.data.getDirectBlockInputStream(block, offset);
+        directRead = blockIn != null;
+      }
+      if (blockIn == null) {
+        blockIn = datanode.data.getBlockInputStream(block, offset); // seek to offset
+      }
       if (blockIn instanceof FileInputStream) {
         blockInFd = ((FileInputStream)blockIn).getFD();
       } else {
@@ -527,7 +537,12 @@ private int sendPacket(ByteBuffer pkt, int maxChunks, OutputStream out,
     
     int dataOff = checksumOff + checksumDataLen;
     if (!transferTo) { // normal transfer
+      long readStartNanos = System.nanoTime();
       IOUtils.readFully(blockIn, buf, dataOff, dataLen);
+      if (!directRead) { // direct reads record their own latency
+        datanode.metrics.addVolumeIoNanos(storageUuid, VolumeIoOp.READ,
+            System.nanoTime() - readStartNanos);
+      }
 
       if (verifyChecksum) {
         verifyChecksum(buf, dataOff, dataLen, numChunks, checksumOff);
@@ -634,23 +649,9 @@ private void readChecksum(byte[] buf, final int checksumOffset,
   public void verifyChecksum(final byte[] buf, final int dataOffset,
       final int datalen, final int numChunks, final int checksumOffset)
       throws ChecksumException {
-    int dOff = dataOffset;
-    int cOff = checksumOffset;
-    int dLeft = datalen;
-
-    for (int i = 0; i < numChunks; i++) {
-      checksum.reset();
-      int dLen = Math.min(dLeft, chunkSize);
-      checksum.update(buf, dOff, dLen);
-      if (!checksum.compare(buf, cOff)) {
-        long failedPos = offset + datalen - dLeft;
-        throw new ChecksumException("Checksum failed at " + failedPos,
-            failedPos);
-      }
-      dLeft -= dLen;
-      dOff += dLen;
-      cOff += checksumSize;
-    }
+    checksum.verifyChunkedSums(ByteBuffer.wrap(buf, dataOffset, datalen),
+        ByteBuffer.wrap(buf, checksumOffset, numChunks * checksumSize),
+        block.getBlockName(), offset);
   }
   
   /**
@@ -703,8 +704,9 @@ long sendBlock(DataOutputStream out, OutputStream baseStream,
         // Smaller packet size to only hold checksum when doing transferTo
         pktBufSize += checksumSize * maxChunksPerPacket;
       } else {
-        maxChunksPerPacket = Math.max(1,
-            numberOfChunks(HdfsConstants.IO_FILE_BUFFER_SIZE));
+        // a direct read copies from a large buffer, so send large packets
+        maxChunksPerPacket = Math.max(1, numberOfChunks(directRead ?
+            TRANSFERTO_BUFFER_SIZE : HdfsConstants.IO_FILE_BUFFER_SIZE));
         // Packet size includes both checksum and data
         pktBufSize += (chunkSize + checksumSize) * maxChunksPerPacket;
       }
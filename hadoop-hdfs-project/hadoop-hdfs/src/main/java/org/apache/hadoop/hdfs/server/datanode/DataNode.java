@@ -220,6 +220,9 @@ public static InetSocketAddress createSocketAddr(String target) {
 
   private JvmPauseMonitor pauseMonitor;
 
+  /** Rebuilds lost internal blocks of erasure coded files */
+  ErasureCodingWorker ecWorker;
+
   private SecureResources secureResources = null;
   private List<StorageLocation> dataDirs;
   private Configuration conf;
@@ -500,7 +503,7 @@ private synchronized void initDirectoryScanner(Configuration conf) {
       reason = "verifcation is not supported by SimulatedFSDataset";
     } 
     if (reason == null) {
-      directoryScanner = new DirectoryScanner(data, conf);
+      directoryScanner = new DirectoryScanner(data, conf, metrics);
       directoryScanner.start();
     } else {
       LOG.info("Periodic Directory Tree Verification scan is disabled because " +
@@ -749,6 +752,8 @@ void startDataNode(Configuration conf,
     // Create the ReadaheadPool from the DataNode context so we can
     // exit without having to explicitly shutdown its thread pool.
     readaheadPool = ReadaheadPool.getInstance();
+
+    ecWorker = new ErasureCodingWorker(conf, this);
   }
   
   public static String generateUuid() {
@@ -1238,6 +1243,9 @@ public void shutdown() {
     if (pauseMonitor != null) {
       pauseMonitor.stop();
     }
+    if (ecWorker != null) {
+      ecWorker.shutdown();
+    }
 
     // shouldRun is set to false here to prevent certain threads from exiting
     // before the restart prep is done.
@@ -1404,7 +1412,15 @@ private void handleDiskError(String errMsgr) {
   /** Number of concurrent xceivers per node. */
   @Override // DataNodeMXBean
   public int getXceiverCount() {
-    return threadGroup == null ? 0 : threadGroup.activeCount();
+    if (threadGroup == null) {
+      return 0;
+    }
+    // Xceivers of an event-driven server run on pooled threads, or on none
+    // while they are idle, so they are not in the thread group.
+    int pooled = dataXceiverServer == null ? 0 :
+        ((DataXceiverServer) dataXceiverServer.getRunnable())
+            .getPooledXceiverCount();
+    return threadGroup.activeCount() + pooled;
   }
   
   int getXmitsInProgress() {
@@ -2326,29 +2342,27 @@ void transferReplicaForPipelineRecovery(final ExtendedBlock b,
     final BlockConstructionStage stage;
 
     //get replica information
-    synchronized(data) {
-      Block storedBlock = data.getStoredBlock(b.getBlockPoolId(),
-          b.getBlockId());
-      if (null == storedBlock) {
-        throw new IOException(b + " not found in datanode.");
-      }
-      storedGS = storedBlock.getGenerationStamp();
-      if (storedGS < b.getGenerationStamp()) {
-        throw new IOException(storedGS
-            + " = storedGS < b.getGenerationStamp(), b=" + b);
-      }
-      // Update the genstamp with storedGS
-      b.setGenerationStamp(storedGS);
-      if (data.isValidRbw(b)) {
-        stage = BlockConstructionStage.TRANSFER_RBW;
-      } else if (data.isValidBlock(b)) {
-        stage = BlockConstructionStage.TRANSFER_FINALIZED;
-      } else {
-        final String r = data.getReplicaString(b.getBlockPoolId(), b.getBlockId());
-        throw new IOException(b + " is neither a RBW nor a Finalized, r=" + r);
-      }
-      visible = data.getReplicaVisibleLength(b);
+    Block storedBlock = data.getStoredBlock(b.getBlockPoolId(),
+        b.getBlockId());
+    if (null == storedBlock) {
+      throw new IOException(b + " not found in datanode.");
+    }
+    storedGS = storedBlock.getGenerationStamp();
+    if (storedGS < b.getGenerationStamp()) {
+      throw new IOException(storedGS
+          + " = storedGS < b.getGenerationStamp(), b=" + b);
+    }
+    // Update the genstamp with storedGS
+    b.setGenerationStamp(storedGS);
+    if (data.isValidRbw(b)) {
+      stage = BlockConstructionStage.TRANSFER_RBW;
+    } else if (data.isValidBlock(b)) {
+      stage = BlockConstructionStage.TRANSFER_FINALIZED;
+    } else {
+      final String r = data.getReplicaString(b.getBlockPoolId(), b.getBlockId());
+      throw new IOException(b + " is neither a RBW nor a Finalized, r=" + r);
     }
+    visible = data.getReplicaVisibleLength(b);
     //set visible length
     b.setNumBytes(visible);
 
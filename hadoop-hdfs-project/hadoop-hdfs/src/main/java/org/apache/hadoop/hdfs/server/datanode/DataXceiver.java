@@ -23,6 +23,7 @@
 import static org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.Status.ERROR_UNSUPPORTED;
 import static org.apache.hadoop.hdfs.protocol.proto.DataTransferProtos.Status.SUCCESS;
 import static org.apache.hadoop.hdfs.server.datanode.DataNode.DN_CLIENTTRACE_FORMAT;
+import static org.apache.hadoop.util.Time.monotonicNow;
 import static org.apache.hadoop.util.Time.now;
 
 import java.io.BufferedInputStream;
@@ -40,6 +41,8 @@
 import java.net.Socket;
 import java.net.SocketException;
 import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
 import java.util.Arrays;
 
 import org.apache.commons.logging.Log;
@@ -76,6 +79,7 @@
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.MD5Hash;
 import org.apache.hadoop.net.NetUtils;
+import org.apache.hadoop.net.SocketInputStream;
 import org.apache.hadoop.net.unix.DomainSocket;
 import org.apache.hadoop.security.token.SecretManager.InvalidToken;
 import org.apache.hadoop.security.token.Token;
@@ -107,6 +111,20 @@ class DataXceiver extends Receiver implements Runnable {
    * on the socket.
    */
   private String previousOpClientName;
+
+  /** Number of ops processed on this connection so far. */
+  private int opsProcessed = 0;
+  /** Whether the streams have been set up by a first run. */
+  private boolean initialized = false;
+  /**
+   * Channel an event loop can wait on between two ops; null if this
+   * xceiver keeps its thread for the whole connection.
+   */
+  private SelectableChannel selectableChannel;
+  /** Whether the xceiver is parked on an event loop. */
+  private volatile boolean parked = false;
+  /** When a parked xceiver is closed if no op arrives. */
+  private volatile long idleDeadline;
   
   public static DataXceiver create(Peer peer, DataNode dn,
       DataXceiverServer dataXceiverServer) throws IOException {
@@ -159,42 +177,68 @@ private OutputStream getOutputStream() {
 
   /**
    * Read/write data from/to the DataXceiverServer.
+   *
+   * On an event-driven server this is run again each time a parked
+   * xceiver gets its next op, possibly on a different worker thread.
    */
   @Override
   public void run() {
-    int opsProcessed = 0;
     Op op = null;
+    boolean parkedOnExit = false;
+    // Whether the event loop found the next op of a parked xceiver.
+    boolean resumed = false;
 
     try {
       dataXceiverServer.addPeer(peer, Thread.currentThread());
-      peer.setWriteTimeout(datanode.getDnConf().socketWriteTimeout);
-      InputStream input = socketIn;
-      if ((!peer.hasSecureChannel()) && dnConf.encryptDataTransfer) {
-        IOStreamPair encryptedStreams = null;
-        try {
-          encryptedStreams = DataTransferEncryptor.getEncryptedStreams(socketOut,
-              socketIn, datanode.blockPoolTokenSecretManager,
-              dnConf.encryptionAlgorithm);
-        } catch (InvalidMagicNumberException imne) {
-          LOG.info("Failed to read expected encryption handshake from client " +
-              "at " + peer.getRemoteAddressString() + ". Perhaps the client " +
-              "is running an older version of Hadoop which does not support " +
-              "encryption");
-          return;
+      if (parked) {
+        parked = false;
+        resumed = true;
+        datanode.metrics.decrIdleXceivers();
+      }
+      if (!initialized) {
+        peer.setWriteTimeout(datanode.getDnConf().socketWriteTimeout);
+        InputStream input = socketIn;
+        if ((!peer.hasSecureChannel()) && dnConf.encryptDataTransfer) {
+          IOStreamPair encryptedStreams = null;
+          try {
+            encryptedStreams = DataTransferEncryptor.getEncryptedStreams(socketOut,
+                socketIn, datanode.blockPoolTokenSecretManager,
+                dnConf.encryptionAlgorithm);
+          } catch (InvalidMagicNumberException imne) {
+            LOG.info("Failed to read expected encryption handshake from client " +
+                "at " + peer.getRemoteAddressString() + ". Perhaps the client " +
+                "is running an older version of Hadoop which does not support " +
+                "encryption");
+            return;
+          }
+          input = encryptedStreams.in;
+          socketOut = encryptedStreams.out;
+        }
+        if (input == socketIn && dataXceiverServer.isEventDriven()) {
+          // Only plain streams can be parked: a wrapped stream may hold
+          // data that the channel no longer shows as readable.
+          selectableChannel = getSelectableChannel(peer);
         }
-        input = encryptedStreams.in;
-        socketOut = encryptedStreams.out;
+        input = new BufferedInputStream(input, HdfsConstants.SMALL_BUFFER_SIZE);
+
+        super.initialize(new DataInputStream(input));
+        initialized = true;
       }
-      input = new BufferedInputStream(input, HdfsConstants.SMALL_BUFFER_SIZE);
-      
-      super.initialize(new DataInputStream(input));
       
       // We process requests in a loop, and stay around for a short timeout.
       // This optimistic behaviour allows the other end to reuse connections.
       // Setting keepalive timeout to 0 disable this behavior.
       do {
+        // The socket stream does not report the bytes it has available, so
+        // a resumed xceiver reads its op rather than parking again.
+        if (opsProcessed != 0 && !resumed && park()) {
+          parkedOnExit = true;
+          return;
+        }
+        resumed = false;
         updateCurrentThreadName("Waiting for operation #" + (opsProcessed + 1));
 
+        datanode.metrics.incrIdleXceivers();
         try {
           if (opsProcessed != 0) {
             assert dnConf.socketKeepaliveTimeout > 0;
@@ -217,6 +261,8 @@ public void run() {
             throw err;
           }
           break;
+        } finally {
+          datanode.metrics.decrIdleXceivers();
         }
 
         // restore normal timeout
@@ -225,7 +271,12 @@ public void run() {
         }
 
         opStartTime = now();
-        processOp(op);
+        datanode.metrics.incrActiveXceivers();
+        try {
+          processOp(op);
+        } finally {
+          datanode.metrics.decrActiveXceivers();
+        }
         ++opsProcessed;
       } while ((peer != null) &&
           (!peer.isClosed() && dnConf.socketKeepaliveTimeout > 0));
@@ -246,18 +297,81 @@ public void run() {
         LOG.error(s, t);
       }
     } finally {
-      if (LOG.isDebugEnabled()) {
-        LOG.debug(datanode.getDisplayName() + ":Number of active connections is: "
-            + datanode.getXceiverCount());
-      }
-      updateCurrentThreadName("Cleaning up");
-      if (peer != null) {
-        dataXceiverServer.closePeer(peer);
-        IOUtils.closeStream(in);
+      // A parked xceiver now belongs to its event loop.
+      if (!parkedOnExit) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug(datanode.getDisplayName() + ":Number of active connections is: "
+              + datanode.getXceiverCount());
+        }
+        updateCurrentThreadName("Cleaning up");
+        if (peer != null) {
+          dataXceiverServer.closePeer(peer);
+          IOUtils.closeStream(in);
+        }
       }
     }
   }
 
+  private static SelectableChannel getSelectableChannel(Peer peer) {
+    ReadableByteChannel channel = peer.getInputStreamChannel();
+    if (channel instanceof SocketInputStream) {
+      channel = ((SocketInputStream) channel).getChannel();
+    }
+    return channel instanceof SelectableChannel ?
+        (SelectableChannel) channel : null;
+  }
+
+  /**
+   * Hand this xceiver to an event loop until its next op arrives, so that
+   * it does not hold a thread while the connection is idle.
+   *
+   * @return true if the xceiver was parked; the caller must then leave it
+   *         alone, as another thread may already be running it.
+   */
+  private boolean park() throws IOException {
+    if (selectableChannel == null || peer.isClosed() || in.available() > 0) {
+      return false;
+    }
+    updateCurrentThreadName("Parked after operation #" + opsProcessed);
+    dataXceiverServer.detachPeer(peer);
+    idleDeadline = monotonicNow() + dnConf.socketKeepaliveTimeout;
+    parked = true;
+    datanode.metrics.incrIdleXceivers();
+    if (dataXceiverServer.park(this)) {
+      return true;
+    }
+    parked = false;
+    datanode.metrics.decrIdleXceivers();
+    dataXceiverServer.addPeer(peer, Thread.currentThread());
+    return false;
+  }
+
+  SelectableChannel getSelectableChannel() {
+    return selectableChannel;
+  }
+
+  long getIdleDeadline() {
+    return idleDeadline;
+  }
+
+  /**
+   * Close an xceiver that is not running on any thread, either because it
+   * is parked or because it was never started.
+   */
+  void closeParked() {
+    if (parked) {
+      parked = false;
+      datanode.metrics.decrIdleXceivers();
+    }
+    dataXceiverServer.closePeer(peer);
+    IOUtils.closeStream(in);
+  }
+
+  @Override
+  public String toString() {
+    return "DataXceiver for client at " + remoteAddress;
+  }
+
   @Override
   public void requestShortCircuitFds(final ExtendedBlock blk,
       final Token<BlockTokenIdentifier> token,
@@ -0,0 +1,197 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import static org.apache.hadoop.util.Time.monotonicNow;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.hadoop.io.IOUtils;
+
+/**
+ * Watches DataXceivers whose connection is kept alive between two
+ * operations, so that they do not hold a thread while they wait.
+ *
+ * A parked xceiver is handed back to the {@link DataXceiverServer} when
+ * its channel becomes readable, and closed if nothing arrives before its
+ * keepalive deadline.
+ */
+class DataXceiverEventLoop implements Runnable {
+  public static final Log LOG = DataNode.LOG;
+
+  private final DataXceiverServer server;
+  private final Selector selector;
+  /** Xceivers waiting to be registered with the selector. */
+  private final List<DataXceiver> pending = new ArrayList<DataXceiver>();
+  private boolean running = true;
+  /** Earliest keepalive deadline among the registered xceivers. */
+  private long nextExpiry = Long.MAX_VALUE;
+
+  DataXceiverEventLoop(DataXceiverServer server) throws IOException {
+    this.server = server;
+    this.selector = Selector.open();
+  }
+
+  /**
+   * Watch the given xceiver until its next operation arrives.
+   *
+   * @return false if the loop has been stopped; the caller keeps the
+   *         xceiver in that case.
+   */
+  synchronized boolean park(DataXceiver xceiver) {
+    if (!running) {
+      return false;
+    }
+    pending.add(xceiver);
+    selector.wakeup();
+    return true;
+  }
+
+  /** Stop the loop. Parked xceivers are closed by the loop thread. */
+  synchronized void stop() {
+    running = false;
+    selector.wakeup();
+  }
+
+  private synchronized boolean isRunning() {
+    return running;
+  }
+
+  private synchronized List<DataXceiver> takePending() {
+    if (pending.isEmpty()) {
+      return null;
+    }
+    List<DataXceiver> taken = new ArrayList<DataXceiver>(pending);
+    pending.clear();
+    return taken;
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (isRunning()) {
+        long now = monotonicNow();
+        if (nextExpiry == Long.MAX_VALUE) {
+          selector.select();
+        } else if (nextExpiry > now) {
+          selector.select(nextExpiry - now);
+        } else {
+          selector.selectNow();
+        }
+
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+          SelectionKey key = it.next();
+          it.remove();
+          DataXceiver xceiver = (DataXceiver) key.attachment();
+          try {
+            // keep the registration for the next time the xceiver parks
+            key.interestOps(0);
+          } catch (CancelledKeyException e) {
+            xceiver.closeParked();
+            continue;
+          }
+          server.dispatch(xceiver);
+        }
+
+        List<DataXceiver> taken = takePending();
+        if (taken != null) {
+          for (DataXceiver xceiver : taken) {
+            register(xceiver);
+          }
+        }
+
+        if (monotonicNow() >= nextExpiry) {
+          expireIdle();
+        }
+      }
+    } catch (Throwable t) {
+      LOG.error("DataXceiver event loop exiting due to: ", t);
+    } finally {
+      synchronized (this) {
+        running = false;
+      }
+      closeAll();
+    }
+  }
+
+  private void register(DataXceiver xceiver) {
+    SelectableChannel channel = xceiver.getSelectableChannel();
+    try {
+      SelectionKey key = channel.keyFor(selector);
+      if (key != null && key.isValid()) {
+        key.attach(xceiver);
+        key.interestOps(SelectionKey.OP_READ);
+      } else {
+        channel.register(selector, SelectionKey.OP_READ, xceiver);
+      }
+      nextExpiry = Math.min(nextExpiry, xceiver.getIdleDeadline());
+    } catch (ClosedChannelException e) {
+      xceiver.closeParked();
+    } catch (CancelledKeyException e) {
+      xceiver.closeParked();
+    }
+  }
+
+  /** Close the xceivers that have been idle past their deadline. */
+  private void expireIdle() {
+    long now = monotonicNow();
+    nextExpiry = Long.MAX_VALUE;
+    for (SelectionKey key : selector.keys()) {
+      if (!key.isValid() || key.interestOps() == 0) {
+        continue; // closed, or back on a worker thread
+      }
+      DataXceiver xceiver = (DataXceiver) key.attachment();
+      long deadline = xceiver.getIdleDeadline();
+      if (deadline <= now) {
+        key.cancel();
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Closing idle " + xceiver);
+        }
+        xceiver.closeParked();
+      } else {
+        nextExpiry = Math.min(nextExpiry, deadline);
+      }
+    }
+  }
+
+  private void closeAll() {
+    for (SelectionKey key : selector.keys()) {
+      if (key.isValid() && key.interestOps() != 0) {
+        key.cancel();
+        ((DataXceiver) key.attachment()).closeParked();
+      }
+    }
+    List<DataXceiver> taken = takePending();
+    if (taken != null) {
+      for (DataXceiver xceiver : taken) {
+        xceiver.closeParked();
+      }
+    }
+    IOUtils.cleanup(LOG, selector);
+  }
+}
@@ -21,12 +21,18 @@
 import java.net.SocketTimeoutException;
 import java.nio.channels.AsynchronousCloseException;
 import java.util.HashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.net.Peer;
 import org.apache.hadoop.hdfs.net.PeerServer;
+import org.apache.hadoop.hdfs.net.TcpPeerServer;
 import org.apache.hadoop.hdfs.server.balancer.Balancer;
 import org.apache.hadoop.hdfs.util.DataTransferThrottler;
 import org.apache.hadoop.io.IOUtils;
@@ -38,6 +44,12 @@
  * This is created to listen for requests from clients or 
  * other DataNodes.  This small server does not use the 
  * Hadoop IPC mechanism.
+ *
+ * By default every connection is served by its own DataXceiver thread.
+ * With {@link DFSConfigKeys#DFS_DATANODE_XCEIVER_EVENT_DRIVEN_KEY} set,
+ * TCP connections are served by a bounded pool of worker threads instead,
+ * and a connection that is idle between two operations is parked on a
+ * {@link DataXceiverEventLoop} until its next operation arrives.
  */
 class DataXceiverServer implements Runnable {
   public static final Log LOG = DataNode.LOG;
@@ -46,6 +58,13 @@ class DataXceiverServer implements Runnable {
   private final DataNode datanode;
   private final HashMap<Peer, Thread> peers = new HashMap<Peer, Thread>();
   private boolean closed = false;
+
+  /** Watch idle peers; null unless the server is event-driven. */
+  private final DataXceiverEventLoop[] eventLoops;
+  private int nextEventLoop = 0;
+  /** Run the operations of an event-driven server. */
+  private final ThreadPoolExecutor workers;
+  private final ThreadGroup workerGroup;
   
   /**
    * Maximal number of concurrent xceivers per node.
@@ -122,11 +141,107 @@ synchronized void release() {
     this.balanceThrottler = new BlockBalanceThrottler(
       conf.getLong(DFSConfigKeys.DFS_DATANODE_BALANCE_BANDWIDTHPERSEC_KEY, 
                    DFSConfigKeys.DFS_DATANODE_BALANCE_BANDWIDTHPERSEC_DEFAULT));
+
+    // Only TCP peers have a channel that can be selected on.
+    if (peerServer instanceof TcpPeerServer && conf.getBoolean(
+        DFSConfigKeys.DFS_DATANODE_XCEIVER_EVENT_DRIVEN_KEY,
+        DFSConfigKeys.DFS_DATANODE_XCEIVER_EVENT_DRIVEN_DEFAULT)) {
+      int numLoops = Math.max(1, conf.getInt(
+          DFSConfigKeys.DFS_DATANODE_XCEIVER_EVENT_LOOPS_KEY,
+          DFSConfigKeys.DFS_DATANODE_XCEIVER_EVENT_LOOPS_DEFAULT));
+      this.eventLoops = new DataXceiverEventLoop[numLoops];
+      // Pool threads are created by whichever thread submits to the pool,
+      // so give them a group of their own rather than the datanode's.
+      this.workerGroup = new ThreadGroup("dataXceiverWorkers");
+      this.workers = new ThreadPoolExecutor(0, maxXceiverCount,
+          60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+          new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+              return new Daemon(workerGroup, r);
+            }
+          });
+      LOG.info("DataXceiverServer is event-driven with " + numLoops
+          + " event loops");
+    } else {
+      this.eventLoops = null;
+      this.workerGroup = null;
+      this.workers = null;
+    }
+  }
+
+  boolean isEventDriven() {
+    return eventLoops != null;
+  }
+
+  /** Start the event loops; they run on the worker thread group. */
+  private synchronized void startEventLoops() throws IOException {
+    for (int i = 0; i < eventLoops.length; i++) {
+      eventLoops[i] = new DataXceiverEventLoop(this);
+      Daemon d = new Daemon(workerGroup, eventLoops[i]);
+      d.setName("DataXceiver event loop #" + i);
+      d.start();
+    }
+  }
+
+  /** Stop the event loops, closing the peers parked on them. */
+  private void stopEventLoops() {
+    for (DataXceiverEventLoop loop : eventLoops) {
+      if (loop != null) {
+        loop.stop();
+      }
+    }
+  }
+
+  /**
+   * Park an idle xceiver until its next operation arrives.
+   *
+   * @return false if the xceiver cannot be parked and should keep its
+   *         thread.
+   */
+  boolean park(DataXceiver xceiver) {
+    if (eventLoops == null) {
+      return false;
+    }
+    DataXceiverEventLoop loop;
+    synchronized (this) {
+      loop = eventLoops[nextEventLoop];
+      nextEventLoop = (nextEventLoop + 1) % eventLoops.length;
+    }
+    return loop != null && loop.park(xceiver);
+  }
+
+  /** Run an xceiver on a worker thread. */
+  void dispatch(DataXceiver xceiver) {
+    try {
+      workers.execute(xceiver);
+    } catch (RejectedExecutionException e) {
+      LOG.warn(datanode.getDisplayName() + ":DataXceiverServer: "
+          + "no worker available for " + xceiver);
+      xceiver.closeParked();
+    }
+  }
+
+  /**
+   * Number of xceivers of this server that are not counted in the
+   * datanode's thread group.
+   */
+  int getPooledXceiverCount() {
+    return isEventDriven() ? getNumPeers() : 0;
   }
 
   @Override
   public void run() {
     Peer peer = null;
+    if (isEventDriven()) {
+      try {
+        startEventLoops();
+      } catch (IOException ie) {
+        LOG.error(datanode.getDisplayName()
+            + ":DataXceiverServer: failed to start event loops", ie);
+        datanode.shouldRun = false;
+      }
+    }
     while (datanode.shouldRun && !datanode.shutdownForUpgrade) {
       try {
         peer = peerServer.accept();
@@ -139,9 +254,13 @@ public void run() {
               + maxXceiverCount);
         }
 
-        new Daemon(datanode.threadGroup,
-            DataXceiver.create(peer, datanode, this))
-            .start();
+        if (isEventDriven()) {
+          dispatch(DataXceiver.create(peer, datanode, this));
+        } else {
+          new Daemon(datanode.threadGroup,
+              DataXceiver.create(peer, datanode, this))
+              .start();
+        }
       } catch (SocketTimeoutException ignored) {
         // wake up to see if should continue to run
       } catch (AsynchronousCloseException ace) {
@@ -180,6 +299,10 @@ public void run() {
           + " :DataXceiverServer: close exception", ie);
     }
 
+    if (isEventDriven()) {
+      stopEventLoops();
+    }
+
     // if in restart prep stage, notify peers before closing them.
     if (datanode.shutdownForUpgrade) {
       restartNotifyPeers();
@@ -198,6 +321,10 @@ public void run() {
     }
     // Close all peers.
     closeAllPeers();
+
+    if (isEventDriven()) {
+      workers.shutdownNow();
+    }
   }
 
   void kill() {
@@ -219,6 +346,13 @@ synchronized void addPeer(Peer peer, Thread t) throws IOException {
     peers.put(peer, t);
   }
 
+  /** Record that the peer no longer holds a thread while it is parked. */
+  synchronized void detachPeer(Peer peer) {
+    if (peers.containsKey(peer)) {
+      peers.put(peer, null);
+    }
+  }
+
   synchronized void closePeer(Peer peer) {
     peers.remove(peer);
     IOUtils.cleanup(null, peer);
@@ -229,9 +363,12 @@ synchronized void closePeer(Peer peer) {
   // be set true before calling this method.
   synchronized void restartNotifyPeers() {
     assert (datanode.shouldRun == true && datanode.shutdownForUpgrade);
-    for (Peer p : peers.keySet()) {
-      // interrupt each and every DataXceiver thread.
-      peers.get(p).interrupt();
+    for (Thread t : peers.values()) {
+      // interrupt each and every DataXceiver thread. Parked peers have no
+      // thread; they are closed along with their event loop.
+      if (t != null) {
+        t.interrupt();
+      }
     }
   }
 
@@ -32,6 +32,7 @@
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -46,21 +47,37 @@
 import org.apache.hadoop.hdfs.server.common.GenerationStamp;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsDatasetSpi;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics;
 import org.apache.hadoop.util.Daemon;
 import org.apache.hadoop.util.Time;
 
+import com.google.common.annotations.VisibleForTesting;
+
 /**
  * Periodically scans the data directories for block and block metadata files.
  * Reconciles the differences with block information maintained in the dataset.
+ *
+ * The directories of a volume are listed one at a time, and the listing
+ * threads may be throttled to a fraction of each second so that a scan does
+ * not saturate the disks. When they are, the differences are also reconciled
+ * in batches with a pause in between, each block under its own lock in the
+ * dataset.
  */
 @InterfaceAudience.Private
 public class DirectoryScanner implements Runnable {
   private static final Log LOG = LogFactory.getLog(DirectoryScanner.class);
 
   private final FsDatasetSpi<?> dataset;
+  private final DataNodeMetrics metrics;
   private final ExecutorService reportCompileThreadPool;
   private final ScheduledExecutorService masterThread;
   private final long scanPeriodMsecs;
+  private final int throttleLimitMsPerSec;
+  /** The number of differences reconciled before pausing. */
+  private final int reconcileBatchSize;
+  /** The pause between two batches of differences in ms. */
+  private final long reconcileBatchIntervalMs;
+  private final AtomicLong throttledMs = new AtomicLong();
   private volatile boolean shouldRun = false;
   private boolean retainDiffs = false;
 
@@ -309,13 +326,46 @@ public long getGenStamp() {
   }
 
   DirectoryScanner(FsDatasetSpi<?> dataset, Configuration conf) {
+    this(dataset, conf, null);
+  }
+
+  /**
+   * @param metrics where the scan times are recorded; may be null
+   */
+  DirectoryScanner(FsDatasetSpi<?> dataset, Configuration conf,
+      DataNodeMetrics metrics) {
     this.dataset = dataset;
+    this.metrics = metrics;
     int interval = conf.getInt(DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_INTERVAL_KEY,
         DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_INTERVAL_DEFAULT);
     scanPeriodMsecs = interval * 1000L; //msec
     int threads = 
         conf.getInt(DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THREADS_KEY,
                     DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THREADS_DEFAULT);
+    throttleLimitMsPerSec = conf.getInt(
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THROTTLE_LIMIT_MS_PER_SEC_KEY,
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THROTTLE_LIMIT_MS_PER_SEC_DEFAULT);
+    if (throttleLimitMsPerSec <= 0) {
+      throw new IllegalArgumentException(
+          DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THROTTLE_LIMIT_MS_PER_SEC_KEY
+          + " must be positive but is " + throttleLimitMsPerSec);
+    }
+    reconcileBatchSize = conf.getInt(
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_RECONCILE_BATCH_SIZE_KEY,
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_RECONCILE_BATCH_SIZE_DEFAULT);
+    if (reconcileBatchSize <= 0) {
+      throw new IllegalArgumentException(
+          DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_RECONCILE_BATCH_SIZE_KEY
+          + " must be positive but is " + reconcileBatchSize);
+    }
+    reconcileBatchIntervalMs = conf.getLong(
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_RECONCILE_BATCH_INTERVAL_MS_KEY,
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_RECONCILE_BATCH_INTERVAL_MS_DEFAULT);
+    if (reconcileBatchIntervalMs < 0) {
+      throw new IllegalArgumentException(
+          DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_RECONCILE_BATCH_INTERVAL_MS_KEY
+          + " must not be negative but is " + reconcileBatchIntervalMs);
+    }
 
     reportCompileThreadPool = Executors.newFixedThreadPool(threads, 
         new Daemon.DaemonFactory());
@@ -377,7 +427,8 @@ void shutdown() {
     }
     shouldRun = false;
     if (masterThread != null) masterThread.shutdown();
-    if (reportCompileThreadPool != null) reportCompileThreadPool.shutdown();
+    // interrupt the report compilers that are throttled
+    if (reportCompileThreadPool != null) reportCompileThreadPool.shutdownNow();
     if (masterThread != null) {
       try {
         masterThread.awaitTermination(1, TimeUnit.MINUTES);
@@ -400,13 +451,24 @@ void shutdown() {
   /**
    * Reconcile differences between disk and in-memory blocks
    */
-  void reconcile() {
+  void reconcile() throws InterruptedException {
     scan();
+    // Only pace the reconcile when the scan itself is throttled.
+    final boolean throttled = throttleLimitMsPerSec < 1000
+        && reconcileBatchIntervalMs > 0;
+    int count = 0;
     for (Entry<String, LinkedList<ScanInfo>> entry : diffs.entrySet()) {
       String bpid = entry.getKey();
       LinkedList<ScanInfo> diff = entry.getValue();
       
       for (ScanInfo info : diff) {
+        // Pause between batches, so that a scan which finds many
+        // differences does not keep the disks and the dataset busy.
+        if (throttled && count++ == reconcileBatchSize) {
+          Thread.sleep(reconcileBatchIntervalMs);
+          addThrottledMs(reconcileBatchIntervalMs);
+          count = 1;
+        }
         dataset.checkAndUpdate(bpid, info.getBlockId(), info.getBlockFile(),
             info.getMetaFile(), info.getVolume());
       }
@@ -414,77 +476,102 @@ void reconcile() {
     if (!retainDiffs) clear();
   }
 
+  /** Add to the time the scanner paused to limit its disk I/O. */
+  private void addThrottledMs(long ms) {
+    throttledMs.addAndGet(ms);
+    if (metrics != null) {
+      metrics.incrDirectoryScanThrottledMs(ms);
+    }
+  }
+
+  /** @return the total time the scanner paused to limit its disk I/O */
+  @VisibleForTesting
+  long getThrottledMs() {
+    return throttledMs.get();
+  }
+
   /**
    * Scan for the differences between disk and in-memory blocks
    * Scan only the "finalized blocks" lists of both disk and memory.
    */
   void scan() {
     clear();
+    final long startTime = Time.monotonicNow();
+    final long startThrottledMs = throttledMs.get();
     Map<String, ScanInfo[]> diskReport = getDiskReport();
 
-    // Hold FSDataset lock to prevent further changes to the block map
-    synchronized(dataset) {
-      for (Entry<String, ScanInfo[]> entry : diskReport.entrySet()) {
-        String bpid = entry.getKey();
-        ScanInfo[] blockpoolReport = entry.getValue();
-        
-        Stats statsRecord = new Stats(bpid);
-        stats.put(bpid, statsRecord);
-        LinkedList<ScanInfo> diffRecord = new LinkedList<ScanInfo>();
-        diffs.put(bpid, diffRecord);
-        
-        statsRecord.totalBlocks = blockpoolReport.length;
-        List<FinalizedReplica> bl = dataset.getFinalizedBlocks(bpid);
-        FinalizedReplica[] memReport = bl.toArray(new FinalizedReplica[bl.size()]);
-        Arrays.sort(memReport); // Sort based on blockId
-  
-        int d = 0; // index for blockpoolReport
-        int m = 0; // index for memReprot
-        while (m < memReport.length && d < blockpoolReport.length) {
-          Block memBlock = memReport[Math.min(m, memReport.length - 1)];
-          ScanInfo info = blockpoolReport[Math.min(
-              d, blockpoolReport.length - 1)];
-          if (info.getBlockId() < memBlock.getBlockId()) {
-            // Block is missing in memory
-            statsRecord.missingMemoryBlocks++;
-            addDifference(diffRecord, statsRecord, info);
-            d++;
-            continue;
-          }
-          if (info.getBlockId() > memBlock.getBlockId()) {
-            // Block is missing on the disk
-            addDifference(diffRecord, statsRecord,
-                          memBlock.getBlockId(), info.getVolume());
-            m++;
-            continue;
-          }
-          // Block file and/or metadata file exists on the disk
-          // Block exists in memory
-          if (info.getBlockFile() == null) {
-            // Block metadata file exits and block file is missing
-            addDifference(diffRecord, statsRecord, info);
-          } else if (info.getGenStamp() != memBlock.getGenerationStamp()
-              || info.getBlockFileLength() != memBlock.getNumBytes()) {
-            // Block metadata file is missing or has wrong generation stamp,
-            // or block file length is different than expected
-            statsRecord.mismatchBlocks++;
-            addDifference(diffRecord, statsRecord, info);
-          }
+    // The differences are computed from a snapshot of the finalized
+    // replicas without locking the dataset. checkAndUpdate() checks
+    // each difference again under the lock of the replica, so a
+    // replica that changed meanwhile is not reconciled wrongly.
+    for (Entry<String, ScanInfo[]> entry : diskReport.entrySet()) {
+      String bpid = entry.getKey();
+      ScanInfo[] blockpoolReport = entry.getValue();
+      
+      Stats statsRecord = new Stats(bpid);
+      stats.put(bpid, statsRecord);
+      LinkedList<ScanInfo> diffRecord = new LinkedList<ScanInfo>();
+      diffs.put(bpid, diffRecord);
+      
+      statsRecord.totalBlocks = blockpoolReport.length;
+      List<FinalizedReplica> bl = dataset.getFinalizedBlocks(bpid);
+      FinalizedReplica[] memReport = bl.toArray(new FinalizedReplica[bl.size()]);
+      Arrays.sort(memReport); // Sort based on blockId
+
+      int d = 0; // index for blockpoolReport
+      int m = 0; // index for memReprot
+      while (m < memReport.length && d < blockpoolReport.length) {
+        Block memBlock = memReport[Math.min(m, memReport.length - 1)];
+        ScanInfo info = blockpoolReport[Math.min(
+            d, blockpoolReport.length - 1)];
+        if (info.getBlockId() < memBlock.getBlockId()) {
+          // Block is missing in memory
+          statsRecord.missingMemoryBlocks++;
+          addDifference(diffRecord, statsRecord, info);
           d++;
-          m++;
+          continue;
         }
-        while (m < memReport.length) {
-          FinalizedReplica current = memReport[m++];
+        if (info.getBlockId() > memBlock.getBlockId()) {
+          // Block is missing on the disk
           addDifference(diffRecord, statsRecord,
-                        current.getBlockId(), current.getVolume());
+                        memBlock.getBlockId(), info.getVolume());
+          m++;
+          continue;
         }
-        while (d < blockpoolReport.length) {
-          statsRecord.missingMemoryBlocks++;
-          addDifference(diffRecord, statsRecord, blockpoolReport[d++]);
+        // Block file and/or metadata file exists on the disk
+        // Block exists in memory
+        if (info.getBlockFile() == null) {
+          // Block metadata file exits and block file is missing
+          addDifference(diffRecord, statsRecord, info);
+        } else if (info.getGenStamp() != memBlock.getGenerationStamp()
+            || info.getBlockFileLength() != memBlock.getNumBytes()) {
+          // Block metadata file is missing or has wrong generation stamp,
+          // or block file length is different than expected
+          statsRecord.mismatchBlocks++;
+          addDifference(diffRecord, statsRecord, info);
         }
-        LOG.info(statsRecord.toString());
-      } //end for
-    } //end synchronized
+        d++;
+        m++;
+      }
+      while (m < memReport.length) {
+        FinalizedReplica current = memReport[m++];
+        addDifference(diffRecord, statsRecord,
+                      current.getBlockId(), current.getVolume());
+      }
+      while (d < blockpoolReport.length) {
+        statsRecord.missingMemoryBlocks++;
+        addDifference(diffRecord, statsRecord, blockpoolReport[d++]);
+      }
+      LOG.info(statsRecord.toString());
+    } //end for
+
+    final long scanTime = Time.monotonicNow() - startTime;
+    LOG.info("Scanned the data directories in " + scanTime + "ms, of which "
+        + (throttledMs.get() - startThrottledMs) + "ms were paused to limit"
+        + " the disk I/O");
+    if (metrics != null) {
+      metrics.addDirectoryScan(scanTime);
+    }
   }
 
   /**
@@ -568,9 +655,11 @@ private static boolean isBlockMetaFile(String blockId, String metaFile) {
         && metaFile.endsWith(Block.METADATA_EXTENSION);
   }
 
-  private static class ReportCompiler 
+  private class ReportCompiler 
   implements Callable<ScanInfoPerBlockPool> {
     private FsVolumeSpi volume;
+    /** The start of the current run of this compiler without a pause. */
+    private long runStart;
 
     public ReportCompiler(FsVolumeSpi volume) {
       this.volume = volume;
@@ -580,6 +669,7 @@ public ReportCompiler(FsVolumeSpi volume) {
     public ScanInfoPerBlockPool call() throws Exception {
       String[] bpList = volume.getBlockPoolList();
       ScanInfoPerBlockPool result = new ScanInfoPerBlockPool(bpList.length);
+      runStart = Time.monotonicNow();
       for (String bpid : bpList) {
         LinkedList<ScanInfo> report = new LinkedList<ScanInfo>();
         File bpFinalizedDir = volume.getFinalizedDir(bpid);
@@ -588,10 +678,29 @@ public ScanInfoPerBlockPool call() throws Exception {
       return result;
     }
 
+    /**
+     * Pause for the rest of the second once this compiler has run for its
+     * share of the second.
+     */
+    private void throttle() throws InterruptedException {
+      if (throttleLimitMsPerSec >= 1000) {
+        return;
+      }
+      final long runMs = Time.monotonicNow() - runStart;
+      if (runMs >= throttleLimitMsPerSec) {
+        final long pauseMs =
+            Math.max(1000 - runMs, 1000 - throttleLimitMsPerSec);
+        Thread.sleep(pauseMs);
+        addThrottledMs(pauseMs);
+        runStart = Time.monotonicNow();
+      }
+    }
+
     /** Compile list {@link ScanInfo} for the blocks in the directory <dir> */
     private LinkedList<ScanInfo> compileReport(FsVolumeSpi vol, File dir,
-        LinkedList<ScanInfo> report) {
+        LinkedList<ScanInfo> report) throws InterruptedException {
       File[] files;
+      throttle();
       try {
         files = FileUtil.listFiles(dir);
       } catch (IOException ioe) {
@@ -607,14 +716,13 @@ private LinkedList<ScanInfo> compileReport(FsVolumeSpi vol, File dir,
        * blk_<blockid>_<genstamp>.meta
        */
       for (int i = 0; i < files.length; i++) {
-        if (files[i].isDirectory()) {
-          compileReport(vol, files[i], report);
-          continue;
-        }
+        // Check the names first, so that only the subdirectories are stat'ed.
         if (!Block.isBlockFilename(files[i])) {
           if (isBlockMetaFile("blk_", files[i].getName())) {
             long blockId = Block.getBlockId(files[i].getName());
             report.add(new ScanInfo(blockId, null, files[i], vol));
+          } else if (files[i].isDirectory()) {
+            compileReport(vol, files[i], report);
           }
           continue;
         }
@@ -624,7 +732,7 @@ private LinkedList<ScanInfo> compileReport(FsVolumeSpi vol, File dir,
 
         // Skip all the files that start with block name until
         // getting to the metafile for the block
-        while (i + 1 < files.length && files[i + 1].isFile()
+        while (i + 1 < files.length
             && files[i + 1].getName().startsWith(blockFile.getName())) {
           i++;
           if (isBlockMetaFile(blockFile.getName(), files[i].getName())) {
@@ -0,0 +1,287 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.commons.logging.Log;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.BlockReader;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.RemoteBlockReader2;
+import org.apache.hadoop.hdfs.net.Peer;
+import org.apache.hadoop.hdfs.net.TcpPeerServer;
+import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+import org.apache.hadoop.hdfs.protocol.ErasureCodingPolicy;
+import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.apache.hadoop.hdfs.security.token.block.BlockTokenIdentifier;
+import org.apache.hadoop.hdfs.security.token.block.BlockTokenSecretManager;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.ReplicaOutputStreams;
+import org.apache.hadoop.hdfs.server.protocol.BlockECReconstructionCommand.BlockECReconstructionInfo;
+import org.apache.hadoop.hdfs.util.StripedBlockUtil;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.erasurecode.RSRawDecoder;
+import org.apache.hadoop.net.NetUtils;
+import org.apache.hadoop.security.token.Token;
+import org.apache.hadoop.util.DataChecksum;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Rebuilds lost internal blocks of erasure coded block groups on this
+ * datanode, as the NameNode asks in a BlockECReconstructionCommand. A task
+ * reads its group stripe by stripe from numDataUnits live internal blocks,
+ * decodes the cells of the lost internal block and stores them as a new
+ * replica, which is reported to the NameNode like a received block.
+ */
+@InterfaceAudience.Private
+public class ErasureCodingWorker {
+  static final Log LOG = DataNode.LOG;
+
+  private final DataNode datanode;
+  private final DataChecksum checksum;
+  private final ExecutorService executor;
+
+  ErasureCodingWorker(Configuration conf, DataNode datanode) {
+    this.datanode = datanode;
+    this.checksum = DataChecksum.newDataChecksum(
+        DataChecksum.Type.valueOf(conf.get(
+            DFSConfigKeys.DFS_CHECKSUM_TYPE_KEY,
+            DFSConfigKeys.DFS_CHECKSUM_TYPE_DEFAULT)),
+        conf.getInt(DFSConfigKeys.DFS_BYTES_PER_CHECKSUM_KEY,
+            DFSConfigKeys.DFS_BYTES_PER_CHECKSUM_DEFAULT));
+    final int threads = conf.getInt(
+        DFSConfigKeys.DFS_DATANODE_EC_RECONSTRUCTION_THREADS_KEY,
+        DFSConfigKeys.DFS_DATANODE_EC_RECONSTRUCTION_THREADS_DEFAULT);
+    this.executor = Executors.newFixedThreadPool(threads,
+        new ThreadFactoryBuilder().setDaemon(true)
+            .setNameFormat("ErasureCodingWorker-%d").build());
+  }
+
+  /** Start rebuilding the given internal blocks. */
+  void processErasureCodingTasks(Collection<BlockECReconstructionInfo> tasks) {
+    for (BlockECReconstructionInfo task : tasks) {
+      try {
+        executor.execute(new ReconstructionTask(task));
+      } catch (RejectedExecutionException e) {
+        LOG.warn("Failed to start the reconstruction of " + task, e);
+      }
+    }
+  }
+
+  void shutdown() {
+    executor.shutdownNow();
+  }
+
+  private class ReconstructionTask implements Runnable {
+    private final BlockECReconstructionInfo info;
+    private final ErasureCodingPolicy ecPolicy;
+    private final long groupLength;
+
+    ReconstructionTask(BlockECReconstructionInfo info) {
+      this.info = info;
+      this.ecPolicy = info.getErasureCodingPolicy();
+      this.groupLength = info.getBlockGroup().getNumBytes();
+    }
+
+    /** @return the given internal block of the group, with its length */
+    private ExtendedBlock getInternalBlock(int unit) {
+      final ExtendedBlock group = info.getBlockGroup();
+      return new ExtendedBlock(group.getBlockPoolId(),
+          group.getBlockId() + unit,
+          StripedBlockUtil.getInternalBlockLength(groupLength, ecPolicy, unit),
+          group.getGenerationStamp());
+    }
+
+    @Override
+    public void run() {
+      datanode.xmitsInProgress.getAndIncrement();
+      final DatanodeInfo[] sources = info.getSources();
+      final int[] liveIndices = info.getLiveBlockIndices();
+      final ExtendedBlock target = getInternalBlock(info.getTargetIndex());
+      final Peer[] peers = new Peer[sources.length];
+      final BlockReader[] readers = new BlockReader[sources.length];
+      ReplicaInPipelineInterface replica = null;
+      boolean finalized = false;
+      try {
+        if (ecPolicy.getCellSize() % checksum.getBytesPerChecksum() != 0) {
+          throw new IOException("The cell size " + ecPolicy.getCellSize()
+              + " is not a multiple of " + checksum.getBytesPerChecksum()
+              + " bytes per checksum");
+        }
+        for (int j = 0; j < sources.length; j++) {
+          peers[j] = newPeer(sources[j]);
+          readers[j] = newBlockReader(peers[j], sources[j],
+              getInternalBlock(liveIndices[j]));
+        }
+
+        replica = datanode.data.createTemporary(target);
+        final ReplicaOutputStreams streams =
+            replica.createStreams(true, checksum);
+        try {
+          reconstruct(readers, streams, replica);
+        } finally {
+          streams.close();
+        }
+        datanode.data.finalizeBlock(target);
+        finalized = true;
+        datanode.closeBlock(target, DataNode.EMPTY_DEL_HINT,
+            replica.getStorageUuid());
+        LOG.info("Reconstructed " + target + " (numBytes="
+            + target.getNumBytes() + ") from " + Arrays.asList(sources));
+      } catch (IOException e) {
+        LOG.warn("Failed to reconstruct " + target + " from " + info, e);
+      } finally {
+        datanode.xmitsInProgress.getAndDecrement();
+        for (int j = 0; j < sources.length; j++) {
+          closeBlockReader(readers[j]);
+          IOUtils.closeStream(peers[j]);
+        }
+        if (replica != null && !finalized) {
+          try {
+            datanode.data.unfinalizeBlock(target);
+          } catch (IOException e) {
+            LOG.warn("Failed to remove the partial replica of " + target, e);
+          }
+        }
+      }
+    }
+
+    private void closeBlockReader(BlockReader reader) {
+      if (reader != null) {
+        try {
+          reader.close();
+        } catch (IOException e) {
+          LOG.debug("Failed to close a block reader of " + info, e);
+        }
+      }
+    }
+
+    private Peer newPeer(DatanodeInfo source) throws IOException {
+      final InetSocketAddress addr = NetUtils.createSocketAddr(
+          source.getXferAddr(datanode.getDnConf().connectToDnViaHostname));
+      final Socket sock = datanode.newSocket();
+      try {
+        NetUtils.connect(sock, addr, datanode.getDnConf().socketTimeout);
+        sock.setSoTimeout(datanode.getDnConf().socketTimeout);
+        return TcpPeerServer.peerFromSocketAndKey(sock,
+            datanode.getDnConf().encryptDataTransfer ?
+                datanode.blockPoolTokenSecretManager.generateDataEncryptionKey(
+                    info.getBlockGroup().getBlockPoolId()) : null);
+      } catch (IOException e) {
+        IOUtils.closeSocket(sock);
+        throw e;
+      }
+    }
+
+    private BlockReader newBlockReader(Peer peer, DatanodeInfo source,
+        ExtendedBlock block) throws IOException {
+      Token<BlockTokenIdentifier> token = BlockTokenSecretManager.DUMMY_TOKEN;
+      if (datanode.isBlockTokenEnabled) {
+        token = datanode.blockPoolTokenSecretManager.generateToken(block,
+            EnumSet.of(BlockTokenSecretManager.AccessMode.READ));
+      }
+      return RemoteBlockReader2.newBlockReader(
+          "reconstruct " + info.getBlockGroup(), block, token, 0,
+          block.getNumBytes(), true, "", peer, source, null,
+          new CachingStrategy(true, datanode.getDnConf().readaheadLength));
+    }
+
+    /**
+     * Decode the cells of the target internal block, stripe by stripe, and
+     * write them with their checksums. Short cells of the last stripe are
+     * padded with zeros, as the writer encoded them.
+     */
+    private void reconstruct(BlockReader[] readers,
+        ReplicaOutputStreams streams, ReplicaInPipelineInterface replica)
+        throws IOException {
+      final int cellSize = ecPolicy.getCellSize();
+      final int[] liveIndices = info.getLiveBlockIndices();
+      final int targetIndex = info.getTargetIndex();
+      final byte[][] inputs = new byte[ecPolicy.getNumUnits()][];
+      for (int unit : liveIndices) {
+        inputs[unit] = new byte[cellSize];
+      }
+      final byte[][] outputs = { new byte[cellSize] };
+      final RSRawDecoder decoder = new RSRawDecoder(
+          ecPolicy.getNumDataUnits(), ecPolicy.getNumParityUnits());
+
+      final int bytesPerChecksum = checksum.getBytesPerChecksum();
+      final int checksumSize = checksum.getChecksumSize();
+      final byte[] sums = new byte[cellSize / bytesPerChecksum * checksumSize];
+      final DataOutputStream checksumOut = new DataOutputStream(
+          new BufferedOutputStream(streams.getChecksumOut(),
+              HdfsConstants.SMALL_BUFFER_SIZE));
+      BlockMetadataHeader.writeHeader(checksumOut, checksum);
+
+      long length = 0;
+      byte[] lastChecksum = null;
+      final long numStripes =
+          StripedBlockUtil.getNumStripes(groupLength, ecPolicy);
+      for (long stripe = 0; stripe < numStripes; stripe++) {
+        // the first data cell is the longest of a stripe
+        final int stripeCellLength = StripedBlockUtil.getCellLength(
+            groupLength, ecPolicy, stripe, 0);
+        for (int j = 0; j < liveIndices.length; j++) {
+          final int unit = liveIndices[j];
+          final int cellLength = StripedBlockUtil.getCellLength(
+              groupLength, ecPolicy, stripe, unit);
+          readers[j].readFully(inputs[unit], 0, cellLength);
+          Arrays.fill(inputs[unit], cellLength, stripeCellLength, (byte) 0);
+        }
+        decoder.decode(inputs, new int[inputs.length],
+            new int[] { targetIndex }, outputs, new int[1], stripeCellLength);
+
+        final int targetLength = StripedBlockUtil.getCellLength(
+            groupLength, ecPolicy, stripe, targetIndex);
+        if (targetLength == 0) {
+          continue;
+        }
+        final int sumsLength = (targetLength + bytesPerChecksum - 1)
+            / bytesPerChecksum * checksumSize;
+        checksum.calculateChunkedSums(ByteBuffer.wrap(outputs[0], 0,
+            targetLength), ByteBuffer.wrap(sums, 0, sumsLength));
+        streams.getDataOut().write(outputs[0], 0, targetLength);
+        checksumOut.write(sums, 0, sumsLength);
+        length += targetLength;
+        lastChecksum = Arrays.copyOfRange(sums, sumsLength - checksumSize,
+            sumsLength);
+      }
+      checksumOut.flush();
+      if (length != getInternalBlock(targetIndex).getNumBytes()) {
+        throw new IOException("Reconstructed " + length + " bytes, expected "
+            + getInternalBlock(targetIndex).getNumBytes());
+      }
+      replica.setNumBytes(length);
+      replica.setLastChecksumAndDataLen(length, lastChecksum);
+    }
+  }
+}
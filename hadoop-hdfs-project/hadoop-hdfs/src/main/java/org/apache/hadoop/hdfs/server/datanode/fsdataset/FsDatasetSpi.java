@@ -19,6 +19,7 @@
 
 
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
@@ -160,6 +161,16 @@ public LengthInputStream getMetaDataInputStream(ExtendedBlock b
   public InputStream getBlockInputStream(ExtendedBlock b, long seekOffset)
             throws IOException;
 
+  /**
+   * Returns an input stream at specified offset of the specified block that
+   * bypasses the page cache, for long sequential reads.
+   * @return the stream, or null if the block cannot be read this way, e.g.
+   *  because its volume does not support it
+   * @throws IOException
+   */
+  public InputStream getDirectBlockInputStream(ExtendedBlock b,
+      long seekOffset) throws IOException;
+
   /**
    * Returns an input stream at specified offset of the specified block
    * The block is still in the tmp directory and is not finalized
@@ -353,6 +364,18 @@ public String recoverClose(ExtendedBlock b, long newGS, long expectedBlockLen
   public void adjustCrcChannelPosition(ExtendedBlock b,
       ReplicaOutputStreams outs, int checksumSize) throws IOException;
 
+  /**
+   * Start the writeback of a range of a block file being written, on a
+   * thread of the block's volume rather than the caller's.
+   * @param b block
+   * @param fd file descriptor of the block file
+   * @param offset start of the range
+   * @param nbytes length of the range
+   * @param flags flags for sync_file_range
+   */
+  public void submitBackgroundSyncFileRangeRequest(ExtendedBlock b,
+      FileDescriptor fd, long offset, long nbytes, int flags);
+
   /**
    * Checks how many valid storage volumes there are in the DataNode.
    * @return true if more than the minimum number of valid volumes are left 
@@ -18,14 +18,22 @@
 package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 
 import org.apache.hadoop.conf.Configuration;
@@ -34,6 +42,7 @@
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.ReplicaState;
 import org.apache.hadoop.hdfs.server.datanode.BlockMetadataHeader;
 import org.apache.hadoop.hdfs.server.datanode.DataStorage;
 import org.apache.hadoop.hdfs.server.datanode.DatanodeUtil;
@@ -48,22 +57,33 @@
 import org.apache.hadoop.util.ShutdownHookManager;
 import org.apache.hadoop.util.Time;
 
+import com.google.common.annotations.VisibleForTesting;
+
 /**
  * A block pool slice represents a portion of a block pool stored on a volume.  
  * Taken together, all BlockPoolSlices sharing a block pool ID across a 
  * cluster represent a single block pool.
  * 
- * This class is synchronized by {@link FsVolumeImpl}.
+ * The replicas of different blocks are finalized and deleted concurrently,
+ * under their own locks in {@link FsDatasetImpl}, so the tree of finalized
+ * directories, which counts the blocks of each directory, is guarded by a
+ * lock on its root.
  */
 class BlockPoolSlice {
   private final String bpid;
   private final FsVolumeImpl volume; // volume to which this BlockPool belongs to
   private final File currentDir; // StorageDirectory/current/bpid/current
-  private final LDir finalizedDir; // directory store Finalized replica
+  /** directory store Finalized replica; guarded by itself */
+  private final LDir finalizedDir;
   private final File rbwDir; // directory store RBW replica
   private final File tmpDir; // directory store Temporary replica
   private static String DU_CACHE_FILE = "dfsUsed";
+  private static final String REPLICA_CACHE_FILE = "replicas";
+  private static final int REPLICA_CACHE_VERSION = 1;
+  /** Cached values older than this are not used. */
+  private static final long CACHE_EXPIRY_MS = 600000L;
   private volatile boolean dfsUsedSaved = false;
+  private final boolean replicaCacheEnabled;
   private static final int SHUTDOWN_HOOK_PRIORITY = 30;
   
   // TODO:FEDERATION scalability issue - a thread per DU is needed
@@ -105,6 +125,9 @@ class BlockPoolSlice {
         DFSConfigKeys.DFS_DATANODE_NUMBLOCKS_KEY,
         DFSConfigKeys.DFS_DATANODE_NUMBLOCKS_DEFAULT);
     this.finalizedDir = new LDir(finalizedDir, maxBlocksPerDir);
+    this.replicaCacheEnabled = conf.getBoolean(
+        DFSConfigKeys.DFS_DATANODE_REPLICA_CACHE_ENABLED_KEY,
+        DFSConfigKeys.DFS_DATANODE_REPLICA_CACHE_ENABLED_DEFAULT);
     if (!rbwDir.mkdirs()) {  // create rbw directory if not exist
       if (!rbwDir.isDirectory()) {
         throw new IOException("Mkdirs failed to create " + rbwDir.toString());
@@ -144,7 +167,7 @@ File getRbwDir() {
     return rbwDir;
   }
 
-  /** Run DU on local drives.  It must be synchronized from caller. */
+  /** Run DU on local drives.  DU updates its count atomically. */
   void decDfsUsed(long value) {
     dfsUsage.decDfsUsed(value);
   }
@@ -185,7 +208,7 @@ long loadDfsUsed() {
       }
 
       // Return the cached value if mtime is okay.
-      if (mtime > 0 && (Time.now() - mtime < 600000L)) {
+      if (mtime > 0 && (Time.now() - mtime < CACHE_EXPIRY_MS)) {
         FsDatasetImpl.LOG.info("Cached dfsUsed found for " + currentDir + ": " +
             cachedDfsUsed);
         return cachedDfsUsed;
@@ -245,25 +268,228 @@ File createRbwFile(Block b) throws IOException {
   }
 
   File addBlock(Block b, File f) throws IOException {
-    File blockFile = finalizedDir.addBlock(b, f);
+    final File blockFile;
+    synchronized (finalizedDir) {
+      blockFile = finalizedDir.addBlock(b, f);
+    }
     File metaFile = FsDatasetUtil.getMetaFile(blockFile, b.getGenerationStamp());
     dfsUsage.incDfsUsed(b.getNumBytes()+metaFile.length());
     return blockFile;
   }
     
   void checkDirs() throws DiskErrorException {
-    finalizedDir.checkDirTree();
+    synchronized (finalizedDir) {
+      finalizedDir.checkDirTree();
+    }
     DiskChecker.checkDir(tmpDir);
     DiskChecker.checkDir(rbwDir);
   }
     
   void getVolumeMap(ReplicaMap volumeMap) throws IOException {
     // add finalized replicas
-    finalizedDir.getVolumeMap(bpid, volumeMap, volume);
+    if (!addReplicasFromCache(volumeMap)) {
+      synchronized (finalizedDir) {
+        finalizedDir.getVolumeMap(bpid, volumeMap, volume);
+      }
+    }
     // add rbw replicas
     addToReplicasMap(volumeMap, rbwDir, false);
   }
 
+  /** The replicas of a finalized directory saved in the replica cache. */
+  private static class CachedDir {
+    final long mtime;
+    final List<FinalizedReplica> replicas;
+
+    CachedDir(long mtime, int numReplicas) {
+      this.mtime = mtime;
+      this.replicas = new ArrayList<FinalizedReplica>(numReplicas);
+    }
+  }
+
+  /**
+   * @return the path of a finalized directory relative to the root of the
+   *         finalized directory tree, or null if it is not in the tree
+   */
+  private String getRelativePath(File dir) {
+    final String root = finalizedDir.dir.getAbsolutePath();
+    final String path = dir.getAbsolutePath();
+    if (!path.startsWith(root)) {
+      return null;
+    }
+    return path.length() == root.length() ?
+        "" : path.substring(root.length() + 1);
+  }
+
+  /**
+   * Add the finalized replicas to the volume map from the cache file saved
+   * at the last shutdown, if there is one.
+   *
+   * Only the replicas of the directories whose modification time has not
+   * changed since the cache was saved are taken from the cache, the other
+   * directories are listed. The cache file is used only if it is less than
+   * 600 seconds old, and it is deleted once read, so that it is never used
+   * after the replicas have changed.
+   * @return true if the replica cache was used
+   */
+  private boolean addReplicasFromCache(ReplicaMap volumeMap)
+      throws IOException {
+    final File cacheFile = new File(currentDir, REPLICA_CACHE_FILE);
+    if (!cacheFile.exists()) {
+      return false;
+    }
+    final Map<String, CachedDir> cache = new HashMap<String, CachedDir>();
+    final long savedTime;
+    DataInputStream in = null;
+    try {
+      if (!replicaCacheEnabled) {
+        // a stale cache file is deleted all the same
+        return false;
+      }
+      in = new DataInputStream(new BufferedInputStream(
+          new FileInputStream(cacheFile), HdfsConstants.IO_FILE_BUFFER_SIZE));
+      final int version = in.readInt();
+      savedTime = in.readLong();
+      if (version != REPLICA_CACHE_VERSION ||
+          Time.now() - savedTime >= CACHE_EXPIRY_MS) {
+        FsDatasetImpl.LOG.info("Ignoring the replica cache file " + cacheFile
+            + " with version " + version + " saved at " + savedTime);
+        return false;
+      }
+      final int numDirs = in.readInt();
+      for (int i = 0; i < numDirs; i++) {
+        final String path = in.readUTF();
+        final File dir = path.isEmpty() ?
+            finalizedDir.dir : new File(finalizedDir.dir, path);
+        final long mtime = in.readLong();
+        final int numReplicas = in.readInt();
+        final CachedDir cached = new CachedDir(mtime, numReplicas);
+        for (int j = 0; j < numReplicas; j++) {
+          final long blockId = in.readLong();
+          final long numBytes = in.readLong();
+          final long genStamp = in.readLong();
+          cached.replicas.add(new FinalizedReplica(blockId, numBytes,
+              genStamp, volume, dir));
+        }
+        cache.put(path, cached);
+      }
+    } catch (IOException ioe) {
+      // A truncated or unreadable cache is not critical, the directory
+      // tree is scanned instead.
+      FsDatasetImpl.LOG.warn("Failed to read the replica cache file "
+          + cacheFile, ioe);
+      return false;
+    } finally {
+      IOUtils.cleanup(null, in);
+      if (!cacheFile.delete()) {
+        FsDatasetImpl.LOG.warn("Failed to delete the replica cache file "
+            + cacheFile);
+      }
+    }
+
+    final List<File> dirs = new ArrayList<File>();
+    synchronized (finalizedDir) {
+      finalizedDir.getDirs(dirs);
+    }
+    int numCached = 0;
+    int numListed = 0;
+    for (File dir : dirs) {
+      final CachedDir cached = cache.get(getRelativePath(dir));
+      // The modification time may have a granularity of a second, so a
+      // directory modified in the second the cache was saved is listed.
+      final long mtime = dir.lastModified();
+      if (cached == null || cached.mtime != mtime ||
+          mtime + 1000 > savedTime) {
+        LDir.recoverTempUnlinkedBlock(dir);
+        addToReplicasMap(volumeMap, dir, true);
+        numListed++;
+        continue;
+      }
+      for (FinalizedReplica replica : cached.replicas) {
+        ReplicaInfo oldReplica = volumeMap.add(bpid, replica);
+        if (oldReplica != null) {
+          FsDatasetImpl.LOG.warn("Two replicas with the same block id exist: "
+              + oldReplica + " and " + replica);
+        }
+      }
+      numCached += cached.replicas.size();
+    }
+    FsDatasetImpl.LOG.info("Added " + numCached + " finalized replicas of "
+        + currentDir + " from the replica cache file and listed " + numListed
+        + " of " + dirs.size() + " directories");
+    return true;
+  }
+
+  /**
+   * Write the finalized replicas of this block pool slice to the cache file,
+   * together with the modification time of their directories.
+   */
+  private void saveReplicas(ReplicaMap volumeMap) {
+    final Collection<ReplicaInfo> all = volumeMap.replicas(bpid);
+    if (all == null) {
+      return;
+    }
+    final List<File> dirList = new ArrayList<File>();
+    synchronized (finalizedDir) {
+      finalizedDir.getDirs(dirList);
+    }
+    final Map<String, List<ReplicaInfo>> dirs =
+        new HashMap<String, List<ReplicaInfo>>();
+    for (File dir : dirList) {
+      dirs.put(getRelativePath(dir), new ArrayList<ReplicaInfo>());
+    }
+    for (ReplicaInfo replica : all) {
+      if (replica.getVolume() != volume ||
+          replica.getState() != ReplicaState.FINALIZED) {
+        continue;
+      }
+      final List<ReplicaInfo> replicas = dirs.get(
+          getRelativePath(replica.getBlockFile().getParentFile()));
+      if (replicas == null) {
+        FsDatasetImpl.LOG.warn("Not saving the replica cache of " + currentDir
+            + " since " + replica + " is not in a finalized directory");
+        return;
+      }
+      replicas.add(replica);
+    }
+
+    final File cacheFile = new File(currentDir, REPLICA_CACHE_FILE);
+    final File tmpFile = new File(currentDir, REPLICA_CACHE_FILE + ".tmp");
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(new BufferedOutputStream(
+          new FileOutputStream(tmpFile), HdfsConstants.IO_FILE_BUFFER_SIZE));
+      out.writeInt(REPLICA_CACHE_VERSION);
+      out.writeLong(Time.now());
+      out.writeInt(dirs.size());
+      for (Map.Entry<String, List<ReplicaInfo>> e : dirs.entrySet()) {
+        out.writeUTF(e.getKey());
+        out.writeLong(new File(finalizedDir.dir, e.getKey()).lastModified());
+        out.writeInt(e.getValue().size());
+        for (ReplicaInfo replica : e.getValue()) {
+          out.writeLong(replica.getBlockId());
+          out.writeLong(replica.getNumBytes());
+          out.writeLong(replica.getGenerationStamp());
+        }
+      }
+      out.close();
+      out = null;
+      if (cacheFile.exists() && !cacheFile.delete()) {
+        throw new IOException("Failed to delete the old " + cacheFile);
+      }
+      if (!tmpFile.renameTo(cacheFile)) {
+        throw new IOException("Failed to rename " + tmpFile + " to "
+            + cacheFile);
+      }
+    } catch (IOException ioe) {
+      // As with dfsUsed, the cache file is not critical.
+      FsDatasetImpl.LOG.warn("Failed to write the replica cache file "
+          + cacheFile, ioe);
+      IOUtils.cleanup(null, out);
+      tmpFile.delete();
+    }
+  }
+
   /**
    * Add replicas under the given directory to the volume map
    * @param volumeMap the replicas map
@@ -411,8 +637,18 @@ private long validateIntegrityAndSetLength(File blockFile, long genStamp) {
     }
   }
     
+  /** @return the number of finalized blocks counted in the directory tree */
+  @VisibleForTesting
+  int getNumFinalizedBlocks() {
+    synchronized (finalizedDir) {
+      return finalizedDir.getNumBlocks();
+    }
+  }
+
   void clearPath(File f) {
-    finalizedDir.clearPath(f);
+    synchronized (finalizedDir) {
+      finalizedDir.clearPath(f);
+    }
   }
     
   @Override
@@ -420,9 +656,16 @@ public String toString() {
     return currentDir.getAbsolutePath();
   }
   
-  void shutdown() {
+  /**
+   * @param volumeMap if not null, the finalized replicas of this slice are
+   *                  saved so that the next startup need not scan them
+   */
+  void shutdown(ReplicaMap volumeMap) {
     saveDfsUsed();
     dfsUsedSaved = true;
+    if (volumeMap != null && replicaCacheEnabled) {
+      saveReplicas(volumeMap);
+    }
     dfsUsage.shutdown();
   }
 }
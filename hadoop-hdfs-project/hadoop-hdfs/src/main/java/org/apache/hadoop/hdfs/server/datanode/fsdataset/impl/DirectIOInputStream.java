@@ -0,0 +1,170 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics;
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics.VolumeIoOp;
+import org.apache.hadoop.io.nativeio.NativeIO;
+
+/**
+ * An input stream that reads a file opened with O_DIRECT, bypassing the page
+ * cache.
+ *
+ * O_DIRECT reads must be aligned in memory, in the file and in length, so
+ * the file is read in whole aligned buffers, which are then copied out to
+ * the caller. The buffer is borrowed from the volume and given back on
+ * close.
+ */
+class DirectIOInputStream extends InputStream {
+  /** Alignment of O_DIRECT reads; covers 512 byte and 4 KB sectors. */
+  static final int ALIGNMENT = 4096;
+
+  private final FsVolumeImpl volume;
+  private final DataNodeMetrics metrics;
+  private final FileInputStream in;
+  private final FileChannel channel;
+  private ByteBuffer buf;
+  /** File offset of the first byte in buf. */
+  private long bufOffset;
+  /** File offset of the next byte to return. */
+  private long pos;
+
+  DirectIOInputStream(FsVolumeImpl volume, File file, long seekOffset,
+      DataNodeMetrics metrics) throws IOException {
+    FileDescriptor fd = NativeIO.POSIX.open(file.getAbsolutePath(),
+        NativeIO.POSIX.O_RDONLY | NativeIO.POSIX.O_DIRECT, 0);
+    this.volume = volume;
+    this.metrics = metrics;
+    this.in = new FileInputStream(fd);
+    this.channel = in.getChannel();
+    this.buf = volume.takeDirectIOBuffer();
+    this.buf.limit(0);
+    this.pos = seekOffset;
+  }
+
+  /**
+   * Allocate a direct buffer whose memory address is aligned for O_DIRECT.
+   */
+  static ByteBuffer allocateAligned(int size) {
+    ByteBuffer raw = ByteBuffer.allocateDirect(size + ALIGNMENT);
+    long address = ((sun.nio.ch.DirectBuffer)raw).address();
+    int shift = (int)((ALIGNMENT - address % ALIGNMENT) % ALIGNMENT);
+    raw.position(shift);
+    raw.limit(shift + size);
+    return raw.slice();
+  }
+
+  /**
+   * Read the aligned range of the file that contains pos.
+   * @return false at the end of the file
+   */
+  private boolean fill() throws IOException {
+    bufOffset = pos - pos % ALIGNMENT;
+    buf.clear();
+    long start = System.nanoTime();
+    while (buf.hasRemaining()) {
+      int n = channel.read(buf, bufOffset + buf.position());
+      // a short read that is not aligned can only happen at the end
+      if (n <= 0 || buf.position() % ALIGNMENT != 0) {
+        break;
+      }
+    }
+    if (metrics != null) {
+      metrics.addVolumeIoNanos(volume.getStorageID(), VolumeIoOp.DIRECT_READ,
+          System.nanoTime() - start);
+    }
+    buf.flip();
+    if (buf.limit() <= pos - bufOffset) {
+      buf.limit(0);
+      return false;
+    }
+    buf.position((int)(pos - bufOffset));
+    return true;
+  }
+
+  private void checkOpen() throws IOException {
+    if (buf == null) {
+      throw new IOException("Stream closed");
+    }
+  }
+
+  @Override
+  public int read() throws IOException {
+    checkOpen();
+    if (!buf.hasRemaining() && !fill()) {
+      return -1;
+    }
+    pos++;
+    return buf.get() & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    checkOpen();
+    if (off < 0 || len < 0 || len > b.length - off) {
+      throw new IndexOutOfBoundsException();
+    } else if (len == 0) {
+      return 0;
+    }
+    if (!buf.hasRemaining() && !fill()) {
+      return -1;
+    }
+    int n = Math.min(len, buf.remaining());
+    buf.get(b, off, n);
+    pos += n;
+    return n;
+  }
+
+  @Override
+  public long skip(long n) throws IOException {
+    checkOpen();
+    if (n <= 0) {
+      return 0;
+    }
+    if (n < buf.remaining()) {
+      buf.position(buf.position() + (int)n);
+    } else {
+      buf.limit(0);
+    }
+    pos += n;
+    return n;
+  }
+
+  @Override
+  public int available() throws IOException {
+    checkOpen();
+    return buf.remaining();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (buf != null) {
+      volume.returnDirectIOBuffer(buf);
+      buf = null;
+    }
+    in.close();
+  }
+}
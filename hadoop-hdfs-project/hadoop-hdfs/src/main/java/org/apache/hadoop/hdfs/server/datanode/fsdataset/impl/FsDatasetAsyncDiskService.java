@@ -19,6 +19,7 @@
 package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
 
 import java.io.File;
+import java.io.FileDescriptor;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -30,7 +31,11 @@
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.server.datanode.DataNode;
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics;
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics.VolumeIoOp;
 import org.apache.hadoop.hdfs.server.protocol.BlockCommand;
+import org.apache.hadoop.io.nativeio.NativeIO;
+import org.apache.hadoop.io.nativeio.NativeIOException;
 
 /**
  * This class is a container of multiple thread pools, each for a volume,
@@ -161,6 +166,41 @@ void deleteAsync(FsVolumeImpl volume, File blockFile, File metaFile,
     execute(volume.getCurrentDir(), deletionTask);
   }
   
+  /**
+   * Start the writeback of a range of a block file from the volume's
+   * thread, so that the writer of the block does not wait for it.
+   */
+  void submitSyncFileRangeRequest(final FsVolumeImpl volume,
+      final FileDescriptor fd, final long offset, final long nbytes,
+      final int flags) {
+    execute(volume.getCurrentDir(), new Runnable() {
+      @Override
+      public void run() {
+        long start = System.nanoTime();
+        try {
+          NativeIO.POSIX.syncFileRangeIfPossible(fd, offset, nbytes, flags);
+        } catch (NativeIOException e) {
+          // the block may have been closed since the request was submitted
+          if (LOG.isDebugEnabled()) {
+            LOG.debug("sync_file_range error on volume " + volume, e);
+          }
+          return;
+        }
+        addVolumeIoNanos(volume, VolumeIoOp.SYNC_FILE_RANGE, start);
+      }
+    });
+  }
+
+  /** Record the latency of an operation started at startNanos on a volume. */
+  private void addVolumeIoNanos(FsVolumeImpl volume, VolumeIoOp op,
+      long startNanos) {
+    DataNodeMetrics metrics = datanode.getMetrics();
+    if (metrics != null) {
+      metrics.addVolumeIoNanos(volume.getStorageID(), op,
+          System.nanoTime() - startNanos);
+    }
+  }
+
   /** A task for deleting a block file and its associated meta file, as well
    *  as decrement the dfs usage of the volume.
    *  Optionally accepts a trash directory. If one is specified then the files
@@ -218,7 +258,9 @@ public void run() {
       long dfsBytes = blockFile.length() + metaFile.length();
       boolean result;
 
+      long start = System.nanoTime();
       result = (trashDirectory == null) ? deleteFiles() : moveFiles();
+      addVolumeIoNanos(volume, VolumeIoOp.METADATA, start);
 
       if (!result) {
         LOG.warn("Unexpected error trying to "
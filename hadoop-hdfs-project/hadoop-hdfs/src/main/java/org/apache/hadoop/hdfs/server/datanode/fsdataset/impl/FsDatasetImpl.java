@@ -30,6 +30,8 @@
 import org.apache.hadoop.hdfs.server.common.Storage;
 import org.apache.hadoop.hdfs.server.datanode.*;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.*;
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics;
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics.VolumeIoOp;
 import org.apache.hadoop.hdfs.server.datanode.metrics.FSDatasetMBean;
 import org.apache.hadoop.hdfs.server.protocol.BlockRecoveryCommand.RecoveringBlock;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeStorage;
@@ -56,6 +58,11 @@
  * FSDataset manages a set of data blocks.  Each block
  * has a unique name and an extent on disk.
  *
+ * An operation on a replica holds the lock of that replica in
+ * {@link FsDatasetLocks} instead of the monitor of the dataset, so the
+ * operations on different replicas, including their file renames, run
+ * concurrently.
+ *
  ***************************************************/
 @InterfaceAudience.Private
 class FsDatasetImpl implements FsDatasetSpi<FsVolumeImpl> {
@@ -84,6 +91,7 @@ public DatanodeStorage getStorage(final String storageUuid) {
   public StorageReport[] getStorageReports(String bpid)
       throws IOException {
     StorageReport[] reports;
+    Set<String> slowVolumes = getSlowVolumes();
     synchronized (statsLock) {
       reports = new StorageReport[volumes.volumes.size()];
       int i = 0;
@@ -93,21 +101,43 @@ public StorageReport[] getStorageReports(String bpid)
                                          volume.getCapacity(),
                                          volume.getDfsUsed(),
                                          volume.getAvailable(),
-                                         volume.getBlockPoolUsed(bpid));
+                                         volume.getBlockPoolUsed(bpid),
+                                         slowVolumes.contains(
+                                             volume.getStorageID()));
       }
     }
 
     return reports;
   }
 
+  /**
+   * @return the storage IDs of the volumes that are much slower than the
+   *         others, which new replicas avoid
+   */
+  private Set<String> getSlowVolumes() {
+    DataNodeMetrics metrics = datanode.getMetrics();
+    return metrics == null ? Collections.<String>emptySet() :
+        metrics.getDiskMetrics().getSlowVolumes();
+  }
+
+  /** Record the latency of an operation started at startNanos on a volume. */
+  private void addVolumeIoNanos(FsVolumeImpl v, VolumeIoOp op,
+      long startNanos) {
+    DataNodeMetrics metrics = datanode.getMetrics();
+    if (metrics != null) {
+      metrics.addVolumeIoNanos(v.getStorageID(), op,
+          System.nanoTime() - startNanos);
+    }
+  }
+
   @Override
-  public synchronized FsVolumeImpl getVolume(final ExtendedBlock b) {
+  public FsVolumeImpl getVolume(final ExtendedBlock b) {
     final ReplicaInfo r =  volumeMap.get(b.getBlockPoolId(), b.getLocalBlock());
     return r != null? (FsVolumeImpl)r.getVolume(): null;
   }
 
   @Override // FsDatasetSpi
-  public synchronized Block getStoredBlock(String bpid, long blkid)
+  public Block getStoredBlock(String bpid, long blkid)
       throws IOException {
     File blockfile = getFile(bpid, blkid);
     if (blockfile == null) {
@@ -168,6 +198,7 @@ public LengthInputStream getMetaDataInputStream(ExtendedBlock b)
   private final int validVolsRequired;
 
   final ReplicaMap volumeMap;
+  final FsDatasetLocks locks;
 
   // Used for synchronizing access to usage stats
   private final Object statsLock = new Object();
@@ -217,7 +248,11 @@ public LengthInputStream getMetaDataInputStream(ExtendedBlock b)
       storageMap.put(sd.getStorageUuid(),
           new DatanodeStorage(sd.getStorageUuid(), DatanodeStorage.State.NORMAL, storageType));
     }
-    volumeMap = new ReplicaMap(this);
+    volumeMap = new ReplicaMap();
+    locks = new FsDatasetLocks(
+        conf.getInt(DFSConfigKeys.DFS_DATANODE_DATASET_LOCK_STRIPES_KEY,
+            DFSConfigKeys.DFS_DATANODE_DATASET_LOCK_STRIPES_DEFAULT),
+        datanode.getMetrics());
 
     @SuppressWarnings("unchecked")
     final VolumeChoosingPolicy<FsVolumeImpl> blockChooserImpl =
@@ -362,10 +397,8 @@ File getBlockFile(String bpid, Block b) throws IOException {
    */
   private File getBlockFileNoExistsCheck(ExtendedBlock b)
       throws IOException {
-    final File f;
-    synchronized(this) {
-      f = getFile(b.getBlockPoolId(), b.getLocalBlock().getBlockId());
-    }
+    final File f = getFile(b.getBlockPoolId(),
+        b.getLocalBlock().getBlockId());
     if (f == null) {
       throw new IOException("Block " + b + " is not valid");
     }
@@ -394,6 +427,33 @@ public InputStream getBlockInputStream(ExtendedBlock b,
     }
   }
 
+  @Override // FsDatasetSpi
+  public InputStream getDirectBlockInputStream(ExtendedBlock b,
+      long seekOffset) throws IOException {
+    final ReplicaInfo r = volumeMap.get(b.getBlockPoolId(),
+        b.getLocalBlock());
+    // replicas being written may still change in place
+    if (r == null || r.getState() != ReplicaState.FINALIZED) {
+      return null;
+    }
+    FsVolumeImpl v = (FsVolumeImpl)r.getVolume();
+    if (!v.isDirectIOReads()) {
+      return null;
+    }
+    return new DirectIOInputStream(v, r.getBlockFile(), seekOffset,
+        datanode.getMetrics());
+  }
+
+  @Override // FsDatasetSpi
+  public void submitBackgroundSyncFileRangeRequest(ExtendedBlock b,
+      FileDescriptor fd, long offset, long nbytes, int flags) {
+    FsVolumeImpl v = getVolume(b);
+    if (v != null) {
+      asyncDiskService.submitSyncFileRangeRequest(v, fd, offset, nbytes,
+          flags);
+    }
+  }
+
   /**
    * Get the meta info of a block stored in volumeMap. To find a block,
    * block pool Id, block Id and generation stamp must match.
@@ -435,20 +495,26 @@ private ReplicaInfo getReplicaInfo(String bpid, long blkid)
    * Returns handles to the block file and its metadata file
    */
   @Override // FsDatasetSpi
-  public synchronized ReplicaInputStreams getTmpInputStreams(ExtendedBlock b, 
+  public ReplicaInputStreams getTmpInputStreams(ExtendedBlock b, 
                           long blkOffset, long ckoff) throws IOException {
-    ReplicaInfo info = getReplicaInfo(b);
-    File blockFile = info.getBlockFile();
-    RandomAccessFile blockInFile = new RandomAccessFile(blockFile, "r");
-    if (blkOffset > 0) {
-      blockInFile.seek(blkOffset);
-    }
-    File metaFile = info.getMetaFile();
-    RandomAccessFile metaInFile = new RandomAccessFile(metaFile, "r");
-    if (ckoff > 0) {
-      metaInFile.seek(ckoff);
+    final FsDatasetLocks.Held lock =
+        locks.lockReplica(b.getBlockPoolId(), b.getBlockId());
+    try {
+      ReplicaInfo info = getReplicaInfo(b);
+      File blockFile = info.getBlockFile();
+      RandomAccessFile blockInFile = new RandomAccessFile(blockFile, "r");
+      if (blkOffset > 0) {
+        blockInFile.seek(blkOffset);
+      }
+      File metaFile = info.getMetaFile();
+      RandomAccessFile metaInFile = new RandomAccessFile(metaFile, "r");
+      if (ckoff > 0) {
+        metaInFile.seek(ckoff);
+      }
+      return new ReplicaInputStreams(blockInFile.getFD(), metaInFile.getFD());
+    } finally {
+      lock.unlock();
     }
-    return new ReplicaInputStreams(blockInFile.getFD(), metaInFile.getFD());
   }
 
   static File moveBlockFiles(Block b, File srcfile, File destdir
@@ -528,33 +594,39 @@ static private void truncateBlock(File blockFile, File metaFile,
 
 
   @Override  // FsDatasetSpi
-  public synchronized ReplicaInPipeline append(ExtendedBlock b,
+  public ReplicaInPipeline append(ExtendedBlock b,
       long newGS, long expectedBlockLen) throws IOException {
-    // If the block was successfully finalized because all packets
-    // were successfully processed at the Datanode but the ack for
-    // some of the packets were not received by the client. The client 
-    // re-opens the connection and retries sending those packets.
-    // The other reason is that an "append" is occurring to this block.
-    
-    // check the validity of the parameter
-    if (newGS < b.getGenerationStamp()) {
-      throw new IOException("The new generation stamp " + newGS + 
-          " should be greater than the replica " + b + "'s generation stamp");
-    }
-    ReplicaInfo replicaInfo = getReplicaInfo(b);
-    LOG.info("Appending to " + replicaInfo);
-    if (replicaInfo.getState() != ReplicaState.FINALIZED) {
-      throw new ReplicaNotFoundException(
-          ReplicaNotFoundException.UNFINALIZED_REPLICA + b);
-    }
-    if (replicaInfo.getNumBytes() != expectedBlockLen) {
-      throw new IOException("Corrupted replica " + replicaInfo + 
-          " with a length of " + replicaInfo.getNumBytes() + 
-          " expected length is " + expectedBlockLen);
-    }
+    final FsDatasetLocks.Held lock =
+        locks.lockReplica(b.getBlockPoolId(), b.getBlockId());
+    try {
+      // If the block was successfully finalized because all packets
+      // were successfully processed at the Datanode but the ack for
+      // some of the packets were not received by the client. The client 
+      // re-opens the connection and retries sending those packets.
+      // The other reason is that an "append" is occurring to this block.
+
+      // check the validity of the parameter
+      if (newGS < b.getGenerationStamp()) {
+        throw new IOException("The new generation stamp " + newGS + 
+            " should be greater than the replica " + b + "'s generation stamp");
+      }
+      ReplicaInfo replicaInfo = getReplicaInfo(b);
+      LOG.info("Appending to " + replicaInfo);
+      if (replicaInfo.getState() != ReplicaState.FINALIZED) {
+        throw new ReplicaNotFoundException(
+            ReplicaNotFoundException.UNFINALIZED_REPLICA + b);
+      }
+      if (replicaInfo.getNumBytes() != expectedBlockLen) {
+        throw new IOException("Corrupted replica " + replicaInfo + 
+            " with a length of " + replicaInfo.getNumBytes() + 
+            " expected length is " + expectedBlockLen);
+      }
 
-    return append(b.getBlockPoolId(), (FinalizedReplica)replicaInfo, newGS,
-        b.getNumBytes());
+      return append(b.getBlockPoolId(), (FinalizedReplica)replicaInfo, newGS,
+          b.getNumBytes());
+    } finally {
+      lock.unlock();
+    }
   }
   
   /** Append to a finalized replica
@@ -569,7 +641,7 @@ public synchronized ReplicaInPipeline append(ExtendedBlock b,
    * @throws IOException if moving the replica from finalized directory 
    *         to rbw directory fails
    */
-  private synchronized ReplicaBeingWritten append(String bpid,
+  private ReplicaBeingWritten append(String bpid,
       FinalizedReplica replicaInfo, long newGS, long estimateBlockLen)
       throws IOException {
     // If the block is cached, start uncaching it.
@@ -677,19 +749,25 @@ private ReplicaInfo recoverCheck(ExtendedBlock b, long newGS,
   }
   
   @Override  // FsDatasetSpi
-  public synchronized ReplicaInPipeline recoverAppend(ExtendedBlock b,
+  public ReplicaInPipeline recoverAppend(ExtendedBlock b,
       long newGS, long expectedBlockLen) throws IOException {
     LOG.info("Recover failed append to " + b);
 
-    ReplicaInfo replicaInfo = recoverCheck(b, newGS, expectedBlockLen);
-
-    // change the replica's state/gs etc.
-    if (replicaInfo.getState() == ReplicaState.FINALIZED ) {
-      return append(b.getBlockPoolId(), (FinalizedReplica) replicaInfo, newGS, 
-          b.getNumBytes());
-    } else { //RBW
-      bumpReplicaGS(replicaInfo, newGS);
-      return (ReplicaBeingWritten)replicaInfo;
+    final FsDatasetLocks.Held lock =
+        locks.lockReplica(b.getBlockPoolId(), b.getBlockId());
+    try {
+      ReplicaInfo replicaInfo = recoverCheck(b, newGS, expectedBlockLen);
+
+      // change the replica's state/gs etc.
+      if (replicaInfo.getState() == ReplicaState.FINALIZED ) {
+        return append(b.getBlockPoolId(), (FinalizedReplica) replicaInfo, newGS, 
+            b.getNumBytes());
+      } else { //RBW
+        bumpReplicaGS(replicaInfo, newGS);
+        return (ReplicaBeingWritten)replicaInfo;
+      }
+    } finally {
+      lock.unlock();
     }
   }
 
@@ -697,15 +775,21 @@ public synchronized ReplicaInPipeline recoverAppend(ExtendedBlock b,
   public String recoverClose(ExtendedBlock b, long newGS,
       long expectedBlockLen) throws IOException {
     LOG.info("Recover failed close " + b);
-    // check replica's state
-    ReplicaInfo replicaInfo = recoverCheck(b, newGS, expectedBlockLen);
-    // bump the replica's GS
-    bumpReplicaGS(replicaInfo, newGS);
-    // finalize the replica if RBW
-    if (replicaInfo.getState() == ReplicaState.RBW) {
-      finalizeReplica(b.getBlockPoolId(), replicaInfo);
+    final FsDatasetLocks.Held lock =
+        locks.lockReplica(b.getBlockPoolId(), b.getBlockId());
+    try {
+      // check replica's state
+      ReplicaInfo replicaInfo = recoverCheck(b, newGS, expectedBlockLen);
+      // bump the replica's GS
+      bumpReplicaGS(replicaInfo, newGS);
+      // finalize the replica if RBW
+      if (replicaInfo.getState() == ReplicaState.RBW) {
+        finalizeReplica(b.getBlockPoolId(), replicaInfo);
+      }
+      return replicaInfo.getStorageUuid();
+    } finally {
+      lock.unlock();
     }
-    return replicaInfo.getStorageUuid();
   }
   
   /**
@@ -738,161 +822,188 @@ private void bumpReplicaGS(ReplicaInfo replicaInfo,
   }
 
   @Override // FsDatasetSpi
-  public synchronized ReplicaInPipeline createRbw(ExtendedBlock b)
+  public ReplicaInPipeline createRbw(ExtendedBlock b)
       throws IOException {
-    ReplicaInfo replicaInfo = volumeMap.get(b.getBlockPoolId(), 
-        b.getBlockId());
-    if (replicaInfo != null) {
-      throw new ReplicaAlreadyExistsException("Block " + b +
-      " already exists in state " + replicaInfo.getState() +
-      " and thus cannot be created.");
-    }
-    // create a new block
-    FsVolumeImpl v = volumes.getNextVolume(b.getNumBytes());
-    // create a rbw file to hold block in the designated volume
-    File f = v.createRbwFile(b.getBlockPoolId(), b.getLocalBlock());
-    ReplicaBeingWritten newReplicaInfo = new ReplicaBeingWritten(b.getBlockId(), 
-        b.getGenerationStamp(), v, f.getParentFile());
-    volumeMap.add(b.getBlockPoolId(), newReplicaInfo);
-    return newReplicaInfo;
+    final FsDatasetLocks.Held lock =
+        locks.lockReplica(b.getBlockPoolId(), b.getBlockId());
+    try {
+      ReplicaInfo replicaInfo = volumeMap.get(b.getBlockPoolId(), 
+          b.getBlockId());
+      if (replicaInfo != null) {
+        throw new ReplicaAlreadyExistsException("Block " + b +
+        " already exists in state " + replicaInfo.getState() +
+        " and thus cannot be created.");
+      }
+      // create a new block
+      FsVolumeImpl v = volumes.getNextVolume(b.getNumBytes(), getSlowVolumes());
+      // create a rbw file to hold block in the designated volume
+      long start = System.nanoTime();
+      File f = v.createRbwFile(b.getBlockPoolId(), b.getLocalBlock());
+      addVolumeIoNanos(v, VolumeIoOp.METADATA, start);
+      ReplicaBeingWritten newReplicaInfo = new ReplicaBeingWritten(b.getBlockId(), 
+          b.getGenerationStamp(), v, f.getParentFile());
+      volumeMap.add(b.getBlockPoolId(), newReplicaInfo);
+      return newReplicaInfo;
+    } finally {
+      lock.unlock();
+    }
   }
   
   @Override // FsDatasetSpi
-  public synchronized ReplicaInPipeline recoverRbw(ExtendedBlock b,
+  public ReplicaInPipeline recoverRbw(ExtendedBlock b,
       long newGS, long minBytesRcvd, long maxBytesRcvd)
       throws IOException {
     LOG.info("Recover RBW replica " + b);
 
-    ReplicaInfo replicaInfo = getReplicaInfo(b.getBlockPoolId(), b.getBlockId());
-    
-    // check the replica's state
-    if (replicaInfo.getState() != ReplicaState.RBW) {
-      throw new ReplicaNotFoundException(
-          ReplicaNotFoundException.NON_RBW_REPLICA + replicaInfo);
-    }
-    ReplicaBeingWritten rbw = (ReplicaBeingWritten)replicaInfo;
-    
-    LOG.info("Recovering " + rbw);
+    final FsDatasetLocks.Held lock =
+        locks.lockReplica(b.getBlockPoolId(), b.getBlockId());
+    try {
+      ReplicaInfo replicaInfo = getReplicaInfo(b.getBlockPoolId(), b.getBlockId());
 
-    // Stop the previous writer
-    rbw.stopWriter(datanode.getDnConf().getXceiverStopTimeout());
-    rbw.setWriter(Thread.currentThread());
+      // check the replica's state
+      if (replicaInfo.getState() != ReplicaState.RBW) {
+        throw new ReplicaNotFoundException(
+            ReplicaNotFoundException.NON_RBW_REPLICA + replicaInfo);
+      }
+      ReplicaBeingWritten rbw = (ReplicaBeingWritten)replicaInfo;
 
-    // check generation stamp
-    long replicaGenerationStamp = rbw.getGenerationStamp();
-    if (replicaGenerationStamp < b.getGenerationStamp() ||
-        replicaGenerationStamp > newGS) {
-      throw new ReplicaNotFoundException(
-          ReplicaNotFoundException.UNEXPECTED_GS_REPLICA + b +
-          ". Expected GS range is [" + b.getGenerationStamp() + ", " + 
-          newGS + "].");
+      LOG.info("Recovering " + rbw);
+
+      // Stop the previous writer
+      rbw.stopWriter(datanode.getDnConf().getXceiverStopTimeout());
+      rbw.setWriter(Thread.currentThread());
+
+      // check generation stamp
+      long replicaGenerationStamp = rbw.getGenerationStamp();
+      if (replicaGenerationStamp < b.getGenerationStamp() ||
+          replicaGenerationStamp > newGS) {
+        throw new ReplicaNotFoundException(
+            ReplicaNotFoundException.UNEXPECTED_GS_REPLICA + b +
+            ". Expected GS range is [" + b.getGenerationStamp() + ", " + 
+            newGS + "].");
+      }
+
+      // check replica length
+      long bytesAcked = rbw.getBytesAcked();
+      long numBytes = rbw.getNumBytes();
+      if (bytesAcked < minBytesRcvd || numBytes > maxBytesRcvd){
+        throw new ReplicaNotFoundException("Unmatched length replica " + 
+            replicaInfo + ": BytesAcked = " + bytesAcked + 
+            " BytesRcvd = " + numBytes + " are not in the range of [" + 
+            minBytesRcvd + ", " + maxBytesRcvd + "].");
+      }
+
+      // Truncate the potentially corrupt portion.
+      // If the source was client and the last node in the pipeline was lost,
+      // any corrupt data written after the acked length can go unnoticed. 
+      if (numBytes > bytesAcked) {
+        final File replicafile = rbw.getBlockFile();
+        truncateBlock(replicafile, rbw.getMetaFile(), numBytes, bytesAcked);
+        rbw.setNumBytes(bytesAcked);
+        rbw.setLastChecksumAndDataLen(bytesAcked, null);
+      }
+
+      // bump the replica's generation stamp to newGS
+      bumpReplicaGS(rbw, newGS);
+
+      return rbw;
+    } finally {
+      lock.unlock();
     }
-    
-    // check replica length
-    long bytesAcked = rbw.getBytesAcked();
-    long numBytes = rbw.getNumBytes();
-    if (bytesAcked < minBytesRcvd || numBytes > maxBytesRcvd){
-      throw new ReplicaNotFoundException("Unmatched length replica " + 
-          replicaInfo + ": BytesAcked = " + bytesAcked + 
-          " BytesRcvd = " + numBytes + " are not in the range of [" + 
-          minBytesRcvd + ", " + maxBytesRcvd + "].");
-    }
-
-    // Truncate the potentially corrupt portion.
-    // If the source was client and the last node in the pipeline was lost,
-    // any corrupt data written after the acked length can go unnoticed. 
-    if (numBytes > bytesAcked) {
-      final File replicafile = rbw.getBlockFile();
-      truncateBlock(replicafile, rbw.getMetaFile(), numBytes, bytesAcked);
-      rbw.setNumBytes(bytesAcked);
-      rbw.setLastChecksumAndDataLen(bytesAcked, null);
-    }
-
-    // bump the replica's generation stamp to newGS
-    bumpReplicaGS(rbw, newGS);
-    
-    return rbw;
   }
   
   @Override // FsDatasetSpi
-  public synchronized ReplicaInPipeline convertTemporaryToRbw(
+  public ReplicaInPipeline convertTemporaryToRbw(
       final ExtendedBlock b) throws IOException {
     final long blockId = b.getBlockId();
     final long expectedGs = b.getGenerationStamp();
     final long visible = b.getNumBytes();
     LOG.info("Convert " + b + " from Temporary to RBW, visible length="
         + visible);
-
-    final ReplicaInPipeline temp;
-    {
-      // get replica
-      final ReplicaInfo r = volumeMap.get(b.getBlockPoolId(), blockId);
-      if (r == null) {
-        throw new ReplicaNotFoundException(
-            ReplicaNotFoundException.NON_EXISTENT_REPLICA + b);
+    final FsDatasetLocks.Held lock =
+        locks.lockReplica(b.getBlockPoolId(), blockId);
+    try {
+      final ReplicaInPipeline temp;
+      {
+        // get replica
+        final ReplicaInfo r = volumeMap.get(b.getBlockPoolId(), blockId);
+        if (r == null) {
+          throw new ReplicaNotFoundException(
+              ReplicaNotFoundException.NON_EXISTENT_REPLICA + b);
+        }
+        // check the replica's state
+        if (r.getState() != ReplicaState.TEMPORARY) {
+          throw new ReplicaAlreadyExistsException(
+              "r.getState() != ReplicaState.TEMPORARY, r=" + r);
+        }
+        temp = (ReplicaInPipeline)r;
       }
-      // check the replica's state
-      if (r.getState() != ReplicaState.TEMPORARY) {
+      // check generation stamp
+      if (temp.getGenerationStamp() != expectedGs) {
         throw new ReplicaAlreadyExistsException(
-            "r.getState() != ReplicaState.TEMPORARY, r=" + r);
+            "temp.getGenerationStamp() != expectedGs = " + expectedGs
+            + ", temp=" + temp);
       }
-      temp = (ReplicaInPipeline)r;
-    }
-    // check generation stamp
-    if (temp.getGenerationStamp() != expectedGs) {
-      throw new ReplicaAlreadyExistsException(
-          "temp.getGenerationStamp() != expectedGs = " + expectedGs
-          + ", temp=" + temp);
-    }
 
-    // TODO: check writer?
-    // set writer to the current thread
-    // temp.setWriter(Thread.currentThread());
+      // TODO: check writer?
+      // set writer to the current thread
+      // temp.setWriter(Thread.currentThread());
 
-    // check length
-    final long numBytes = temp.getNumBytes();
-    if (numBytes < visible) {
-      throw new IOException(numBytes + " = numBytes < visible = "
-          + visible + ", temp=" + temp);
-    }
-    // check volume
-    final FsVolumeImpl v = (FsVolumeImpl)temp.getVolume();
-    if (v == null) {
-      throw new IOException("r.getVolume() = null, temp="  + temp);
+      // check length
+      final long numBytes = temp.getNumBytes();
+      if (numBytes < visible) {
+        throw new IOException(numBytes + " = numBytes < visible = "
+            + visible + ", temp=" + temp);
+      }
+      // check volume
+      final FsVolumeImpl v = (FsVolumeImpl)temp.getVolume();
+      if (v == null) {
+        throw new IOException("r.getVolume() = null, temp="  + temp);
+      }
+
+      // move block files to the rbw directory
+      BlockPoolSlice bpslice = v.getBlockPoolSlice(b.getBlockPoolId());
+      final File dest = moveBlockFiles(b.getLocalBlock(), temp.getBlockFile(), 
+          bpslice.getRbwDir());
+      // create RBW
+      final ReplicaBeingWritten rbw = new ReplicaBeingWritten(
+          blockId, numBytes, expectedGs,
+          v, dest.getParentFile(), Thread.currentThread());
+      rbw.setBytesAcked(visible);
+      // overwrite the RBW in the volume map
+      volumeMap.add(b.getBlockPoolId(), rbw);
+      return rbw;
+    } finally {
+      lock.unlock();
     }
-    
-    // move block files to the rbw directory
-    BlockPoolSlice bpslice = v.getBlockPoolSlice(b.getBlockPoolId());
-    final File dest = moveBlockFiles(b.getLocalBlock(), temp.getBlockFile(), 
-        bpslice.getRbwDir());
-    // create RBW
-    final ReplicaBeingWritten rbw = new ReplicaBeingWritten(
-        blockId, numBytes, expectedGs,
-        v, dest.getParentFile(), Thread.currentThread());
-    rbw.setBytesAcked(visible);
-    // overwrite the RBW in the volume map
-    volumeMap.add(b.getBlockPoolId(), rbw);
-    return rbw;
   }
 
   @Override // FsDatasetSpi
-  public synchronized ReplicaInPipeline createTemporary(ExtendedBlock b)
+  public ReplicaInPipeline createTemporary(ExtendedBlock b)
       throws IOException {
-    ReplicaInfo replicaInfo = volumeMap.get(b.getBlockPoolId(), b.getBlockId());
-    if (replicaInfo != null) {
-      throw new ReplicaAlreadyExistsException("Block " + b +
-          " already exists in state " + replicaInfo.getState() +
-          " and thus cannot be created.");
+    final FsDatasetLocks.Held lock =
+        locks.lockReplica(b.getBlockPoolId(), b.getBlockId());
+    try {
+      ReplicaInfo replicaInfo = volumeMap.get(b.getBlockPoolId(), b.getBlockId());
+      if (replicaInfo != null) {
+        throw new ReplicaAlreadyExistsException("Block " + b +
+            " already exists in state " + replicaInfo.getState() +
+            " and thus cannot be created.");
+      }
+
+      FsVolumeImpl v = volumes.getNextVolume(b.getNumBytes(), getSlowVolumes());
+      // create a temporary file to hold block in the designated volume
+      long start = System.nanoTime();
+      File f = v.createTmpFile(b.getBlockPoolId(), b.getLocalBlock());
+      addVolumeIoNanos(v, VolumeIoOp.METADATA, start);
+      ReplicaInPipeline newReplicaInfo = new ReplicaInPipeline(b.getBlockId(), 
+          b.getGenerationStamp(), v, f.getParentFile());
+      volumeMap.add(b.getBlockPoolId(), newReplicaInfo);
+
+      return newReplicaInfo;
+    } finally {
+      lock.unlock();
     }
-    
-    FsVolumeImpl v = volumes.getNextVolume(b.getNumBytes());
-    // create a temporary file to hold block in the designated volume
-    File f = v.createTmpFile(b.getBlockPoolId(), b.getLocalBlock());
-    ReplicaInPipeline newReplicaInfo = new ReplicaInPipeline(b.getBlockId(), 
-        b.getGenerationStamp(), v, f.getParentFile());
-    volumeMap.add(b.getBlockPoolId(), newReplicaInfo);
-    
-    return newReplicaInfo;
   }
 
   /**
@@ -925,21 +1036,27 @@ public void adjustCrcChannelPosition(ExtendedBlock b, ReplicaOutputStreams strea
    * Complete the block write!
    */
   @Override // FsDatasetSpi
-  public synchronized void finalizeBlock(ExtendedBlock b) throws IOException {
+  public void finalizeBlock(ExtendedBlock b) throws IOException {
     if (Thread.interrupted()) {
       // Don't allow data modifications from interrupted threads
       throw new IOException("Cannot finalize block from Interrupted Thread");
     }
-    ReplicaInfo replicaInfo = getReplicaInfo(b);
-    if (replicaInfo.getState() == ReplicaState.FINALIZED) {
-      // this is legal, when recovery happens on a file that has
-      // been opened for append but never modified
-      return;
+    final FsDatasetLocks.Held lock =
+        locks.lockReplica(b.getBlockPoolId(), b.getBlockId());
+    try {
+      ReplicaInfo replicaInfo = getReplicaInfo(b);
+      if (replicaInfo.getState() == ReplicaState.FINALIZED) {
+        // this is legal, when recovery happens on a file that has
+        // been opened for append but never modified
+        return;
+      }
+      finalizeReplica(b.getBlockPoolId(), replicaInfo);
+    } finally {
+      lock.unlock();
     }
-    finalizeReplica(b.getBlockPoolId(), replicaInfo);
   }
   
-  private synchronized FinalizedReplica finalizeReplica(String bpid,
+  private FinalizedReplica finalizeReplica(String bpid,
       ReplicaInfo replicaInfo) throws IOException {
     FinalizedReplica newReplicaInfo = null;
     if (replicaInfo.getState() == ReplicaState.RUR &&
@@ -955,7 +1072,9 @@ private synchronized FinalizedReplica finalizeReplica(String bpid,
             " for block " + replicaInfo);
       }
 
+      long start = System.nanoTime();
       File dest = v.addBlock(bpid, replicaInfo, f);
+      addVolumeIoNanos(v, VolumeIoOp.METADATA, start);
       newReplicaInfo = new FinalizedReplica(replicaInfo, v, dest.getParentFile());
     }
     volumeMap.add(bpid, newReplicaInfo);
@@ -966,18 +1085,24 @@ private synchronized FinalizedReplica finalizeReplica(String bpid,
    * Remove the temporary block file (if any)
    */
   @Override // FsDatasetSpi
-  public synchronized void unfinalizeBlock(ExtendedBlock b) throws IOException {
-    ReplicaInfo replicaInfo = volumeMap.get(b.getBlockPoolId(), 
-        b.getLocalBlock());
-    if (replicaInfo != null && replicaInfo.getState() == ReplicaState.TEMPORARY) {
-      // remove from volumeMap
-      volumeMap.remove(b.getBlockPoolId(), b.getLocalBlock());
-      
-      // delete the on-disk temp file
-      if (delBlockFromDisk(replicaInfo.getBlockFile(), 
-          replicaInfo.getMetaFile(), b.getLocalBlock())) {
-        LOG.warn("Block " + b + " unfinalized and removed. " );
+  public void unfinalizeBlock(ExtendedBlock b) throws IOException {
+    final FsDatasetLocks.Held lock =
+        locks.lockReplica(b.getBlockPoolId(), b.getBlockId());
+    try {
+      ReplicaInfo replicaInfo = volumeMap.get(b.getBlockPoolId(), 
+          b.getLocalBlock());
+      if (replicaInfo != null && replicaInfo.getState() == ReplicaState.TEMPORARY) {
+        // remove from volumeMap
+        volumeMap.remove(b.getBlockPoolId(), b.getLocalBlock());
+
+        // delete the on-disk temp file
+        if (delBlockFromDisk(replicaInfo.getBlockFile(), 
+            replicaInfo.getMetaFile(), b.getLocalBlock())) {
+          LOG.warn("Block " + b + " unfinalized and removed. " );
+        }
       }
+    } finally {
+      lock.unlock();
     }
   }
 
@@ -1026,7 +1151,8 @@ public Map<DatanodeStorage, BlockListAsLongs> getBlockReports(String bpid) {
       uc.put(v.getStorageID(), new ArrayList<ReplicaInfo>());
     }
 
-    synchronized(this) {
+    final FsDatasetLocks.Held lock = locks.lockDatasetShared();
+    try {
       for (ReplicaInfo b : volumeMap.replicas(bpid)) {
         switch(b.getState()) {
           case FINALIZED:
@@ -1046,6 +1172,8 @@ public Map<DatanodeStorage, BlockListAsLongs> getBlockReports(String bpid) {
             assert false : "Illegal ReplicaInfo state.";
         }
       }
+    } finally {
+      lock.unlock();
     }
 
     for (FsVolumeImpl v : volumes.volumes) {
@@ -1062,13 +1190,18 @@ public Map<DatanodeStorage, BlockListAsLongs> getBlockReports(String bpid) {
    * Get the list of finalized blocks from in-memory blockmap for a block pool.
    */
   @Override
-  public synchronized List<FinalizedReplica> getFinalizedBlocks(String bpid) {
+  public List<FinalizedReplica> getFinalizedBlocks(String bpid) {
     ArrayList<FinalizedReplica> finalized =
         new ArrayList<FinalizedReplica>(volumeMap.size(bpid));
-    for (ReplicaInfo b : volumeMap.replicas(bpid)) {
-      if(b.getState() == ReplicaState.FINALIZED) {
-        finalized.add(new FinalizedReplica((FinalizedReplica)b));
+    final FsDatasetLocks.Held lock = locks.lockDatasetShared();
+    try {
+      for (ReplicaInfo b : volumeMap.replicas(bpid)) {
+        if(b.getState() == ReplicaState.FINALIZED) {
+          finalized.add(new FinalizedReplica((FinalizedReplica)b));
+        }
       }
+    } finally {
+      lock.unlock();
     }
     return finalized;
   }
@@ -1104,10 +1237,7 @@ private boolean isValid(final ExtendedBlock b, final ReplicaState state) {
    */
   File validateBlockFile(String bpid, Block b) {
     //Should we check for metadata file too?
-    final File f;
-    synchronized(this) {
-      f = getFile(bpid, b.getBlockId());
-    }
+    final File f = getFile(bpid, b.getBlockId());
     
     if(f != null ) {
       if(f.exists())
@@ -1156,7 +1286,9 @@ public void invalidate(String bpid, Block invalidBlks[]) throws IOException {
     for (int i = 0; i < invalidBlks.length; i++) {
       final File f;
       final FsVolumeImpl v;
-      synchronized (this) {
+      final FsDatasetLocks.Held lock =
+          locks.lockReplica(bpid, invalidBlks[i].getBlockId());
+      try {
         final ReplicaInfo info = volumeMap.get(bpid, invalidBlks[i]);
         if (info == null) {
           // It is okay if the block is not found -- it may be deleted earlier.
@@ -1195,6 +1327,8 @@ public void invalidate(String bpid, Block invalidBlks[]) throws IOException {
           v.clearPath(bpid, parent);
         }
         volumeMap.remove(bpid, invalidBlks[i]);
+      } finally {
+        lock.unlock();
       }
       // If the block is cached, start uncaching it.
       cacheManager.uncacheBlock(bpid, invalidBlks[i].getBlockId());
@@ -1226,7 +1360,8 @@ private void cacheBlock(String bpid, long blockId) {
     long length, genstamp;
     Executor volumeExecutor;
 
-    synchronized (this) {
+    final FsDatasetLocks.Held lock = locks.lockReplica(bpid, blockId);
+    try {
       ReplicaInfo info = volumeMap.get(bpid, blockId);
       boolean success = false;
       try {
@@ -1263,6 +1398,8 @@ private void cacheBlock(String bpid, long blockId) {
       length = info.getVisibleLength();
       genstamp = info.getGenerationStamp();
       volumeExecutor = volume.getCacheExecutor();
+    } finally {
+      lock.unlock();
     }
     cacheManager.cacheBlock(blockId, bpid, 
         blockFileName, length, genstamp, volumeExecutor);
@@ -1287,7 +1424,7 @@ public boolean isCached(String bpid, long blockId) {
   }
 
   @Override // FsDatasetSpi
-  public synchronized boolean contains(final ExtendedBlock block) {
+  public boolean contains(final ExtendedBlock block) {
     final long blockId = block.getLocalBlock().getBlockId();
     return getFile(block.getBlockPoolId(), blockId) != null;
   }
@@ -1323,7 +1460,8 @@ public void checkDataDir() throws DiskErrorException {
     
     // Otherwise remove blocks for the failed volumes
     long mlsec = Time.now();
-    synchronized (this) {
+    final FsDatasetLocks.Held lock = locks.lockDataset();
+    try {
       for (FsVolumeImpl fv: failedVols) {
         for (String bpid : fv.getBlockPoolList()) {
           Iterator<ReplicaInfo> ib = volumeMap.replicas(bpid).iterator();
@@ -1340,7 +1478,9 @@ public void checkDataDir() throws DiskErrorException {
           }
         }
       }
-    } // end of sync
+    } finally {
+      lock.unlock();
+    }
     mlsec = Time.now() - mlsec;
     LOG.warn("Removed " + removedBlocks + " out of " + totalBlocks +
         "(took " + mlsec + " millisecs)");
@@ -1388,7 +1528,7 @@ public void shutdown() {
     }
     
     if(volumes != null) {
-      volumes.shutdown();
+      volumes.shutdown(volumeMap);
     }
   }
 
@@ -1425,7 +1565,8 @@ public void checkAndUpdate(String bpid, long blockId, File diskFile,
       File diskMetaFile, FsVolumeSpi vol) {
     Block corruptBlock = null;
     ReplicaInfo memBlockInfo;
-    synchronized (this) {
+    final FsDatasetLocks.Held lock = locks.lockReplica(bpid, blockId);
+    try {
       memBlockInfo = volumeMap.get(bpid, blockId);
       if (memBlockInfo != null && memBlockInfo.getState() != ReplicaState.FINALIZED) {
         // Block is not finalized - ignore the difference
@@ -1544,6 +1685,8 @@ public void checkAndUpdate(String bpid, long blockId, File diskFile,
             + memBlockInfo.getNumBytes() + " to " + memFile.length());
         memBlockInfo.setNumBytes(memFile.length());
       }
+    } finally {
+      lock.unlock();
     }
 
     // Send corrupt block report outside the lock
@@ -1568,17 +1711,23 @@ public ReplicaInfo getReplica(String bpid, long blockId) {
   }
 
   @Override 
-  public synchronized String getReplicaString(String bpid, long blockId) {
+  public String getReplicaString(String bpid, long blockId) {
     final Replica r = volumeMap.get(bpid, blockId);
     return r == null? "null": r.toString();
   }
 
   @Override // FsDatasetSpi
-  public synchronized ReplicaRecoveryInfo initReplicaRecovery(
+  public ReplicaRecoveryInfo initReplicaRecovery(
       RecoveringBlock rBlock) throws IOException {
-    return initReplicaRecovery(rBlock.getBlock().getBlockPoolId(), volumeMap,
-        rBlock.getBlock().getLocalBlock(), rBlock.getNewGenerationStamp(),
-        datanode.getDnConf().getXceiverStopTimeout());
+    final FsDatasetLocks.Held lock = locks.lockReplica(
+        rBlock.getBlock().getBlockPoolId(), rBlock.getBlock().getBlockId());
+    try {
+      return initReplicaRecovery(rBlock.getBlock().getBlockPoolId(), volumeMap,
+          rBlock.getBlock().getLocalBlock(), rBlock.getNewGenerationStamp(),
+          datanode.getDnConf().getXceiverStopTimeout());
+    } finally {
+      lock.unlock();
+    }
   }
 
   /** static version of {@link #initReplicaRecovery(Block, long)}. */
@@ -1647,54 +1796,60 @@ static ReplicaRecoveryInfo initReplicaRecovery(String bpid, ReplicaMap map,
   }
 
   @Override // FsDatasetSpi
-  public synchronized String updateReplicaUnderRecovery(
+  public String updateReplicaUnderRecovery(
                                     final ExtendedBlock oldBlock,
                                     final long recoveryId,
                                     final long newlength) throws IOException {
-    //get replica
-    final String bpid = oldBlock.getBlockPoolId();
-    final ReplicaInfo replica = volumeMap.get(bpid, oldBlock.getBlockId());
-    LOG.info("updateReplica: " + oldBlock
-        + ", recoveryId=" + recoveryId
-        + ", length=" + newlength
-        + ", replica=" + replica);
+    final FsDatasetLocks.Held lock = locks.lockReplica(
+        oldBlock.getBlockPoolId(), oldBlock.getBlockId());
+    try {
+      //get replica
+      final String bpid = oldBlock.getBlockPoolId();
+      final ReplicaInfo replica = volumeMap.get(bpid, oldBlock.getBlockId());
+      LOG.info("updateReplica: " + oldBlock
+          + ", recoveryId=" + recoveryId
+          + ", length=" + newlength
+          + ", replica=" + replica);
 
-    //check replica
-    if (replica == null) {
-      throw new ReplicaNotFoundException(oldBlock);
-    }
+      //check replica
+      if (replica == null) {
+        throw new ReplicaNotFoundException(oldBlock);
+      }
 
-    //check replica state
-    if (replica.getState() != ReplicaState.RUR) {
-      throw new IOException("replica.getState() != " + ReplicaState.RUR
-          + ", replica=" + replica);
-    }
+      //check replica state
+      if (replica.getState() != ReplicaState.RUR) {
+        throw new IOException("replica.getState() != " + ReplicaState.RUR
+            + ", replica=" + replica);
+      }
 
-    //check replica's byte on disk
-    if (replica.getBytesOnDisk() != oldBlock.getNumBytes()) {
-      throw new IOException("THIS IS NOT SUPPOSED TO HAPPEN:"
-          + " replica.getBytesOnDisk() != block.getNumBytes(), block="
-          + oldBlock + ", replica=" + replica);
-    }
+      //check replica's byte on disk
+      if (replica.getBytesOnDisk() != oldBlock.getNumBytes()) {
+        throw new IOException("THIS IS NOT SUPPOSED TO HAPPEN:"
+            + " replica.getBytesOnDisk() != block.getNumBytes(), block="
+            + oldBlock + ", replica=" + replica);
+      }
 
-    //check replica files before update
-    checkReplicaFiles(replica);
+      //check replica files before update
+      checkReplicaFiles(replica);
 
-    //update replica
-    final FinalizedReplica finalized = updateReplicaUnderRecovery(oldBlock
-        .getBlockPoolId(), (ReplicaUnderRecovery) replica, recoveryId, newlength);
-    assert finalized.getBlockId() == oldBlock.getBlockId()
-        && finalized.getGenerationStamp() == recoveryId
-        && finalized.getNumBytes() == newlength
-        : "Replica information mismatched: oldBlock=" + oldBlock
-            + ", recoveryId=" + recoveryId + ", newlength=" + newlength
-            + ", finalized=" + finalized;
+      //update replica
+      final FinalizedReplica finalized = updateReplicaUnderRecovery(oldBlock
+          .getBlockPoolId(), (ReplicaUnderRecovery) replica, recoveryId, newlength);
+      assert finalized.getBlockId() == oldBlock.getBlockId()
+          && finalized.getGenerationStamp() == recoveryId
+          && finalized.getNumBytes() == newlength
+          : "Replica information mismatched: oldBlock=" + oldBlock
+              + ", recoveryId=" + recoveryId + ", newlength=" + newlength
+              + ", finalized=" + finalized;
 
-    //check replica files after update
-    checkReplicaFiles(finalized);
+      //check replica files after update
+      checkReplicaFiles(finalized);
 
-    //return storage ID
-    return getVolume(new ExtendedBlock(bpid, finalized)).getStorageID();
+      //return storage ID
+      return getVolume(new ExtendedBlock(bpid, finalized)).getStorageID();
+    } finally {
+      lock.unlock();
+    }
   }
 
   private FinalizedReplica updateReplicaUnderRecovery(
@@ -1729,7 +1884,7 @@ private FinalizedReplica updateReplicaUnderRecovery(
   }
 
   @Override // FsDatasetSpi
-  public synchronized long getReplicaVisibleLength(final ExtendedBlock block)
+  public long getReplicaVisibleLength(final ExtendedBlock block)
   throws IOException {
     final Replica replica = getReplicaInfo(block.getBlockPoolId(), 
         block.getBlockId());
@@ -1745,18 +1900,31 @@ public synchronized long getReplicaVisibleLength(final ExtendedBlock block)
   public void addBlockPool(String bpid, Configuration conf)
       throws IOException {
     LOG.info("Adding block pool " + bpid);
-    synchronized(this) {
+    final FsDatasetLocks.Held lock = locks.lockDataset();
+    try {
       volumes.addBlockPool(bpid, conf);
       volumeMap.initBlockPool(bpid);
+    } finally {
+      lock.unlock();
     }
+    final long startTime = Time.monotonicNow();
     volumes.getAllVolumesMap(bpid, volumeMap);
+    final DataNodeMetrics metrics = datanode.getMetrics();
+    if (metrics != null) {
+      metrics.addReplicaMapLoad(Time.monotonicNow() - startTime);
+    }
   }
 
   @Override
-  public synchronized void shutdownBlockPool(String bpid) {
+  public void shutdownBlockPool(String bpid) {
     LOG.info("Removing block pool " + bpid);
-    volumeMap.cleanUpBlockPool(bpid);
-    volumes.removeBlockPool(bpid);
+    final FsDatasetLocks.Held lock = locks.lockDataset();
+    try {
+      volumes.removeBlockPool(bpid, volumeMap);
+      volumeMap.cleanUpBlockPool(bpid);
+    } finally {
+      lock.unlock();
+    }
   }
   
   /**
@@ -1810,19 +1978,24 @@ public Map<String, Object> getVolumeInfoMap() {
   }
 
   @Override //FsDatasetSpi
-  public synchronized void deleteBlockPool(String bpid, boolean force)
+  public void deleteBlockPool(String bpid, boolean force)
       throws IOException {
-    if (!force) {
-      for (FsVolumeImpl volume : volumes.volumes) {
-        if (!volume.isBPDirEmpty(bpid)) {
-          LOG.warn(bpid + " has some block files, cannot delete unless forced");
-          throw new IOException("Cannot delete block pool, "
-              + "it contains some block files");
+    final FsDatasetLocks.Held lock = locks.lockDataset();
+    try {
+      if (!force) {
+        for (FsVolumeImpl volume : volumes.volumes) {
+          if (!volume.isBPDirEmpty(bpid)) {
+            LOG.warn(bpid + " has some block files, cannot delete unless forced");
+            throw new IOException("Cannot delete block pool, "
+                + "it contains some block files");
+          }
         }
       }
-    }
-    for (FsVolumeImpl volume : volumes.volumes) {
-      volume.deleteBPDirectories(bpid, force);
+      for (FsVolumeImpl volume : volumes.volumes) {
+        volume.deleteBPDirectories(bpid, force);
+      }
+    } finally {
+      lock.unlock();
     }
   }
   
@@ -0,0 +1,125 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * The locks of an {@link FsDatasetImpl}.
+ *
+ * An operation on one replica holds the dataset lock shared and the stripe
+ * lock that the block pool and the ID of the replica hash to, so operations
+ * on different replicas run concurrently. An operation on the whole
+ * dataset, such as removing the replicas of a failed volume, holds the
+ * dataset lock exclusively.
+ *
+ * To avoid deadlocks, a thread holds at most one stripe lock, and never
+ * asks for the dataset lock exclusively while it holds any lock of the
+ * dataset. Lookups in the {@link ReplicaMap} need no lock.
+ */
+class FsDatasetLocks {
+  /** A lock held by the current thread until {@link #unlock()}. */
+  static class Held {
+    private final Lock datasetLock;
+    private final Lock stripe;
+    private final DataNodeMetrics metrics;
+    private final long waitNanos;
+    private final long acquiredNanos;
+
+    private Held(Lock datasetLock, Lock stripe, DataNodeMetrics metrics) {
+      this.datasetLock = datasetLock;
+      this.stripe = stripe;
+      this.metrics = metrics;
+      final long start = System.nanoTime();
+      datasetLock.lock();
+      if (stripe != null) {
+        try {
+          stripe.lock();
+        } catch (RuntimeException e) {
+          datasetLock.unlock();
+          throw e;
+        }
+      }
+      acquiredNanos = System.nanoTime();
+      waitNanos = acquiredNanos - start;
+    }
+
+    void unlock() {
+      final long heldNanos = System.nanoTime() - acquiredNanos;
+      if (stripe != null) {
+        stripe.unlock();
+      }
+      datasetLock.unlock();
+      if (metrics != null) {
+        if (stripe != null) {
+          metrics.addReplicaLockNanos(waitNanos, heldNanos);
+        } else {
+          metrics.addDatasetLockNanos(waitNanos, heldNanos);
+        }
+      }
+    }
+  }
+
+  private final ReentrantReadWriteLock datasetLock =
+      new ReentrantReadWriteLock();
+  private final ReentrantLock[] stripes;
+  private final DataNodeMetrics metrics;
+
+  /**
+   * @param numStripes the number of stripe locks
+   * @param metrics where the lock times are recorded; may be null
+   */
+  FsDatasetLocks(int numStripes, DataNodeMetrics metrics) {
+    Preconditions.checkArgument(numStripes > 0,
+        "The number of lock stripes must be positive");
+    this.stripes = new ReentrantLock[numStripes];
+    for (int i = 0; i < numStripes; i++) {
+      stripes[i] = new ReentrantLock();
+    }
+    this.metrics = metrics;
+  }
+
+  private ReentrantLock getStripe(String bpid, long blockId) {
+    final int h = bpid.hashCode() * 31 + (int)(blockId ^ (blockId >>> 32));
+    return stripes[(h & Integer.MAX_VALUE) % stripes.length];
+  }
+
+  /** Lock a replica against other operations on it. */
+  Held lockReplica(String bpid, long blockId) {
+    return new Held(datasetLock.readLock(), getStripe(bpid, blockId),
+        metrics);
+  }
+
+  /** Lock the whole dataset against all the operations on replicas. */
+  Held lockDataset() {
+    Preconditions.checkState(datasetLock.getReadHoldCount() == 0,
+        "Cannot lock the dataset while holding the lock of a replica");
+    return new Held(datasetLock.writeLock(), null, metrics);
+  }
+
+  /** Lock the dataset against the operations on the whole dataset only. */
+  Held lockDatasetShared() {
+    return new Held(datasetLock.readLock(), null, null);
+  }
+}
@@ -18,10 +18,14 @@
 package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.LinkedBlockingQueue;
@@ -39,6 +43,7 @@
 import org.apache.hadoop.hdfs.server.datanode.DataStorage;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeStorage;
+import org.apache.hadoop.io.nativeio.NativeIO;
 import org.apache.hadoop.util.DiskChecker.DiskErrorException;
 
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
@@ -50,7 +55,6 @@
  */
 @InterfaceAudience.Private
 class FsVolumeImpl implements FsVolumeSpi {
-  private final FsDatasetImpl dataset;
   private final String storageID;
   private final StorageType storageType;
   private final Map<String, BlockPoolSlice> bpSlices
@@ -65,10 +69,16 @@ class FsVolumeImpl implements FsVolumeSpi {
    * contention.
    */
   private final ThreadPoolExecutor cacheExecutor;
+  /** Whether long block reads on this volume use O_DIRECT. */
+  private final boolean directIOReads;
+  private final int directIOBufferSize;
+  /** Aligned buffers of closed {@link DirectIOInputStream}s. */
+  private final BlockingQueue<ByteBuffer> directIOBuffers =
+      new LinkedBlockingQueue<ByteBuffer>(MAX_POOLED_DIRECT_IO_BUFFERS);
+  private static final int MAX_POOLED_DIRECT_IO_BUFFERS = 8;
   
   FsVolumeImpl(FsDatasetImpl dataset, String storageID, File currentDir,
       Configuration conf, StorageType storageType) throws IOException {
-    this.dataset = dataset;
     this.storageID = storageID;
     this.reserved = conf.getLong(
         DFSConfigKeys.DFS_DATANODE_DU_RESERVED_KEY,
@@ -91,6 +101,69 @@ class FsVolumeImpl implements FsVolumeSpi {
         new LinkedBlockingQueue<Runnable>(),
         workerFactory);
     cacheExecutor.allowCoreThreadTimeOut(true);
+    int bufferSize = conf.getInt(
+        DFSConfigKeys.DFS_DATANODE_DIRECT_IO_BUFFER_SIZE_KEY,
+        DFSConfigKeys.DFS_DATANODE_DIRECT_IO_BUFFER_SIZE_DEFAULT);
+    this.directIOBufferSize = Math.max(1, (bufferSize +
+        DirectIOInputStream.ALIGNMENT - 1) / DirectIOInputStream.ALIGNMENT) *
+        DirectIOInputStream.ALIGNMENT;
+    this.directIOReads = conf.getBoolean(
+        DFSConfigKeys.DFS_DATANODE_DIRECT_IO_READS_ENABLED_KEY,
+        DFSConfigKeys.DFS_DATANODE_DIRECT_IO_READS_ENABLED_DEFAULT)
+        && NativeIO.isAvailable() && supportsDirectIO(currentDir);
+  }
+
+  /**
+   * Check that O_DIRECT reads work in the given directory, by reading back
+   * a small file written there.
+   */
+  private static boolean supportsDirectIO(File dir) {
+    File probe = null;
+    try {
+      probe = File.createTempFile("direct-io-probe", null, dir);
+      FileOutputStream out = new FileOutputStream(probe);
+      try {
+        out.write(new byte[DirectIOInputStream.ALIGNMENT]);
+      } finally {
+        out.close();
+      }
+      FileInputStream in = new FileInputStream(NativeIO.POSIX.open(
+          probe.getAbsolutePath(),
+          NativeIO.POSIX.O_RDONLY | NativeIO.POSIX.O_DIRECT, 0));
+      try {
+        ByteBuffer buf = DirectIOInputStream.allocateAligned(
+            DirectIOInputStream.ALIGNMENT);
+        if (in.getChannel().read(buf, 0) == DirectIOInputStream.ALIGNMENT) {
+          return true;
+        }
+      } finally {
+        in.close();
+      }
+      FsDatasetImpl.LOG.warn("Short O_DIRECT read in " + dir +
+          ", using buffered reads");
+    } catch (IOException e) {
+      FsDatasetImpl.LOG.warn("O_DIRECT is not supported in " + dir +
+          ", using buffered reads: " + e);
+    } finally {
+      if (probe != null && !probe.delete()) {
+        FsDatasetImpl.LOG.warn("Failed to delete " + probe);
+      }
+    }
+    return false;
+  }
+
+  boolean isDirectIOReads() {
+    return directIOReads;
+  }
+
+  ByteBuffer takeDirectIOBuffer() {
+    ByteBuffer buf = directIOBuffers.poll();
+    return buf != null ? buf :
+        DirectIOInputStream.allocateAligned(directIOBufferSize);
+  }
+
+  void returnDirectIOBuffer(ByteBuffer buf) {
+    directIOBuffers.offer(buf);
   }
   
   File getCurrentDir() {
@@ -102,20 +175,16 @@ File getRbwDir(String bpid) throws IOException {
   }
   
   void decDfsUsed(String bpid, long value) {
-    synchronized(dataset) {
-      BlockPoolSlice bp = bpSlices.get(bpid);
-      if (bp != null) {
-        bp.decDfsUsed(value);
-      }
+    BlockPoolSlice bp = bpSlices.get(bpid);
+    if (bp != null) {
+      bp.decDfsUsed(value);
     }
   }
   
   long getDfsUsed() throws IOException {
     long dfsUsed = 0;
-    synchronized(dataset) {
-      for(BlockPoolSlice s : bpSlices.values()) {
-        dfsUsed += s.getDfsUsed();
-      }
+    for(BlockPoolSlice s : bpSlices.values()) {
+      dfsUsed += s.getDfsUsed();
     }
     return dfsUsed;
   }
@@ -245,11 +314,15 @@ public String toString() {
     return currentDir.getAbsolutePath();
   }
 
-  void shutdown() {
+  /**
+   * @param volumeMap if not null, the finalized replicas are saved for the
+   *                  next startup
+   */
+  void shutdown(ReplicaMap volumeMap) {
     cacheExecutor.shutdown();
     Set<Entry<String, BlockPoolSlice>> set = bpSlices.entrySet();
     for (Entry<String, BlockPoolSlice> entry : set) {
-      entry.getValue().shutdown();
+      entry.getValue().shutdown(volumeMap);
     }
   }
 
@@ -259,10 +332,10 @@ void addBlockPool(String bpid, Configuration conf) throws IOException {
     bpSlices.put(bpid, bp);
   }
   
-  void shutdownBlockPool(String bpid) {
+  void shutdownBlockPool(String bpid, ReplicaMap volumeMap) {
     BlockPoolSlice bp = bpSlices.get(bpid);
     if (bp != null) {
-      bp.shutdown();
+      bp.shutdown(volumeMap);
     }
     bpSlices.remove(bpid);
   }
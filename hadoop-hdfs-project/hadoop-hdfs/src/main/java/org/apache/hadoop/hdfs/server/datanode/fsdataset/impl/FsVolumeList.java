@@ -24,6 +24,7 @@
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsVolumeSpi;
 import org.apache.hadoop.hdfs.server.datanode.fsdataset.VolumeChoosingPolicy;
 import org.apache.hadoop.util.DiskChecker.DiskErrorException;
+import org.apache.hadoop.util.DiskChecker.DiskOutOfSpaceException;
 
 class FsVolumeList {
   /**
@@ -57,6 +58,33 @@ int numberOfFailedVolumes() {
   synchronized FsVolumeImpl getNextVolume(long blockSize) throws IOException {
     return blockChooser.chooseVolume(volumes, blockSize);
   }
+
+  /**
+   * Get next volume, avoiding the slow volumes while another volume has
+   * enough space.
+   * @param blockSize free space needed on the volume
+   * @param slowStorageIds the storage IDs of the slow volumes
+   * @return next volume to store the block in.
+   */
+  synchronized FsVolumeImpl getNextVolume(long blockSize,
+      Set<String> slowStorageIds) throws IOException {
+    if (!slowStorageIds.isEmpty()) {
+      List<FsVolumeImpl> others = new ArrayList<FsVolumeImpl>(volumes.size());
+      for (FsVolumeImpl v : volumes) {
+        if (!slowStorageIds.contains(v.getStorageID())) {
+          others.add(v);
+        }
+      }
+      if (!others.isEmpty()) {
+        try {
+          return blockChooser.chooseVolume(others, blockSize);
+        } catch (DiskOutOfSpaceException e) {
+          // fall back to the slow volumes
+        }
+      }
+    }
+    return blockChooser.chooseVolume(volumes, blockSize);
+  }
     
   long getDfsUsed() throws IOException {
     long dfsUsed = 0L;
@@ -172,7 +200,7 @@ synchronized List<FsVolumeImpl> checkDirs() {
           removedVols = new ArrayList<FsVolumeImpl>(1);
         }
         removedVols.add(fsv);
-        fsv.shutdown(); 
+        fsv.shutdown(null);
         i.remove(); // Remove the volume
         numFailedVolumes++;
       }
@@ -237,16 +265,16 @@ public void run() {
         bpid + ": " + totalTimeTaken + "ms");
   }
   
-  void removeBlockPool(String bpid) {
+  void removeBlockPool(String bpid, ReplicaMap volumeMap) {
     for (FsVolumeImpl v : volumes) {
-      v.shutdownBlockPool(bpid);
+      v.shutdownBlockPool(bpid, volumeMap);
     }
   }
 
-  void shutdown() {
+  void shutdown(ReplicaMap volumeMap) {
     for (FsVolumeImpl volume : volumes) {
       if(volume != null) {
-        volume.shutdown();
+        volume.shutdown(volumeMap);
       }
     }
   }
@@ -33,6 +33,9 @@
 /**
  * A node type that can be built into a tree reflecting the
  * hierarchy of replicas on the local disk.
+ *
+ * Not thread safe: {@link BlockPoolSlice} synchronizes on the root of the
+ * tree.
  */
 class LDir {
   final File dir;
@@ -54,10 +57,12 @@ class LDir {
       File[] files = FileUtil.listFiles(dir); 
       List<LDir> dirList = new ArrayList<LDir>();
       for (int idx = 0; idx < files.length; idx++) {
-        if (files[idx].isDirectory()) {
-          dirList.add(new LDir(files[idx], maxBlocksPerDir));
-        } else if (Block.isBlockFilename(files[idx])) {
+        // Check the name first, so that block and meta files are not stat'ed.
+        if (Block.isBlockFilename(files[idx])) {
           numBlocks++;
+        } else if (!files[idx].getName().startsWith(Block.BLOCK_FILE_PREFIX)
+            && files[idx].isDirectory()) {
+          dirList.add(new LDir(files[idx], maxBlocksPerDir));
         }
       }
       if (dirList.size() > 0) {
@@ -123,16 +128,37 @@ void getVolumeMap(String bpid, ReplicaMap volumeMap, FsVolumeImpl volume
       }
     }
 
-    recoverTempUnlinkedBlock();
+    recoverTempUnlinkedBlock(dir);
     volume.addToReplicasMap(bpid, volumeMap, dir, true);
   }
+
+  /** @return the number of blocks counted in this tree */
+  int getNumBlocks() {
+    int n = numBlocks;
+    if (children != null) {
+      for (int i = 0; i < children.length; i++) {
+        n += children[i].getNumBlocks();
+      }
+    }
+    return n;
+  }
+
+  /** Add this directory and all the directories under it to the list. */
+  void getDirs(List<File> dirs) {
+    dirs.add(dir);
+    if (children != null) {
+      for (int i = 0; i < children.length; i++) {
+        children[i].getDirs(dirs);
+      }
+    }
+  }
       
   /**
    * Recover unlinked tmp files on datanode restart. If the original block
    * does not exist, then the tmp file is renamed to be the
    * original file name; otherwise the tmp file is deleted.
    */
-  private void recoverTempUnlinkedBlock() throws IOException {
+  static void recoverTempUnlinkedBlock(File dir) throws IOException {
     File files[] = FileUtil.listFiles(dir);
     for (File file : files) {
       if (!FsDatasetUtil.isUnlinkTmpFile(file)) {
@@ -18,36 +18,26 @@
 package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
 
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
-import org.apache.hadoop.HadoopIllegalArgumentException;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.server.datanode.ReplicaInfo;
 
 /**
  * Maintains the replica map. 
+ *
+ * The map is thread safe by itself. Callers that must check and update a
+ * replica atomically hold the lock of the replica in {@link FsDatasetLocks}.
  */
 class ReplicaMap {
-  // Object using which this class is synchronized
-  private final Object mutex;
-  
   // Map of block pool Id to another map of block Id to ReplicaInfo.
-  private Map<String, Map<Long, ReplicaInfo>> map = 
-    new HashMap<String, Map<Long, ReplicaInfo>>();
-  
-  ReplicaMap(Object mutex) {
-    if (mutex == null) {
-      throw new HadoopIllegalArgumentException(
-          "Object to synchronize on cannot be null");
-    }
-    this.mutex = mutex;
-  }
+  private final ConcurrentMap<String, ConcurrentMap<Long, ReplicaInfo>> map =
+    new ConcurrentHashMap<String, ConcurrentMap<Long, ReplicaInfo>>();
   
   String[] getBlockPoolList() {
-    synchronized(mutex) {
-      return map.keySet().toArray(new String[map.keySet().size()]);   
-    }
+    return map.keySet().toArray(new String[0]);
   }
   
   private void checkBlockPool(String bpid) {
@@ -90,10 +80,8 @@ ReplicaInfo get(String bpid, Block block) {
    */
   ReplicaInfo get(String bpid, long blockId) {
     checkBlockPool(bpid);
-    synchronized(mutex) {
-      Map<Long, ReplicaInfo> m = map.get(bpid);
-      return m != null ? m.get(blockId) : null;
-    }
+    Map<Long, ReplicaInfo> m = map.get(bpid);
+    return m != null ? m.get(blockId) : null;
   }
   
   /**
@@ -107,15 +95,25 @@ ReplicaInfo get(String bpid, long blockId) {
   ReplicaInfo add(String bpid, ReplicaInfo replicaInfo) {
     checkBlockPool(bpid);
     checkBlock(replicaInfo);
-    synchronized(mutex) {
-      Map<Long, ReplicaInfo> m = map.get(bpid);
+    return getOrCreateBlockPool(bpid).put(replicaInfo.getBlockId(),
+        replicaInfo);
+  }
+
+  /**
+   * @return the map of the given block pool, which is added if it does not
+   *         exist already
+   */
+  private Map<Long, ReplicaInfo> getOrCreateBlockPool(String bpid) {
+    ConcurrentMap<Long, ReplicaInfo> m = map.get(bpid);
+    if (m == null) {
+      ConcurrentMap<Long, ReplicaInfo> created =
+          new ConcurrentHashMap<Long, ReplicaInfo>();
+      m = map.putIfAbsent(bpid, created);
       if (m == null) {
-        // Add an entry for block pool if it does not exist already
-        m = new HashMap<Long, ReplicaInfo>();
-        map.put(bpid, m);
+        m = created;
       }
-      return  m.put(replicaInfo.getBlockId(), replicaInfo);
     }
+    return m;
   }
 
   /**
@@ -136,16 +134,15 @@ void addAll(ReplicaMap other) {
   ReplicaInfo remove(String bpid, Block block) {
     checkBlockPool(bpid);
     checkBlock(block);
-    synchronized(mutex) {
-      Map<Long, ReplicaInfo> m = map.get(bpid);
-      if (m != null) {
-        Long key = Long.valueOf(block.getBlockId());
-        ReplicaInfo replicaInfo = m.get(key);
-        if (replicaInfo != null &&
-            block.getGenerationStamp() == replicaInfo.getGenerationStamp()) {
-          return m.remove(key);
-        } 
-      }
+    Map<Long, ReplicaInfo> m = map.get(bpid);
+    if (m != null) {
+      Long key = Long.valueOf(block.getBlockId());
+      ReplicaInfo replicaInfo = m.get(key);
+      if (replicaInfo != null &&
+          block.getGenerationStamp() == replicaInfo.getGenerationStamp() &&
+          m.remove(key, replicaInfo)) {
+        return replicaInfo;
+      } 
     }
     
     return null;
@@ -159,11 +156,9 @@ ReplicaInfo remove(String bpid, Block block) {
    */
   ReplicaInfo remove(String bpid, long blockId) {
     checkBlockPool(bpid);
-    synchronized(mutex) {
-      Map<Long, ReplicaInfo> m = map.get(bpid);
-      if (m != null) {
-        return m.remove(blockId);
-      }
+    Map<Long, ReplicaInfo> m = map.get(bpid);
+    if (m != null) {
+      return m.remove(blockId);
     }
     return null;
   }
@@ -174,19 +169,14 @@ ReplicaInfo remove(String bpid, long blockId) {
    * @return the number of replicas in the map
    */
   int size(String bpid) {
-    Map<Long, ReplicaInfo> m = null;
-    synchronized(mutex) {
-      m = map.get(bpid);
-      return m != null ? m.size() : 0;
-    }
+    Map<Long, ReplicaInfo> m = map.get(bpid);
+    return m != null ? m.size() : 0;
   }
   
   /**
-   * Get a collection of the replicas for given block pool
-   * This method is <b>not synchronized</b>. It needs to be synchronized
-   * externally using the mutex, both for getting the replicas
-   * values from the map and iterating over it. Mutex can be accessed using
-   * {@link #getMutext()} method.
+   * Get a collection of the replicas for given block pool.
+   * Iterating over it needs no lock. The iteration sees each replica at
+   * most once, and may or may not see the changes made during it.
    * 
    * @param bpid block pool id
    * @return a collection of the replicas belonging to the block pool
@@ -199,28 +189,11 @@ Collection<ReplicaInfo> replicas(String bpid) {
 
   void initBlockPool(String bpid) {
     checkBlockPool(bpid);
-    synchronized(mutex) {
-      Map<Long, ReplicaInfo> m = map.get(bpid);
-      if (m == null) {
-        // Add an entry for block pool if it does not exist already
-        m = new HashMap<Long, ReplicaInfo>();
-        map.put(bpid, m);
-      }
-    }
+    getOrCreateBlockPool(bpid);
   }
   
   void cleanUpBlockPool(String bpid) {
     checkBlockPool(bpid);
-    synchronized(mutex) {
-      map.remove(bpid);
-    }
-  }
-  
-  /**
-   * Give access to mutex used for synchronizing ReplicasMap
-   * @return object used as lock
-   */
-  Object getMutext() {
-    return mutex;
+    map.remove(bpid);
   }
 }
\ No newline at end of file
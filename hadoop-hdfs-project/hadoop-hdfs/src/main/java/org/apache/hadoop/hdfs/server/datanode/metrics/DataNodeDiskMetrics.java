@@ -0,0 +1,158 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.metrics;
+
+import static org.apache.hadoop.util.Time.monotonicNow;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics.VolumeIoOp;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * Detects the volumes of a DataNode that are much slower than the others.
+ *
+ * The mean latency of each operation is computed for every volume over a
+ * window of time. At the end of the window, a volume whose mean latency for
+ * any operation is an outlier among the volumes of the DataNode is marked
+ * slow until the end of the next window.
+ */
+@InterfaceAudience.Private
+public class DataNodeDiskMetrics {
+  public static final Log LOG = LogFactory.getLog(DataNodeDiskMetrics.class);
+
+  /** Volumes with fewer operations of a kind in a window are not compared. */
+  @VisibleForTesting
+  static final long MIN_SAMPLES = 20;
+
+  /** Latency totals of one volume in one window. */
+  private static class VolumeLatencies {
+    private final long[] totalNanos = new long[VolumeIoOp.values().length];
+    private final long[] counts = new long[VolumeIoOp.values().length];
+
+    synchronized void add(VolumeIoOp op, long latencyNanos) {
+      totalNanos[op.ordinal()] += latencyNanos;
+      counts[op.ordinal()]++;
+    }
+
+    /** @return the mean latency in ms, or -1 if there are too few samples */
+    synchronized double getMeanMs(VolumeIoOp op) {
+      long count = counts[op.ordinal()];
+      return count < MIN_SAMPLES ? -1 :
+          totalNanos[op.ordinal()] / (count * 1000000.0);
+    }
+  }
+
+  private final boolean enabled;
+  private final long windowMs;
+  private final OutlierDetector detector;
+
+  private volatile ConcurrentMap<String, VolumeLatencies> window =
+      new ConcurrentHashMap<String, VolumeLatencies>();
+  private long windowStart = monotonicNow();
+  private volatile Set<String> slowVolumes = Collections.emptySet();
+
+  public DataNodeDiskMetrics(Configuration conf) {
+    this(conf.getBoolean(
+            DFSConfigKeys.DFS_DATANODE_SLOW_VOLUME_DETECTION_ENABLED_KEY,
+            DFSConfigKeys.DFS_DATANODE_SLOW_VOLUME_DETECTION_ENABLED_DEFAULT),
+        conf.getLong(DFSConfigKeys.DFS_DATANODE_SLOW_VOLUME_WINDOW_MS_KEY,
+            DFSConfigKeys.DFS_DATANODE_SLOW_VOLUME_WINDOW_MS_DEFAULT),
+        conf.getInt(DFSConfigKeys.DFS_DATANODE_SLOW_VOLUME_MIN_VOLUMES_KEY,
+            DFSConfigKeys.DFS_DATANODE_SLOW_VOLUME_MIN_VOLUMES_DEFAULT),
+        conf.getLong(
+            DFSConfigKeys.DFS_DATANODE_SLOW_VOLUME_LOW_THRESHOLD_MS_KEY,
+            DFSConfigKeys.DFS_DATANODE_SLOW_VOLUME_LOW_THRESHOLD_MS_DEFAULT));
+  }
+
+  @VisibleForTesting
+  DataNodeDiskMetrics(boolean enabled, long windowMs, int minVolumes,
+      long lowThresholdMs) {
+    this.enabled = enabled;
+    this.windowMs = windowMs;
+    this.detector = new OutlierDetector(minVolumes, lowThresholdMs);
+  }
+
+  /** Add the latency of an operation on a volume to the current window. */
+  void addLatency(String storageId, VolumeIoOp op, long latencyNanos) {
+    if (!enabled) {
+      return;
+    }
+    ConcurrentMap<String, VolumeLatencies> w = window;
+    VolumeLatencies latencies = w.get(storageId);
+    if (latencies == null) {
+      VolumeLatencies created = new VolumeLatencies();
+      latencies = w.putIfAbsent(storageId, created);
+      if (latencies == null) {
+        latencies = created;
+      }
+    }
+    latencies.add(op, latencyNanos);
+  }
+
+  /**
+   * @return the storage IDs of the volumes found slow in the last window
+   */
+  public synchronized Set<String> getSlowVolumes() {
+    if (enabled && monotonicNow() - windowStart >= windowMs) {
+      rollWindow();
+    }
+    return slowVolumes;
+  }
+
+  /** End the current window and find the slow volumes in it. */
+  @VisibleForTesting
+  synchronized void rollWindow() {
+    Map<String, VolumeLatencies> ended = window;
+    window = new ConcurrentHashMap<String, VolumeLatencies>();
+    windowStart = monotonicNow();
+
+    Set<String> slow = new HashSet<String>();
+    for (VolumeIoOp op : VolumeIoOp.values()) {
+      Map<String, Double> means = new HashMap<String, Double>();
+      for (Map.Entry<String, VolumeLatencies> e : ended.entrySet()) {
+        double mean = e.getValue().getMeanMs(op);
+        if (mean >= 0) {
+          means.put(e.getKey(), mean);
+        }
+      }
+      Set<String> outliers = detector.getOutliers(means);
+      if (!outliers.isEmpty()) {
+        LOG.warn("Volumes " + outliers + " are slow for " + op
+            + " operations, mean latencies in ms: " + means);
+        slow.addAll(outliers);
+      }
+    }
+    if (slow.isEmpty() && !slowVolumes.isEmpty()) {
+      LOG.info("No volume is slow anymore");
+    }
+    slowVolumes = Collections.unmodifiableSet(slow);
+  }
+}
@@ -19,6 +19,9 @@
 
 import static org.apache.hadoop.metrics2.impl.MsInfo.SessionId;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
@@ -29,6 +32,7 @@
 import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
 import org.apache.hadoop.metrics2.lib.MetricsRegistry;
 import org.apache.hadoop.metrics2.lib.MutableCounterLong;
+import org.apache.hadoop.metrics2.lib.MutableGaugeInt;
 import org.apache.hadoop.metrics2.lib.MutableQuantiles;
 import org.apache.hadoop.metrics2.lib.MutableRate;
 import org.apache.hadoop.metrics2.source.JvmMetrics;
@@ -69,6 +73,11 @@ public class DataNodeMetrics {
   
   @Metric MutableCounterLong volumeFailures;
 
+  @Metric("Xceivers processing an operation")
+  MutableGaugeInt activeXceivers;
+  @Metric("Xceivers waiting for their next operation")
+  MutableGaugeInt idleXceivers;
+
   @Metric MutableRate readBlockOp;
   @Metric MutableRate writeBlockOp;
   @Metric MutableRate blockChecksumOp;
@@ -90,13 +99,83 @@ public class DataNodeMetrics {
   MutableQuantiles[] sendDataPacketBlockedOnNetworkNanosQuantiles;
   @Metric MutableRate sendDataPacketTransferNanos;
   MutableQuantiles[] sendDataPacketTransferNanosQuantiles;
+
+  @Metric("Time waiting for the lock of a replica in ns")
+  MutableRate replicaLockWaitNanos;
+  @Metric("Time holding the lock of a replica in ns")
+  MutableRate replicaLockHeldNanos;
+  MutableQuantiles[] replicaLockHeldNanosQuantiles;
+  @Metric("Time waiting for the exclusive dataset lock in ns")
+  MutableRate datasetLockWaitNanos;
+  @Metric("Time holding the exclusive dataset lock in ns")
+  MutableRate datasetLockHeldNanos;
+  MutableQuantiles[] datasetLockHeldNanosQuantiles;
+
+  @Metric("Time to add the replicas of a block pool to the replica map in ms")
+  MutableRate replicaMapLoad;
+  @Metric("Time of a directory scan in ms") MutableRate directoryScans;
+  @Metric("Time the directory scanner paused to limit its disk I/O in ms")
+  MutableCounterLong directoryScanThrottledMs;
   
 
+  /** I/O operations whose latency is tracked for each volume. */
+  public static enum VolumeIoOp {
+    /** Reading block data or checksums. */
+    READ("Read"),
+    /** Writing block data or checksums. */
+    WRITE("Write"),
+    /** Flushing a block file to the disk. */
+    FSYNC("Fsync"),
+    /** Creating, renaming or deleting block files. */
+    METADATA("Metadata"),
+    DIRECT_READ("DirectRead"),
+    SYNC_FILE_RANGE("SyncFileRange");
+
+    private final String metricName;
+
+    private VolumeIoOp(String metricName) {
+      this.metricName = metricName;
+    }
+  }
+
+  /** Latency of one operation on one volume. */
+  private class VolumeIoLatency {
+    final MutableRate rate;
+    final MutableQuantiles[] quantiles;
+
+    VolumeIoLatency(String storageId, VolumeIoOp op) {
+      String metric = storageId + "-" + op.metricName + "Nanos";
+      String desc = op.metricName + " latency in ns on volume " + storageId;
+      rate = registry.newRate(metric, desc, false);
+      quantiles = new MutableQuantiles[intervals.length];
+      for (int i = 0; i < intervals.length; i++) {
+        quantiles[i] = registry.newQuantiles(metric + intervals[i] + "s",
+            desc, "ops", "latency", intervals[i]);
+      }
+    }
+
+    void add(long latencyNanos) {
+      rate.add(latencyNanos);
+      for (MutableQuantiles q : quantiles) {
+        q.add(latencyNanos);
+      }
+    }
+  }
+
+  /** Volume latencies, created when a volume first reports an operation. */
+  private final ConcurrentMap<String, VolumeIoLatency> volumeIoLatencies =
+      new ConcurrentHashMap<String, VolumeIoLatency>();
+
   final MetricsRegistry registry = new MetricsRegistry("datanode");
   final String name;
+  private final int[] intervals;
+  private final DataNodeDiskMetrics diskMetrics;
 
-  public DataNodeMetrics(String name, String sessionId, int[] intervals) {
+  public DataNodeMetrics(String name, String sessionId, int[] intervals,
+      DataNodeDiskMetrics diskMetrics) {
     this.name = name;
+    this.intervals = intervals;
+    this.diskMetrics = diskMetrics;
     registry.tag(SessionId, sessionId);
     
     final int len = intervals.length;
@@ -105,6 +184,8 @@ public DataNodeMetrics(String name, String sessionId, int[] intervals) {
     fsyncNanosQuantiles = new MutableQuantiles[len];
     sendDataPacketBlockedOnNetworkNanosQuantiles = new MutableQuantiles[len];
     sendDataPacketTransferNanosQuantiles = new MutableQuantiles[len];
+    replicaLockHeldNanosQuantiles = new MutableQuantiles[len];
+    datasetLockHeldNanosQuantiles = new MutableQuantiles[len];
     
     for (int i = 0; i < len; i++) {
       int interval = intervals[i];
@@ -125,6 +206,14 @@ public DataNodeMetrics(String name, String sessionId, int[] intervals) {
           "sendDataPacketTransferNanos" + interval + "s", 
           "Time reading from disk and writing to network while sending " +
           "a packet in ns", "ops", "latency", interval);
+      replicaLockHeldNanosQuantiles[i] = registry.newQuantiles(
+          "replicaLockHeldNanos" + interval + "s",
+          "Time holding the lock of a replica in ns", "ops", "latency",
+          interval);
+      datasetLockHeldNanosQuantiles[i] = registry.newQuantiles(
+          "datasetLockHeldNanos" + interval + "s",
+          "Time holding the exclusive dataset lock in ns", "ops", "latency",
+          interval);
     }
   }
 
@@ -141,11 +230,15 @@ public static DataNodeMetrics create(Configuration conf, String dnName) {
         conf.getInts(DFSConfigKeys.DFS_METRICS_PERCENTILES_INTERVALS_KEY);
     
     return ms.register(name, null, new DataNodeMetrics(name, sessionId,
-        intervals));
+        intervals, new DataNodeDiskMetrics(conf)));
   }
 
   public String name() { return name; }
 
+  public DataNodeDiskMetrics getDiskMetrics() {
+    return diskMetrics;
+  }
+
   public void addHeartbeat(long latency) {
     heartbeats.add(latency);
   }
@@ -158,6 +251,18 @@ public void addCacheReport(long latency) {
     cacheReports.add(latency);
   }
 
+  public void addReplicaMapLoad(long latency) {
+    replicaMapLoad.add(latency);
+  }
+
+  public void addDirectoryScan(long latency) {
+    directoryScans.add(latency);
+  }
+
+  public void incrDirectoryScanThrottledMs(long delta) {
+    directoryScanThrottledMs.incr(delta);
+  }
+
   public void incrBlocksReplicated(int delta) {
     blocksReplicated.incr(delta);
   }
@@ -244,6 +349,28 @@ public void addFsyncNanos(long latencyNanos) {
     }
   }
 
+  /**
+   * Record the latency of an I/O operation on a volume. The metrics of a
+   * volume are prefixed with its storage ID. The latency also counts
+   * towards the detection of slow volumes.
+   */
+  public void addVolumeIoNanos(String storageId, VolumeIoOp op,
+      long latencyNanos) {
+    String key = storageId + "-" + op;
+    VolumeIoLatency latency = volumeIoLatencies.get(key);
+    if (latency == null) {
+      synchronized (volumeIoLatencies) {
+        latency = volumeIoLatencies.get(key);
+        if (latency == null) {
+          latency = new VolumeIoLatency(storageId, op);
+          volumeIoLatencies.put(key, latency);
+        }
+      }
+    }
+    latency.add(latencyNanos);
+    diskMetrics.addLatency(storageId, op, latencyNanos);
+  }
+
   public void shutdown() {
     DefaultMetricsSystem.shutdown();
   }
@@ -260,6 +387,22 @@ public void incrVolumeFailures() {
     volumeFailures.incr();
   }
 
+  public void incrActiveXceivers() {
+    activeXceivers.incr();
+  }
+
+  public void decrActiveXceivers() {
+    activeXceivers.decr();
+  }
+
+  public void incrIdleXceivers() {
+    idleXceivers.incr();
+  }
+
+  public void decrIdleXceivers() {
+    idleXceivers.decr();
+  }
+
   /** Increment for getBlockLocalPathInfo calls */
   public void incrBlocksGetLocalPathInfo() {
     blocksGetLocalPathInfo.incr();
@@ -278,4 +421,20 @@ public void addSendDataPacketTransferNanos(long latencyNanos) {
       q.add(latencyNanos);
     }
   }
+
+  public void addReplicaLockNanos(long waitNanos, long heldNanos) {
+    replicaLockWaitNanos.add(waitNanos);
+    replicaLockHeldNanos.add(heldNanos);
+    for (MutableQuantiles q : replicaLockHeldNanosQuantiles) {
+      q.add(heldNanos);
+    }
+  }
+
+  public void addDatasetLockNanos(long waitNanos, long heldNanos) {
+    datasetLockWaitNanos.add(waitNanos);
+    datasetLockHeldNanos.add(heldNanos);
+    for (MutableQuantiles q : datasetLockHeldNanosQuantiles) {
+      q.add(heldNanos);
+    }
+  }
 }
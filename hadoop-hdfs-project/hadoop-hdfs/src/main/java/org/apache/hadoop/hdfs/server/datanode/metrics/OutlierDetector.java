@@ -0,0 +1,102 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Finds the peers whose latency is well above that of the others.
+ *
+ * A peer is an outlier when its latency is above both a fixed low
+ * threshold and an upper limit derived from the median latency of all the
+ * peers and their median absolute deviation. The median is used rather
+ * than the mean so that one slow peer cannot hide itself by dragging the
+ * average up.
+ */
+@InterfaceAudience.Private
+public class OutlierDetector {
+  /** Scales the median absolute deviation to a standard deviation. */
+  private static final double MAD_MULTIPLIER = 1.4826;
+  /** Number of deviations above the median at which a peer is an outlier. */
+  private static final double DEVIATION_MULTIPLIER = 3;
+  /** An outlier is also at least this many times the median. */
+  private static final double MEDIAN_MULTIPLIER = 3;
+
+  private final int minNumPeers;
+  private final double lowThreshold;
+
+  /**
+   * @param minNumPeers the fewest peers among which to look for outliers
+   * @param lowThreshold latency below which a peer is never an outlier
+   */
+  public OutlierDetector(int minNumPeers, double lowThreshold) {
+    Preconditions.checkArgument(minNumPeers > 0,
+        "The minimum number of peers must be positive");
+    this.minNumPeers = minNumPeers;
+    this.lowThreshold = lowThreshold;
+  }
+
+  /**
+   * @param latencies the latency of each peer
+   * @return the peers that are outliers; empty if there are too few peers
+   */
+  public Set<String> getOutliers(Map<String, Double> latencies) {
+    Set<String> outliers = new HashSet<String>();
+    if (latencies.size() < minNumPeers) {
+      return outliers;
+    }
+    List<Double> sorted = new ArrayList<Double>(latencies.values());
+    Collections.sort(sorted);
+    double median = computeMedian(sorted);
+    List<Double> deviations = new ArrayList<Double>(sorted.size());
+    for (double l : sorted) {
+      deviations.add(Math.abs(l - median));
+    }
+    Collections.sort(deviations);
+    double mad = computeMedian(deviations) * MAD_MULTIPLIER;
+    double upperLimit = Math.max(median * MEDIAN_MULTIPLIER,
+        median + mad * DEVIATION_MULTIPLIER);
+
+    for (Map.Entry<String, Double> e : latencies.entrySet()) {
+      double l = e.getValue();
+      if (l > lowThreshold && l > upperLimit) {
+        outliers.add(e.getKey());
+      }
+    }
+    return outliers;
+  }
+
+  /** @return the median of a sorted, non empty list */
+  static double computeMedian(List<Double> sorted) {
+    int n = sorted.size();
+    double median = sorted.get(n / 2);
+    if (n % 2 == 0) {
+      median = (median + sorted.get(n / 2 - 1)) / 2;
+    }
+    return median;
+  }
+}
@@ -0,0 +1,310 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.security.token.delegation.DelegationTokenSecretManager;
+import org.apache.hadoop.security.UserGroupInformation;
+import org.apache.hadoop.util.Daemon;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+
+/**
+ * An {@link HdfsAuditLogger} that hands the audit events over to a
+ * background thread, which passes them on to the configured audit loggers.
+ * An RPC handler only pays for putting a small record in a lock-free ring
+ * buffer; the formatting of the events and the I/O of the appenders happen
+ * on the background thread, which drains the buffer in batches.
+ *
+ * The buffer supports many producers and a single consumer. A producer
+ * claims a slot by incrementing the tail sequence, then publishes its event
+ * in the slot. The consumer takes the published events in sequence order,
+ * and frees their slots by advancing the head sequence once per batch. When
+ * the buffer is full, a producer either waits for the consumer or drops its
+ * event, depending on dfs.namenode.audit.log.async.events.drop-when-full.
+ * Closing the logger sets a flag in the tail sequence, so that no slot can be
+ * claimed afterwards, and the producers pass their events on synchronously.
+ */
+@InterfaceAudience.Private
+class AsyncAuditLogger extends HdfsAuditLogger {
+  static final Log LOG = LogFactory.getLog(AsyncAuditLogger.class);
+
+  /** How long the consumer sleeps at most when the buffer is empty. */
+  private static final long MAX_IDLE_NANOS =
+      TimeUnit.MILLISECONDS.toNanos(100);
+  /** How long a producer waits before checking a full buffer again. */
+  private static final long FULL_WAIT_NANOS =
+      TimeUnit.MICROSECONDS.toNanos(50);
+  /** The maximum number of events the consumer takes at once. */
+  private static final int MAX_BATCH_SIZE = 1024;
+  /** Set in the tail sequence once the logger is closed. */
+  private static final long CLOSED = 1L << 62;
+
+  /** The arguments of an audit event. */
+  private static class AuditEvent {
+    private final boolean succeeded;
+    private final String userName;
+    private final InetAddress addr;
+    private final String cmd;
+    private final String src;
+    private final String dst;
+    private final FileStatus status;
+    private final UserGroupInformation ugi;
+    private final DelegationTokenSecretManager dtSecretManager;
+
+    AuditEvent(boolean succeeded, String userName, InetAddress addr,
+        String cmd, String src, String dst, FileStatus status,
+        UserGroupInformation ugi,
+        DelegationTokenSecretManager dtSecretManager) {
+      this.succeeded = succeeded;
+      this.userName = userName;
+      this.addr = addr;
+      this.cmd = cmd;
+      this.src = src;
+      this.dst = dst;
+      this.status = status;
+      this.ugi = ugi;
+      this.dtSecretManager = dtSecretManager;
+    }
+  }
+
+  private final List<AuditLogger> loggers;
+
+  private AtomicReferenceArray<AuditEvent> buffer;
+  private int capacity;
+  private boolean dropWhenFull;
+
+  /**
+   * The sequence number of the next slot to be claimed by a producer, with
+   * the {@link #CLOSED} flag.
+   */
+  private final AtomicLong tail = new AtomicLong();
+  /** The sequence number of the next event to be taken by the consumer. */
+  private volatile long head = 0;
+  /** Whether the consumer is, or is about to be, parked. */
+  private volatile boolean consumerIdle = false;
+  private volatile boolean running = false;
+  private final AtomicLong droppedEvents = new AtomicLong();
+
+  private Daemon dispatcher;
+
+  /**
+   * @param loggers the initialized audit loggers to pass the events on to
+   */
+  AsyncAuditLogger(List<AuditLogger> loggers) {
+    this.loggers = loggers;
+  }
+
+  @Override
+  public void initialize(Configuration conf) {
+    int size = conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_ASYNC_EVENTS_BUFFER_SIZE_KEY,
+        DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_ASYNC_EVENTS_BUFFER_SIZE_DEFAULT);
+    Preconditions.checkArgument(size > 0, "%s must be positive",
+        DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_ASYNC_EVENTS_BUFFER_SIZE_KEY);
+    capacity = size;
+    buffer = new AtomicReferenceArray<AuditEvent>(capacity);
+    dropWhenFull = conf.getBoolean(
+        DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_ASYNC_EVENTS_DROP_WHEN_FULL_KEY,
+        DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_ASYNC_EVENTS_DROP_WHEN_FULL_DEFAULT);
+
+    running = true;
+    dispatcher = new Daemon(new Dispatcher());
+    dispatcher.setName("AuditEventDispatcher");
+    dispatcher.start();
+    LOG.info("Dispatching audit events asynchronously to " + loggers +
+        " through a buffer of " + capacity + " events; events are " +
+        (dropWhenFull ? "dropped" : "waited for") + " when it is full");
+  }
+
+  @Override
+  public void logAuditEvent(boolean succeeded, String userName,
+      InetAddress addr, String cmd, String src, String dst,
+      FileStatus status, UserGroupInformation ugi,
+      DelegationTokenSecretManager dtSecretManager) {
+    AuditEvent event = new AuditEvent(succeeded, userName, addr, cmd, src,
+        dst, status, ugi, dtSecretManager);
+    long seq;
+    for (;;) {
+      seq = tail.get();
+      if ((seq & CLOSED) != 0) {
+        // Do not lose the events logged while shutting down.
+        dispatch(event);
+        return;
+      }
+      if (seq - head >= capacity) {
+        if (dropWhenFull) {
+          droppedEvents.incrementAndGet();
+          return;
+        }
+        LockSupport.parkNanos(this, FULL_WAIT_NANOS);
+        continue;
+      }
+      if (tail.compareAndSet(seq, seq + 1)) {
+        break;
+      }
+    }
+    // A volatile write, so that the check of consumerIdle below cannot be
+    // reordered before it.
+    buffer.set(index(seq), event);
+    if (consumerIdle) {
+      LockSupport.unpark(dispatcher);
+    }
+  }
+
+  private int index(long seq) {
+    return (int) (seq % capacity);
+  }
+
+  /**
+   * Stop the background thread once it has passed on the buffered events.
+   * The events logged afterwards are passed on synchronously.
+   */
+  void close() {
+    // Once the flag is set no producer can claim a slot, so every slot
+    // before the end is, or is about to be, published.
+    long end;
+    do {
+      end = tail.get();
+    } while ((end & CLOSED) == 0 && !tail.compareAndSet(end, end | CLOSED));
+    end &= ~CLOSED;
+    running = false;
+    if (dispatcher != null) {
+      LockSupport.unpark(dispatcher);
+      try {
+        dispatcher.join();
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        LOG.warn("Interrupted waiting for the audit events to be dispatched");
+        return;
+      }
+      // Pass on the events of the producers that claimed a slot just before
+      // the dispatcher stopped.
+      for (long seq = head; seq < end; seq++) {
+        AuditEvent event;
+        while ((event = buffer.get(index(seq))) == null) {
+          Thread.yield();
+        }
+        buffer.set(index(seq), null);
+        head = seq + 1;
+        dispatch(event);
+      }
+    }
+  }
+
+  /** @return the number of events waiting to be passed on */
+  long getQueueDepth() {
+    return Math.max(0, getTail() - head);
+  }
+
+  /** @return the sequence number of the next slot to be claimed */
+  private long getTail() {
+    return tail.get() & ~CLOSED;
+  }
+
+  /** @return the number of events dropped because the buffer was full */
+  long getDroppedEvents() {
+    return droppedEvents.get();
+  }
+
+  @VisibleForTesting
+  List<AuditLogger> getLoggers() {
+    return loggers;
+  }
+
+  private void dispatch(AuditEvent e) {
+    for (AuditLogger logger : loggers) {
+      try {
+        if (logger instanceof HdfsAuditLogger) {
+          ((HdfsAuditLogger) logger).logAuditEvent(e.succeeded, e.userName,
+              e.addr, e.cmd, e.src, e.dst, e.status, e.ugi, e.dtSecretManager);
+        } else {
+          logger.logAuditEvent(e.succeeded, e.userName, e.addr, e.cmd, e.src,
+              e.dst, e.status);
+        }
+      } catch (RuntimeException re) {
+        LOG.warn("Audit logger " + logger + " failed to log an event", re);
+      }
+    }
+  }
+
+  /**
+   * Takes the events from the buffer in sequence order and passes them on.
+   */
+  private class Dispatcher implements Runnable {
+    private final List<AuditEvent> batch =
+        new ArrayList<AuditEvent>(Math.min(capacity, MAX_BATCH_SIZE));
+
+    @Override
+    public void run() {
+      // Only this thread writes head.
+      long next = head;
+      while (running || next != getTail()) {
+        // Take the published events, up to the first slot that has been
+        // claimed but not published yet.
+        while (batch.size() < MAX_BATCH_SIZE) {
+          int idx = index(next + batch.size());
+          AuditEvent event = buffer.get(idx);
+          if (event == null) {
+            break;
+          }
+          buffer.lazySet(idx, null);
+          batch.add(event);
+        }
+        if (batch.isEmpty()) {
+          waitForEvents(next);
+          continue;
+        }
+        // Free the slots before the slow part.
+        next += batch.size();
+        head = next;
+        for (AuditEvent event : batch) {
+          dispatch(event);
+        }
+        batch.clear();
+      }
+    }
+
+    private void waitForEvents(long next) {
+      if (next != getTail()) {
+        // A producer has claimed the slot and is about to publish.
+        Thread.yield();
+        return;
+      }
+      consumerIdle = true;
+      if (running && buffer.get(index(next)) == null) {
+        LockSupport.parkNanos(this, MAX_IDLE_NANOS);
+      }
+      consumerIdle = false;
+    }
+  }
+}
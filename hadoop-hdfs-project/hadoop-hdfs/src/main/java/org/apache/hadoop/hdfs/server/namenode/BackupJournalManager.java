@@ -85,6 +85,11 @@ public void selectInputStreams(Collection<EditLogInputStream> streams,
     // return any transactions
   }
 
+  @Override
+  public void selectInputStreams(Collection<EditLogInputStream> streams,
+      long fromTxnId, boolean inProgressOk, boolean onlyDurableTxns) {
+  }
+
   @Override
   public void recoverUnfinalizedSegments() throws IOException {
   }
@@ -43,6 +43,15 @@ public interface FSClusterStats {
    */
   public boolean isAvoidingStaleDataNodesForWrite();
 
+  /**
+   * Indicate whether or not the cluster is now avoiding to use the storages
+   * that their DataNodes report as slow for writing.
+   *
+   * @return True if the cluster is currently avoiding using slow storages
+   *         for writing targets, and false otherwise.
+   */
+  public boolean isAvoidingSlowStoragesForWrite();
+
   /**
    * Indicates number of datanodes that are in service.
    * @return Number of datanodes that are both alive and not decommissioned.
@@ -22,11 +22,13 @@
 import java.io.Closeable;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.hadoop.HadoopIllegalArgumentException;
@@ -51,6 +53,7 @@
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.ClientProtocol;
 import org.apache.hadoop.hdfs.protocol.DirectoryListing;
+import org.apache.hadoop.hdfs.protocol.ErasureCodingPolicy;
 import org.apache.hadoop.hdfs.protocol.FSLimitException.MaxDirectoryItemsExceededException;
 import org.apache.hadoop.hdfs.protocol.FSLimitException.PathComponentTooLongException;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
@@ -122,6 +125,8 @@ private static INodeDirectorySnapshottable createRoot(FSNamesystem namesystem) {
   private final int lsLimit;  // max list limit
   private final int contentCountLimit; // max content summary counts per run
   private final INodeMap inodeMap; // Synchronized by dirLock
+  /** The closed files kept out of the inode map, or null. */
+  private final INodeFileStore fileStore; // Synchronized by dirLock
   private long yieldCount = 0; // keep track of lock yield count.
 
   // lock to protect the directory and BlockMap
@@ -171,7 +176,21 @@ public int getWriteHoldCount() {
     this.dirLock = new ReentrantReadWriteLock(true); // fair
     this.cond = dirLock.writeLock().newCondition();
     rootDir = createRoot(ns);
-    inodeMap = INodeMap.newInstance(rootDir);
+    boolean compactINodeMap = conf.getBoolean(
+        DFSConfigKeys.DFS_NAMENODE_INODE_MAP_COMPACT_KEY,
+        DFSConfigKeys.DFS_NAMENODE_INODE_MAP_COMPACT_DEFAULT);
+    if (compactINodeMap) {
+      NameNode.LOG.info("The inode map is sized to the number of inodes");
+    }
+    inodeMap = INodeMap.newInstance(rootDir, compactINodeMap);
+    if (conf.getBoolean(DFSConfigKeys.DFS_NAMENODE_INODE_MAP_COMPACT_FILES_KEY,
+        DFSConfigKeys.DFS_NAMENODE_INODE_MAP_COMPACT_FILES_DEFAULT)) {
+      NameNode.LOG.info("Closed files are kept in a compact store");
+      fileStore = new INodeFileStore(ns, inodeMap);
+      inodeMap.setFileStore(fileStore);
+    } else {
+      fileStore = null;
+    }
     this.fsImage = fsImage;
     int configuredLimit = conf.getInt(
         DFSConfigKeys.DFS_LIST_LIMIT, DFSConfigKeys.DFS_LIST_LIMIT_DEFAULT);
@@ -293,8 +312,7 @@ void waitForReady() {
   INodeFile addFile(String path, PermissionStatus permissions,
       short replication, long preferredBlockSize, String clientName,
       String clientMachine, DatanodeDescriptor clientNode)
-    throws FileAlreadyExistsException, QuotaExceededException,
-      UnresolvedLinkException, SnapshotAccessControlException, AclException {
+    throws IOException {
     waitForReady();
 
     // Always do an implicit mkdirs for parent directory tree.
@@ -310,10 +328,21 @@ INodeFile addFile(String path, PermissionStatus permissions,
     if (!mkdirs(parent.toString(), permissions, true, modTime)) {
       return null;
     }
+    final ErasureCodingPolicy ecPolicy = getInheritedErasureCodingPolicy(
+        rootDir.getINodesInPath4Write(path, true).getINodes());
+    if (ecPolicy != null) {
+      if (preferredBlockSize % ecPolicy.getCellSize() != 0) {
+        throw new IOException("Cannot create erasure coded file " + path
+            + ": block size " + preferredBlockSize
+            + " is not a multiple of the cell size of " + ecPolicy);
+      }
+      replication = 1;
+    }
     INodeFile newNode = new INodeFile(namesystem.allocateNewInodeId(), null,
         permissions, modTime, modTime, BlockInfo.EMPTY_ARRAY, replication,
         preferredBlockSize);
     newNode.toUnderConstruction(clientName, clientMachine, clientNode);
+    newNode.setErasureCodingPolicy(ecPolicy);
 
     boolean added = false;
     writeLock();
@@ -358,6 +387,12 @@ INodeFile unprotectedAddFile( long id,
     }
 
     try {
+      final ErasureCodingPolicy ecPolicy = getInheritedErasureCodingPolicy(
+          rootDir.getINodesInPath4Write(path, true).getINodes());
+      if (ecPolicy != null) {
+        newNode.setFileReplication((short) 1);
+        newNode.setErasureCodingPolicy(ecPolicy);
+      }
       if (addINode(path, newNode)) {
         if (aclEntries != null) {
           AclStorage.updateINodeAcl(newNode, aclEntries,
@@ -645,6 +680,7 @@ boolean unprotectedRenameTo(String src, String dst, long timestamp)
     // Ensure dst has quota to accommodate rename
     verifyFsLimitsForRename(srcIIP, dstIIP);
     verifyQuotaForRename(srcIIP.getINodes(), dstIIP.getINodes());
+    expandFilesForRename(srcIIP, dstIIP);
     
     boolean added = false;
     INode srcChild = srcIIP.getLastINode();
@@ -897,6 +933,7 @@ boolean unprotectedRenameTo(String src, String dst, long timestamp,
     // Ensure dst has quota to accommodate rename
     verifyFsLimitsForRename(srcIIP, dstIIP);
     verifyQuotaForRename(srcIIP.getINodes(), dstIIP.getINodes());
+    expandFilesForRename(srcIIP, dstIIP);
 
     INode srcChild = srcIIP.getLastINode();
     final byte[] srcChildName = srcChild.getLocalNameBytes();
@@ -1219,6 +1256,97 @@ void unprotectedSetOwner(String src, String username, String groupname)
     }
   }
 
+  /**
+   * Set the permission of an inode while holding only the namesystem read
+   * lock. See {@link #getINodeForPartitionedUpdate(String)}.
+   *
+   * @return false if nothing was changed, since the change has to be
+   *         recorded in a snapshot
+   */
+  boolean setPermissionPartitioned(String src, FsPermission permission)
+      throws FileNotFoundException, UnresolvedLinkException,
+      QuotaExceededException, SnapshotAccessControlException {
+    readLock();
+    try {
+      final INode inode = getINodeForPartitionedUpdate(src);
+      if (inode == null) {
+        return false;
+      }
+      final Lock lock = getFSNamesystem().getINodeLock(inode.getId());
+      lock.lock();
+      try {
+        inode.setPermission(permission, Snapshot.CURRENT_STATE_ID);
+        fsImage.getEditLog().logSetPermissions(src, permission);
+      } finally {
+        lock.unlock();
+      }
+      return true;
+    } finally {
+      readUnlock();
+    }
+  }
+
+  /**
+   * Set the owner of an inode while holding only the namesystem read lock.
+   * See {@link #getINodeForPartitionedUpdate(String)}.
+   *
+   * @return false if nothing was changed, since the change has to be
+   *         recorded in a snapshot
+   */
+  boolean setOwnerPartitioned(String src, String username, String groupname)
+      throws FileNotFoundException, UnresolvedLinkException,
+      QuotaExceededException, SnapshotAccessControlException {
+    readLock();
+    try {
+      final INode inode = getINodeForPartitionedUpdate(src);
+      if (inode == null) {
+        return false;
+      }
+      final Lock lock = getFSNamesystem().getINodeLock(inode.getId());
+      lock.lock();
+      try {
+        if (username != null) {
+          inode.setUser(username, Snapshot.CURRENT_STATE_ID);
+        }
+        if (groupname != null) {
+          inode.setGroup(groupname, Snapshot.CURRENT_STATE_ID);
+        }
+        fsImage.getEditLog().logSetOwner(src, username, groupname);
+      } finally {
+        lock.unlock();
+      }
+      return true;
+    } finally {
+      readUnlock();
+    }
+  }
+
+  /**
+   * Resolve the inode whose own attributes are updated while the caller
+   * holds only the namesystem read lock, which keeps the tree from changing.
+   * The update and the logging of its edit are done under the lock of the
+   * inode's stripe, so that the updates of an inode are logged in the order
+   * they are applied. An update that has to be recorded in a snapshot
+   * modifies the diff lists of the ancestors and needs the write lock.
+   *
+   * @return the inode, or null if the update needs the write lock
+   */
+  private INode getINodeForPartitionedUpdate(String src)
+      throws FileNotFoundException, UnresolvedLinkException,
+      SnapshotAccessControlException {
+    assert getFSNamesystem().hasReadLock() && hasReadLock();
+    final INodesInPath iip = rootDir.getINodesInPath4Write(src, true);
+    final INode inode = iip.getLastINode();
+    if (inode == null) {
+      throw new FileNotFoundException("File does not exist: " + src);
+    }
+    if (iip.getLatestSnapshotId() != Snapshot.CURRENT_STATE_ID
+        || inode.isReference() || INodeFileFlyweight.isView(inode)) {
+      return null;
+    }
+    return inode;
+  }
+
   /**
    * Concat all the blocks from srcs to trg and delete the srcs files
    */
@@ -2115,6 +2243,26 @@ private static void verifyQuota(INode[] inodes, int pos, long nsDelta,
    * @param dst directory to where node is moved to.
    * @throws QuotaExceededException if quota limit is exceeded.
    */
+  /**
+   * Move the files under a directory that is renamed into the subtree of a
+   * directory that allows snapshots out of the compact store, since the
+   * files in the store must not be recorded in snapshots.
+   */
+  private void expandFilesForRename(INodesInPath srcIIP, INodesInPath dstIIP) {
+    final INode src = srcIIP.getLastINode();
+    if (fileStore == null || src == null || !src.isDirectory()
+        || src.isReference()) {
+      return;
+    }
+    for (INode inode : dstIIP.getINodes()) {
+      if (inode != null && inode.isDirectory()
+          && INodeFileStore.allowsSnapshots(inode.asDirectory())) {
+        fileStore.expand(src.asDirectory(), new ArrayDeque<INodeDirectory>());
+        return;
+      }
+    }
+  }
+
   private void verifyQuotaForRename(INode[] src, INode[] dst)
       throws QuotaExceededException {
     if (!ready) {
@@ -2406,7 +2554,8 @@ public final void addToInodeMap(INode inode) {
   public final void removeFromInodeMap(List<? extends INode> inodes) {
     if (inodes != null) {
       for (INode inode : inodes) {
-        if (inode != null && inode instanceof INodeWithAdditionalFields) {
+        if (inode instanceof INodeWithAdditionalFields
+            || inode instanceof INodeFileFlyweight) {
           inodeMap.remove(inode);
         }
       }
@@ -2427,6 +2576,56 @@ public INode getInode(long id) {
     }
   }
   
+  /** @return whether closed files are kept in a compact store */
+  boolean isCompactingFiles() {
+    return fileStore != null;
+  }
+
+  /**
+   * Move the closed files outside of the directories that allow snapshots
+   * into the compact store. The caller holds the namesystem write lock.
+   *
+   * @return the number of files moved
+   */
+  int compactFiles() {
+    writeLock();
+    try {
+      final int n = fileStore.compact(rootDir,
+          new ArrayDeque<INodeDirectory>());
+      fileStore.trimToSize();
+      inodeMap.trimToSize();
+      return n;
+    } finally {
+      writeUnlock();
+    }
+  }
+
+  /**
+   * Move the files in the subtree of the given directory out of the compact
+   * store, e.g. before snapshots are allowed on it. The caller holds
+   * the namesystem write lock.
+   */
+  public void expandFiles(INodeDirectory dir) {
+    if (fileStore == null) {
+      return;
+    }
+    writeLock();
+    try {
+      final int n = fileStore.expand(dir, new ArrayDeque<INodeDirectory>());
+      if (n > 0 && NameNode.LOG.isDebugEnabled()) {
+        NameNode.LOG.debug("Expanded " + n + " files under "
+            + dir.getFullPathName());
+      }
+    } finally {
+      writeUnlock();
+    }
+  }
+
+  @VisibleForTesting
+  int getCompactFileCount() {
+    return fileStore == null ? 0 : fileStore.size();
+  }
+
   @VisibleForTesting
   int getInodeMapSize() {
     return inodeMap.size();
@@ -2533,6 +2732,44 @@ void setTimes(String src, INode inode, long mtime, long atime, boolean force,
     }
   }
 
+  /**
+   * Set the times of an inode while holding only the namesystem read lock,
+   * regardless of the access time precision. Logs it in the transaction log.
+   * See {@link #getINodeForPartitionedUpdate(String)}.
+   *
+   * @return false if nothing was changed, since the change has to be
+   *         recorded in a snapshot
+   */
+  boolean setTimesPartitioned(String src, long mtime, long atime)
+      throws FileNotFoundException, UnresolvedLinkException,
+      QuotaExceededException, SnapshotAccessControlException {
+    readLock();
+    try {
+      final INode inode = getINodeForPartitionedUpdate(src);
+      if (inode == null) {
+        return false;
+      }
+      final Lock lock = getFSNamesystem().getINodeLock(inode.getId());
+      lock.lock();
+      try {
+        if (mtime != -1) {
+          inode.setModificationTime(mtime, Snapshot.CURRENT_STATE_ID);
+        }
+        if (atime != -1) {
+          inode.setAccessTime(atime, Snapshot.CURRENT_STATE_ID);
+        }
+        if (mtime != -1 || atime != -1) {
+          fsImage.getEditLog().logTimes(src, mtime, atime);
+        }
+      } finally {
+        lock.unlock();
+      }
+      return true;
+    } finally {
+      readUnlock();
+    }
+  }
+
   boolean unprotectedSetTimes(String src, long mtime, long atime, boolean force) 
       throws UnresolvedLinkException, QuotaExceededException {
     assert hasWriteLock();
@@ -2627,7 +2864,8 @@ HdfsFileStatus createFileStatus(byte[] path, INode node,
         node.isSymlink() ? node.asSymlink().getSymlink() : null,
         path,
         node.getId(),
-        childrenNum);
+        childrenNum,
+        getErasureCodingPolicy(node));
   }
 
   /**
@@ -2652,7 +2890,7 @@ private HdfsLocatedFileStatus createLocatedFileStatus(byte[] path,
           fileNode.computeFileSizeNotIncludingLastUcBlock() : size;
       loc = getFSNamesystem().getBlockManager().createLocatedBlocks(
           fileNode.getBlocks(), fileSize, isUc, 0L, size, false,
-          inSnapshot);
+          inSnapshot, fileNode.getErasureCodingPolicy());
       if (loc == null) {
         loc = new LocatedBlocks();
       }
@@ -2666,7 +2904,7 @@ private HdfsLocatedFileStatus createLocatedFileStatus(byte[] path,
           node.getAccessTime(snapshot), node.getFsPermission(snapshot),
           node.getUserName(snapshot), node.getGroupName(snapshot),
           node.isSymlink() ? node.asSymlink().getSymlink() : null, path,
-          node.getId(), loc, childrenNum);
+          node.getId(), loc, childrenNum, getErasureCodingPolicy(node));
     // Set caching information for the located blocks.
     if (loc != null) {
       CacheManager cacheManager = namesystem.getCacheManager();
@@ -2868,6 +3106,77 @@ AclStatus getAclStatus(String src) throws IOException {
     }
   }
 
+  /**
+   * Set the erasure coding policy of a directory, or remove it if null. The
+   * policy applies to the files created beneath the directory afterwards.
+   */
+  void setErasureCodingPolicy(String src, ErasureCodingPolicy ecPolicy)
+      throws IOException {
+    writeLock();
+    try {
+      unprotectedSetErasureCodingPolicy(src, ecPolicy);
+      fsImage.getEditLog().logSetErasureCodingPolicy(src, ecPolicy);
+    } finally {
+      writeUnlock();
+    }
+  }
+
+  void unprotectedSetErasureCodingPolicy(String src,
+      ErasureCodingPolicy ecPolicy) throws IOException {
+    assert hasWriteLock();
+    INodesInPath iip = rootDir.getINodesInPath4Write(normalizePath(src), true);
+    INode inode = resolveLastINode(src, iip);
+    if (!inode.isDirectory()) {
+      throw new IOException("Cannot set the erasure coding policy of " + src
+          + ": it is not a directory");
+    }
+    inode.asDirectory().setErasureCodingPolicy(ecPolicy);
+  }
+
+  /**
+   * @return the erasure coding policy of a file, or the policy its files
+   *         would get for a directory, or null
+   */
+  ErasureCodingPolicy getErasureCodingPolicy(String src) throws IOException {
+    String srcs = normalizePath(src);
+    readLock();
+    try {
+      INodesInPath iip = rootDir.getINodesInPath(srcs, true);
+      INode inode = resolveLastINode(src, iip);
+      if (inode.isFile()) {
+        return inode.asFile().getErasureCodingPolicy();
+      }
+      return getInheritedErasureCodingPolicy(iip.getINodes());
+    } finally {
+      readUnlock();
+    }
+  }
+
+  /** @return the policy of the deepest directory in the path that has one */
+  private static ErasureCodingPolicy getInheritedErasureCodingPolicy(
+      INode[] inodes) {
+    for (int i = inodes.length - 1; i >= 0; i--) {
+      if (inodes[i] != null && inodes[i].isDirectory()) {
+        ErasureCodingPolicy ecPolicy =
+            inodes[i].asDirectory().getErasureCodingPolicy();
+        if (ecPolicy != null) {
+          return ecPolicy;
+        }
+      }
+    }
+    return null;
+  }
+
+  /** @return the erasure coding policy set on the inode itself, or null */
+  private static ErasureCodingPolicy getErasureCodingPolicy(INode node) {
+    if (node.isFile()) {
+      return node.asFile().getErasureCodingPolicy();
+    } else if (node.isDirectory()) {
+      return node.asDirectory().getErasureCodingPolicy();
+    }
+    return null;
+  }
+
   private static INode resolveLastINode(String src, INodesInPath iip)
       throws FileNotFoundException {
     INode inode = iip.getLastINode();
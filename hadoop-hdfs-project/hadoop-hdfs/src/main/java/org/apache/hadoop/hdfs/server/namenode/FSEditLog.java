@@ -40,6 +40,7 @@
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
 import org.apache.hadoop.hdfs.protocol.CachePoolInfo;
+import org.apache.hadoop.hdfs.protocol.ErasureCodingPolicy;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.security.token.delegation.DelegationTokenIdentifier;
 import org.apache.hadoop.hdfs.server.blockmanagement.BlockInfo;
@@ -74,6 +75,7 @@
 import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.RenameSnapshotOp;
 import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.RenewDelegationTokenOp;
 import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.SetAclOp;
+import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.SetErasureCodingPolicyOp;
 import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.SetGenstampV1Op;
 import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.SetGenstampV2Op;
 import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.SetOwnerOp;
@@ -201,6 +203,20 @@ protected synchronized TransactionId initialValue() {
     }
   };
 
+  /**
+   * Create an edit log, which syncs asynchronously for RPC handlers if
+   * {@link DFSConfigKeys#DFS_NAMENODE_EDITS_ASYNC_LOGGING} is set.
+   */
+  static FSEditLog newInstance(Configuration conf, NNStorage storage,
+      List<URI> editsDirs) {
+    if (conf.getBoolean(DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING,
+        DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING_DEFAULT)) {
+      LOG.info("Edit log syncs are done asynchronously for RPC handlers");
+      return new FSEditLogAsync(conf, storage, editsDirs);
+    }
+    return new FSEditLog(conf, storage, editsDirs);
+  }
+
   /**
    * Constructor for FSEditLog. Underlying journals are constructed, but 
    * no streams are opened until open() is called.
@@ -518,12 +534,14 @@ synchronized void setNextTxId(long nextTxId) {
    */
   void logSyncAll() {
     // Record the most recent transaction ID as our own id
+    final long lastTxId;
     synchronized (this) {
       TransactionId id = myTransactionId.get();
       id.txid = txid;
+      lastTxId = txid;
     }
     // Then make sure we're synced up to this point
-    logSync();
+    logSync(lastTxId);
   }
   
   /**
@@ -555,11 +573,35 @@ void logSyncAll() {
    * waitForSyncToFinish() before assuming they are running alone.
    */
   public void logSync() {
+    // Fetch the transactionId of this thread. 
+    logSync(getMyTransactionId());
+  }
+
+  /**
+   * Sync all modifications done by this thread, like {@link #logSync()},
+   * but always wait until they are durable, even if the syncs of RPC
+   * handlers are done asynchronously. Callers that act on the outcome of
+   * their edits, e.g. by invalidating the blocks of a deleted file, must
+   * use this instead of {@link #logSync()}.
+   */
+  public void logSyncAndWait() {
+    logSync(getMyTransactionId());
+  }
+
+  /**
+   * @return the id of the last transaction written by the calling thread
+   */
+  static long getMyTransactionId() {
+    return myTransactionId.get().txid;
+  }
+
+  /**
+   * Sync all modifications up to the given transaction, as described in
+   * {@link #logSync()}. Blocks until the transaction has been synced.
+   */
+  protected void logSync(long mytxid) {
     long syncStart = 0;
 
-    // Fetch the transactionId of this thread. 
-    long mytxid = myTransactionId.get().txid;
-    
     boolean sync = false;
     try {
       EditLogOutputStream logStream = null;
@@ -1051,6 +1093,13 @@ void logSetAcl(String src, List<AclEntry> entries) {
     logEdit(op);
   }
 
+  void logSetErasureCodingPolicy(String src, ErasureCodingPolicy ecPolicy) {
+    SetErasureCodingPolicyOp op = SetErasureCodingPolicyOp.getInstance(
+        cache.get()).setSource(src)
+        .setPolicyName(ecPolicy == null ? "" : ecPolicy.getName());
+    logEdit(op);
+  }
+
   /**
    * Get all the journals this edit log is currently operating on.
    */
@@ -1455,11 +1504,30 @@ public Collection<EditLogInputStream> selectInputStreams(
    * @param toAtLeast the selected streams must contain this transaction
    * @param inProgessOk set to true if in-progress streams are OK
    */
-  public synchronized Collection<EditLogInputStream> selectInputStreams(
+  public Collection<EditLogInputStream> selectInputStreams(
       long fromTxId, long toAtLeastTxId, MetaRecoveryContext recovery,
       boolean inProgressOk) throws IOException {
+    return selectInputStreams(fromTxId, toAtLeastTxId, recovery, inProgressOk,
+        false);
+  }
+
+  /**
+   * Select a list of input streams.
+   * 
+   * @param fromTxId first transaction in the selected streams
+   * @param toAtLeast the selected streams must contain this transaction
+   * @param inProgessOk set to true if in-progress streams are OK
+   * @param onlyDurableTxns set to true if only the transactions that cannot
+   *        be lost anymore should be selected, see
+   *        {@link JournalSet#selectInputStreams(Collection, long, boolean,
+   *        boolean)}
+   */
+  public synchronized Collection<EditLogInputStream> selectInputStreams(
+      long fromTxId, long toAtLeastTxId, MetaRecoveryContext recovery,
+      boolean inProgressOk, boolean onlyDurableTxns) throws IOException {
     List<EditLogInputStream> streams = new ArrayList<EditLogInputStream>();
-    selectInputStreams(streams, fromTxId, inProgressOk);
+    journalSet.selectInputStreams(streams, fromTxId, inProgressOk,
+        onlyDurableTxns);
 
     try {
       checkForGaps(streams, fromTxId, toAtLeastTxId, inProgressOk);
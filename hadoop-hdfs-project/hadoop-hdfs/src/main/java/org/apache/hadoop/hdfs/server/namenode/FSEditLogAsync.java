@@ -0,0 +1,191 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
+import org.apache.hadoop.ipc.Server;
+
+/**
+ * An edit log which lets RPC handlers hand the sync of their edits off to
+ * a dedicated thread.
+ *
+ * A handler that calls {@link #logSync()} postpones the response of its
+ * call and queues the call with the id of its last transaction instead of
+ * waiting for the sync. The sync thread collects all queued calls, syncs
+ * up to the largest of their transaction ids with a single flush of the
+ * journals, and then sends their responses. Clients therefore see the
+ * same durability guarantee as before, while handlers only wait when the
+ * queue is full. Threads that are not serving an RPC still sync inline.
+ *
+ * Since {@link #logSync()} may return before the edits are durable, code
+ * that acts on the outcome of its edits before responding, like deleting
+ * blocks, calls {@link #logSyncAndWait()} instead.
+ */
+class FSEditLogAsync extends FSEditLog implements Runnable {
+
+  /** A call waiting for its edits to be synced. */
+  private static class PendingSync {
+    private final long txid;
+    private final Server.Call call;
+
+    PendingSync(long txid, Server.Call call) {
+      this.txid = txid;
+      this.call = call;
+    }
+  }
+
+  private final BlockingQueue<PendingSync> pendingSyncs;
+  private volatile boolean running = false;
+  private Thread syncThread = null;
+
+  FSEditLogAsync(Configuration conf, NNStorage storage, List<URI> editsDirs) {
+    super(conf, storage, editsDirs);
+    pendingSyncs = new ArrayBlockingQueue<PendingSync>(conf.getInt(
+        DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_QUEUE_SIZE_KEY,
+        DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_QUEUE_SIZE_DEFAULT));
+  }
+
+  @Override
+  synchronized void openForWrite() throws IOException {
+    super.openForWrite();
+    if (syncThread == null) {
+      running = true;
+      syncThread = new Thread(this, "FSEditLogAsync sync thread");
+      syncThread.setDaemon(true);
+      syncThread.start();
+    }
+  }
+
+  @Override
+  void close() {
+    super.close();
+    // Stop the sync thread without holding the edit log lock, since the
+    // thread may be waiting for it. The log is synced at this point, so the
+    // thread only needs to send the responses still queued.
+    Thread t;
+    synchronized (this) {
+      t = syncThread;
+      syncThread = null;
+      running = false;
+    }
+    if (t != null) {
+      try {
+        t.join();
+      } catch (InterruptedException e) {
+        LOG.warn("Interrupted while waiting for the edit log sync thread", e);
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  @Override
+  public void logSync() {
+    final Server.Call call = Server.getCurCall().get();
+    final long txid = getMyTransactionId();
+    if (call == null || !running || txid == Long.MAX_VALUE) {
+      super.logSync();
+      return;
+    }
+    call.postponeResponse();
+    try {
+      pendingSyncs.put(new PendingSync(txid, call));
+    } catch (InterruptedException e) {
+      // Sync inline instead, and release the response ourselves.
+      Thread.currentThread().interrupt();
+      super.logSync(txid);
+      sendResponse(call);
+      return;
+    }
+    NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    if (metrics != null) {
+      metrics.incrDeferredSyncs();
+    }
+  }
+
+  @Override
+  public void run() {
+    final List<PendingSync> batch = new ArrayList<PendingSync>();
+    while (running || !pendingSyncs.isEmpty()) {
+      int sent = 0;
+      Throwable failure = null;
+      try {
+        PendingSync first = pendingSyncs.poll(1, TimeUnit.SECONDS);
+        if (first == null) {
+          continue;
+        }
+        batch.add(first);
+        pendingSyncs.drainTo(batch);
+        long txid = 0;
+        for (PendingSync p : batch) {
+          txid = Math.max(txid, p.txid);
+        }
+        logSync(txid);
+        NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+        if (metrics != null) {
+          metrics.addDeferredSyncBatch(batch.size());
+        }
+        while (sent < batch.size()) {
+          sendResponse(batch.get(sent++).call);
+        }
+      } catch (InterruptedException e) {
+        LOG.info("Edit log sync thread interrupted");
+        failure = e;
+      } catch (Throwable t) {
+        // logSync terminates the NameNode if the journals cannot be synced,
+        // so anything else is unexpected. Keep going, since the handlers
+        // rely on this thread to release their responses.
+        LOG.error("Unexpected error in the edit log sync thread", t);
+        failure = t;
+      } finally {
+        // The edits of the calls not answered yet may not be durable, so
+        // fail them rather than leave their clients waiting forever.
+        for (int i = sent; i < batch.size(); i++) {
+          abortResponse(batch.get(i).call, failure);
+        }
+        batch.clear();
+      }
+    }
+  }
+
+  private static void sendResponse(Server.Call call) {
+    try {
+      call.sendResponse();
+    } catch (IOException e) {
+      LOG.warn("Failed to send the response of " + call, e);
+    }
+  }
+
+  private static void abortResponse(Server.Call call, Throwable cause) {
+    try {
+      call.abortResponse(new IOException(
+          "Failed to sync the edits of the call", cause));
+    } catch (IOException e) {
+      LOG.warn("Failed to send the error response of " + call, e);
+    }
+  }
+}
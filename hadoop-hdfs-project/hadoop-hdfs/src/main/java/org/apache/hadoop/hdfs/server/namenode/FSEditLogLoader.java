@@ -33,6 +33,7 @@
 import org.apache.hadoop.classification.InterfaceStability;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.protocol.CacheDirectiveInfo;
+import org.apache.hadoop.hdfs.protocol.ErasureCodingPolicy;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
 import org.apache.hadoop.hdfs.protocol.LayoutVersion;
@@ -69,6 +70,7 @@
 import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.RenewDelegationTokenOp;
 import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.RollingUpgradeOp;
 import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.SetAclOp;
+import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.SetErasureCodingPolicyOp;
 import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.SetGenstampV1Op;
 import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.SetGenstampV2Op;
 import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp.SetNSQuotaOp;
@@ -798,6 +800,19 @@ private long applyEditLogOp(FSEditLogOp op, FSDirectory fsDir,
       fsDir.unprotectedSetAcl(setAclOp.src, setAclOp.aclEntries);
       break;
     }
+    case OP_SET_ERASURE_CODING_POLICY: {
+      SetErasureCodingPolicyOp setEcOp = (SetErasureCodingPolicyOp) op;
+      ErasureCodingPolicy ecPolicy = null;
+      if (!setEcOp.policyName.isEmpty()) {
+        ecPolicy = ErasureCodingPolicy.getSystemPolicy(setEcOp.policyName);
+        if (ecPolicy == null) {
+          throw new IOException("Unknown erasure coding policy "
+              + setEcOp.policyName + " set on " + setEcOp.src);
+        }
+      }
+      fsDir.unprotectedSetErasureCodingPolicy(setEcOp.src, ecPolicy);
+      break;
+    }
     default:
       throw new IOException("Invalid operation read " + op.opCode);
     }
@@ -872,13 +887,17 @@ private void updateBlocks(FSDirectory fsDir, BlockListUpdatingOp op,
     
     // Are we only updating the last block's gen stamp.
     boolean isGenStampUpdate = oldBlocks.length == newBlocks.length;
+    // The internal blocks of the last group of an erasure coded file are
+    // written together, so they are all the last block.
+    final int numLastBlocks = file.isStriped() ?
+        file.getErasureCodingPolicy().getNumUnits() : 1;
     
     // First, update blocks in common
     for (int i = 0; i < oldBlocks.length && i < newBlocks.length; i++) {
       BlockInfo oldBlock = oldBlocks[i];
       Block newBlock = newBlocks[i];
       
-      boolean isLastBlock = i == newBlocks.length - 1;
+      boolean isLastBlock = i >= newBlocks.length - numLastBlocks;
       if (oldBlock.getBlockId() != newBlock.getBlockId() ||
           (oldBlock.getGenerationStamp() != newBlock.getGenerationStamp() && 
               !(isGenStampUpdate && isLastBlock))) {
@@ -913,14 +932,17 @@ private void updateBlocks(FSDirectory fsDir, BlockListUpdatingOp op,
         throw new IOException("Trying to remove a block from file " +
             path + " which is not under construction.");
       }
-      if (newBlocks.length != oldBlocks.length - 1) {
+      if (newBlocks.length != oldBlocks.length - numLastBlocks) {
         throw new IOException("Trying to remove more than one block from file "
             + path);
       }
-      Block oldBlock = oldBlocks[oldBlocks.length - 1];
-      boolean removed = fsDir.unprotectedRemoveBlock(path, file, oldBlock);
-      if (!removed && !(op instanceof UpdateBlocksOp)) {
-        throw new IOException("Trying to delete non-existant block " + oldBlock);
+      for (int i = oldBlocks.length - 1; i >= newBlocks.length; i--) {
+        Block oldBlock = oldBlocks[i];
+        boolean removed = fsDir.unprotectedRemoveBlock(path, file, oldBlock);
+        if (!removed && !(op instanceof UpdateBlocksOp)) {
+          throw new IOException("Trying to delete non-existant block "
+              + oldBlock);
+        }
       }
     } else if (newBlocks.length > oldBlocks.length) {
       // We're adding blocks
@@ -47,6 +47,7 @@
 import static org.apache.hadoop.hdfs.server.namenode.FSEditLogOpCodes.OP_ROLLING_UPGRADE_FINALIZE;
 import static org.apache.hadoop.hdfs.server.namenode.FSEditLogOpCodes.OP_ROLLING_UPGRADE_START;
 import static org.apache.hadoop.hdfs.server.namenode.FSEditLogOpCodes.OP_SET_ACL;
+import static org.apache.hadoop.hdfs.server.namenode.FSEditLogOpCodes.OP_SET_ERASURE_CODING_POLICY;
 import static org.apache.hadoop.hdfs.server.namenode.FSEditLogOpCodes.OP_SET_GENSTAMP_V1;
 import static org.apache.hadoop.hdfs.server.namenode.FSEditLogOpCodes.OP_SET_GENSTAMP_V2;
 import static org.apache.hadoop.hdfs.server.namenode.FSEditLogOpCodes.OP_SET_NS_QUOTA;
@@ -186,6 +187,7 @@ public OpInstanceCache() {
           OP_ROLLING_UPGRADE_START, "start"));
       inst.put(OP_ROLLING_UPGRADE_FINALIZE, new RollingUpgradeOp(
           OP_ROLLING_UPGRADE_FINALIZE, "finalize"));
+      inst.put(OP_SET_ERASURE_CODING_POLICY, new SetErasureCodingPolicyOp());
     }
     
     public FSEditLogOp get(FSEditLogOpCodes opcode) {
@@ -3538,6 +3540,73 @@ void fromXml(Stanza st) throws InvalidXmlException {
     }
   }
 
+  /** {@literal @Idempotent} for {@link ClientProtocol#setErasureCodingPolicy} */
+  static class SetErasureCodingPolicyOp extends FSEditLogOp {
+    String src;
+    String policyName; // empty if the policy is removed
+
+    private SetErasureCodingPolicyOp() {
+      super(OP_SET_ERASURE_CODING_POLICY);
+    }
+
+    static SetErasureCodingPolicyOp getInstance(OpInstanceCache cache) {
+      return (SetErasureCodingPolicyOp) cache.get(
+          OP_SET_ERASURE_CODING_POLICY);
+    }
+
+    SetErasureCodingPolicyOp setSource(String src) {
+      this.src = src;
+      return this;
+    }
+
+    SetErasureCodingPolicyOp setPolicyName(String policyName) {
+      this.policyName = policyName;
+      return this;
+    }
+
+    @Override
+    void readFields(DataInputStream in, int logVersion) throws IOException {
+      src = FSImageSerialization.readString(in);
+      policyName = FSImageSerialization.readString(in);
+    }
+
+    @Override
+    public void writeFields(DataOutputStream out) throws IOException {
+      FSImageSerialization.writeString(src, out);
+      FSImageSerialization.writeString(policyName, out);
+    }
+
+    @Override
+    protected void toXml(ContentHandler contentHandler) throws SAXException {
+      XMLUtils.addSaxString(contentHandler, "SRC", src);
+      XMLUtils.addSaxString(contentHandler, "POLICYNAME", policyName);
+    }
+
+    @Override
+    void fromXml(Stanza st) throws InvalidXmlException {
+      src = st.getValue("SRC");
+      policyName = st.getValueOrNull("POLICYNAME");
+      if (policyName == null) {
+        policyName = "";
+      }
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder builder = new StringBuilder();
+      builder.append("SetErasureCodingPolicyOp [src=");
+      builder.append(src);
+      builder.append(", policyName=");
+      builder.append(policyName);
+      builder.append(", opCode=");
+      builder.append(opCode);
+      builder.append(", txid=");
+      builder.append(txid);
+      builder.append("]");
+      return builder.toString();
+    }
+  }
+
   static private short readShort(DataInputStream in) throws IOException {
     return Short.parseShort(FSImageSerialization.readString(in));
   }
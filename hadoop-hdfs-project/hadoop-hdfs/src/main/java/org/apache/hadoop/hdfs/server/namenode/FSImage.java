@@ -91,7 +91,7 @@ public class FSImage implements Closeable {
    * The last transaction ID that was either loaded from an image
    * or loaded by loading edits files.
    */
-  protected long lastAppliedTxId = 0;
+  protected volatile long lastAppliedTxId = 0;
 
   final private Configuration conf;
 
@@ -130,7 +130,7 @@ protected FSImage(Configuration conf,
       storage.setRestoreFailedStorage(true);
     }
 
-    this.editLog = new FSEditLog(conf, storage, editsDirs);
+    this.editLog = FSEditLog.newInstance(conf, storage, editsDirs);
     
     archivalManager = new NNStorageRetentionManager(conf, storage, editLog);
   }
@@ -655,7 +655,8 @@ LayoutVersion.Feature.TXID_BASED_LAYOUT, getLayoutVersion())) {
     prog.endPhase(Phase.LOADING_FSIMAGE);
     
     if (!rollingRollback) {
-      long txnsAdvanced = loadEdits(editStreams, target, startOpt, recovery);
+      long txnsAdvanced = loadEdits(editStreams, target, startOpt, recovery,
+          true);
       needToSave |= needsResaveBasedOnStaleCheckpoint(imageFile.getFile(),
           txnsAdvanced);
       if (RollingUpgradeStartupOption.DOWNGRADE.matches(startOpt)) {
@@ -776,12 +777,26 @@ private boolean needsResaveBasedOnStaleCheckpoint(
    */
   public long loadEdits(Iterable<EditLogInputStream> editStreams,
       FSNamesystem target) throws IOException {
-    return loadEdits(editStreams, target, null, null);
+    return loadEdits(editStreams, target, true);
+  }
+
+  /**
+   * Load the specified list of edit files into the image.
+   *
+   * @param updateQuotaCounts whether to recompute the quota usage of all the
+   *        directories afterwards. This walks the whole namespace, so a
+   *        caller that loads small batches of edits often may skip it, as
+   *        long as it calls {@link #updateCountForQuota(INodeDirectory)}
+   *        before the counts are relied upon.
+   */
+  public long loadEdits(Iterable<EditLogInputStream> editStreams,
+      FSNamesystem target, boolean updateQuotaCounts) throws IOException {
+    return loadEdits(editStreams, target, null, null, updateQuotaCounts);
   }
 
   private long loadEdits(Iterable<EditLogInputStream> editStreams,
-      FSNamesystem target, StartupOption startOpt, MetaRecoveryContext recovery)
-      throws IOException {
+      FSNamesystem target, StartupOption startOpt, MetaRecoveryContext recovery,
+      boolean updateQuotaCounts) throws IOException {
     LOG.debug("About to load edits:\n  " + Joiner.on("\n  ").join(editStreams));
     StartupProgress prog = NameNode.getStartupProgress();
     prog.beginPhase(Phase.LOADING_EDITS);
@@ -809,7 +824,9 @@ private long loadEdits(Iterable<EditLogInputStream> editStreams,
     } finally {
       FSEditLog.closeAllStreams(editStreams);
       // update the counts
-      updateCountForQuota(target.dir.rootDir);
+      if (updateQuotaCounts) {
+        updateCountForQuota(target.dir.rootDir);
+      }
     }
     prog.endPhase(Phase.LOADING_EDITS);
     return lastAppliedTxId - prevLastAppliedTxId;
@@ -919,7 +936,8 @@ void saveFSImage(SaveNamespaceContext context, StorageDirectory sd,
     File newFile = NNStorage.getStorageFile(sd, NameNodeFile.IMAGE_NEW, txid);
     File dstFile = NNStorage.getStorageFile(sd, dstType, txid);
     
-    FSImageFormatProtobuf.Saver saver = new FSImageFormatProtobuf.Saver(context);
+    FSImageFormatProtobuf.Saver saver = new FSImageFormatProtobuf.Saver(context,
+        conf);
     FSImageCompression compression = FSImageCompression.createCompression(conf);
     saver.save(newFile, compression);
     
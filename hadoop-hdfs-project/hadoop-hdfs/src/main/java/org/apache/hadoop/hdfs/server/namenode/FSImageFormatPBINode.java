@@ -18,13 +18,21 @@
 
 package org.apache.hadoop.hdfs.server.namenode;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -37,6 +45,7 @@
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.fs.permission.PermissionStatus;
 import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.protocol.ErasureCodingPolicy;
 import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.BlockProto;
 import org.apache.hadoop.hdfs.protocolPB.PBHelper;
 import org.apache.hadoop.hdfs.server.blockmanagement.BlockInfo;
@@ -50,6 +59,10 @@
 import org.apache.hadoop.hdfs.server.namenode.FsImageProto.INodeSection;
 import org.apache.hadoop.hdfs.server.namenode.FsImageProto.INodeSection.AclFeatureProto;
 import org.apache.hadoop.hdfs.server.namenode.snapshot.Snapshot;
+import org.apache.hadoop.hdfs.server.namenode.startupprogress.Phase;
+import org.apache.hadoop.hdfs.server.namenode.startupprogress.StartupProgress;
+import org.apache.hadoop.hdfs.server.namenode.startupprogress.StartupProgress.Counter;
+import org.apache.hadoop.hdfs.server.namenode.startupprogress.Step;
 import org.apache.hadoop.hdfs.util.ReadOnlyList;
 
 import com.google.common.base.Preconditions;
@@ -77,6 +90,9 @@ public final class FSImageFormatPBINode {
 
   private static final Log LOG = LogFactory.getLog(FSImageFormatPBINode.class);
 
+  /** Number of inodes a worker loads before publishing them */
+  private static final int PARALLEL_LOAD_BATCH_SIZE = 1000;
+
   public final static class Loader {
     public static PermissionStatus loadPermission(long id,
         final String[] stringTable) {
@@ -123,9 +139,21 @@ public static INodeDirectory loadINodeDirectory(INodeSection.INode n,
         dir.addAclFeature(new AclFeature(loadAclEntries(d.getAcl(),
             state.getStringTable())));
       }
+      if (d.hasErasureCodingPolicy()) {
+        dir.setErasureCodingPolicy(
+            loadErasureCodingPolicy(d.getErasureCodingPolicy()));
+      }
       return dir;
     }
 
+    private static ErasureCodingPolicy loadErasureCodingPolicy(int id) {
+      ErasureCodingPolicy ecPolicy =
+          ErasureCodingPolicy.getSystemPolicy((byte) id);
+      Preconditions.checkState(ecPolicy != null,
+          "Unknown erasure coding policy %s", id);
+      return ecPolicy;
+    }
+
     public static void updateBlocksMap(INodeFile file, BlockManager bm) {
       // Add file->block mapping
       final BlockInfo[] blocks = file.getBlocks();
@@ -157,6 +185,8 @@ void loadINodeDirectorySection(InputStream in) throws IOException {
           break;
         }
         INodeDirectory p = dir.getInode(e.getParent()).asDirectory();
+        p.ensureChildrenCapacity(e.getChildrenCount()
+            + e.getRefChildrenCount());
         for (long id : e.getChildrenList()) {
           INode child = dir.getInode(id);
           addToParent(p, child);
@@ -168,12 +198,181 @@ void loadINodeDirectorySection(InputStream in) throws IOException {
       }
     }
 
-    void loadINodeSection(InputStream in) throws IOException {
+    /**
+     * Load the directory section from its sub-sections in parallel. Every
+     * directory has a single entry in the section, so the workers never add
+     * children to the same directory; the blocks map and the name cache are
+     * shared and updated under the loader lock.
+     */
+    void loadINodeDirectorySectionInParallel(ExecutorService service,
+        List<FileSummary.Section> subSections, String compressionCodec)
+        throws IOException {
+      LOG.info("Loading the INodeDirectory section in " + subSections.size()
+          + " sub-sections");
+      loadSubSectionsInParallel(service, subSections, compressionCodec,
+          new SubSectionLoader() {
+            @Override
+            public void load(InputStream in) throws IOException {
+              loadINodeDirectorySubSection(in);
+            }
+          });
+    }
+
+    private void loadINodeDirectorySubSection(InputStream in)
+        throws IOException {
+      final List<INodeReference> refList = parent.getLoaderContext()
+          .getRefList();
+      final List<INode> added = new ArrayList<INode>();
+      while (true) {
+        INodeDirectorySection.DirEntry e = INodeDirectorySection.DirEntry
+            .parseDelimitedFrom(in);
+        if (e == null) {
+          break;
+        }
+        INodeDirectory p = dir.getInode(e.getParent()).asDirectory();
+        p.ensureChildrenCapacity(e.getChildrenCount()
+            + e.getRefChildrenCount());
+        for (long id : e.getChildrenList()) {
+          INode child = dir.getInode(id);
+          if (addChildToParent(p, child)) {
+            added.add(child);
+          }
+        }
+        for (int refId : e.getRefChildrenList()) {
+          INodeReference ref = refList.get(refId);
+          if (addChildToParent(p, ref)) {
+            added.add(ref);
+          }
+        }
+        if (added.size() >= PARALLEL_LOAD_BATCH_SIZE) {
+          updateAddedChildren(added);
+        }
+      }
+      updateAddedChildren(added);
+    }
+
+    /**
+     * Load the inode section from its sub-sections in parallel. The section
+     * header is read from the enclosing section stream.
+     */
+    void loadINodeSectionInParallel(ExecutorService service, InputStream in,
+        List<FileSummary.Section> subSections, String compressionCodec,
+        StartupProgress prog, Step step) throws IOException {
+      INodeSection s = INodeSection.parseDelimitedFrom(in);
+      fsn.resetLastInodeId(s.getLastInodeId());
+      LOG.info("Loading " + s.getNumInodes() + " INodes in "
+          + subSections.size() + " sub-sections");
+      dir.getINodeMap().ensureCapacity(s.getNumInodes());
+      prog.setTotal(Phase.LOADING_FSIMAGE, step, s.getNumInodes());
+      final Counter counter = prog.getCounter(Phase.LOADING_FSIMAGE, step);
+      final AtomicLong loaded = new AtomicLong();
+      loadSubSectionsInParallel(service, subSections, compressionCodec,
+          new SubSectionLoader() {
+            @Override
+            public void load(InputStream in) throws IOException {
+              loaded.addAndGet(loadINodeSubSection(in, counter));
+            }
+          });
+      if (loaded.get() != s.getNumInodes()) {
+        throw new IOException("Expected to load " + s.getNumInodes()
+            + " INodes from the sub-sections but loaded " + loaded.get());
+      }
+    }
+
+    private int loadINodeSubSection(InputStream in, Counter counter)
+        throws IOException {
+      final List<INode> inodes = new ArrayList<INode>();
+      int count = 0;
+      while (true) {
+        INodeSection.INode p = INodeSection.INode.parseDelimitedFrom(in);
+        if (p == null) {
+          break;
+        }
+        count++;
+        counter.increment();
+        if (p.getId() == INodeId.ROOT_INODE_ID) {
+          synchronized (this) {
+            loadRootINode(p);
+          }
+        } else {
+          inodes.add(loadINode(p));
+          if (inodes.size() >= PARALLEL_LOAD_BATCH_SIZE) {
+            addToInodeMap(inodes);
+          }
+        }
+      }
+      addToInodeMap(inodes);
+      return count;
+    }
+
+    private synchronized void addToInodeMap(List<INode> inodes) {
+      for (INode n : inodes) {
+        dir.addToInodeMap(n);
+      }
+      inodes.clear();
+    }
+
+    private synchronized void updateAddedChildren(List<INode> children) {
+      for (INode child : children) {
+        dir.cacheName(child);
+        if (child.isFile()) {
+          updateBlocksMap(child.asFile(), fsn.getBlockManager());
+        }
+      }
+      children.clear();
+    }
+
+    /** Loads the content of a single sub-section */
+    private interface SubSectionLoader {
+      void load(InputStream in) throws IOException;
+    }
+
+    private void loadSubSectionsInParallel(ExecutorService service,
+        List<FileSummary.Section> subSections, final String compressionCodec,
+        final SubSectionLoader loader) throws IOException {
+      List<Future<Void>> futures = new ArrayList<Future<Void>>();
+      for (final FileSummary.Section section : subSections) {
+        futures.add(service.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            InputStream in = parent.getInputStreamForSection(section,
+                compressionCodec);
+            try {
+              loader.load(in);
+            } finally {
+              in.close();
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> f : futures) {
+        try {
+          f.get();
+        } catch (InterruptedException e) {
+          throw (InterruptedIOException) new InterruptedIOException(
+              "Interrupted while loading the image sub-sections").initCause(e);
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          if (cause instanceof IOException) {
+            throw (IOException) cause;
+          }
+          throw new IOException("Failed to load an image sub-section", cause);
+        }
+      }
+    }
+
+    void loadINodeSection(InputStream in, StartupProgress prog, Step step)
+        throws IOException {
       INodeSection s = INodeSection.parseDelimitedFrom(in);
       fsn.resetLastInodeId(s.getLastInodeId());
       LOG.info("Loading " + s.getNumInodes() + " INodes.");
+      dir.getINodeMap().ensureCapacity(s.getNumInodes());
+      prog.setTotal(Phase.LOADING_FSIMAGE, step, s.getNumInodes());
+      Counter counter = prog.getCounter(Phase.LOADING_FSIMAGE, step);
       for (int i = 0; i < s.getNumInodes(); ++i) {
         INodeSection.INode p = INodeSection.INode.parseDelimitedFrom(in);
+        counter.increment();
         if (p.getId() == INodeId.ROOT_INODE_ID) {
           loadRootINode(p);
         } else {
@@ -202,14 +401,7 @@ void loadFilesUnderConstructionSection(InputStream in) throws IOException {
     }
 
     private void addToParent(INodeDirectory parent, INode child) {
-      if (parent == dir.rootDir && FSDirectory.isReservedName(child)) {
-        throw new HadoopIllegalArgumentException("File name \""
-            + child.getLocalName() + "\" is reserved. Please "
-            + " change the name of the existing file or directory to another "
-            + "name before upgrading to this release.");
-      }
-      // NOTE: This does not update space counts for parents
-      if (!parent.addChild(child)) {
+      if (!addChildToParent(parent, child)) {
         return;
       }
       dir.cacheName(child);
@@ -219,6 +411,18 @@ private void addToParent(INodeDirectory parent, INode child) {
       }
     }
 
+    /** @return true if the child was added */
+    private boolean addChildToParent(INodeDirectory parent, INode child) {
+      if (parent == dir.rootDir && FSDirectory.isReservedName(child)) {
+        throw new HadoopIllegalArgumentException("File name \""
+            + child.getLocalName() + "\" is reserved. Please "
+            + " change the name of the existing file or directory to another "
+            + "name before upgrading to this release.");
+      }
+      // NOTE: This does not update space counts for parents
+      return parent.addChild(child);
+    }
+
     private INode loadINode(INodeSection.INode n) {
       switch (n.getType()) {
       case FILE:
@@ -240,7 +444,8 @@ private INodeFile loadINodeFile(INodeSection.INode n) {
       short replication = (short) f.getReplication();
       LoaderContext state = parent.getLoaderContext();
 
-      BlockInfo[] blocks = new BlockInfo[bp.size()];
+      BlockInfo[] blocks = bp.isEmpty() ? BlockInfo.EMPTY_ARRAY
+          : new BlockInfo[bp.size()];
       for (int i = 0, e = bp.size(); i < e; ++i) {
         blocks[i] = new BlockInfo(PBHelper.convert(bp.get(i)), replication);
       }
@@ -255,13 +460,25 @@ private INodeFile loadINodeFile(INodeSection.INode n) {
         file.addAclFeature(new AclFeature(loadAclEntries(f.getAcl(),
             state.getStringTable())));
       }
+      if (f.hasErasureCodingPolicy()) {
+        file.setErasureCodingPolicy(
+            loadErasureCodingPolicy(f.getErasureCodingPolicy()));
+      }
 
       // under-construction information
       if (f.hasFileUC()) {
         INodeSection.FileUnderConstructionFeature uc = f.getFileUC();
         file.toUnderConstruction(uc.getClientName(), uc.getClientMachine(),
             null);
-        if (blocks.length > 0) {
+        if (blocks.length > 0 && file.isStriped()) {
+          // the internal blocks of the last group are written together
+          final int numUnits = file.getErasureCodingPolicy().getNumUnits();
+          for (int i = (blocks.length - 1) / numUnits * numUnits;
+              i < blocks.length; i++) {
+            file.setBlock(i, new BlockInfoUnderConstruction(blocks[i],
+                replication));
+          }
+        } else if (blocks.length > 0) {
           BlockInfo lastBlk = file.getLastBlock();
           // replace the last block of file
           file.setBlock(file.numBlocks() - 1, new BlockInfoUnderConstruction(
@@ -334,6 +551,10 @@ public static INodeSection.INodeFile.Builder buildINodeFile(
       if (f != null) {
         b.setAcl(buildAclEntries(f, state.getStringMap()));
       }
+      if (file instanceof INodeFile && ((INodeFile) file).isStriped()) {
+        b.setErasureCodingPolicy(
+            ((INodeFile) file).getErasureCodingPolicy().getId());
+      }
       return b;
     }
 
@@ -350,6 +571,11 @@ public static INodeSection.INodeDirectory.Builder buildINodeDirectory(
       if (f != null) {
         b.setAcl(buildAclEntries(f, state.getStringMap()));
       }
+      if (dir instanceof INodeDirectory
+          && ((INodeDirectory) dir).getErasureCodingPolicy() != null) {
+        b.setErasureCodingPolicy(
+            ((INodeDirectory) dir).getErasureCodingPolicy().getId());
+      }
       return b;
     }
 
@@ -370,6 +596,13 @@ void serializeINodeDirectorySection(OutputStream out) throws IOException {
           .getINodeMap().getMapIterator();
       final ArrayList<INodeReference> refList = parent.getSaverContext()
           .getRefList();
+      // The directory entries are written serially since the indexes of
+      // the reference children depend on the order of the entries.
+      final int inodesPerSubSection = parent.getInodesPerSubSection(
+          fsn.dir.getINodeMap().size());
+      if (inodesPerSubSection > 0) {
+        parent.beginSubSections();
+      }
       int i = 0;
       while (iter.hasNext()) {
         INodeWithAdditionalFields n = iter.next();
@@ -398,6 +631,14 @@ void serializeINodeDirectorySection(OutputStream out) throws IOException {
         if (i % FSImageFormatProtobuf.Saver.CHECK_CANCEL_INTERVAL == 0) {
           context.checkCancelled();
         }
+        if (inodesPerSubSection > 0 && i % inodesPerSubSection == 0) {
+          parent.commitSubSection(summary,
+              FSImageFormatProtobuf.SectionName.INODE_DIR);
+        }
+      }
+      if (inodesPerSubSection > 0) {
+        parent.commitSubSection(summary,
+            FSImageFormatProtobuf.SectionName.INODE_DIR);
       }
       parent.commitSection(summary,
           FSImageFormatProtobuf.SectionName.INODE_DIR);
@@ -411,6 +652,24 @@ void serializeINodeSection(OutputStream out) throws IOException {
       INodeSection s = b.build();
       s.writeDelimitedTo(out);
 
+      final int inodesPerSubSection = parent.getInodesPerSubSection(
+          inodesMap.size());
+      if (inodesPerSubSection > 0) {
+        parent.beginSubSections();
+        ExecutorService service = parent.createSerializationExecutor();
+        if (service != null) {
+          try {
+            serializeINodesInParallel(service, out, inodesMap,
+                inodesPerSubSection);
+          } finally {
+            service.shutdownNow();
+          }
+          parent.commitSection(summary,
+              FSImageFormatProtobuf.SectionName.INODE);
+          return;
+        }
+      }
+
       int i = 0;
       Iterator<INodeWithAdditionalFields> iter = inodesMap.getMapIterator();
       while (iter.hasNext()) {
@@ -420,10 +679,73 @@ void serializeINodeSection(OutputStream out) throws IOException {
         if (i % FSImageFormatProtobuf.Saver.CHECK_CANCEL_INTERVAL == 0) {
           context.checkCancelled();
         }
+        if (inodesPerSubSection > 0 && i % inodesPerSubSection == 0) {
+          parent.commitSubSection(summary,
+              FSImageFormatProtobuf.SectionName.INODE);
+        }
+      }
+      if (inodesPerSubSection > 0) {
+        parent.commitSubSection(summary,
+            FSImageFormatProtobuf.SectionName.INODE);
       }
       parent.commitSection(summary, FSImageFormatProtobuf.SectionName.INODE);
     }
 
+    /**
+     * Serialize the inodes on the given executor, one sub-section per task.
+     * The serialized sub-sections are written to the image in the order the
+     * inodes are iterated, and only a bounded number of them is buffered.
+     */
+    private void serializeINodesInParallel(ExecutorService service,
+        OutputStream out, INodeMap inodesMap, int inodesPerSubSection)
+        throws IOException {
+      final int maxPending = 2 * Math.max(1, parent.getParallelThreads());
+      final ArrayDeque<Future<byte[]>> pending =
+          new ArrayDeque<Future<byte[]>>();
+      Iterator<INodeWithAdditionalFields> iter = inodesMap.getMapIterator();
+      while (iter.hasNext()) {
+        final List<INode> batch = new ArrayList<INode>(inodesPerSubSection);
+        while (iter.hasNext() && batch.size() < inodesPerSubSection) {
+          batch.add(iter.next());
+        }
+        pending.add(service.submit(new Callable<byte[]>() {
+          @Override
+          public byte[] call() throws IOException {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+            for (INode n : batch) {
+              save(buf, n);
+            }
+            return buf.toByteArray();
+          }
+        }));
+        if (pending.size() >= maxPending) {
+          writeSubSection(out, pending.poll());
+        }
+      }
+      while (!pending.isEmpty()) {
+        writeSubSection(out, pending.poll());
+      }
+    }
+
+    private void writeSubSection(OutputStream out, Future<byte[]> serialized)
+        throws IOException {
+      context.checkCancelled();
+      try {
+        out.write(serialized.get());
+      } catch (InterruptedException e) {
+        throw (InterruptedIOException) new InterruptedIOException(
+            "Interrupted while saving the inodes").initCause(e);
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+          throw (IOException) cause;
+        }
+        throw new IOException("Failed to serialize the inodes", cause);
+      }
+      parent.commitSubSection(summary,
+          FSImageFormatProtobuf.SectionName.INODE);
+    }
+
     void serializeFilesUCSection(OutputStream out) throws IOException {
       Map<String, INodeFile> ucMap = fsn.getFilesUnderConstruction();
       for (Map.Entry<String, INodeFile> entry : ucMap.entrySet()) {
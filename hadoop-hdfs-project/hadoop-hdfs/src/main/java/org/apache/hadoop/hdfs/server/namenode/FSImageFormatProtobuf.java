@@ -18,6 +18,8 @@
 
 package org.apache.hadoop.hdfs.server.namenode;
 
+import static org.apache.hadoop.util.Time.monotonicNow;
+
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.File;
@@ -37,11 +39,14 @@
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CacheDirectiveInfoProto;
 import org.apache.hadoop.hdfs.protocol.proto.ClientNamenodeProtocolProtos.CachePoolInfoProto;
 import org.apache.hadoop.hdfs.security.token.delegation.DelegationTokenSecretManager;
@@ -60,9 +65,11 @@
 import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.io.compress.CompressorStream;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.io.LimitInputStream;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.protobuf.CodedOutputStream;
 
 /**
@@ -94,7 +101,7 @@ static <T> DeduplicationMap<T> newMap() {
         return new DeduplicationMap<T>();
       }
 
-      int getId(E value) {
+      synchronized int getId(E value) {
         if (value == null) {
           return 0;
         }
@@ -107,7 +114,7 @@ int getId(E value) {
         return v;
       }
 
-      int size() {
+      synchronized int size() {
         return map.size();
       }
 
@@ -138,11 +145,22 @@ public static final class Loader implements FSImageFormat.AbstractLoader {
     private MD5Hash imgDigest;
     /** The transaction ID of the last edit represented by the loaded file */
     private long imgTxId;
+    /** The image file being loaded */
+    private File imageFile;
+    /** Whether sub-sections, if present, are loaded in parallel */
+    private final boolean parallelLoad;
+    private final int parallelThreads;
 
     Loader(Configuration conf, FSNamesystem fsn) {
       this.conf = conf;
       this.fsn = fsn;
       this.ctx = new LoaderContext();
+      this.parallelLoad = conf.getBoolean(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_DEFAULT);
+      this.parallelThreads = conf.getInt(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_DEFAULT);
     }
 
     @Override
@@ -162,6 +180,7 @@ public LoaderContext getLoaderContext() {
     void load(File file) throws IOException {
       long start = System.currentTimeMillis();
       imgDigest = MD5FileUtils.computeMd5ForFile(file);
+      imageFile = file;
       RandomAccessFile raFile = new RandomAccessFile(file, "r");
       FileInputStream fin = new FileInputStream(file);
       try {
@@ -190,6 +209,29 @@ private void loadInternal(RandomAccessFile raFile, FileInputStream fin)
 
       ArrayList<FileSummary.Section> sections = Lists.newArrayList(summary
           .getSectionsList());
+      ArrayList<FileSummary.Section> inodeSubSections = Lists.newArrayList();
+      ArrayList<FileSummary.Section> inodeDirSubSections = Lists.newArrayList();
+      for (FileSummary.Section s : summary.getSubSectionsList()) {
+        SectionName name = SectionName.fromString(s.getName());
+        if (name == SectionName.INODE) {
+          inodeSubSections.add(s);
+        } else if (name == SectionName.INODE_DIR) {
+          inodeDirSubSections.add(s);
+        }
+      }
+      ExecutorService loadExecutor = null;
+      if (parallelLoad && parallelThreads > 1
+          && !(inodeSubSections.isEmpty() && inodeDirSubSections.isEmpty())) {
+        LOG.info("Loading the image sub-sections with " + parallelThreads
+            + " threads");
+        loadExecutor = Executors.newFixedThreadPool(parallelThreads,
+            new ThreadFactoryBuilder().setDaemon(true)
+            .setNameFormat("FSImageLoader-%d").build());
+      } else {
+        // The sub-sections are only an index into the regular sections.
+        inodeSubSections.clear();
+        inodeDirSubSections.clear();
+      }
       Collections.sort(sections, new Comparator<FileSummary.Section>() {
         @Override
         public int compare(FileSummary.Section s1, FileSummary.Section s2) {
@@ -213,66 +255,105 @@ public int compare(FileSummary.Section s1, FileSummary.Section s2) {
        */
       Step currentStep = null;
 
-      for (FileSummary.Section s : sections) {
-        channel.position(s.getOffset());
-        InputStream in = new BufferedInputStream(new LimitInputStream(fin,
-            s.getLength()));
-
-        in = FSImageUtil.wrapInputStreamForCompression(conf,
-            summary.getCodec(), in);
-
-        String n = s.getName();
-
-        switch (SectionName.fromString(n)) {
-        case NS_INFO:
-          loadNameSystemSection(in);
-          break;
-        case STRING_TABLE:
-          loadStringTableSection(in);
-          break;
-        case INODE: {
-          currentStep = new Step(StepType.INODES);
-          prog.beginStep(Phase.LOADING_FSIMAGE, currentStep);
-          inodeLoader.loadINodeSection(in);
-        }
-          break;
-        case INODE_REFERENCE:
-          snapshotLoader.loadINodeReferenceSection(in);
-          break;
-        case INODE_DIR:
-          inodeLoader.loadINodeDirectorySection(in);
-          break;
-        case FILES_UNDERCONSTRUCTION:
-          inodeLoader.loadFilesUnderConstructionSection(in);
-          break;
-        case SNAPSHOT:
-          snapshotLoader.loadSnapshotSection(in);
-          break;
-        case SNAPSHOT_DIFF:
-          snapshotLoader.loadSnapshotDiffSection(in);
-          break;
-        case SECRET_MANAGER: {
-          prog.endStep(Phase.LOADING_FSIMAGE, currentStep);
-          Step step = new Step(StepType.DELEGATION_TOKENS);
-          prog.beginStep(Phase.LOADING_FSIMAGE, step);
-          loadSecretManagerSection(in);
-          prog.endStep(Phase.LOADING_FSIMAGE, step);
-        }
-          break;
-        case CACHE_MANAGER: {
-          Step step = new Step(StepType.CACHE_POOLS);
-          prog.beginStep(Phase.LOADING_FSIMAGE, step);
-          loadCacheManagerSection(in);
-          prog.endStep(Phase.LOADING_FSIMAGE, step);
+      try {
+        for (FileSummary.Section s : sections) {
+          channel.position(s.getOffset());
+          InputStream in = new BufferedInputStream(new LimitInputStream(fin,
+              s.getLength()));
+
+          in = FSImageUtil.wrapInputStreamForCompression(conf,
+              summary.getCodec(), in);
+
+          String n = s.getName();
+          long sectionStart = monotonicNow();
+
+          switch (SectionName.fromString(n)) {
+          case NS_INFO:
+            loadNameSystemSection(in);
+            break;
+          case STRING_TABLE:
+            loadStringTableSection(in);
+            break;
+          case INODE: {
+            currentStep = new Step(StepType.INODES);
+            prog.beginStep(Phase.LOADING_FSIMAGE, currentStep);
+            if (inodeSubSections.isEmpty()) {
+              inodeLoader.loadINodeSection(in, prog, currentStep);
+            } else {
+              inodeLoader.loadINodeSectionInParallel(loadExecutor, in,
+                  inodeSubSections, summary.getCodec(), prog, currentStep);
+            }
+          }
+            break;
+          case INODE_REFERENCE:
+            snapshotLoader.loadINodeReferenceSection(in);
+            break;
+          case INODE_DIR:
+            if (inodeDirSubSections.isEmpty()) {
+              inodeLoader.loadINodeDirectorySection(in);
+            } else {
+              inodeLoader.loadINodeDirectorySectionInParallel(loadExecutor,
+                  inodeDirSubSections, summary.getCodec());
+            }
+            break;
+          case FILES_UNDERCONSTRUCTION:
+            inodeLoader.loadFilesUnderConstructionSection(in);
+            break;
+          case SNAPSHOT:
+            snapshotLoader.loadSnapshotSection(in);
+            break;
+          case SNAPSHOT_DIFF:
+            snapshotLoader.loadSnapshotDiffSection(in);
+            break;
+          case SECRET_MANAGER: {
+            prog.endStep(Phase.LOADING_FSIMAGE, currentStep);
+            Step step = new Step(StepType.DELEGATION_TOKENS);
+            prog.beginStep(Phase.LOADING_FSIMAGE, step);
+            loadSecretManagerSection(in);
+            prog.endStep(Phase.LOADING_FSIMAGE, step);
+          }
+            break;
+          case CACHE_MANAGER: {
+            Step step = new Step(StepType.CACHE_POOLS);
+            prog.beginStep(Phase.LOADING_FSIMAGE, step);
+            loadCacheManagerSection(in);
+            prog.endStep(Phase.LOADING_FSIMAGE, step);
+          }
+            break;
+          default:
+            LOG.warn("Unrecognized section " + n);
+            break;
+          }
+          LOG.info("Loaded section " + n + " in "
+              + (monotonicNow() - sectionStart) + " ms");
         }
-          break;
-        default:
-          LOG.warn("Unrecognized section " + n);
-          break;
+      } finally {
+        if (loadExecutor != null) {
+          loadExecutor.shutdownNow();
         }
       }
     }
 
+    /**
+     * Open a stream over the given (sub-)section of the image being loaded.
+     * The stream is independent of any other stream opened on the image, so
+     * that sections can be read concurrently. The caller must close it.
+     */
+    InputStream getInputStreamForSection(FileSummary.Section section,
+        String compressionCodec) throws IOException {
+      FileInputStream fin = new FileInputStream(imageFile);
+      try {
+        fin.getChannel().position(section.getOffset());
+        InputStream in = new BufferedInputStream(new LimitInputStream(fin,
+            section.getLength()));
+        return FSImageUtil.wrapInputStreamForCompression(conf,
+            compressionCodec, in);
+      } catch (IOException e) {
+        fin.close();
+        throw e;
+      }
+    }
+
     private void loadNameSystemSection(InputStream in) throws IOException {
       NameSystemSection s = NameSystemSection.parseDelimitedFrom(in);
       fsn.setGenerationStampV1(s.getGenstampV1());
@@ -288,7 +369,8 @@ private void loadNameSystemSection(InputStream in) throws IOException {
       }
     }
 
-    private void loadStringTableSection(InputStream in) throws IOException {
+    @VisibleForTesting
+    void loadStringTableSection(InputStream in) throws IOException {
       StringTableSection s = StringTableSection.parseDelimitedFrom(in);
       ctx.stringTable = new String[s.getNumEntry() + 1];
       for (int i = 0; i < s.getNumEntry(); ++i) {
@@ -344,10 +426,34 @@ public static final class Saver {
     private OutputStream sectionOutputStream;
     private CompressionCodec codec;
     private OutputStream underlyingOutputStream;
+    /** Start offset of the sub-section being written */
+    private long subSectionOffset;
+
+    /** Whether the inode sections are indexed with sub-sections */
+    private final boolean writeSubSections;
+    private final int targetSubSections;
+    private final int subSectionInodeThreshold;
+    private final int parallelThreads;
 
     Saver(SaveNamespaceContext context) {
+      this(context, new Configuration(false));
+    }
+
+    Saver(SaveNamespaceContext context, Configuration conf) {
       this.context = context;
       this.saverContext = new SaverContext();
+      this.writeSubSections = conf.getBoolean(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_DEFAULT);
+      this.targetSubSections = conf.getInt(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_TARGET_SECTIONS_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_TARGET_SECTIONS_DEFAULT);
+      this.subSectionInodeThreshold = conf.getInt(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_INODE_THRESHOLD_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_INODE_THRESHOLD_DEFAULT);
+      this.parallelThreads = conf.getInt(
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_KEY,
+          DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_DEFAULT);
     }
 
     public MD5Hash getSavedDigest() {
@@ -378,6 +484,62 @@ public void commitSection(FileSummary.Builder summary, SectionName name)
       currentOffset += length;
     }
 
+    /**
+     * Start indexing the section being written with sub-sections. The
+     * first sub-section begins with the next byte written.
+     */
+    void beginSubSections() throws IOException {
+      flushSectionOutputStream();
+      subSectionOffset = fileChannel.position();
+    }
+
+    /**
+     * Record a sub-section covering the data written since the previous
+     * sub-section, if any data has been written.
+     */
+    void commitSubSection(FileSummary.Builder summary, SectionName name)
+        throws IOException {
+      flushSectionOutputStream();
+      long position = fileChannel.position();
+      if (position > subSectionOffset) {
+        summary.addSubSections(FileSummary.Section.newBuilder()
+            .setName(name.name).setLength(position - subSectionOffset)
+            .setOffset(subSectionOffset));
+      }
+      subSectionOffset = position;
+    }
+
+    /**
+     * @return the number of inodes per sub-section, or 0 if the inode
+     * sections should not be split into sub-sections.
+     */
+    int getInodesPerSubSection(int numInodes) {
+      // A compressed section is a single stream and can only be decoded
+      // from its beginning.
+      if (!writeSubSections || codec != null || targetSubSections <= 1
+          || numInodes < subSectionInodeThreshold) {
+        return 0;
+      }
+      return Math.max(1, numInodes / targetSubSections);
+    }
+
+    int getParallelThreads() {
+      return parallelThreads;
+    }
+
+    /**
+     * @return an executor to serialize the inodes with, or null if they
+     * are serialized by the calling thread.
+     */
+    ExecutorService createSerializationExecutor() {
+      if (parallelThreads <= 1) {
+        return null;
+      }
+      return Executors.newFixedThreadPool(parallelThreads,
+          new ThreadFactoryBuilder().setDaemon(true)
+          .setNameFormat("FSImageSaver-%d").build());
+    }
+
     private void flushSectionOutputStream() throws IOException {
       if (codec != null) {
         ((CompressorStream) sectionOutputStream).finish();
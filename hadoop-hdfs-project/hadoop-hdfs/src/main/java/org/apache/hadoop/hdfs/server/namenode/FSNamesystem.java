@@ -37,6 +37,8 @@
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_ACCESSTIME_PRECISION_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOGGERS_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_ASYNC_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_ASYNC_EVENTS_DEFAULT;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_ASYNC_EVENTS_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_ASYNC_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_TOKEN_TRACKING_ID_DEFAULT;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_TOKEN_TRACKING_ID_KEY;
@@ -115,6 +117,7 @@
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -164,6 +167,7 @@
 import org.apache.hadoop.hdfs.protocol.DatanodeID;
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
 import org.apache.hadoop.hdfs.protocol.DirectoryListing;
+import org.apache.hadoop.hdfs.protocol.ErasureCodingPolicy;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants.DatanodeReportType;
@@ -171,6 +175,7 @@
 import org.apache.hadoop.hdfs.protocol.HdfsFileStatus;
 import org.apache.hadoop.hdfs.protocol.LocatedBlock;
 import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
+import org.apache.hadoop.hdfs.protocol.LocatedStripedBlock;
 import org.apache.hadoop.hdfs.protocol.QuotaExceededException;
 import org.apache.hadoop.hdfs.protocol.RecoveryInProgressException;
 import org.apache.hadoop.hdfs.protocol.RollingUpgradeException;
@@ -234,12 +239,14 @@
 import org.apache.hadoop.hdfs.server.protocol.StorageReceivedDeletedBlocks;
 import org.apache.hadoop.hdfs.server.protocol.StorageReport;
 import org.apache.hadoop.hdfs.util.ChunkedArrayList;
+import org.apache.hadoop.hdfs.util.StripedBlockUtil;
 import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.ipc.RetriableException;
 import org.apache.hadoop.ipc.RetryCache;
 import org.apache.hadoop.ipc.RetryCache.CacheEntry;
 import org.apache.hadoop.ipc.RetryCache.CacheEntryWithPayload;
+import org.apache.hadoop.ipc.RpcConstants;
 import org.apache.hadoop.ipc.Server;
 import org.apache.hadoop.ipc.StandbyException;
 import org.apache.hadoop.metrics2.annotation.Metric;
@@ -398,6 +405,8 @@ private void logAuditEvent(boolean succeeded,
   // underlying logger is disabled, and avoid some unnecessary work.
   private final boolean isDefaultAuditLogger;
   private final List<AuditLogger> auditLoggers;
+  /** Dispatches the audit events to the audit loggers, if asynchronous. */
+  private final AsyncAuditLogger asyncAuditLogger;
 
   /** The namespace tree. */
   FSDirectory dir;
@@ -405,6 +414,8 @@ private void logAuditEvent(boolean succeeded,
   private final SnapshotManager snapshotManager;
   private final CacheManager cacheManager;
   private final DatanodeStatistics datanodeStatistics;
+  private final GlobalStateIdContext globalStateIdContext =
+      new GlobalStateIdContext(this);
 
   private RollingUpgradeInfo rollingUpgradeInfo = null;
   /**
@@ -689,7 +700,22 @@ static FSNamesystem loadFromDisk(Configuration conf) throws IOException {
     }
     boolean fair = conf.getBoolean("dfs.namenode.fslock.fair", true);
     LOG.info("fsLock is fair:" + fair);
-    fsLock = new FSNamesystemLock(fair);
+    long writeLockReportingThreshold = conf.getLong(
+        DFSConfigKeys.DFS_NAMENODE_WRITE_LOCK_REPORTING_THRESHOLD_MS_KEY,
+        DFSConfigKeys.DFS_NAMENODE_WRITE_LOCK_REPORTING_THRESHOLD_MS_DEFAULT);
+    int lockStripes = 0;
+    if (conf.getBoolean(DFSConfigKeys.DFS_NAMENODE_FSLOCK_PARTITIONED_KEY,
+        DFSConfigKeys.DFS_NAMENODE_FSLOCK_PARTITIONED_DEFAULT)) {
+      lockStripes = conf.getInt(
+          DFSConfigKeys.DFS_NAMENODE_FSLOCK_PARTITIONED_STRIPES_KEY,
+          DFSConfigKeys.DFS_NAMENODE_FSLOCK_PARTITIONED_STRIPES_DEFAULT);
+      Preconditions.checkArgument(lockStripes > 0, "%s must be positive",
+          DFSConfigKeys.DFS_NAMENODE_FSLOCK_PARTITIONED_STRIPES_KEY);
+      LOG.info("fsLock is partitioned over " + lockStripes
+          + " inode stripes for single inode attribute updates");
+    }
+    fsLock = new FSNamesystemLock(fair, writeLockReportingThreshold,
+        lockStripes);
     try {
       resourceRecheckInterval = conf.getLong(
           DFS_NAMENODE_RESOURCE_CHECK_INTERVAL_KEY,
@@ -785,9 +811,19 @@ static FSNamesystem loadFromDisk(Configuration conf) throws IOException {
       this.snapshotManager = new SnapshotManager(dir);
       this.cacheManager = new CacheManager(this, conf, blockManager);
       this.safeMode = new SafeModeInfo(conf);
-      this.auditLoggers = initAuditLoggers(conf);
-      this.isDefaultAuditLogger = auditLoggers.size() == 1 &&
-        auditLoggers.get(0) instanceof DefaultAuditLogger;
+      List<AuditLogger> loggers = initAuditLoggers(conf);
+      this.isDefaultAuditLogger = loggers.size() == 1 &&
+        loggers.get(0) instanceof DefaultAuditLogger;
+      if (conf.getBoolean(DFS_NAMENODE_AUDIT_LOG_ASYNC_EVENTS_KEY,
+          DFS_NAMENODE_AUDIT_LOG_ASYNC_EVENTS_DEFAULT)) {
+        this.asyncAuditLogger = new AsyncAuditLogger(loggers);
+        asyncAuditLogger.initialize(conf);
+        this.auditLoggers =
+            Collections.<AuditLogger>singletonList(asyncAuditLogger);
+      } else {
+        this.asyncAuditLogger = null;
+        this.auditLoggers = loggers;
+      }
       this.retryCache = ignoreRetryCache ? null : initRetryCache(conf);
       this.aclConfigFlag = new AclConfigFlag(conf);
     } catch(IOException e) {
@@ -912,6 +948,12 @@ private void loadFSImage(StartupOption startOpt) throws IOException {
       if (!haEnabled || (haEnabled && startOpt == StartupOption.UPGRADE)) {
         fsImage.openEditLogForWrite();
       }
+      if (dir.isCompactingFiles()) {
+        final long start = Time.monotonicNow();
+        final int n = dir.compactFiles();
+        LOG.info("Moved " + n + " closed files into the compact store in "
+            + (Time.monotonicNow() - start) + " ms");
+      }
       success = true;
     } finally {
       if (!success) {
@@ -1353,6 +1395,7 @@ public static List<URI> getSharedEditsDirs(Configuration conf) {
   @Override
   public void readLock() {
     this.fsLock.readLock().lock();
+    this.fsLock.enterReaders();
   }
   @Override
   public void longReadLockInterruptibly() throws InterruptedException {
@@ -1365,20 +1408,24 @@ public void longReadLockInterruptibly() throws InterruptedException {
       this.fsLock.longReadLock().unlock();
       throw ie;
     }
+    this.fsLock.enterReaders();
   }
   @Override
   public void longReadUnlock() {
+    this.fsLock.leaveReaders();
     this.fsLock.readLock().unlock();
     this.fsLock.longReadLock().unlock();
   }
   @Override
   public void readUnlock() {
+    this.fsLock.leaveReaders();
     this.fsLock.readLock().unlock();
   }
   @Override
   public void writeLock() {
     this.fsLock.longReadLock().lock();
     this.fsLock.writeLock().lock();
+    this.fsLock.writeLockAcquired();
   }
   @Override
   public void writeLockInterruptibly() throws InterruptedException {
@@ -1391,21 +1438,115 @@ public void writeLockInterruptibly() throws InterruptedException {
       this.fsLock.longReadLock().unlock();
       throw ie;
     }
+    this.fsLock.writeLockAcquired();
   }
   @Override
   public void writeUnlock() {
+    final long heldTime = this.fsLock.writeLockReleasing();
     this.fsLock.writeLock().unlock();
     this.fsLock.longReadLock().unlock();
+    if (heldTime >= 0) {
+      NameNodeMetrics nnMetrics = NameNode.getNameNodeMetrics();
+      if (nnMetrics != null) {
+        nnMetrics.addWriteLockHold(heldTime);
+      }
+    }
   }
+  /**
+   * @return whether the current thread holds the write lock, or holds the
+   *         namesystem for a partitioned update; see
+   *         {@link #partitionedWriteLock()}
+   */
   @Override
   public boolean hasWriteLock() {
-    return this.fsLock.isWriteLockedByCurrentThread();
+    return this.fsLock.isWriteLockedByCurrentThread()
+        || this.fsLock.isPartitionedWriter();
   }
   @Override
   public boolean hasReadLock() {
     return this.fsLock.getReadHoldCount() > 0 || hasWriteLock();
   }
 
+  /**
+   * Lock the namesystem for an update of the attributes of a single inode.
+   * In partitioned mode only the read lock is taken, and the update is done
+   * under the lock of the inode's stripe; see {@link #getINodeLock(long)}.
+   */
+  private void attributeUpdateLock(boolean partitioned) {
+    if (partitioned) {
+      readLock();
+    } else {
+      writeLock();
+    }
+  }
+
+  private void attributeUpdateUnlock(boolean partitioned) {
+    if (partitioned) {
+      readUnlock();
+    } else {
+      writeUnlock();
+    }
+  }
+
+  /**
+   * Lock the namesystem for a partitioned update, which may create a file,
+   * add a block to a file or complete a file, in partitioned mode. The
+   * partitioned updates exclude the readers but run in parallel with each
+   * other. An update holds the lock of the stripe of the inode it changes,
+   * or of the parent directory of the file it creates, while it checks and
+   * changes the inode. It changes the structures shared by all inodes, like
+   * the quotas of the ancestors, the INodeMap, the lease manager and the
+   * BlocksMap, and logs the change, under the directory write lock. This
+   * also keeps the edits in the order of the inode, block and generation
+   * stamp ids they allocate.
+   */
+  void partitionedWriteLock() {
+    this.fsLock.readLock().lock();
+    this.fsLock.enterPartitionedWriters();
+  }
+
+  void partitionedWriteUnlock() {
+    this.fsLock.leavePartitionedWriters();
+    this.fsLock.readLock().unlock();
+  }
+
+  /**
+   * Lock the namesystem for a partitioned update if the given flag is set,
+   * or for writing otherwise.
+   */
+  private void structureUpdateLock(boolean partitioned) {
+    if (partitioned) {
+      partitionedWriteLock();
+    } else {
+      writeLock();
+    }
+  }
+
+  private void structureUpdateUnlock(boolean partitioned) {
+    if (partitioned) {
+      partitionedWriteUnlock();
+    } else {
+      writeUnlock();
+    }
+  }
+
+  /**
+   * @return whether the attributes of a single inode may be updated while
+   *         holding only the read lock, and files created, extended and
+   *         completed while holding the lock for a partitioned update
+   */
+  boolean isLockPartitioned() {
+    return this.fsLock.isPartitioned();
+  }
+
+  /**
+   * @return the lock that serializes the updates of the given inode that
+   *         are done without the write lock in partitioned mode
+   */
+  Lock getINodeLock(long inodeId) {
+    return this.fsLock.inodeLock(inodeId);
+  }
+
   public int getReadHoldCount() {
     return this.fsLock.getReadHoldCount();
   }
@@ -1453,6 +1594,10 @@ void close() {
       } catch (IOException ie) {
         LOG.error("Error closing FSDirectory", ie);
         IOUtils.cleanup(LOG, dir);
+      } finally {
+        if (asyncAuditLogger != null) {
+          asyncAuditLogger.close();
+        }
       }
     }
   }
@@ -1558,16 +1703,29 @@ private void setPermissionInt(String src, FsPermission permission)
     FSPermissionChecker pc = getPermissionChecker();
     checkOperation(OperationCategory.WRITE);
     byte[][] pathComponents = FSDirectory.getPathComponentsForReservedPath(src);
-    writeLock();
-    try {
-      checkOperation(OperationCategory.WRITE);
-      checkNameNodeSafeMode("Cannot set permission for " + src);
-      src = FSDirectory.resolvePath(src, pathComponents, dir);
-      checkOwner(pc, src);
-      dir.setPermission(src, permission);
-      resultingStat = getAuditFileInfo(src, false);
-    } finally {
-      writeUnlock();
+    boolean partitioned = isLockPartitioned();
+    boolean done = false;
+    while (!done) {
+      attributeUpdateLock(partitioned);
+      try {
+        checkOperation(OperationCategory.WRITE);
+        checkNameNodeSafeMode("Cannot set permission for " + src);
+        src = FSDirectory.resolvePath(src, pathComponents, dir);
+        checkOwner(pc, src);
+        if (partitioned) {
+          done = dir.setPermissionPartitioned(src, permission);
+        } else {
+          dir.setPermission(src, permission);
+          done = true;
+        }
+        if (done) {
+          resultingStat = getAuditFileInfo(src, false);
+        }
+      } finally {
+        attributeUpdateUnlock(partitioned);
+      }
+      // The change has to be recorded in a snapshot, take the write lock.
+      partitioned = false;
     }
     getEditLog().logSync();
     logAuditEvent(true, "setPermission", src, null, resultingStat);
@@ -1595,24 +1753,37 @@ private void setOwnerInt(String src, String username, String group)
     FSPermissionChecker pc = getPermissionChecker();
     checkOperation(OperationCategory.WRITE);
     byte[][] pathComponents = FSDirectory.getPathComponentsForReservedPath(src);
-    writeLock();
-    try {
-      checkOperation(OperationCategory.WRITE);
-      checkNameNodeSafeMode("Cannot set owner for " + src);
-      src = FSDirectory.resolvePath(src, pathComponents, dir);
-      checkOwner(pc, src);
-      if (!pc.isSuperUser()) {
-        if (username != null && !pc.getUser().equals(username)) {
-          throw new AccessControlException("Non-super user cannot change owner");
+    boolean partitioned = isLockPartitioned();
+    boolean done = false;
+    while (!done) {
+      attributeUpdateLock(partitioned);
+      try {
+        checkOperation(OperationCategory.WRITE);
+        checkNameNodeSafeMode("Cannot set owner for " + src);
+        src = FSDirectory.resolvePath(src, pathComponents, dir);
+        checkOwner(pc, src);
+        if (!pc.isSuperUser()) {
+          if (username != null && !pc.getUser().equals(username)) {
+            throw new AccessControlException("Non-super user cannot change owner");
+          }
+          if (group != null && !pc.containsGroup(group)) {
+            throw new AccessControlException("User does not belong to " + group);
+          }
         }
-        if (group != null && !pc.containsGroup(group)) {
-          throw new AccessControlException("User does not belong to " + group);
+        if (partitioned) {
+          done = dir.setOwnerPartitioned(src, username, group);
+        } else {
+          dir.setOwner(src, username, group);
+          done = true;
+        }
+        if (done) {
+          resultingStat = getAuditFileInfo(src, false);
         }
+      } finally {
+        attributeUpdateUnlock(partitioned);
       }
-      dir.setOwner(src, username, group);
-      resultingStat = getAuditFileInfo(src, false);
-    } finally {
-      writeUnlock();
+      // The change has to be recorded in a snapshot, take the write lock.
+      partitioned = false;
     }
     getEditLog().logSync();
     logAuditEvent(true, "setOwner", src, null, resultingStat);
@@ -1674,7 +1845,9 @@ private LocatedBlocks getBlockLocationsInt(String src, long offset,
     final LocatedBlocks ret = getBlockLocationsUpdateTimes(src,
         offset, length, doAccessTime, needBlockToken);  
     logAuditEvent(true, "open", src);
-    if (checkSafeMode && isInSafeMode()) {
+    // A group can be read without some of its internal blocks.
+    final boolean striped = ret.getErasureCodingPolicy() != null;
+    if (checkSafeMode && isInSafeMode() && !striped) {
       for (LocatedBlock b : ret.getLocatedBlocks()) {
         // if safemode & no block locations yet then throw safemodeException
         if ((b.getLocations() == null) || (b.getLocations().length == 0)) {
@@ -1689,6 +1862,22 @@ private LocatedBlocks getBlockLocationsInt(String src, long offset,
         }
       }
     }
+    if (isInStandbyState() && !striped) {
+      // The standby learns the replicas of new blocks from the incremental
+      // block reports of the DataNodes, which may arrive after the edits.
+      // Send the client to the active rather than return no locations.
+      final List<LocatedBlock> blocks =
+          new ArrayList<LocatedBlock>(ret.getLocatedBlocks());
+      if (ret.getLastLocatedBlock() != null) {
+        blocks.add(ret.getLastLocatedBlock());
+      }
+      for (LocatedBlock b : blocks) {
+        if (b.getLocations() == null || b.getLocations().length == 0) {
+          throw new StandbyException("Zero blocklocations for " + src +
+              " on the standby NameNode");
+        }
+      }
+    }
     return ret;
   }
 
@@ -1753,7 +1942,8 @@ && doAccessTime && isAccessTimeSupported()) {
         }
         LocatedBlocks blocks =
           blockManager.createLocatedBlocks(inode.getBlocks(), fileSize,
-            isUc, offset, length, needBlockToken, iip.isSnapshot());
+            isUc, offset, length, needBlockToken, iip.isSnapshot(),
+            inode.getErasureCodingPolicy());
         // Set caching information for the located blocks.
         for (LocatedBlock lb: blocks.getLocatedBlocks()) {
           cacheManager.setCachedLocations(lb);
@@ -1881,6 +2071,10 @@ private void concatInternal(FSPermissionChecker pc, String target,
       throw new HadoopIllegalArgumentException("concat: target file "
           + target + " is in a snapshot");
     }
+    if (trgInode.isStriped()) {
+      throw new HadoopIllegalArgumentException("concat: target file "
+          + target + " is erasure coded");
+    }
 
     long blockSize = trgInode.getPreferredBlockSize();
 
@@ -1909,6 +2103,10 @@ private void concatInternal(FSPermissionChecker pc, String target,
         throw new HadoopIllegalArgumentException("concat: source file " + src
             + " is invalid or empty or underConstruction");
       }
+      if (srcInode.isStriped()) {
+        throw new HadoopIllegalArgumentException("concat: source file " + src
+            + " is erasure coded");
+      }
 
       // check replication and blocks size
       if(repl != srcInode.getBlockReplication()) {
@@ -1977,26 +2175,38 @@ private void setTimesInt(String src, long mtime, long atime)
     FSPermissionChecker pc = getPermissionChecker();
     checkOperation(OperationCategory.WRITE);
     byte[][] pathComponents = FSDirectory.getPathComponentsForReservedPath(src);
-    writeLock();
-    try {
-      checkOperation(OperationCategory.WRITE);
-      checkNameNodeSafeMode("Cannot set times " + src);
-      src = FSDirectory.resolvePath(src, pathComponents, dir);
+    boolean partitioned = isLockPartitioned();
+    boolean done = false;
+    while (!done) {
+      attributeUpdateLock(partitioned);
+      try {
+        checkOperation(OperationCategory.WRITE);
+        checkNameNodeSafeMode("Cannot set times " + src);
+        src = FSDirectory.resolvePath(src, pathComponents, dir);
 
-      // Write access is required to set access and modification times
-      if (isPermissionEnabled) {
-        checkPathAccess(pc, src, FsAction.WRITE);
-      }
-      final INodesInPath iip = dir.getINodesInPath4Write(src);
-      final INode inode = iip.getLastINode();
-      if (inode != null) {
-        dir.setTimes(src, inode, mtime, atime, true, iip.getLatestSnapshotId());
-        resultingStat = getAuditFileInfo(src, false);
-      } else {
-        throw new FileNotFoundException("File/Directory " + src + " does not exist.");
+        // Write access is required to set access and modification times
+        if (isPermissionEnabled) {
+          checkPathAccess(pc, src, FsAction.WRITE);
+        }
+        final INodesInPath iip = dir.getINodesInPath4Write(src);
+        final INode inode = iip.getLastINode();
+        if (inode == null) {
+          throw new FileNotFoundException("File/Directory " + src + " does not exist.");
+        }
+        if (partitioned) {
+          done = dir.setTimesPartitioned(src, mtime, atime);
+        } else {
+          dir.setTimes(src, inode, mtime, atime, true, iip.getLatestSnapshotId());
+          done = true;
+        }
+        if (done) {
+          resultingStat = getAuditFileInfo(src, false);
+        }
+      } finally {
+        attributeUpdateUnlock(partitioned);
       }
-    } finally {
-      writeUnlock();
+      // The change has to be recorded in a snapshot, take the write lock.
+      partitioned = false;
     }
     logAuditEvent(true, "setTimes", src, null, resultingStat);
   }
@@ -2106,6 +2316,12 @@ private boolean setReplicationInt(String src, final short replication)
       if (isPermissionEnabled) {
         checkPathAccess(pc, src, FsAction.WRITE);
       }
+      final INode inode = dir.getINode(src);
+      if (inode != null && inode.isFile() && inode.asFile().isStriped()) {
+        throw new IOException("Cannot set replication for " + src
+            + ": every internal block of an erasure coded file has one"
+            + " replica");
+      }
 
       final short[] blockRepls = new short[2]; // 0: old, 1: new
       final Block[] blocks = dir.setReplication(src, replication, blockRepls);
@@ -2228,25 +2444,41 @@ private HdfsFileStatus startFileInt(String src, PermissionStatus permissions,
     byte[][] pathComponents = FSDirectory.getPathComponentsForReservedPath(src);
     boolean create = flag.contains(CreateFlag.CREATE);
     boolean overwrite = flag.contains(CreateFlag.OVERWRITE);
-    writeLock();
-    try {
-      checkOperation(OperationCategory.WRITE);
-      checkNameNodeSafeMode("Cannot create file" + src);
-      src = FSDirectory.resolvePath(src, pathComponents, dir);
-      startFileInternal(pc, src, permissions, holder, clientMachine, create,
-          overwrite, createParent, replication, blockSize, logRetryCache);
-      stat = dir.getFileInfo(src, false);
-    } catch (StandbyException se) {
-      skipSync = true;
-      throw se;
-    } finally {
-      writeUnlock();
-      // There might be transactions logged while trying to recover the lease.
-      // They need to be sync'ed even when an exception was thrown.
-      if (!skipSync) {
-        getEditLog().logSync();
+    boolean partitioned = isLockPartitioned() && create;
+    boolean done = false;
+    while (!done) {
+      structureUpdateLock(partitioned);
+      try {
+        checkOperation(OperationCategory.WRITE);
+        checkNameNodeSafeMode("Cannot create file" + src);
+        src = FSDirectory.resolvePath(src, pathComponents, dir);
+        if (partitioned) {
+          done = startFilePartitioned(pc, src, permissions, holder,
+              clientMachine, replication, blockSize, logRetryCache);
+        } else {
+          startFileInternal(pc, src, permissions, holder, clientMachine,
+              create, overwrite, createParent, replication, blockSize,
+              logRetryCache);
+          done = true;
+        }
+        if (done) {
+          stat = dir.getFileInfo(src, false);
+        }
+      } catch (StandbyException se) {
+        skipSync = true;
+        throw se;
+      } finally {
+        structureUpdateUnlock(partitioned);
+        // There might be transactions logged while trying to recover the
+        // lease. They need to be sync'ed even when an exception was thrown.
+        if (!skipSync && (done || !partitioned)) {
+          getEditLog().logSync();
+        }
       }
-    } 
+      // The file exists, its parent has to be created or the creation has
+      // to be recorded in a snapshot, take the write lock.
+      partitioned = false;
+    }
 
     logAuditEvent(true, "create", src, null, stat);
     return stat;
@@ -2337,6 +2569,77 @@ private void startFileInternal(FSPermissionChecker pc, String src,
     }
   }
   
+  /**
+   * Create a new file holding the namesystem for a partitioned update; see
+   * {@link #partitionedWriteLock()}. Only the creation of a file that does
+   * not exist yet, in an existing directory that is not in a snapshot, is
+   * partitioned. It is done under the lock of the parent directory's
+   * stripe, so that the files created in a directory are checked and added
+   * one at a time.
+   *
+   * @return false if nothing was changed, since the creation needs the
+   *         write lock
+   */
+  private boolean startFilePartitioned(FSPermissionChecker pc, String src,
+      PermissionStatus permissions, String holder, String clientMachine,
+      short replication, long blockSize, boolean logRetryEntry)
+      throws AccessControlException,
+      UnresolvedLinkException, FileNotFoundException,
+      ParentNotDirectoryException, IOException {
+    assert hasWriteLock();
+    INodesInPath iip = dir.getINodesInPath4Write(src);
+    INode[] inodes = iip.getINodes();
+    if (inodes.length < 2 || inodes[inodes.length - 1] != null
+        || iip.getLatestSnapshotId() != Snapshot.CURRENT_STATE_ID) {
+      return false;
+    }
+    final INode parent = inodes[inodes.length - 2];
+    if (parent == null || !parent.isDirectory() || parent.isReference()) {
+      return false;
+    }
+    if (isPermissionEnabled) {
+      checkAncestorAccess(pc, src, FsAction.WRITE);
+    }
+
+    final Lock parentLock = getINodeLock(parent.getId());
+    parentLock.lock();
+    try {
+      // Another partitioned update may have created the file meanwhile.
+      if (dir.getINode4Write(src) != null) {
+        return false;
+      }
+      checkFsObjectLimit();
+      final DatanodeDescriptor clientNode =
+          blockManager.getDatanodeManager().getDatanodeByHost(clientMachine);
+
+      dir.writeLock();
+      try {
+        INodeFile newNode = dir.addFile(src, permissions, replication,
+            blockSize, holder, clientMachine, clientNode);
+        if (newNode == null) {
+          throw new IOException("DIR* NameSystem.startFile: " +
+              "Unable to add file to namespace.");
+        }
+        leaseManager.addLease(newNode.getFileUnderConstructionFeature()
+            .getClientName(), src);
+        getEditLog().logOpenFile(src, newNode, logRetryEntry);
+      } finally {
+        dir.writeUnlock();
+      }
+    } catch (IOException ie) {
+      NameNode.stateChangeLog.warn("DIR* NameSystem.startFile: "
+          + ie.getMessage());
+      throw ie;
+    } finally {
+      parentLock.unlock();
+    }
+    if (NameNode.stateChangeLog.isDebugEnabled()) {
+      NameNode.stateChangeLog.debug("DIR* NameSystem.startFile: "
+          + "add " + src + " to namespace for " + holder);
+    }
+    return true;
+  }
+
   /**
    * Append to an existing file for append.
    * <p>
@@ -2375,6 +2678,10 @@ private LocatedBlock appendFileInternal(FSPermissionChecker pc, String src,
           + src + " on client " + clientMachine);
       }
       INodeFile myFile = INodeFile.valueOf(inode, src, true);
+      if (myFile.isStriped()) {
+        throw new IOException("Cannot append to " + src
+            + ": appending to erasure coded files is not supported");
+      }
       // Opening an existing file for write - may need to recover lease.
       recoverLeaseInternal(myFile, src, holder, clientMachine, false);
       
@@ -2657,6 +2964,7 @@ LocatedBlock getAdditionalBlock(String src, long fileId, String clientName,
       IOException {
     long blockSize;
     int replication;
+    ErasureCodingPolicy ecPolicy;
     DatanodeDescriptor clientNode = null;
 
     if(NameNode.stateChangeLog.isDebugEnabled()) {
@@ -2689,7 +2997,10 @@ LocatedBlock getAdditionalBlock(String src, long fileId, String clientName,
       }
       blockSize = pendingFile.getPreferredBlockSize();
       clientNode = pendingFile.getFileUnderConstructionFeature().getClientNode();
-      replication = pendingFile.getFileReplication();
+      ecPolicy = pendingFile.getErasureCodingPolicy();
+      // every internal block of a block group goes to a different datanode
+      replication = ecPolicy != null ? ecPolicy.getNumUnits()
+          : pendingFile.getFileReplication();
     } finally {
       readUnlock();
     }
@@ -2697,13 +3008,35 @@ LocatedBlock getAdditionalBlock(String src, long fileId, String clientName,
     // choose targets for the new block to be allocated.
     final DatanodeStorageInfo targets[] = getBlockManager().chooseTarget( 
         src, replication, clientNode, excludedNodes, blockSize, favoredNodes);
+    if (ecPolicy != null && targets.length < replication) {
+      throw new IOException("File " + src + " could only be written to "
+          + targets.length + " of the " + replication + " datanodes a block"
+          + " group of " + ecPolicy.getName() + " needs.");
+    }
 
     // Part II.
     // Allocate a new block, add it to the INode and the BlocksMap. 
     Block newBlock = null;
     long offset;
     checkOperation(OperationCategory.WRITE);
-    writeLock();
+    boolean partitioned = false;
+    Lock fileLock = null;
+    if (isLockPartitioned()) {
+      partitionedWriteLock();
+      try {
+        checkOperation(OperationCategory.WRITE);
+        fileLock = lockINodeForPartitionedUpdate(src);
+      } finally {
+        if (fileLock == null) {
+          partitionedWriteUnlock();
+        }
+      }
+      // Without a file the analysis below fails under the write lock.
+      partitioned = fileLock != null;
+    }
+    if (!partitioned) {
+      writeLock();
+    }
     try {
       checkOperation(OperationCategory.WRITE);
       // Run the full analysis again, since things could have changed
@@ -2718,6 +3051,17 @@ LocatedBlock getAdditionalBlock(String src, long fileId, String clientName,
         if (onRetryBlock[0].getLocations().length > 0) {
           // This is a retry. Just return the last block if having locations.
           return onRetryBlock[0];
+        } else if (ecPolicy != null) {
+          // add new chosen targets to already allocated group and return
+          final BlockInfo[] blocks = pendingFile.getBlocks();
+          final int first = blocks.length - replication;
+          for (int unit = 0; unit < replication; unit++) {
+            ((BlockInfoUnderConstruction) blocks[first + unit])
+                .setExpectedLocations(
+                    new DatanodeStorageInfo[] { targets[unit] });
+          }
+          offset = pendingFile.computeFileSize();
+          return makeLocatedStripedBlock(blocks[first], targets, offset);
         } else {
           // add new chosen targets to already allocated block and return
           BlockInfo lastBlockInFile = pendingFile.getLastBlock();
@@ -2728,23 +3072,40 @@ LocatedBlock getAdditionalBlock(String src, long fileId, String clientName,
         }
       }
 
-      // commit the last block and complete it if it has minimum replicas
-      commitOrCompleteLastBlock(pendingFile,
-                                ExtendedBlock.getLocalBlock(previous));
-
-      // allocate new block, record block locations in INode.
-      newBlock = createNewBlock();
-      saveAllocatedBlock(src, inodesInPath, newBlock, targets);
-
-      dir.persistNewBlock(src, pendingFile);
+      // Serialize with the other partitioned updates; see
+      // partitionedWriteLock().
+      dir.writeLock();
+      try {
+        // commit the last block and complete it if it has minimum replicas
+        commitOrCompleteLastBlock(pendingFile,
+                                  ExtendedBlock.getLocalBlock(previous));
+
+        // allocate new block, record block locations in INode.
+        if (ecPolicy != null) {
+          newBlock = createNewBlockGroup(replication);
+          saveAllocatedBlockGroup(src, inodesInPath, newBlock, targets);
+          // OP_ADD_BLOCK only carries the last block
+          dir.persistBlocks(src, pendingFile, false);
+        } else {
+          newBlock = createNewBlock();
+          saveAllocatedBlock(src, inodesInPath, newBlock, targets);
+          dir.persistNewBlock(src, pendingFile);
+        }
+      } finally {
+        dir.writeUnlock();
+      }
       offset = pendingFile.computeFileSize();
     } finally {
-      writeUnlock();
+      if (partitioned) {
+        fileLock.unlock();
+      }
+      structureUpdateUnlock(partitioned);
     }
     getEditLog().logSync();
 
     // Return located block
-    return makeLocatedBlock(newBlock, targets, offset);
+    return ecPolicy != null ? makeLocatedStripedBlock(newBlock, targets, offset)
+        : makeLocatedBlock(newBlock, targets, offset);
   }
 
   INodesInPath analyzeFileState(String src,
@@ -2767,7 +3128,11 @@ INodesInPath analyzeFileState(String src,
     final INodesInPath iip = dir.getINodesInPath4Write(src);
     final INodeFile pendingFile
         = checkLease(src, fileId, clientName, iip.getLastINode());
-    BlockInfo lastBlockInFile = pendingFile.getLastBlock();
+    // The client of an erasure coded file passes the first internal block
+    // of a block group.
+    final boolean striped = pendingFile.isStriped();
+    BlockInfo lastBlockInFile = striped ? pendingFile.getLastBlockGroup()
+        : pendingFile.getLastBlock();
     if (!Block.matchingIdAndGenStamp(previousBlock, lastBlockInFile)) {
       // The block that the client claims is the current last block
       // doesn't match up with what we think is the last block. There are
@@ -2795,8 +3160,10 @@ INodesInPath analyzeFileState(String src,
       //    changed the namesystem state yet.
       //    We run this analysis again in Part II where case 4 is impossible.
 
-      BlockInfo penultimateBlock = pendingFile.getPenultimateBlock();
-      if (previous == null &&
+      BlockInfo penultimateBlock = striped ?
+          pendingFile.getPenultimateBlockGroup()
+          : pendingFile.getPenultimateBlock();
+      if (previous == null && !striped &&
           lastBlockInFile != null &&
           lastBlockInFile.getNumBytes() == pendingFile.getPreferredBlockSize() &&
           lastBlockInFile.isComplete()) {
@@ -2821,6 +3188,11 @@ INodesInPath analyzeFileState(String src,
             "caught retry for allocation of a new block in " +
             src + ". Returning previously allocated block " + lastBlockInFile);
         long offset = pendingFile.computeFileSize();
+        if (striped) {
+          onRetryBlock[0] = makeLocatedStripedBlock(lastBlockInFile,
+              getBlockGroupExpectedLocations(pendingFile), offset);
+          return iip;
+        }
         onRetryBlock[0] = makeLocatedBlock(lastBlockInFile,
             ((BlockInfoUnderConstruction)lastBlockInFile).getExpectedStorageLocations(),
             offset);
@@ -2849,6 +3221,41 @@ LocatedBlock makeLocatedBlock(Block blk, DatanodeStorageInfo[] locs,
     return lBlk;
   }
 
+  /**
+   * @param group the first internal block of a block group
+   * @param locs the storage of each internal block, or none if unknown
+   */
+  LocatedBlock makeLocatedStripedBlock(Block group, DatanodeStorageInfo[] locs,
+      long offset) throws IOException {
+    LocatedBlock lBlk = new LocatedStripedBlock(getExtendedBlock(group),
+        DatanodeStorageInfo.toDatanodeInfos(locs),
+        DatanodeStorageInfo.toStorageIDs(locs),
+        DatanodeStorageInfo.toStorageTypes(locs), offset);
+    getBlockManager().setBlockToken(
+        lBlk, BlockTokenSecretManager.AccessMode.WRITE);
+    return lBlk;
+  }
+
+  /**
+   * @return the expected storage of each internal block of the last block
+   *         group of an erasure coded file, or none if one is not known
+   */
+  private static DatanodeStorageInfo[] getBlockGroupExpectedLocations(
+      INodeFile file) {
+    final BlockInfo[] blocks = file.getBlocks();
+    final int numUnits = file.getErasureCodingPolicy().getNumUnits();
+    final DatanodeStorageInfo[] locs = new DatanodeStorageInfo[numUnits];
+    for (int unit = 0; unit < numUnits; unit++) {
+      final DatanodeStorageInfo[] expected = ((BlockInfoUnderConstruction)
+          blocks[blocks.length - numUnits + unit]).getExpectedStorageLocations();
+      if (expected.length == 0) {
+        return expected;
+      }
+      locs[unit] = expected[0];
+    }
+    return locs;
+  }
+
   /** @see NameNode#getAdditionalDatanode(String, ExtendedBlock, DatanodeInfo[], DatanodeInfo[], int, String) */
   LocatedBlock getAdditionalDatanode(String src, final ExtendedBlock blk,
       final DatanodeInfo[] existings, final String[] storageIDs,
@@ -2914,6 +3321,10 @@ boolean abandonBlock(ExtendedBlock b, String src, String holder)
       // Remove the block from the pending creates list
       //
       INodeFile file = checkLease(src, holder);
+      if (file.isStriped()) {
+        throw new IOException("Cannot abandon block " + b + " of " + src
+            + ": the blocks of erasure coded files are allocated in groups");
+      }
       boolean removed = dir.removeBlock(src, file,
           ExtendedBlock.getLocalBlock(b));
       if (!removed) {
@@ -2984,15 +3395,36 @@ boolean completeFile(String src, String holder,
     boolean success = false;
     checkOperation(OperationCategory.WRITE);
     byte[][] pathComponents = FSDirectory.getPathComponentsForReservedPath(src);
-    writeLock();
-    try {
-      checkOperation(OperationCategory.WRITE);
-      checkNameNodeSafeMode("Cannot complete file " + src);
-      src = FSDirectory.resolvePath(src, pathComponents, dir);
-      success = completeFileInternal(src, holder,
-        ExtendedBlock.getLocalBlock(last), fileId);
-    } finally {
-      writeUnlock();
+    boolean partitioned = isLockPartitioned();
+    boolean done = false;
+    while (!done) {
+      structureUpdateLock(partitioned);
+      Lock fileLock = null;
+      try {
+        checkOperation(OperationCategory.WRITE);
+        checkNameNodeSafeMode("Cannot complete file " + src);
+        src = FSDirectory.resolvePath(src, pathComponents, dir);
+        if (partitioned) {
+          // A file in a snapshot has to record its modification in the
+          // snapshot, which changes the diff lists of the ancestors.
+          if (dir.getLastINodeInPath(src).getLatestSnapshotId()
+              == Snapshot.CURRENT_STATE_ID) {
+            fileLock = lockINodeForPartitionedUpdate(src);
+          }
+          if (fileLock == null) {
+            continue;
+          }
+        }
+        success = completeFileInternal(src, holder,
+          ExtendedBlock.getLocalBlock(last), fileId);
+        done = true;
+      } finally {
+        if (fileLock != null) {
+          fileLock.unlock();
+        }
+        structureUpdateUnlock(partitioned);
+        partitioned = false;
+      }
     }
     getEditLog().logSync();
     if (success) {
@@ -3021,7 +3453,9 @@ private boolean completeFileInternal(String src,
         // the client's view of the last block matches the actual
         // last block, then we'll treat it as a successful close.
         // See HDFS-3031.
-        final Block realLastBlock = inode.asFile().getLastBlock();
+        final INodeFile file = inode.asFile();
+        final Block realLastBlock = file.isStriped() ?
+            file.getLastBlockGroup() : file.getLastBlock();
         if (Block.matchingIdAndGenStamp(last, realLastBlock)) {
           NameNode.stateChangeLog.info("DIR* completeFile: " +
               "request from " + holder + " to complete " + src +
@@ -3038,18 +3472,50 @@ private boolean completeFileInternal(String src,
       return false;
     }
 
-    // commit the last block and complete it if it has minimum replicas
-    commitOrCompleteLastBlock(pendingFile, last);
+    // Serialize with the other partitioned updates; see
+    // partitionedWriteLock().
+    dir.writeLock();
+    try {
+      // commit the last block and complete it if it has minimum replicas
+      commitOrCompleteLastBlock(pendingFile, last);
+      if (pendingFile.isStriped()) {
+        completeReadableBlockGroups(pendingFile);
+      }
 
-    if (!checkFileProgress(pendingFile, true)) {
-      return false;
-    }
+      if (!checkFileProgress(pendingFile, true)) {
+        return false;
+      }
 
-    finalizeINodeFileUnderConstruction(src, pendingFile,
-        iip.getLatestSnapshotId());
+      finalizeINodeFileUnderConstruction(src, pendingFile,
+          iip.getLatestSnapshotId());
+    } finally {
+      dir.writeUnlock();
+    }
     return true;
   }
 
+  /**
+   * Lock the stripe of the file at the given path for a partitioned update;
+   * see {@link #partitionedWriteLock()}. The file cannot be deleted or
+   * renamed meanwhile, since that takes the write lock.
+   *
+   * @return the lock, held by the caller, or null if there is no file at
+   *         the path or the file is a reference, which the write lock is
+   *         needed for
+   */
+  private Lock lockINodeForPartitionedUpdate(String src)
+      throws UnresolvedLinkException {
+    assert fsLock.isPartitionedWriter();
+    final INode inode = dir.getINode(src);
+    if (inode == null || !inode.isFile() || inode.isReference()
+        || INodeFileFlyweight.isView(inode)) {
+      return null;
+    }
+    final Lock lock = getINodeLock(inode.getId());
+    lock.lock();
+    return lock;
+  }
+
   /**
    * Save allocated block at the given pending filename
    * 
@@ -3069,6 +3535,69 @@ BlockInfo saveAllocatedBlock(String src, INodesInPath inodesInPath,
     return b;
   }
 
+  /**
+   * Save an allocated block group at the given pending filename: one
+   * internal block per target, with consecutive IDs.
+   *
+   * @throws QuotaExceededException If addition of block exceeds space quota
+   */
+  void saveAllocatedBlockGroup(String src, INodesInPath inodesInPath,
+      Block group, DatanodeStorageInfo[] targets) throws IOException {
+    assert hasWriteLock();
+    for (int unit = 0; unit < targets.length; unit++) {
+      dir.addBlock(src, inodesInPath,
+          new Block(group.getBlockId() + unit, 0, group.getGenerationStamp()),
+          new DatanodeStorageInfo[] { targets[unit] });
+    }
+    NameNode.stateChangeLog.info("BLOCK* allocateBlockGroup: " + src + ". "
+        + getBlockPoolId() + " " + group + " with " + targets.length
+        + " internal blocks");
+    DatanodeStorageInfo.incrementBlocksScheduled(targets);
+  }
+
+  /**
+   * Create the first internal block of a new block group, with the first of
+   * numUnits unique consecutive block ids and a new generation stamp, which
+   * all the internal blocks share.
+   */
+  Block createNewBlockGroup(int numUnits) throws IOException {
+    assert hasWriteLock();
+    Block b = new Block(nextBlockIds(numUnits), 0, 0);
+    b.setGenerationStamp(nextGenerationStamp(false));
+    return b;
+  }
+
+  /**
+   * Complete every block group of an erasure coded file that has enough
+   * complete internal blocks to be read. The other internal blocks of the
+   * group are left to reconstruction.
+   */
+  private void completeReadableBlockGroups(INodeFile file)
+      throws IOException {
+    assert hasWriteLock();
+    final ErasureCodingPolicy ecPolicy = file.getErasureCodingPolicy();
+    final int numUnits = ecPolicy.getNumUnits();
+    for (int first = 0; first + numUnits <= file.numBlocks();
+        first += numUnits) {
+      final int numComplete = countCompleteBlocks(file, first, numUnits);
+      if (numComplete >= ecPolicy.getNumDataUnits()
+          && numComplete < numUnits) {
+        blockManager.completeBlockGroup(file, first, true);
+      }
+    }
+  }
+
+  private static int countCompleteBlocks(INodeFile file, int first,
+      int count) {
+    int numComplete = 0;
+    for (int i = first; i < first + count; i++) {
+      if (file.getBlocks()[i].isComplete()) {
+        numComplete++;
+      }
+    }
+    return numComplete;
+  }
+
   /**
    * Create new block with a unique block id and a new generation stamp.
    */
@@ -3100,6 +3629,20 @@ boolean checkFileProgress(INodeFile v, boolean checkall) {
             return false;
           }
         }
+      } else if (v.isStriped()) {
+        //
+        // check that the penultimate block group of this file can be read
+        //
+        final ErasureCodingPolicy ecPolicy = v.getErasureCodingPolicy();
+        final int first = v.numBlocks() - 2 * ecPolicy.getNumUnits();
+        if (first >= 0 && countCompleteBlocks(v, first, ecPolicy.getNumUnits())
+            < ecPolicy.getNumDataUnits()) {
+          LOG.warn("BLOCK* checkFileProgress: block group "
+              + v.getBlocks()[first] + " has less than "
+              + ecPolicy.getNumDataUnits() + " internal blocks which have"
+              + " reached minimal replication " + blockManager.minReplication);
+          return false;
+        }
       } else {
         //
         // check the penultimate block of this file
@@ -3364,7 +3907,8 @@ private boolean deleteInternal(String src, boolean recursive,
     } finally {
       writeUnlock();
     }
-    getEditLog().logSync(); 
+    // The blocks must not be invalidated before the delete is durable.
+    getEditLog().logSyncAndWait();
     removeBlocks(collectedBlocks); // Incremental deletion of blocks
     collectedBlocks.clear();
     dir.writeLock();
@@ -3759,6 +4303,10 @@ boolean internalReleaseLease(Lease lease, String src,
       return true;  // closed!
     }
 
+    if (pendingFile.isStriped()) {
+      return internalReleaseStripedLease(src, iip, pendingFile);
+    }
+
     // Only the last and the penultimate blocks may be in non COMPLETE state.
     // If the penultimate block is not COMPLETE, then it must be COMMITTED.
     if(nrCompleteBlocks < nrBlocks - 2 ||
@@ -3855,6 +4403,56 @@ boolean internalReleaseLease(Lease lease, String src,
     return false;
   }
 
+  /**
+   * Release the lease of an erasure coded file which has incomplete blocks.
+   * The internal blocks of a group cannot be recovered one by one like the
+   * last block of a replicated file, so a last group the client has not
+   * committed is dropped, and the other groups are completed once they can
+   * be read.
+   *
+   * @return true, since the file is closed
+   */
+  private boolean internalReleaseStripedLease(String src, INodesInPath iip,
+      INodeFile pendingFile) throws IOException {
+    completeReadableBlockGroups(pendingFile);
+    final ErasureCodingPolicy ecPolicy = pendingFile.getErasureCodingPolicy();
+    final int first = pendingFile.numBlocks() - ecPolicy.getNumUnits();
+    final BlockInfo[] blocks = pendingFile.getBlocks();
+    for (int i = 0; i < first; i++) {
+      if (!blocks[i].isComplete()) {
+        final String message = "DIR* NameSystem.internalReleaseLease: "
+            + "Failed to release lease for file " + src + ". Block group "
+            + blocks[i - i % ecPolicy.getNumUnits()] + " is waiting to be"
+            + " minimally replicated. Try again later.";
+        NameNode.stateChangeLog.warn(message);
+        throw new AlreadyBeingCreatedException(message);
+      }
+    }
+    if (!blocks[first].isComplete()) {
+      for (int i = first; i < blocks.length; i++) {
+        if (blocks[i].getBlockUCState() == BlockUCState.COMMITTED) {
+          final String message = "DIR* NameSystem.internalReleaseLease: "
+              + "Failed to release lease for file " + src + ". Committed"
+              + " block group " + blocks[first] + " is waiting to be"
+              + " minimally replicated. Try again later.";
+          NameNode.stateChangeLog.warn(message);
+          throw new AlreadyBeingCreatedException(message);
+        }
+      }
+      for (int i = blocks.length - 1; i >= first; i--) {
+        dir.removeBlock(src, pendingFile, blocks[i]);
+      }
+      NameNode.stateChangeLog.warn("BLOCK* internalReleaseLease: "
+          + "Removed uncommitted last block group " + blocks[first]
+          + " of " + src);
+    }
+    finalizeINodeFileUnderConstruction(src, pendingFile,
+        iip.getLatestSnapshotId());
+    NameNode.stateChangeLog.warn("BLOCK* internalReleaseLease: "
+        + "Readable block groups are complete, lease removed, file closed.");
+    return true;
+  }
+
   private Lease reassignLease(Lease lease, String src, String newHolder,
       INodeFile pendingFile) {
     assert hasWriteLock();
@@ -3876,12 +4474,24 @@ private void commitOrCompleteLastBlock(final INodeFile fileINode,
       final Block commitBlock) throws IOException {
     assert hasWriteLock();
     Preconditions.checkArgument(fileINode.isUnderConstruction());
-    if (!blockManager.commitOrCompleteLastBlock(fileINode, commitBlock)) {
+    final ErasureCodingPolicy ecPolicy = fileINode.getErasureCodingPolicy();
+    final boolean committed = ecPolicy != null ?
+        blockManager.commitOrCompleteLastBlockGroup(fileINode, commitBlock)
+        : blockManager.commitOrCompleteLastBlock(fileINode, commitBlock);
+    if (!committed) {
       return;
     }
 
     // Adjust disk space consumption if required
-    final long diff = fileINode.getPreferredBlockSize() - commitBlock.getNumBytes();    
+    long diff = fileINode.getPreferredBlockSize() - commitBlock.getNumBytes();
+    if (ecPolicy != null) {
+      // each internal block was charged the preferred block size
+      diff = 0;
+      for (int unit = 0; unit < ecPolicy.getNumUnits(); unit++) {
+        diff += fileINode.getPreferredBlockSize() - StripedBlockUtil
+            .getInternalBlockLength(commitBlock.getNumBytes(), ecPolicy, unit);
+      }
+    }
     if (diff > 0) {
       try {
         String path = fileINode.getFullPathName();
@@ -4397,6 +5007,18 @@ public long getMissingBlocksCount() {
     return blockManager.getMissingBlocksCount();
   }
   
+  @Metric({"AuditEventsQueued",
+      "Number of audit events waiting to be logged asynchronously"})
+  public long getAuditEventsQueued() {
+    return asyncAuditLogger == null ? 0 : asyncAuditLogger.getQueueDepth();
+  }
+
+  @Metric({"AuditEventsDropped",
+      "Number of audit events dropped because the audit log was behind"})
+  public long getAuditEventsDropped() {
+    return asyncAuditLogger == null ? 0 : asyncAuditLogger.getDroppedEvents();
+  }
+
   @Metric({"ExpiredHeartbeats", "Number of expired heartbeats"})
   public int getExpiredHeartbeats() {
     return datanodeStatistics.getExpiredHeartbeats();
@@ -5571,6 +6193,13 @@ public long getScheduledReplicationBlocks() {
     return blockManager.getScheduledReplicationBlocksCount();
   }
 
+  @Metric({"UnderReplicatedBlocksDrainRate",
+      "Blocks per second by which the under-replicated blocks decreased " +
+      "over the last minute"})
+  public long getUnderReplicatedBlocksDrainRate() {
+    return blockManager.getUnderReplicatedBlocksDrainRate();
+  }
+
   @Override
   @Metric
   public long getPendingDeletionBlocks() {
@@ -5705,6 +6334,12 @@ public int getNumStaleDataNodes() {
     return getBlockManager().getDatanodeManager().getNumStaleNodes();
   }
 
+  @Metric({"SlowStorages",
+    "Number of storages reported slow by their datanode"})
+  public int getNumSlowStorages() {
+    return getBlockManager().getDatanodeManager().getNumSlowStorages();
+  }
+
   /**
    * Sets the current generation stamp for legacy blocks
    */
@@ -5858,6 +6493,19 @@ private long nextBlockId() throws IOException {
     return blockId;
   }
 
+  /**
+   * Increments, logs and then returns the first of n consecutive block IDs,
+   * for the internal blocks of a block group
+   */
+  private long nextBlockIds(int n) throws IOException {
+    assert hasWriteLock();
+    checkNameNodeSafeMode("Cannot get next block IDs");
+    final long firstId = blockIdGenerator.nextValues(n);
+    getEditLog().logAllocateBlockId(firstId + n - 1);
+    // NB: callers sync the log
+    return firstId;
+  }
+
   private INodeFile checkUCBlock(ExtendedBlock block,
       String clientName) throws IOException {
     assert hasWriteLock();
@@ -6599,6 +7247,10 @@ public String getDecomNodes() {
               node.decommissioningStatus.getDecommissionOnlyReplicas())
           .put("underReplicateInOpenFiles",
               node.decommissioningStatus.getUnderReplicatedInOpenFiles())
+          .put("percentComplete",
+              node.decommissioningStatus.getPercentComplete())
+          .put("estimatedTimeRemaining",
+              node.decommissioningStatus.getEstimatedTimeRemaining())
           .build();
       info.put(node.getHostName(), innerinfo);
     }
@@ -6755,6 +7407,36 @@ public CacheManager getCacheManager() {
     return cacheManager;
   }
 
+  /** @return the context aligning the clients with the namespace. */
+  GlobalStateIdContext getGlobalStateIdContext() {
+    return globalStateIdContext;
+  }
+
+  /**
+   * Wake up the reads waiting on a standby for the namespace to catch up
+   * with their clients, after edits have been loaded.
+   */
+  public void notifyStateUpdated() {
+    globalStateIdContext.notifyStateUpdated();
+  }
+
+  /**
+   * Wait until the namespace has caught up with the state that the client of
+   * the current call has seen. The call does not wait while it holds the
+   * namesystem lock, since the edits cannot be loaded meanwhile.
+   * @param timeoutMs how long to wait at most
+   * @return true if the client has sent its state and the namespace has
+   *         caught up with it
+   */
+  boolean waitForClientState(long timeoutMs) throws InterruptedException {
+    final long clientStateId = Server.getClientStateId();
+    if (clientStateId == RpcConstants.INVALID_STATE_ID) {
+      return false;
+    }
+    return globalStateIdContext.waitForClientState(clientStateId,
+        hasReadLock() ? 0 : timeoutMs);
+  }
+
   @Override  // NameNodeMXBean
   public String getCorruptFiles() {
     List<String> list = new ArrayList<String>();
@@ -6856,6 +7538,12 @@ public boolean isAvoidingStaleDataNodesForWrite() {
         .shouldAvoidStaleDataNodesForWrite();
   }
 
+  @Override // FSClusterStats
+  public boolean isAvoidingSlowStoragesForWrite() {
+    return this.blockManager.getDatanodeManager()
+        .shouldAvoidSlowStoragesForWrite();
+  }
+
   @Override // FSClusterStats
   public int getNumDatanodesInService() {
     return getNumLiveDataNodes() - getNumDecomLiveDataNodes();
@@ -7130,7 +7818,8 @@ void deleteSnapshot(String snapshotRoot, String snapshotName)
       writeUnlock();
       RetryCache.setState(cacheEntry, success);
     }
-    getEditLog().logSync();
+    // The blocks must not be invalidated before the delete is durable.
+    getEditLog().logSyncAndWait();
 
     removeBlocks(collectedBlocks);
     collectedBlocks.clear();
@@ -7695,6 +8384,61 @@ AclStatus getAclStatus(String src) throws IOException {
     }
   }
 
+  /**
+   * Set the erasure coding policy of a directory, by name, for the files
+   * later created under it; null removes the policy.
+   */
+  void setErasureCodingPolicy(String src, String policyName)
+      throws IOException {
+    HdfsFileStatus resultingStat = null;
+    FSPermissionChecker pc = getPermissionChecker();
+    checkOperation(OperationCategory.WRITE);
+    byte[][] pathComponents = FSDirectory.getPathComponentsForReservedPath(src);
+    writeLock();
+    try {
+      checkOperation(OperationCategory.WRITE);
+      checkNameNodeSafeMode("Cannot set erasure coding policy on " + src);
+      src = FSDirectory.resolvePath(src, pathComponents, dir);
+      checkOwner(pc, src);
+      ErasureCodingPolicy ecPolicy = null;
+      if (policyName != null) {
+        ecPolicy = ErasureCodingPolicy.getSystemPolicy(policyName);
+        if (ecPolicy == null) {
+          throw new HadoopIllegalArgumentException(
+              "Unknown erasure coding policy " + policyName + ", expected one"
+              + " of " + Arrays.asList(ErasureCodingPolicy.getSystemPolicies()));
+        }
+      }
+      dir.setErasureCodingPolicy(src, ecPolicy);
+      resultingStat = getAuditFileInfo(src, false);
+    } finally {
+      writeUnlock();
+    }
+    getEditLog().logSync();
+    logAuditEvent(true, "setErasureCodingPolicy", src, null, resultingStat);
+  }
+
+  /**
+   * @return the erasure coding policy of a file, or the policy a directory
+   *         gives its new files; null if there is none
+   */
+  ErasureCodingPolicy getErasureCodingPolicy(String src) throws IOException {
+    FSPermissionChecker pc = getPermissionChecker();
+    checkOperation(OperationCategory.READ);
+    byte[][] pathComponents = FSDirectory.getPathComponentsForReservedPath(src);
+    readLock();
+    try {
+      checkOperation(OperationCategory.READ);
+      src = FSDirectory.resolvePath(src, pathComponents, dir);
+      if (isPermissionEnabled) {
+        checkTraverse(pc, src);
+      }
+      return dir.getErasureCodingPolicy(src);
+    } finally {
+      readUnlock();
+    }
+  }
+
   /**
    * Default AuditLogger implementation; used when no access logger is
    * defined in the config file. It can also be explicitly listed in the
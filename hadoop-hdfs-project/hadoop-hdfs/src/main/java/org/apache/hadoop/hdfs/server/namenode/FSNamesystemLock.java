@@ -19,11 +19,17 @@
 
 package org.apache.hadoop.hdfs.server.namenode;
 
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.util.StringUtils;
+import org.apache.hadoop.util.Time;
+
 import com.google.common.annotations.VisibleForTesting;
 
 /**
@@ -31,6 +37,8 @@
  * are possible.
  */
 class FSNamesystemLock implements ReadWriteLock {
+  static final Log LOG = LogFactory.getLog(FSNamesystemLock.class);
+
   @VisibleForTesting
   protected ReentrantReadWriteLock coarseLock;
   
@@ -52,8 +60,59 @@ class FSNamesystemLock implements ReadWriteLock {
   @VisibleForTesting
   protected ReentrantLock longReadLock = new ReentrantLock(true);
   
+  /**
+   * Time at which the current holder of the write lock acquired it for the
+   * first time. Only accessed by the thread holding the write lock.
+   */
+  private long writeLockHeldTimeStamp;
+
+  /**
+   * Write lock hold times longer than this are logged along with the stack
+   * of the releasing thread. A non-positive value disables the reporting.
+   */
+  private final long writeLockReportingThreshold;
+
+  /**
+   * The locks the inodes are striped over in partitioned mode, or null.
+   * A thread holding the read lock may change the attributes of a single
+   * inode while it holds the lock of the inode's stripe; see
+   * {@link #inodeLock(long)}.
+   */
+  private final ReentrantLock[] inodeLocks;
+
+  /**
+   * Admits the holders of the read lock either as readers or as
+   * partitioned writers in partitioned mode, or null. See
+   * {@link #enterReaders()} and {@link #enterPartitionedWriters()}.
+   */
+  private final ModeGate gate;
+
   FSNamesystemLock(boolean fair) {
+    this(fair, 0);
+  }
+
+  FSNamesystemLock(boolean fair, long writeLockReportingThreshold) {
+    this(fair, writeLockReportingThreshold, 0);
+  }
+
+  /**
+   * @param numStripes the number of inode locks for the partitioned mode,
+   *        or 0 for the coarse lock only
+   */
+  FSNamesystemLock(boolean fair, long writeLockReportingThreshold,
+      int numStripes) {
     this.coarseLock = new ReentrantReadWriteLock(fair);
+    this.writeLockReportingThreshold = writeLockReportingThreshold;
+    if (numStripes > 0) {
+      inodeLocks = new ReentrantLock[numStripes];
+      for (int i = 0; i < numStripes; i++) {
+        inodeLocks[i] = new ReentrantLock(fair);
+      }
+      gate = new ModeGate();
+    } else {
+      inodeLocks = null;
+      gate = null;
+    }
   }
   
   @Override
@@ -81,4 +140,215 @@ public int getWriteHoldCount() {
   public boolean isWriteLockedByCurrentThread() {
     return coarseLock.isWriteLockedByCurrentThread();
   }
+
+  /** @return whether the inode locks are in use */
+  boolean isPartitioned() {
+    return inodeLocks != null;
+  }
+
+  /**
+   * The lock of the stripe of the given inode in partitioned mode. It must
+   * be taken while holding the read lock, and serializes the updates of an
+   * inode's own attributes, together with the logging of their edits, that
+   * are done without the write lock.
+   */
+  Lock inodeLock(long inodeId) {
+    int stripe = (int) ((inodeId ^ (inodeId >>> 32)) & Integer.MAX_VALUE)
+        % inodeLocks.length;
+    return inodeLocks[stripe];
+  }
+
+  /**
+   * Admit a thread that has just acquired the read lock as a reader. In
+   * partitioned mode, readers wait for the partitioned writers to leave,
+   * so that they never see a structure half updated by one of them.
+   */
+  void enterReaders() {
+    if (gate != null) {
+      gate.enter(ModeGate.READERS);
+    }
+  }
+
+  /** Must be called right before the read lock of a reader is released. */
+  void leaveReaders() {
+    if (gate != null) {
+      gate.leave(ModeGate.READERS);
+    }
+  }
+
+  /**
+   * Admit a thread that has just acquired the read lock as a partitioned
+   * writer. Partitioned writers run in parallel with each other, but not
+   * with readers. A partitioned writer serializes the updates of its own
+   * inode with the lock of the inode's stripe, and the updates of the
+   * structures shared by all inodes with the directory write lock.
+   */
+  void enterPartitionedWriters() {
+    gate.enter(ModeGate.PARTITIONED_WRITERS);
+  }
+
+  /** Must be called right before the read lock of a writer is released. */
+  void leavePartitionedWriters() {
+    gate.leave(ModeGate.PARTITIONED_WRITERS);
+  }
+
+  /** @return whether the current thread is a partitioned writer */
+  boolean isPartitionedWriter() {
+    return gate != null && gate.isHeldByCurrentThread(
+        ModeGate.PARTITIONED_WRITERS);
+  }
+
+  /**
+   * Must be called right after the write lock has been acquired.
+   * Starts the hold time clock on the outermost acquisition.
+   */
+  void writeLockAcquired() {
+    if (coarseLock.getWriteHoldCount() == 1) {
+      writeLockHeldTimeStamp = Time.monotonicNow();
+    }
+  }
+
+  /**
+   * Must be called right before the write lock is released.
+   *
+   * @return the time in milliseconds the write lock has been held if this
+   *         release gives up the outermost hold, or -1 for a nested release.
+   */
+  long writeLockReleasing() {
+    if (coarseLock.getWriteHoldCount() != 1) {
+      return -1;
+    }
+    long heldTime = Time.monotonicNow() - writeLockHeldTimeStamp;
+    if (writeLockReportingThreshold > 0
+        && heldTime > writeLockReportingThreshold) {
+      LOG.info("FSNamesystem write lock held for " + heldTime + " ms via\n"
+          + StringUtils.getStackTrace(Thread.currentThread()));
+    }
+    return heldTime;
+  }
+
+  /**
+   * A lock that threads hold in one of two modes. Any number of threads may
+   * hold it in the same mode, while the two modes exclude each other. When
+   * threads of both modes are waiting, the modes take turns, and a turn
+   * admits all the threads that were waiting for it, so that neither mode
+   * starves. The lock is reentrant, and a thread holding it in either mode
+   * may also take it as a reader; it cannot take it as a partitioned writer
+   * while it only holds it as a reader.
+   */
+  static class ModeGate {
+    static final int READERS = 0;
+    static final int PARTITIONED_WRITERS = 1;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    /** The mode of the current or last holders. */
+    private int mode = READERS;
+    /** The number of threads holding the lock. */
+    private int holders = 0;
+    /** The number of threads waiting for each mode. */
+    private final int[] waiting = new int[2];
+    /** The waiting threads still admitted to the current turn. */
+    private int admitted = 0;
+
+    /** The holds of the current thread in each mode. */
+    private final ThreadLocal<int[]> holds = new ThreadLocal<int[]>() {
+      @Override
+      protected int[] initialValue() {
+        return new int[2];
+      }
+    };
+
+    void enter(int m) {
+      final int[] h = holds.get();
+      if (h[READERS] + h[PARTITIONED_WRITERS] == 0) {
+        acquire(m);
+      } else if (m == PARTITIONED_WRITERS && h[PARTITIONED_WRITERS] == 0) {
+        throw new IllegalMonitorStateException(
+            "A reader cannot become a partitioned writer");
+      }
+      h[m]++;
+    }
+
+    void leave(int m) {
+      final int[] h = holds.get();
+      if (h[m] == 0) {
+        throw new IllegalMonitorStateException("Not held in mode " + m);
+      }
+      h[m]--;
+      if (h[READERS] + h[PARTITIONED_WRITERS] == 0) {
+        release();
+      }
+    }
+
+    boolean isHeldByCurrentThread(int m) {
+      return holds.get()[m] > 0;
+    }
+
+    @VisibleForTesting
+    int getWaiting(int m) {
+      lock.lock();
+      try {
+        return waiting[m];
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private void acquire(int m) {
+      lock.lock();
+      try {
+        waiting[m]++;
+        try {
+          while (!tryAcquire(m)) {
+            changed.awaitUninterruptibly();
+          }
+        } finally {
+          waiting[m]--;
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private boolean tryAcquire(int m) {
+      final int other = 1 - m;
+      if (admitted > 0) {
+        if (mode != m) {
+          // The threads admitted to the other mode have not all entered.
+          return false;
+        }
+        admitted--;
+      } else if (holders == 0) {
+        if (mode == m && waiting[other] > 0) {
+          // Give the turn to the threads waiting for the other mode.
+          mode = other;
+          admitted = waiting[other];
+          changed.signalAll();
+          return false;
+        }
+        // Take the turn, together with the threads waiting for it.
+        mode = m;
+        admitted = waiting[m] - 1;
+        if (admitted > 0) {
+          changed.signalAll();
+        }
+      } else if (mode != m || waiting[other] > 0) {
+        return false;
+      }
+      holders++;
+      return true;
+    }
+
+    private void release() {
+      lock.lock();
+      try {
+        if (--holders == 0) {
+          changed.signalAll();
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
 }
@@ -284,6 +284,14 @@ synchronized public void selectInputStreams(
         "from among " + elfs.size() + " candidate file(s)");
     addStreamsToCollectionFromFiles(elfs, streams, fromTxId, inProgressOk);
   }
+
+  @Override
+  public void selectInputStreams(Collection<EditLogInputStream> streams,
+      long fromTxId, boolean inProgressOk, boolean onlyDurableTxns)
+      throws IOException {
+    // The durable part of an in-progress file is not known.
+    selectInputStreams(streams, fromTxId, inProgressOk && !onlyDurableTxns);
+  }
   
   static void addStreamsToCollectionFromFiles(Collection<EditLogFile> elfs,
       Collection<EditLogInputStream> streams, long fromTxId, boolean inProgressOk) {
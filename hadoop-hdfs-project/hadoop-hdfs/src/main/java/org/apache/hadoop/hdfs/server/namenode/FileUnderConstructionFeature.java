@@ -84,6 +84,10 @@ void updateLengthOfLastBlock(INodeFile f, long lastBlockLength)
    */
   void cleanZeroSizeBlock(final INodeFile f,
       final BlocksMapUpdateInfo collectedBlocks) {
+    if (f.isStriped()) {
+      // the internal blocks of a group are kept or removed together
+      return;
+    }
     final BlockInfo[] blocks = f.getBlocks();
     if (blocks != null && blocks.length > 0
         && blocks[blocks.length - 1] instanceof BlockInfoUnderConstruction) {
@@ -0,0 +1,96 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.ipc.AlignmentContext;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcRequestHeaderProto;
+import org.apache.hadoop.ipc.protobuf.RpcHeaderProtos.RpcResponseHeaderProto;
+import org.apache.hadoop.util.Time;
+
+/**
+ * The {@link AlignmentContext} of the client RPC server of a NameNode. The
+ * state of the NameNode is the ID of the last transaction it has applied or
+ * written, so a client that has seen the responses of the active NameNode can
+ * be served by a standby NameNode once it has tailed the edits up to the same
+ * transaction.
+ */
+@InterfaceAudience.Private
+class GlobalStateIdContext implements AlignmentContext {
+  private final FSNamesystem namesystem;
+
+  GlobalStateIdContext(FSNamesystem namesystem) {
+    this.namesystem = namesystem;
+  }
+
+  @Override
+  public void updateResponseState(RpcResponseHeaderProto.Builder header) {
+    header.setStateId(getLastSeenStateId());
+  }
+
+  /** A NameNode does not receive responses from its clients: no-op. */
+  @Override
+  public void receiveResponseState(RpcResponseHeaderProto header) {
+  }
+
+  /** A NameNode does not send requests to its clients: no-op. */
+  @Override
+  public void updateRequestState(RpcRequestHeaderProto.Builder header) {
+  }
+
+  @Override
+  public long receiveRequestState(RpcRequestHeaderProto header) {
+    return header.getStateId();
+  }
+
+  @Override
+  public long getLastSeenStateId() {
+    return namesystem.getFSImage().getLastAppliedOrWrittenTxId();
+  }
+
+  /**
+   * Wait until the namespace has caught up with the state a client has seen.
+   * @param clientStateId the state seen by the client
+   * @param timeoutMs how long to wait at most; 0 not to wait
+   * @return true if the namespace has caught up
+   */
+  boolean waitForClientState(long clientStateId, long timeoutMs)
+      throws InterruptedException {
+    if (getLastSeenStateId() >= clientStateId) {
+      return true;
+    }
+    final long deadline = Time.monotonicNow() + timeoutMs;
+    synchronized (this) {
+      for (;;) {
+        if (getLastSeenStateId() >= clientStateId) {
+          return true;
+        }
+        final long remaining = deadline - Time.monotonicNow();
+        if (remaining <= 0) {
+          return false;
+        }
+        wait(remaining);
+      }
+    }
+  }
+
+  /** Wake up the calls waiting for the namespace to catch up. */
+  synchronized void notifyStateUpdated() {
+    notifyAll();
+  }
+}
@@ -686,7 +686,7 @@ static String[] getPathNames(String path) {
   }
 
   @Override
-  public final int compareTo(byte[] bytes) {
+  public int compareTo(byte[] bytes) {
     return DFSUtil.compareBytes(getLocalNameBytes(), bytes);
   }
 
@@ -21,6 +21,7 @@
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -349,9 +350,12 @@ public INode getChild(byte[] name, int snapshotId) {
     DirectoryWithSnapshotFeature sf;
     if (snapshotId == Snapshot.CURRENT_STATE_ID || 
         (sf = getDirectoryWithSnapshotFeature()) == null) {
-      ReadOnlyList<INode> c = getCurrentChildrenList();
-      final int i = ReadOnlyList.Util.binarySearch(c, name);
-      return i < 0 ? null : c.get(i);
+      final int i = searchChildren(name);
+      if (i < 0) {
+        return null;
+      }
+      final INode child = children.get(i);
+      return child instanceof INodeFileFlyweight ? child.asFile() : child;
     }
     
     return sf.getChild(this, name, snapshotId);
@@ -375,9 +379,61 @@ public ReadOnlyList<INode> getChildrenList(final int snapshotId) {
     return sf.getChildrenList(this, snapshotId);
   }
   
+  /**
+   * The files of the list that are kept in an {@link INodeFileStore} are
+   * returned as detached views, so that iterating over the list never
+   * modifies it, even under the write lock.
+   */
   private ReadOnlyList<INode> getCurrentChildrenList() {
     return children == null ? ReadOnlyList.Util.<INode> emptyList()
-        : ReadOnlyList.Util.asReadOnlyList(children);
+        : INodeFileFlyweight.toViews(children);
+  }
+
+  /**
+   * Move the compactable files among the children into the given store,
+   * and push the child directories that are not references onto the given
+   * stack.
+   *
+   * @return the number of files moved
+   */
+  int compactChildren(INodeFileStore store, Deque<INodeDirectory> subdirs) {
+    int compacted = 0;
+    if (children != null) {
+      for (int i = 0; i < children.size(); i++) {
+        final INode child = children.get(i);
+        if (child.isReference()) {
+          continue;
+        } else if (child.isDirectory()) {
+          subdirs.push(child.asDirectory());
+        } else if (INodeFileStore.isCompactable(child)) {
+          children.set(i, store.add((INodeFile) child));
+          compacted++;
+        }
+      }
+    }
+    return compacted;
+  }
+
+  /**
+   * Expand the children kept in an {@link INodeFileStore}, and push the
+   * child directories that are not references onto the given stack.
+   *
+   * @return the number of files expanded
+   */
+  int expandChildren(Deque<INodeDirectory> subdirs) {
+    int expanded = 0;
+    if (children != null) {
+      for (int i = 0; i < children.size(); i++) {
+        final INode child = children.get(i);
+        if (child instanceof INodeFileFlyweight) {
+          child.asFile();
+          expanded++;
+        } else if (child.isDirectory() && !child.isReference()) {
+          subdirs.push(child.asDirectory());
+        }
+      }
+    }
+    return expanded;
   }
 
   /** @return the {@link INodesInPath} containing only the last inode. */
@@ -521,6 +577,18 @@ public boolean addChild(INode node) {
     return true;
   }
 
+  /**
+   * Allocate the children list with room for the given number of children.
+   * This is used when the number of children is known upfront, e.g. while
+   * loading the fsimage, so that the list neither grows repeatedly nor keeps
+   * unused capacity afterwards. It has no effect if the list already exists.
+   */
+  void ensureChildrenCapacity(int capacity) {
+    if (children == null && capacity > 0) {
+      children = new ArrayList<INode>(capacity);
+    }
+  }
+
   /**
    * Add the node to the children list at the given insertion point.
    * The basic add method which actually calls children.add(..).
@@ -743,8 +811,10 @@ public void destroyAndCollectBlocks(final BlocksMapUpdateInfo collectedBlocks,
     if (sf != null) {
       sf.clear(this, collectedBlocks, removedINodes);
     }
-    for (INode child : getChildrenList(Snapshot.CURRENT_STATE_ID)) {
-      child.destroyAndCollectBlocks(collectedBlocks, removedINodes);
+    if (children != null) {
+      for (INode child : children) {
+        child.destroyAndCollectBlocks(collectedBlocks, removedINodes);
+      }
     }
     clear();
     removedINodes.add(this);
@@ -29,6 +29,7 @@
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.fs.permission.PermissionStatus;
 import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.protocol.ErasureCodingPolicy;
 import org.apache.hadoop.hdfs.protocol.QuotaExceededException;
 import org.apache.hadoop.hdfs.server.blockmanagement.BlockCollection;
 import org.apache.hadoop.hdfs.server.blockmanagement.BlockInfo;
@@ -118,6 +119,14 @@ static long combinePreferredBlockSize(long header, long blockSize) {
     header = HeaderFormat.combinePreferredBlockSize(header, preferredBlockSize);
     this.blocks = blklist;
   }
+
+  /** Create a file from the encoded permission and header of a stored one. */
+  INodeFile(long id, byte[] name, long permission, long mtime, long atime,
+      BlockInfo[] blklist, long header) {
+    super(id, name, permission, mtime, atime);
+    this.header = header;
+    this.blocks = blklist;
+  }
   
   public INodeFile(INodeFile that) {
     super(that);
@@ -368,6 +377,15 @@ final long getBlockDiskspace() {
     return getPreferredBlockSize() * getBlockReplication();
   }
 
+  /**
+   * @return whether the file is erasure coded. The blocks of such a file are
+   *         the internal blocks of its block groups, in the order of their
+   *         units, and its replication is 1.
+   */
+  public final boolean isStriped() {
+    return getErasureCodingPolicy() != null;
+  }
+
   /** @return the blocks of the file. */
   @Override
   public BlockInfo[] getBlocks() {
@@ -588,6 +606,10 @@ public final long computeFileSize(boolean includesLastUcBlock,
     if (blocks == null || blocks.length == 0) {
       return 0;
     }
+    if (isStriped()) {
+      return computeStripedSize(includesLastUcBlock,
+          usePreferredBlockSize4LastUcBlock, false);
+    }
     final int last = blocks.length - 1;
     //check if the last block is BlockInfoUnderConstruction
     long size = blocks[last].getNumBytes();
@@ -605,7 +627,41 @@ public final long computeFileSize(boolean includesLastUcBlock,
     return size;
   }
 
+  /**
+   * Sum the lengths of the internal blocks of a striped file, with the same
+   * treatment of the last block group under construction as
+   * {@link #computeFileSize(boolean, boolean)} gives to the last block.
+   *
+   * @param allUnits whether to count the parity units too
+   */
+  private long computeStripedSize(boolean includesLastUcGroup,
+      boolean usePreferredBlockSize4LastUcGroup, boolean allUnits) {
+    final ErasureCodingPolicy ecPolicy = getErasureCodingPolicy();
+    final int numUnits = ecPolicy.getNumUnits();
+    final int lastGroup = (blocks.length - 1) / numUnits * numUnits;
+    long size = 0;
+    for (int i = 0; i < blocks.length; i++) {
+      if (!allUnits && i % numUnits >= ecPolicy.getNumDataUnits()) {
+        continue;
+      }
+      long length = blocks[i].getNumBytes();
+      if (i >= lastGroup && blocks[i] instanceof BlockInfoUnderConstruction) {
+        if (!includesLastUcGroup) {
+          length = 0;
+        } else if (usePreferredBlockSize4LastUcGroup) {
+          length = getPreferredBlockSize();
+        }
+      }
+      size += length;
+    }
+    return size;
+  }
+
   public final long diskspaceConsumed() {
+    if (isStriped()) {
+      // every internal block, parity included, has a single replica
+      return blocks == null ? 0 : computeStripedSize(true, true, true);
+    }
     // use preferred block size for the last block if it is under construction
     return computeFileSize(true, true) * getBlockReplication();
   }
@@ -634,6 +690,27 @@ public BlockInfo getLastBlock() {
     return blocks == null || blocks.length == 0? null: blocks[blocks.length-1];
   }
 
+  /**
+   * @return the first internal block of the last block group of an erasure
+   *         coded file, or null if the file has no block groups
+   */
+  BlockInfo getLastBlockGroup() {
+    return getBlockGroupFromEnd(1);
+  }
+
+  /**
+   * @return the first internal block of the penultimate block group of an
+   *         erasure coded file, or null if the file has less than two groups
+   */
+  BlockInfo getPenultimateBlockGroup() {
+    return getBlockGroupFromEnd(2);
+  }
+
+  private BlockInfo getBlockGroupFromEnd(int n) {
+    final int first = numBlocks() - n * getErasureCodingPolicy().getNumUnits();
+    return first < 0 ? null : blocks[first];
+  }
+
   @Override
   public int numBlocks() {
     return blocks == null ? 0 : blocks.length;
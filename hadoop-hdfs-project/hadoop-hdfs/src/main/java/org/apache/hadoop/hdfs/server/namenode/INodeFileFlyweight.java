@@ -0,0 +1,355 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.util.List;
+
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.fs.permission.PermissionStatus;
+import org.apache.hadoop.hdfs.protocol.ErasureCodingPolicy;
+import org.apache.hadoop.hdfs.server.blockmanagement.BlockCollection;
+import org.apache.hadoop.hdfs.server.blockmanagement.BlockInfo;
+import org.apache.hadoop.hdfs.server.blockmanagement.BlockInfoUnderConstruction;
+import org.apache.hadoop.hdfs.server.blockmanagement.DatanodeStorageInfo;
+import org.apache.hadoop.hdfs.server.namenode.INodeFile.HeaderFormat;
+import org.apache.hadoop.hdfs.server.namenode.INodeWithAdditionalFields.PermissionStatusFormat;
+import org.apache.hadoop.hdfs.server.namenode.snapshot.Snapshot;
+import org.apache.hadoop.hdfs.util.ReadOnlyList;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+
+/**
+ * A closed file kept in an {@link INodeFileStore}. It stands for the file in
+ * the children list of its parent and in the blocks map, and reads the
+ * attributes of the file from its row in the store.
+ *
+ * A flyweight cannot be modified. {@link #asFile()} returns the file as an
+ * {@link INodeFile}: the file is expanded out of the store when the current
+ * thread holds the namesystem write lock, otherwise a detached {@link View}
+ * is returned.
+ */
+final class INodeFileFlyweight extends INode implements BlockCollection {
+  /**
+   * A copy of a file in the store, for the threads that may not expand it.
+   * It has the parent of the file but is not in the children list of the
+   * parent, so it must not be modified.
+   */
+  static final class View extends INodeFile {
+    View(long id, byte[] name, long permission, long mtime, long atime,
+        BlockInfo[] blocks, long header) {
+      super(id, name, permission, mtime, atime, blocks, header);
+    }
+  }
+
+  /** Replace the flyweights in a children list by views. */
+  static final Function<INode, INode> TO_VIEW = new Function<INode, INode>() {
+    @Override
+    public INode apply(INode inode) {
+      return inode instanceof INodeFileFlyweight
+          ? ((INodeFileFlyweight) inode).getView() : inode;
+    }
+  };
+
+  /** @return whether the given inode is a detached copy of a stored file */
+  static boolean isView(INode inode) {
+    return inode instanceof View;
+  }
+
+  private final INodeFileStore store;
+  /** The row of the file in the store, or -1 once it has been removed. */
+  private int row;
+
+  INodeFileFlyweight(INodeFileStore store, int row, INodeDirectory parent) {
+    super(parent);
+    this.store = store;
+    this.row = row;
+  }
+
+  int getRow() {
+    Preconditions.checkState(row >= 0, "The file has been removed");
+    return row;
+  }
+
+  void invalidate() {
+    row = -1;
+  }
+
+  /** @return a detached copy of the file */
+  View getView() {
+    return store.view(this);
+  }
+
+  @Override
+  public long getId() {
+    return store.getId(getRow());
+  }
+
+  @Override
+  public byte[] getLocalNameBytes() {
+    return store.getName(getRow());
+  }
+
+  @Override
+  public int compareTo(byte[] bytes) {
+    return store.compareName(getRow(), bytes);
+  }
+
+  @Override
+  public long getPermissionLong() {
+    return store.getPermissionLong(getRow());
+  }
+
+  @Override
+  PermissionStatus getPermissionStatus(int snapshotId) {
+    return new PermissionStatus(getUserName(snapshotId),
+        getGroupName(snapshotId), getFsPermission(snapshotId));
+  }
+
+  @Override
+  String getUserName(int snapshotId) {
+    final int n = (int) PermissionStatusFormat.USER.retrieve(
+        getPermissionLong());
+    return SerialNumberManager.INSTANCE.getUser(n);
+  }
+
+  @Override
+  String getGroupName(int snapshotId) {
+    final int n = (int) PermissionStatusFormat.GROUP.retrieve(
+        getPermissionLong());
+    return SerialNumberManager.INSTANCE.getGroup(n);
+  }
+
+  @Override
+  FsPermission getFsPermission(int snapshotId) {
+    return new FsPermission(getFsPermissionShort());
+  }
+
+  @Override
+  public short getFsPermissionShort() {
+    return (short) PermissionStatusFormat.MODE.retrieve(getPermissionLong());
+  }
+
+  @Override
+  AclFeature getAclFeature(int snapshotId) {
+    return null;
+  }
+
+  @Override
+  long getModificationTime(int snapshotId) {
+    return store.getModificationTime(getRow());
+  }
+
+  @Override
+  long getAccessTime(int snapshotId) {
+    return store.getAccessTime(getRow());
+  }
+
+  long getHeaderLong() {
+    return store.getHeaderLong(getRow());
+  }
+
+  /** @return true unconditionally. */
+  @Override
+  public boolean isFile() {
+    return true;
+  }
+
+  /**
+   * @return the file expanded out of the store if the current thread holds
+   *         the namesystem write lock, otherwise a detached copy of it
+   */
+  @Override
+  public INodeFile asFile() {
+    return store.canExpand() ? store.expand(this) : getView();
+  }
+
+  @Override
+  public Quota.Counts cleanSubtree(int snapshotId, int priorSnapshotId,
+      BlocksMapUpdateInfo collectedBlocks, List<INode> removedINodes,
+      boolean countDiffChange) {
+    // The file is in no snapshot, see INodeFile#cleanSubtree.
+    Quota.Counts counts = Quota.Counts.newInstance();
+    if (snapshotId == Snapshot.CURRENT_STATE_ID
+        && priorSnapshotId == Snapshot.NO_SNAPSHOT_ID) {
+      computeQuotaUsage(counts, false);
+      destroyAndCollectBlocks(collectedBlocks, removedINodes);
+    }
+    return counts;
+  }
+
+  /**
+   * Collect the blocks of the file. The file stays in the store until it is
+   * removed from the inode map together with the other removed inodes.
+   */
+  @Override
+  public void destroyAndCollectBlocks(BlocksMapUpdateInfo collectedBlocks,
+      List<INode> removedINodes) {
+    if (collectedBlocks != null) {
+      final int r = getRow();
+      for (int i = 0; i < store.numBlocks(r); i++) {
+        final BlockInfo blk = store.getBlock(r, i);
+        collectedBlocks.addDeleteBlock(blk);
+        blk.setBlockCollection(null);
+      }
+    }
+    clear();
+    removedINodes.add(this);
+  }
+
+  @Override
+  public ContentSummaryComputationContext computeContentSummary(
+      ContentSummaryComputationContext summary) {
+    final Content.Counts counts = summary.getCounts();
+    counts.add(Content.LENGTH, computeFileSize());
+    counts.add(Content.FILE, 1);
+    counts.add(Content.DISKSPACE, computeFileSize() * getBlockReplication());
+    return summary;
+  }
+
+  @Override
+  public Quota.Counts computeQuotaUsage(Quota.Counts counts,
+      boolean useCache, int lastSnapshotId) {
+    counts.add(Quota.NAMESPACE, 1);
+    counts.add(Quota.DISKSPACE, computeFileSize() * getBlockReplication());
+    return counts;
+  }
+
+  /** @return the length of the file, whose blocks are all complete */
+  long computeFileSize() {
+    return store.computeFileSize(getRow());
+  }
+
+  @Override // BlockCollection
+  public BlockInfo getLastBlock() {
+    final int r = getRow();
+    final int n = store.numBlocks(r);
+    return n == 0 ? null : store.getBlock(r, n - 1);
+  }
+
+  @Override // BlockCollection
+  public int numBlocks() {
+    return store.numBlocks(getRow());
+  }
+
+  /** @return a copy of the blocks of the file */
+  @Override // BlockCollection
+  public BlockInfo[] getBlocks() {
+    return store.getBlocks(getRow());
+  }
+
+  @Override // BlockCollection
+  public long getPreferredBlockSize() {
+    return HeaderFormat.getPreferredBlockSize(getHeaderLong());
+  }
+
+  @Override // BlockCollection
+  public short getBlockReplication() {
+    return HeaderFormat.getReplication(getHeaderLong());
+  }
+
+  @Override // BlockCollection
+  public String getName() {
+    return getFullPathName();
+  }
+
+  @Override // BlockCollection
+  public void setBlock(int index, BlockInfo blk) {
+    store.setBlock(getRow(), index, blk);
+  }
+
+  @Override // BlockCollection
+  public BlockInfoUnderConstruction setLastBlock(BlockInfo lastBlock,
+      DatanodeStorageInfo[] targets) {
+    throw new IllegalStateException("File " + getName()
+        + " is no longer under construction");
+  }
+
+  @Override // BlockCollection
+  public boolean isUnderConstruction() {
+    return false;
+  }
+
+  /** @return null, since an erasure coded file is never stored. */
+  @Override // BlockCollection
+  public ErasureCodingPolicy getErasureCodingPolicy() {
+    return null;
+  }
+
+  @Override
+  INode recordModification(int latestSnapshotId) {
+    throw readOnly();
+  }
+
+  @Override
+  void setUser(String user) {
+    throw readOnly();
+  }
+
+  @Override
+  void setGroup(String group) {
+    throw readOnly();
+  }
+
+  @Override
+  void setPermission(FsPermission permission) {
+    throw readOnly();
+  }
+
+  @Override
+  void addAclFeature(AclFeature aclFeature) {
+    throw readOnly();
+  }
+
+  @Override
+  void removeAclFeature() {
+    throw readOnly();
+  }
+
+  @Override
+  public void setLocalName(byte[] name) {
+    throw readOnly();
+  }
+
+  @Override
+  public INode updateModificationTime(long mtime, int latestSnapshotId) {
+    throw readOnly();
+  }
+
+  @Override
+  public void setModificationTime(long modificationTime) {
+    throw readOnly();
+  }
+
+  @Override
+  public void setAccessTime(long accessTime) {
+    throw readOnly();
+  }
+
+  private UnsupportedOperationException readOnly() {
+    return new UnsupportedOperationException(
+        "A stored file must be expanded before it is modified");
+  }
+
+  /** @return the given children with the flyweights replaced by views */
+  static ReadOnlyList<INode> toViews(List<INode> children) {
+    return ReadOnlyList.Util.asReadOnlyList(
+        Lists.transform(children, TO_VIEW));
+  }
+}
@@ -0,0 +1,573 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.hadoop.hdfs.DFSUtil;
+import org.apache.hadoop.hdfs.server.blockmanagement.BlockInfo;
+import org.apache.hadoop.hdfs.server.namenode.snapshot.INodeDirectorySnapshottable;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Keeps closed files in primitive arrays instead of {@link INodeFile}
+ * objects. The id, permission, times and header of a file are kept in a row
+ * of parallel arrays, its name in a byte slab and its blocks in a block slab
+ * shared by all the files. In the namespace tree and in the blocks map the
+ * file is represented by an {@link INodeFileFlyweight}, which holds nothing
+ * but its row. This saves the object header and the fields of an INodeFile
+ * and the headers of its name and block arrays for every file.
+ *
+ * Only files without features are kept, i.e. files that are not under
+ * construction, have no ACL and are not in a snapshot, and only outside of
+ * the subtrees of the directories that allow snapshots, so that the snapshot
+ * diffs never refer to a file in the store.
+ *
+ * A file in the store is never modified in place. Readers get a detached
+ * {@link INodeFileFlyweight.View} of it, while a thread holding the
+ * namesystem write lock gets the file expanded back into an INodeFile,
+ * which replaces the flyweight in the tree, the inode map and the blocks
+ * map. The store is only modified under the namesystem write lock.
+ */
+final class INodeFileStore {
+  /** The names are prefixed with their length in two bytes. */
+  private static final int MAX_NAME_LENGTH = 0xffff;
+  private static final int INITIAL_CAPACITY = 16;
+
+  private final FSNamesystem namesystem;
+  private final INodeMap inodeMap;
+
+  /** The columns of the rows. A free row has a negative id. */
+  private long[] ids = new long[INITIAL_CAPACITY];
+  private long[] permissions = new long[INITIAL_CAPACITY];
+  private long[] modificationTimes = new long[INITIAL_CAPACITY];
+  private long[] accessTimes = new long[INITIAL_CAPACITY];
+  private long[] headers = new long[INITIAL_CAPACITY];
+  private int[] nameOffsets = new int[INITIAL_CAPACITY];
+  /** The offset of the blocks of a row, or the next free row. */
+  private int[] blockOffsets = new int[INITIAL_CAPACITY];
+  private int[] blockCounts = new int[INITIAL_CAPACITY];
+  /** The number of rows ever used. */
+  private int numRows = 0;
+  private int firstFreeRow = -1;
+
+  private byte[] nameSlab = new byte[INITIAL_CAPACITY * 16];
+  private int nameSlabSize = 0;
+  /** The bytes of the names of removed files, reclaimed by compaction. */
+  private int nameSlabGarbage = 0;
+  private BlockInfo[] blockSlab = new BlockInfo[INITIAL_CAPACITY];
+  private int blockSlabSize = 0;
+  private int blockSlabGarbage = 0;
+
+  /** The flyweights, in an open addressing table keyed by inode id. */
+  private INodeFileFlyweight[] table =
+      new INodeFileFlyweight[INITIAL_CAPACITY];
+  private int size = 0;
+
+  INodeFileStore(FSNamesystem namesystem, INodeMap inodeMap) {
+    this.namesystem = namesystem;
+    this.inodeMap = inodeMap;
+  }
+
+  /** @return whether the given inode can be moved into the store */
+  static boolean isCompactable(INode inode) {
+    if (inode.getClass() != INodeFile.class) {
+      return false;
+    }
+    final INodeFile file = (INodeFile) inode;
+    if (file.getFeatures().length != 0 || file.getParentReference() != null
+        || file.getLocalNameBytes().length > MAX_NAME_LENGTH) {
+      return false;
+    }
+    final BlockInfo[] blocks = file.getBlocks();
+    if (blocks != null) {
+      for (BlockInfo b : blocks) {
+        if (!b.isComplete()) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return whether the given directory allows snapshots or is in one. The
+   *         root is always snapshottable, but with a snapshot quota of 0
+   *         until snapshots are allowed on it.
+   */
+  static boolean allowsSnapshots(INodeDirectory dir) {
+    if (!dir.isSnapshottable()) {
+      return dir.isWithSnapshot();
+    }
+    final INodeDirectorySnapshottable s = (INodeDirectorySnapshottable) dir;
+    return s.getSnapshotQuota() > 0 || s.getNumSnapshots() > 0;
+  }
+
+  /** @return the number of files in the store */
+  int size() {
+    return size;
+  }
+
+  /**
+   * @return whether the current thread may expand a file, i.e. whether it
+   *         holds the namesystem write lock
+   */
+  boolean canExpand() {
+    return namesystem.getWriteHoldCount() > 0;
+  }
+
+  /**
+   * Move the files in the subtree of the given directory into the store,
+   * except for the subtrees of the directories that allow snapshots.
+   *
+   * @return the number of files moved
+   */
+  int compact(INodeDirectory root, Deque<INodeDirectory> pending) {
+    int compacted = 0;
+    pending.push(root);
+    while (!pending.isEmpty()) {
+      final INodeDirectory dir = pending.pop();
+      if (!allowsSnapshots(dir)) {
+        compacted += dir.compactChildren(this, pending);
+      }
+    }
+    compactSlabsIfNeeded();
+    return compacted;
+  }
+
+  /**
+   * Expand the files in the subtree of the given directory.
+   *
+   * @return the number of files expanded
+   */
+  int expand(INodeDirectory root, Deque<INodeDirectory> pending) {
+    Preconditions.checkState(canExpand());
+    int expanded = 0;
+    pending.push(root);
+    while (!pending.isEmpty()) {
+      expanded += pending.pop().expandChildren(pending);
+    }
+    return expanded;
+  }
+
+  /**
+   * Move the given file into the store. The blocks of the file are handed
+   * over to the returned flyweight, and the file is removed from the inode
+   * map; the caller replaces the file by the flyweight in its parent.
+   */
+  INodeFileFlyweight add(INodeFile file) {
+    Preconditions.checkArgument(isCompactable(file), "%s", file);
+    final int row = allocateRow();
+    ids[row] = file.getId();
+    permissions[row] = file.getPermissionLong();
+    modificationTimes[row] = file.getModificationTime();
+    accessTimes[row] = file.getAccessTime();
+    headers[row] = file.getHeaderLong();
+    nameOffsets[row] = appendName(file.getLocalNameBytes());
+    final BlockInfo[] blocks = file.getBlocks();
+    final int numBlocks = blocks == null ? 0 : blocks.length;
+    blockOffsets[row] = appendBlocks(blocks, numBlocks);
+    blockCounts[row] = numBlocks;
+
+    final INodeFileFlyweight f = new INodeFileFlyweight(this, row,
+        file.getParent());
+    for (int i = 0; i < numBlocks; i++) {
+      blocks[i].setBlockCollection(f);
+    }
+    insert(f);
+    inodeMap.removeFromMap(file);
+    return f;
+  }
+
+  /**
+   * Replace the given flyweight by an {@link INodeFile} in its parent, the
+   * inode map and the blocks map, and remove it from the store.
+   */
+  INodeFile expand(INodeFileFlyweight f) {
+    Preconditions.checkState(canExpand());
+    final int row = f.getRow();
+    final INodeFile file = new INodeFile(ids[row], getName(row),
+        permissions[row], modificationTimes[row], accessTimes[row],
+        getBlocks(row), headers[row]);
+    final INodeDirectory parent = f.getParent();
+    file.setParent(parent);
+    parent.replaceChild(f, file, inodeMap);
+    file.updateBlockCollection();
+    remove(f);
+    return file;
+  }
+
+  /**
+   * Release the room kept for the growth of the store, e.g. once the files
+   * of a loaded namespace have been added.
+   */
+  void trimToSize() {
+    final int rows = Math.max(numRows, INITIAL_CAPACITY);
+    if (rows < ids.length) {
+      resizeRows(rows);
+    }
+    if (nameSlabGarbage > 0 || blockSlabGarbage > 0) {
+      compactSlabs();
+    }
+    nameSlab = Arrays.copyOf(nameSlab, nameSlabSize);
+    blockSlab = Arrays.copyOf(blockSlab, blockSlabSize);
+    int length = INITIAL_CAPACITY;
+    while (size + 1 > length - (length >> 2)) {
+      length <<= 1;
+    }
+    if (length < table.length) {
+      rehash(length);
+    }
+  }
+
+  /** @return a detached copy of the file, which is not in the namespace */
+  INodeFileFlyweight.View view(INodeFileFlyweight f) {
+    final int row = f.getRow();
+    final INodeFileFlyweight.View v = new INodeFileFlyweight.View(ids[row],
+        getName(row), permissions[row], modificationTimes[row],
+        accessTimes[row], getBlocks(row), headers[row]);
+    v.setParent(f.getParent());
+    return v;
+  }
+
+  /** @return the flyweight of the file with the given id, or null */
+  INodeFileFlyweight get(long id) {
+    final int mask = table.length - 1;
+    for (int i = slot(id, mask);; i = (i + 1) & mask) {
+      final INodeFileFlyweight f = table[i];
+      if (f == null || ids[f.getRow()] == id) {
+        return f;
+      }
+    }
+  }
+
+  /**
+   * Remove the given file from the store, e.g. when it is deleted. The
+   * flyweight cannot be used afterwards.
+   */
+  void remove(INodeFileFlyweight f) {
+    final int row = f.getRow();
+    removeFromTable(ids[row]);
+    nameSlabGarbage += 2 + getNameLength(row);
+    final int offset = blockOffsets[row];
+    Arrays.fill(blockSlab, offset, offset + blockCounts[row], null);
+    blockSlabGarbage += blockCounts[row];
+
+    ids[row] = -1;
+    blockOffsets[row] = firstFreeRow;
+    blockCounts[row] = 0;
+    firstFreeRow = row;
+    size--;
+    f.invalidate();
+    compactSlabsIfNeeded();
+  }
+
+  /** Remove all the files. */
+  void clear() {
+    for (int i = 0; i < table.length; i++) {
+      if (table[i] != null) {
+        table[i].invalidate();
+        table[i] = null;
+      }
+    }
+    Arrays.fill(blockSlab, null);
+    numRows = 0;
+    firstFreeRow = -1;
+    nameSlabSize = 0;
+    nameSlabGarbage = 0;
+    blockSlabSize = 0;
+    blockSlabGarbage = 0;
+    size = 0;
+  }
+
+  /** @return an iterator over detached views of all the files */
+  Iterator<INodeWithAdditionalFields> viewIterator() {
+    final INodeFileFlyweight[] t = table;
+    return new Iterator<INodeWithAdditionalFields>() {
+      private int next = advance(0);
+
+      private int advance(int i) {
+        while (i < t.length && t[i] == null) {
+          i++;
+        }
+        return i;
+      }
+
+      @Override
+      public boolean hasNext() {
+        return next < t.length;
+      }
+
+      @Override
+      public INodeWithAdditionalFields next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        final INodeFileFlyweight f = t[next];
+        next = advance(next + 1);
+        return view(f);
+      }
+
+      @Override
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    };
+  }
+
+  long getId(int row) {
+    return ids[row];
+  }
+
+  long getPermissionLong(int row) {
+    return permissions[row];
+  }
+
+  long getModificationTime(int row) {
+    return modificationTimes[row];
+  }
+
+  long getAccessTime(int row) {
+    return accessTimes[row];
+  }
+
+  long getHeaderLong(int row) {
+    return headers[row];
+  }
+
+  private int getNameLength(int row) {
+    final int offset = nameOffsets[row];
+    return ((nameSlab[offset] & 0xff) << 8) | (nameSlab[offset + 1] & 0xff);
+  }
+
+  byte[] getName(int row) {
+    return Arrays.copyOfRange(nameSlab, nameOffsets[row] + 2,
+        nameOffsets[row] + 2 + getNameLength(row));
+  }
+
+  /**
+   * Compare the name of a row with the given name without copying it, in
+   * the same order as {@link DFSUtil#compareBytes(byte[], byte[])}.
+   */
+  int compareName(int row, byte[] name) {
+    if (name == null) {
+      name = DFSUtil.EMPTY_BYTES;
+    }
+    final int offset = nameOffsets[row] + 2;
+    final int length = getNameLength(row);
+    final int n = Math.min(length, name.length);
+    for (int i = 0; i < n; i++) {
+      final int d = nameSlab[offset + i] - name[i];
+      if (d != 0) {
+        return d;
+      }
+    }
+    return length - name.length;
+  }
+
+  int numBlocks(int row) {
+    return blockCounts[row];
+  }
+
+  BlockInfo getBlock(int row, int index) {
+    Preconditions.checkElementIndex(index, blockCounts[row]);
+    return blockSlab[blockOffsets[row] + index];
+  }
+
+  void setBlock(int row, int index, BlockInfo b) {
+    Preconditions.checkElementIndex(index, blockCounts[row]);
+    blockSlab[blockOffsets[row] + index] = b;
+  }
+
+  /** @return a copy of the blocks of a row */
+  BlockInfo[] getBlocks(int row) {
+    final int n = blockCounts[row];
+    if (n == 0) {
+      return BlockInfo.EMPTY_ARRAY;
+    }
+    final BlockInfo[] blocks = new BlockInfo[n];
+    System.arraycopy(blockSlab, blockOffsets[row], blocks, 0, n);
+    return blocks;
+  }
+
+  /** @return the length of the file in a row, whose blocks are complete */
+  long computeFileSize(int row) {
+    long length = 0;
+    final int offset = blockOffsets[row];
+    for (int i = 0; i < blockCounts[row]; i++) {
+      length += blockSlab[offset + i].getNumBytes();
+    }
+    return length;
+  }
+
+  private int allocateRow() {
+    if (firstFreeRow >= 0) {
+      final int row = firstFreeRow;
+      firstFreeRow = blockOffsets[row];
+      return row;
+    }
+    if (numRows == ids.length) {
+      resizeRows(Math.max(numRows + (numRows >> 1), INITIAL_CAPACITY));
+    }
+    return numRows++;
+  }
+
+  private void resizeRows(int capacity) {
+    ids = Arrays.copyOf(ids, capacity);
+    permissions = Arrays.copyOf(permissions, capacity);
+    modificationTimes = Arrays.copyOf(modificationTimes, capacity);
+    accessTimes = Arrays.copyOf(accessTimes, capacity);
+    headers = Arrays.copyOf(headers, capacity);
+    nameOffsets = Arrays.copyOf(nameOffsets, capacity);
+    blockOffsets = Arrays.copyOf(blockOffsets, capacity);
+    blockCounts = Arrays.copyOf(blockCounts, capacity);
+  }
+
+  private int appendName(byte[] name) {
+    final int needed = nameSlabSize + 2 + name.length;
+    if (needed > nameSlab.length) {
+      nameSlab = Arrays.copyOf(nameSlab,
+          Math.max(needed, nameSlab.length + (nameSlab.length >> 1)));
+    }
+    final int offset = nameSlabSize;
+    nameSlab[offset] = (byte) (name.length >>> 8);
+    nameSlab[offset + 1] = (byte) name.length;
+    System.arraycopy(name, 0, nameSlab, offset + 2, name.length);
+    nameSlabSize = needed;
+    return offset;
+  }
+
+  private int appendBlocks(BlockInfo[] blocks, int n) {
+    final int needed = blockSlabSize + n;
+    if (needed > blockSlab.length) {
+      blockSlab = Arrays.copyOf(blockSlab,
+          Math.max(needed, blockSlab.length + (blockSlab.length >> 1)));
+    }
+    final int offset = blockSlabSize;
+    if (n > 0) {
+      System.arraycopy(blocks, 0, blockSlab, offset, n);
+    }
+    blockSlabSize = needed;
+    return offset;
+  }
+
+  /** Reclaim the space of the removed files once it is most of a slab. */
+  private void compactSlabsIfNeeded() {
+    if (nameSlabGarbage > INITIAL_CAPACITY * 16
+        && nameSlabGarbage > nameSlabSize / 2
+        || blockSlabGarbage > INITIAL_CAPACITY
+        && blockSlabGarbage > blockSlabSize / 2) {
+      compactSlabs();
+    }
+  }
+
+  /**
+   * Copy the names and blocks of the files in the store into new slabs,
+   * leaving out those of the files that were removed.
+   */
+  private void compactSlabs() {
+    final byte[] oldNames = nameSlab;
+    final BlockInfo[] oldBlocks = blockSlab;
+    nameSlab = new byte[Math.max(INITIAL_CAPACITY,
+        nameSlabSize - nameSlabGarbage)];
+    blockSlab = new BlockInfo[Math.max(INITIAL_CAPACITY,
+        blockSlabSize - blockSlabGarbage)];
+    nameSlabSize = 0;
+    nameSlabGarbage = 0;
+    blockSlabSize = 0;
+    blockSlabGarbage = 0;
+    for (INodeFileFlyweight f : table) {
+      if (f == null) {
+        continue;
+      }
+      final int row = f.getRow();
+      final int nameOffset = nameOffsets[row];
+      final int nameLength = 2 + (((oldNames[nameOffset] & 0xff) << 8)
+          | (oldNames[nameOffset + 1] & 0xff));
+      System.arraycopy(oldNames, nameOffset, nameSlab, nameSlabSize,
+          nameLength);
+      nameOffsets[row] = nameSlabSize;
+      nameSlabSize += nameLength;
+
+      final int n = blockCounts[row];
+      System.arraycopy(oldBlocks, blockOffsets[row], blockSlab,
+          blockSlabSize, n);
+      blockOffsets[row] = blockSlabSize;
+      blockSlabSize += n;
+    }
+  }
+
+  private static int slot(long id, int mask) {
+    return (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+  }
+
+  private void insert(INodeFileFlyweight f) {
+    if (size + 1 > table.length - (table.length >> 2)) {
+      rehash(table.length << 1);
+    }
+    insertIntoTable(f);
+    size++;
+  }
+
+  private void rehash(int length) {
+    final INodeFileFlyweight[] old = table;
+    table = new INodeFileFlyweight[length];
+    for (INodeFileFlyweight e : old) {
+      if (e != null) {
+        insertIntoTable(e);
+      }
+    }
+  }
+
+  private void insertIntoTable(INodeFileFlyweight f) {
+    final int mask = table.length - 1;
+    int i = slot(ids[f.getRow()], mask);
+    while (table[i] != null) {
+      i = (i + 1) & mask;
+    }
+    table[i] = f;
+  }
+
+  /**
+   * Remove the entry with the given id, shifting back the entries after it
+   * in its probe sequence so that they can still be found.
+   */
+  private void removeFromTable(long id) {
+    final int mask = table.length - 1;
+    int i = slot(id, mask);
+    while (ids[table[i].getRow()] != id) {
+      i = (i + 1) & mask;
+    }
+    table[i] = null;
+    for (int j = (i + 1) & mask; table[j] != null; j = (j + 1) & mask) {
+      final int home = slot(ids[table[j].getRow()], mask);
+      // Move the entry unless its home slot is cyclically in (i, j].
+      final boolean stays = i <= j ? (i < home && home <= j)
+          : (i < home || home <= j);
+      if (!stays) {
+        table[i] = table[j];
+        table[j] = null;
+        i = j;
+      }
+    }
+  }
+}
@@ -20,14 +20,14 @@
 import java.util.Iterator;
 import java.util.List;
 
-import org.apache.hadoop.fs.permission.FsPermission;
-import org.apache.hadoop.fs.permission.PermissionStatus;
 import org.apache.hadoop.hdfs.protocol.QuotaExceededException;
 import org.apache.hadoop.hdfs.server.namenode.Quota.Counts;
 import org.apache.hadoop.util.GSet;
 import org.apache.hadoop.util.LightWeightGSet;
+import org.apache.hadoop.util.LightWeightResizableGSet;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterators;
 
 /**
  * Storing all the {@link INode}s and maintaining the mapping between INode ID
@@ -36,24 +36,84 @@
 public class INodeMap {
   
   static INodeMap newInstance(INodeDirectory rootDir) {
-    // Compute the map capacity by allocating 1% of total memory
-    int capacity = LightWeightGSet.computeCapacity(1, "INodeMap");
-    GSet<INode, INodeWithAdditionalFields> map
-        = new LightWeightGSet<INode, INodeWithAdditionalFields>(capacity);
-    map.put(rootDir);
-    return new INodeMap(map);
+    return newInstance(rootDir, false);
+  }
+
+  /**
+   * @param compact whether the map is sized to the number of inodes it
+   *        holds, instead of allocating 1% of total memory up front
+   */
+  static INodeMap newInstance(INodeDirectory rootDir, boolean compact) {
+    final INodeMap inodeMap;
+    if (compact) {
+      inodeMap = new INodeMap(
+          new LightWeightResizableGSet<INode, INodeWithAdditionalFields>());
+    } else {
+      // Compute the map capacity by allocating 1% of total memory
+      int capacity = LightWeightGSet.computeCapacity(1, "INodeMap");
+      inodeMap = new INodeMap(
+          new LightWeightGSet<INode, INodeWithAdditionalFields>(capacity));
+    }
+    inodeMap.put(rootDir);
+    return inodeMap;
   }
   
   /** Synchronized by external lock. */
   private final GSet<INode, INodeWithAdditionalFields> map;
+  /** The same map if it is compact, otherwise null. */
+  private final LightWeightResizableGSet<INode, INodeWithAdditionalFields>
+      compactMap;
   
+  /** The closed files kept out of the map, or null. */
+  private INodeFileStore fileStore;
+
+  /**
+   * @return an iterator over the inodes, which returns the files in the
+   *         {@link INodeFileStore} as detached views
+   */
   public Iterator<INodeWithAdditionalFields> getMapIterator() {
-    return map.iterator();
+    return fileStore == null ? map.iterator()
+        : Iterators.<INodeWithAdditionalFields>concat(map.iterator(),
+            fileStore.viewIterator());
   }
 
   private INodeMap(GSet<INode, INodeWithAdditionalFields> map) {
     Preconditions.checkArgument(map != null);
     this.map = map;
+    this.compactMap = null;
+  }
+
+  private INodeMap(
+      LightWeightResizableGSet<INode, INodeWithAdditionalFields> map) {
+    Preconditions.checkArgument(map != null);
+    this.map = map;
+    this.compactMap = map;
+  }
+
+  /** Look up the files kept in the given store as well. */
+  void setFileStore(INodeFileStore fileStore) {
+    this.fileStore = fileStore;
+  }
+
+  /**
+   * Make room for the given number of inodes, e.g. before the inodes of an
+   * image are loaded, so that a compact map is allocated once rather than
+   * being grown repeatedly. A map that is not compact is never resized.
+   */
+  void ensureCapacity(long numINodes) {
+    if (compactMap != null) {
+      compactMap.ensureCapacity((int) Math.min(numINodes, Integer.MAX_VALUE));
+    }
+  }
+  
+  /**
+   * Release the room of the inodes removed from a compact map, e.g. after
+   * they have been moved into the {@link INodeFileStore}.
+   */
+  void trimToSize() {
+    if (compactMap != null) {
+      compactMap.trimToSize();
+    }
   }
   
   /**
@@ -72,6 +132,18 @@ public final void put(INode inode) {
    * @param inode The {@link INode} to be removed.
    */
   public final void remove(INode inode) {
+    if (fileStore != null) {
+      final INodeFileFlyweight f = fileStore.get(inode.getId());
+      if (f != null) {
+        fileStore.remove(f);
+        return;
+      }
+    }
+    map.remove(inode);
+  }
+
+  /** Remove an inode that is moved into the {@link INodeFileStore}. */
+  final void removeFromMap(INode inode) {
     map.remove(inode);
   }
   
@@ -79,7 +151,7 @@ public final void remove(INode inode) {
    * @return The size of the map.
    */
   public int size() {
-    return map.size();
+    return fileStore == null ? map.size() : map.size() + fileStore.size();
   }
   
   /**
@@ -89,8 +161,9 @@ public int size() {
    *         such {@link INode} in the map.
    */
   public INode get(long id) {
-    INode inode = new INodeWithAdditionalFields(id, null, new PermissionStatus(
-        "", "", new FsPermission((short) 0)), 0, 0) {
+    // Only the id matters for the lookup, so avoid resolving a permission
+    // status for the temporary key on every call.
+    INode inode = new INodeWithAdditionalFields(id, null, 0L, 0L, 0L) {
       
       @Override
       INode recordModification(int latestSnapshotId)
@@ -124,7 +197,12 @@ public Counts cleanSubtree(int snapshotId, int priorSnapshotId,
       }
     };
       
-    return map.get(inode);
+    final INode found = map.get(inode);
+    if (found == null && fileStore != null) {
+      final INodeFileFlyweight f = fileStore.get(id);
+      return f == null ? null : f.asFile();
+    }
+    return found;
   }
   
   /**
@@ -132,5 +210,8 @@ public Counts cleanSubtree(int snapshotId, int priorSnapshotId,
    */
   public void clear() {
     map.clear();
+    if (fileStore != null) {
+      fileStore.clear();
+    }
   }
 }
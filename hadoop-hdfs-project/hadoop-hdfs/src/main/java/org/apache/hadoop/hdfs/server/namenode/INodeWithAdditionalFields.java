@@ -20,6 +20,7 @@
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.fs.permission.PermissionStatus;
+import org.apache.hadoop.hdfs.protocol.ErasureCodingPolicy;
 import org.apache.hadoop.hdfs.protocol.QuotaExceededException;
 import org.apache.hadoop.hdfs.server.namenode.INode.Feature;
 import org.apache.hadoop.hdfs.server.namenode.snapshot.Snapshot;
@@ -115,6 +116,12 @@ private INodeWithAdditionalFields(INode parent, long id, byte[] name,
     this(null, id, name, PermissionStatusFormat.toLong(permissions),
         modificationTime, accessTime);
   }
+
+  /** @param permission the permission status in its long representation */
+  INodeWithAdditionalFields(long id, byte[] name, long permission,
+      long modificationTime, long accessTime) {
+    this(null, id, name, permission, modificationTime, accessTime);
+  }
   
   /** @param other Other node to be copied */
   INodeWithAdditionalFields(INodeWithAdditionalFields other) {
@@ -341,6 +348,26 @@ public void addAclFeature(AclFeature f) {
     addFeature(f);
   }
 
+  /**
+   * @return the erasure coding policy set on the inode itself, see
+   *         {@link ErasureCodingPolicyFeature}, or null
+   */
+  public ErasureCodingPolicy getErasureCodingPolicy() {
+    ErasureCodingPolicyFeature f = getFeature(ErasureCodingPolicyFeature.class);
+    return f == null ? null : f.getErasureCodingPolicy();
+  }
+
+  /** Set the erasure coding policy of the inode, or remove it if null. */
+  void setErasureCodingPolicy(ErasureCodingPolicy ecPolicy) {
+    ErasureCodingPolicyFeature f = getFeature(ErasureCodingPolicyFeature.class);
+    if (f != null) {
+      removeFeature(f);
+    }
+    if (ecPolicy != null) {
+      addFeature(new ErasureCodingPolicyFeature(ecPolicy));
+    }
+  }
+
   public final Feature[] getFeatures() {
     return features;
   }
@@ -19,6 +19,7 @@
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.Collection;
 
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
@@ -58,6 +59,19 @@ EditLogOutputStream startLogSegment(long txId, int layoutVersion)
    */
   void finalizeLogSegment(long firstTxId, long lastTxId) throws IOException;
 
+  /**
+   * Like {@link LogsPurgeable#selectInputStreams(Collection, long, boolean)},
+   * but if onlyDurableTxns is set, only select the transactions that cannot
+   * be lost anymore, e.g. by the recovery of an in-progress segment. A
+   * journal which cannot tell which transactions of the in-progress segment
+   * are durable must then only select its finalized segments.
+   *
+   * @param onlyDurableTxns  Should we only consider durable transactions?
+   */
+  void selectInputStreams(Collection<EditLogInputStream> streams,
+      long fromTxId, boolean inProgressOk, boolean onlyDurableTxns)
+      throws IOException;
+
   /**
    * Set the amount of memory that this stream should use to buffer edits
    */
@@ -247,6 +247,21 @@ public void apply(JournalAndStream jas) throws IOException {
   @Override
   public void selectInputStreams(Collection<EditLogInputStream> streams,
       long fromTxId, boolean inProgressOk) {
+    selectInputStreams(streams, fromTxId, inProgressOk, false);
+  }
+
+  /**
+   * Like {@link #selectInputStreams(Collection, long, boolean)}, but if
+   * onlyDurableTxns is set, only select the transactions that cannot be lost
+   * anymore. A quorum journal then returns the transactions of the
+   * in-progress segment that a majority of its nodes have written; the other
+   * journals only return their finalized segments.
+   *
+   * @param onlyDurableTxns  Should we only consider durable transactions?
+   */
+  @Override
+  public void selectInputStreams(Collection<EditLogInputStream> streams,
+      long fromTxId, boolean inProgressOk, boolean onlyDurableTxns) {
     final PriorityQueue<EditLogInputStream> allStreams = 
         new PriorityQueue<EditLogInputStream>(64,
             EDIT_LOG_INPUT_STREAM_COMPARATOR);
@@ -256,7 +271,8 @@ public void selectInputStreams(Collection<EditLogInputStream> streams,
         continue;
       }
       try {
-        jas.getManager().selectInputStreams(allStreams, fromTxId, inProgressOk);
+        jas.getManager().selectInputStreams(allStreams, fromTxId,
+            inProgressOk, onlyDurableTxns);
       } catch (IOException ioe) {
         LOG.warn("Unable to determine input streams from " + jas.getManager() +
             ". Skipping.", ioe);
@@ -254,6 +254,8 @@ public long getProtocolVersion(String protocol,
   private final boolean haEnabled;
   private final HAContext haContext;
   protected boolean allowStaleStandbyReads;
+  private final boolean allowConsistentStandbyReads;
+  private final long standbyReadMaxWaitMs;
 
   
   /** httpServer */
@@ -665,6 +667,12 @@ protected NameNode(Configuration conf, NamenodeRole role)
     this.haEnabled = HAUtil.isHAEnabled(conf, nsId);
     state = createHAState(getStartupOption(conf));
     this.allowStaleStandbyReads = HAUtil.shouldAllowStandbyReads(conf);
+    this.allowConsistentStandbyReads = conf.getBoolean(
+        DFS_HA_STANDBY_READS_ENABLED_KEY,
+        DFS_HA_STANDBY_READS_ENABLED_DEFAULT);
+    this.standbyReadMaxWaitMs = conf.getLong(
+        DFS_HA_STANDBY_READS_MAX_WAIT_MS_KEY,
+        DFS_HA_STANDBY_READS_MAX_WAIT_MS_DEFAULT);
     this.haContext = createHAContext();
     try {
       initializeGenericKeys(conf, nsId, namenodeId);
@@ -1593,6 +1601,19 @@ public boolean allowStaleReads() {
       return allowStaleStandbyReads;
     }
 
+    @Override
+    public boolean allowConsistentReads() {
+      if (!allowConsistentStandbyReads || namesystem == null) {
+        return false;
+      }
+      try {
+        return namesystem.waitForClientState(standbyReadMaxWaitMs);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+
   }
   
   public boolean isStandbyState() {
@@ -64,7 +64,8 @@ public static boolean supports(final LayoutFeature f, final int lv) {
    */
   public static enum Feature implements LayoutFeature {
     ROLLING_UPGRADE(-55, -53, "Support rolling upgrade", false),
-    EDITLOG_LENGTH(-56, "Add length field to every edit log op");
+    EDITLOG_LENGTH(-56, "Add length field to every edit log op"),
+    ERASURE_CODING(-57, "Support erasure coded files");
     
     private final FeatureInfo info;
 
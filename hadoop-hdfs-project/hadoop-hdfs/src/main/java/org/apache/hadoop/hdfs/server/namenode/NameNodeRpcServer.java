@@ -74,6 +74,7 @@
 import org.apache.hadoop.hdfs.protocol.DatanodeID;
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
 import org.apache.hadoop.hdfs.protocol.DirectoryListing;
+import org.apache.hadoop.hdfs.protocol.ErasureCodingPolicy;
 import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
 import org.apache.hadoop.hdfs.protocol.FSLimitException;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
@@ -306,6 +307,8 @@ public NameNodeRpcServer(Configuration conf, NameNode nn)
         .setVerbose(false)
         .setSecretManager(namesystem.getDelegationTokenSecretManager())
         .build();
+    // Tell the clients the state of the namespace, see StandbyReadProxyProvider
+    clientRpcServer.setAlignmentContext(namesystem.getGlobalStateIdContext());
 
     // Add all the RPC protocols that the namenode implements
     DFSUtil.addPBProtocol(conf, HAServiceProtocolPB.class, haPbService,
@@ -1372,5 +1375,17 @@ public void setAcl(String src, List<AclEntry> aclSpec) throws IOException {
   public AclStatus getAclStatus(String src) throws IOException {
     return namesystem.getAclStatus(src);
   }
+
+  @Override
+  public void setErasureCodingPolicy(String src, String policyName)
+      throws IOException {
+    namesystem.setErasureCodingPolicy(src, policyName);
+  }
+
+  @Override
+  public ErasureCodingPolicy getErasureCodingPolicy(String src)
+      throws IOException {
+    return namesystem.getErasureCodingPolicy(src);
+  }
 }
 
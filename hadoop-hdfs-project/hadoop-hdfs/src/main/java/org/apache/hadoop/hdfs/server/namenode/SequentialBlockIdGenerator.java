@@ -57,6 +57,23 @@ public long nextValue() {
     return b.getBlockId();
   }
 
+  /**
+   * @return the first of n consecutive block IDs, all of which are taken by
+   *         this call. A run with a conflict in it is skipped.
+   */
+  public long nextValues(int n) {
+    long first = nextValue();
+    for (int i = 1; i < n; i++) {
+      final long id = nextValue();
+      if (id != first + i) {
+        // a conflict was skipped over, start a new run after it
+        first = id;
+        i = 0;
+      }
+    }
+    return first;
+  }
+
   /**
    * Returns whether the given block is one pointed-to by a file.
    */
@@ -118,7 +118,14 @@ public Class<T> getInterface() {
    */
   @Override
   public synchronized ProxyInfo<T> getProxy() {
-    AddressRpcProxyPair<T> current = proxies.get(currentProxyIndex);
+    return getProxy(currentProxyIndex);
+  }
+
+  /**
+   * Lazily initialize the RPC proxy object to the NameNode at an index.
+   */
+  synchronized ProxyInfo<T> getProxy(int index) {
+    AddressRpcProxyPair<T> current = proxies.get(index);
     if (current.namenode == null) {
       try {
         current.namenode = NameNodeProxies.createNonHAProxy(conf,
@@ -131,6 +138,16 @@ public synchronized ProxyInfo<T> getProxy() {
     return new ProxyInfo<T>((T)current.namenode, current.address.toString());
   }
 
+  /** @return the index of the NameNode that the calls go to */
+  synchronized int getCurrentProxyIndex() {
+    return currentProxyIndex;
+  }
+
+  /** @return the number of the NameNodes */
+  int getNumProxies() {
+    return proxies.size();
+  }
+
   @Override
   public synchronized void performFailover(T currentProxy) {
     currentProxyIndex = (currentProxyIndex + 1) % proxies.size();
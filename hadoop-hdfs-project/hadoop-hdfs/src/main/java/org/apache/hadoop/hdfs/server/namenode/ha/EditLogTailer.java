@@ -23,6 +23,7 @@
 import java.security.PrivilegedAction;
 import java.security.PrivilegedExceptionAction;
 import java.util.Collection;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -40,9 +41,11 @@
 import org.apache.hadoop.hdfs.server.namenode.FSImage;
 import org.apache.hadoop.hdfs.server.namenode.FSNamesystem;
 import org.apache.hadoop.hdfs.server.namenode.NameNode;
+import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
 import org.apache.hadoop.hdfs.server.protocol.NamenodeProtocol;
 import org.apache.hadoop.ipc.RPC;
 import org.apache.hadoop.security.SecurityUtil;
+import org.apache.hadoop.util.Time;
 
 import static org.apache.hadoop.util.Time.now;
 import static org.apache.hadoop.util.ExitUtil.terminate;
@@ -86,6 +89,11 @@ public class EditLogTailer {
    */
   private long lastLoadTimestamp;
 
+  /**
+   * The last time we triggered a roll of the edit log on the active.
+   */
+  private long lastRollTimestamp;
+
   /**
    * How often the Standby should roll edit logs. Since the Standby only reads
    * from finalized log segments, the Standby will only be as up-to-date as how
@@ -98,6 +106,13 @@ public class EditLogTailer {
    * available to be read from.
    */
   private long sleepTimeMs;
+
+  /**
+   * Whether the Standby also loads the durable edits of the in-progress
+   * segment. It then tails again without sleeping as long as it finds new
+   * edits.
+   */
+  private final boolean inProgressOk;
   
   public EditLogTailer(FSNamesystem namesystem, Configuration conf) {
     this.tailerThread = new EditLogTailerThread();
@@ -106,6 +121,7 @@ public EditLogTailer(FSNamesystem namesystem, Configuration conf) {
     this.editLog = namesystem.getEditLog();
     
     lastLoadTimestamp = now();
+    lastRollTimestamp = lastLoadTimestamp;
 
     logRollPeriodMs = conf.getInt(DFSConfigKeys.DFS_HA_LOGROLL_PERIOD_KEY,
         DFSConfigKeys.DFS_HA_LOGROLL_PERIOD_DEFAULT) * 1000;
@@ -121,11 +137,17 @@ public EditLogTailer(FSNamesystem namesystem, Configuration conf) {
           DFSConfigKeys.DFS_HA_LOGROLL_PERIOD_KEY + " is negative.");
     }
     
-    sleepTimeMs = conf.getInt(DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY,
-        DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_DEFAULT) * 1000;
+    sleepTimeMs = conf.getTimeDuration(
+        DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY,
+        DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_DEFAULT,
+        TimeUnit.SECONDS, TimeUnit.MILLISECONDS);
+
+    inProgressOk = conf.getBoolean(
+        DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_KEY,
+        DFSConfigKeys.DFS_HA_TAILEDITS_INPROGRESS_DEFAULT);
     
     LOG.debug("logRollPeriodMs=" + logRollPeriodMs +
-        " sleepTime=" + sleepTimeMs);
+        " sleepTime=" + sleepTimeMs + " inProgressOk=" + inProgressOk);
   }
   
   private InetSocketAddress getActiveNodeAddress() {
@@ -183,7 +205,10 @@ public void catchupDuringFailover() throws IOException {
       @Override
       public Void run() throws Exception {
         try {
-          doTailEdits();
+          // Only load the finalized segments, which the recovery of the
+          // shared edits has just closed, and update the quota counts that
+          // the tailing of the in-progress segment does not maintain.
+          doTailEdits(false);
         } catch (InterruptedException e) {
           throw new IOException(e);
         }
@@ -192,8 +217,27 @@ public Void run() throws Exception {
     });
   }
   
+  /**
+   * @return whether the Standby also loads the in-progress segment
+   */
+  public boolean isTailingInProgressEdits() {
+    return inProgressOk;
+  }
+
   @VisibleForTesting
-  void doTailEdits() throws IOException, InterruptedException {
+  long doTailEdits() throws IOException, InterruptedException {
+    return doTailEdits(inProgressOk);
+  }
+
+  /**
+   * Load the edits that the Standby has not loaded yet.
+   * @param tailInProgress whether to load the durable edits of the
+   *        in-progress segment too. The quota counts of the namespace are
+   *        only updated when only the finalized segments are loaded.
+   * @return the number of edits loaded
+   */
+  private long doTailEdits(boolean tailInProgress)
+      throws IOException, InterruptedException {
     // Write lock needs to be interruptible here because the 
     // transitionToActive RPC takes the write lock before calling
     // tailer.stop() -- so if we're not interruptible, it will
@@ -208,15 +252,25 @@ void doTailEdits() throws IOException, InterruptedException {
         LOG.debug("lastTxnId: " + lastTxnId);
       }
       Collection<EditLogInputStream> streams;
+      long startTime = Time.monotonicNow();
       try {
-        streams = editLog.selectInputStreams(lastTxnId + 1, 0, null, false);
+        if (tailInProgress) {
+          streams = editLog.selectInputStreams(lastTxnId + 1, 0, null, true,
+              true);
+        } else {
+          streams = editLog.selectInputStreams(lastTxnId + 1, 0, null, false);
+        }
       } catch (IOException ioe) {
         // This is acceptable. If we try to tail edits in the middle of an edits
         // log roll, i.e. the last one has been finalized but the new inprogress
         // edits file hasn't been started yet.
         LOG.warn("Edits tailer failed to find any streams. Will try again " +
             "later.", ioe);
-        return;
+        return 0;
+      }
+      NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+      if (metrics != null) {
+        metrics.addEditLogFetchTime(Time.monotonicNow() - startTime);
       }
       if (LOG.isDebugEnabled()) {
         LOG.debug("edit streams to load from: " + streams.size());
@@ -226,24 +280,41 @@ void doTailEdits() throws IOException, InterruptedException {
       // for concern, so we don't catch them here. Simple errors reading from
       // disk are ignored.
       long editsLoaded = 0;
+      startTime = Time.monotonicNow();
       try {
-        editsLoaded = image.loadEdits(streams, namesystem);
+        editsLoaded = image.loadEdits(streams, namesystem, !tailInProgress);
       } catch (EditLogInputException elie) {
         editsLoaded = elie.getNumEditsLoaded();
         throw elie;
       } finally {
         if (editsLoaded > 0 || LOG.isDebugEnabled()) {
-          LOG.info(String.format("Loaded %d edits starting from txid %d ",
-              editsLoaded, lastTxnId));
+          // The in-progress segment is tailed in many small batches.
+          String msg = String.format("Loaded %d edits starting from txid %d ",
+              editsLoaded, lastTxnId);
+          if (tailInProgress) {
+            LOG.debug(msg);
+          } else {
+            LOG.info(msg);
+          }
+        }
+        if (metrics != null) {
+          metrics.addEditLogTailTime(Time.monotonicNow() - startTime);
+          metrics.addNumEditLogLoaded(editsLoaded);
         }
       }
 
       if (editsLoaded > 0) {
-        lastLoadTimestamp = now();
+        long loadTimestamp = now();
+        if (metrics != null) {
+          metrics.addEditLogTailInterval(loadTimestamp - lastLoadTimestamp);
+        }
+        lastLoadTimestamp = loadTimestamp;
       }
       lastLoadedTxnId = image.getLastAppliedTxId();
+      return editsLoaded;
     } finally {
       namesystem.writeUnlock();
+      namesystem.notifyStateUpdated();
     }
   }
 
@@ -255,11 +326,14 @@ public long getLastLoadTimestamp() {
   }
 
   /**
-   * @return true if the configured log roll period has elapsed.
+   * @return true if the configured log roll period has elapsed. When the
+   * in-progress segment is tailed, edits are loaded without rolls, so the
+   * period counts from the last roll instead.
    */
   private boolean tooLongSinceLastLoad() {
+    long since = inProgressOk ? lastRollTimestamp : lastLoadTimestamp;
     return logRollPeriodMs >= 0 && 
-      (now() - lastLoadTimestamp) > logRollPeriodMs ;
+      (now() - since) > logRollPeriodMs ;
   }
 
   /**
@@ -270,6 +344,7 @@ private void triggerActiveLogRoll() {
     try {
       getActiveNodeProxy().rollEditLog();
       lastRollTriggerTxId = lastLoadedTxnId;
+      lastRollTimestamp = now();
     } catch (IOException ioe) {
       LOG.warn("Unable to trigger a roll of the active NN", ioe);
     }
@@ -304,6 +379,7 @@ public Object run() {
     
     private void doWork() {
       while (shouldRun) {
+        long editsTailed = 0;
         try {
           // There's no point in triggering a log roll if the Standby hasn't
           // read any more transactions since the last time a roll was
@@ -321,7 +397,7 @@ private void doWork() {
           if (!shouldRun) {
             break;
           }
-          doTailEdits();
+          editsTailed = doTailEdits();
         } catch (EditLogInputException elie) {
           LOG.warn("Error while reading edits from disk. Will try again.", elie);
         } catch (InterruptedException ie) {
@@ -333,6 +409,11 @@ private void doWork() {
           terminate(1, t);
         }
 
+        // When tailing the in-progress segment, keep up with the active by
+        // tailing again right away as long as there are new edits.
+        if (inProgressOk && editsTailed > 0) {
+          continue;
+        }
         try {
           Thread.sleep(sleepTimeMs);
         } catch (InterruptedException e) {
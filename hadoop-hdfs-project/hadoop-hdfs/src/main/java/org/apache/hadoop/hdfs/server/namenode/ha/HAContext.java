@@ -83,4 +83,11 @@ public interface HAContext {
    * while the namespace is not up to date)
    */
   boolean allowStaleReads();
+
+  /**
+   * Check whether the namespace has caught up with the state that the client
+   * of the current call has seen, waiting for a bounded time if it has not.
+   * @return true if the node may serve the read of the current call
+   */
+  boolean allowConsistentReads();
 }
@@ -0,0 +1,173 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode.ha;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.Arrays;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.ipc.Client;
+import org.apache.hadoop.ipc.Client.ConnectionId;
+import org.apache.hadoop.ipc.RPC;
+import org.apache.hadoop.ipc.RemoteException;
+import org.apache.hadoop.ipc.RetriableException;
+import org.apache.hadoop.ipc.RpcInvocationHandler;
+import org.apache.hadoop.ipc.StandbyException;
+import org.apache.hadoop.util.Time;
+
+import com.google.common.annotations.VisibleForTesting;
+
+/**
+ * A {@link ConfiguredFailoverProxyProvider} which sends the {@link ReadOnly}
+ * calls to the standby NameNodes, so that the reads of the clients are
+ * spread over all the NameNodes of the nameservice.
+ *
+ * The client sends the latest transaction ID it has seen with every call. A
+ * standby NameNode with dfs.ha.standby.reads.enabled serves a read once it has
+ * loaded the edits up to that transaction, so the client sees its own writes
+ * and never goes back in time. When no standby can serve a read, the read
+ * goes to the active NameNode, as do all the other calls.
+ */
+public class StandbyReadProxyProvider<T>
+    extends ConfiguredFailoverProxyProvider<T> {
+  private static final Log LOG =
+      LogFactory.getLog(StandbyReadProxyProvider.class);
+
+  /** How long a NameNode which could not be reached gets no reads. */
+  private static final long UNREACHABLE_BACKOFF_MS = 10000;
+
+  private final ClientGSIContext alignmentContext = new ClientGSIContext();
+  private final T proxy;
+  // When each NameNode may get reads again after it could not be reached
+  private final long[] unreachableUntil;
+
+  public StandbyReadProxyProvider(Configuration conf, URI uri,
+      Class<T> xface) {
+    super(conf, uri, xface);
+    this.unreachableUntil = new long[getNumProxies()];
+    Arrays.fill(unreachableUntil, Long.MIN_VALUE);
+    this.proxy = xface.cast(Proxy.newProxyInstance(xface.getClassLoader(),
+        new Class<?>[] { xface }, new ReadInvocationHandler()));
+  }
+
+  /**
+   * @return a proxy which sends the reads to the standby NameNodes when they
+   *         can serve them, and everything else to the active NameNode.
+   */
+  @Override
+  public synchronized ProxyInfo<T> getProxy() {
+    return new ProxyInfo<T>(proxy, super.getProxy().proxyInfo);
+  }
+
+  @VisibleForTesting
+  long getLastSeenStateId() {
+    return alignmentContext.getLastSeenStateId();
+  }
+
+  private synchronized boolean isReachable(int index) {
+    return unreachableUntil[index] <= Time.monotonicNow();
+  }
+
+  private synchronized void setUnreachable(int index) {
+    unreachableUntil[index] = Time.monotonicNow() + UNREACHABLE_BACKOFF_MS;
+  }
+
+  /**
+   * @return true if a standby NameNode failed a read only because it cannot
+   *         serve it, so the read should go to another NameNode.
+   */
+  private static boolean isStandbyFailure(Throwable t) {
+    if (t instanceof RemoteException) {
+      final IOException e = ((RemoteException)t).unwrapRemoteException(
+          StandbyException.class, RetriableException.class);
+      return e instanceof StandbyException
+          || e instanceof RetriableException;
+    }
+    return t instanceof StandbyException || t instanceof RetriableException;
+  }
+
+  private static Object invoke(Object target, Method method, Object[] args)
+      throws Throwable {
+    try {
+      return method.invoke(target, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  private class ReadInvocationHandler implements RpcInvocationHandler {
+    @Override
+    public Object invoke(Object p, Method method, Object[] args)
+        throws Throwable {
+      Client.setAlignmentContext(alignmentContext);
+      try {
+        if (method.isAnnotationPresent(ReadOnly.class)) {
+          final int active = getCurrentProxyIndex();
+          for (int i = 0; i < getNumProxies(); i++) {
+            if (i == active || !isReachable(i)) {
+              continue;
+            }
+            final ProxyInfo<T> standby = StandbyReadProxyProvider.this
+                .getProxy(i);
+            try {
+              return StandbyReadProxyProvider.invoke(standby.proxy, method,
+                  args);
+            } catch (Throwable t) {
+              if (isStandbyFailure(t)) {
+                if (LOG.isDebugEnabled()) {
+                  LOG.debug(method.getName() + " cannot be served by "
+                      + standby.proxyInfo + ": " + t);
+                }
+              } else if (t instanceof IOException
+                  && !(t instanceof RemoteException)) {
+                LOG.warn(method.getName() + " failed on " + standby.proxyInfo
+                    + ", sending reads to other NameNodes for "
+                    + UNREACHABLE_BACKOFF_MS + " ms", t);
+                setUnreachable(i);
+              } else {
+                throw t;
+              }
+            }
+          }
+        }
+        return StandbyReadProxyProvider.invoke(
+            StandbyReadProxyProvider.super.getProxy().proxy, method, args);
+      } finally {
+        Client.setAlignmentContext(null);
+      }
+    }
+
+    /** @return the connection ID of the active NameNode */
+    @Override
+    public ConnectionId getConnectionId() {
+      return RPC.getConnectionIdForProxy(
+          StandbyReadProxyProvider.super.getProxy().proxy);
+    }
+
+    /** The proxies to the NameNodes are closed with the provider. */
+    @Override
+    public void close() {
+    }
+  }
+}
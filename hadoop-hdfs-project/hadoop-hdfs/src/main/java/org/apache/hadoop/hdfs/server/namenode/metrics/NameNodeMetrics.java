@@ -32,6 +32,7 @@
 import org.apache.hadoop.metrics2.lib.MutableGaugeInt;
 import org.apache.hadoop.metrics2.lib.MutableQuantiles;
 import org.apache.hadoop.metrics2.lib.MutableRate;
+import org.apache.hadoop.metrics2.lib.MutableStat;
 import org.apache.hadoop.metrics2.source.JvmMetrics;
 
 /**
@@ -79,11 +80,25 @@ public class NameNodeMetrics {
   MutableQuantiles[] syncsQuantiles;
   @Metric("Journal transactions batched in sync")
   MutableCounterLong transactionsBatchedInSync;
+  @Metric("Journal syncs handed off by RPC handlers to the sync thread")
+  MutableCounterLong deferredSyncs;
+  @Metric(value = "Deferred journal syncs completed per flush",
+      sampleName = "Flushes", valueName = "Syncs")
+  MutableStat deferredSyncBatch;
   @Metric("Block report") MutableRate blockReport;
   MutableQuantiles[] blockReportQuantiles;
+  @Metric("Time to process the block report of a storage, including the " +
+      "waits for the write lock between its batches, in msec")
+  MutableRate storageBlockReport;
+  MutableQuantiles[] storageBlockReportQuantiles;
+  @Metric("Number of write lock holds the block reports were processed in")
+  MutableCounterLong blockReportBatches;
   @Metric("Cache report") MutableRate cacheReport;
   MutableQuantiles[] cacheReportQuantiles;
 
+  @Metric("Namesystem write lock hold time") MutableRate writeLockHold;
+  MutableQuantiles[] writeLockHoldQuantiles;
+
   @Metric("Duration in SafeMode at startup in msec")
   MutableGaugeInt safeModeTime;
   @Metric("Time loading FS Image at startup in msec")
@@ -96,13 +111,31 @@ public class NameNodeMetrics {
   @Metric("GetImageServlet putImage")
   MutableRate putImage;
 
+  @Metric("Time spent loading the edits tailed by the standby, in msec")
+  MutableRate editLogTailTime;
+  @Metric("Time spent selecting the edit streams to tail, in msec")
+  MutableRate editLogFetchTime;
+  @Metric("Number of edits loaded per tailing of the edit log")
+  MutableRate numEditLogLoaded;
+  @Metric("Time between the tailings of the edit log that loaded edits, " +
+      "in msec")
+  MutableRate editLogTailInterval;
+
+  @Metric("Time spent computing the replication work of an iteration of " +
+      "the replication monitor, in msec")
+  MutableRate replicationWorkTime;
+  @Metric("Number of blocks scheduled for replication")
+  MutableCounterLong blocksScheduledForReplication;
+
   NameNodeMetrics(String processName, String sessionId, int[] intervals) {
     registry.tag(ProcessName, processName).tag(SessionId, sessionId);
     
     final int len = intervals.length;
     syncsQuantiles = new MutableQuantiles[len];
     blockReportQuantiles = new MutableQuantiles[len];
+    storageBlockReportQuantiles = new MutableQuantiles[len];
     cacheReportQuantiles = new MutableQuantiles[len];
+    writeLockHoldQuantiles = new MutableQuantiles[len];
     
     for (int i = 0; i < len; i++) {
       int interval = intervals[i];
@@ -112,9 +145,15 @@ public class NameNodeMetrics {
       blockReportQuantiles[i] = registry.newQuantiles(
           "blockReport" + interval + "s", 
           "Block report", "ops", "latency", interval);
+      storageBlockReportQuantiles[i] = registry.newQuantiles(
+          "storageBlockReport" + interval + "s",
+          "Block report of a storage", "ops", "latency", interval);
       cacheReportQuantiles[i] = registry.newQuantiles(
           "cacheReport" + interval + "s",
           "Cache report", "ops", "latency", interval);
+      writeLockHoldQuantiles[i] = registry.newQuantiles(
+          "writeLockHold" + interval + "s",
+          "Namesystem write lock hold time", "ops", "latency", interval);
     }
   }
 
@@ -230,6 +269,14 @@ public void incrTransactionsBatchedInSync() {
     transactionsBatchedInSync.incr();
   }
 
+  public void incrDeferredSyncs() {
+    deferredSyncs.incr();
+  }
+
+  public void addDeferredSyncBatch(int size) {
+    deferredSyncBatch.add(size);
+  }
+
   public void addSync(long elapsed) {
     syncs.add(elapsed);
     for (MutableQuantiles q : syncsQuantiles) {
@@ -248,6 +295,14 @@ public void addBlockReport(long latency) {
     }
   }
 
+  public void addStorageBlockReport(long elapsed, int numBatches) {
+    storageBlockReport.add(elapsed);
+    for (MutableQuantiles q : storageBlockReportQuantiles) {
+      q.add(elapsed);
+    }
+    blockReportBatches.incr(numBatches);
+  }
+
   public void addCacheBlockReport(long latency) {
     cacheReport.add(latency);
     for (MutableQuantiles q : cacheReportQuantiles) {
@@ -255,6 +310,13 @@ public void addCacheBlockReport(long latency) {
     }
   }
 
+  public void addWriteLockHold(long heldTime) {
+    writeLockHold.add(heldTime);
+    for (MutableQuantiles q : writeLockHoldQuantiles) {
+      q.add(heldTime);
+    }
+  }
+
   public void setSafeModeTime(long elapsed) {
     safeModeTime.set((int) elapsed);
   }
@@ -270,4 +332,28 @@ public void addGetImage(long latency) {
   public void addPutImage(long latency) {
     putImage.add(latency);
   }
+
+  public void addEditLogTailTime(long elapsed) {
+    editLogTailTime.add(elapsed);
+  }
+
+  public void addEditLogFetchTime(long elapsed) {
+    editLogFetchTime.add(elapsed);
+  }
+
+  public void addNumEditLogLoaded(long count) {
+    numEditLogLoaded.add(count);
+  }
+
+  public void addEditLogTailInterval(long elapsed) {
+    editLogTailInterval.add(elapsed);
+  }
+
+  public void addReplicationWorkTime(long elapsed) {
+    replicationWorkTime.add(elapsed);
+  }
+
+  public void incrBlocksScheduledForReplication(int count) {
+    blocksScheduledForReplication.incr(count);
+  }
 }
@@ -107,6 +107,8 @@ public void setSnapshottable(final String path, boolean checkNestedSnapshottable
     }
 
 
+    // Files in snapshots are never kept in the compact store.
+    fsdir.expandFiles(d);
     final INodeDirectorySnapshottable s;
     if (d.isSnapshottable()) {
       //The directory is already a snapshottable directory.
@@ -0,0 +1,109 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.protocol;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+import org.apache.hadoop.hdfs.protocol.ErasureCodingPolicy;
+import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
+
+/****************************************************
+ * A BlockECReconstructionCommand is an instruction to a datanode to rebuild
+ * lost internal blocks of erasure coded block groups from the live internal
+ * blocks of the groups and to store them locally.
+ ****************************************************/
+@InterfaceAudience.Private
+@InterfaceStability.Evolving
+public class BlockECReconstructionCommand extends DatanodeCommand {
+  final Collection<BlockECReconstructionInfo> ecTasks;
+
+  public BlockECReconstructionCommand(int action,
+      Collection<BlockECReconstructionInfo> ecTasks) {
+    super(action);
+    this.ecTasks = ecTasks;
+  }
+
+  public Collection<BlockECReconstructionInfo> getECTasks() {
+    return ecTasks;
+  }
+
+  @Override
+  public String toString() {
+    return "BlockECReconstructionCommand(" + ecTasks.size() + " tasks)";
+  }
+
+  /** An internal block to rebuild and where to read its group from. */
+  @InterfaceAudience.Private
+  @InterfaceStability.Evolving
+  public static class BlockECReconstructionInfo {
+    private final ExtendedBlock blockGroup;
+    private final DatanodeInfo[] sources;
+    private final int[] liveBlockIndices;
+    private final int targetIndex;
+    private final ErasureCodingPolicy ecPolicy;
+
+    /**
+     * @param blockGroup the first internal block of the group, whose length
+     *                   is the data length of the group
+     * @param sources the datanodes of live internal blocks of the group
+     * @param liveBlockIndices the unit of the internal block on each source
+     * @param targetIndex the unit of the internal block to rebuild
+     */
+    public BlockECReconstructionInfo(ExtendedBlock blockGroup,
+        DatanodeInfo[] sources, int[] liveBlockIndices, int targetIndex,
+        ErasureCodingPolicy ecPolicy) {
+      this.blockGroup = blockGroup;
+      this.sources = sources;
+      this.liveBlockIndices = liveBlockIndices;
+      this.targetIndex = targetIndex;
+      this.ecPolicy = ecPolicy;
+    }
+
+    public ExtendedBlock getBlockGroup() {
+      return blockGroup;
+    }
+
+    public DatanodeInfo[] getSources() {
+      return sources;
+    }
+
+    public int[] getLiveBlockIndices() {
+      return liveBlockIndices;
+    }
+
+    public int getTargetIndex() {
+      return targetIndex;
+    }
+
+    public ErasureCodingPolicy getErasureCodingPolicy() {
+      return ecPolicy;
+    }
+
+    @Override
+    public String toString() {
+      return "BlockECReconstructionInfo(blockGroup=" + blockGroup
+          + ", sources=" + Arrays.asList(sources) + ", liveBlockIndices="
+          + Arrays.toString(liveBlockIndices) + ", targetIndex=" + targetIndex
+          + ", ecPolicy=" + ecPolicy + ")";
+    }
+  }
+}
@@ -40,19 +40,52 @@ public class NamespaceInfo extends StorageInfo {
   String  buildVersion;
   String blockPoolID = "";    // id of the block pool
   String softwareVersion;
+  long capabilities;
+
+  /**
+   * The optional features of the DataNode protocol a NameNode supports.
+   * A NameNode that predates this list advertises none of them.
+   */
+  public enum Capability {
+    /** Block reports may be sent in their delta encoded form. */
+    DELTA_ENCODED_BLOCK_REPORTS;
+
+    private long getMask() {
+      return 1L << ordinal();
+    }
+  }
+
+  /** The capabilities of this NameNode. */
+  public static final long CAPABILITIES_SUPPORTED;
+  static {
+    long mask = 0;
+    for (Capability c : Capability.values()) {
+      mask |= c.getMask();
+    }
+    CAPABILITIES_SUPPORTED = mask;
+  }
 
   public NamespaceInfo() {
     super(NodeType.NAME_NODE);
     buildVersion = null;
+    capabilities = CAPABILITIES_SUPPORTED;
   }
 
   public NamespaceInfo(int nsID, String clusterID, String bpID,
       long cT, String buildVersion, String softwareVersion) {
+    this(nsID, clusterID, bpID, cT, buildVersion, softwareVersion,
+        CAPABILITIES_SUPPORTED);
+  }
+
+  public NamespaceInfo(int nsID, String clusterID, String bpID,
+      long cT, String buildVersion, String softwareVersion,
+      long capabilities) {
     super(HdfsConstants.NAMENODE_LAYOUT_VERSION, nsID, clusterID, cT,
         NodeType.NAME_NODE);
     blockPoolID = bpID;
     this.buildVersion = buildVersion;
     this.softwareVersion = softwareVersion;
+    this.capabilities = capabilities;
   }
 
   public NamespaceInfo(int nsID, String clusterID, String bpID, 
@@ -73,6 +106,14 @@ public String getSoftwareVersion() {
     return softwareVersion;
   }
 
+  public long getCapabilities() {
+    return capabilities;
+  }
+
+  public boolean isCapabilitySupported(Capability capability) {
+    return (capabilities & capability.getMask()) != 0;
+  }
+
   @Override
   public String toString(){
     return super.toString() + ";bpid=" + blockPoolID;
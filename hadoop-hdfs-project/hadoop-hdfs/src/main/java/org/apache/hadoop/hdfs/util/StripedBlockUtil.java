@@ -0,0 +1,103 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.util;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.hdfs.protocol.ErasureCodingPolicy;
+
+/**
+ * The arithmetic of the striped layout of {@link ErasureCodingPolicy}.
+ *
+ * A block group holding groupLength bytes of data is a sequence of stripes.
+ * Stripe s holds the data bytes [s * cellSize * numDataUnits, (s + 1) *
+ * cellSize * numDataUnits) of the group, one cell per data unit, and the
+ * parity cells of those data cells. Only the last stripe may be partial:
+ * its data cells may be shorter than cellSize or empty, and its parity cells
+ * are as long as its first data cell. The NameNode, the DataNodes and the
+ * client must agree on these lengths, since the NameNode commits every
+ * internal block with the length computed here.
+ */
+@InterfaceAudience.Private
+public class StripedBlockUtil {
+  private StripedBlockUtil() {
+  }
+
+  /** @return the number of data bytes in a stripe */
+  public static long getStripeLength(ErasureCodingPolicy ecPolicy) {
+    return (long) ecPolicy.getCellSize() * ecPolicy.getNumDataUnits();
+  }
+
+  /** @return the number of stripes, full or partial, of a group */
+  public static long getNumStripes(long groupLength,
+      ErasureCodingPolicy ecPolicy) {
+    final long stripeLength = getStripeLength(ecPolicy);
+    return (groupLength + stripeLength - 1) / stripeLength;
+  }
+
+  /**
+   * @return the length of the given internal block of a group with
+   *         groupLength bytes of data
+   */
+  public static long getInternalBlockLength(long groupLength,
+      ErasureCodingPolicy ecPolicy, int unit) {
+    final long cellSize = ecPolicy.getCellSize();
+    final long stripeLength = getStripeLength(ecPolicy);
+    final long fullStripes = groupLength / stripeLength;
+    final long lastStripeLength = groupLength % stripeLength;
+    // A parity unit is as long as the first data unit.
+    final long offsetInLastStripe = unit < ecPolicy.getNumDataUnits() ?
+        unit * cellSize : 0;
+    return fullStripes * cellSize + Math.min(cellSize,
+        Math.max(0, lastStripeLength - offsetInLastStripe));
+  }
+
+  /**
+   * @return the length of the cell of the given unit in the given stripe of
+   *         a group with groupLength bytes of data
+   */
+  public static int getCellLength(long groupLength,
+      ErasureCodingPolicy ecPolicy, long stripe, int unit) {
+    final long cellSize = ecPolicy.getCellSize();
+    final long remaining = getInternalBlockLength(groupLength, ecPolicy, unit)
+        - stripe * cellSize;
+    return (int) Math.min(cellSize, Math.max(0, remaining));
+  }
+
+  /** @return the data unit holding the given data byte of a group */
+  public static int getUnit(long offsetInGroup, ErasureCodingPolicy ecPolicy) {
+    return (int) ((offsetInGroup / ecPolicy.getCellSize())
+        % ecPolicy.getNumDataUnits());
+  }
+
+  /** @return the stripe holding the given data byte of a group */
+  public static long getStripe(long offsetInGroup,
+      ErasureCodingPolicy ecPolicy) {
+    return offsetInGroup / getStripeLength(ecPolicy);
+  }
+
+  /**
+   * @return the offset of the given data byte of a group in the internal
+   *         block of its unit
+   */
+  public static long getOffsetInUnit(long offsetInGroup,
+      ErasureCodingPolicy ecPolicy) {
+    final int cellSize = ecPolicy.getCellSize();
+    return getStripe(offsetInGroup, ecPolicy) * cellSize
+        + offsetInGroup % cellSize;
+  }
+}
@@ -1105,6 +1105,9 @@ public static void runOperations(MiniDFSCluster cluster,
     filesystem.removeCachePool("pool1");
     // OP_SET_ACL
     filesystem.setAcl(pathConcatTarget, Lists.<AclEntry> newArrayList());
+    // OP_SET_ERASURE_CODING_POLICY
+    filesystem.setErasureCodingPolicy(pathDirectoryMkdir,
+        ErasureCodingPolicy.RS_3_2.getName());
   }
 
   public static void abortStream(DFSOutputStream out) throws IOException {
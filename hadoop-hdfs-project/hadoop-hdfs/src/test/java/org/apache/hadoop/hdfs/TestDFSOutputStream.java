@@ -18,10 +18,14 @@
 package org.apache.hadoop.hdfs;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.Random;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.junit.AfterClass;
 import org.junit.Assert;
@@ -66,6 +70,51 @@ public void testCloseTwice() throws IOException {
     dos.close();
   }
 
+  /**
+   * Checksums computed by the checksum pool, and packets written to reused
+   * buffers, must read back the same as data written the default way,
+   * including the partial chunks sent by hflush and append.
+   */
+  @Test
+  public void testChecksumPoolAndPacketBufferReuse() throws IOException {
+    Configuration conf = new Configuration(cluster.getConfiguration(0));
+    conf.setInt(DFSConfigKeys.DFS_CLIENT_WRITE_CHECKSUM_THREADPOOL_SIZE_KEY, 4);
+    conf.setBoolean(DFSConfigKeys.DFS_CLIENT_WRITE_REUSE_PACKET_BUFFERS_KEY,
+        true);
+    FileSystem fs = FileSystem.newInstance(cluster.getURI(), conf);
+    try {
+      Path path = new Path("/testChecksumPoolAndPacketBufferReuse");
+      final int blockSize = 1024 * 1024;
+      byte[] data = new byte[2 * blockSize + 12345];
+      new Random(0xCAFE).nextBytes(data);
+
+      FSDataOutputStream os = fs.create(path, true, 4096, (short)1, blockSize);
+      DFSOutputStream dos = (DFSOutputStream) Whitebox.getInternalState(os,
+          "wrappedStream");
+      os.write(data, 0, 1000);
+      os.hflush();
+      os.write(data, 1000, blockSize);
+      os.hflush();
+      @SuppressWarnings("unchecked")
+      LinkedList<byte[]> packetBuffers = (LinkedList<byte[]>)
+          Whitebox.getInternalState(dos, "packetBuffers");
+      synchronized (packetBuffers) {
+        Assert.assertFalse(packetBuffers.isEmpty());
+      }
+      os.write(data, 1000 + blockSize, data.length - 1000 - blockSize - 100);
+      os.close();
+
+      os = fs.append(path);
+      os.write(data, data.length - 100, 100);
+      os.close();
+
+      byte[] actual = DFSTestUtil.readFileBuffer(fs, path);
+      Assert.assertTrue(Arrays.equals(data, actual));
+    } finally {
+      fs.close();
+    }
+  }
+
   @AfterClass
   public static void tearDown() {
     cluster.shutdown();
@@ -0,0 +1,198 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.apache.hadoop.HadoopIllegalArgumentException;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.protocol.ErasureCodingPolicy;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants.SafeModeAction;
+import org.apache.hadoop.ipc.RemoteException;
+import org.apache.hadoop.test.GenericTestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Set, inherit and persist the erasure coding policies of directories, and
+ * check the operations that erasure coded files do not support.
+ */
+public class TestErasureCodingPolicies {
+  private static final ErasureCodingPolicy EC_POLICY =
+      ErasureCodingPolicy.RS_3_2;
+  private static final int FILE_LENGTH = 3 * EC_POLICY.getCellSize() + 1;
+
+  private MiniDFSCluster cluster;
+  private DistributedFileSystem fs;
+
+  @Before
+  public void setUp() throws IOException {
+    cluster = new MiniDFSCluster.Builder(TestWriteReadStripedFile.newConf())
+        .numDataNodes(EC_POLICY.getNumUnits()).build();
+    cluster.waitActive();
+    fs = cluster.getFileSystem();
+  }
+
+  @After
+  public void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  private ErasureCodingPolicy getFilePolicy(Path p) throws IOException {
+    return fs.getClient().getFileInfo(p.toString()).getErasureCodingPolicy();
+  }
+
+  @Test(timeout=60000)
+  public void testSetAndInherit() throws IOException {
+    final Path dir = new Path("/ec");
+    final Path sub = new Path(dir, "sub");
+    final Path replicated = new Path(dir, "replicated");
+    fs.mkdirs(dir);
+    DFSTestUtil.createFile(fs, replicated, 1024, (short) 1, 0L);
+    assertNull(fs.getErasureCodingPolicy(dir));
+
+    fs.setErasureCodingPolicy(dir, EC_POLICY.getName());
+    fs.mkdirs(sub);
+    assertEquals(EC_POLICY, fs.getErasureCodingPolicy(dir));
+    assertEquals(EC_POLICY, fs.getErasureCodingPolicy(sub));
+    // An existing file keeps its layout.
+    assertNull(fs.getErasureCodingPolicy(replicated));
+    assertNull(getFilePolicy(replicated));
+
+    final Path file = new Path(sub, "file");
+    TestWriteReadStripedFile.writeFile(fs, file,
+        TestWriteReadStripedFile.generateBytes(FILE_LENGTH));
+    assertEquals(EC_POLICY, fs.getErasureCodingPolicy(file));
+    assertEquals(EC_POLICY, getFilePolicy(file));
+    assertEquals(1, fs.getFileStatus(file).getReplication());
+
+    // A policy on a subdirectory overrides the inherited one.
+    fs.setErasureCodingPolicy(sub, ErasureCodingPolicy.RS_6_3.getName());
+    assertEquals(ErasureCodingPolicy.RS_6_3, fs.getErasureCodingPolicy(sub));
+    assertEquals(EC_POLICY, fs.getErasureCodingPolicy(file));
+
+    // Removing the policy makes new files replicated again.
+    fs.setErasureCodingPolicy(sub, null);
+    fs.setErasureCodingPolicy(dir, null);
+    assertNull(fs.getErasureCodingPolicy(sub));
+    final Path later = new Path(sub, "later");
+    DFSTestUtil.createFile(fs, later, 1024, (short) 1, 0L);
+    assertNull(getFilePolicy(later));
+  }
+
+  @Test(timeout=60000)
+  public void testInvalidPolicies() throws IOException {
+    final Path dir = new Path("/ec");
+    fs.mkdirs(dir);
+    try {
+      fs.setErasureCodingPolicy(dir, "no-such-policy");
+      fail("An unknown policy was set");
+    } catch (RemoteException e) {
+      assertEquals(HadoopIllegalArgumentException.class.getName(),
+          e.getClassName());
+      GenericTestUtils.assertExceptionContains("no-such-policy", e);
+    }
+    final Path file = new Path(dir, "file");
+    DFSTestUtil.createFile(fs, file, 1024, (short) 1, 0L);
+    try {
+      fs.setErasureCodingPolicy(file, EC_POLICY.getName());
+      fail("A policy was set on a file");
+    } catch (IOException e) {
+      GenericTestUtils.assertExceptionContains("not a directory", e);
+    }
+  }
+
+  @Test(timeout=60000)
+  public void testPersistence() throws IOException {
+    final Path dir = new Path("/ec");
+    final Path file = new Path(dir, "file");
+    final byte[] data = TestWriteReadStripedFile.generateBytes(FILE_LENGTH);
+    fs.mkdirs(dir);
+    fs.setErasureCodingPolicy(dir, EC_POLICY.getName());
+    TestWriteReadStripedFile.writeFile(fs, file, data);
+
+    // Replay the edit log.
+    cluster.restartNameNode(true);
+    fs = cluster.getFileSystem();
+    assertEquals(EC_POLICY, fs.getErasureCodingPolicy(dir));
+    TestWriteReadStripedFile.verifyFile(fs, file, data);
+
+    // Load the image.
+    fs.setSafeMode(SafeModeAction.SAFEMODE_ENTER);
+    fs.saveNamespace();
+    fs.setSafeMode(SafeModeAction.SAFEMODE_LEAVE);
+    cluster.restartNameNode(true);
+    fs = cluster.getFileSystem();
+    assertEquals(EC_POLICY, fs.getErasureCodingPolicy(dir));
+    assertEquals(EC_POLICY, fs.getErasureCodingPolicy(file));
+    TestWriteReadStripedFile.verifyFile(fs, file, data);
+  }
+
+  @Test(timeout=60000)
+  public void testUnsupportedOperations() throws IOException {
+    final Path dir = new Path("/ec");
+    final Path file = new Path(dir, "file");
+    final Path replicated = new Path(dir, "replicated");
+    fs.mkdirs(dir);
+    DFSTestUtil.createFile(fs, replicated, 1024, (short) 1, 0L);
+    fs.setErasureCodingPolicy(dir, EC_POLICY.getName());
+    TestWriteReadStripedFile.writeFile(fs, file,
+        TestWriteReadStripedFile.generateBytes(FILE_LENGTH));
+
+    try {
+      fs.append(file).close();
+      fail("Appended to an erasure coded file");
+    } catch (IOException e) {
+      GenericTestUtils.assertExceptionContains("erasure coded", e);
+    }
+    try {
+      fs.setReplication(file, (short) 3);
+      fail("Set the replication of an erasure coded file");
+    } catch (IOException e) {
+      GenericTestUtils.assertExceptionContains("erasure coded", e);
+    }
+    FSDataOutputStream out = fs.create(new Path(dir, "open"));
+    try {
+      out.hflush();
+      fail("Flushed an erasure coded file");
+    } catch (UnsupportedOperationException e) {
+      GenericTestUtils.assertExceptionContains("erasure coded", e);
+    } finally {
+      out.close();
+    }
+    assertTrue(fs.exists(new Path(dir, "open")));
+
+    try {
+      fs.concat(file, new Path[] {replicated});
+      fail("Concatenated an erasure coded file");
+    } catch (RemoteException e) {
+      assertEquals(HadoopIllegalArgumentException.class.getName(),
+          e.getClassName());
+      GenericTestUtils.assertExceptionContains("erasure coded", e);
+    }
+  }
+}
@@ -19,9 +19,13 @@
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
@@ -32,6 +36,7 @@
 import org.apache.commons.logging.impl.Log4JLogger;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileRange;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hdfs.protocol.datatransfer.DataTransferProtocol;
@@ -369,6 +374,69 @@ public void testPreadLocalFS() throws IOException {
     }
   }
 
+  /**
+   * Tests vectored reads in DFS: ranges in the same block are merged,
+   * ranges that span blocks are read on their own, and a range past the
+   * end of the file fails alone.
+   */
+  @Test
+  public void testVectoredReadDFS() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setLong(DFSConfigKeys.DFS_CLIENT_READ_PREFETCH_SIZE_KEY, 4096);
+    conf.setInt(DFSConfigKeys.DFS_CLIENT_VECTORED_READ_MIN_SEEK_SIZE, 512);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).numDataNodes(3)
+        .build();
+    FileSystem fileSys = cluster.getFileSystem();
+    try {
+      Path file1 = new Path("vectoredreadtest.dat");
+      writeFile(fileSys, file1);
+      byte[] expected = new byte[12 * blockSize];
+      new Random(seed).nextBytes(expected);
+
+      List<FileRange> ranges = new ArrayList<FileRange>();
+      // three close ranges of block 0, merged into one read
+      ranges.add(new FileRange(100, 200));
+      ranges.add(new FileRange(0, 50));
+      ranges.add(new FileRange(400, 1000));
+      // a range far from them in the same block
+      ranges.add(new FileRange(blockSize - 100, 100));
+      // a range spanning blocks 2 to 4
+      ranges.add(new FileRange(2 * blockSize + 10, 2 * blockSize));
+      ranges.add(new FileRange(5 * blockSize, 0));
+      ranges.add(new FileRange(11 * blockSize, blockSize - 100));
+      FileRange pastEnd = new FileRange(12 * blockSize - 10, 20);
+      ranges.add(pastEnd);
+
+      FSDataInputStream stm = fileSys.open(file1);
+      try {
+        stm.readVectored(ranges);
+        for (FileRange range : ranges) {
+          if (range == pastEnd) {
+            continue;
+          }
+          ByteBuffer buf = range.getData().get();
+          assertEquals(range.toString(), range.getLength(), buf.remaining());
+          byte[] actual = new byte[buf.remaining()];
+          buf.get(actual);
+          checkAndEraseData(actual, (int) range.getOffset(), expected,
+              "Vectored read of " + range);
+        }
+        try {
+          pastEnd.getData().get();
+          fail("Read past the end of the file");
+        } catch (ExecutionException e) {
+          assertTrue(e.getCause() instanceof EOFException);
+        }
+      } finally {
+        stm.close();
+      }
+      cleanupFile(fileSys, file1);
+    } finally {
+      fileSys.close();
+      cluster.shutdown();
+    }
+  }
+
   public static void main(String[] args) throws Exception {
     new TestPread().testPreadDFS();
   }
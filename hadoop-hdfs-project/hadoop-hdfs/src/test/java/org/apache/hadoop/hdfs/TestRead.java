@@ -19,6 +19,7 @@
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import junit.framework.Assert;
 
@@ -27,6 +28,7 @@
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hdfs.DFSTestUtil.ShortCircuitTestContext;
+import org.apache.hadoop.hdfs.client.HdfsDataInputStream;
 import org.junit.Test;
 
 public class TestRead {
@@ -80,4 +82,60 @@ public void testEOFWithRemoteBlockReader() throws Exception {
     testEOF(cluster, 10000);   
     cluster.shutdown();
   }
+
+  @Test(timeout=60000)
+  public void testPrefetchedSequentialRead() throws Exception {
+    final int blockSize = 4096;
+    final int fileLength = 10 * blockSize + 100;
+    final Configuration conf = new Configuration();
+    conf.setLong(DFSConfigKeys.DFS_NAMENODE_MIN_BLOCK_SIZE_KEY, 0);
+    conf.setInt(DFSConfigKeys.DFS_CLIENT_BLOCK_PREFETCH_BLOCKS_KEY, 2);
+    conf.setInt(DFSConfigKeys.DFS_CLIENT_BLOCK_PREFETCH_CHUNK_SIZE_KEY, 1024);
+    conf.setInt(DFSConfigKeys.DFS_CLIENT_BLOCK_PREFETCH_MAX_BUFFERS_KEY, 6);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).numDataNodes(2)
+        .format(true).build();
+    try {
+      FileSystem fs = cluster.getFileSystem();
+      Path path = new Path("testPrefetchedSequentialRead");
+      DFSTestUtil.createFile(fs, path, 1024, fileLength, blockSize,
+          (short)2, 0xBEEFBEEF);
+
+      byte[] expected = new byte[fileLength];
+      HdfsDataInputStream fis = (HdfsDataInputStream)fs.open(path);
+      fis.setPrefetch(0);
+      fis.readFully(expected);
+      Assert.assertEquals(0,
+          fis.getReadStatistics().getTotalPrefetchedBytesUsed());
+      fis.close();
+
+      // A sequential scan is served from prefetched data.
+      byte[] actual = new byte[fileLength];
+      fis = (HdfsDataInputStream)fs.open(path);
+      int off = 0;
+      while (off < fileLength) {
+        int n = fis.read(actual, off, Math.min(300, fileLength - off));
+        Assert.assertTrue(n > 0);
+        off += n;
+      }
+      Assert.assertEquals(-1, fis.read());
+      Assert.assertTrue(Arrays.equals(expected, actual));
+      DFSInputStream.ReadStatistics stats = fis.getReadStatistics();
+      Assert.assertEquals(fileLength, stats.getTotalBytesRead());
+      Assert.assertTrue(stats.getTotalPrefetchedBytesUsed() > 9 * blockSize);
+      Assert.assertEquals(0, stats.getTotalPrefetchedBytesWasted());
+
+      // Seeking away drops what was prefetched past the old position.
+      fis.seek(0);
+      Assert.assertEquals(expected[0], (byte)fis.read());
+      ByteBuffer buf = ByteBuffer.allocate(2000);
+      Assert.assertEquals(1024, fis.read(buf));
+      fis.seek(7 * blockSize + 5);
+      Assert.assertEquals(expected[7 * blockSize + 5], (byte)fis.read());
+      Assert.assertTrue(
+          fis.getReadStatistics().getTotalPrefetchedBytesWasted() > 0);
+      fis.close();
+    } finally {
+      cluster.shutdown();
+    }
+  }
 }
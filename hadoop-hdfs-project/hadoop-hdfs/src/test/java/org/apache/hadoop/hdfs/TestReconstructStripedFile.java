@@ -0,0 +1,128 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+import org.apache.hadoop.hdfs.protocol.ErasureCodingPolicy;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.apache.hadoop.hdfs.server.blockmanagement.BlockManagerTestUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * When a datanode holding an internal block of a block group dies, the
+ * NameNode schedules its reconstruction on another datanode, which decodes
+ * it from the surviving internal blocks of the group.
+ */
+public class TestReconstructStripedFile {
+  private static final ErasureCodingPolicy EC_POLICY =
+      ErasureCodingPolicy.RS_3_2;
+  private static final int NUM_UNITS = EC_POLICY.getNumUnits();
+  private static final int CELL_SIZE = EC_POLICY.getCellSize();
+  private static final int GROUP_SIZE =
+      2 * CELL_SIZE * EC_POLICY.getNumDataUnits();
+  private static final Path EC_DIR = new Path("/ec");
+
+  private MiniDFSCluster cluster;
+  private DistributedFileSystem fs;
+
+  @Before
+  public void setUp() throws Exception {
+    cluster = new MiniDFSCluster.Builder(TestWriteReadStripedFile.newConf())
+        .numDataNodes(NUM_UNITS + 1).build();
+    cluster.waitActive();
+    fs = cluster.getFileSystem();
+    fs.mkdirs(EC_DIR);
+    fs.setErasureCodingPolicy(EC_DIR, EC_POLICY.getName());
+  }
+
+  @After
+  public void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  private void testReconstruct(int lostUnit) throws Exception {
+    final int length = GROUP_SIZE + CELL_SIZE * 2 + 5;
+    final Path p = new Path(EC_DIR, "file-" + lostUnit);
+    final byte[] data = TestWriteReadStripedFile.generateBytes(length);
+    TestWriteReadStripedFile.writeFile(fs, p, data);
+
+    List<LocatedBlock> blocks = fs.getClient().getLocatedBlocks(
+        p.toString(), 0, length).getLocatedBlocks();
+    final String lostNode =
+        blocks.get(lostUnit).getLocations()[0].getXferAddr();
+    cluster.stopDataNode(lostNode);
+    BlockManagerTestUtil.noticeDeadDatanode(cluster.getNameNode(), lostNode);
+
+    // Wait until every internal block of both groups is on a live node.
+    DatanodeInfo[] newLocations = new DatanodeInfo[blocks.size()];
+    for (boolean reconstructed = false; !reconstructed; ) {
+      Thread.sleep(500);
+      blocks = fs.getClient().getLocatedBlocks(p.toString(), 0, length)
+          .getLocatedBlocks();
+      reconstructed = true;
+      for (int i = 0; i < blocks.size(); i++) {
+        DatanodeInfo[] locs = blocks.get(i).getLocations();
+        newLocations[i] = locs.length == 1
+            && !locs[0].getXferAddr().equals(lostNode) ? locs[0] : null;
+        reconstructed &= newLocations[i] != null;
+      }
+    }
+
+    assertEquals(0, cluster.getNamesystem().getUnderReplicatedBlocks());
+
+    // Stop the datanodes of two other units of every group, so that the
+    // file can only be read back with the reconstructed blocks.
+    Set<String> keep = new HashSet<String>();
+    Set<String> others = new HashSet<String>();
+    for (int i = 0; i < blocks.size(); i++) {
+      (i % NUM_UNITS == lostUnit ? keep : others).add(
+          newLocations[i].getXferAddr());
+    }
+    others.removeAll(keep);
+    Iterator<String> it = others.iterator();
+    for (int stopped = 0; stopped < EC_POLICY.getNumParityUnits();
+        stopped++) {
+      String node = it.next();
+      cluster.stopDataNode(node);
+      BlockManagerTestUtil.noticeDeadDatanode(cluster.getNameNode(), node);
+    }
+    TestWriteReadStripedFile.verifyFile(fs, p, data);
+  }
+
+  @Test(timeout=120000)
+  public void testReconstructDataUnit() throws Exception {
+    testReconstruct(0);
+  }
+
+  @Test(timeout=120000)
+  public void testReconstructParityUnit() throws Exception {
+    testReconstruct(NUM_UNITS - 1);
+  }
+}
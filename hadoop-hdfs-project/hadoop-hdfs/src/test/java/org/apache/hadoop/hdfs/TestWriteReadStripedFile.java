@@ -0,0 +1,250 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
+import org.apache.hadoop.hdfs.protocol.ErasureCodingPolicy;
+import org.apache.hadoop.hdfs.protocol.LocatedBlock;
+import org.apache.hadoop.hdfs.protocol.LocatedBlocks;
+import org.apache.hadoop.hdfs.util.StripedBlockUtil;
+import org.apache.hadoop.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Write files with an erasure coding policy through DFSStripedOutputStream
+ * and read them back through DFSStripedInputStream, with all internal
+ * blocks available and with some of them lost.
+ */
+public class TestWriteReadStripedFile {
+  private static final ErasureCodingPolicy EC_POLICY =
+      ErasureCodingPolicy.RS_3_2;
+  private static final int CELL_SIZE = EC_POLICY.getCellSize();
+  private static final int NUM_DATA_UNITS = EC_POLICY.getNumDataUnits();
+  private static final int NUM_UNITS = EC_POLICY.getNumUnits();
+  private static final int BLOCK_SIZE = 2 * CELL_SIZE;
+  private static final int STRIPE_SIZE = CELL_SIZE * NUM_DATA_UNITS;
+  private static final int GROUP_SIZE = BLOCK_SIZE * NUM_DATA_UNITS;
+  private static final Path EC_DIR = new Path("/ec");
+
+  private MiniDFSCluster cluster;
+  private DistributedFileSystem fs;
+
+  static Configuration newConf() {
+    Configuration conf = new HdfsConfiguration();
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, BLOCK_SIZE);
+    conf.setLong(DFSConfigKeys.DFS_NAMENODE_MIN_BLOCK_SIZE_KEY, 0);
+    conf.setInt(DFSConfigKeys.DFS_HEARTBEAT_INTERVAL_KEY, 1);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_REPLICATION_INTERVAL_KEY, 1);
+    return conf;
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    cluster = new MiniDFSCluster.Builder(newConf())
+        .numDataNodes(NUM_UNITS + 1).build();
+    cluster.waitActive();
+    fs = cluster.getFileSystem();
+    fs.mkdirs(EC_DIR);
+    fs.setErasureCodingPolicy(EC_DIR, EC_POLICY.getName());
+  }
+
+  @After
+  public void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  static byte[] generateBytes(int length) {
+    byte[] bytes = new byte[length];
+    new Random(length).nextBytes(bytes);
+    return bytes;
+  }
+
+  static void writeFile(DistributedFileSystem fs, Path p, byte[] data)
+      throws IOException {
+    FSDataOutputStream out = fs.create(p);
+    try {
+      assertTrue(out.getWrappedStream() instanceof DFSStripedOutputStream);
+      // Write in pieces that do not line up with cells.
+      for (int off = 0; off < data.length; off += 10000) {
+        out.write(data, off, Math.min(10000, data.length - off));
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  /** Check a file with stateful reads, preads and block locations. */
+  static void verifyFile(DistributedFileSystem fs, Path p, byte[] expected)
+      throws IOException {
+    assertEquals(expected.length, fs.getFileStatus(p).getLen());
+
+    FSDataInputStream in = fs.open(p);
+    try {
+      assertTrue(in.getWrappedStream() instanceof DFSStripedInputStream);
+      // Stateful reads, in pieces that do not line up with cells.
+      byte[] actual = new byte[expected.length];
+      int off = 0;
+      while (off < actual.length) {
+        int n = in.read(actual, off, Math.min(7777, actual.length - off));
+        assertTrue("Unexpected EOF at " + off, n > 0);
+        off += n;
+      }
+      assertEquals(-1, in.read());
+      assertArrayEquals(expected, actual);
+
+      // Positioned reads around cell, stripe and group boundaries.
+      long[] positions = {0, 1, CELL_SIZE - 1, CELL_SIZE, STRIPE_SIZE - 3,
+          STRIPE_SIZE + CELL_SIZE / 2, GROUP_SIZE - 5, GROUP_SIZE + 17,
+          expected.length - 1};
+      for (long pos : positions) {
+        if (pos < 0 || pos >= expected.length) {
+          continue;
+        }
+        int len = (int) Math.min(CELL_SIZE * 2 + 11, expected.length - pos);
+        byte[] buf = new byte[len];
+        in.readFully(pos, buf);
+        for (int i = 0; i < len; i++) {
+          assertEquals("pread at " + (pos + i), expected[(int) pos + i],
+              buf[i]);
+        }
+      }
+
+      // Seek back and read to the end.
+      if (expected.length > 0) {
+        long pos = expected.length / 2;
+        in.seek(pos);
+        byte[] rest = new byte[(int) (expected.length - pos)];
+        IOUtils.readFully(in, rest, 0, rest.length);
+        for (int i = 0; i < rest.length; i++) {
+          assertEquals(expected[(int) pos + i], rest[i]);
+        }
+      }
+    } finally {
+      in.close();
+    }
+
+    BlockLocation[] locations =
+        fs.getFileBlockLocations(p, 0, expected.length);
+    assertEquals((expected.length + GROUP_SIZE - 1) / GROUP_SIZE,
+        locations.length);
+  }
+
+  private void testWriteRead(int length) throws IOException {
+    Path p = new Path(EC_DIR, "file-" + length);
+    byte[] data = generateBytes(length);
+    writeFile(fs, p, data);
+    verifyFile(fs, p, data);
+
+    LocatedBlocks blocks = fs.getClient().getLocatedBlocks(p.toString(), 0,
+        length);
+    assertEquals(EC_POLICY, blocks.getErasureCodingPolicy());
+    List<LocatedBlock> internalBlocks = blocks.getLocatedBlocks();
+    assertEquals(0, internalBlocks.size() % NUM_UNITS);
+    for (int first = 0; first < internalBlocks.size(); first += NUM_UNITS) {
+      long groupLength = Math.min(GROUP_SIZE,
+          length - (long) first / NUM_UNITS * GROUP_SIZE);
+      Set<DatanodeInfo> nodes = new HashSet<DatanodeInfo>();
+      for (int unit = 0; unit < NUM_UNITS; unit++) {
+        LocatedBlock lb = internalBlocks.get(first + unit);
+        assertEquals(StripedBlockUtil.getInternalBlockLength(groupLength,
+            EC_POLICY, unit), lb.getBlockSize());
+        assertEquals(1, lb.getLocations().length);
+        nodes.add(lb.getLocations()[0]);
+      }
+      assertEquals("The internal blocks of a group share a datanode",
+          NUM_UNITS, nodes.size());
+    }
+  }
+
+  @Test(timeout=120000)
+  public void testEmptyFile() throws IOException {
+    testWriteRead(0);
+  }
+
+  @Test(timeout=120000)
+  public void testPartialCell() throws IOException {
+    testWriteRead(1);
+    testWriteRead(CELL_SIZE - 1);
+  }
+
+  @Test(timeout=120000)
+  public void testPartialStripes() throws IOException {
+    testWriteRead(CELL_SIZE + 1);
+    testWriteRead(STRIPE_SIZE);
+    testWriteRead(STRIPE_SIZE + CELL_SIZE * 2 + 123);
+  }
+
+  @Test(timeout=120000)
+  public void testMultipleGroups() throws IOException {
+    testWriteRead(GROUP_SIZE);
+    testWriteRead(GROUP_SIZE * 2 + CELL_SIZE + 7);
+  }
+
+  /**
+   * Stop the datanodes of a data unit and of a parity unit of the first
+   * group: every cell of the lost data unit must be decoded.
+   */
+  @Test(timeout=120000)
+  public void testDegradedRead() throws IOException {
+    final int length = GROUP_SIZE + STRIPE_SIZE + CELL_SIZE + 99;
+    Path p = new Path(EC_DIR, "degraded");
+    byte[] data = generateBytes(length);
+    writeFile(fs, p, data);
+
+    List<LocatedBlock> internalBlocks = fs.getClient().getLocatedBlocks(
+        p.toString(), 0, length).getLocatedBlocks();
+    cluster.stopDataNode(internalBlocks.get(1).getLocations()[0].getXferAddr());
+    cluster.stopDataNode(internalBlocks.get(NUM_UNITS - 1).getLocations()[0]
+        .getXferAddr());
+    verifyFile(fs, p, data);
+  }
+
+  /**
+   * A datanode that died but is still live to the NameNode leaves an
+   * internal block of the first group unwritten, which the group tolerates;
+   * the writer then excludes the datanode from the next groups.
+   */
+  @Test(timeout=120000)
+  public void testWriteWithDatanodeFailure() throws IOException {
+    cluster.stopDataNode(0);
+    final int length = GROUP_SIZE * 2 + STRIPE_SIZE + 1;
+    Path p = new Path(EC_DIR, "failure");
+    byte[] data = generateBytes(length);
+    writeFile(fs, p, data);
+    verifyFile(fs, p, data);
+  }
+}
@@ -0,0 +1,92 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.protocol;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class TestBlockListAsLongs {
+
+  private static List<Block> randomBlocks(int count, long seed) {
+    Random rand = new Random(seed);
+    List<Block> blocks = new ArrayList<Block>();
+    long id = 1073741825L;
+    for (int i = 0; i < count; i++) {
+      id += 1 + rand.nextInt(10);
+      blocks.add(new Block(id, rand.nextInt(128 * 1024 * 1024),
+          1000 + rand.nextInt(100)));
+    }
+    return blocks;
+  }
+
+  @Test
+  public void testDeltaEncodingRoundTrip() {
+    List<Block> blocks = randomBlocks(1000, 0);
+    long[] plain = new BlockListAsLongs(blocks, null).getBlockListAsLongs();
+    long[] encoded = BlockListAsLongs.encodeDelta(plain);
+    assertTrue(encoded.length < plain.length);
+    // The input is already sorted by block id so it is restored exactly.
+    assertArrayEquals(plain, BlockListAsLongs.decodeDelta(encoded));
+  }
+
+  @Test
+  public void testDeltaEncodingUnsorted() {
+    List<Block> blocks = randomBlocks(100, 1);
+    Collections.shuffle(blocks, new Random(2));
+    long[] plain = new BlockListAsLongs(blocks, null).getBlockListAsLongs();
+    BlockListAsLongs decoded = new BlockListAsLongs(
+        BlockListAsLongs.decodeDelta(BlockListAsLongs.encodeDelta(plain)));
+    assertEquals(blocks.size(), decoded.getNumberOfBlocks());
+    Set<Block> expected = new HashSet<Block>(blocks);
+    for (Block b : decoded) {
+      Block orig = null;
+      for (Block e : expected) {
+        if (e.getBlockId() == b.getBlockId()) {
+          orig = e;
+          break;
+        }
+      }
+      assertEquals(orig.getNumBytes(), b.getNumBytes());
+      assertEquals(orig.getGenerationStamp(), b.getGenerationStamp());
+      expected.remove(orig);
+    }
+    assertTrue(expected.isEmpty());
+  }
+
+  @Test
+  public void testDeltaEncodingEmpty() {
+    long[] plain = new BlockListAsLongs().getBlockListAsLongs();
+    assertArrayEquals(plain,
+        BlockListAsLongs.decodeDelta(BlockListAsLongs.encodeDelta(plain)));
+  }
+
+  @Test(expected=IllegalArgumentException.class)
+  public void testDecodeInconsistentLength() {
+    BlockListAsLongs.decodeDelta(new long[] {2, 0, 1, 2, 3});
+  }
+}
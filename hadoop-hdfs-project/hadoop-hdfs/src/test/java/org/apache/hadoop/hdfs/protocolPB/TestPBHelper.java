@@ -19,6 +19,7 @@
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
@@ -400,6 +401,16 @@ public void testConvertNamespaceInfo() {
     compare(info, info2); //Compare the StorageInfo
     assertEquals(info.getBlockPoolID(), info2.getBlockPoolID());
     assertEquals(info.getBuildVersion(), info2.getBuildVersion());
+    assertEquals(info.getCapabilities(), info2.getCapabilities());
+    assertTrue(info2.isCapabilitySupported(
+        NamespaceInfo.Capability.DELTA_ENCODED_BLOCK_REPORTS));
+
+    // A NameNode that predates the capabilities advertises none.
+    NamespaceInfo oldInfo = PBHelper.convert(
+        proto.toBuilder().clearCapabilities().build());
+    assertEquals(0, oldInfo.getCapabilities());
+    assertFalse(oldInfo.isCapabilitySupported(
+        NamespaceInfo.Capability.DELTA_ENCODED_BLOCK_REPORTS));
   }
 
   private void compare(StorageInfo expected, StorageInfo actual) {
@@ -206,6 +206,43 @@ public void testReaderWhileAnotherWrites() throws Exception {
     }
   }
   
+  /**
+   * Test that a reader can tail the durable edits of the in-progress segment
+   * from the caches of the JournalNodes.
+   */
+  @Test
+  public void testSelectInProgressEditsViaRpc() throws Exception {
+    QuorumJournalManager readerQjm = closeLater(createSpyingQJM());
+    List<EditLogInputStream> streams = Lists.newArrayList();
+    writeSegment(cluster, qjm, 1, 3, false);
+    waitForAllPendingCalls(qjm.getLoggerSetForTests());
+
+    readerQjm.selectInputStreams(streams, 1, true, true);
+    try {
+      assertEquals(1, streams.size());
+      assertEquals(1, streams.get(0).getFirstTxId());
+      assertEquals(3, streams.get(0).getLastTxId());
+      verifyEdits(streams, 1, 3);
+    } finally {
+      IOUtils.cleanup(LOG, streams.toArray(new Closeable[0]));
+      streams.clear();
+    }
+
+    // Start in the middle of a batch.
+    readerQjm.selectInputStreams(streams, 2, true, true);
+    try {
+      assertEquals(1, streams.size());
+      verifyEdits(streams, 2, 3);
+    } finally {
+      IOUtils.cleanup(LOG, streams.toArray(new Closeable[0]));
+      streams.clear();
+    }
+
+    // Nothing newer has been written.
+    readerQjm.selectInputStreams(streams, 4, true, true);
+    assertEquals(0, streams.size());
+  }
+
   /**
    * Regression test for HDFS-3725. One of the journal nodes is down
    * during the writing of one segment, then comes back up later to
@@ -0,0 +1,146 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.qjournal.server;
+
+import static org.apache.hadoop.hdfs.qjournal.QJMTestUtil.createTxnData;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+
+import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.apache.hadoop.hdfs.server.namenode.EditLogFileInputStream;
+import org.apache.hadoop.hdfs.server.namenode.EditLogInputStream;
+import org.apache.hadoop.hdfs.server.namenode.FSEditLogOp;
+import org.apache.hadoop.hdfs.server.namenode.NameNodeLayoutVersion;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.junit.Test;
+
+import com.google.protobuf.ByteString;
+
+public class TestJournaledEditsCache {
+  private static final int LAYOUT_VERSION =
+      NameNodeLayoutVersion.CURRENT_LAYOUT_VERSION;
+
+  private final JournaledEditsCache cache = new JournaledEditsCache(
+      1024 * 1024);
+
+  @Test
+  public void testRetrieveEdits() throws Exception {
+    storeEdits(1, 1, 5);
+    storeEdits(1, 6, 5);
+    storeEdits(1, 11, 5);
+
+    assertTxns(1, 15, retrieve(1, 100));
+    // The whole batch of the first transaction is returned.
+    assertTxns(1, 15, retrieve(3, 100));
+    assertTxns(6, 15, retrieve(6, 100));
+    // Whole batches are returned until the maximum is reached.
+    assertTxns(1, 10, retrieve(1, 6));
+    assertTxns(1, 5, retrieve(1, 5));
+  }
+
+  @Test
+  public void testNoNewerEdits() throws Exception {
+    storeEdits(1, 1, 5);
+    DataOutputBuffer out = new DataOutputBuffer();
+    assertEquals(0, cache.retrieveEdits(6, 100, out));
+    assertEquals(0, out.getLength());
+  }
+
+  @Test
+  public void testEviction() throws Exception {
+    int batchSize = createTxnData(1, 5).length;
+    JournaledEditsCache smallCache = new JournaledEditsCache(
+        batchSize * 2 + batchSize / 2);
+    for (int i = 0; i < 4; i++) {
+      smallCache.storeEdits(createTxnData(1 + i * 5, 5), 1, 1 + i * 5,
+          5 + i * 5, LAYOUT_VERSION);
+    }
+    assertCacheMiss(smallCache, 1);
+    assertCacheMiss(smallCache, 10);
+    DataOutputBuffer out = new DataOutputBuffer();
+    assertEquals(10, smallCache.retrieveEdits(11, 100, out));
+  }
+
+  @Test
+  public void testDiscontiguousEditsClearCache() throws Exception {
+    storeEdits(1, 1, 5);
+    storeEdits(1, 8, 5);
+    assertCacheMiss(cache, 1);
+    assertTxns(8, 12, retrieve(8, 100));
+  }
+
+  @Test
+  public void testSegmentBoundary() throws Exception {
+    storeEdits(1, 1, 5);
+    storeEdits(6, 6, 5);
+    assertTxns(1, 5, retrieve(1, 100));
+    assertTxns(6, 10, retrieve(6, 100));
+  }
+
+  @Test
+  public void testClear() throws Exception {
+    storeEdits(1, 1, 5);
+    cache.clear();
+    assertCacheMiss(cache, 1);
+    assertCacheMiss(cache, 6);
+  }
+
+  private void storeEdits(long segmentTxId, int firstTxId, int numTxns)
+      throws Exception {
+    cache.storeEdits(createTxnData(firstTxId, numTxns), segmentTxId,
+        firstTxId, firstTxId + numTxns - 1, LAYOUT_VERSION);
+  }
+
+  private ByteString retrieve(long sinceTxId, int maxTxns)
+      throws IOException {
+    DataOutputBuffer out = new DataOutputBuffer();
+    cache.retrieveEdits(sinceTxId, maxTxns, out);
+    return ByteString.copyFrom(out.getData(), 0, out.getLength());
+  }
+
+  /**
+   * Assert that the edits contain exactly the given range of transactions.
+   */
+  private static void assertTxns(long firstTxId, long lastTxId,
+      ByteString edits) throws IOException {
+    EditLogInputStream in = EditLogFileInputStream.fromByteString(edits,
+        HdfsConstants.INVALID_TXID, HdfsConstants.INVALID_TXID, true);
+    try {
+      for (long txid = firstTxId; txid <= lastTxId; txid++) {
+        FSEditLogOp op = in.readOp();
+        assertEquals(txid, op.getTransactionId());
+      }
+      assertNull(in.readOp());
+    } finally {
+      in.close();
+    }
+  }
+
+  private static void assertCacheMiss(JournaledEditsCache c, long sinceTxId)
+      throws IOException {
+    try {
+      c.retrieveEdits(sinceTxId, 100, new DataOutputBuffer());
+      fail("Expected a cache miss for txid " + sinceTxId);
+    } catch (JournaledEditsCache.CacheMissException cme) {
+      // expected
+    }
+  }
+}
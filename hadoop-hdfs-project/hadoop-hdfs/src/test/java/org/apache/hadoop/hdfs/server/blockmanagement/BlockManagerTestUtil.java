@@ -125,6 +125,15 @@ public static void stopReplicationThread(final BlockManager blockManager)
     }
   }
 
+  /**
+   * @return the number of blocks of a decommissioning node that are
+   *         remembered as needing replication
+   */
+  public static int getNumPendingDecommissionBlocks(
+      final DatanodeManager dm, final DatanodeDescriptor node) {
+    return dm.getDecommissionManager().getNumPendingBlocks(node);
+  }
+
   /**
    * @param blockManager
    * @return corruptReplicas from block manager
@@ -262,7 +271,7 @@ public static StorageReport[] getStorageReportsForDatanode(
       StorageReport report = new StorageReport(
           dns ,false, storage.getCapacity(),
           storage.getDfsUsed(), storage.getRemaining(),
-          storage.getBlockPoolUsed());
+          storage.getBlockPoolUsed(), storage.isSlow());
       reports.add(report);
     }
     return reports.toArray(StorageReport.EMPTY_ARRAY);
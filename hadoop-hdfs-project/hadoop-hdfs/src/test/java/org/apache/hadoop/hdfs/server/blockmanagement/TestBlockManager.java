@@ -22,14 +22,17 @@
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map.Entry;
@@ -45,10 +48,14 @@
 import org.apache.hadoop.hdfs.server.namenode.FSNamesystem;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeRegistration;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeStorage;
+import org.apache.hadoop.hdfs.server.protocol.ReceivedDeletedBlockInfo;
+import org.apache.hadoop.hdfs.server.protocol.StorageReceivedDeletedBlocks;
 import org.apache.hadoop.net.NetworkTopology;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
@@ -525,6 +532,89 @@ public void testHighestPriReplSrcChosenDespiteMaxReplLimit() throws Exception {
             UnderReplicatedBlocks.QUEUE_HIGHEST_PRIORITY));
   }
 
+  /**
+   * Test that a scan in chunks does not choose a block twice when the
+   * number of under-replicated blocks is a multiple of the chunk size, so
+   * that a chunk ends exactly at the end of the lists.
+   */
+  @Test
+  public void testChooseUnderReplicatedBlocksInChunks() throws Exception {
+    conf.setInt(
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_BLOCKS_PER_LOCK_KEY, 2);
+    bm = new BlockManager(fsn, fsn, conf);
+    try {
+      final int numBlocks = 6;
+      for (int i = 0; i < numBlocks; i++) {
+        // Half of the blocks in the lowest priority list, so that the last
+        // chunk ends at the end of that list.
+        bm.neededReplications.add(new Block(i), i % 2, 0, 3);
+      }
+
+      List<List<Block>> chosen = bm.chooseUnderReplicatedBlocks(100);
+      List<Block> blocks = new ArrayList<Block>();
+      for (List<Block> list : chosen) {
+        blocks.addAll(list);
+      }
+      assertEquals(numBlocks, blocks.size());
+      assertEquals(numBlocks, new HashSet<Block>(blocks).size());
+      // Three chunks, with a yield between them.
+      verify(fsn, times(2)).writeUnlock();
+
+      // The next scan starts over from the heads of the lists.
+      assertEquals(numBlocks,
+          countBlocks(bm.chooseUnderReplicatedBlocks(numBlocks)));
+    } finally {
+      bm.close();
+    }
+  }
+
+  private static int countBlocks(List<List<Block>> blocks) {
+    int count = 0;
+    for (List<Block> list : blocks) {
+      count += list.size();
+    }
+    return count;
+  }
+
+  /**
+   * Test that the replication work is scheduled when the targets are chosen
+   * by several threads, and the write lock is released every few blocks.
+   */
+  @Test
+  public void testParallelReplicationWork() throws Exception {
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_THREADS_KEY, 4);
+    conf.setInt(
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_WORK_BLOCKS_PER_LOCK_KEY, 2);
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_REPLICATION_MAX_STREAMS_KEY, 100);
+    conf.setInt(
+        DFSConfigKeys.DFS_NAMENODE_REPLICATION_STREAMS_HARD_LIMIT_KEY, 100);
+    bm = new BlockManager(fsn, fsn, conf);
+    try {
+      addNodes(nodes);
+      final int numBlocks = 20;
+      List<List<Block>> blocksToReplicate = new ArrayList<List<Block>>();
+      blocksToReplicate.add(new ArrayList<Block>());
+      blocksToReplicate.add(new ArrayList<Block>());
+      for (int i = 0; i < numBlocks; i++) {
+        // Two replicas, on the two racks.
+        List<DatanodeDescriptor> origNodes = getNodes(i % 3, 3 + i % 3);
+        blocksToReplicate.get(1).add(addBlockOnNodes(i, origNodes));
+      }
+
+      assertEquals(numBlocks,
+          bm.computeReplicationWorkForBlocks(blocksToReplicate));
+      for (List<Block> blocks : blocksToReplicate) {
+        for (Block block : blocks) {
+          assertEquals(1, bm.pendingReplications.getNumReplicas(block));
+        }
+      }
+      // The lock is taken twice, and again after every two blocks.
+      verify(fsn, Mockito.atLeast(numBlocks)).writeLock();
+    } finally {
+      bm.close();
+    }
+  }
+
   @Test
   public void testSafeModeIBR() throws Exception {
     DatanodeDescriptor node = spy(nodes.get(0));
@@ -599,5 +689,55 @@ public void testSafeModeIBRAfterIncremental() throws Exception {
         new BlockListAsLongs(null, null));
     assertEquals(1, ds.getBlockReportCount());
   }
-}
 
+  /**
+   * Test that a replica added by an incremental block report, processed
+   * while the lock is released between two batches of an initial block
+   * report, is counted once towards the safe blocks.
+   */
+  @Test
+  public void testSafeModeIBRBetweenInitialReportBatches() throws Exception {
+    conf.setInt(DFSConfigKeys.DFS_NAMENODE_INITIAL_BLOCK_REPORT_BATCH_SIZE_KEY,
+        1);
+    bm = new BlockManager(fsn, fsn, conf);
+    final DatanodeDescriptor node = nodes.get(0);
+    final DatanodeStorageInfo ds = node.getStorageInfos()[0];
+    node.setDatanodeUuidForTesting(ds.getStorageID());
+    node.isAlive = true;
+    DatanodeRegistration nodeReg =
+        new DatanodeRegistration(node, null, null, "");
+    doReturn(true).when(fsn).isInStartupSafeMode();
+    bm.getDatanodeManager().registerDatanode(nodeReg);
+    bm.getDatanodeManager().addDatanode(node);
+
+    final List<DatanodeDescriptor> noNodes = Lists.newArrayList();
+    final BlockInfo first = addBlockOnNodes(1, noNodes);
+    final BlockInfo second = addBlockOnNodes(2, noNodes);
+
+    // The second block is received while the lock is released after the
+    // first batch.
+    final int[] locks = { 0 };
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        if (++locks[0] == 2) {
+          ReceivedDeletedBlockInfo[] received = {
+              new ReceivedDeletedBlockInfo(new Block(second),
+                  ReceivedDeletedBlockInfo.BlockStatus.RECEIVED_BLOCK, null) };
+          bm.processIncrementalBlockReport(node,
+              new StorageReceivedDeletedBlocks(ds.getStorageID(), received));
+        }
+        return null;
+      }
+    }).when(fsn).writeLock();
+
+    List<Block> report = Lists.newArrayList(new Block(first),
+        new Block(second));
+    bm.processReport(node, new DatanodeStorage(ds.getStorageID()), "pool",
+        new BlockListAsLongs(report, null));
+
+    assertTrue(locks[0] >= 2);
+    assertEquals(2, ds.numBlocks());
+    verify(fsn, times(2)).incrementSafeBlockCount(Mockito.anyInt());
+  }
+}
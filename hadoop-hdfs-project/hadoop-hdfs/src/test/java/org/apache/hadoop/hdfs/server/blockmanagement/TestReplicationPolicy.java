@@ -58,6 +58,7 @@
 import org.apache.hadoop.hdfs.server.namenode.NameNode;
 import org.apache.hadoop.hdfs.server.namenode.Namesystem;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeStorage;
+import org.apache.hadoop.hdfs.server.protocol.StorageReport;
 import org.apache.hadoop.net.NetworkTopology;
 import org.apache.hadoop.net.Node;
 import org.apache.hadoop.test.PathUtils;
@@ -539,6 +540,52 @@ public void testChooseTargetWithStaleNodes() throws Exception {
       .getDatanodeManager().getHeartbeatManager().heartbeatCheck();
   }
 
+  private static void setSlow(DatanodeDescriptor dn, boolean slow) {
+    StorageReport[] reports =
+        BlockManagerTestUtil.getStorageReportsForDatanode(dn);
+    for (int i = 0; i < reports.length; i++) {
+      StorageReport r = reports[i];
+      reports[i] = new StorageReport(r.getStorage(), r.isFailed(),
+          r.getCapacity(), r.getDfsUsed(), r.getRemaining(),
+          r.getBlockPoolUsed(), slow);
+    }
+    dn.updateHeartbeat(reports, 0L, 0L, 0, 0);
+  }
+
+  /**
+   * In this testcase, the storage of dataNodes[0] is reported slow. It is
+   * avoided while other targets can be found, and still chosen when all
+   * the datanodes are needed.
+   */
+  @Test
+  public void testChooseTargetWithSlowStorage() throws Exception {
+    final BlockManager bm = namenode.getNamesystem().getBlockManager();
+    setSlow(dataNodes[0], true);
+    BlockManagerTestUtil.checkHeartbeat(bm);
+    assertTrue(bm.getDatanodeManager().shouldAvoidSlowStoragesForWrite());
+    try {
+      // datanode[1] is on the same rack with datanode[0] (writer)
+      DatanodeStorageInfo[] targets = chooseTarget(1);
+      assertEquals(1, targets.length);
+      assertEquals(storages[1], targets[0]);
+
+      targets = chooseTarget(3);
+      assertEquals(3, targets.length);
+      for (DatanodeStorageInfo target : targets) {
+        assertFalse(storages[0].equals(target));
+      }
+
+      targets = chooseTarget(NUM_OF_DATANODES);
+      assertEquals(NUM_OF_DATANODES, targets.length);
+      assertTrue(Arrays.asList(targets).contains(storages[0]));
+    } finally {
+      // reset
+      setSlow(dataNodes[0], false);
+      BlockManagerTestUtil.checkHeartbeat(bm);
+    }
+    assertFalse(bm.getDatanodeManager().shouldAvoidSlowStoragesForWrite());
+  }
+
   /**
    * In this testcase, we set 3 nodes (dataNodes[0] ~ dataNodes[2]) as stale,
    * and when the number of replicas is less or equal to 3, all the healthy
@@ -18,6 +18,7 @@
 package org.apache.hadoop.hdfs.server.datanode;
 
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -784,6 +785,13 @@ public synchronized InputStream getBlockInputStream(ExtendedBlock b,
     return result;
   }
 
+  /** Not supported */
+  @Override // FsDatasetSpi
+  public InputStream getDirectBlockInputStream(ExtendedBlock b,
+      long seekOffset) throws IOException {
+    return null;
+  }
+
   /** Not supported */
   @Override // FsDatasetSpi
   public ReplicaInputStreams getTmpInputStreams(ExtendedBlock b, long blkoff,
@@ -819,6 +827,11 @@ public synchronized void adjustCrcChannelPosition(ExtendedBlock b,
                                               throws IOException {
   }
 
+  @Override // FsDatasetSpi
+  public void submitBackgroundSyncFileRangeRequest(ExtendedBlock b,
+      FileDescriptor fd, long offset, long nbytes, int flags) {
+  }
+
   /** 
    * Simulated input and output streams
    *
@@ -0,0 +1,98 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.io.IOUtils;
+import org.junit.Test;
+
+public class TestAlignedBufferedInputStream {
+  private static final int BUFFER_SIZE = 64;
+
+  /** Records the position and length of each read. */
+  private static class RecordingInputStream extends ByteArrayInputStream {
+    final List<long[]> reads = new ArrayList<long[]>();
+
+    RecordingInputStream(byte[] data) {
+      super(data);
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) {
+      reads.add(new long[] { pos, len });
+      return super.read(b, off, len);
+    }
+  }
+
+  private static byte[] createData(int length) {
+    byte[] data = new byte[length];
+    for (int i = 0; i < length; i++) {
+      data[i] = (byte) i;
+    }
+    return data;
+  }
+
+  @Test
+  public void testReadsStayAligned() throws IOException {
+    byte[] data = createData(1000);
+    RecordingInputStream raw = new RecordingInputStream(data);
+    DataInputStream in = new DataInputStream(
+        new AlignedBufferedInputStream(raw, BUFFER_SIZE));
+
+    // a small header, then a skip past the buffered data
+    byte[] header = new byte[7];
+    in.readFully(header);
+    IOUtils.skipFully(in, 300);
+    byte[] buf = new byte[100];
+    in.readFully(buf);
+    for (int i = 0; i < buf.length; i++) {
+      assertEquals(data[307 + i], buf[i]);
+    }
+    assertEquals(407 & 0xff, in.read());
+
+    for (long[] read : raw.reads) {
+      long end = read[0] + read[1];
+      assertTrue("read of " + read[1] + " at " + read[0] + " is not aligned",
+          read[0] / BUFFER_SIZE == (end - 1) / BUFFER_SIZE);
+      if (read[0] % BUFFER_SIZE == 0) {
+        assertEquals(BUFFER_SIZE, read[1]);
+      }
+    }
+    in.close();
+  }
+
+  @Test
+  public void testEndOfStream() throws IOException {
+    byte[] data = createData(100);
+    AlignedBufferedInputStream in = new AlignedBufferedInputStream(
+        new ByteArrayInputStream(data), BUFFER_SIZE);
+    byte[] buf = new byte[200];
+    assertEquals(BUFFER_SIZE, in.read(buf, 0, buf.length));
+    assertEquals(100 - BUFFER_SIZE, in.read(buf, 0, buf.length));
+    assertEquals(-1, in.read(buf, 0, buf.length));
+    assertEquals(-1, in.read());
+    in.close();
+  }
+}
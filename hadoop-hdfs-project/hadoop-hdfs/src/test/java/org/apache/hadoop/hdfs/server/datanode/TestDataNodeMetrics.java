@@ -19,6 +19,7 @@
 
 import static org.apache.hadoop.test.MetricsAsserts.assertCounter;
 import static org.apache.hadoop.test.MetricsAsserts.assertQuantileGauges;
+import static org.apache.hadoop.test.MetricsAsserts.getIntGauge;
 import static org.apache.hadoop.test.MetricsAsserts.getLongCounter;
 import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
 import static org.junit.Assert.assertEquals;
@@ -39,8 +40,11 @@
 import org.apache.hadoop.hdfs.MiniDFSCluster;
 import org.apache.hadoop.hdfs.protocol.DatanodeInfo;
 import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.apache.hadoop.test.GenericTestUtils;
 import org.junit.Test;
 
+import com.google.common.base.Supplier;
+
 public class TestDataNodeMetrics {
 
   @Test
@@ -186,4 +190,58 @@ public void testRoundTripAckMetric() throws Exception {
       }
     }
   }
+
+  /**
+   * Tests that an event-driven DataXceiverServer reports a kept-alive
+   * connection as idle, reuses it for the next read, and closes it once
+   * the keepalive timeout expires.
+   */
+  @Test(timeout=60000)
+  public void testEventDrivenXceiverMetrics() throws Exception {
+    final int keepalive = 2000;
+    Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(DFSConfigKeys.DFS_DATANODE_XCEIVER_EVENT_DRIVEN_KEY, true);
+    conf.setInt(DFSConfigKeys.DFS_DATANODE_SOCKET_REUSE_KEEPALIVE_KEY,
+        keepalive);
+    conf.setLong(DFSConfigKeys.DFS_CLIENT_SOCKET_CACHE_EXPIRY_MSEC_KEY,
+        60000L);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).build();
+    try {
+      cluster.waitActive();
+      FileSystem fs = cluster.getFileSystem();
+      final DataNode datanode = cluster.getDataNodes().get(0);
+      Path tmpfile = new Path("/tmp.txt");
+      DFSTestUtil.createFile(fs, tmpfile, 1L, (short)1, 1L);
+
+      // The client caches the connection of each read, and the datanode
+      // parks the xceiver until the next op.
+      DFSTestUtil.readFile(fs, tmpfile);
+      waitForIdleXceivers(datanode, 1);
+      DFSTestUtil.readFile(fs, tmpfile);
+      waitForIdleXceivers(datanode, 1);
+      MetricsRecordBuilder rb = getMetrics(datanode.getMetrics().name());
+      assertCounter("ReadBlockOpNumOps", 2L, rb);
+      // the accept thread plus the parked xceiver
+      assertEquals(2, datanode.getXceiverCount());
+
+      // The parked xceiver is closed once its keepalive expires.
+      waitForIdleXceivers(datanode, 0);
+      assertEquals(1, datanode.getXceiverCount());
+    } finally {
+      if (cluster != null) {cluster.shutdown();}
+    }
+  }
+
+  /** Wait until no xceiver is active and the given number are idle. */
+  private static void waitForIdleXceivers(final DataNode datanode,
+      final int expected) throws Exception {
+    GenericTestUtils.waitFor(new Supplier<Boolean>() {
+      @Override
+      public Boolean get() {
+        MetricsRecordBuilder rb = getMetrics(datanode.getMetrics().name());
+        return getIntGauge("IdleXceivers", rb) == expected
+            && getIntGauge("ActiveXceivers", rb) == 0;
+      }
+    }, 100, 10000);
+  }
 }
@@ -208,7 +208,8 @@ private long createBlockMetaFile() throws IOException {
   }
 
   private void scan(long totalBlocks, int diffsize, long missingMetaFile, long missingBlockFile,
-      long missingMemoryBlocks, long mismatchBlocks) {
+      long missingMemoryBlocks, long mismatchBlocks)
+      throws InterruptedException {
     scanner.reconcile();
     
     assertTrue(scanner.diffs.containsKey(bpid));
@@ -232,6 +233,84 @@ public void testDirectoryScanner() throws Exception {
     }
   }
   
+  @Test(timeout=60000)
+  public void testThrottling() throws Exception {
+    Configuration conf = new HdfsConfiguration(CONF);
+    // spread the blocks over many directories
+    conf.setInt(DFSConfigKeys.DFS_DATANODE_NUMBLOCKS_KEY, 4);
+    conf.setInt(
+        DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THROTTLE_LIMIT_MS_PER_SEC_KEY,
+        1);
+    cluster = new MiniDFSCluster.Builder(conf).build();
+    try {
+      cluster.waitActive();
+      bpid = cluster.getNamesystem().getBlockPoolId();
+      fds = DataNodeTestUtils.getFSDataset(cluster.getDataNodes().get(0));
+      scanner = new DirectoryScanner(fds, conf);
+      scanner.setRetainDiffs(true);
+      createFile("/tmp/t1", 10000);
+
+      // the scan is as complete as without the throttle, only slower
+      for (int i = 0; i < 5 && scanner.getThrottledMs() == 0; i++) {
+        scan(100, 0, 0, 0, 0, 0);
+      }
+      assertTrue(scanner.getThrottledMs() > 0);
+      long blockId = deleteBlockFile();
+      scan(100, 1, 0, 1, 0, 0);
+      verifyDeletion(blockId);
+    } finally {
+      if (scanner != null) {
+        scanner.shutdown();
+      }
+      cluster.shutdown();
+    }
+  }
+
+  @Test(timeout=60000)
+  public void testReconcileBatches() throws Exception {
+    cluster = new MiniDFSCluster.Builder(CONF).build();
+    try {
+      cluster.waitActive();
+      bpid = cluster.getNamesystem().getBlockPoolId();
+      fds = DataNodeTestUtils.getFSDataset(cluster.getDataNodes().get(0));
+      createFile("/tmp/t1", 10000);
+
+      // without the throttle the differences are reconciled at once
+      Configuration conf = new HdfsConfiguration(CONF);
+      conf.setInt(
+          DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_RECONCILE_BATCH_SIZE_KEY, 1);
+      conf.setLong(
+          DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_RECONCILE_BATCH_INTERVAL_MS_KEY,
+          3600 * 1000L);
+      scanner = new DirectoryScanner(fds, conf);
+      scanner.setRetainDiffs(true);
+      deleteBlockFile();
+      deleteBlockFile();
+      scan(100, 2, 0, 2, 0, 0);
+      assertEquals(0, scanner.getThrottledMs());
+      scanner.shutdown();
+
+      // with it, they are reconciled in batches
+      conf.setInt(
+          DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_THROTTLE_LIMIT_MS_PER_SEC_KEY,
+          999);
+      conf.setLong(
+          DFSConfigKeys.DFS_DATANODE_DIRECTORYSCAN_RECONCILE_BATCH_INTERVAL_MS_KEY,
+          100);
+      scanner = new DirectoryScanner(fds, conf);
+      scanner.setRetainDiffs(true);
+      deleteBlockFile();
+      deleteBlockFile();
+      scan(98, 2, 0, 2, 0, 0);
+      assertTrue(scanner.getThrottledMs() >= 100);
+    } finally {
+      if (scanner != null) {
+        scanner.shutdown();
+      }
+      cluster.shutdown();
+    }
+  }
+
   public void runTest(int parallelism) throws Exception {
     cluster = new MiniDFSCluster.Builder(CONF).build();
     try {
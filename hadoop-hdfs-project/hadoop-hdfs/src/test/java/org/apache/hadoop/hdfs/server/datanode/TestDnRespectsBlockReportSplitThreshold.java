@@ -19,7 +19,9 @@
 package org.apache.hadoop.hdfs.server.datanode;
 
 import java.io.IOException;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -31,6 +33,7 @@
 import org.apache.hadoop.hdfs.server.namenode.NameNode;
 import org.apache.hadoop.hdfs.server.protocol.DatanodeRegistration;
 import org.apache.hadoop.hdfs.server.protocol.StorageBlockReport;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_BLOCKREPORT_SPLIT_ACROSS_HEARTBEATS_KEY;
 import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_BLOCKREPORT_SPLIT_THRESHOLD_KEY;
 import org.apache.hadoop.test.GenericTestUtils;
 
@@ -62,8 +65,15 @@ public class TestDnRespectsBlockReportSplitThreshold {
   static String bpid;
 
   public void startUpCluster(long splitThreshold) throws IOException {
+    startUpCluster(splitThreshold, false);
+  }
+
+  public void startUpCluster(long splitThreshold,
+      boolean splitAcrossHeartbeats) throws IOException {
     conf = new HdfsConfiguration();
     conf.setLong(DFS_BLOCKREPORT_SPLIT_THRESHOLD_KEY, splitThreshold);
+    conf.setBoolean(DFS_BLOCKREPORT_SPLIT_ACROSS_HEARTBEATS_KEY,
+        splitAcrossHeartbeats);
     cluster = new MiniDFSCluster.Builder(conf)
         .numDataNodes(REPL_FACTOR)
         .build();
@@ -202,4 +212,41 @@ public void testCornerCaseAtThreshold() throws IOException, InterruptedException
     verifyCapturedArguments(captor, 1, BLOCKS_IN_FILE);
   }
 
+  /**
+   * Test that the storages are reported at separate heartbeats when the
+   * reports are split across heartbeats, and that each storage is reported
+   * once per round.
+   */
+  @Test(timeout=300000)
+  public void testSplitAcrossHeartbeats()
+      throws IOException, InterruptedException {
+    startUpCluster(0, true);
+    NameNode nn = cluster.getNameNode();
+    DataNode dn = cluster.getDataNodes().get(0);
+
+    // Create a file with a few blocks.
+    createFile(GenericTestUtils.getMethodName(), BLOCKS_IN_FILE);
+
+    // Insert a spy object for the NN RPC.
+    DatanodeProtocolClientSideTranslatorPB nnSpy =
+        DataNodeTestUtils.spyOnBposToNN(dn, nn);
+
+    // Returns once the last storage of the round has been reported.
+    DataNodeTestUtils.triggerBlockReport(dn);
+
+    ArgumentCaptor<StorageBlockReport[]> captor =
+        ArgumentCaptor.forClass(StorageBlockReport[].class);
+
+    Mockito.verify(nnSpy, times(MiniDFSCluster.DIRS_PER_DATANODE)).blockReport(
+        any(DatanodeRegistration.class),
+        anyString(),
+        captor.capture());
+
+    verifyCapturedArguments(captor, 1, BLOCKS_IN_FILE);
+    Set<String> storageIDs = new HashSet<String>();
+    for (StorageBlockReport[] reports : captor.getAllValues()) {
+      storageIDs.add(reports[0].getStorage().getStorageID());
+    }
+    assertThat(storageIDs.size(), is(MiniDFSCluster.DIRS_PER_DATANODE));
+  }
 }
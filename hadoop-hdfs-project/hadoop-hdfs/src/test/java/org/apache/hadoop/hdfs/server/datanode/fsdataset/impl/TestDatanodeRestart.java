@@ -34,6 +34,7 @@
 import org.apache.hadoop.hdfs.DFSTestUtil;
 import org.apache.hadoop.hdfs.HdfsConfiguration;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.MiniDFSCluster.DataNodeProperties;
 import org.apache.hadoop.hdfs.protocol.Block;
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.ReplicaState;
 import org.apache.hadoop.hdfs.server.datanode.DataNode;
@@ -181,6 +182,63 @@ private void testRbwReplicas(MiniDFSCluster cluster, boolean isCorrupt)
     }
   }
 
+  // test the finalized replicas saved at shutdown are used on restart
+  @Test public void testReplicaCache() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, 1024L);
+    conf.setInt(DFSConfigKeys.DFS_CLIENT_WRITE_PACKET_SIZE_KEY, 512);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).build();
+    cluster.waitActive();
+    try {
+      FileSystem fs = cluster.getFileSystem();
+      Path fileName = new Path("/test");
+      DFSTestUtil.createFile(fs, fileName, 10 * 1024L, (short)1, 0L);
+      DFSTestUtil.waitReplication(fs, fileName, (short)1);
+      String bpid = cluster.getNamesystem().getBlockPoolId();
+      Iterator<ReplicaInfo> replicasItor = dataset(cluster.getDataNodes()
+          .get(0)).volumeMap.replicas(bpid).iterator();
+      ReplicaInfo unchanged = replicasItor.next();
+      ReplicaInfo changed = replicasItor.next();
+
+      // directories modified less than a second before the cache is saved
+      // are always listed
+      Thread.sleep(2000);
+      DataNodeProperties dnprop = cluster.stopDataNode(0);
+      File[] cacheFiles = new File[2];
+      for (int i = 0; i < cacheFiles.length; i++) {
+        cacheFiles[i] = new File(MiniDFSCluster.getBPDir(
+            cluster.getInstanceStorageDir(0, i), bpid, "current"), "replicas");
+        Assert.assertTrue(cacheFiles[i].exists());
+      }
+
+      // the replica of a directory whose modification time is unchanged is
+      // taken from the cache, even though its block file is gone
+      File dir = unchanged.getBlockFile().getParentFile();
+      long mtime = dir.lastModified();
+      Assert.assertTrue(unchanged.getBlockFile().delete());
+      Assert.assertTrue(dir.setLastModified(mtime));
+      cluster.restartDataNode(dnprop, true);
+      cluster.waitActive();
+      for (File cacheFile : cacheFiles) {
+        Assert.assertFalse(cacheFile.exists());
+      }
+      FsDatasetImpl ds = dataset(cluster.getDataNodes().get(0));
+      Assert.assertEquals(10, ds.getFinalizedBlocks(bpid).size());
+      Assert.assertNotNull(ds.volumeMap.get(bpid, unchanged.getBlockId()));
+
+      // a modified directory is listed
+      Thread.sleep(2000);
+      dnprop = cluster.stopDataNode(0);
+      Assert.assertTrue(changed.getBlockFile().delete());
+      cluster.restartDataNode(dnprop, true);
+      cluster.waitActive();
+      ds = dataset(cluster.getDataNodes().get(0));
+      Assert.assertNull(ds.volumeMap.get(bpid, changed.getBlockId()));
+    } finally {
+      cluster.shutdown();
+    }
+  }
+
   private static FsDatasetImpl dataset(DataNode dn) {
     return (FsDatasetImpl)DataNodeTestUtils.getFSDataset(dn);
   }
@@ -0,0 +1,154 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
+import org.apache.hadoop.hdfs.server.datanode.DataNode;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.FsDatasetSpi;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.nativeio.NativeIO;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Test reads of block files that bypass the page cache. */
+public class TestDirectIOReads {
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final int FILE_LEN = 1024 * 1024 + 1234;
+
+  private MiniDFSCluster cluster;
+  private FileSystem fs;
+
+  @Before
+  public void setUp() throws IOException {
+    assumeTrue(NativeIO.isAvailable());
+    Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(DFSConfigKeys.DFS_DATANODE_DIRECT_IO_READS_ENABLED_KEY,
+        true);
+    conf.setInt(DFSConfigKeys.DFS_DATANODE_DIRECT_IO_BUFFER_SIZE_KEY,
+        BUFFER_SIZE);
+    conf.setBoolean(DFSConfigKeys.DFS_DATANODE_SYNC_BEHIND_WRITES_KEY, true);
+    conf.setBoolean(
+        DFSConfigKeys.DFS_DATANODE_SYNC_BEHIND_WRITES_IN_BACKGROUND_KEY, true);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    cluster.waitActive();
+    fs = cluster.getFileSystem();
+  }
+
+  @After
+  public void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  private static byte[] writeFile(FileSystem fs, Path p) throws IOException {
+    byte[] data = new byte[FILE_LEN];
+    new Random(0xD1EC7L).nextBytes(data);
+    FSDataOutputStream out = fs.create(p);
+    try {
+      out.write(data);
+    } finally {
+      out.close();
+    }
+    return data;
+  }
+
+  @Test
+  public void testDirectBlockInputStream() throws IOException {
+    Path p = new Path("/testDirectBlockInputStream");
+    byte[] data = writeFile(fs, p);
+    ExtendedBlock block = DFSTestUtil.getFirstBlock(fs, p);
+    DataNode dn = cluster.getDataNodes().get(0);
+    FsDatasetSpi<?> dataset = dn.getFSDataset();
+
+    // start in the middle of an aligned range, then skip across ranges
+    int offset = DirectIOInputStream.ALIGNMENT + 17;
+    InputStream in = dataset.getDirectBlockInputStream(block, offset);
+    assumeTrue(in != null); // the volume does not support O_DIRECT
+    try {
+      byte[] buf = new byte[3 * BUFFER_SIZE];
+      IOUtils.readFully(in, buf, 0, buf.length);
+      assertArrayEquals(copy(data, offset, buf.length), buf);
+      offset += buf.length;
+
+      int skip = BUFFER_SIZE + 5;
+      assertEquals(skip, in.skip(skip));
+      offset += skip;
+      assertEquals(data[offset] & 0xff, in.read());
+      offset++;
+
+      buf = new byte[FILE_LEN - offset];
+      IOUtils.readFully(in, buf, 0, buf.length);
+      assertArrayEquals(copy(data, offset, buf.length), buf);
+      assertEquals(-1, in.read());
+    } finally {
+      in.close();
+    }
+  }
+
+  @Test
+  public void testClientRead() throws IOException {
+    Path p = new Path("/testClientRead");
+    byte[] data = writeFile(fs, p);
+
+    // a long read, served from the direct stream when it is supported
+    byte[] buf = new byte[FILE_LEN];
+    FSDataInputStream in = fs.open(p);
+    try {
+      in.readFully(0, buf);
+    } finally {
+      in.close();
+    }
+    assertArrayEquals(data, buf);
+
+    // a short read, served from the page cache
+    int offset = FILE_LEN / 2 + 3;
+    buf = new byte[1000];
+    in = fs.open(p);
+    try {
+      in.readFully(offset, buf);
+    } finally {
+      in.close();
+    }
+    assertArrayEquals(copy(data, offset, buf.length), buf);
+  }
+
+  private static byte[] copy(byte[] data, int offset, int len) {
+    byte[] b = new byte[len];
+    System.arraycopy(data, offset, b, 0, len);
+    return b;
+  }
+}
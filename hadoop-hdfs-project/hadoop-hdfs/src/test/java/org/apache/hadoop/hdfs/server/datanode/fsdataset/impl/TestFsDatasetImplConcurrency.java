@@ -0,0 +1,253 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.fsdataset.impl;
+
+import static org.apache.hadoop.test.MetricsAsserts.getLongCounter;
+import static org.apache.hadoop.test.MetricsAsserts.getMetrics;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.protocol.ExtendedBlock;
+import org.apache.hadoop.hdfs.server.datanode.DataNode;
+import org.apache.hadoop.hdfs.server.datanode.DataNodeTestUtils;
+import org.apache.hadoop.hdfs.server.datanode.FinalizedReplica;
+import org.apache.hadoop.hdfs.server.datanode.ReplicaInPipeline;
+import org.apache.hadoop.hdfs.server.datanode.fsdataset.ReplicaOutputStreams;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.apache.hadoop.util.DataChecksum;
+import org.junit.Test;
+
+/**
+ * Test that the operations on different replicas of an {@link FsDatasetImpl}
+ * run concurrently and safely.
+ */
+public class TestFsDatasetImplConcurrency {
+  private static final int NUM_WRITERS = 16;
+  private static final int BLOCKS_PER_WRITER = 50;
+  private static final long GENERATION_STAMP = 1000;
+
+  private static ExtendedBlock getBlock(String bpid, int writer, int i) {
+    return new ExtendedBlock(bpid, 1000000L + writer * BLOCKS_PER_WRITER + i,
+        0, GENERATION_STAMP);
+  }
+
+  /**
+   * Write, finalize and delete replicas from many threads while other
+   * threads list the replicas.
+   */
+  @Test(timeout=120000)
+  public void testConcurrentReplicaOperations() throws Exception {
+    MiniDFSCluster cluster =
+        new MiniDFSCluster.Builder(new HdfsConfiguration()).build();
+    ExecutorService executor =
+        Executors.newFixedThreadPool(NUM_WRITERS + 2);
+    try {
+      cluster.waitActive();
+      DataNode dn = cluster.getDataNodes().get(0);
+      final FsDatasetImpl dataset =
+          (FsDatasetImpl)DataNodeTestUtils.getFSDataset(dn);
+      final String bpid = cluster.getNamesystem().getBlockPoolId();
+      final DataChecksum checksum =
+          DataChecksum.newDataChecksum(DataChecksum.Type.CRC32C, 512);
+
+      List<Future<Void>> writers = new ArrayList<Future<Void>>();
+      for (int w = 0; w < NUM_WRITERS; w++) {
+        final int writer = w;
+        writers.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            for (int i = 0; i < BLOCKS_PER_WRITER; i++) {
+              ExtendedBlock b = getBlock(bpid, writer, i);
+              ReplicaInPipeline rbw = dataset.createRbw(b);
+              ReplicaOutputStreams streams = rbw.createStreams(true, checksum);
+              streams.close();
+              dataset.finalizeBlock(b);
+              assertTrue(dataset.isValidBlock(b));
+              assertEquals(0, dataset.getReplicaVisibleLength(b));
+              if (i % 2 == 1) {
+                dataset.invalidate(bpid, new Block[] { b.getLocalBlock() });
+                assertFalse(dataset.contains(b));
+              }
+            }
+            return null;
+          }
+        }));
+      }
+
+      final AtomicBoolean done = new AtomicBoolean(false);
+      List<Future<Void>> readers = new ArrayList<Future<Void>>();
+      for (int r = 0; r < 2; r++) {
+        readers.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            while (!done.get()) {
+              dataset.getBlockReports(bpid);
+              for (FinalizedReplica replica :
+                  dataset.getFinalizedBlocks(bpid)) {
+                dataset.getReplicaString(bpid, replica.getBlockId());
+              }
+            }
+            return null;
+          }
+        }));
+      }
+
+      for (Future<Void> f : writers) {
+        f.get();
+      }
+      done.set(true);
+      for (Future<Void> f : readers) {
+        f.get();
+      }
+
+      assertEquals(NUM_WRITERS * BLOCKS_PER_WRITER / 2,
+          dataset.getFinalizedBlocks(bpid).size());
+      for (int w = 0; w < NUM_WRITERS; w++) {
+        for (int i = 0; i < BLOCKS_PER_WRITER; i++) {
+          assertEquals(i % 2 == 0,
+              dataset.isValidBlock(getBlock(bpid, w, i)));
+        }
+      }
+
+      // every replica was created and finalized under its lock
+      MetricsRecordBuilder rb = getMetrics(dn.getMetrics().name());
+      assertTrue(getLongCounter("ReplicaLockHeldNanosNumOps", rb)
+          >= 2 * NUM_WRITERS * BLOCKS_PER_WRITER);
+    } finally {
+      executor.shutdownNow();
+      cluster.shutdown();
+    }
+  }
+
+  /**
+   * Finalize and invalidate replicas from many threads in the same block
+   * pool directories, and check that the blocks of each directory are still
+   * counted right.
+   */
+  @Test(timeout=120000)
+  public void testConcurrentFinalizeAndInvalidate() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    // few blocks per directory, so that subdirectories are created
+    conf.setInt(DFSConfigKeys.DFS_DATANODE_NUMBLOCKS_KEY, 4);
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf).build();
+    ExecutorService executor = Executors.newFixedThreadPool(NUM_WRITERS);
+    try {
+      cluster.waitActive();
+      DataNode dn = cluster.getDataNodes().get(0);
+      final FsDatasetImpl dataset =
+          (FsDatasetImpl)DataNodeTestUtils.getFSDataset(dn);
+      final String bpid = cluster.getNamesystem().getBlockPoolId();
+      final DataChecksum checksum =
+          DataChecksum.newDataChecksum(DataChecksum.Type.CRC32C, 512);
+
+      List<Future<Void>> writers = new ArrayList<Future<Void>>();
+      for (int w = 0; w < NUM_WRITERS; w++) {
+        final int writer = w;
+        writers.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            for (int i = 0; i < BLOCKS_PER_WRITER; i++) {
+              ExtendedBlock b = getBlock(bpid, writer, i);
+              ReplicaInPipeline rbw = dataset.createRbw(b);
+              rbw.createStreams(true, checksum).close();
+              dataset.finalizeBlock(b);
+              // delete the previous block while the other writers finalize
+              if (i % 2 == 1) {
+                dataset.invalidate(bpid, new Block[] {
+                    getBlock(bpid, writer, i - 1).getLocalBlock() });
+              }
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<Void> f : writers) {
+        f.get();
+      }
+
+      int counted = 0;
+      for (FsVolumeImpl volume : dataset.getVolumes()) {
+        counted += volume.getBlockPoolSlice(bpid).getNumFinalizedBlocks();
+      }
+      assertEquals(NUM_WRITERS * BLOCKS_PER_WRITER / 2, counted);
+      assertEquals(counted, dataset.getFinalizedBlocks(bpid).size());
+    } finally {
+      executor.shutdownNow();
+      cluster.shutdown();
+    }
+  }
+
+  @Test(timeout=60000)
+  public void testDatasetLockExcludesReplicaLocks() throws Exception {
+    final FsDatasetLocks locks = new FsDatasetLocks(16, null);
+    final FsDatasetLocks.Held held = locks.lockReplica("bp", 1);
+    try {
+      // another replica can be locked meanwhile
+      Thread other = new Thread() {
+        @Override
+        public void run() {
+          locks.lockReplica("bp", 2).unlock();
+        }
+      };
+      other.start();
+      other.join(10000);
+      assertFalse(other.isAlive());
+
+      // the dataset cannot be locked by the holder of a replica lock
+      try {
+        locks.lockDataset();
+        fail("Locked the dataset while holding the lock of a replica");
+      } catch (IllegalStateException expected) {
+      }
+    } finally {
+      held.unlock();
+    }
+
+    final FsDatasetLocks.Held replica = locks.lockReplica("bp", 1);
+    final AtomicBoolean locked = new AtomicBoolean(false);
+    Thread exclusive = new Thread() {
+      @Override
+      public void run() {
+        locks.lockDataset().unlock();
+        locked.set(true);
+      }
+    };
+    exclusive.start();
+    TimeUnit.MILLISECONDS.sleep(500);
+    assertFalse(locked.get());
+    replica.unlock();
+    exclusive.join(10000);
+    assertTrue(locked.get());
+  }
+}
@@ -0,0 +1,98 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.datanode.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.hdfs.server.datanode.metrics.DataNodeMetrics.VolumeIoOp;
+import org.junit.Test;
+
+/** Test the detection of slow volumes. */
+public class TestDataNodeDiskMetrics {
+  private static final long MS = 1000000L;
+
+  private static void addSamples(DataNodeDiskMetrics metrics,
+      String storageId, VolumeIoOp op, long latencyMs, long count) {
+    for (int i = 0; i < count; i++) {
+      metrics.addLatency(storageId, op, latencyMs * MS);
+    }
+  }
+
+  @Test
+  public void testOutlierDetector() {
+    OutlierDetector detector = new OutlierDetector(5, 20);
+    Map<String, Double> latencies = new HashMap<String, Double>();
+    for (int i = 0; i < 3; i++) {
+      latencies.put("v" + i, 10.0 + i);
+    }
+    latencies.put("slow", 100.0);
+    // too few peers
+    assertTrue(detector.getOutliers(latencies).isEmpty());
+
+    latencies.put("v3", 13.0);
+    latencies.put("v4", 14.0);
+    assertEquals(Collections.singleton("slow"),
+        detector.getOutliers(latencies));
+
+    // below the low threshold
+    latencies.put("slow", 19.0);
+    assertTrue(detector.getOutliers(latencies).isEmpty());
+  }
+
+  @Test
+  public void testSlowVolume() {
+    DataNodeDiskMetrics metrics = new DataNodeDiskMetrics(true,
+        Long.MAX_VALUE, 5, 20);
+    for (int i = 0; i < 5; i++) {
+      addSamples(metrics, "DS-" + i, VolumeIoOp.WRITE, 5 + i,
+          DataNodeDiskMetrics.MIN_SAMPLES);
+      addSamples(metrics, "DS-" + i, VolumeIoOp.FSYNC, 30,
+          DataNodeDiskMetrics.MIN_SAMPLES);
+    }
+    addSamples(metrics, "DS-slow", VolumeIoOp.WRITE, 5,
+        DataNodeDiskMetrics.MIN_SAMPLES);
+    addSamples(metrics, "DS-slow", VolumeIoOp.FSYNC, 500,
+        DataNodeDiskMetrics.MIN_SAMPLES);
+    // a volume with too few operations is not compared
+    addSamples(metrics, "DS-idle", VolumeIoOp.WRITE, 1000, 1);
+    assertTrue(metrics.getSlowVolumes().isEmpty());
+
+    metrics.rollWindow();
+    assertEquals(Collections.singleton("DS-slow"), metrics.getSlowVolumes());
+
+    // the volume is no longer slow after a window without outliers
+    metrics.rollWindow();
+    assertTrue(metrics.getSlowVolumes().isEmpty());
+  }
+
+  @Test
+  public void testDisabled() {
+    DataNodeDiskMetrics metrics = new DataNodeDiskMetrics(false, 0, 1, 0);
+    addSamples(metrics, "DS-0", VolumeIoOp.READ, 1,
+        DataNodeDiskMetrics.MIN_SAMPLES);
+    addSamples(metrics, "DS-1", VolumeIoOp.READ, 1000,
+        DataNodeDiskMetrics.MIN_SAMPLES);
+    metrics.rollWindow();
+    assertTrue(metrics.getSlowVolumes().isEmpty());
+  }
+}
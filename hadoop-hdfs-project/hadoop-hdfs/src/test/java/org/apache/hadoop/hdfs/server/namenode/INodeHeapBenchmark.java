@@ -0,0 +1,234 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSUtil;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.protocol.proto.HdfsProtos.BlockProto;
+import org.apache.hadoop.hdfs.server.namenode.FsImageProto.INodeDirectorySection;
+import org.apache.hadoop.hdfs.server.namenode.FsImageProto.INodeSection;
+import org.apache.hadoop.hdfs.server.namenode.FsImageProto.StringTableSection;
+import org.apache.hadoop.hdfs.server.namenode.startupprogress.StartupProgress;
+import org.apache.hadoop.hdfs.server.namenode.startupprogress.Step;
+import org.apache.hadoop.hdfs.server.namenode.startupprogress.StepType;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.mockito.Mockito;
+
+import com.google.protobuf.ByteString;
+
+/**
+ * Measures the NameNode heap used per file.
+ *
+ * The benchmark generates the string table, inode and inode directory
+ * sections of a synthetic fsimage in memory and loads them through
+ * {@link FSImageFormatPBINode.Loader}, so that the inodes, the directory
+ * children lists and the blocks map are populated exactly as they are when
+ * the NameNode starts up. The heap in use is sampled after a full GC
+ * before the namesystem is created, so that the tables it allocates up
+ * front are accounted for, and after loading.
+ *
+ * With -compactINodeMap the inode map is sized to the namespace, see
+ * {@link org.apache.hadoop.hdfs.DFSConfigKeys#DFS_NAMENODE_INODE_MAP_COMPACT_KEY}.
+ * With -compactFiles the files are moved into the compact file store after
+ * loading, see
+ * {@link org.apache.hadoop.hdfs.DFSConfigKeys#DFS_NAMENODE_INODE_MAP_COMPACT_FILES_KEY}.
+ *
+ * Usage:
+ * <pre>
+ * INodeHeapBenchmark [-numFiles N] [-filesPerDir N] [-blocksPerFile N]
+ *     [-compactINodeMap] [-compactFiles]
+ * </pre>
+ */
+public class INodeHeapBenchmark extends Configured implements Tool {
+  private static final String USAGE = "Usage: INodeHeapBenchmark"
+      + " [-numFiles N] [-filesPerDir N] [-blocksPerFile N]"
+      + " [-compactINodeMap] [-compactFiles]";
+
+  private static final long USER_ID = 1;
+  private static final long GROUP_ID = 2;
+
+  private int numFiles = 1000000;
+  private int filesPerDir = 100;
+  private int blocksPerFile = 1;
+  private boolean compactINodeMap = false;
+  private boolean compactFiles = false;
+
+  /** Keeps the loaded namespace reachable until it has been measured. */
+  private FSNamesystem namesystem;
+
+  private static long permission(short mode) {
+    return (USER_ID << 40) | (GROUP_ID << 16) | mode;
+  }
+
+  /** Generate the sections of a namespace of files spread over directories */
+  private byte[] generateImage(int numDirs) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    StringTableSection.newBuilder().setNumEntry(2).build()
+        .writeDelimitedTo(out);
+    StringTableSection.Entry.newBuilder().setId((int) USER_ID).setStr("hdfs")
+        .build().writeDelimitedTo(out);
+    StringTableSection.Entry.newBuilder().setId((int) GROUP_ID)
+        .setStr("supergroup").build().writeDelimitedTo(out);
+
+    final long root = INodeId.ROOT_INODE_ID;
+    final long firstDir = root + 1;
+    final long firstFile = firstDir + numDirs;
+    final long now = System.currentTimeMillis();
+    INodeSection.newBuilder().setLastInodeId(firstFile + numFiles - 1)
+        .setNumInodes(1 + numDirs + numFiles).build().writeDelimitedTo(out);
+    INodeSection.INodeDirectory.Builder dir = INodeSection.INodeDirectory
+        .newBuilder().setModificationTime(now).setNsQuota(-1).setDsQuota(-1)
+        .setPermission(permission((short) 0755));
+    INodeSection.INode.newBuilder().setType(INodeSection.INode.Type.DIRECTORY)
+        .setId(root).setDirectory(dir.setNsQuota(Long.MAX_VALUE)).build()
+        .writeDelimitedTo(out);
+    dir.setNsQuota(-1);
+    for (int d = 0; d < numDirs; d++) {
+      INodeSection.INode.newBuilder()
+          .setType(INodeSection.INode.Type.DIRECTORY).setId(firstDir + d)
+          .setName(ByteString.copyFrom(DFSUtil.string2Bytes("dir" + d)))
+          .setDirectory(dir).build().writeDelimitedTo(out);
+    }
+    long blockId = 1L << 30;
+    for (int f = 0; f < numFiles; f++) {
+      INodeSection.INodeFile.Builder file = INodeSection.INodeFile
+          .newBuilder().setReplication(3).setModificationTime(now)
+          .setAccessTime(now).setPreferredBlockSize(128L << 20)
+          .setPermission(permission((short) 0644));
+      for (int b = 0; b < blocksPerFile; b++) {
+        file.addBlocks(BlockProto.newBuilder().setBlockId(blockId++)
+            .setGenStamp(1001).setNumBytes(128L << 20));
+      }
+      INodeSection.INode.newBuilder().setType(INodeSection.INode.Type.FILE)
+          .setId(firstFile + f)
+          .setName(ByteString.copyFrom(DFSUtil.string2Bytes("file" + f)))
+          .setFile(file).build().writeDelimitedTo(out);
+    }
+
+    INodeDirectorySection.DirEntry.Builder rootEntry =
+        INodeDirectorySection.DirEntry.newBuilder().setParent(root);
+    for (int d = 0; d < numDirs; d++) {
+      rootEntry.addChildren(firstDir + d);
+    }
+    rootEntry.build().writeDelimitedTo(out);
+    for (int d = 0; d < numDirs; d++) {
+      INodeDirectorySection.DirEntry.Builder entry =
+          INodeDirectorySection.DirEntry.newBuilder().setParent(firstDir + d);
+      for (int f = d * filesPerDir; f < Math.min(numFiles, (d + 1) * filesPerDir);
+          f++) {
+        entry.addChildren(firstFile + f);
+      }
+      entry.build().writeDelimitedTo(out);
+    }
+    return out.toByteArray();
+  }
+
+  private static long usedHeap() throws InterruptedException {
+    MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+      Thread.sleep(100);
+    }
+    return memory.getHeapMemoryUsage().getUsed();
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    for (int i = 0; i < args.length; i++) {
+      if (i + 1 < args.length && args[i].equals("-numFiles")) {
+        numFiles = Integer.parseInt(args[++i]);
+      } else if (i + 1 < args.length && args[i].equals("-filesPerDir")) {
+        filesPerDir = Integer.parseInt(args[++i]);
+      } else if (i + 1 < args.length && args[i].equals("-blocksPerFile")) {
+        blocksPerFile = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("-compactINodeMap")) {
+        compactINodeMap = true;
+      } else if (args[i].equals("-compactFiles")) {
+        compactFiles = true;
+      } else {
+        System.err.println(USAGE);
+        return -1;
+      }
+    }
+    final int numDirs = (numFiles + filesPerDir - 1) / filesPerDir;
+    final byte[] image = generateImage(numDirs);
+
+    Configuration conf = new HdfsConfiguration(getConf());
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_INODE_MAP_COMPACT_KEY,
+        compactINodeMap);
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_INODE_MAP_COMPACT_FILES_KEY,
+        compactFiles);
+    FSImage fsImage = Mockito.mock(FSImage.class);
+    FSEditLog editLog = Mockito.mock(FSEditLog.class);
+    Mockito.when(fsImage.getEditLog()).thenReturn(editLog);
+
+    final long before = usedHeap();
+    namesystem = new FSNamesystem(conf, fsImage);
+    final long created = usedHeap();
+    InputStream in = new ByteArrayInputStream(image);
+    FSImageFormatProtobuf.Loader parent =
+        new FSImageFormatProtobuf.Loader(conf, namesystem);
+    FSImageFormatPBINode.Loader loader =
+        new FSImageFormatPBINode.Loader(namesystem, parent);
+    namesystem.writeLock();
+    try {
+      parent.loadStringTableSection(in);
+      loader.loadINodeSection(in, new StartupProgress(),
+          new Step(StepType.INODES));
+      loader.loadINodeDirectorySection(in);
+      if (compactFiles) {
+        namesystem.dir.compactFiles();
+      }
+    } finally {
+      namesystem.writeUnlock();
+    }
+    // Drop the names counted while loading, as the NameNode does.
+    namesystem.dir.imageLoadComplete();
+    final long after = usedHeap();
+
+    final long used = after - before;
+    System.out.println("Files: " + numFiles + ", directories: " + numDirs
+        + ", blocks: " + (long) numFiles * blocksPerFile
+        + ", inodes in map: " + namesystem.dir.getInodeMapSize()
+        + ", compact inode map: " + compactINodeMap
+        + ", compact files: " + namesystem.dir.getCompactFileCount());
+    System.out.println("Heap used by the empty namesystem: "
+        + ((created - before) >> 20) + " MB");
+    System.out.println("Heap used by the namespace: "
+        + ((after - created) >> 20) + " MB");
+    System.out.println("Heap per file, including the empty namesystem: "
+        + (used / numFiles) + " bytes");
+    return 0;
+  }
+
+  public static void main(String[] args) throws Exception {
+    System.exit(ToolRunner.run(new HdfsConfiguration(),
+        new INodeHeapBenchmark(), args));
+  }
+}
@@ -23,7 +23,9 @@
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -91,6 +93,11 @@
  * By default the refresh is never called.</li>
  * <li>-keepResults do not clean up the name-space after execution.</li>
  * <li>-useExisting do not recreate the name-space, use existing data.</li>
+ * <li>-handlerScaling T1,T2,... runs each namespace operation and the block
+ * reports once for every listed number of threads (data-nodes for the block
+ * reports) and prints how the throughput scales with it.
+ * Since every thread simulates a name-node handler this shows how well
+ * the name-node locking lets concurrent handlers proceed.</li>
  * </ol>
  * 
  * The benchmark first generates inputs for each thread so that the
@@ -106,7 +113,8 @@ public class NNThroughputBenchmark implements Tool {
   private static final Log LOG = LogFactory.getLog(NNThroughputBenchmark.class);
   private static final int BLOCK_SIZE = 16;
   private static final String GENERAL_OPTIONS_USAGE = 
-    "     [-keepResults] | [-logLevel L] | [-UGCacheRefreshCount G]";
+    "     [-keepResults] | [-logLevel L] | [-UGCacheRefreshCount G] |"
+    + " [-handlerScaling T1,T2,...]";
 
   static Configuration config;
   static NameNode nameNode;
@@ -835,6 +843,42 @@ long executeOp(int daemonId, int inputIdx, String ignore)
     }
   }
 
+  /**
+   * Set permission statistics.
+   * 
+   * Measure how many setPermission calls the name-node can handle per second.
+   * With dfs.namenode.fslock.partitioned set the calls of different files
+   * do not take the namesystem write lock.
+   */
+  class SetPermissionStats extends OpenFileStats {
+    // Operation types
+    static final String OP_SET_PERMISSION_NAME = "setPermission";
+    static final String OP_SET_PERMISSION_USAGE = 
+      "-op " + OP_SET_PERMISSION_NAME + OP_USAGE_ARGS;
+
+    private final FsPermission[] permissions = {
+        new FsPermission((short)0600), new FsPermission((short)0644) };
+
+    SetPermissionStats(List<String> args) {
+      super(args);
+    }
+
+    @Override
+    String getOpName() {
+      return OP_SET_PERMISSION_NAME;
+    }
+
+    @Override
+    long executeOp(int daemonId, int inputIdx, String ignore) 
+    throws IOException {
+      long start = Time.now();
+      nameNodeProto.setPermission(fileNames[daemonId][inputIdx],
+          permissions[inputIdx % permissions.length]);
+      long end = Time.now();
+      return end-start;
+    }
+  }
+
   /**
    * Rename file statistics.
    * 
@@ -1378,6 +1422,7 @@ static void printUsage() {
         + " | \n\t" + OpenFileStats.OP_OPEN_USAGE
         + " | \n\t" + DeleteFileStats.OP_DELETE_USAGE
         + " | \n\t" + FileStatusStats.OP_FILE_STATUS_USAGE
+        + " | \n\t" + SetPermissionStats.OP_SET_PERMISSION_USAGE
         + " | \n\t" + RenameFileStats.OP_RENAME_USAGE
         + " | \n\t" + BlockReportStats.OP_BLOCK_REPORT_USAGE
         + " | \n\t" + ReplicationStats.OP_REPLICATION_USAGE
@@ -1417,45 +1462,14 @@ public int run(String[] aArgs) throws Exception {
     nameNode = NameNode.createNameNode(argv, config);
     nameNodeProto = nameNode.getRpcServer();
 
-    List<OperationStatsBase> ops = new ArrayList<OperationStatsBase>();
-    OperationStatsBase opStat = null;
+    int[] handlerCounts = parseHandlerScaling(args);
+
     try {
-      if(runAll || CreateFileStats.OP_CREATE_NAME.equals(type)) {
-        opStat = new CreateFileStats(args);
-        ops.add(opStat);
-      }
-      if(runAll || MkdirsStats.OP_MKDIRS_NAME.equals(type)) {
-        opStat = new MkdirsStats(args);
-        ops.add(opStat);
-      }
-      if(runAll || OpenFileStats.OP_OPEN_NAME.equals(type)) {
-        opStat = new OpenFileStats(args);
-        ops.add(opStat);
-      }
-      if(runAll || DeleteFileStats.OP_DELETE_NAME.equals(type)) {
-        opStat = new DeleteFileStats(args);
-        ops.add(opStat);
-      }
-      if(runAll || FileStatusStats.OP_FILE_STATUS_NAME.equals(type)) {
-        opStat = new FileStatusStats(args);
-        ops.add(opStat);
-      }
-      if(runAll || RenameFileStats.OP_RENAME_NAME.equals(type)) {
-        opStat = new RenameFileStats(args);
-        ops.add(opStat);
-      }
-      if(runAll || BlockReportStats.OP_BLOCK_REPORT_NAME.equals(type)) {
-        opStat = new BlockReportStats(args);
-        ops.add(opStat);
-      }
-      if(runAll || ReplicationStats.OP_REPLICATION_NAME.equals(type)) {
-        opStat = new ReplicationStats(args);
-        ops.add(opStat);
-      }
-      if(runAll || CleanAllStats.OP_CLEAN_NAME.equals(type)) {
-        opStat = new CleanAllStats(args);
-        ops.add(opStat);
+      if(handlerCounts != null) {
+        runHandlerScaling(type, runAll, args, handlerCounts);
+        return 0;
       }
+      List<OperationStatsBase> ops = createOps(type, runAll, args);
       if(ops.size() == 0)
         printUsage();
       // run each benchmark
@@ -1476,6 +1490,157 @@ public int run(String[] aArgs) throws Exception {
     return 0;
   }
 
+  /**
+   * Instantiate the stats objects for the requested operation(s).
+   */
+  private List<OperationStatsBase> createOps(String type, boolean runAll,
+      List<String> args) throws IOException {
+    List<OperationStatsBase> ops = new ArrayList<OperationStatsBase>();
+    OperationStatsBase opStat = null;
+    if(runAll || CreateFileStats.OP_CREATE_NAME.equals(type)) {
+      opStat = new CreateFileStats(args);
+      ops.add(opStat);
+    }
+    if(runAll || MkdirsStats.OP_MKDIRS_NAME.equals(type)) {
+      opStat = new MkdirsStats(args);
+      ops.add(opStat);
+    }
+    if(runAll || OpenFileStats.OP_OPEN_NAME.equals(type)) {
+      opStat = new OpenFileStats(args);
+      ops.add(opStat);
+    }
+    if(runAll || DeleteFileStats.OP_DELETE_NAME.equals(type)) {
+      opStat = new DeleteFileStats(args);
+      ops.add(opStat);
+    }
+    if(runAll || FileStatusStats.OP_FILE_STATUS_NAME.equals(type)) {
+      opStat = new FileStatusStats(args);
+      ops.add(opStat);
+    }
+    if(runAll || SetPermissionStats.OP_SET_PERMISSION_NAME.equals(type)) {
+      opStat = new SetPermissionStats(args);
+      ops.add(opStat);
+    }
+    if(runAll || RenameFileStats.OP_RENAME_NAME.equals(type)) {
+      opStat = new RenameFileStats(args);
+      ops.add(opStat);
+    }
+    if(runAll || BlockReportStats.OP_BLOCK_REPORT_NAME.equals(type)) {
+      opStat = new BlockReportStats(args);
+      ops.add(opStat);
+    }
+    if(runAll || ReplicationStats.OP_REPLICATION_NAME.equals(type)) {
+      opStat = new ReplicationStats(args);
+      ops.add(opStat);
+    }
+    if(runAll || CleanAllStats.OP_CLEAN_NAME.equals(type)) {
+      opStat = new CleanAllStats(args);
+      ops.add(opStat);
+    }
+    return ops;
+  }
+
+  /**
+   * Parse and remove the -handlerScaling option.
+   * 
+   * @return the list of thread counts or null if the option is not set.
+   */
+  private static int[] parseHandlerScaling(List<String> args) {
+    int hsIndex = args.indexOf("-handlerScaling");
+    if(hsIndex < 0)
+      return null;
+    if(args.size() <= hsIndex + 1)
+      printUsage();
+    String[] counts = args.get(hsIndex+1).split(",");
+    int[] handlerCounts = new int[counts.length];
+    for(int i = 0; i < counts.length; i++) {
+      handlerCounts[i] = Integer.parseInt(counts[i].trim());
+      if(handlerCounts[i] < 1)
+        printUsage();
+    }
+    args.remove(hsIndex+1);
+    args.remove(hsIndex);
+    return handlerCounts;
+  }
+
+  /**
+   * Set the number of threads in a copy of the arguments. The block reports
+   * take it as the number of data-nodes, each of which is a thread.
+   */
+  private static List<String> withThreads(List<String> args, String type,
+      boolean runAll, int numThreads) {
+    List<String> result = new ArrayList<String>(args);
+    boolean blockReports =
+        BlockReportStats.OP_BLOCK_REPORT_NAME.equals(type);
+    if(runAll || !blockReports)
+      setOption(result, "-threads", numThreads);
+    if(runAll || blockReports)
+      setOption(result, "-datanodes", numThreads);
+    return result;
+  }
+
+  private static void setOption(List<String> args, String name, int value) {
+    int index = args.indexOf(name);
+    if(index >= 0) {
+      if(args.size() <= index + 1)
+        printUsage();
+      args.remove(index+1);
+      args.remove(index);
+    }
+    args.add(name);
+    args.add(String.valueOf(value));
+  }
+
+  /**
+   * Whether the operation issues its calls from independent threads,
+   * so that its thread count corresponds to the number of busy handlers.
+   */
+  private static boolean isScalingOp(OperationStatsBase op) {
+    return op instanceof CreateFileStats || op instanceof MkdirsStats
+        || op instanceof BlockReportStats;
+  }
+
+  /**
+   * Run each namespace operation and the block reports once per thread
+   * count and report the throughput relative to the first (smallest)
+   * thread count.
+   */
+  private void runHandlerScaling(String type, boolean runAll,
+      List<String> args, int[] handlerCounts) throws IOException {
+    Map<String, double[]> opsPerSec = new LinkedHashMap<String, double[]>();
+    for(int c = 0; c < handlerCounts.length; c++) {
+      List<OperationStatsBase> ops =
+          createOps(type, runAll,
+              withThreads(args, type, runAll, handlerCounts[c]));
+      for(OperationStatsBase op : ops) {
+        if(!isScalingOp(op))
+          continue;
+        LOG.info("Starting benchmark: " + op.getOpName()
+            + " with " + handlerCounts[c] + " threads");
+        op.benchmark();
+        op.cleanUp();
+        double[] results = opsPerSec.get(op.getOpName());
+        if(results == null) {
+          results = new double[handlerCounts.length];
+          opsPerSec.put(op.getOpName(), results);
+        }
+        results[c] = op.getOpsPerSecond();
+      }
+    }
+    if(opsPerSec.isEmpty())
+      printUsage();
+    for(Map.Entry<String, double[]> e : opsPerSec.entrySet()) {
+      double[] results = e.getValue();
+      LOG.info("");
+      LOG.info("--- " + e.getKey() + " handler scaling ---");
+      for(int c = 0; c < handlerCounts.length; c++) {
+        double speedup = results[0] == 0 ? 0 : results[c] / results[0];
+        LOG.info(String.format("%6d threads: %12.2f ops/sec, %6.2fx",
+            handlerCounts[c], results[c], speedup));
+      }
+    }
+  }
+
   public static void main(String[] args) throws Exception {
     NNThroughputBenchmark bench = null;
     try {
@@ -0,0 +1,297 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_ASYNC_EVENTS_BUFFER_SIZE_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_AUDIT_LOG_ASYNC_EVENTS_DROP_WHEN_FULL_KEY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+/**
+ * Tests for {@link AsyncAuditLogger}.
+ */
+public class TestAsyncAuditLogger {
+  static final Log LOG = LogFactory.getLog(TestAsyncAuditLogger.class);
+
+  /** Records the events it receives. */
+  private static class RecordingAuditLogger implements AuditLogger {
+    final List<String> srcs =
+        Collections.synchronizedList(new ArrayList<String>());
+
+    @Override
+    public void initialize(Configuration conf) {
+    }
+
+    @Override
+    public void logAuditEvent(boolean succeeded, String userName,
+        InetAddress addr, String cmd, String src, String dst,
+        FileStatus stat) {
+      srcs.add(src);
+    }
+  }
+
+  /** Formats the events like the default audit logger, into a stream. */
+  private static class FormattingAuditLogger implements AuditLogger {
+    private final PrintStream out =
+        new PrintStream(new ByteArrayOutputStream(1024 * 1024));
+
+    @Override
+    public void initialize(Configuration conf) {
+    }
+
+    @Override
+    public synchronized void logAuditEvent(boolean succeeded,
+        String userName, InetAddress addr, String cmd, String src,
+        String dst, FileStatus stat) {
+      StringBuilder sb = new StringBuilder();
+      sb.append("allowed=").append(succeeded).append("\t");
+      sb.append("ugi=").append(userName).append("\t");
+      sb.append("ip=").append(addr).append("\t");
+      sb.append("cmd=").append(cmd).append("\t");
+      sb.append("src=").append(src).append("\t");
+      sb.append("dst=").append(dst).append("\t");
+      sb.append("perm=").append(stat.getOwner()).append(":")
+          .append(stat.getGroup()).append(":").append(stat.getPermission());
+      out.println(sb);
+      out.flush();
+    }
+  }
+
+  private static final FileStatus STATUS = new FileStatus(0, false, 3,
+      128 * 1024 * 1024, 0, 0, new FsPermission((short) 0644), "user",
+      "group", null, new Path("/dir/file"));
+
+  private static AsyncAuditLogger createLogger(AuditLogger delegate,
+      int bufferSize, boolean dropWhenFull) {
+    Configuration conf = new Configuration(false);
+    conf.setInt(DFS_NAMENODE_AUDIT_LOG_ASYNC_EVENTS_BUFFER_SIZE_KEY,
+        bufferSize);
+    conf.setBoolean(DFS_NAMENODE_AUDIT_LOG_ASYNC_EVENTS_DROP_WHEN_FULL_KEY,
+        dropWhenFull);
+    AsyncAuditLogger logger = new AsyncAuditLogger(
+        Collections.<AuditLogger>singletonList(delegate));
+    logger.initialize(conf);
+    return logger;
+  }
+
+  private static void logEvent(AuditLogger logger, String src) {
+    logger.logAuditEvent(true, "user", null, "open", src, null, STATUS);
+  }
+
+  /**
+   * Test that the events of many threads all reach the audit loggers, in
+   * the order of each thread.
+   */
+  @Test(timeout=60000)
+  public void testEventsArePassedOnInOrder() throws Exception {
+    final RecordingAuditLogger recorder = new RecordingAuditLogger();
+    // A small buffer, so that the producers wait for the consumer.
+    final AsyncAuditLogger logger = createLogger(recorder, 16, false);
+    final int numThreads = 8;
+    final int numEvents = 10000;
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < numThreads; t++) {
+      final int id = t;
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          for (int i = 0; i < numEvents; i++) {
+            logEvent(logger, id + "/" + i);
+          }
+        }
+      };
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    logger.close();
+
+    assertEquals(numThreads * numEvents, recorder.srcs.size());
+    assertEquals(0, logger.getDroppedEvents());
+    assertEquals(0, logger.getQueueDepth());
+    Map<String, Integer> lastSeen = new HashMap<String, Integer>();
+    for (String src : recorder.srcs) {
+      String[] parts = src.split("/");
+      Integer last = lastSeen.get(parts[0]);
+      int seq = Integer.parseInt(parts[1]);
+      assertEquals(last == null ? 0 : last + 1, seq);
+      lastSeen.put(parts[0], seq);
+    }
+  }
+
+  /**
+   * Test that the events are dropped rather than waited for when the buffer
+   * is full and the drop policy is configured.
+   */
+  @Test(timeout=60000)
+  public void testDropWhenFull() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final RecordingAuditLogger recorder = new RecordingAuditLogger() {
+      @Override
+      public void logAuditEvent(boolean succeeded, String userName,
+          InetAddress addr, String cmd, String src, String dst,
+          FileStatus stat) {
+        try {
+          release.await();
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+        }
+        super.logAuditEvent(succeeded, userName, addr, cmd, src, dst, stat);
+      }
+    };
+    AsyncAuditLogger logger = createLogger(recorder, 4, true);
+    // The consumer holds at most one batch while it is blocked, the buffer
+    // holds four more events, and the rest must be dropped without waiting.
+    for (int i = 0; i < 100; i++) {
+      logEvent(logger, "/" + i);
+    }
+    assertTrue(logger.getDroppedEvents() >= 100 - 2 * 4);
+    release.countDown();
+    logger.close();
+    assertEquals(100, recorder.srcs.size() + logger.getDroppedEvents());
+  }
+
+  /**
+   * Test that the events logged after the logger is closed are passed on
+   * synchronously.
+   */
+  @Test(timeout=60000)
+  public void testLogAfterClose() throws Exception {
+    RecordingAuditLogger recorder = new RecordingAuditLogger();
+    AsyncAuditLogger logger = createLogger(recorder, 16, false);
+    logEvent(logger, "/before");
+    logger.close();
+    logEvent(logger, "/after");
+    assertEquals(2, recorder.srcs.size());
+    assertEquals("/after", recorder.srcs.get(1));
+  }
+
+  /**
+   * Test that no event is lost when the logger is closed while events are
+   * being logged.
+   */
+  @Test(timeout=60000)
+  public void testCloseWhileLogging() throws Exception {
+    for (int round = 0; round < 20; round++) {
+      final RecordingAuditLogger recorder = new RecordingAuditLogger();
+      final AsyncAuditLogger logger = createLogger(recorder, 16, false);
+      final int numThreads = 4;
+      final int numEvents = 1000;
+      final CountDownLatch started = new CountDownLatch(numThreads);
+      List<Thread> threads = new ArrayList<Thread>();
+      for (int t = 0; t < numThreads; t++) {
+        Thread thread = new Thread() {
+          @Override
+          public void run() {
+            started.countDown();
+            for (int i = 0; i < numEvents; i++) {
+              logEvent(logger, "/" + i);
+            }
+          }
+        };
+        threads.add(thread);
+        thread.start();
+      }
+      started.await();
+      logger.close();
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      assertEquals(numThreads * numEvents, recorder.srcs.size());
+      assertEquals(0, logger.getQueueDepth());
+    }
+  }
+
+  /**
+   * Compare the time the handlers spend logging audit events when the
+   * events are formatted and written synchronously, and when they are
+   * handed over to the background thread.
+   */
+  @Test(timeout=300000)
+  public void benchmarkHandlerLatency() throws Exception {
+    final int numThreads = 10;
+    final int numEvents = 20000;
+    AuditLogger sync = new FormattingAuditLogger();
+    AsyncAuditLogger async = createLogger(new FormattingAuditLogger(),
+        8192, false);
+    try {
+      // Warm up.
+      runHandlers(sync, numThreads, numEvents);
+      runHandlers(async, numThreads, numEvents);
+
+      long syncNanos = runHandlers(sync, numThreads, numEvents);
+      long asyncNanos = runHandlers(async, numThreads, numEvents);
+      LOG.info(String.format("Average time per audit event in %d handlers: " +
+          "%d ns synchronously, %d ns asynchronously", numThreads,
+          syncNanos / (numThreads * numEvents),
+          asyncNanos / (numThreads * numEvents)));
+    } finally {
+      async.close();
+    }
+  }
+
+  /**
+   * @return the total time the handlers spent logging the events
+   */
+  private static long runHandlers(final AuditLogger logger, int numThreads,
+      final int numEvents) throws InterruptedException {
+    final long[] elapsed = new long[numThreads];
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < numThreads; t++) {
+      final int id = t;
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          long begin = System.nanoTime();
+          for (int i = 0; i < numEvents; i++) {
+            logEvent(logger, "/dir/file" + i);
+          }
+          elapsed[id] = System.nanoTime() - begin;
+        }
+      };
+      threads.add(thread);
+      thread.start();
+    }
+    long total = 0;
+    for (int t = 0; t < numThreads; t++) {
+      threads.get(t).join();
+      total += elapsed[t];
+    }
+    return total;
+  }
+}
@@ -0,0 +1,198 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.server.namenode.metrics.NameNodeMetrics;
+import org.apache.hadoop.ipc.Server;
+import org.junit.Test;
+
+public class TestFSEditLogAsync {
+
+  private static final int NUM_THREADS = 10;
+  private static final int DIRS_PER_THREAD = 20;
+
+  /**
+   * Create directories from several clients with asynchronous edit log
+   * syncing enabled and check that they survive a NameNode restart.
+   */
+  @Test(timeout = 120000)
+  public void testEditsPersistAcrossRestart() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING, true);
+    MiniDFSCluster cluster = null;
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(0).build();
+      cluster.waitActive();
+      assertTrue(cluster.getNamesystem().getEditLog()
+          instanceof FSEditLogAsync);
+
+      final FileSystem fs = cluster.getFileSystem();
+      final List<Throwable> errors = new ArrayList<Throwable>();
+      List<Thread> threads = new ArrayList<Thread>();
+      for (int i = 0; i < NUM_THREADS; i++) {
+        final int t = i;
+        threads.add(new Thread() {
+          @Override
+          public void run() {
+            try {
+              for (int j = 0; j < DIRS_PER_THREAD; j++) {
+                fs.mkdirs(new Path("/async/t" + t + "/d" + j));
+              }
+            } catch (Throwable e) {
+              synchronized (errors) {
+                errors.add(e);
+              }
+            }
+          }
+        });
+      }
+      for (Thread t : threads) {
+        t.start();
+      }
+      for (Thread t : threads) {
+        t.join();
+      }
+      assertTrue("Errors: " + errors, errors.isEmpty());
+
+      cluster.restartNameNode();
+      FileSystem restarted = cluster.getFileSystem();
+      for (int i = 0; i < NUM_THREADS; i++) {
+        assertEquals(DIRS_PER_THREAD,
+            restarted.listStatus(new Path("/async/t" + i)).length);
+      }
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+
+  /**
+   * Test that logSyncAndWait() returns only once the edits of an RPC
+   * handler are durable, while logSync() hands them off to the sync thread.
+   */
+  @Test(timeout = 120000)
+  public void testLogSyncAndWait() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING, true);
+    MiniDFSCluster cluster = null;
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(0).build();
+      cluster.waitActive();
+      FSEditLog editLog = cluster.getNamesystem().getEditLog();
+
+      // Act as an RPC handler.
+      Server.Call call = mock(Server.Call.class);
+      Server.getCurCall().set(call);
+      try {
+        editLog.logSetReplication("/file", (short) 2);
+        long txid = editLog.getLastWrittenTxId();
+        editLog.logSyncAndWait();
+        assertTrue(editLog.getSyncTxId() >= txid);
+        verify(call, never()).postponeResponse();
+
+        editLog.logSetReplication("/file", (short) 3);
+        txid = editLog.getLastWrittenTxId();
+        editLog.logSync();
+        verify(call).postponeResponse();
+        verify(call, timeout(10000)).sendResponse();
+        assertTrue(editLog.getSyncTxId() >= txid);
+      } finally {
+        Server.getCurCall().set(null);
+      }
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+
+  /**
+   * Test that a call queued for the sync thread is failed, rather than
+   * left waiting, when the thread hits an error after taking the call.
+   */
+  @Test(timeout = 120000)
+  public void testAbortResponseOnSyncThreadError() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_EDITS_ASYNC_LOGGING, true);
+    MiniDFSCluster cluster = null;
+    NameNodeMetrics metrics = null;
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(0).build();
+      cluster.waitActive();
+      FSEditLog editLog = cluster.getNamesystem().getEditLog();
+
+      // Fail the sync thread after it synced the batch.
+      metrics = NameNode.metrics;
+      NameNodeMetrics failingMetrics = spy(metrics);
+      doThrow(new RuntimeException("Injected failure"))
+          .when(failingMetrics).addDeferredSyncBatch(anyInt());
+      NameNode.metrics = failingMetrics;
+
+      Server.Call call = mock(Server.Call.class);
+      Server.getCurCall().set(call);
+      try {
+        editLog.logSetReplication("/file", (short) 2);
+        editLog.logSync();
+        verify(call).postponeResponse();
+        verify(call, timeout(10000)).abortResponse(any(Throwable.class));
+        verify(call, never()).sendResponse();
+      } finally {
+        Server.getCurCall().set(null);
+      }
+
+      // The thread keeps serving the calls queued after the failure.
+      NameNode.metrics = metrics;
+      call = mock(Server.Call.class);
+      Server.getCurCall().set(call);
+      try {
+        editLog.logSetReplication("/file", (short) 3);
+        editLog.logSync();
+        verify(call, timeout(10000)).sendResponse();
+      } finally {
+        Server.getCurCall().set(null);
+      }
+    } finally {
+      if (metrics != null) {
+        NameNode.metrics = metrics;
+      }
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+}
@@ -18,14 +18,17 @@
 package org.apache.hadoop.hdfs.server.namenode;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.EnumSet;
 
 import junit.framework.Assert;
 
+import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.Path;
@@ -38,8 +41,11 @@
 import org.apache.hadoop.hdfs.protocol.HdfsConstants.SafeModeAction;
 import org.apache.hadoop.hdfs.server.blockmanagement.BlockInfo;
 import org.apache.hadoop.hdfs.server.common.HdfsServerConstants.BlockUCState;
+import org.apache.hadoop.hdfs.server.namenode.FSImageFormatProtobuf.SectionName;
+import org.apache.hadoop.hdfs.server.namenode.FsImageProto.FileSummary;
 import org.apache.hadoop.hdfs.server.namenode.LeaseManager.Lease;
 import org.apache.hadoop.hdfs.util.MD5FileUtils;
+import org.apache.hadoop.test.GenericTestUtils.LogCapturer;
 import org.junit.Test;
 
 public class TestFSImage {
@@ -59,6 +65,81 @@ public void testCompression() throws IOException {
     testPersistHelper(conf);
   }
 
+  @Test
+  public void testParallelLoad() throws IOException {
+    Configuration conf = new Configuration();
+    conf.setBoolean(DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY, true);
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_INODE_THRESHOLD_KEY, 1);
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_TARGET_SECTIONS_KEY, 3);
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_THREADS_KEY, 3);
+    LogCapturer logs = LogCapturer.captureLogs(
+        LogFactory.getLog(FSImageFormatPBINode.class));
+    try {
+      testPersistHelper(conf);
+    } finally {
+      logs.stopCapturing();
+    }
+    // The restarted NameNode loaded the image saved with sub-sections.
+    String output = logs.getOutput();
+    assertTrue(output, output.contains(" sub-sections"));
+    assertTrue(output,
+        output.contains("Loading the INodeDirectory section in "));
+  }
+
+  /**
+   * Test that the sub-sections are written apart from the sections, so
+   * that loaders which do not know them never see them.
+   */
+  @Test
+  public void testSubSections() throws IOException {
+    Configuration conf = new Configuration();
+    conf.setBoolean(DFSConfigKeys.DFS_IMAGE_PARALLEL_LOAD_KEY, true);
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_INODE_THRESHOLD_KEY, 1);
+    conf.setInt(DFSConfigKeys.DFS_IMAGE_PARALLEL_TARGET_SECTIONS_KEY, 3);
+    MiniDFSCluster cluster = null;
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(0).build();
+      DistributedFileSystem fs = cluster.getFileSystem();
+      for (int i = 0; i < 10; i++) {
+        fs.mkdirs(new Path("/dir" + i + "/sub"));
+      }
+      fs.setSafeMode(SafeModeAction.SAFEMODE_ENTER);
+      fs.saveNamespace();
+      fs.setSafeMode(SafeModeAction.SAFEMODE_LEAVE);
+      File currentDir = FSImageTestUtil.getNameNodeCurrentDirs(cluster, 0).get(
+          0);
+      File fsimage = FSImageTestUtil.findNewestImageFile(currentDir
+          .getAbsolutePath());
+
+      FileSummary summary;
+      RandomAccessFile raFile = new RandomAccessFile(fsimage, "r");
+      try {
+        summary = FSImageUtil.loadSummary(raFile);
+      } finally {
+        raFile.close();
+      }
+      for (FileSummary.Section s : summary.getSectionsList()) {
+        assertNotNull(s.getName(), SectionName.fromString(s.getName()));
+      }
+      int inodeSubSections = 0;
+      int inodeDirSubSections = 0;
+      for (FileSummary.Section s : summary.getSubSectionsList()) {
+        SectionName name = SectionName.fromString(s.getName());
+        if (name == SectionName.INODE) {
+          inodeSubSections++;
+        } else if (name == SectionName.INODE_DIR) {
+          inodeDirSubSections++;
+        }
+      }
+      assertTrue(inodeSubSections > 1);
+      assertTrue(inodeDirSubSections > 1);
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+
   private void testPersistHelper(Configuration conf) throws IOException {
     MiniDFSCluster cluster = null;
     try {
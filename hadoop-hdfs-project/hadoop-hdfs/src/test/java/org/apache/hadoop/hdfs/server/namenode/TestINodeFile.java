@@ -20,6 +20,8 @@
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -466,6 +468,61 @@ public void testInodeId() throws IOException {
     }
   }
 
+  /**
+   * Test that the inodes are found by id in a compact inode map, as it
+   * grows and after it is loaded from the fsimage.
+   */
+  @Test
+  public void testCompactINodeMap() throws IOException {
+    Configuration conf = new Configuration();
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_INODE_MAP_COMPACT_KEY, true);
+    MiniDFSCluster cluster = null;
+    try {
+      cluster = new MiniDFSCluster.Builder(conf).numDataNodes(0).build();
+      cluster.waitActive();
+      FileSystem fs = cluster.getFileSystem();
+      NamenodeProtocols nnrpc = cluster.getNameNodeRpc();
+
+      // Enough files for the map to be resized several times.
+      final int numFiles = 200;
+      final Path dir = new Path("/testCompactINodeMap");
+      final long[] ids = new long[numFiles];
+      for (int i = 0; i < numFiles; i++) {
+        Path file = new Path(dir, "file" + i);
+        DFSTestUtil.createFile(fs, file, 0, (short) 1, 0);
+        ids[i] = nnrpc.getFileInfo(file.toString()).getFileId();
+      }
+      checkINodesById(cluster.getNamesystem(), ids, numFiles + 2);
+
+      FSNamesystem fsn = cluster.getNamesystem();
+      fsn.enterSafeMode(false);
+      fsn.saveNamespace();
+      fsn.leaveSafeMode();
+      cluster.restartNameNode();
+      cluster.waitActive();
+      checkINodesById(cluster.getNamesystem(), ids, numFiles + 2);
+
+      assertTrue(cluster.getFileSystem().delete(dir, true));
+      fsn = cluster.getNamesystem();
+      assertEquals(1, fsn.dir.getInodeMapSize());
+      assertNull(fsn.dir.getInode(ids[0]));
+    } finally {
+      if (cluster != null) {
+        cluster.shutdown();
+      }
+    }
+  }
+
+  private static void checkINodesById(FSNamesystem fsn, long[] ids,
+      int inodeCount) {
+    assertEquals(inodeCount, fsn.dir.getInodeMapSize());
+    for (int i = 0; i < ids.length; i++) {
+      INode inode = fsn.dir.getInode(ids[i]);
+      assertNotNull(inode);
+      assertEquals("file" + i, inode.getLocalName());
+    }
+  }
+
   @Test
   public void testWriteToRenamedFile() throws IOException {
     Configuration conf = new Configuration();
@@ -0,0 +1,300 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.ContentSummary;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.fs.permission.PermissionStatus;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.DFSUtil;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.Block;
+import org.apache.hadoop.hdfs.server.blockmanagement.BlockInfo;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * Tests the closed files kept in the {@link INodeFileStore}, see
+ * {@link DFSConfigKeys#DFS_NAMENODE_INODE_MAP_COMPACT_FILES_KEY}.
+ */
+public class TestINodeFileStore {
+  private static final short REPLICATION = 1;
+  private static final long SEED = 0L;
+  private static final int FILE_LENGTH = 1024;
+
+  private Configuration conf;
+  private MiniDFSCluster cluster;
+  private DistributedFileSystem fs;
+
+  @Before
+  public void setUp() throws IOException {
+    conf = new HdfsConfiguration();
+    conf.setLong(DFSConfigKeys.DFS_NAMENODE_MIN_BLOCK_SIZE_KEY, 0);
+    conf.setLong(DFSConfigKeys.DFS_BLOCK_SIZE_KEY, 512);
+    conf.setBoolean(DFSConfigKeys.DFS_NAMENODE_INODE_MAP_COMPACT_FILES_KEY,
+        true);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(REPLICATION)
+        .build();
+    cluster.waitActive();
+    fs = cluster.getFileSystem();
+  }
+
+  @After
+  public void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+    }
+  }
+
+  private FSDirectory getFSDirectory() {
+    return cluster.getNamesystem().dir;
+  }
+
+  private void restartNameNode() throws IOException {
+    cluster.restartNameNode();
+    cluster.waitActive();
+    fs = cluster.getFileSystem();
+  }
+
+  private void createFiles(Path dir, int n) throws IOException {
+    for (int i = 0; i < n; i++) {
+      DFSTestUtil.createFile(fs, new Path(dir, "f" + i), FILE_LENGTH,
+          REPLICATION, SEED);
+    }
+  }
+
+  private void checkContent(Path file) throws IOException {
+    final byte[] expected = DFSTestUtil.readFileBuffer(fs,
+        new Path("/expected"));
+    assertArrayEquals(expected, DFSTestUtil.readFileBuffer(fs, file));
+  }
+
+  @Test(timeout=120000)
+  public void testFilesAreCompactedOnRestart() throws Exception {
+    final Path dir = new Path("/dir");
+    createFiles(dir, 10);
+    DFSTestUtil.createFile(fs, new Path("/expected"), FILE_LENGTH,
+        REPLICATION, SEED);
+    // A file under construction is never compacted.
+    final FSDataOutputStream open = fs.create(new Path("/open"));
+    open.write(1);
+    open.hflush();
+    assertEquals(0, getFSDirectory().getCompactFileCount());
+    final int inodes = getFSDirectory().getInodeMapSize();
+
+    restartNameNode();
+    FSDirectory fsdir = getFSDirectory();
+    assertEquals(11, fsdir.getCompactFileCount());
+    assertEquals(inodes, fsdir.getInodeMapSize());
+
+    // Reads see the stored files without expanding them.
+    final FileStatus[] listing = fs.listStatus(dir);
+    assertEquals(10, listing.length);
+    for (FileStatus status : listing) {
+      assertEquals(FILE_LENGTH, status.getLen());
+      assertEquals(REPLICATION, status.getReplication());
+      checkContent(status.getPath());
+    }
+    final ContentSummary summary = fs.getContentSummary(dir);
+    assertEquals(10, summary.getFileCount());
+    assertEquals(10 * FILE_LENGTH, summary.getLength());
+    final long id = cluster.getNameNodeRpc().getFileInfo("/dir/f0")
+        .getFileId();
+    assertNotNull(fsdir.getInode(id));
+    assertEquals(11, fsdir.getCompactFileCount());
+
+    // Updates expand the file they modify.
+    fs.setTimes(new Path(dir, "f1"), 1000L, 2000L);
+    assertEquals(10, fsdir.getCompactFileCount());
+    assertEquals(1000L, fs.getFileStatus(new Path(dir, "f1"))
+        .getModificationTime());
+    fs.setPermission(new Path(dir, "f2"), new FsPermission((short) 0600));
+    assertEquals(9, fsdir.getCompactFileCount());
+    final FSDataOutputStream out = fs.append(new Path(dir, "f3"));
+    out.write(new byte[FILE_LENGTH]);
+    out.close();
+    assertEquals(8, fsdir.getCompactFileCount());
+    assertEquals(2 * FILE_LENGTH,
+        fs.getFileStatus(new Path(dir, "f3")).getLen());
+    assertTrue(fs.rename(new Path(dir, "f4"), new Path("/f4")));
+    assertEquals(7, fsdir.getCompactFileCount());
+    checkContent(new Path("/f4"));
+    assertEquals(inodes, fsdir.getInodeMapSize());
+
+    // Deleting a directory removes its files from the store.
+    final long blocks = cluster.getNamesystem().getBlocksTotal();
+    assertTrue(fs.delete(new Path(dir, "f5"), false));
+    assertEquals(6, fsdir.getCompactFileCount());
+    assertTrue(fs.delete(dir, true));
+    assertEquals(1, fsdir.getCompactFileCount());
+    assertNull(fsdir.getInode(id));
+    assertEquals(inodes - 10, fsdir.getInodeMapSize());
+    // f3 has four blocks after the append, the other eight files two each.
+    assertEquals(blocks - 20, cluster.getNamesystem().getBlocksTotal());
+  }
+
+  @Test(timeout=120000)
+  public void testSaveNamespace() throws Exception {
+    final Path dir = new Path("/dir");
+    createFiles(dir, 5);
+    DFSTestUtil.createFile(fs, new Path("/expected"), FILE_LENGTH,
+        REPLICATION, SEED);
+    restartNameNode();
+    assertEquals(6, getFSDirectory().getCompactFileCount());
+
+    FSNamesystem fsn = cluster.getNamesystem();
+    fsn.enterSafeMode(false);
+    fsn.saveNamespace();
+    fsn.leaveSafeMode();
+    assertEquals(6, getFSDirectory().getCompactFileCount());
+
+    restartNameNode();
+    assertEquals(6, getFSDirectory().getCompactFileCount());
+    for (int i = 0; i < 5; i++) {
+      checkContent(new Path(dir, "f" + i));
+    }
+  }
+
+  @Test(timeout=120000)
+  public void testSnapshotsExpandFiles() throws Exception {
+    final Path dir = new Path("/dir");
+    final Path other = new Path("/other");
+    createFiles(dir, 3);
+    createFiles(new Path(other, "sub"), 2);
+    DFSTestUtil.createFile(fs, new Path("/expected"), FILE_LENGTH,
+        REPLICATION, SEED);
+    restartNameNode();
+    FSDirectory fsdir = getFSDirectory();
+    assertEquals(6, fsdir.getCompactFileCount());
+
+    // Allowing snapshots expands the files of the directory.
+    fs.allowSnapshot(dir);
+    assertEquals(3, fsdir.getCompactFileCount());
+    fs.createSnapshot(dir, "s0");
+    assertTrue(fs.delete(new Path(dir, "f0"), false));
+    checkContent(new Path(dir, ".snapshot/s0/f0"));
+
+    // So does moving a subtree under a snapshottable directory.
+    assertTrue(fs.rename(other, new Path(dir, "other")));
+    assertEquals(1, fsdir.getCompactFileCount());
+    fs.createSnapshot(dir, "s1");
+    assertTrue(fs.delete(new Path(dir, "other"), true));
+    checkContent(new Path(dir, ".snapshot/s1/other/sub/f1"));
+
+    // Files under a snapshottable directory are not compacted on restart.
+    restartNameNode();
+    assertEquals(1, getFSDirectory().getCompactFileCount());
+    checkContent(new Path(dir, ".snapshot/s1/other/sub/f0"));
+  }
+
+  /** Adds and removes many files directly, with the write lock held. */
+  @Test(timeout=60000)
+  public void testAddAndRemove() {
+    final FSNamesystem fsn = Mockito.mock(FSNamesystem.class);
+    Mockito.when(fsn.getWriteHoldCount()).thenReturn(1);
+    final PermissionStatus perm = new PermissionStatus("user", "group",
+        FsPermission.getDefault());
+    final INodeDirectory root = new INodeDirectory(INodeId.ROOT_INODE_ID,
+        DFSUtil.EMPTY_BYTES, perm, 0L);
+    final INodeMap inodeMap = INodeMap.newInstance(root, true);
+    final INodeFileStore store = new INodeFileStore(fsn, inodeMap);
+    inodeMap.setFileStore(store);
+
+    final int n = 5000;
+    final INodeFileFlyweight[] flyweights = new INodeFileFlyweight[n];
+    for (int i = 0; i < n; i++) {
+      final BlockInfo[] blocks = new BlockInfo[i % 3];
+      for (int j = 0; j < blocks.length; j++) {
+        blocks[j] = new BlockInfo(new Block(i * 3 + j, 1000L, i), 3);
+      }
+      final INodeFile file = new INodeFile(1000 + i,
+          DFSUtil.string2Bytes("file" + i), perm, i, i, blocks, (short) 3,
+          1024L);
+      assertTrue(root.addChild(file));
+      inodeMap.put(file);
+      flyweights[i] = store.add(file);
+    }
+    assertEquals(n, store.size());
+    assertEquals(n + 1, inodeMap.size());
+
+    // Remove a random half, then check the rest.
+    final Random random = new Random(0);
+    final boolean[] removed = new boolean[n];
+    for (int i = 0; i < n; i++) {
+      if (random.nextBoolean()) {
+        inodeMap.remove(flyweights[i]);
+        removed[i] = true;
+      }
+    }
+    checkStore(store, flyweights, removed);
+    store.trimToSize();
+    checkStore(store, flyweights, removed);
+
+    // Removed rows are reused.
+    final INodeFile file = new INodeFile(1000 + n, DFSUtil.string2Bytes("new"),
+        perm, 0L, 0L, BlockInfo.EMPTY_ARRAY, (short) 3, 1024L);
+    final INodeFileFlyweight f = store.add(file);
+    assertSame(f, store.get(1000 + n));
+    assertEquals("new", f.getLocalName());
+  }
+
+  private static void checkStore(INodeFileStore store,
+      INodeFileFlyweight[] flyweights, boolean[] removed) {
+    int expected = 0;
+    for (int i = 0; i < flyweights.length; i++) {
+      final INodeFileFlyweight f = store.get(1000 + i);
+      if (removed[i]) {
+        assertNull(f);
+        continue;
+      }
+      expected++;
+      assertSame(flyweights[i], f);
+      assertEquals("file" + i, f.getLocalName());
+      assertEquals(0, f.compareTo(DFSUtil.string2Bytes("file" + i)));
+      assertEquals(i, f.getModificationTime());
+      assertEquals(i % 3, f.numBlocks());
+      for (BlockInfo b : f.getBlocks()) {
+        assertSame(f, b.getBlockCollection());
+        assertEquals(i, b.getGenerationStamp());
+      }
+      assertEquals(3, f.getBlockReplication());
+      assertFalse(f.isUnderConstruction());
+    }
+    assertEquals(expected, store.size());
+  }
+}
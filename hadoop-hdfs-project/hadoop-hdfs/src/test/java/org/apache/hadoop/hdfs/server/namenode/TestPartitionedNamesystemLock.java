@@ -0,0 +1,435 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode;
+
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_BYTES_PER_CHECKSUM_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_FSLOCK_PARTITIONED_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_FSLOCK_PARTITIONED_STRIPES_KEY;
+import static org.apache.hadoop.hdfs.DFSConfigKeys.DFS_NAMENODE_MIN_BLOCK_SIZE_KEY;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.ContentSummary;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.DistributedFileSystem;
+import org.apache.hadoop.hdfs.HdfsConfiguration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.apache.hadoop.hdfs.protocol.NSQuotaExceededException;
+import org.apache.hadoop.hdfs.server.namenode.FSNamesystemLock.ModeGate;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the single inode attribute updates done under the inode stripe
+ * locks, and the file creations, block allocations and file completions
+ * done under the partitioned write lock, when
+ * {@link org.apache.hadoop.hdfs.DFSConfigKeys#DFS_NAMENODE_FSLOCK_PARTITIONED_KEY}
+ * is enabled.
+ */
+public class TestPartitionedNamesystemLock {
+  private static final int NUM_THREADS = 8;
+  private static final int FILES_PER_THREAD = 20;
+  private static final int UPDATES_PER_FILE = 10;
+  private static final int BLOCK_SIZE = 1024;
+  private static final int FILE_LEN = 3 * BLOCK_SIZE - 100;
+
+  private MiniDFSCluster cluster;
+  private DistributedFileSystem fs;
+
+  @Before
+  public void setUp() throws Exception {
+    Configuration conf = new HdfsConfiguration();
+    conf.setBoolean(DFS_NAMENODE_FSLOCK_PARTITIONED_KEY, true);
+    // Few stripes, so that some of the inodes share a lock.
+    conf.setInt(DFS_NAMENODE_FSLOCK_PARTITIONED_STRIPES_KEY, 4);
+    // Small blocks, so that every file gets several blocks.
+    conf.setLong(DFS_NAMENODE_MIN_BLOCK_SIZE_KEY, 0);
+    conf.setInt(DFS_BYTES_PER_CHECKSUM_KEY, BLOCK_SIZE / 2);
+    cluster = new MiniDFSCluster.Builder(conf).numDataNodes(1).build();
+    cluster.waitActive();
+    fs = cluster.getFileSystem();
+  }
+
+  @After
+  public void tearDown() {
+    if (cluster != null) {
+      cluster.shutdown();
+      cluster = null;
+    }
+  }
+
+  @Test
+  public void testINodeLockStriping() {
+    FSNamesystem fsn = cluster.getNamesystem();
+    assertTrue(fsn.isLockPartitioned());
+    assertSame(fsn.getINodeLock(INodeId.ROOT_INODE_ID),
+        fsn.getINodeLock(INodeId.ROOT_INODE_ID));
+    assertSame(fsn.getINodeLock(1), fsn.getINodeLock(5));
+  }
+
+  /**
+   * Test that the concurrent updates of many files are all applied and
+   * logged, in the order each thread made them.
+   */
+  @Test(timeout=120000)
+  public void testConcurrentAttributeUpdates() throws Exception {
+    final Path dir = new Path("/testConcurrentAttributeUpdates");
+    for (int t = 0; t < NUM_THREADS; t++) {
+      for (int f = 0; f < FILES_PER_THREAD; f++) {
+        DFSTestUtil.createFile(fs, getFile(dir, t, f), 0, (short) 1, 0L);
+      }
+    }
+
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < NUM_THREADS; t++) {
+      final int id = t;
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < UPDATES_PER_FILE; i++) {
+              for (int f = 0; f < FILES_PER_THREAD; f++) {
+                Path file = getFile(dir, id, f);
+                fs.setPermission(file, new FsPermission((short) (0600 + i)));
+                fs.setOwner(file, "user" + i, "group" + i);
+                fs.setTimes(file, 1000L + i, 2000L + i);
+              }
+            }
+          } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+          }
+        }
+      };
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    if (failure.get() != null) {
+      throw new AssertionError(failure.get());
+    }
+
+    checkFiles(dir);
+    // The edits must replay to the same state.
+    cluster.restartNameNode();
+    fs = cluster.getFileSystem();
+    checkFiles(dir);
+  }
+
+  /**
+   * Test that an update that has to be recorded in a snapshot is applied
+   * under the write lock and does not change the snapshot copy.
+   */
+  @Test(timeout=120000)
+  public void testUpdateInSnapshot() throws Exception {
+    final Path dir = new Path("/testUpdateInSnapshot");
+    final Path file = new Path(dir, "file");
+    DFSTestUtil.createFile(fs, file, 0, (short) 1, 0L);
+    fs.setPermission(file, new FsPermission((short) 0644));
+    fs.allowSnapshot(dir);
+    Path snapshot = fs.createSnapshot(dir, "s1");
+    Path fileInSnapshot = new Path(snapshot, "file");
+
+    fs.setPermission(file, new FsPermission((short) 0600));
+    fs.setOwner(file, "newuser", "newgroup");
+    fs.setTimes(file, 1000L, 2000L);
+    checkSnapshot(file, fileInSnapshot);
+
+    cluster.restartNameNode();
+    fs = cluster.getFileSystem();
+    checkSnapshot(file, fileInSnapshot);
+  }
+
+  /**
+   * Test that files written concurrently, in separate directories and in a
+   * shared one, are all created with their blocks and closed, and that the
+   * edits replay to the same namespace.
+   */
+  @Test(timeout=120000)
+  public void testConcurrentCreateWriteClose() throws Exception {
+    final Path dir = new Path("/testConcurrentCreateWriteClose");
+    final Path shared = new Path(dir, "shared");
+    fs.mkdirs(shared);
+    for (int t = 0; t < NUM_THREADS; t++) {
+      fs.mkdirs(new Path(dir, "thread" + t));
+    }
+
+    runThreads(new FileAction() {
+      @Override
+      public void run(int thread, int file) throws Exception {
+        DFSTestUtil.createFile(fs, getFile(dir, thread, file), FILE_LEN,
+            FILE_LEN, BLOCK_SIZE, (short) 1, seed(thread, file));
+        DFSTestUtil.createFile(fs, new Path(shared, thread + "-" + file),
+            FILE_LEN, FILE_LEN, BLOCK_SIZE, (short) 1, seed(thread, file));
+      }
+    });
+
+    FSNamesystem fsn = cluster.getNamesystem();
+    assertEquals(0, NameNodeAdapter.getLeaseManager(fsn).countLease());
+    checkWrittenFiles(dir, shared);
+    // The edits must replay to the same state.
+    cluster.restartNameNode();
+    fs = cluster.getFileSystem();
+    checkWrittenFiles(dir, shared);
+  }
+
+  /**
+   * Test that the quota of a directory admits exactly as many files as it
+   * allows when they are created concurrently.
+   */
+  @Test(timeout=120000)
+  public void testConcurrentCreateWithQuota() throws Exception {
+    final Path dir = new Path("/testConcurrentCreateWithQuota");
+    final int allowed = 25;
+    fs.mkdirs(dir);
+    // The quota counts the directory itself.
+    fs.setQuota(dir, allowed + 1, HdfsConstants.QUOTA_DONT_SET);
+
+    final AtomicInteger created = new AtomicInteger();
+    final AtomicInteger rejected = new AtomicInteger();
+    runThreads(new FileAction() {
+      @Override
+      public void run(int thread, int file) throws Exception {
+        try {
+          fs.create(new Path(dir, thread + "-" + file)).close();
+          created.incrementAndGet();
+        } catch (NSQuotaExceededException e) {
+          rejected.incrementAndGet();
+        }
+      }
+    });
+
+    assertEquals(allowed, created.get());
+    assertEquals(NUM_THREADS * FILES_PER_THREAD - allowed, rejected.get());
+    ContentSummary summary = fs.getContentSummary(dir);
+    assertEquals(allowed, summary.getFileCount());
+    assertEquals(allowed, fs.listStatus(dir).length);
+  }
+
+  /**
+   * Test that the creation of a file that has to be recorded in a snapshot,
+   * or whose parent does not exist, falls back to the write lock.
+   */
+  @Test(timeout=120000)
+  public void testCreateAndCloseInSnapshot() throws Exception {
+    final Path dir = new Path("/testCreateAndCloseInSnapshot");
+    fs.mkdirs(dir);
+    fs.allowSnapshot(dir);
+    Path snapshot = fs.createSnapshot(dir, "s1");
+    Path file = new Path(dir, "a/b/file");
+    DFSTestUtil.createFile(fs, file, FILE_LEN, FILE_LEN, BLOCK_SIZE,
+        (short) 1, 0L);
+    assertEquals(FILE_LEN, fs.getFileStatus(file).getLen());
+    assertFalse(fs.exists(new Path(snapshot, "a")));
+
+    cluster.restartNameNode();
+    fs = cluster.getFileSystem();
+    assertEquals(FILE_LEN, fs.getFileStatus(file).getLen());
+    assertFalse(fs.exists(new Path(snapshot, "a")));
+  }
+
+  /**
+   * Test that readers and partitioned writers exclude each other, and that
+   * a waiting mode gets its turn before new threads of the other mode.
+   */
+  @Test(timeout=60000)
+  public void testModeGate() throws Exception {
+    final ModeGate gate = new ModeGate();
+    final CountDownLatch readerIn = new CountDownLatch(1);
+    final CountDownLatch readerOut = new CountDownLatch(1);
+    final AtomicInteger writers = new AtomicInteger();
+    final AtomicInteger readers = new AtomicInteger();
+
+    Thread reader = new Thread() {
+      @Override
+      public void run() {
+        gate.enter(ModeGate.READERS);
+        readers.incrementAndGet();
+        // A holder may enter again, in either mode it holds.
+        gate.enter(ModeGate.READERS);
+        gate.leave(ModeGate.READERS);
+        readerIn.countDown();
+        try {
+          readerOut.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        readers.decrementAndGet();
+        gate.leave(ModeGate.READERS);
+      }
+    };
+    reader.start();
+    readerIn.await();
+
+    final CountDownLatch writersDone = new CountDownLatch(2);
+    final AtomicReference<String> error = new AtomicReference<String>();
+    for (int i = 0; i < 2; i++) {
+      new Thread() {
+        @Override
+        public void run() {
+          gate.enter(ModeGate.PARTITIONED_WRITERS);
+          if (readers.get() != 0) {
+            error.compareAndSet(null, "Writer entered with a reader");
+          }
+          writers.incrementAndGet();
+          gate.enter(ModeGate.READERS);
+          gate.leave(ModeGate.READERS);
+          writers.decrementAndGet();
+          gate.leave(ModeGate.PARTITIONED_WRITERS);
+          writersDone.countDown();
+        }
+      }.start();
+    }
+    // Wait for the writers to queue up behind the reader.
+    while (gate.getWaiting(ModeGate.PARTITIONED_WRITERS) < 2) {
+      Thread.sleep(10);
+    }
+
+    // A new reader waits for the turn of the writers.
+    final CountDownLatch lateReaderIn = new CountDownLatch(1);
+    Thread lateReader = new Thread() {
+      @Override
+      public void run() {
+        gate.enter(ModeGate.READERS);
+        if (writers.get() != 0) {
+          error.compareAndSet(null, "Reader entered with a writer");
+        }
+        lateReaderIn.countDown();
+        gate.leave(ModeGate.READERS);
+      }
+    };
+    lateReader.start();
+    while (gate.getWaiting(ModeGate.READERS) < 1) {
+      Thread.sleep(10);
+    }
+    assertEquals(1, lateReaderIn.getCount());
+    assertEquals(2, writersDone.getCount());
+
+    readerOut.countDown();
+    writersDone.await();
+    lateReaderIn.await();
+    reader.join();
+    lateReader.join();
+    assertEquals(null, error.get());
+  }
+
+  /** An action of a test thread on one of its files. */
+  private interface FileAction {
+    void run(int thread, int file) throws Exception;
+  }
+
+  /**
+   * Run the action on all the files of each thread, from a thread of its
+   * own, and rethrow the first failure.
+   */
+  private static void runThreads(final FileAction action) throws Exception {
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < NUM_THREADS; t++) {
+      final int id = t;
+      Thread thread = new Thread() {
+        @Override
+        public void run() {
+          try {
+            for (int f = 0; f < FILES_PER_THREAD; f++) {
+              action.run(id, f);
+            }
+          } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+          }
+        }
+      };
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    if (failure.get() != null) {
+      throw new AssertionError(failure.get());
+    }
+  }
+
+  private static long seed(int thread, int file) {
+    return thread * FILES_PER_THREAD + file;
+  }
+
+  private void checkWrittenFiles(Path dir, Path shared) throws Exception {
+    assertEquals(NUM_THREADS * FILES_PER_THREAD, fs.listStatus(shared).length);
+    for (int t = 0; t < NUM_THREADS; t++) {
+      for (int f = 0; f < FILES_PER_THREAD; f++) {
+        byte[] expected =
+            DFSTestUtil.calculateFileContentsFromSeed(seed(t, f), FILE_LEN);
+        Path file = getFile(dir, t, f);
+        assertArrayEquals(expected, DFSTestUtil.readFileBuffer(fs, file));
+        assertEquals(3, fs.getFileBlockLocations(file, 0, FILE_LEN).length);
+        assertArrayEquals(expected, DFSTestUtil.readFileBuffer(fs,
+            new Path(shared, t + "-" + f)));
+      }
+    }
+  }
+
+  private void checkSnapshot(Path file, Path fileInSnapshot)
+      throws Exception {
+    FileStatus current = fs.getFileStatus(file);
+    assertEquals(new FsPermission((short) 0600), current.getPermission());
+    assertEquals("newuser", current.getOwner());
+    assertEquals("newgroup", current.getGroup());
+    assertEquals(1000L, current.getModificationTime());
+    assertEquals(2000L, current.getAccessTime());
+    FileStatus old = fs.getFileStatus(fileInSnapshot);
+    assertEquals(new FsPermission((short) 0644), old.getPermission());
+    assertTrue(old.getModificationTime() != 1000L);
+  }
+
+  private static Path getFile(Path dir, int thread, int file) {
+    return new Path(dir, "thread" + thread + "/file" + file);
+  }
+
+  private void checkFiles(Path dir) throws Exception {
+    int last = UPDATES_PER_FILE - 1;
+    for (int t = 0; t < NUM_THREADS; t++) {
+      for (int f = 0; f < FILES_PER_THREAD; f++) {
+        FileStatus status = fs.getFileStatus(getFile(dir, t, f));
+        assertEquals(new FsPermission((short) (0600 + last)),
+            status.getPermission());
+        assertEquals("user" + last, status.getOwner());
+        assertEquals("group" + last, status.getGroup());
+        assertEquals(1000L + last, status.getModificationTime());
+        assertEquals(2000L + last, status.getAccessTime());
+      }
+    }
+  }
+}
@@ -0,0 +1,147 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.server.namenode.ha;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.hdfs.DFSTestUtil;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.MiniDFSNNTopology;
+import org.apache.hadoop.hdfs.protocolPB.DatanodeProtocolClientSideTranslatorPB;
+import org.apache.hadoop.hdfs.server.datanode.DataNodeTestUtils;
+import org.apache.hadoop.hdfs.server.namenode.NameNode;
+import org.apache.hadoop.hdfs.server.protocol.DatanodeRegistration;
+import org.apache.hadoop.hdfs.server.protocol.StorageReceivedDeletedBlocks;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * Test the reads of the clients served by the standby NameNode.
+ */
+public class TestStandbyReads {
+  private static Configuration createConf() {
+    Configuration conf = new Configuration();
+    conf.setInt(DFSConfigKeys.DFS_HA_TAILEDITS_PERIOD_KEY, 1);
+    conf.setBoolean(DFSConfigKeys.DFS_HA_STANDBY_READS_ENABLED_KEY, true);
+    conf.setLong(DFSConfigKeys.DFS_HA_STANDBY_READS_MAX_WAIT_MS_KEY, 100);
+    return conf;
+  }
+
+  /** @return a client which reads from the standby NameNode */
+  private static FileSystem createClient(MiniDFSCluster cluster,
+      Configuration conf) throws Exception {
+    Configuration clientConf = new Configuration(conf);
+    String logicalName = HATestUtil.getLogicalHostname(cluster);
+    HATestUtil.setFailoverConfigurations(cluster, clientConf, logicalName);
+    clientConf.set(DFSConfigKeys.DFS_CLIENT_FAILOVER_PROXY_PROVIDER_KEY_PREFIX
+        + "." + logicalName, StandbyReadProxyProvider.class.getName());
+    return FileSystem.newInstance(new URI("hdfs://" + logicalName),
+        clientConf);
+  }
+
+  @Test(timeout=120000)
+  public void testStandbyReads() throws Exception {
+    Configuration conf = createConf();
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
+        .nnTopology(MiniDFSNNTopology.simpleHATopology())
+        .numDataNodes(0)
+        .build();
+    FileSystem fs = null;
+    try {
+      cluster.waitActive();
+      cluster.transitionToActive(0);
+      NameNode active = cluster.getNameNode(0);
+      NameNode standby = cluster.getNameNode(1);
+      fs = createClient(cluster, conf);
+
+      Path caughtUp = new Path("/caughtUp");
+      fs.mkdirs(caughtUp);
+      HATestUtil.waitForStandbyToCatchUp(active, standby);
+
+      // the standby has not loaded this directory, so the client which has
+      // created it must not read from the standby
+      Path lagging = new Path("/lagging");
+      fs.mkdirs(lagging);
+      assertTrue(standby.getNamesystem().getFSImage().getLastAppliedTxId()
+          < active.getNamesystem().getFSImage().getLastAppliedOrWrittenTxId());
+      assertTrue(fs.getFileStatus(lagging).isDirectory());
+      assertTrue(fs.getFileStatus(caughtUp).isDirectory());
+
+      // the reads go to the standby once it has caught up
+      HATestUtil.waitForStandbyToCatchUp(active, standby);
+      cluster.shutdownNameNode(0);
+      assertTrue(fs.getFileStatus(caughtUp).isDirectory());
+      assertTrue(fs.getFileStatus(lagging).isDirectory());
+    } finally {
+      if (fs != null) {
+        fs.close();
+      }
+      cluster.shutdown();
+    }
+  }
+
+  /**
+   * Test that a client reads a file from the active NameNode while the
+   * standby has not received the locations of its blocks.
+   */
+  @Test(timeout=120000)
+  public void testStandbyWithoutBlockLocations() throws Exception {
+    Configuration conf = createConf();
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
+        .nnTopology(MiniDFSNNTopology.simpleHATopology())
+        .numDataNodes(1)
+        .build();
+    FileSystem fs = null;
+    try {
+      cluster.waitActive();
+      cluster.transitionToActive(0);
+      NameNode active = cluster.getNameNode(0);
+      NameNode standby = cluster.getNameNode(1);
+
+      // the standby does not receive the incremental block reports
+      DatanodeProtocolClientSideTranslatorPB spy =
+          DataNodeTestUtils.spyOnBposToNN(cluster.getDataNodes().get(0),
+              standby);
+      Mockito.doNothing().when(spy).blockReceivedAndDeleted(
+          Mockito.<DatanodeRegistration>anyObject(), Mockito.anyString(),
+          Mockito.<StorageReceivedDeletedBlocks[]>anyObject());
+
+      fs = createClient(cluster, conf);
+      Path file = new Path("/file");
+      DFSTestUtil.createFile(fs, file, 1024, (short)1, 0);
+      HATestUtil.waitForStandbyToCatchUp(active, standby);
+      assertEquals(0, standby.getNamesystem().getBlockManager()
+          .getStoredBlock(DFSTestUtil.getFirstBlock(fs, file)
+              .getLocalBlock()).numNodes());
+
+      assertEquals(1024, DFSTestUtil.readFileBuffer(fs, file).length);
+    } finally {
+      if (fs != null) {
+        fs.close();
+      }
+      cluster.shutdown();
+    }
+  }
+}
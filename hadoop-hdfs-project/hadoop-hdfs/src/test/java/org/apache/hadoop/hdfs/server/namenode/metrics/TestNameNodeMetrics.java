@@ -45,10 +45,12 @@
 import org.apache.hadoop.hdfs.server.datanode.DataNode;
 import org.apache.hadoop.hdfs.server.datanode.DataNodeTestUtils;
 import org.apache.hadoop.hdfs.server.namenode.FSNamesystem;
+import org.apache.hadoop.hdfs.server.namenode.NameNode;
 import org.apache.hadoop.hdfs.server.namenode.NameNodeAdapter;
 import org.apache.hadoop.metrics2.MetricsRecordBuilder;
 import org.apache.hadoop.metrics2.MetricsSource;
 import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.test.GenericTestUtils;
 import org.apache.hadoop.test.MetricsAsserts;
 import org.apache.hadoop.util.Time;
 import org.apache.log4j.Level;
@@ -56,6 +58,8 @@
 import org.junit.Before;
 import org.junit.Test;
 
+import com.google.common.base.Supplier;
+
 /**
  * Test for metrics published by the Namenode
  */
@@ -444,6 +448,10 @@ public void testSyncAndBlockReportMetric() throws Exception {
     // Each datanode reports in when the cluster comes up
     assertCounter("BlockReportNumOps",
                   (long)DATANODE_COUNT*MiniDFSCluster.DIRS_PER_DATANODE, rb);
+    assertCounter("StorageBlockReportNumOps",
+                  (long)DATANODE_COUNT*MiniDFSCluster.DIRS_PER_DATANODE, rb);
+    assertCounter("BlockReportBatches",
+                  (long)DATANODE_COUNT*MiniDFSCluster.DIRS_PER_DATANODE, rb);
     
     // Sleep for an interval+slop to let the percentiles rollover
     Thread.sleep((PERCENTILES_INTERVAL+1)*1000);
@@ -451,5 +459,36 @@ public void testSyncAndBlockReportMetric() throws Exception {
     // Check that the percentiles were updated
     assertQuantileGauges("Syncs1s", rb);
     assertQuantileGauges("BlockReport1s", rb);
+    assertQuantileGauges("StorageBlockReport1s", rb);
+  }
+
+  /**
+   * Test that every batch of the initial block reports is counted.
+   */
+  @Test
+  public void testBatchedBlockReportMetrics() throws Exception {
+    final int numBlocks = 10;
+    DFSTestUtil.createFile(fs, getTestPath("testBatchedBlockReportMetrics"),
+        numBlocks * 100, (short) DATANODE_COUNT, 0L);
+
+    // Restart the NameNode so that it processes the reports in batches of
+    // a single block.
+    cluster.getConfiguration(0).setInt(
+        DFSConfigKeys.DFS_NAMENODE_INITIAL_BLOCK_REPORT_BATCH_SIZE_KEY, 1);
+    cluster.restartNameNode();
+    cluster.getConfiguration(0).unset(
+        DFSConfigKeys.DFS_NAMENODE_INITIAL_BLOCK_REPORT_BATCH_SIZE_KEY);
+
+    // The metrics source registered by the first NameNode is still around,
+    // so read the counter of the restarted one directly. Every replica is
+    // a batch of its own.
+    final NameNodeMetrics metrics = NameNode.getNameNodeMetrics();
+    GenericTestUtils.waitFor(new Supplier<Boolean>() {
+      @Override
+      public Boolean get() {
+        return metrics.blockReportBatches.value()
+            >= numBlocks * DATANODE_COUNT;
+      }
+    }, 100, 60000);
   }
 }
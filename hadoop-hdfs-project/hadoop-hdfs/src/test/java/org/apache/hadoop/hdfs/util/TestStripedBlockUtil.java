@@ -0,0 +1,115 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.hdfs.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.hadoop.hdfs.protocol.ErasureCodingPolicy;
+import org.junit.Test;
+
+public class TestStripedBlockUtil {
+  private static final ErasureCodingPolicy EC_POLICY =
+      ErasureCodingPolicy.RS_3_2;
+  private static final int CELL_SIZE = EC_POLICY.getCellSize();
+  private static final int NUM_DATA_UNITS = EC_POLICY.getNumDataUnits();
+  private static final int NUM_UNITS = EC_POLICY.getNumUnits();
+  private static final long STRIPE_LENGTH = CELL_SIZE * NUM_DATA_UNITS;
+
+  private static final long[] GROUP_LENGTHS = {0, 1, CELL_SIZE - 1, CELL_SIZE,
+      CELL_SIZE + 1, 2 * CELL_SIZE + 7, STRIPE_LENGTH - 1, STRIPE_LENGTH,
+      STRIPE_LENGTH + 1, 3 * STRIPE_LENGTH + CELL_SIZE * 2 + 5};
+
+  @Test
+  public void testInternalBlockLength() {
+    assertEquals(0, StripedBlockUtil.getInternalBlockLength(0, EC_POLICY, 0));
+    // One partial cell: the first data unit and every parity unit hold it.
+    assertEquals(1, StripedBlockUtil.getInternalBlockLength(1, EC_POLICY, 0));
+    assertEquals(0, StripedBlockUtil.getInternalBlockLength(1, EC_POLICY, 1));
+    assertEquals(1, StripedBlockUtil.getInternalBlockLength(1, EC_POLICY,
+        NUM_UNITS - 1));
+    // A full stripe and one more cell and a half.
+    final long length = STRIPE_LENGTH + CELL_SIZE + CELL_SIZE / 2;
+    assertEquals(2 * CELL_SIZE,
+        StripedBlockUtil.getInternalBlockLength(length, EC_POLICY, 0));
+    assertEquals(CELL_SIZE + CELL_SIZE / 2,
+        StripedBlockUtil.getInternalBlockLength(length, EC_POLICY, 1));
+    assertEquals(CELL_SIZE,
+        StripedBlockUtil.getInternalBlockLength(length, EC_POLICY, 2));
+    assertEquals(2 * CELL_SIZE,
+        StripedBlockUtil.getInternalBlockLength(length, EC_POLICY, 3));
+
+    // The data units hold exactly the data of the group, and no parity unit
+    // is longer than the first data unit.
+    for (long groupLength : GROUP_LENGTHS) {
+      long sum = 0;
+      for (int unit = 0; unit < NUM_DATA_UNITS; unit++) {
+        sum += StripedBlockUtil.getInternalBlockLength(groupLength,
+            EC_POLICY, unit);
+      }
+      assertEquals(groupLength, sum);
+      for (int unit = NUM_DATA_UNITS; unit < NUM_UNITS; unit++) {
+        assertEquals(
+            StripedBlockUtil.getInternalBlockLength(groupLength, EC_POLICY, 0),
+            StripedBlockUtil.getInternalBlockLength(groupLength, EC_POLICY,
+                unit));
+      }
+    }
+  }
+
+  @Test
+  public void testCellLength() {
+    for (long groupLength : GROUP_LENGTHS) {
+      final long numStripes =
+          StripedBlockUtil.getNumStripes(groupLength, EC_POLICY);
+      assertEquals((groupLength + STRIPE_LENGTH - 1) / STRIPE_LENGTH,
+          numStripes);
+      for (int unit = 0; unit < NUM_UNITS; unit++) {
+        long sum = 0;
+        for (long stripe = 0; stripe < numStripes; stripe++) {
+          final int cellLength = StripedBlockUtil.getCellLength(groupLength,
+              EC_POLICY, stripe, unit);
+          if (stripe < numStripes - 1) {
+            assertEquals(CELL_SIZE, cellLength);
+          }
+          sum += cellLength;
+        }
+        assertEquals(StripedBlockUtil.getInternalBlockLength(groupLength,
+            EC_POLICY, unit), sum);
+      }
+    }
+  }
+
+  @Test
+  public void testDataOffsets() {
+    final long groupLength = GROUP_LENGTHS[GROUP_LENGTHS.length - 1];
+    // Walk the group and check that every byte maps to the next free byte
+    // of its unit.
+    final long[] next = new long[NUM_DATA_UNITS];
+    for (long off = 0; off < groupLength; off++) {
+      final int unit = StripedBlockUtil.getUnit(off, EC_POLICY);
+      assertEquals(off / STRIPE_LENGTH,
+          StripedBlockUtil.getStripe(off, EC_POLICY));
+      assertEquals(next[unit]++,
+          StripedBlockUtil.getOffsetInUnit(off, EC_POLICY));
+    }
+    for (int unit = 0; unit < NUM_DATA_UNITS; unit++) {
+      assertEquals(StripedBlockUtil.getInternalBlockLength(groupLength,
+          EC_POLICY, unit), next[unit]);
+    }
+  }
+}
@@ -0,0 +1,52 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs;
+
+import static org.junit.Assert.*;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.util.ToolRunner;
+import org.junit.Test;
+
+
+public class TestWriteThroughputBenchmark {
+
+  @Test(timeout=120000)
+  public void testBenchmark() throws Exception {
+    Configuration conf = new Configuration();
+    MiniDFSCluster cluster = new MiniDFSCluster.Builder(conf)
+        .numDataNodes(1).build();
+    try {
+      int rc = ToolRunner.run(conf, new WriteThroughputBenchmark(),
+          new String[] {
+        "--sizeMB", "8",
+        "--replication", "1"});
+      assertEquals(0, rc);
+      rc = ToolRunner.run(conf, new WriteThroughputBenchmark(),
+          new String[] {
+        "--sizeMB", "8",
+        "--replication", "1",
+        "--checksumThreads", "2",
+        "--reusePacketBuffers"});
+      assertEquals(0, rc);
+    } finally {
+      cluster.shutdown();
+    }
+  }
+}
@@ -0,0 +1,229 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.fs;
+
+import java.util.Random;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hdfs.DFSConfigKeys;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+import com.google.common.base.Joiner;
+
+/**
+ * Benchmark for the write throughput of a single output stream of the
+ * default file system. Unlike {@link TestDFSIO}, it runs no MapReduce job:
+ * one thread writes one file, so the result shows how fast the client
+ * itself can push data, e.g. with and without the DFSClient checksum pool.
+ * Run with --help option for usage.
+ */
+public class WriteThroughputBenchmark implements Tool {
+  private Configuration conf;
+
+  private static class MyOptions {
+    private boolean failed = false;
+    private String file = "/benchmarks/WriteThroughputBenchmark/data";
+    private int sizeMB = 1024;
+    private int bufferSize = 64 * 1024;
+    private short replication = 3;
+    private int checksumThreads = 0;
+    private boolean reusePacketBuffers = false;
+
+    private MyOptions(String args[]) {
+      try {
+        Options opts = buildOptions();
+        CommandLineParser parser = new GnuParser();
+        CommandLine line = parser.parse(opts, args, true);
+        processOptions(line, opts);
+        validateOptions();
+      } catch (ParseException e) {
+        System.err.println(e.getMessage());
+        System.err.println("Try \"--help\" option for details.");
+        failed = true;
+      }
+    }
+
+    private void validateOptions() throws ParseException {
+      if (sizeMB <= 0 || bufferSize <= 0 || replication <= 0) {
+        throw new ParseException("Size, buffer size and replication must " +
+            "be positive");
+      }
+      if (checksumThreads < 0) {
+        throw new ParseException("Checksum threads must not be negative");
+      }
+    }
+
+    @SuppressWarnings("static-access")
+    private Options buildOptions() {
+      Options opts = new Options();
+      opts.addOption(
+        OptionBuilder.withLongOpt("file").hasArg(true)
+        .withArgName("path")
+        .withDescription("file to write; it is deleted afterwards")
+        .create("f"));
+      opts.addOption(
+        OptionBuilder.withLongOpt("sizeMB").hasArg(true)
+        .withArgName("MB")
+        .withDescription("amount of data to write")
+        .create("s"));
+      opts.addOption(
+        OptionBuilder.withLongOpt("bufferSize").hasArg(true)
+        .withArgName("bytes")
+        .withDescription("size of each write call")
+        .create("b"));
+      opts.addOption(
+        OptionBuilder.withLongOpt("replication").hasArg(true)
+        .withArgName("count")
+        .withDescription("replication of the file")
+        .create("r"));
+      opts.addOption(
+        OptionBuilder.withLongOpt("checksumThreads").hasArg(true)
+        .withArgName("count")
+        .withDescription("threads computing packet checksums; 0 computes " +
+            "them on the writing thread")
+        .create("c"));
+      opts.addOption(
+        OptionBuilder.withLongOpt("reusePacketBuffers").hasArg(false)
+        .withDescription("reuse the buffers of acknowledged packets")
+        .create("p"));
+      opts.addOption(
+          OptionBuilder.withLongOpt("help").hasArg(false)
+          .withDescription("show this screen")
+          .create('?'));
+      return opts;
+    }
+
+    private void processOptions(CommandLine line, Options opts)
+      throws ParseException {
+      if (line.hasOption("help") || line.hasOption('?')) {
+        HelpFormatter formatter = new HelpFormatter();
+        System.out.println("Single stream write benchmark.");
+        System.out.println();
+        formatter.printHelp(100,
+            "java ... WriteThroughputBenchmark [options]",
+            "\nSupported options:", opts, "");
+        return;
+      }
+      if (line.hasOption('f')) {
+        file = line.getOptionValue('f');
+      }
+      if (line.hasOption('s')) {
+        sizeMB = Integer.parseInt(line.getOptionValue('s'));
+      }
+      if (line.hasOption('b')) {
+        bufferSize = Integer.parseInt(line.getOptionValue('b'));
+      }
+      if (line.hasOption('r')) {
+        replication = Short.parseShort(line.getOptionValue('r'));
+      }
+      if (line.hasOption('c')) {
+        checksumThreads = Integer.parseInt(line.getOptionValue('c'));
+      }
+      reusePacketBuffers = line.hasOption('p');
+      String[] remainingArgs = line.getArgs();
+      if (remainingArgs.length != 0) {
+        throw new ParseException("Extra arguments: " +
+            Joiner.on(" ").join(remainingArgs));
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "file=" + file + "\nsizeMB=" + sizeMB
+          + "\nbufferSize=" + bufferSize + "\nreplication=" + replication
+          + "\nchecksumThreads=" + checksumThreads
+          + "\nreusePacketBuffers=" + reusePacketBuffers;
+    }
+  }
+
+  @Override
+  public int run(String[] args) throws Exception {
+    MyOptions opts = new MyOptions(args);
+    if (opts.failed) {
+      return -1;
+    }
+    Configuration benchConf = new Configuration(getConf());
+    benchConf.setInt(
+        DFSConfigKeys.DFS_CLIENT_WRITE_CHECKSUM_THREADPOOL_SIZE_KEY,
+        opts.checksumThreads);
+    benchConf.setBoolean(
+        DFSConfigKeys.DFS_CLIENT_WRITE_REUSE_PACKET_BUFFERS_KEY,
+        opts.reusePacketBuffers);
+
+    byte[] buf = new byte[opts.bufferSize];
+    new Random().nextBytes(buf);
+    long totalBytes = opts.sizeMB * 1024L * 1024L;
+    Path file = new Path(opts.file);
+
+    // a new instance, so that the options above are not ignored in favour
+    // of a cached client
+    FileSystem fs = FileSystem.newInstance(benchConf);
+    try {
+      long start = System.nanoTime();
+      FSDataOutputStream out = fs.create(file, true, opts.bufferSize,
+          opts.replication, fs.getDefaultBlockSize(file));
+      try {
+        for (long written = 0; written < totalBytes; ) {
+          int n = (int) Math.min(buf.length, totalBytes - written);
+          out.write(buf, 0, n);
+          written += n;
+        }
+      } finally {
+        out.close();
+      }
+      long nanos = System.nanoTime() - start;
+
+      System.out.println("====== Results ======");
+      System.out.println("Options:\n" + opts);
+      System.out.println("Write throughput: "
+          + mbPerSecond(totalBytes, nanos) + " MB/s");
+      fs.delete(file, false);
+    } finally {
+      fs.close();
+    }
+    return 0;
+  }
+
+  private static String mbPerSecond(long bytes, long nanos) {
+    return String.format("%.1f",
+        (bytes / (1024.0 * 1024.0)) / (Math.max(1, nanos) / 1e9));
+  }
+
+  public static void main(String []args) throws Exception {
+    int rc = ToolRunner.run(new WriteThroughputBenchmark(), args);
+    System.exit(rc);
+  }
+
+  @Override
+  public void setConf(Configuration conf) {
+    this.conf = conf;
+  }
+
+  @Override
+  public Configuration getConf() {
+    return conf;
+  }
+}
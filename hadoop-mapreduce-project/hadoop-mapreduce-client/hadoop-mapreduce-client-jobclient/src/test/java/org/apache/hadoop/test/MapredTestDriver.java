@@ -37,6 +37,7 @@
 import org.apache.hadoop.hdfs.NNBench;
 import org.apache.hadoop.fs.TestFileSystem;
 import org.apache.hadoop.fs.TestDFSIO;
+import org.apache.hadoop.fs.WriteThroughputBenchmark;
 import org.apache.hadoop.fs.DFSCIOTest;
 import org.apache.hadoop.fs.DistributedFSCheck;
 import org.apache.hadoop.io.FileBench;
@@ -91,6 +92,8 @@ public MapredTestDriver(ProgramDriver pgd) {
           "A test for FileSystem read/write.");
       pgd.addClass(TestDFSIO.class.getSimpleName(), TestDFSIO.class, 
           "Distributed i/o benchmark.");
+      pgd.addClass("writethroughput", WriteThroughputBenchmark.class,
+          "Single stream write benchmark of the default file system.");
       pgd.addClass("DFSCIOTest", DFSCIOTest.class, "" +
           "Distributed i/o benchmark of libhdfs.");
       pgd.addClass("DistributedFSCheck", DistributedFSCheck.class, 